@@ -44,7 +44,7 @@ import com.facebook.buck.step.fs.MkdirStep;
 import com.facebook.buck.unarchive.UnzipStep;
 import com.facebook.buck.util.MoreSuppliers;
 import com.facebook.buck.util.stream.RichStream;
-import com.facebook.buck.zip.RepackZipEntriesStep;
+import com.facebook.buck.zip.ParallelRepackZipEntriesStep;
 import com.facebook.buck.zip.ZipScrubberStep;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
@@ -321,17 +321,18 @@ class AndroidBinaryBuildable implements AddsToRuleKey {
               modulesInfo.build()));
     }
 
-    // The `ApkBuilderStep` delegates to android tools to build a ZIP with timestamps in it, making
-    // the output non-deterministic.  So use an additional scrubbing step to zero these out.
-    steps.add(ZipScrubberStep.of(getProjectFilesystem().resolve(signedApkPath)));
-
     Path apkToRedexAndAlign;
     // Optionally, compress the resources file in the .apk.
     if (isCompressResources) {
       Path compressedApkPath = getCompressedResourcesApkPath();
       apkToRedexAndAlign = compressedApkPath;
+      // Repacking rewrites the archive deterministically, so no scrubbing is needed here.
       steps.add(createRepackZipEntriesStep(signedApkPath, compressedApkPath));
     } else {
+      // The `ApkBuilderStep` delegates to android tools to build a ZIP with timestamps in it,
+      // making the output non-deterministic.  So use an additional scrubbing step to zero these
+      // out.
+      steps.add(ZipScrubberStep.of(getProjectFilesystem().resolve(signedApkPath)));
       apkToRedexAndAlign = signedApkPath;
     }
 
@@ -724,9 +725,9 @@ class AndroidBinaryBuildable implements AddsToRuleKey {
         });
   }
 
-  private RepackZipEntriesStep createRepackZipEntriesStep(
+  private ParallelRepackZipEntriesStep createRepackZipEntriesStep(
       Path signedApkPath, Path compressedApkPath) {
-    return new RepackZipEntriesStep(
+    return new ParallelRepackZipEntriesStep(
         getProjectFilesystem(),
         signedApkPath,
         compressedApkPath,
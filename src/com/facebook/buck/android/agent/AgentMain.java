@@ -17,6 +17,7 @@
 package com.facebook.buck.android.agent;
 
 import com.facebook.buck.android.agent.util.AgentUtil;
+import com.facebook.buck.android.agent.util.DeltaPatch;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -236,6 +237,29 @@ public class AgentMain {
     }
   }
 
+  /**
+   * Receives a {@link DeltaPatch} and applies it to {@code base}, which must already be on the
+   * device, to produce {@code path}.
+   */
+  private static void doReceivePatch(File base, File path, int size, InputStream clientInput)
+      throws IOException {
+    File patch =
+        new File(path.getParentFile(), AgentUtil.TEMP_PREFIX + path.getName() + "-patch.tmp");
+    doRawReceiveFile(patch, size, clientInput);
+    try {
+      File tempfile =
+          File.createTempFile(
+              AgentUtil.TEMP_PREFIX + path.getName() + "-", ".tmp", path.getParentFile());
+      DeltaPatch.apply(base, patch, tempfile);
+      boolean success = tempfile.renameTo(path);
+      if (!success) {
+        throw new RuntimeException("Failed to rename temp file.");
+      }
+    } finally {
+      patch.delete();
+    }
+  }
+
   private static void doMultiReceiveFile(List<String> userArgs) throws IOException {
     if (userArgs.size() != 3) {
       throw new IllegalArgumentException("usage: multi-receive-file IP PORT NONCE");
@@ -306,6 +330,19 @@ public class AgentMain {
       if (size == 0 && fileName.equals("--complete")) {
         break;
       }
+      if (fileName.startsWith(DeltaPatch.PATCH_COMMAND + " ")) {
+        String paths = fileName.substring(DeltaPatch.PATCH_COMMAND.length() + 1);
+        space = paths.indexOf(' ');
+        if (space == -1) {
+          throw new IllegalStateException("No target path in patch line.");
+        }
+        doReceivePatch(
+            new File(paths.substring(0, space)),
+            new File(paths.substring(space + 1)),
+            size,
+            stream);
+        continue;
+      }
 
       doRawReceiveFile(new File(fileName), size, stream);
     }
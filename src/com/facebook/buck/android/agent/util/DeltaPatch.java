@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.android.agent.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Format of the delta patches sent to the agent, and the code that applies them.
+ *
+ * <p>A patch rebuilds a target file from a base file that is already on the device. It starts with
+ * {@link #MAGIC}, followed by a sequence of operations, each introduced by a single byte:
+ *
+ * <ul>
+ *   <li>{@link #OP_COPY}, a 64-bit offset and a 32-bit length: copy that range of the base file.
+ *   <li>{@link #OP_DATA}, a 32-bit length and that many bytes: copy the bytes literally.
+ *   <li>{@link #OP_END}: the target file is complete.
+ * </ul>
+ *
+ * All numbers are big endian, as written by {@link java.io.DataOutputStream}.
+ */
+public final class DeltaPatch {
+  private DeltaPatch() {}
+
+  public static final int MAGIC = 0x42444c54;
+
+  public static final int OP_END = 0;
+  public static final int OP_COPY = 1;
+  public static final int OP_DATA = 2;
+
+  /**
+   * Name used in a multi-receive-file header to announce a patch. The header is followed by the
+   * base and target paths, separated by a space, and the patch itself is the payload.
+   */
+  public static final String PATCH_COMMAND = "--patch";
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /** Writes the result of applying {@code patch} to {@code base} into {@code output}. */
+  public static void apply(File base, File patch, File output) throws IOException {
+    RandomAccessFile baseFile = new RandomAccessFile(base, "r");
+    try {
+      DataInputStream patchStream =
+          new DataInputStream(new BufferedInputStream(new FileInputStream(patch), BUFFER_SIZE));
+      try {
+        OutputStream outputStream =
+            new BufferedOutputStream(new FileOutputStream(output), BUFFER_SIZE);
+        try {
+          apply(baseFile, patchStream, outputStream);
+        } finally {
+          outputStream.close();
+        }
+      } finally {
+        patchStream.close();
+      }
+    } finally {
+      baseFile.close();
+    }
+  }
+
+  private static void apply(RandomAccessFile base, DataInputStream patch, OutputStream output)
+      throws IOException {
+    if (patch.readInt() != MAGIC) {
+      throw new IOException("Not a delta patch.");
+    }
+    byte[] buffer = new byte[BUFFER_SIZE];
+    while (true) {
+      int op = patch.readUnsignedByte();
+      if (op == OP_END) {
+        break;
+      } else if (op == OP_COPY) {
+        long offset = patch.readLong();
+        int length = patch.readInt();
+        if (offset < 0 || length < 0 || offset + length > base.length()) {
+          throw new IOException("Copy of " + length + " bytes at " + offset + " is out of range.");
+        }
+        base.seek(offset);
+        while (length > 0) {
+          int chunk = Math.min(length, buffer.length);
+          base.readFully(buffer, 0, chunk);
+          output.write(buffer, 0, chunk);
+          length -= chunk;
+        }
+      } else if (op == OP_DATA) {
+        int length = patch.readInt();
+        if (length < 0) {
+          throw new IOException("Negative data length in patch.");
+        }
+        while (length > 0) {
+          int chunk = Math.min(length, buffer.length);
+          patch.readFully(buffer, 0, chunk);
+          output.write(buffer, 0, chunk);
+          length -= chunk;
+        }
+      } else {
+        throw new IOException("Unknown patch operation: " + op);
+      }
+    }
+    if (patch.read() != -1) {
+      throw new IOException("Trailing data after end of patch.");
+    }
+  }
+}
@@ -20,6 +20,8 @@ import com.android.ddmlib.InstallException;
 import com.google.common.collect.ImmutableSortedSet;
 import java.io.File;
 import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -48,8 +50,32 @@ public interface AndroidDevice {
 
   void installFiles(String filesType, Map<Path, Path> installPaths) throws Exception;
 
+  /** @return whether it's worth computing patches for {@link #installFiles(String, Map, Map)}. */
+  default boolean supportsPatches() {
+    return false;
+  }
+
+  /**
+   * Like {@link #installFiles(String, Map)}, but additionally rebuilds the files in {@code patches}
+   * from files already on the device. Everything is sent in a single transfer where possible.
+   */
+  default void installFiles(
+      String filesType, Map<Path, Path> installPaths, Map<Path, ExopackagePatch> patches)
+      throws Exception {
+    Map<Path, Path> allPaths = new HashMap<>(installPaths);
+    patches.forEach((target, patch) -> allPaths.put(target, patch.getSource()));
+    installFiles(filesType, allPaths);
+  }
+
   void mkDirP(String dirpath) throws Exception;
 
+  /** Like {@link #mkDirP(String)} for several directories, in as few commands as possible. */
+  default void mkDirsP(Collection<String> dirpaths) throws Exception {
+    for (String dirpath : dirpaths) {
+      mkDirP(dirpath);
+    }
+  }
+
   String getProperty(String name) throws Exception;
 
   List<String> getDeviceAbis() throws Exception;
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.android.exopackage;
+
+import com.facebook.buck.android.agent.util.DeltaPatch;
+import com.google.common.base.Preconditions;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Computes {@link DeltaPatch}es between two versions of a file, in the style of rsync.
+ *
+ * <p>The base file is split into fixed size blocks, which are indexed by a rolling checksum. The
+ * target file is then scanned one byte at a time, and whenever the checksum of the window under
+ * the cursor matches a block, the bytes are compared and the match is extended as far as it goes.
+ * Unlike rsync, both files are available locally, so matches are verified directly instead of
+ * with a strong hash.
+ */
+public class DeltaEncoder {
+
+  public static final int DEFAULT_BLOCK_SIZE = 2048;
+
+  private final int blockSize;
+
+  public DeltaEncoder() {
+    this(DEFAULT_BLOCK_SIZE);
+  }
+
+  public DeltaEncoder(int blockSize) {
+    Preconditions.checkArgument(blockSize > 0);
+    this.blockSize = blockSize;
+  }
+
+  /** @return a patch that turns {@code base} into {@code target}. */
+  public byte[] encode(byte[] base, byte[] target) {
+    Map<Integer, Integer> blocks = indexBlocks(base);
+    PatchWriter writer = new PatchWriter(target);
+
+    int position = 0;
+    int literalStart = 0;
+    boolean haveChecksum = false;
+    int a = 0;
+    int b = 0;
+    while (position + blockSize <= target.length) {
+      if (!haveChecksum) {
+        a = 0;
+        b = 0;
+        for (int i = 0; i < blockSize; i++) {
+          int value = target[position + i] & 0xFF;
+          a += value;
+          b += (blockSize - i) * value;
+        }
+        haveChecksum = true;
+      }
+
+      Integer blockOffset = blocks.get(checksum(a, b));
+      if (blockOffset != null && regionsMatch(base, blockOffset, target, position)) {
+        int matchLength = blockSize;
+        while (position + matchLength < target.length
+            && blockOffset + matchLength < base.length
+            && target[position + matchLength] == base[blockOffset + matchLength]) {
+          matchLength++;
+        }
+        writer.literal(literalStart, position);
+        writer.copy(blockOffset, matchLength);
+        position += matchLength;
+        literalStart = position;
+        haveChecksum = false;
+        continue;
+      }
+
+      if (position + blockSize < target.length) {
+        int out = target[position] & 0xFF;
+        int in = target[position + blockSize] & 0xFF;
+        a += in - out;
+        b += a - blockSize * out;
+      }
+      position++;
+    }
+    writer.literal(literalStart, target.length);
+    return writer.finish();
+  }
+
+  private Map<Integer, Integer> indexBlocks(byte[] base) {
+    Map<Integer, Integer> blocks = new HashMap<>();
+    for (int offset = 0; offset + blockSize <= base.length; offset += blockSize) {
+      int a = 0;
+      int b = 0;
+      for (int i = 0; i < blockSize; i++) {
+        int value = base[offset + i] & 0xFF;
+        a += value;
+        b += (blockSize - i) * value;
+      }
+      blocks.putIfAbsent(checksum(a, b), offset);
+    }
+    return blocks;
+  }
+
+  private boolean regionsMatch(byte[] base, int baseOffset, byte[] target, int targetOffset) {
+    for (int i = 0; i < blockSize; i++) {
+      if (base[baseOffset + i] != target[targetOffset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int checksum(int a, int b) {
+    return (b << 16) | (a & 0xFFFF);
+  }
+
+  /** Serializes operations, merging copies of adjacent ranges of the base file. */
+  private static class PatchWriter {
+    private final byte[] target;
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+    private long pendingCopyOffset = -1;
+    private int pendingCopyLength = 0;
+
+    PatchWriter(byte[] target) {
+      this.target = target;
+      write(() -> out.writeInt(DeltaPatch.MAGIC));
+    }
+
+    void copy(long offset, int length) {
+      if (pendingCopyLength > 0 && pendingCopyOffset + pendingCopyLength == offset) {
+        pendingCopyLength += length;
+        return;
+      }
+      flushCopy();
+      pendingCopyOffset = offset;
+      pendingCopyLength = length;
+    }
+
+    void literal(int start, int end) {
+      if (start == end) {
+        return;
+      }
+      flushCopy();
+      write(
+          () -> {
+            out.writeByte(DeltaPatch.OP_DATA);
+            out.writeInt(end - start);
+            out.write(target, start, end - start);
+          });
+    }
+
+    byte[] finish() {
+      flushCopy();
+      write(() -> out.writeByte(DeltaPatch.OP_END));
+      return bytes.toByteArray();
+    }
+
+    private void flushCopy() {
+      if (pendingCopyLength == 0) {
+        return;
+      }
+      write(
+          () -> {
+            out.writeByte(DeltaPatch.OP_COPY);
+            out.writeLong(pendingCopyOffset);
+            out.writeInt(pendingCopyLength);
+          });
+      pendingCopyLength = 0;
+    }
+
+    private void write(IOAction action) {
+      try {
+        action.run();
+      } catch (IOException e) {
+        // Writes to a ByteArrayOutputStream never fail.
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+
+  private interface IOAction {
+    void run() throws IOException;
+  }
+}
@@ -60,6 +60,10 @@ class ExopackageAgent {
     return true;
   }
 
+  boolean isUsingNativeAgent() {
+    return useNativeAgent;
+  }
+
   String getAgentCommand() {
     if (useNativeAgent) {
       return nativeAgentPath + "/libagent.so ";
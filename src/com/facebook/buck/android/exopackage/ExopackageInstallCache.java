@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.android.exopackage;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.util.CacheDirectoryTrimmer;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Host-side record of the exopackage files installed on a device, used as the bases of delta
+ * installs.
+ *
+ * <p>Exopackage files are named after their contents on the device, so a new version of, e.g., a
+ * secondary dex goes to a new path. For every local source file, this remembers the device path of
+ * the last version installed from it together with the hash of its contents. While that old
+ * version is still on the device, the new one can be sent as a patch against it.
+ *
+ * <p>The contents themselves are stored once per hash, shared by all devices and packages, and
+ * trimmed to a maximum total size, least recently used first. Where possible they are hard links to
+ * the installed build outputs rather than copies. Since an output could be rewritten in place, the
+ * contents are checked against their hash before they are used.
+ */
+class ExopackageInstallCache {
+
+  private static final Logger LOG = Logger.get(ExopackageInstallCache.class);
+
+  private static final long DEFAULT_MAX_SIZE_BYTES = 1024L * 1024 * 1024;
+
+  private final ProjectFilesystem projectFilesystem;
+  private final Path contentsDir;
+  private final Path slotsDir;
+  private final CacheDirectoryTrimmer trimmer;
+
+  ExopackageInstallCache(
+      ProjectFilesystem projectFilesystem, String serialNumber, String packageName) {
+    this(projectFilesystem, serialNumber, packageName, DEFAULT_MAX_SIZE_BYTES);
+  }
+
+  @VisibleForTesting
+  ExopackageInstallCache(
+      ProjectFilesystem projectFilesystem,
+      String serialNumber,
+      String packageName,
+      long maxSizeBytes) {
+    this.projectFilesystem = projectFilesystem;
+    Path root =
+        projectFilesystem.resolve(
+            projectFilesystem.getBuckPaths().getScratchDir().resolve("exopackage-installs"));
+    this.contentsDir = root.resolve("contents");
+    this.slotsDir =
+        root.resolve("devices")
+            .resolve(serialNumber.replaceAll("[^A-Za-z0-9._-]", "_"))
+            .resolve(packageName);
+    this.trimmer =
+        new CacheDirectoryTrimmer(
+            contentsDir, maxSizeBytes, path -> !path.getFileName().toString().endsWith(".tmp"));
+  }
+
+  /**
+   * @return the device path, relative to the data root, of the last version installed from {@code
+   *     source}, if it was recorded.
+   */
+  Optional<Path> getInstalledPath(Path source) throws IOException {
+    return readSlot(getSlot(source)).map(Slot::getInstalledPath);
+  }
+
+  /**
+   * @return the contents last installed from {@code source} to {@code installedPath}, if they are
+   *     still around and intact.
+   */
+  Optional<byte[]> readInstalledContents(Path source, Path installedPath) throws IOException {
+    Optional<Slot> slot = readSlot(getSlot(source));
+    if (!slot.isPresent() || !slot.get().getInstalledPath().equals(installedPath)) {
+      return Optional.empty();
+    }
+    Path contents = contentsDir.resolve(slot.get().getHash());
+    if (!Files.isRegularFile(contents)) {
+      return Optional.empty();
+    }
+    byte[] bytes = Files.readAllBytes(contents);
+    if (!Hashing.sha1().hashBytes(bytes).toString().equals(slot.get().getHash())) {
+      // The build output this was linked to was rewritten in place.
+      LOG.debug("Contents installed from %s changed since, dropping them.", source);
+      Files.deleteIfExists(contents);
+      return Optional.empty();
+    }
+    CacheDirectoryTrimmer.touch(contents);
+    return Optional.of(bytes);
+  }
+
+  /** Records that {@code source} was just installed to {@code installedPath}. */
+  void recordInstall(Path source, Path installedPath) throws IOException {
+    String hash = projectFilesystem.computeSha1(source).getHash();
+    Path contents = contentsDir.resolve(hash);
+    if (Files.isRegularFile(contents)) {
+      CacheDirectoryTrimmer.touch(contents);
+    } else {
+      storeContents(projectFilesystem.resolve(source), contents);
+    }
+    writeAtomically(
+        getSlot(source),
+        (installedPath + "\n" + hash).getBytes(StandardCharsets.UTF_8));
+  }
+
+  /** Forgets all the installs whose device path isn't in {@code installedPaths}. */
+  void retainInstalls(ImmutableSet<Path> installedPaths) throws IOException {
+    for (Path slot : listFiles(slotsDir)) {
+      Optional<Slot> contents = readSlot(slot);
+      if (!contents.isPresent() || !installedPaths.contains(contents.get().getInstalledPath())) {
+        Files.deleteIfExists(slot);
+      }
+    }
+  }
+
+  /** Deletes the least recently used contents until they fit in the maximum size. */
+  void trim() throws IOException {
+    trimmer.trim();
+  }
+
+  private void storeContents(Path source, Path contents) throws IOException {
+    Files.createDirectories(contentsDir);
+    Path temp = contentsDir.resolve(contents.getFileName() + "-" + UUID.randomUUID() + ".tmp");
+    try {
+      try {
+        Files.createLink(temp, source);
+      } catch (IOException | UnsupportedOperationException e) {
+        // E.g. the scratch dir is on another file system than the build outputs.
+        Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+      }
+      Files.move(temp, contents, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+    CacheDirectoryTrimmer.touch(contents);
+  }
+
+  private Path getSlot(Path source) {
+    return slotsDir.resolve(
+        Hashing.sha1().hashString(source.toString(), StandardCharsets.UTF_8).toString());
+  }
+
+  private static Optional<Slot> readSlot(Path slot) throws IOException {
+    if (!Files.isRegularFile(slot)) {
+      return Optional.empty();
+    }
+    List<String> lines =
+        Splitter.on('\n')
+            .splitToList(new String(Files.readAllBytes(slot), StandardCharsets.UTF_8));
+    return lines.size() == 2
+        ? Optional.of(new Slot(Paths.get(lines.get(0)), lines.get(1)))
+        : Optional.empty();
+  }
+
+  /** Writes {@code path} through a temp file, so that readers never see a partial one. */
+  private static void writeAtomically(Path path, byte[] contents) throws IOException {
+    Files.createDirectories(path.getParent());
+    Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+    try {
+      Files.write(temp, contents);
+      Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /** @return the files directly in {@code dir}, without the temp files they are written through. */
+  private static ImmutableList<Path> listFiles(Path dir) throws IOException {
+    if (!Files.isDirectory(dir)) {
+      return ImmutableList.of();
+    }
+    try (Stream<Path> stream = Files.list(dir)) {
+      return stream
+          .filter(Files::isRegularFile)
+          .filter(path -> !path.getFileName().toString().endsWith(".tmp"))
+          .collect(ImmutableList.toImmutableList());
+    }
+  }
+
+  /** The device path and the hash of the contents last installed from a source file. */
+  private static class Slot {
+    private final Path installedPath;
+    private final String hash;
+
+    Slot(Path installedPath, String hash) {
+      this.installedPath = installedPath;
+      this.hash = hash;
+    }
+
+    Path getInstalledPath() {
+      return installedPath;
+    }
+
+    String getHash() {
+      return hash;
+    }
+  }
+}
@@ -32,16 +32,19 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
 import com.google.common.io.Closer;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashMap;
@@ -49,6 +52,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import javax.annotation.Nullable;
 
 /** ExopackageInstaller manages the installation of apps with the "exopackage" flag set to true. */
@@ -60,12 +64,19 @@ public class ExopackageInstaller {
   public static final String NATIVE_LIBRARY_TYPE = "native_library";
   public static final String RESOURCES_TYPE = "resources";
 
+  /**
+   * Patches are only sent when they are smaller than this fraction of the full file, otherwise
+   * applying them on the device isn't worth it.
+   */
+  private static final double MAX_PATCH_SIZE_RATIO = 0.5;
+
   private final ProjectFilesystem projectFilesystem;
   private final BuckEventBus eventBus;
   private final SourcePathResolverAdapter pathResolver;
   private final AndroidDevice device;
   private final String packageName;
   private final Path dataRoot;
+  private final ExopackageInstallCache installCache;
 
   public ExopackageInstaller(
       SourcePathResolverAdapter pathResolver,
@@ -79,6 +90,8 @@ public class ExopackageInstaller {
     this.device = device;
     this.packageName = packageName;
     this.dataRoot = EXOPACKAGE_INSTALL_ROOT.resolve(packageName);
+    this.installCache =
+        new ExopackageInstallCache(projectFilesystem, device.getSerialNumber(), packageName);
 
     Preconditions.checkArgument(AdbHelper.PACKAGE_NAME_PATTERN.matcher(packageName).matches());
   }
@@ -171,16 +184,23 @@ public class ExopackageInstaller {
       metadata.putAll(moduleExoHelper.getMetadataToInstall());
     }
 
-    deleteUnwantedFiles(presentFiles, wantedPaths.build());
+    ImmutableSet<Path> wanted = wantedPaths.build();
+    deleteUnwantedFiles(presentFiles, wanted);
+    installCache.retainInstalls(wanted);
     installMetadata(metadata.build());
   }
 
+  /**
+   * Installs the files of all the exopackage types that aren't on the device yet, in a single
+   * transfer.
+   */
   public void installMissingExopackageFiles(
       ImmutableSortedSet<Path> presentFiles, ExopackageInfo exoInfo) throws Exception {
+    ImmutableMap.Builder<Path, Path> wantedFiles = ImmutableMap.builder();
     if (exoInfo.getDexInfo().isPresent()) {
       DexExoHelper dexExoHelper =
           new DexExoHelper(pathResolver, projectFilesystem, exoInfo.getDexInfo().get());
-      installMissingFiles(presentFiles, dexExoHelper.getFilesToInstall(), SECONDARY_DEX_TYPE);
+      wantedFiles.putAll(dexExoHelper.getFilesToInstall());
     }
 
     if (exoInfo.getNativeLibsInfo().isPresent()) {
@@ -196,20 +216,22 @@ public class ExopackageInstaller {
               pathResolver,
               projectFilesystem,
               exoInfo.getNativeLibsInfo().get());
-      installMissingFiles(presentFiles, nativeExoHelper.getFilesToInstall(), NATIVE_LIBRARY_TYPE);
+      wantedFiles.putAll(nativeExoHelper.getFilesToInstall());
     }
 
     if (exoInfo.getResourcesInfo().isPresent()) {
       ResourcesExoHelper resourcesExoHelper =
           new ResourcesExoHelper(pathResolver, projectFilesystem, exoInfo.getResourcesInfo().get());
-      installMissingFiles(presentFiles, resourcesExoHelper.getFilesToInstall(), RESOURCES_TYPE);
+      wantedFiles.putAll(resourcesExoHelper.getFilesToInstall());
     }
 
     if (exoInfo.getModuleInfo().isPresent()) {
       ModuleExoHelper moduleExoHelper =
           new ModuleExoHelper(pathResolver, projectFilesystem, exoInfo.getModuleInfo().get());
-      installMissingFiles(presentFiles, moduleExoHelper.getFilesToInstall(), "modular_dex");
+      wantedFiles.putAll(moduleExoHelper.getFilesToInstall());
     }
+
+    installMissingFiles(presentFiles, wantedFiles.build(), "exopackage_files");
   }
 
   /**
@@ -284,7 +306,70 @@ public class ExopackageInstaller {
                 ImmutableSortedMap.toImmutableSortedMap(
                     Ordering.natural(), Map.Entry::getKey, Map.Entry::getValue));
 
-    installFiles(filesType, filesToInstall);
+    if (filesToInstall.isEmpty() || !device.supportsPatches()) {
+      installFiles(filesType, filesToInstall, ImmutableMap.of());
+      return;
+    }
+
+    try (Closer closer = Closer.create()) {
+      ImmutableMap<Path, ExopackagePatch> patches =
+          createPatches(presentFiles, filesToInstall, closer);
+      installFiles(
+          filesType,
+          ImmutableMap.copyOf(Maps.filterKeys(filesToInstall, path -> !patches.containsKey(path))),
+          patches);
+    }
+    for (Map.Entry<Path, Path> entry : filesToInstall.entrySet()) {
+      installCache.recordInstall(entry.getValue(), entry.getKey());
+    }
+    installCache.trim();
+  }
+
+  /**
+   * Computes patches for the files whose previous version, as recorded in the {@link
+   * ExopackageInstallCache}, is still on the device.
+   *
+   * @return a map from the device path, relative to the data root, to the patch to install there.
+   */
+  private ImmutableMap<Path, ExopackagePatch> createPatches(
+      ImmutableSortedSet<Path> presentFiles, ImmutableMap<Path, Path> filesToInstall, Closer closer)
+      throws IOException {
+    ImmutableMap.Builder<Path, ExopackagePatch> patches = ImmutableMap.builder();
+    try (SimplePerfEvent.Scope scope = SimplePerfEvent.scope(eventBus, "compute_exo_patches")) {
+      DeltaEncoder encoder = new DeltaEncoder();
+      long fullSize = 0;
+      long patchedSize = 0;
+      for (Map.Entry<Path, Path> entry : filesToInstall.entrySet()) {
+        Path source = entry.getValue();
+        Optional<Path> installedPath = installCache.getInstalledPath(source);
+        if (!installedPath.isPresent() || !presentFiles.contains(installedPath.get())) {
+          continue;
+        }
+        Optional<byte[]> base = installCache.readInstalledContents(source, installedPath.get());
+        if (!base.isPresent()) {
+          continue;
+        }
+        byte[] target = Files.readAllBytes(projectFilesystem.resolve(source));
+        byte[] patch = encoder.encode(base.get(), target);
+        if (patch.length > target.length * MAX_PATCH_SIZE_RATIO) {
+          continue;
+        }
+        NamedTemporaryFile patchFile = closer.register(new NamedTemporaryFile("patch", "tmp"));
+        Files.write(patchFile.get(), patch);
+        patches.put(
+            entry.getKey(),
+            ExopackagePatch.of(
+                projectFilesystem.resolve(source),
+                dataRoot.resolve(installedPath.get()),
+                patchFile.get()));
+        fullSize += target.length;
+        patchedSize += patch.length;
+      }
+      scope.appendFinishedInfo("full_size", fullSize);
+      scope.appendFinishedInfo("patched_size", patchedSize);
+      LOG.debug("Sending %d bytes of patches instead of %d bytes.", patchedSize, fullSize);
+    }
+    return patches.build();
   }
 
   private void deleteUnwantedFiles(
@@ -308,23 +393,20 @@ public class ExopackageInstaller {
             });
   }
 
-  private void installFiles(String filesType, ImmutableMap<Path, Path> filesToInstall)
+  private void installFiles(
+      String filesType,
+      ImmutableMap<Path, Path> filesToInstall,
+      ImmutableMap<Path, ExopackagePatch> patches)
       throws Exception {
     try (SimplePerfEvent.Scope ignored =
             SimplePerfEvent.scope(eventBus, "multi_install_" + filesType);
         AutoCloseable ignored1 = device.createForward()) {
       // Make sure all the directories exist.
-      filesToInstall.keySet().stream()
-          .map(p -> dataRoot.resolve(p).getParent())
-          .distinct()
-          .forEach(
-              p -> {
-                try {
-                  device.mkDirP(p.toString());
-                } catch (Exception e) {
-                  throw new RuntimeException(e);
-                }
-              });
+      device.mkDirsP(
+          Stream.concat(filesToInstall.keySet().stream(), patches.keySet().stream())
+              .map(p -> dataRoot.resolve(p).getParent().toString())
+              .distinct()
+              .collect(ImmutableList.toImmutableList()));
       // Plan the installation.
       Map<Path, Path> installPaths =
           filesToInstall.entrySet().stream()
@@ -333,7 +415,17 @@ public class ExopackageInstaller {
                       entry -> dataRoot.resolve(entry.getKey()),
                       entry -> projectFilesystem.resolve(entry.getValue())));
       // Install the files.
-      device.installFiles(filesType, installPaths);
+      if (patches.isEmpty()) {
+        device.installFiles(filesType, installPaths);
+      } else {
+        device.installFiles(
+            filesType,
+            installPaths,
+            patches.entrySet().stream()
+                .collect(
+                    Collectors.toMap(
+                        entry -> dataRoot.resolve(entry.getKey()), Map.Entry::getValue)));
+      }
     }
   }
 
@@ -346,7 +438,7 @@ public class ExopackageInstaller {
             entry.getValue().getBytes(Charsets.UTF_8), temp.get().toFile());
         filesToInstall.put(entry.getKey(), temp.get());
       }
-      installFiles("metadata", ImmutableMap.copyOf(filesToInstall));
+      installFiles("metadata", ImmutableMap.copyOf(filesToInstall), ImmutableMap.of());
     }
   }
 
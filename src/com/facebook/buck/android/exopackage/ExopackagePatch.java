@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.android.exopackage;
+
+import com.facebook.buck.core.util.immutables.BuckStyleValue;
+import java.nio.file.Path;
+
+/**
+ * A file to install as a delta against a file that is already on the device. The patch is in the
+ * format read by {@link com.facebook.buck.android.agent.util.DeltaPatch}. Devices which can't apply
+ * patches install {@link #getSource()} instead.
+ */
+@BuckStyleValue
+public interface ExopackagePatch {
+
+  static ExopackagePatch of(Path source, Path baseDevicePath, Path patchFile) {
+    return ImmutableExopackagePatch.of(source, baseDevicePath, patchFile);
+  }
+
+  /** Local file which the patch reproduces. */
+  Path getSource();
+
+  /** Absolute path of the file on the device that the patch applies to. */
+  Path getBaseDevicePath();
+
+  /** Local file holding the patch. */
+  Path getPatchFile();
+}
@@ -26,6 +26,7 @@ import com.android.ddmlib.ShellCommandUnresponsiveException;
 import com.android.ddmlib.TimeoutException;
 import com.facebook.buck.android.AdbHelper;
 import com.facebook.buck.android.agent.util.AgentUtil;
+import com.facebook.buck.android.agent.util.DeltaPatch;
 import com.facebook.buck.core.exceptions.BuckUncheckedExecutionException;
 import com.facebook.buck.core.exceptions.HumanReadableException;
 import com.facebook.buck.core.util.immutables.BuckStyleValue;
@@ -41,7 +42,9 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
 import com.google.common.io.Closer;
 import com.google.common.primitives.Ints;
@@ -61,6 +64,8 @@ import java.nio.charset.UnsupportedCharsetException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
@@ -713,14 +718,33 @@ public class RealAndroidDevice implements AndroidDevice {
 
   @Override
   public void installFiles(String filesType, Map<Path, Path> installPaths) throws Exception {
+    installFiles(filesType, installPaths, ImmutableMap.of());
+  }
+
+  /** Patches can only be applied by the java agent. */
+  @Override
+  public boolean supportsPatches() {
+    return !agent.get().isUsingNativeAgent();
+  }
+
+  @Override
+  public void installFiles(
+      String filesType, Map<Path, Path> installPaths, Map<Path, ExopackagePatch> patches)
+      throws Exception {
+    if (!patches.isEmpty() && !supportsPatches()) {
+      AndroidDevice.super.installFiles(filesType, installPaths, patches);
+      return;
+    }
     Optional<RapidInstallMode> rapidInstallMode = getRapidInstallMode();
     if (rapidInstallMode.isPresent()) {
-      doRapidInstall(rapidInstallMode.get(), filesType, installPaths);
+      doRapidInstall(rapidInstallMode.get(), filesType, installPaths, patches);
     } else {
       try {
-        doMultiInstall(filesType, installPaths);
+        doMultiInstall(filesType, installPaths, patches);
       } catch (Exception e) {
-        doMultiInstallViaADB(installPaths);
+        Map<Path, Path> allPaths = new HashMap<>(installPaths);
+        patches.forEach((target, patch) -> allPaths.put(target, patch.getSource()));
+        doMultiInstallViaADB(allPaths);
       }
     }
   }
@@ -898,10 +922,12 @@ public class RealAndroidDevice implements AndroidDevice {
     chan.close();
   }
 
-  private void doMultiInstall(String filesType, Map<Path, Path> installPaths) throws Exception {
+  private void doMultiInstall(
+      String filesType, Map<Path, Path> installPaths, Map<Path, ExopackagePatch> patches)
+      throws Exception {
     Closer closer = Closer.create();
     BuckInitiatedInstallReceiver receiver =
-        new BuckInitiatedInstallReceiver(closer, filesType, installPaths);
+        new BuckInitiatedInstallReceiver(closer, filesType, installPaths, patches);
 
     String command =
         "umask 022 && "
@@ -948,9 +974,7 @@ public class RealAndroidDevice implements AndroidDevice {
       throw shellException;
     }
 
-    for (Path targetFileName : installPaths.keySet()) {
-      chmod644(targetFileName);
-    }
+    chmod644(Sets.union(installPaths.keySet(), patches.keySet()));
   }
 
   private class BuckInitiatedInstallReceiver extends CollectingOutputReceiver {
@@ -975,15 +999,21 @@ public class RealAndroidDevice implements AndroidDevice {
     private final Closer closer;
     private final String filesType;
     private final Map<Path, Path> installPaths;
+    private final Map<Path, ExopackagePatch> patches;
     private boolean startedPayload;
     private boolean wrotePayload;
     @Nullable private OutputStream outToDevice;
     private Optional<Exception> error;
 
-    BuckInitiatedInstallReceiver(Closer closer, String filesType, Map<Path, Path> installPaths) {
+    BuckInitiatedInstallReceiver(
+        Closer closer,
+        String filesType,
+        Map<Path, Path> installPaths,
+        Map<Path, ExopackagePatch> patches) {
       this.closer = closer;
       this.filesType = filesType;
       this.installPaths = installPaths;
+      this.patches = patches;
       this.startedPayload = false;
       this.wrotePayload = false;
       this.error = Optional.empty();
@@ -1017,7 +1047,7 @@ public class RealAndroidDevice implements AndroidDevice {
           wrotePayload = true;
           outToDevice.write(getOutput().substring(0, AgentUtil.TEXT_SECRET_KEY_SIZE).getBytes());
           LOG.verbose("Wrote key");
-          multiInstallFilesToStream(outToDevice, filesType, installPaths);
+          multiInstallFilesToStream(outToDevice, filesType, installPaths, patches);
           LOG.verbose("Wrote files");
         }
       } catch (IOException e) {
@@ -1031,7 +1061,10 @@ public class RealAndroidDevice implements AndroidDevice {
   }
 
   void doRapidInstall(
-      RapidInstallMode rapidInstallMode, String filesType, Map<Path, Path> installPaths)
+      RapidInstallMode rapidInstallMode,
+      String filesType,
+      Map<Path, Path> installPaths,
+      Map<Path, ExopackagePatch> patches)
       throws Exception {
     Exception failure = null;
     String command;
@@ -1040,7 +1073,8 @@ public class RealAndroidDevice implements AndroidDevice {
     try (ServerSocket serverSocket = new ServerSocket(0)) {
       int port = serverSocket.getLocalPort();
       int nonce = (int) System.currentTimeMillis() & 0x7FFFFFFF;
-      receiver = new AgentInitiatedInstallReceiver(serverSocket, nonce, filesType, installPaths);
+      receiver =
+          new AgentInitiatedInstallReceiver(serverSocket, nonce, filesType, installPaths, patches);
       command =
           "umask 022 && "
               + agent.get().getAgentCommand()
@@ -1082,12 +1116,10 @@ public class RealAndroidDevice implements AndroidDevice {
       throw failure;
     }
 
-    for (Path targetFileName : installPaths.keySet()) {
-      chmod644(targetFileName);
-    }
+    chmod644(Sets.union(installPaths.keySet(), patches.keySet()));
   }
 
-  private void chmod644(Path targetDevicePath)
+  private void chmod644(Set<Path> targetDevicePaths)
       throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
           IOException {
     // The standard Java libraries on Android always create new files un-readable by other users.
@@ -1095,7 +1127,14 @@ public class RealAndroidDevice implements AndroidDevice {
     // to allow the app to read them.  Ideally, the agent would do this automatically, but
     // there's no easy way to do this in Java.  We can drop this if we drop support for the
     // Java agent.
-    executeCommandWithErrorChecking("chmod 644 " + targetDevicePath);
+    String commandPrefix = "chmod 644 ";
+    int overhead = commandPrefix.length() + 100;
+    for (List<String> paths :
+        chunkArgs(
+            Iterables.transform(targetDevicePaths, Path::toString),
+            MAX_ADB_COMMAND_SIZE - overhead)) {
+      executeCommandWithErrorChecking(commandPrefix + Joiner.on(' ').join(paths));
+    }
   }
 
   @Override
@@ -1105,6 +1144,20 @@ public class RealAndroidDevice implements AndroidDevice {
     executeCommandWithErrorChecking("umask 022 && " + mkdirCommand + " " + dirpath);
   }
 
+  @Override
+  public void mkDirsP(Collection<String> dirpaths) throws Exception {
+    // The native agent only accepts a single directory.
+    if (agent.get().isUsingNativeAgent()) {
+      AndroidDevice.super.mkDirsP(dirpaths);
+      return;
+    }
+    String commandPrefix = "umask 022 && " + agent.get().getMkDirCommand() + " ";
+    int overhead = commandPrefix.length() + 100;
+    for (List<String> paths : chunkArgs(dirpaths, MAX_ADB_COMMAND_SIZE - overhead)) {
+      executeCommandWithErrorChecking(commandPrefix + Joiner.on(' ').join(paths));
+    }
+  }
+
   @Override
   public String getProperty(String name) throws Exception {
     return executeCommandWithErrorChecking("getprop " + name).trim();
@@ -1241,15 +1294,21 @@ public class RealAndroidDevice implements AndroidDevice {
     private final int nonce;
     private String filesType;
     private final Map<Path, Path> installPaths;
+    private final Map<Path, ExopackagePatch> patches;
     private Optional<Exception> error = Optional.empty();
     private boolean startedSend = false;
 
     AgentInitiatedInstallReceiver(
-        ServerSocket serverSocket, int nonce, String filesType, Map<Path, Path> installPaths) {
+        ServerSocket serverSocket,
+        int nonce,
+        String filesType,
+        Map<Path, Path> installPaths,
+        Map<Path, ExopackagePatch> patches) {
       this.serverSocket = serverSocket;
       this.nonce = nonce;
       this.filesType = filesType;
       this.installPaths = installPaths;
+      this.patches = patches;
     }
 
     @Override
@@ -1291,7 +1350,7 @@ public class RealAndroidDevice implements AndroidDevice {
 
         // TODO(dreiss): Use write timeouts.
         OutputStream stream = connectionSocket.getOutputStream();
-        multiInstallFilesToStream(stream, filesType, installPaths);
+        multiInstallFilesToStream(stream, filesType, installPaths, patches);
       }
     }
 
@@ -1316,24 +1375,40 @@ public class RealAndroidDevice implements AndroidDevice {
   "--continue" indicates that no file should be written.
   This might be used in the future to avoid read timeouts.
   "--complete" indicates that the transmission is complete, and the agent should exit.
+  The java agent also accepts "--patch BASE TARGET" as a file name. The payload is then a delta
+  patch which the agent applies to the file BASE on the device in order to write TARGET.
    */
   private void multiInstallFilesToStream(
-      OutputStream stream, String filesType, Map<Path, Path> installPaths) throws IOException {
+      OutputStream stream,
+      String filesType,
+      Map<Path, Path> installPaths,
+      Map<Path, ExopackagePatch> patches)
+      throws IOException {
     for (Map.Entry<Path, Path> entry : installPaths.entrySet()) {
-      Path destination = entry.getKey();
-      Path source = entry.getValue();
-      try (SimplePerfEvent.Scope ignored =
-          SimplePerfEvent.scope(eventBus, "install_" + filesType)) {
-        // Slurp the file into RAM to make sure we know how many bytes we are getting.
-        byte[] bytes = Files.readAllBytes(source);
-        byte[] restOfHeader = (bytes.length + " " + destination + "\n").getBytes(Charsets.UTF_8);
-        byte[] headerPrefix = String.format("%04X ", restOfHeader.length).getBytes(Charsets.UTF_8);
-        stream.write(headerPrefix);
-        stream.write(restOfHeader);
-        stream.write(bytes);
-      }
+      writeFileToStream(stream, filesType, entry.getKey().toString(), entry.getValue());
+    }
+    for (Map.Entry<Path, ExopackagePatch> entry : patches.entrySet()) {
+      ExopackagePatch patch = entry.getValue();
+      writeFileToStream(
+          stream,
+          filesType,
+          DeltaPatch.PATCH_COMMAND + " " + patch.getBaseDevicePath() + " " + entry.getKey(),
+          patch.getPatchFile());
     }
     stream.write("000D 0 --complete\n".getBytes(Charsets.UTF_8));
     stream.flush();
   }
+
+  private void writeFileToStream(
+      OutputStream stream, String filesType, String destination, Path source) throws IOException {
+    try (SimplePerfEvent.Scope ignored = SimplePerfEvent.scope(eventBus, "install_" + filesType)) {
+      // Slurp the file into RAM to make sure we know how many bytes we are getting.
+      byte[] bytes = Files.readAllBytes(source);
+      byte[] restOfHeader = (bytes.length + " " + destination + "\n").getBytes(Charsets.UTF_8);
+      byte[] headerPrefix = String.format("%04X ", restOfHeader.length).getBytes(Charsets.UTF_8);
+      stream.write(headerPrefix);
+      stream.write(restOfHeader);
+      stream.write(bytes);
+    }
+  }
 }
@@ -18,6 +18,7 @@ package com.facebook.buck.apple.clang;
 
 import com.facebook.buck.util.json.ObjectMappers;
 import com.facebook.buck.util.types.Pair;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.google.common.base.Preconditions;
@@ -27,6 +28,7 @@ import com.google.common.collect.Multimap;
 import com.google.common.collect.MultimapBuilder;
 import java.io.IOException;
 import java.nio.file.Path;
+import javax.annotation.Nullable;
 
 /**
  * VFSOverlays are used for similar purposes to headermaps, but can be used to overlay more than
@@ -47,6 +49,11 @@ public class VFSOverlay {
   @JsonProperty("case-sensitive")
   private final boolean case_sensitive = false;
 
+  @JsonProperty("use-external-names")
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  @Nullable
+  private final Boolean useExternalNames;
+
   @JsonProperty("roots")
   private ImmutableList<VirtualDirectory> computeRoots() {
     Multimap<Path, Pair<Path, Path>> byParent = MultimapBuilder.hashKeys().hashSetValues().build();
@@ -69,6 +76,16 @@ public class VFSOverlay {
 
   public VFSOverlay(ImmutableSortedMap<Path, Path> overlays) {
     this.overlays = overlays;
+    this.useExternalNames = null;
+  }
+
+  /**
+   * @param useExternalNames whether clang refers to the overlaid files by their real paths, e.g. in
+   *     diagnostics and dependency files, and when looking up headers relative to them.
+   */
+  public VFSOverlay(ImmutableSortedMap<Path, Path> overlays, boolean useExternalNames) {
+    this.overlays = overlays;
+    this.useExternalNames = useExternalNames;
   }
 
   public String render() throws IOException {
@@ -44,12 +44,15 @@ import com.facebook.buck.slb.SingleUriService;
 import com.facebook.buck.support.bgtasks.BackgroundTask;
 import com.facebook.buck.support.bgtasks.TaskAction;
 import com.facebook.buck.support.bgtasks.TaskManagerCommandScope;
+import com.facebook.buck.util.concurrent.MostExecutors;
 import com.facebook.buck.util.timing.DefaultClock;
 import com.google.common.base.CharMatcher;
+import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.io.IOException;
@@ -62,6 +65,7 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import javax.annotation.Nullable;
 import javax.net.ssl.HostnameVerifier;
 import okhttp3.ConnectionPool;
 import okhttp3.Dispatcher;
@@ -98,31 +102,45 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
   private final String producerHostname;
   private final Optional<ClientCertificateHandler> clientCertificateHandler;
 
+  /**
+   * Executor the caches behind an upload queue store with. The queue is drained when the caches
+   * are closed, in a background task that outlives the command's own write executors.
+   */
+  @Nullable private ListeningExecutorService uploadQueueExecutorService;
+
   /** {@link TaskAction} implementation for {@link ArtifactCaches}. */
-  static class ArtifactCachesCloseAction implements TaskAction<List<ArtifactCache>> {
+  static class ArtifactCachesCloseAction implements TaskAction<List<AutoCloseable>> {
     @Override
-    public void run(List<ArtifactCache> artifactCaches) {
-      for (ArtifactCache cache : artifactCaches) {
+    public void run(List<AutoCloseable> closeables) {
+      for (AutoCloseable closeable : closeables) {
         try {
-          cache.close();
+          closeable.close();
         } catch (Exception e) {
-          LOG.warn(e, "Exception when closing %s.", cache);
+          LOG.warn(e, "Exception when closing %s.", closeable);
         }
       }
     }
   }
 
   @Override
-  public void close() {
+  public synchronized void close() {
     // We clean up beyond client connection lifetime since it can take a
     // long time to stat and cleanup large disk artifact cache directories
     // See https://github.com/facebook/buck/issues/1842
-    BackgroundTask<List<ArtifactCache>> closeTask =
+    List<AutoCloseable> closeables = new ArrayList<>(artifactCaches);
+    long timeoutSeconds = TIMEOUT_SECONDS;
+    if (uploadQueueExecutorService != null) {
+      // Closing the caches drains their upload queues, which store with this executor.
+      ListeningExecutorService executor = uploadQueueExecutorService;
+      closeables.add(executor::shutdown);
+      timeoutSeconds += buckConfig.getUploadQueueDrainTimeoutSeconds();
+    }
+    BackgroundTask<List<AutoCloseable>> closeTask =
         BackgroundTask.of(
             "ArtifactCaches_close",
             new ArtifactCachesCloseAction(),
-            artifactCaches,
-            BackgroundTask.Timeout.of(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            closeables,
+            BackgroundTask.Timeout.of(timeoutSeconds, TimeUnit.SECONDS));
     managerScope.schedule(closeTask);
 
     buckEventBus.post(HttpArtifactCacheEvent.newShutdownEvent());
@@ -202,10 +220,25 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
     return newInstanceInternal(ImmutableSet.of(remote));
   }
 
-  private ArtifactCache newInstanceInternal(ImmutableSet<CacheType> cacheTypeBlacklist) {
+  private synchronized ArtifactCache newInstanceInternal(
+      ImmutableSet<CacheType> cacheTypeBlacklist) {
     ArtifactCacheConnectEvent.Started started = ArtifactCacheConnectEvent.started();
     buckEventBus.post(started);
 
+    ListeningExecutorService httpWriteExecutorService = this.httpWriteExecutorService;
+    ListeningExecutorService dirWriteExecutorService = this.dirWriteExecutorService;
+    if (buckConfig.getUploadQueueEnabled()) {
+      // The command's write executors are shut down by the time the queue is drained.
+      if (uploadQueueExecutorService == null) {
+        uploadQueueExecutorService =
+            MoreExecutors.listeningDecorator(
+                MostExecutors.newMultiThreadExecutor(
+                    "Artifact upload queue", buckConfig.getHttpMaxConcurrentWrites()));
+      }
+      httpWriteExecutorService = uploadQueueExecutorService;
+      dirWriteExecutorService = uploadQueueExecutorService;
+    }
+
     ArtifactCache artifactCache =
         newInstanceInternal(
             buckConfig,
@@ -385,6 +418,39 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
             buckConfig.getTwoLevelCachingMinimumSize(),
             buckConfig.getTwoLevelCachingMaximumSize());
 
+    // Likewise, always support reading artifacts compressed with dictionaries.
+    result =
+        new ZstdDictionaryArtifactCacheDecorator(
+            result,
+            projectFilesystem.resolve(
+                projectFilesystem.getBuckPaths().getScratchDir().resolve("zstd-dictionaries")),
+            buckConfig.getZstdDictionaryCompressionEnabled(),
+            buckConfig.getZstdDictionaryCompressionLevel(),
+            httpWriteExecutorService);
+
+    if (buckConfig.getUploadQueueEnabled()) {
+      // Caches made with different blacklists store to different caches, so they can't share a
+      // queue.
+      String queueName =
+          cacheTypeBlacklist.isEmpty()
+              ? "default"
+              : "no_" + Joiner.on("_no_").join(ImmutableSortedSet.copyOf(cacheTypeBlacklist));
+      result =
+          new BackgroundUploadArtifactCacheDecorator(
+              result,
+              projectFilesystem.resolve(
+                  projectFilesystem
+                      .getBuckPaths()
+                      .getScratchDir()
+                      .resolve("artifact-upload-queue")
+                      .resolve(queueName)),
+              unconfiguredBuildTargetFactory,
+              targetConfigurationSerializer,
+              buckConfig.getUploadQueueMaxBytesPerSecond(),
+              TimeUnit.SECONDS.toMillis(buckConfig.getUploadQueueDrainTimeoutSeconds()),
+              buckConfig.getHttpMaxConcurrentWrites());
+    }
+
     return result;
   }
 
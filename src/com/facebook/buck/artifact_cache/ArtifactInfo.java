@@ -34,6 +34,9 @@ public abstract class ArtifactInfo {
 
   public abstract Optional<String> getRepository();
 
+  /** The type of the rule that produced the artifact, if it was produced by a rule. */
+  public abstract Optional<String> getRuleType();
+
   @Value.Default
   public long getBuildTimeMs() {
     return -1;
@@ -44,6 +47,15 @@ public abstract class ArtifactInfo {
     return false;
   }
 
+  /**
+   * How urgently the artifact should be uploaded, relative to other artifacts, when stores are
+   * queued. Higher goes first.
+   */
+  @Value.Default
+  public int getUploadPriority() {
+    return 0;
+  }
+
   public static Builder builder() {
     return new Builder();
   }
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.TargetConfigurationSerializer;
+import com.facebook.buck.core.model.UnconfiguredBuildTarget;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.MostFiles;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Artifacts waiting to be stored to a cache, persisted on disk so that they survive the command,
+ * or the process, that built them.
+ *
+ * <p>Each entry is a directory under {@code entries/} holding the artifact and its {@link
+ * ArtifactInfo}. Entries are prepared under {@code tmp/} and moved into place atomically, and their
+ * names sort in the order they should be uploaded in: by decreasing upload priority, then oldest
+ * first. Only one process at a time drains the queue, which it ensures by holding {@link #tryLock}.
+ */
+class ArtifactUploadQueue {
+
+  private static final int FORMAT_VERSION = 1;
+  private static final String INFO_FILE = "info";
+  private static final String ARTIFACT_FILE = "artifact";
+
+  private static final AtomicInteger sequence = new AtomicInteger();
+
+  private final Path root;
+  private final Function<String, UnconfiguredBuildTarget> unconfiguredBuildTargetFactory;
+  private final TargetConfigurationSerializer targetConfigurationSerializer;
+
+  ArtifactUploadQueue(
+      Path root,
+      Function<String, UnconfiguredBuildTarget> unconfiguredBuildTargetFactory,
+      TargetConfigurationSerializer targetConfigurationSerializer) {
+    this.root = root;
+    this.unconfiguredBuildTargetFactory = unconfiguredBuildTargetFactory;
+    this.targetConfigurationSerializer = targetConfigurationSerializer;
+  }
+
+  /** Adds an upload of {@code artifact} to the queue, taking it over if it can be borrowed. */
+  void add(ArtifactInfo info, BorrowablePath artifact) throws IOException {
+    Path tmp = root.resolve("tmp");
+    Files.createDirectories(tmp);
+    Files.createDirectories(root.resolve("entries"));
+    String name =
+        String.format(
+            "%010d-%013d-%010d-%s",
+            (long) Integer.MAX_VALUE - Math.max(0, info.getUploadPriority()),
+            System.currentTimeMillis(),
+            sequence.getAndIncrement() & Integer.MAX_VALUE,
+            UUID.randomUUID());
+    Path entry = tmp.resolve(name);
+    try {
+      Files.createDirectory(entry);
+      if (artifact.canBorrow()) {
+        Files.move(artifact.getPath(), entry.resolve(ARTIFACT_FILE));
+      } else {
+        Files.copy(artifact.getPath(), entry.resolve(ARTIFACT_FILE));
+      }
+      writeInfo(entry.resolve(INFO_FILE), info);
+      Files.move(entry, root.resolve("entries").resolve(name), StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      MostFiles.deleteRecursivelyIfExists(entry);
+    }
+  }
+
+  /** @return the entries in the queue, in the order they should be uploaded in. */
+  ImmutableList<Entry> getEntries() throws IOException {
+    Path entries = root.resolve("entries");
+    if (!Files.isDirectory(entries)) {
+      return ImmutableList.of();
+    }
+    try (Stream<Path> stream = Files.list(entries)) {
+      return stream.sorted().map(Entry::new).collect(ImmutableList.toImmutableList());
+    }
+  }
+
+  /**
+   * Tries to get exclusive access to the entries of the queue, for draining it.
+   *
+   * @return the lock, whose channel is to be closed once done, or nothing if someone else holds
+   *     it.
+   */
+  Optional<FileLock> tryLock() throws IOException {
+    Files.createDirectories(root);
+    FileChannel channel =
+        FileChannel.open(
+            root.resolve("drain.lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    try {
+      FileLock lock = channel.tryLock();
+      if (lock != null) {
+        return Optional.of(lock);
+      }
+    } catch (OverlappingFileLockException e) {
+      // Held by another thread of this process.
+    }
+    channel.close();
+    return Optional.empty();
+  }
+
+  private void writeInfo(Path path, ArtifactInfo info) throws IOException {
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+      out.writeInt(FORMAT_VERSION);
+      out.writeInt(info.getRuleKeys().size());
+      for (RuleKey ruleKey : info.getRuleKeys()) {
+        writeString(out, ruleKey.toString());
+      }
+      out.writeInt(info.getMetadata().size());
+      for (Map.Entry<String, String> entry : info.getMetadata().entrySet()) {
+        writeString(out, entry.getKey());
+        writeString(out, entry.getValue());
+      }
+      writeOptionalString(out, info.getBuildTarget().map(BuildTarget::getFullyQualifiedName));
+      writeOptionalString(
+          out,
+          info.getBuildTarget()
+              .map(BuildTarget::getTargetConfiguration)
+              .map(targetConfigurationSerializer::serialize));
+      writeOptionalString(out, info.getRepository());
+      writeOptionalString(out, info.getRuleType());
+      out.writeLong(info.getBuildTimeMs());
+      out.writeBoolean(info.isManifest());
+      out.writeInt(info.getUploadPriority());
+    }
+  }
+
+  private ArtifactInfo readInfo(Path path) throws IOException {
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+      int version = in.readInt();
+      if (version != FORMAT_VERSION) {
+        throw new IOException("Unsupported upload queue entry version " + version);
+      }
+      ArtifactInfo.Builder builder = ArtifactInfo.builder();
+      int ruleKeyCount = in.readInt();
+      for (int i = 0; i < ruleKeyCount; i++) {
+        builder.addRuleKeys(new RuleKey(readString(in)));
+      }
+      int metadataCount = in.readInt();
+      ImmutableMap.Builder<String, String> metadata = ImmutableMap.builder();
+      for (int i = 0; i < metadataCount; i++) {
+        metadata.put(readString(in), readString(in));
+      }
+      builder.setMetadata(metadata.build());
+      Optional<String> target = readOptionalString(in);
+      Optional<String> configuration = readOptionalString(in);
+      if (target.isPresent() && configuration.isPresent()) {
+        builder.setBuildTarget(
+            AbstractArtifactCacheEventFactory.getTarget(
+                unconfiguredBuildTargetFactory,
+                target.get(),
+                targetConfigurationSerializer.deserialize(configuration.get())));
+      }
+      return builder
+          .setRepository(readOptionalString(in))
+          .setRuleType(readOptionalString(in))
+          .setBuildTimeMs(in.readLong())
+          .setManifest(in.readBoolean())
+          .setUploadPriority(in.readInt())
+          .build();
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(Charsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, Charsets.UTF_8);
+  }
+
+  private static void writeOptionalString(DataOutputStream out, Optional<String> value)
+      throws IOException {
+    out.writeBoolean(value.isPresent());
+    if (value.isPresent()) {
+      writeString(out, value.get());
+    }
+  }
+
+  private static Optional<String> readOptionalString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? Optional.of(readString(in)) : Optional.empty();
+  }
+
+  /** A queued upload. */
+  class Entry {
+    private final Path dir;
+
+    private Entry(Path dir) {
+      this.dir = dir;
+    }
+
+    ArtifactInfo getInfo() throws IOException {
+      return readInfo(dir.resolve(INFO_FILE));
+    }
+
+    Path getArtifact() {
+      return dir.resolve(ARTIFACT_FILE);
+    }
+
+    /** Removes the entry from the queue, once it's been uploaded. */
+    void remove() throws IOException {
+      MostFiles.deleteRecursivelyIfExists(dir);
+    }
+
+    @Override
+    public String toString() {
+      return dir.getFileName().toString();
+    }
+  }
+}
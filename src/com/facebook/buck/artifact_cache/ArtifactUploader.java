@@ -48,6 +48,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.SortedSet;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
@@ -61,6 +62,8 @@ import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStr
 public class ArtifactUploader {
   private static final Logger LOG = Logger.get(ArtifactUploader.class);
 
+  private static final byte[] ZSTD_MAGIC = {0x28, (byte) 0xB5, 0x2F, (byte) 0xFD};
+
   /** As method name says */
   public static ListenableFuture<Unit> performUploadToArtifactCache(
       ImmutableSet<RuleKey> ruleKeys,
@@ -70,6 +73,30 @@ public class ArtifactUploader {
       SortedSet<Path> pathsToIncludeInArchive,
       BuildRule buildRule,
       long buildTimeMs) {
+    return performUploadToArtifactCache(
+        ruleKeys,
+        artifactCache,
+        eventBus,
+        buildMetadata,
+        pathsToIncludeInArchive,
+        buildRule,
+        buildTimeMs,
+        0);
+  }
+
+  /**
+   * As method name says, with {@code uploadPriority} ordering the upload relative to others when
+   * stores are queued (see {@link ArtifactInfo#getUploadPriority()}).
+   */
+  public static ListenableFuture<Unit> performUploadToArtifactCache(
+      ImmutableSet<RuleKey> ruleKeys,
+      ArtifactCache artifactCache,
+      BuckEventBus eventBus,
+      ImmutableMap<String, String> buildMetadata,
+      SortedSet<Path> pathsToIncludeInArchive,
+      BuildRule buildRule,
+      long buildTimeMs,
+      int uploadPriority) {
     ProjectFilesystem projectFilesystem = buildRule.getProjectFilesystem();
     NamedTemporaryFile archive;
     try {
@@ -89,7 +116,9 @@ public class ArtifactUploader {
                 .setRuleKeys(ruleKeys)
                 .setMetadata(buildMetadata)
                 .setBuildTarget(buildRule.getBuildTarget())
+                .setRuleType(buildRule.getType())
                 .setBuildTimeMs(buildTimeMs)
+                .setUploadPriority(uploadPriority)
                 .build(),
             BorrowablePath.borrowablePath(archive.get()));
     Futures.addCallback(
@@ -191,6 +220,19 @@ public class ArtifactUploader {
     }
   }
 
+  /**
+   * @return whether 'artifact' starts with a zstandard frame, as written by {@link #compress}.
+   *     Artifacts fetched from the cache are usually compressed tarballs, but cache decorators may
+   *     hand them back uncompressed.
+   */
+  public static boolean isZstdCompressed(Path artifact) throws IOException {
+    byte[] magic = new byte[ZSTD_MAGIC.length];
+    try (InputStream input = Files.newInputStream(artifact)) {
+      return ByteStreams.read(input, magic, 0, magic.length) == magic.length
+          && Arrays.equals(magic, ZSTD_MAGIC);
+    }
+  }
+
   /** Archive and compress 'pathsToIncludeInArchive' into 'out', using tar+zstandard. */
   @VisibleForTesting
   static long compress(
@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.TargetConfigurationSerializer;
+import com.facebook.buck.core.model.UnconfiguredBuildTarget;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.util.types.Unit;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.RateLimiter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+/**
+ * Defers stores to the wrapped cache until the end of the command.
+ *
+ * <p>Uploading artifacts as soon as rules are built competes for network and disk with the fetches
+ * of the rules still to be built. Instead, this decorator adds stores to an {@link
+ * ArtifactUploadQueue} on disk, and uploads them once the cache is closed, which {@link
+ * ArtifactCaches} does in a background task at the end of the command. Uploads are started in
+ * order of priority, several at a time, optionally limited in bandwidth and in time; whatever
+ * doesn't get uploaded stays queued, and is picked up by the next command sharing the queue, even
+ * after a restart of the daemon.
+ */
+public class BackgroundUploadArtifactCacheDecorator implements ArtifactCache, CacheDecorator {
+
+  private static final Logger LOG = Logger.get(BackgroundUploadArtifactCacheDecorator.class);
+
+  private final ArtifactCache delegate;
+  private final ArtifactUploadQueue queue;
+  private final Optional<RateLimiter> rateLimiter;
+  private final long drainTimeoutMillis;
+  private final int maxConcurrentUploads;
+
+  public BackgroundUploadArtifactCacheDecorator(
+      ArtifactCache delegate,
+      Path queueDir,
+      Function<String, UnconfiguredBuildTarget> unconfiguredBuildTargetFactory,
+      TargetConfigurationSerializer targetConfigurationSerializer,
+      Optional<Long> maxBytesPerSecond,
+      long drainTimeoutMillis,
+      int maxConcurrentUploads) {
+    Preconditions.checkArgument(maxConcurrentUploads > 0);
+    this.delegate = delegate;
+    this.queue =
+        new ArtifactUploadQueue(
+            queueDir, unconfiguredBuildTargetFactory, targetConfigurationSerializer);
+    this.rateLimiter = maxBytesPerSecond.map(RateLimiter::create);
+    this.drainTimeoutMillis = drainTimeoutMillis;
+    this.maxConcurrentUploads = maxConcurrentUploads;
+  }
+
+  @Override
+  public ListenableFuture<CacheResult> fetchAsync(
+      @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+    return delegate.fetchAsync(target, ruleKey, output);
+  }
+
+  @Override
+  public void skipPendingAndFutureAsyncFetches() {
+    delegate.skipPendingAndFutureAsyncFetches();
+  }
+
+  @Override
+  public ListenableFuture<Unit> store(ArtifactInfo info, BorrowablePath output) {
+    if (!delegate.getCacheReadMode().isWritable()) {
+      return delegate.store(info, output);
+    }
+    try {
+      queue.add(info, output);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to queue upload of %s, uploading it now.", info.getRuleKeys());
+      return delegate.store(info, output);
+    }
+    return Futures.immediateFuture(Unit.UNIT);
+  }
+
+  @Override
+  public ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
+      ImmutableSet<RuleKey> ruleKeys) {
+    return delegate.multiContainsAsync(ruleKeys);
+  }
+
+  @Override
+  public ListenableFuture<CacheDeleteResult> deleteAsync(List<RuleKey> ruleKeys) {
+    return delegate.deleteAsync(ruleKeys);
+  }
+
+  @Override
+  public CacheReadMode getCacheReadMode() {
+    return delegate.getCacheReadMode();
+  }
+
+  @Override
+  public ArtifactCache getDelegate() {
+    return delegate;
+  }
+
+  /** Drains the queue, then closes the wrapped cache. */
+  @Override
+  public void close() {
+    try {
+      drain(System.currentTimeMillis() + drainTimeoutMillis);
+    } finally {
+      delegate.close();
+    }
+  }
+
+  /**
+   * Uploads queued artifacts, highest priority first, until the queue is empty, {@code
+   * deadlineMillis} is reached, or uploads stop succeeding. Up to {@code maxConcurrentUploads}
+   * uploads are in flight at once. Does nothing if another process is already draining the queue.
+   *
+   * @return the number of entries taken off the queue.
+   */
+  @VisibleForTesting
+  int drain(long deadlineMillis) {
+    Optional<FileLock> lock;
+    try {
+      lock = queue.tryLock();
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to lock the upload queue.");
+      return 0;
+    }
+    if (!lock.isPresent()) {
+      LOG.debug("Upload queue is being drained by another process.");
+      return 0;
+    }
+
+    AtomicInteger uploaded = new AtomicInteger();
+    Set<String> failed = ConcurrentHashMap.newKeySet();
+    Semaphore uploadSlots = new Semaphore(maxConcurrentUploads);
+    // Closing the channel releases the lock.
+    try (FileChannel ignored = lock.get().channel()) {
+      boolean progress = true;
+      while (progress) {
+        int uploadedBefore = uploaded.get();
+        boolean startedAll;
+        try {
+          startedAll = startUploads(deadlineMillis, uploadSlots, uploaded, failed);
+        } finally {
+          // Wait for the pass's uploads, so that the next one doesn't upload them again.
+          awaitUploads(deadlineMillis, uploadSlots);
+        }
+        progress = startedAll && uploaded.get() > uploadedBefore;
+      }
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to drain the upload queue.");
+    } finally {
+      if (uploaded.get() > 0 || !failed.isEmpty()) {
+        LOG.info("Uploaded %d queued artifacts, %d failed.", uploaded.get(), failed.size());
+      }
+    }
+    return uploaded.get();
+  }
+
+  /**
+   * Starts uploading every queued entry that hasn't failed yet, each once an upload slot is free.
+   *
+   * @return whether all entries were started, rather than the drain running out of time.
+   */
+  private boolean startUploads(
+      long deadlineMillis, Semaphore uploadSlots, AtomicInteger uploaded, Set<String> failed)
+      throws IOException {
+    // Relist every pass, to pick up artifacts queued in the meantime.
+    ImmutableList<ArtifactUploadQueue.Entry> entries = queue.getEntries();
+    for (ArtifactUploadQueue.Entry entry : entries) {
+      if (failed.contains(entry.toString())) {
+        continue;
+      }
+      long remainingMillis = deadlineMillis - System.currentTimeMillis();
+      if (remainingMillis <= 0 || Thread.currentThread().isInterrupted()) {
+        return false;
+      }
+      if (!acquireBandwidth(entry, remainingMillis)) {
+        return false;
+      }
+      try {
+        if (!uploadSlots.tryAcquire(remainingMillis, TimeUnit.MILLISECONDS)) {
+          return false;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+      ListenableFuture<Boolean> upload;
+      try {
+        upload = upload(entry);
+      } catch (IOException | RuntimeException e) {
+        uploadSlots.release();
+        throw e;
+      }
+      Futures.addCallback(
+          upload,
+          new FutureCallback<Boolean>() {
+            @Override
+            public void onSuccess(Boolean done) {
+              if (done) {
+                uploaded.incrementAndGet();
+              } else {
+                failed.add(entry.toString());
+              }
+              uploadSlots.release();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+              failed.add(entry.toString());
+              uploadSlots.release();
+            }
+          },
+          MoreExecutors.directExecutor());
+    }
+    return true;
+  }
+
+  private void awaitUploads(long deadlineMillis, Semaphore uploadSlots) {
+    long remainingMillis = Math.max(0, deadlineMillis - System.currentTimeMillis());
+    try {
+      if (uploadSlots.tryAcquire(maxConcurrentUploads, remainingMillis, TimeUnit.MILLISECONDS)) {
+        uploadSlots.release(maxConcurrentUploads);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private boolean acquireBandwidth(ArtifactUploadQueue.Entry entry, long remainingMillis)
+      throws IOException {
+    if (!rateLimiter.isPresent() || !Files.exists(entry.getArtifact())) {
+      return true;
+    }
+    int permits = (int) Math.max(1, Math.min(Files.size(entry.getArtifact()), Integer.MAX_VALUE));
+    return rateLimiter.get().tryAcquire(permits, remainingMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /** @return a future of whether {@code entry} is done with, either uploaded or dropped. */
+  private ListenableFuture<Boolean> upload(ArtifactUploadQueue.Entry entry) throws IOException {
+    ArtifactInfo info;
+    try {
+      info = entry.getInfo();
+    } catch (IOException e) {
+      LOG.warn(e, "Dropping corrupt upload queue entry %s.", entry);
+      entry.remove();
+      return Futures.immediateFuture(true);
+    }
+    if (!Files.isRegularFile(entry.getArtifact())) {
+      LOG.warn("Dropping upload queue entry %s, its artifact is missing.", entry);
+      entry.remove();
+      return Futures.immediateFuture(true);
+    }
+    ListenableFuture<Unit> store;
+    try {
+      store = delegate.store(info, BorrowablePath.notBorrowablePath(entry.getArtifact()));
+    } catch (RuntimeException e) {
+      // E.g. the store executor has already been shut down.
+      LOG.warn(e, "Failed to upload %s, leaving it queued.", info.getRuleKeys());
+      return Futures.immediateFuture(false);
+    }
+    return Futures.catching(
+        Futures.transform(
+            store,
+            unit -> {
+              try {
+                entry.remove();
+                return true;
+              } catch (IOException e) {
+                LOG.warn(e, "Failed to remove uploaded entry %s from the queue.", entry);
+                return false;
+              }
+            },
+            MoreExecutors.directExecutor()),
+        Exception.class,
+        e -> {
+          LOG.warn(e, "Failed to upload %s, leaving it queued.", info.getRuleKeys());
+          return false;
+        },
+        MoreExecutors.directExecutor());
+  }
+}
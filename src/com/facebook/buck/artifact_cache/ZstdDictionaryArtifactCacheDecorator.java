@@ -0,0 +1,563 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.util.types.Unit;
+import com.github.luben.zstd.ZstdDictTrainer;
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nullable;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+
+/**
+ * Recompresses artifacts with zstd dictionaries trained on the outputs of each rule type.
+ *
+ * <p>Artifacts are stored as zstd-compressed tarballs, and most of them are small: a handful of
+ * class files, objects or resources that look a lot like the outputs of other rules of the same
+ * type. Compressed independently, each of them pays for the boilerplate again. When enabled, this
+ * decorator samples the artifacts of each rule type until it has enough data to train a dictionary
+ * for it, uploads the dictionary to the cache under its own key, and from then on recompresses the
+ * artifacts of that type against it. The key of the dictionary is added to the metadata of those
+ * artifacts. Sampling, training and recompressing all happen on the store executor.
+ *
+ * <p>The dictionary trained for a rule type is also published in the cache, under a key derived
+ * from the rule type and {@link ZstdDictionaryStore#VERSION}. Clients without a dictionary for a
+ * rule type look that up first, so that they all end up using the same dictionary rather than
+ * each training their own.
+ *
+ * <p>Fetches are negotiated from the metadata alone: when an artifact refers to a dictionary, the
+ * dictionary is fetched from the cache (once, then kept locally) and the artifact is handed back as
+ * an uncompressed tarball, with the extra metadata removed. Other artifacts pass through untouched,
+ * so reading always works, and dictionary compression should only be enabled for stores once every
+ * client reading from the cache understands it.
+ */
+public class ZstdDictionaryArtifactCacheDecorator implements ArtifactCache, CacheDecorator {
+
+  @VisibleForTesting static final String METADATA_KEY = "ZSTD_DICTIONARY";
+
+  public static final int DEFAULT_COMPRESSION_LEVEL = 9;
+  public static final int DEFAULT_DICTIONARY_SIZE = 64 * 1024;
+  public static final int DEFAULT_TRAINING_SIZE = 100 * DEFAULT_DICTIONARY_SIZE;
+
+  /** Samples are taken from the start of each file in an artifact, up to this size. */
+  private static final int MAX_SAMPLE_SIZE = 16 * 1024;
+
+  /** Limits how much of the training data a single large artifact can account for. */
+  private static final int MAX_SAMPLE_BYTES_PER_ARTIFACT = 256 * 1024;
+
+  private static final Logger LOG = Logger.get(ZstdDictionaryArtifactCacheDecorator.class);
+
+  private final ArtifactCache delegate;
+  private final ZstdDictionaryStore dictionaries;
+  private final boolean compressStores;
+  private final int compressionLevel;
+  private final ListeningExecutorService storeExecutor;
+  private final int dictionarySize;
+  private final int trainingSize;
+  private final ConcurrentMap<String, Samples> samplesByRuleType = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, ListenableFuture<Unit>> sharedDictionaryLookups =
+      new ConcurrentHashMap<>();
+
+  public ZstdDictionaryArtifactCacheDecorator(
+      ArtifactCache delegate,
+      Path dictionaryDir,
+      boolean compressStores,
+      int compressionLevel,
+      ListeningExecutorService storeExecutor) {
+    this(
+        delegate,
+        dictionaryDir,
+        compressStores,
+        compressionLevel,
+        storeExecutor,
+        DEFAULT_DICTIONARY_SIZE,
+        DEFAULT_TRAINING_SIZE);
+  }
+
+  @VisibleForTesting
+  ZstdDictionaryArtifactCacheDecorator(
+      ArtifactCache delegate,
+      Path dictionaryDir,
+      boolean compressStores,
+      int compressionLevel,
+      ListeningExecutorService storeExecutor,
+      int dictionarySize,
+      int trainingSize) {
+    this.delegate = delegate;
+    this.dictionaries = new ZstdDictionaryStore(dictionaryDir, compressionLevel);
+    this.compressStores = compressStores;
+    this.compressionLevel = compressionLevel;
+    this.storeExecutor = storeExecutor;
+    this.dictionarySize = dictionarySize;
+    this.trainingSize = trainingSize;
+  }
+
+  @Override
+  public ListenableFuture<CacheResult> fetchAsync(
+      @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+    return Futures.transformAsync(
+        delegate.fetchAsync(target, ruleKey, output),
+        (CacheResult fetchResult) -> {
+          if (!fetchResult.getType().isSuccess()
+              || !fetchResult.getMetadata().containsKey(METADATA_KEY)) {
+            return Futures.immediateFuture(fetchResult);
+          }
+          String dictionaryKey = fetchResult.getMetadata().get(METADATA_KEY);
+          return Futures.transform(
+              fetchDictionary(target, dictionaryKey),
+              (Boolean found) -> {
+                if (!found) {
+                  LOG.warn("Missing dictionary %s for artifact %s.", dictionaryKey, ruleKey);
+                  return CacheResult.miss();
+                }
+                try {
+                  decompress(output.get(), dictionaryKey);
+                } catch (IOException e) {
+                  LOG.warn(e, "Failed to decompress artifact %s.", ruleKey);
+                  return CacheResult.miss();
+                }
+                return fetchResult.withMetadata(
+                    Optional.of(withoutDictionaryKey(fetchResult.getMetadata())));
+              },
+              MoreExecutors.directExecutor());
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  @Override
+  public void skipPendingAndFutureAsyncFetches() {
+    delegate.skipPendingAndFutureAsyncFetches();
+  }
+
+  @Override
+  public ListenableFuture<Unit> store(ArtifactInfo info, BorrowablePath output) {
+    if (!compressStores || info.isManifest() || !info.getRuleType().isPresent()) {
+      return delegate.store(info, output);
+    }
+    // Sampling, training and recompressing are too slow for the thread that built the rule.
+    return Futures.dereference(storeExecutor.submit(() -> recompressAndStore(info, output)));
+  }
+
+  private ListenableFuture<Unit> recompressAndStore(ArtifactInfo info, BorrowablePath output) {
+    String ruleType = info.getRuleType().get();
+    Path recompressed;
+    String dictionaryKey;
+    try {
+      if (!ArtifactUploader.isZstdCompressed(output.getPath())) {
+        return delegate.store(info, output);
+      }
+      Optional<String> currentKey = getDictionaryKey(ruleType);
+      if (!currentKey.isPresent()) {
+        sample(ruleType, output.getPath());
+        return delegate.store(info, output);
+      }
+      dictionaryKey = currentKey.get();
+      recompressed = recompress(output.getPath(), dictionaryKey);
+      if (Files.size(recompressed) >= Files.size(output.getPath())) {
+        Files.delete(recompressed);
+        return delegate.store(info, output);
+      }
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to recompress artifact of %s, storing it as is.", ruleType);
+      return delegate.store(info, output);
+    }
+
+    ArtifactInfo recompressedInfo =
+        ArtifactInfo.builder()
+            .from(info)
+            .setMetadata(
+                ImmutableMap.<String, String>builder()
+                    .putAll(withoutDictionaryKey(info.getMetadata()))
+                    .put(METADATA_KEY, dictionaryKey)
+                    .build())
+            .build();
+    ListenableFuture<Unit> storeFuture =
+        delegate.store(recompressedInfo, BorrowablePath.borrowablePath(recompressed));
+    storeFuture.addListener(() -> deleteQuietly(recompressed), MoreExecutors.directExecutor());
+    return storeFuture;
+  }
+
+  @Override
+  public ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
+      ImmutableSet<RuleKey> ruleKeys) {
+    return delegate.multiContainsAsync(ruleKeys);
+  }
+
+  @Override
+  public ListenableFuture<CacheDeleteResult> deleteAsync(List<RuleKey> ruleKeys) {
+    // Dictionaries are shared between artifacts, so they are never deleted along with them.
+    return delegate.deleteAsync(ruleKeys);
+  }
+
+  @Override
+  public CacheReadMode getCacheReadMode() {
+    return delegate.getCacheReadMode();
+  }
+
+  @Override
+  public ArtifactCache getDelegate() {
+    return delegate;
+  }
+
+  @Override
+  public void close() {
+    delegate.close();
+  }
+
+  /**
+   * @return the key of the local dictionary for artifacts of {@code ruleType}, if there is one. The
+   *     first time there isn't, the dictionary shared for the rule type is fetched from the cache,
+   *     and used from then on.
+   */
+  private Optional<String> getDictionaryKey(String ruleType) throws IOException {
+    Optional<String> key = dictionaries.getDictionaryKey(ruleType);
+    SettableFuture<Unit> lookup = SettableFuture.create();
+    if (!key.isPresent() && sharedDictionaryLookups.putIfAbsent(ruleType, lookup) == null) {
+      try {
+        lookup.setFuture(fetchSharedDictionary(ruleType));
+      } catch (IOException | RuntimeException e) {
+        // E.g. the fetch executor was shut down already: go on without a shared dictionary.
+        LOG.warn(e, "Failed to look up the shared dictionary of %s.", ruleType);
+        lookup.set(Unit.UNIT);
+        return key;
+      }
+      // The fetch may have completed already.
+      key = dictionaries.getDictionaryKey(ruleType);
+    }
+    return key;
+  }
+
+  /** @return the lookup of the dictionary shared for {@code ruleType}, if one was started. */
+  @VisibleForTesting
+  Optional<ListenableFuture<Unit>> getSharedDictionaryLookup(String ruleType) {
+    return Optional.ofNullable(sharedDictionaryLookups.get(ruleType));
+  }
+
+  /** Looks up the dictionary shared for {@code ruleType}, and makes it the local one if found. */
+  private ListenableFuture<Unit> fetchSharedDictionary(String ruleType) throws IOException {
+    Path temp = dictionaries.createTempFile();
+    ListenableFuture<Optional<String>> sharedKey =
+        Futures.transform(
+            delegate.fetchAsync(
+                null,
+                new RuleKey(ZstdDictionaryStore.getRuleTypeKey(ruleType)),
+                LazyPath.ofInstance(temp)),
+            (CacheResult result) -> {
+              try {
+                if (!result.getType().isSuccess()) {
+                  return Optional.empty();
+                }
+                String key = new String(Files.readAllBytes(temp), StandardCharsets.UTF_8).trim();
+                return ZstdDictionaryStore.isKey(key) ? Optional.of(key) : Optional.empty();
+              } catch (IOException e) {
+                LOG.warn(e, "Failed to read the shared dictionary key of %s.", ruleType);
+                return Optional.empty();
+              } finally {
+                deleteQuietly(temp);
+              }
+            },
+            MoreExecutors.directExecutor());
+    ListenableFuture<Unit> recorded =
+        Futures.transformAsync(
+            sharedKey,
+            (Optional<String> key) -> {
+              if (!key.isPresent()) {
+                return Futures.immediateFuture(Unit.UNIT);
+              }
+              return Futures.transform(
+                  fetchDictionary(null, key.get()),
+                  (Boolean found) -> {
+                    if (!found) {
+                      return Unit.UNIT;
+                    }
+                    try {
+                      dictionaries.setDictionaryKey(ruleType, key.get());
+                      LOG.debug("Using shared dictionary %s for %s.", key.get(), ruleType);
+                    } catch (IOException e) {
+                      LOG.warn(e, "Failed to record dictionary %s for %s.", key.get(), ruleType);
+                    }
+                    return Unit.UNIT;
+                  },
+                  MoreExecutors.directExecutor());
+            },
+            MoreExecutors.directExecutor());
+    return Futures.catching(
+        recorded,
+        Exception.class,
+        e -> {
+          LOG.warn(e, "Failed to fetch the shared dictionary of %s.", ruleType);
+          return Unit.UNIT;
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  /** Publishes the dictionary with the given key as the one shared for {@code ruleType}. */
+  private void shareDictionary(String ruleType, String dictionaryKey) throws IOException {
+    Path temp = dictionaries.createTempFile();
+    Files.write(temp, dictionaryKey.getBytes(StandardCharsets.UTF_8));
+    ListenableFuture<Unit> upload;
+    try {
+      upload =
+          delegate.store(
+              ArtifactInfo.builder()
+                  .addRuleKeys(new RuleKey(ZstdDictionaryStore.getRuleTypeKey(ruleType)))
+                  .build(),
+              BorrowablePath.borrowablePath(temp));
+    } catch (RuntimeException e) {
+      deleteQuietly(temp);
+      throw e;
+    }
+    upload.addListener(() -> deleteQuietly(temp), MoreExecutors.directExecutor());
+  }
+
+  /**
+   * Adds samples from {@code artifact} to the training data of {@code ruleType}, and trains and
+   * uploads a dictionary once there is enough of it.
+   *
+   * <p>A new dictionary only becomes the one used for the rule type once it is in the cache, so
+   * readers can always find the dictionaries referred to by the artifacts they fetch.
+   */
+  private void sample(String ruleType, Path artifact) throws IOException {
+    Samples samples = samplesByRuleType.computeIfAbsent(ruleType, key -> new Samples());
+    Optional<ImmutableList<byte[]>> trainingData = samples.add(readSamples(artifact), trainingSize);
+    if (!trainingData.isPresent()) {
+      return;
+    }
+
+    byte[] dictionary;
+    try {
+      ZstdDictTrainer trainer =
+          new ZstdDictTrainer(trainingSize + MAX_SAMPLE_BYTES_PER_ARTIFACT, dictionarySize);
+      for (byte[] sample : trainingData.get()) {
+        trainer.addSample(sample);
+      }
+      dictionary = trainer.trainSamples();
+    } catch (RuntimeException e) {
+      LOG.info(e, "Could not train a dictionary for %s.", ruleType);
+      samples.reset();
+      return;
+    }
+
+    String dictionaryKey = dictionaries.putDictionary(dictionary);
+    LOG.debug("Trained dictionary %s for %s.", dictionaryKey, ruleType);
+    ListenableFuture<Unit> upload =
+        delegate.store(
+            ArtifactInfo.builder().addRuleKeys(new RuleKey(dictionaryKey)).build(),
+            BorrowablePath.notBorrowablePath(dictionaries.getPath(dictionaryKey)));
+    Futures.addCallback(
+        upload,
+        new FutureCallback<Unit>() {
+          @Override
+          public void onSuccess(@Nullable Unit result) {
+            try {
+              dictionaries.setDictionaryKey(ruleType, dictionaryKey);
+              shareDictionary(ruleType, dictionaryKey);
+            } catch (IOException e) {
+              LOG.warn(e, "Failed to record dictionary %s for %s.", dictionaryKey, ruleType);
+            }
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            LOG.warn(t, "Failed to upload dictionary %s for %s.", dictionaryKey, ruleType);
+            samples.reset();
+          }
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  /** Fetches the dictionary with the given key, unless there is a local copy of it already. */
+  private ListenableFuture<Boolean> fetchDictionary(
+      @Nullable BuildTarget target, String dictionaryKey) throws IOException {
+    if (!ZstdDictionaryStore.isKey(dictionaryKey)) {
+      return Futures.immediateFuture(false);
+    }
+    if (dictionaries.hasDictionary(dictionaryKey)) {
+      return Futures.immediateFuture(true);
+    }
+    Path temp = dictionaries.createTempFile();
+    return Futures.transform(
+        delegate.fetchAsync(target, new RuleKey(dictionaryKey), LazyPath.ofInstance(temp)),
+        (CacheResult result) -> {
+          try {
+            if (!result.getType().isSuccess()) {
+              return false;
+            }
+            byte[] dictionary = Files.readAllBytes(temp);
+            if (!ZstdDictionaryStore.getKey(dictionary).equals(dictionaryKey)) {
+              LOG.warn("Fetched dictionary does not match its key %s.", dictionaryKey);
+              return false;
+            }
+            dictionaries.putDictionary(dictionary);
+            return true;
+          } catch (IOException e) {
+            LOG.warn(e, "Failed to read dictionary %s.", dictionaryKey);
+            return false;
+          } finally {
+            deleteQuietly(temp);
+          }
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  /** @return a copy of {@code artifact} compressed with the dictionary with the given key. */
+  private Path recompress(Path artifact, String dictionaryKey) throws IOException {
+    Path recompressed = dictionaries.createTempFile();
+    try (InputStream in = newDecompressingStream(artifact);
+        ZstdOutputStream out =
+            new ZstdOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(recompressed)), compressionLevel)) {
+      out.setDict(dictionaries.getCompressDictionary(dictionaryKey));
+      ByteStreams.copy(in, out);
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(recompressed);
+      throw e;
+    }
+    return recompressed;
+  }
+
+  /** Replaces {@code artifact} with its contents, decompressed with the given dictionary. */
+  private void decompress(Path artifact, String dictionaryKey) throws IOException {
+    Path decompressed =
+        Files.createTempFile(artifact.getParent(), artifact.getFileName().toString(), ".tmp");
+    try {
+      try (ZstdInputStream in =
+              new ZstdInputStream(new BufferedInputStream(Files.newInputStream(artifact)));
+          OutputStream out = new BufferedOutputStream(Files.newOutputStream(decompressed))) {
+        in.setDict(dictionaries.getDecompressDictionary(dictionaryKey));
+        ByteStreams.copy(in, out);
+      }
+      Files.move(decompressed, artifact, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(decompressed);
+    }
+  }
+
+  /** Reads the start of every file in the compressed tarball {@code artifact}. */
+  private static ImmutableList<byte[]> readSamples(Path artifact) throws IOException {
+    ImmutableList.Builder<byte[]> samples = ImmutableList.builder();
+    int total = 0;
+    try (TarArchiveInputStream archive =
+        new TarArchiveInputStream(newDecompressingStream(artifact))) {
+      TarArchiveEntry entry;
+      while (total < MAX_SAMPLE_BYTES_PER_ARTIFACT && (entry = archive.getNextTarEntry()) != null) {
+        if (!entry.isFile() || entry.getSize() == 0) {
+          continue;
+        }
+        int size = (int) Math.min(entry.getSize(), MAX_SAMPLE_SIZE);
+        byte[] sample = new byte[size];
+        ByteStreams.readFully(archive, sample);
+        samples.add(sample);
+        total += size;
+      }
+    }
+    return samples.build();
+  }
+
+  private static void deleteQuietly(Path path) {
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      LOG.debug(e, "Failed to delete %s.", path);
+    }
+  }
+
+  private static InputStream newDecompressingStream(Path artifact) throws IOException {
+    return new ZstdInputStream(new BufferedInputStream(Files.newInputStream(artifact)));
+  }
+
+  private static ImmutableMap<String, String> withoutDictionaryKey(
+      ImmutableMap<String, String> metadata) {
+    if (!metadata.containsKey(METADATA_KEY)) {
+      return metadata;
+    }
+    ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
+    for (Map.Entry<String, String> entry : metadata.entrySet()) {
+      if (!entry.getKey().equals(METADATA_KEY)) {
+        builder.put(entry);
+      }
+    }
+    return builder.build();
+  }
+
+  /** Training data collected for a single rule type. */
+  private static class Samples {
+    private final List<byte[]> samples = new ArrayList<>();
+    private long size = 0;
+    private boolean trained = false;
+
+    /**
+     * @return all of the collected samples, the first time there are at least {@code trainingSize}
+     *     bytes of them. Later samples are ignored, unless the collection is {@link #reset()}.
+     */
+    synchronized Optional<ImmutableList<byte[]>> add(List<byte[]> newSamples, int trainingSize) {
+      if (trained) {
+        return Optional.empty();
+      }
+      for (byte[] sample : newSamples) {
+        samples.add(sample);
+        size += sample.length;
+      }
+      if (size < trainingSize) {
+        return Optional.empty();
+      }
+      ImmutableList<byte[]> result = ImmutableList.copyOf(samples);
+      samples.clear();
+      size = 0;
+      trained = true;
+      return Optional.of(result);
+    }
+
+    /** Starts collecting samples again, after training or uploading a dictionary failed. */
+    synchronized void reset() {
+      trained = false;
+    }
+  }
+}
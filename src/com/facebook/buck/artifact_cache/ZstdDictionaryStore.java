@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Local copies of the zstd dictionaries used by {@link ZstdDictionaryArtifactCacheDecorator}.
+ *
+ * <p>Dictionaries are content addressed: a dictionary is stored as {@code <key>.dict}, where the
+ * key is derived from its SHA-1, and is also the rule key it is uploaded to the cache under. The
+ * dictionary currently used to compress the artifacts of each rule type is recorded separately,
+ * under {@code rule_types/}. Files are moved into place atomically, so concurrent builds sharing a
+ * cache directory never see a partially written dictionary.
+ */
+class ZstdDictionaryStore {
+
+  /**
+   * Bump when dictionaries are trained differently, so that clients stop using the dictionaries
+   * recorded for each rule type by older ones, both locally and in the cache.
+   */
+  static final int VERSION = 1;
+
+  /** Suffix that tells dictionary keys apart from other content keys stored in the cache. */
+  private static final String KEY_SUFFIX = "d1c7";
+
+  /** Suffix of the keys the dictionary shared for each rule type is recorded under. */
+  private static final String RULE_TYPE_KEY_SUFFIX = "d1c0";
+
+  private final Path root;
+  private final int compressionLevel;
+  private final ConcurrentMap<String, ZstdDictCompress> compressDictionaries =
+      new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, ZstdDictDecompress> decompressDictionaries =
+      new ConcurrentHashMap<>();
+
+  ZstdDictionaryStore(Path root, int compressionLevel) {
+    this.root = root;
+    this.compressionLevel = compressionLevel;
+  }
+
+  /** @return the key {@code dictionary} is stored and uploaded under. */
+  static String getKey(byte[] dictionary) {
+    return Hashing.sha1().hashBytes(dictionary).toString() + KEY_SUFFIX;
+  }
+
+  /** @return the key the dictionary shared for {@code ruleType} is recorded under in the cache. */
+  static String getRuleTypeKey(String ruleType) {
+    return Hashing.sha1()
+            .hashString("rule_type:" + VERSION + ":" + ruleType, StandardCharsets.UTF_8)
+            .toString()
+        + RULE_TYPE_KEY_SUFFIX;
+  }
+
+  /** @return whether {@code key} looks like a dictionary key. */
+  static boolean isKey(String key) {
+    return key.matches("[0-9a-f]{40}" + KEY_SUFFIX);
+  }
+
+  /** @return the path of the local copy of the dictionary with the given key. */
+  Path getPath(String key) {
+    return root.resolve(key + ".dict");
+  }
+
+  /** @return the key of the dictionary used for artifacts of {@code ruleType}, if there is one. */
+  Optional<String> getDictionaryKey(String ruleType) throws IOException {
+    Path pointer = getRuleTypePath(ruleType);
+    if (!Files.isRegularFile(pointer)) {
+      return Optional.empty();
+    }
+    String key = new String(Files.readAllBytes(pointer), StandardCharsets.UTF_8).trim();
+    return isKey(key) && Files.isRegularFile(getPath(key)) ? Optional.of(key) : Optional.empty();
+  }
+
+  /** Makes the dictionary with the given key the one used for artifacts of {@code ruleType}. */
+  void setDictionaryKey(String ruleType, String key) throws IOException {
+    writeAtomically(getRuleTypePath(ruleType), key.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /** Stores a local copy of {@code dictionary}, and returns its key. */
+  String putDictionary(byte[] dictionary) throws IOException {
+    String key = getKey(dictionary);
+    Path path = getPath(key);
+    if (!Files.isRegularFile(path)) {
+      writeAtomically(path, dictionary);
+    }
+    return key;
+  }
+
+  /** @return whether there is a local copy of the dictionary with the given key. */
+  boolean hasDictionary(String key) {
+    return decompressDictionaries.containsKey(key) || Files.isRegularFile(getPath(key));
+  }
+
+  /** @return the dictionary with the given key, prepared for compression. */
+  ZstdDictCompress getCompressDictionary(String key) throws IOException {
+    ZstdDictCompress dictionary = compressDictionaries.get(key);
+    if (dictionary == null) {
+      dictionary = new ZstdDictCompress(Files.readAllBytes(getPath(key)), compressionLevel);
+      ZstdDictCompress existing = compressDictionaries.putIfAbsent(key, dictionary);
+      if (existing != null) {
+        dictionary.close();
+        dictionary = existing;
+      }
+    }
+    return dictionary;
+  }
+
+  /** @return the dictionary with the given key, prepared for decompression. */
+  ZstdDictDecompress getDecompressDictionary(String key) throws IOException {
+    ZstdDictDecompress dictionary = decompressDictionaries.get(key);
+    if (dictionary == null) {
+      dictionary = new ZstdDictDecompress(Files.readAllBytes(getPath(key)));
+      ZstdDictDecompress existing = decompressDictionaries.putIfAbsent(key, dictionary);
+      if (existing != null) {
+        dictionary.close();
+        dictionary = existing;
+      }
+    }
+    return dictionary;
+  }
+
+  /** Creates a temporary file next to the dictionaries. */
+  Path createTempFile() throws IOException {
+    Files.createDirectories(root);
+    return Files.createTempFile(root, "dictionary", ".tmp");
+  }
+
+  private Path getRuleTypePath(String ruleType) {
+    return root.resolve("rule_types")
+        .resolve("v" + VERSION)
+        .resolve(ruleType.replaceAll("[^A-Za-z0-9._-]", "_"));
+  }
+
+  private void writeAtomically(Path path, byte[] contents) throws IOException {
+    Files.createDirectories(path.getParent());
+    Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+    try {
+      Files.write(temp, contents);
+      Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+}
@@ -126,6 +126,19 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
       "two_level_cache_maximum_size";
   private static final long TWO_LEVEL_CACHING_MIN_SIZE_DEFAULT = 20 * 1024L;
 
+  private static final String ZSTD_DICTIONARY_COMPRESSION_ENABLED_FIELD_NAME =
+      "zstd_dictionary_compression_enabled";
+  private static final String ZSTD_DICTIONARY_COMPRESSION_LEVEL_FIELD_NAME =
+      "zstd_dictionary_compression_level";
+  private static final int ZSTD_DICTIONARY_COMPRESSION_LEVEL_DEFAULT = 9;
+
+  private static final String UPLOAD_QUEUE_ENABLED_FIELD_NAME = "upload_queue_enabled";
+  private static final String UPLOAD_QUEUE_MAX_BYTES_PER_SECOND_FIELD_NAME =
+      "upload_queue_max_bytes_per_second";
+  private static final String UPLOAD_QUEUE_DRAIN_TIMEOUT_SECONDS_FIELD_NAME =
+      "upload_queue_drain_timeout_seconds";
+  private static final long UPLOAD_QUEUE_DRAIN_TIMEOUT_SECONDS_DEFAULT = 600;
+
   private static final String HYBRID_THRIFT_ENDPOINT = "hybrid_thrift_endpoint";
   private static final String REPOSITORY = "repository";
   private static final String DEFAULT_REPOSITORY = "";
@@ -406,6 +419,41 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
         .map(SizeUnit::parseBytes);
   }
 
+  /**
+   * If true, artifacts are stored recompressed with zstd dictionaries trained per rule type. Only
+   * enable this once all clients reading from the caches support such artifacts.
+   */
+  public boolean getZstdDictionaryCompressionEnabled() {
+    return buckConfig.getBooleanValue(
+        CACHE_SECTION_NAME, ZSTD_DICTIONARY_COMPRESSION_ENABLED_FIELD_NAME, false);
+  }
+
+  public int getZstdDictionaryCompressionLevel() {
+    return buckConfig
+        .getInteger(CACHE_SECTION_NAME, ZSTD_DICTIONARY_COMPRESSION_LEVEL_FIELD_NAME)
+        .orElse(ZSTD_DICTIONARY_COMPRESSION_LEVEL_DEFAULT);
+  }
+
+  /**
+   * If true, stores are queued on disk during the build and uploaded in the background once the
+   * command is done, instead of competing with fetches while building.
+   */
+  public boolean getUploadQueueEnabled() {
+    return buckConfig.getBooleanValue(CACHE_SECTION_NAME, UPLOAD_QUEUE_ENABLED_FIELD_NAME, false);
+  }
+
+  public Optional<Long> getUploadQueueMaxBytesPerSecond() {
+    return buckConfig
+        .getValue(CACHE_SECTION_NAME, UPLOAD_QUEUE_MAX_BYTES_PER_SECOND_FIELD_NAME)
+        .map(SizeUnit::parseBytes);
+  }
+
+  public long getUploadQueueDrainTimeoutSeconds() {
+    return buckConfig
+        .getLong(CACHE_SECTION_NAME, UPLOAD_QUEUE_DRAIN_TIMEOUT_SECONDS_FIELD_NAME)
+        .orElse(UPLOAD_QUEUE_DRAIN_TIMEOUT_SECONDS_DEFAULT);
+  }
+
   /**
    * If true, fail if client TLS certificate or key paths are unspecified, don't exist, are not the
    * right format or have expired
@@ -17,6 +17,7 @@
 package com.facebook.buck.cli;
 
 import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.ArtifactUploader;
 import com.facebook.buck.artifact_cache.CacheCountersSummary;
 import com.facebook.buck.artifact_cache.CacheCountersSummaryEvent;
 import com.facebook.buck.artifact_cache.CacheResult;
@@ -361,8 +362,10 @@ public class CacheCommand extends AbstractCommand {
     }
     ImmutableList<Path> paths;
     try {
+      ArchiveFormat format =
+          ArtifactUploader.isZstdCompressed(artifact) ? ArchiveFormat.TAR_ZSTD : ArchiveFormat.TAR;
       paths =
-          ArchiveFormat.TAR_ZSTD
+          format
               .getUnarchiver()
               .extractArchive(
                   projectFilesystemFactory,
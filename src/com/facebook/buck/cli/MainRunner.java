@@ -1101,6 +1101,16 @@ public final class MainRunner {
                                 buckConfig.getView(BuildBuckConfig.class).getNumThreads())),
                         ExecutorPool.PROJECT.toString(),
                         EXECUTOR_SERVICES_TIMEOUT_SECONDS);
+            // Create a thread pool shared by the steps which split their work up into tasks
+            ThrowingCloseableWrapper<ListeningExecutorService, InterruptedException>
+                stepTaskExecutorService =
+                    getExecutorWrapper(
+                        listeningDecorator(
+                            MostExecutors.newMultiThreadExecutor(
+                                "step-task",
+                                buckConfig.getView(BuildBuckConfig.class).getNumThreads())),
+                        ExecutorPool.STEP_TASK.toString(),
+                        EXECUTOR_SERVICES_TIMEOUT_SECONDS);
             BuildInfoStoreManager storeManager = new BuildInfoStoreManager();
             AbstractConsoleEventBusListener fileLoggerConsoleListener =
                 new SimpleConsoleEventBusListener(
@@ -1220,7 +1230,9 @@ public final class MainRunner {
                   ExecutorPool.NETWORK,
                   networkExecutorService.get(),
                   ExecutorPool.PROJECT,
-                  projectExecutorService.get());
+                  projectExecutorService.get(),
+                  ExecutorPool.STEP_TASK,
+                  stepTaskExecutorService.get());
 
           // No need to kick off ProgressEstimator for commands that
           // don't build anything -- it has overhead and doesn't seem
@@ -29,6 +29,7 @@ import com.facebook.buck.core.build.engine.impl.CachingBuildEngine;
 import com.facebook.buck.core.build.event.BuildEvent;
 import com.facebook.buck.core.build.execution.context.ExecutionContext;
 import com.facebook.buck.core.config.BuckConfig;
+import com.facebook.buck.core.exceptions.HumanReadableException;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.CellRelativePath;
 import com.facebook.buck.core.model.actiongraph.ActionGraphAndBuilder;
@@ -130,6 +131,22 @@ public class TestCommand extends BuildCommand {
   @Option(name = "--code-coverage-title", usage = "Title used for coverage")
   private String coverageReportTitle = "Code-Coverage Analysis";
 
+  @Option(
+      name = "--record-test-coverage-maps",
+      usage =
+          "Record which classes each java test case covers, so that later runs given "
+              + "--changed-files only run the test cases covering changed code.")
+  private boolean isRecordingTestCoverageMaps = false;
+
+  @Option(
+      name = "--changed-files",
+      usage =
+          "A file listing the files changed since the test coverage maps were recorded, one per "
+              + "line. Only java test cases covering changed java sources are run, unless other "
+              + "files changed.")
+  @Nullable
+  private String pathToChangedFiles = null;
+
   @Option(
       name = "--debug",
       usage = "Whether the test will start suspended with a JDWP debug port of 5005")
@@ -271,6 +288,8 @@ public class TestCommand extends BuildCommand {
             .setTestSelectorList(testSelectorOptions.getTestSelectorList())
             .setShouldExplainTestSelectorList(testSelectorOptions.shouldExplain())
             .setShufflingTests(isShufflingTests)
+            .setRecordingTestCoverageMaps(isRecordingTestCoverageMaps)
+            .setChangedFiles(getChangedFiles(params))
             .setPathToXmlTestOutput(Optional.ofNullable(pathToXmlTestOutput))
             .setPathToJavaAgent(Optional.ofNullable(pathToJavaAgent))
             .setCoverageReportFormats(coverageFormats)
@@ -284,10 +303,30 @@ public class TestCommand extends BuildCommand {
 
     coverageIncludes.ifPresent(strings -> builder.setCoverageIncludes(String.join(",", strings)));
     coverageExcludes.ifPresent(strings -> builder.setCoverageExcludes(String.join(",", strings)));
+    // A debugger can only attach to one test process.
+    builder.setMaxShardsPerRule(isDebugEnabled() ? 1 : testBuckConfig.getMaxShardsPerRule());
+    builder.setMaxPooledTestJvms(testBuckConfig.getMaxPooledTestJvms());
+    builder.setMaxRunsPerPooledTestJvm(testBuckConfig.getMaxRunsPerPooledTestJvm());
 
     return builder.build();
   }
 
+  private Optional<ImmutableSet<String>> getChangedFiles(CommandRunnerParams params) {
+    if (pathToChangedFiles == null) {
+      return Optional.empty();
+    }
+    Path path = params.getCells().getRootCell().getFilesystem().resolve(pathToChangedFiles);
+    try {
+      return Optional.of(
+          Files.readAllLines(path).stream()
+              .map(String::trim)
+              .filter(line -> !line.isEmpty())
+              .collect(ImmutableSet.toImmutableSet()));
+    } catch (IOException e) {
+      throw new HumanReadableException(e, "Unable to read changed files from %s", path);
+    }
+  }
+
   private ConcurrencyLimit getTestConcurrencyLimit(CommandRunnerParams params) {
     ResourcesConfig resourcesConfig = params.getBuckConfig().getView(ResourcesConfig.class);
     return new ConcurrencyLimit(
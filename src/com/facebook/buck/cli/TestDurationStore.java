@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.test.TestCaseSummary;
+import com.facebook.buck.test.TestResultSummary;
+import com.facebook.buck.test.TestResults;
+import com.facebook.buck.util.json.ObjectMappers;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * How long each test case of each test rule took in previous runs, kept in buck-out so that test
+ * rules can be split into shards of similar duration, and the longest shards started first.
+ */
+class TestDurationStore {
+
+  private static final Logger LOG = Logger.get(TestDurationStore.class);
+
+  private static final TypeReference<Map<String, Map<String, Long>>> TYPE =
+      new TypeReference<Map<String, Map<String, Long>>>() {};
+
+  private final ProjectFilesystem filesystem;
+  private final Map<String, Map<String, Long>> durations;
+
+  private TestDurationStore(
+      ProjectFilesystem filesystem, Map<String, Map<String, Long>> durations) {
+    this.filesystem = filesystem;
+    this.durations = durations;
+  }
+
+  static Path getPath(ProjectFilesystem filesystem) {
+    return filesystem.getBuckPaths().getCacheDir().resolve("test_durations.json");
+  }
+
+  /** Reads the durations recorded by previous runs, ignoring them if they can't be read. */
+  static TestDurationStore load(ProjectFilesystem filesystem) {
+    Map<String, Map<String, Long>> durations = new TreeMap<>();
+    Optional<String> contents = filesystem.readFileIfItExists(getPath(filesystem));
+    if (contents.isPresent()) {
+      try {
+        durations.putAll(ObjectMappers.readValue(contents.get(), TYPE));
+      } catch (IOException e) {
+        LOG.warn(e, "Ignoring unreadable test durations.");
+      }
+    }
+    return new TestDurationStore(filesystem, durations);
+  }
+
+  /** @return the duration in milliseconds of each test case of the given rule. */
+  ImmutableMap<String, Long> getDurations(BuildTarget target) {
+    Map<String, Long> targetDurations = durations.get(target.getFullyQualifiedName());
+    return targetDurations == null ? ImmutableMap.of() : ImmutableMap.copyOf(targetDurations);
+  }
+
+  /**
+   * Records the durations of the test cases that ran.
+   *
+   * @param isUsingTestSelectors if only some of the test cases ran, in which case the durations of
+   *     the others are kept.
+   */
+  void record(Iterable<TestResults> results, boolean isUsingTestSelectors) {
+    for (TestResults testResults : results) {
+      Map<String, Long> testCaseDurations = new HashMap<>();
+      for (TestCaseSummary testCase : testResults.getTestCases()) {
+        for (TestResultSummary result : testCase.getTestResults()) {
+          testCaseDurations.merge(result.getTestCaseName(), result.getTime(), Long::sum);
+        }
+      }
+      if (testCaseDurations.isEmpty()) {
+        continue;
+      }
+      String target = testResults.getBuildTarget().getFullyQualifiedName();
+      if (isUsingTestSelectors) {
+        durations.computeIfAbsent(target, ignored -> new TreeMap<>()).putAll(testCaseDurations);
+      } else {
+        durations.put(target, new TreeMap<>(testCaseDurations));
+      }
+    }
+  }
+
+  void save() throws IOException {
+    Path path = getPath(filesystem);
+    filesystem.createParentDirs(path);
+    filesystem.writeContentsToPath(ObjectMappers.WRITER.writeValueAsString(durations), path);
+  }
+}
@@ -31,6 +31,15 @@ interface TestRun {
 
   List<Step> getSteps();
 
+  /** Steps running each shard of the test concurrently, once the steps have run. */
+  List<List<Step>> getShardSteps();
+
+  /**
+   * How long the test, or each of its shards, took in previous runs, or {@link Long#MAX_VALUE} if
+   * that isn't known.
+   */
+  List<Long> getExpectedDurationsMs();
+
   Callable<TestResults> getTestResultsCallable();
 
   TestRule.TestReportingCallback getTestReportingCallback();
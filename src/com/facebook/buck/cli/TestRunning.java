@@ -34,6 +34,7 @@ import com.facebook.buck.core.test.event.IndividualTestEvent;
 import com.facebook.buck.core.test.event.TestRunEvent;
 import com.facebook.buck.core.test.event.TestStatusMessageEvent;
 import com.facebook.buck.core.test.event.TestSummaryEvent;
+import com.facebook.buck.core.test.rule.ShardableTestRule;
 import com.facebook.buck.core.test.rule.TestRule;
 import com.facebook.buck.core.toolchain.tool.Tool;
 import com.facebook.buck.core.toolchain.toolprovider.ToolProvider;
@@ -68,6 +69,7 @@ import com.facebook.buck.test.result.type.ResultType;
 import com.facebook.buck.util.Threads;
 import com.facebook.buck.util.concurrent.MoreFutures;
 import com.facebook.buck.util.types.Either;
+import com.facebook.buck.util.types.Pair;
 import com.facebook.buck.util.types.Unit;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
@@ -76,6 +78,7 @@ import com.google.common.base.Strings;
 import com.google.common.base.Throwables;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
@@ -91,6 +94,7 @@ import java.io.IOException;
 import java.io.Writer;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -184,6 +188,13 @@ public class TestRunning {
                 options.shouldExplainTestSelectorList(),
                 testTargets));
 
+    // Durations of previous runs are only needed to split tests into shards.
+    Optional<TestDurationStore> durationStore =
+        options.getMaxShardsPerRule() > 1
+            ? Optional.of(
+                TestDurationStore.load(params.getCells().getRootCell().getFilesystem()))
+            : Optional.empty();
+
     // Start running all of the tests. The result of each java_test() rule is represented as a
     // ListenableFuture.
     List<ListenableFuture<TestResults>> results = new ArrayList<>();
@@ -277,18 +288,72 @@ public class TestRunning {
             }
           };
 
-      List<Step> steps;
       params.getBuckEventBus().post(IndividualTestEvent.started(testTargets));
-      ImmutableList.Builder<Step> stepsBuilder = ImmutableList.builder();
       Preconditions.checkState(buildEngine.isRuleBuilt(test.getBuildTarget()));
-      List<Step> testSteps =
-          test.runTests(executionContext, options, buildContext, testReportingCallback);
-      if (!testSteps.isEmpty()) {
-        stepsBuilder.addAll(testSteps);
+
+      ImmutableMap<String, Long> durations = ImmutableMap.of();
+      ImmutableList<TestShard> shards = ImmutableList.of();
+      if (durationStore.isPresent()) {
+        durations = durationStore.get().getDurations(test.getBuildTarget());
+        // Shards select test cases themselves, so they can't be combined with other selectors.
+        if (test instanceof ShardableTestRule
+            && !test.runTestSeparately()
+            && options.getTestSelectorList().isEmpty()) {
+          shards =
+              TestShard.split(
+                  ((ShardableTestRule) test)
+                      .getTestCaseNames(buildContext.getSourcePathResolver()),
+                  durations,
+                  options.getMaxShardsPerRule());
+        }
       }
-      steps = stepsBuilder.build();
 
-      TestRun testRun = ImmutableTestRun.of(test, steps, resultsInterpreter, testReportingCallback);
+      List<Step> steps;
+      List<List<Step>> shardSteps;
+      List<Long> expectedDurationsMs;
+      if (shards.isEmpty()) {
+        ImmutableList.Builder<Step> stepsBuilder = ImmutableList.builder();
+        List<Step> testSteps =
+            test.runTests(executionContext, options, buildContext, testReportingCallback);
+        if (!testSteps.isEmpty()) {
+          stepsBuilder.addAll(testSteps);
+        }
+        steps = stepsBuilder.build();
+        shardSteps = ImmutableList.of();
+        expectedDurationsMs =
+            ImmutableList.of(
+                durations.isEmpty() && durationStore.isPresent()
+                    ? Long.MAX_VALUE
+                    : durations.values().stream().mapToLong(Long::longValue).sum());
+      } else {
+        steps =
+            ((ShardableTestRule) test).prepareTestShards(executionContext, options, buildContext);
+        shardSteps =
+            ImmutableList.copyOf(
+                ((ShardableTestRule) test)
+                    .runTestShards(
+                        executionContext,
+                        options,
+                        buildContext,
+                        testReportingCallback,
+                        shards.stream()
+                            .map(TestShard::getTestSelectorList)
+                            .collect(ImmutableList.toImmutableList())));
+        boolean knownDurations = !durations.isEmpty();
+        expectedDurationsMs =
+            shards.stream()
+                .map(shard -> knownDurations ? shard.getExpectedDurationMs() : Long.MAX_VALUE)
+                .collect(ImmutableList.toImmutableList());
+      }
+
+      TestRun testRun =
+          ImmutableTestRun.of(
+              test,
+              steps,
+              shardSteps,
+              expectedDurationsMs,
+              resultsInterpreter,
+              testReportingCallback);
 
       // Always run the commands, even if the list of commands as empty. There may be zero
       // commands because the rule is cached, but its results must still be processed.
@@ -301,15 +366,31 @@ public class TestRunning {
       }
     }
 
+    // Tests and shards which took longest in previous runs start first, so that they don't hold up
+    // the end of the run.
+    List<Pair<Long, Runnable>> starts = new ArrayList<>();
     for (TestRun testRun : parallelTestRuns) {
-      ListenableFuture<TestResults> testResults =
-          runStepsAndYieldResult(
-              executionContext,
-              testRun.getSteps(),
-              testRun.getTestResultsCallable(),
-              testRun.getTest().getBuildTarget(),
-              params.getBuckEventBus(),
-              service);
+      ListenableFuture<TestResults> testResults;
+      if (testRun.getShardSteps().isEmpty()) {
+        SettableFuture<TestResults> future = SettableFuture.create();
+        starts.add(
+            new Pair<>(
+                testRun.getExpectedDurationsMs().get(0),
+                () ->
+                    future.setFuture(
+                        runStepsAndYieldResult(
+                            executionContext,
+                            testRun.getSteps(),
+                            testRun.getTestResultsCallable(),
+                            testRun.getTest().getBuildTarget(),
+                            params.getBuckEventBus(),
+                            service))));
+        testResults = future;
+      } else {
+        testResults =
+            runShardsAndYieldResult(
+                executionContext, testRun, params.getBuckEventBus(), service, starts);
+      }
       results.add(
           transformTestResults(
               params,
@@ -321,6 +402,11 @@ public class TestRunning {
               totalNumberOfTests));
     }
 
+    starts.sort(Comparator.comparing(Pair::getFirst, Comparator.reverseOrder()));
+    for (Pair<Long, Runnable> start : starts) {
+      start.getSecond().run();
+    }
+
     ListenableFuture<List<TestResults>> parallelTestStepsFuture = Futures.allAsList(results);
 
     List<TestResults> completedResults = new ArrayList<>();
@@ -398,6 +484,19 @@ public class TestRunning {
 
     params.getBuckEventBus().post(TestRunEvent.finished(testTargets, completedResults));
 
+    if (durationStore.isPresent()) {
+      durationStore
+          .get()
+          .record(
+              completedResults,
+              !options.getTestSelectorList().isEmpty() || options.getChangedFiles().isPresent());
+      try {
+        durationStore.get().save();
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to save test durations.");
+      }
+    }
+
     // Write out the results as XML, if requested.
     Optional<String> path = options.getPathToXmlTestOutput();
     if (path.isPresent()) {
@@ -551,12 +650,12 @@ public class TestRunning {
     return transformedTestResults;
   }
 
-  private static Callable<TestResults> getCachingCallable(Callable<TestResults> callable) {
-    return new Callable<TestResults>() {
-      @Nullable private Either<TestResults, Exception> result = null;
+  private static <T> Callable<T> getCachingCallable(Callable<T> callable) {
+    return new Callable<T>() {
+      @Nullable private Either<T, Exception> result = null;
 
       @Override
-      public synchronized TestResults call() throws Exception {
+      public synchronized T call() throws Exception {
         if (result == null) {
           try {
             result = Either.ofLeft(callable.call());
@@ -869,4 +968,53 @@ public class TestRunning {
 
     return listeningExecutorService.submit(callable);
   }
+
+  private static ListenableFuture<TestResults> runShardsAndYieldResult(
+      ExecutionContext context,
+      TestRun testRun,
+      BuckEventBus eventBus,
+      ListeningExecutorService listeningExecutorService,
+      List<Pair<Long, Runnable>> starts) {
+    Preconditions.checkState(!listeningExecutorService.isShutdown());
+    BuildTarget buildTarget = testRun.getTest().getBuildTarget();
+    // The first shard to start prepares for the others, which wait for it.
+    Callable<Unit> prepare =
+        getCachingCallable(
+            () -> {
+              LOG.debug("Test shards will run for %s", buildTarget);
+              eventBus.post(TestRuleEvent.started(buildTarget));
+              for (Step step : testRun.getSteps()) {
+                StepRunner.runStep(context, step, Optional.of(buildTarget));
+              }
+              return Unit.UNIT;
+            });
+    List<ListenableFuture<Unit>> shards = new ArrayList<>();
+    for (int i = 0; i < testRun.getShardSteps().size(); i++) {
+      List<Step> steps = testRun.getShardSteps().get(i);
+      Callable<Unit> callable =
+          () -> {
+            prepare.call();
+            for (Step step : steps) {
+              StepRunner.runStep(context, step, Optional.of(buildTarget));
+            }
+            return Unit.UNIT;
+          };
+      SettableFuture<Unit> shard = SettableFuture.create();
+      starts.add(
+          new Pair<>(
+              testRun.getExpectedDurationsMs().get(i),
+              () -> shard.setFuture(listeningExecutorService.submit(callable))));
+      shards.add(shard);
+    }
+
+    // The results of all the shards are read together.
+    return Futures.whenAllSucceed(shards)
+        .call(
+            () -> {
+              LOG.debug("Test shards did run for %s", buildTarget);
+              eventBus.post(TestRuleEvent.finished(buildTarget));
+              return testRun.getTestResultsCallable().call();
+            },
+            listeningExecutorService);
+  }
 }
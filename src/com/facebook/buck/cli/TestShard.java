@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import com.facebook.buck.core.util.immutables.BuckStyleValue;
+import com.facebook.buck.test.selectors.TestSelectorList;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/** Some of the test cases of a test rule, run concurrently with its other shards. */
+@BuckStyleValue
+interface TestShard {
+
+  TestSelectorList getTestSelectorList();
+
+  /** @return how long the test cases of the shard took in total in previous runs. */
+  long getExpectedDurationMs();
+
+  /**
+   * Splits test cases into shards of similar duration, by adding the longest remaining test case
+   * to the shortest shard.
+   *
+   * <p>Test cases which aren't known yet, such as those added since the durations were recorded,
+   * are run by the last shard, which excludes the test cases of the other shards instead of
+   * selecting its own.
+   *
+   * @param testCaseNames the test cases to split, or nothing if they're only known once the tests
+   *     have run, in which case the ones which ran before are split.
+   * @param durations the duration of each test case in previous runs.
+   * @return the shards, or nothing if the test cases shouldn't be split.
+   */
+  static ImmutableList<TestShard> split(
+      ImmutableSet<String> testCaseNames, ImmutableMap<String, Long> durations, int maxShards) {
+    ImmutableSet<String> names = testCaseNames.isEmpty() ? durations.keySet() : testCaseNames;
+    int count = Math.min(maxShards, names.size());
+    if (count <= 1) {
+      return ImmutableList.of();
+    }
+
+    long defaultDuration =
+        Math.max(
+            1L,
+            (long)
+                names.stream()
+                    .filter(durations::containsKey)
+                    .mapToLong(durations::get)
+                    .average()
+                    .orElse(1));
+    List<String> longestFirst = new ArrayList<>(names);
+    longestFirst.sort(
+        Comparator.comparing((String name) -> -durations.getOrDefault(name, defaultDuration))
+            .thenComparing(Comparator.naturalOrder()));
+
+    List<List<String>> shards = new ArrayList<>();
+    long[] shardDurations = new long[count];
+    for (int i = 0; i < count; i++) {
+      shards.add(new ArrayList<>());
+    }
+    for (String name : longestFirst) {
+      int shortest = 0;
+      for (int i = 1; i < count; i++) {
+        if (shardDurations[i] < shardDurations[shortest]) {
+          shortest = i;
+        }
+      }
+      shards.get(shortest).add(name);
+      shardDurations[shortest] += durations.getOrDefault(name, defaultDuration);
+    }
+
+    ImmutableList.Builder<TestShard> result = ImmutableList.builder();
+    TestSelectorList.Builder lastShard = TestSelectorList.builder();
+    for (int i = 0; i < count - 1; i++) {
+      TestSelectorList.Builder shard = TestSelectorList.builder();
+      for (String name : shards.get(i)) {
+        String pattern = "^" + Pattern.quote(name) + "#";
+        shard.addRawSelectors(pattern);
+        lastShard.addRawSelectors("!" + pattern);
+      }
+      result.add(ImmutableTestShard.of(shard.build(), shardDurations[i]));
+    }
+    result.add(ImmutableTestShard.of(lastShard.build(), shardDurations[count - 1]));
+    return result.build();
+  }
+}
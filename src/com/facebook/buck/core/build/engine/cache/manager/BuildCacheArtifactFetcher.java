@@ -17,6 +17,7 @@
 package com.facebook.buck.core.build.engine.cache.manager;
 
 import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.ArtifactUploader;
 import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.artifact_cache.CacheResultType;
 import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
@@ -252,8 +253,10 @@ public class BuildCacheArtifactFetcher {
           ruleKey,
           BuildInfo.MetadataKey.ORIGIN_BUILD_ID);
 
+      ArchiveFormat format =
+          ArtifactUploader.isZstdCompressed(zipPath) ? ArchiveFormat.TAR_ZSTD : ArchiveFormat.TAR;
       ImmutableSet<Path> extractedFiles =
-          ArchiveFormat.TAR_ZSTD
+          format
               .getUnarchiver()
               .extractArchive(
                   zipPath.toAbsolutePath(),
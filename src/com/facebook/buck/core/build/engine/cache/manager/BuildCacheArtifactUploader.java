@@ -71,9 +71,10 @@ public class BuildCacheArtifactUploader {
    *
    * @param success outcome of a build rule
    * @param buildTimeMs time it took to actually build a rule
+   * @param uploadPriority how urgently the artifact should be uploaded, if uploads are queued
    */
-  public ListenableFuture<Unit> uploadToCache(BuildRuleSuccessType success, long buildTimeMs)
-      throws IOException {
+  public ListenableFuture<Unit> uploadToCache(
+      BuildRuleSuccessType success, long buildTimeMs, int uploadPriority) throws IOException {
     // Collect up all the rule keys we have index the artifact in the cache with.
     Set<RuleKey> ruleKeys = new HashSet<>();
 
@@ -119,7 +120,8 @@ public class BuildCacheArtifactUploader {
         onDiskBuildInfo.getMetadataForArtifact(),
         onDiskBuildInfo.getPathsForArtifact(),
         rule,
-        buildTimeMs);
+        buildTimeMs,
+        uploadPriority);
   }
 
   /** @return whether we should upload the given rules artifacts to cache. */
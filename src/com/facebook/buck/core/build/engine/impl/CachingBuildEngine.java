@@ -118,6 +118,9 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
   private final ConcurrentHashMap<BuildTarget, CachingBuildRuleBuilder> liveRuleBuilders =
       new ConcurrentHashMap<>();
 
+  /** How many of the rules being built have asked for the results of each rule. */
+  private final ConcurrentMap<BuildTarget, Integer> dependentCounts = Maps.newConcurrentMap();
+
   private final CachingBuildEngineDelegate cachingBuildEngineDelegate;
 
   private final WeightedListeningExecutorService service;
@@ -311,6 +314,7 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     List<ListenableFuture<BuildResult>> depResults =
         new ArrayList<>(SortedSets.sizeEstimate(rule.getBuildDeps()));
     for (BuildRule dep : shuffled(rule.getBuildDeps())) {
+      dependentCounts.merge(dep.getBuildTarget(), 1, Integer::sum);
       depResults.add(getBuildRuleResultWithRuntimeDeps(dep, buildContext, executionContext));
     }
     return Futures.allAsList(depResults);
@@ -570,5 +574,10 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     public void onRuleAboutToBeBuilt(BuildRule rule) {
       cachingBuildEngine.cachingBuildEngineDelegate.onRuleAboutToBeBuilt(rule);
     }
+
+    @Override
+    public int getDependentCount(BuildRule rule) {
+      return cachingBuildEngine.dependentCounts.getOrDefault(rule.getBuildTarget(), 0);
+    }
   }
 }
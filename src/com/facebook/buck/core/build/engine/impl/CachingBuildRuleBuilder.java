@@ -764,7 +764,9 @@ class CachingBuildRuleBuilder {
           buildTimestampsMillis == null
               ? -1
               : buildTimestampsMillis.getSecond() - buildTimestampsMillis.getFirst();
-      buildCacheArtifactUploader.uploadToCache(success, buildTimeMs).get();
+      buildCacheArtifactUploader
+          .uploadToCache(success, buildTimeMs, buildRuleBuilderDelegate.getDependentCount(rule))
+          .get();
     } catch (Throwable t) {
       eventBus.post(ThrowableConsoleEvent.create(t, "Error uploading to cache for %s.", rule));
     }
@@ -1455,5 +1457,11 @@ class CachingBuildRuleBuilder {
     void addAsyncCallback(ListenableFuture<Unit> callback);
 
     void onRuleAboutToBeBuilt(BuildRule rule);
+
+    /**
+     * @return how many rules depending on {@code rule} have been scheduled so far in this build,
+     *     which is how urgently its artifact is likely to be wanted by other builds.
+     */
+    int getDependentCount(BuildRule rule);
   }
 }
@@ -42,6 +42,7 @@ import com.facebook.buck.worker.WorkerProcessPool;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.Closer;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.PrintStream;
@@ -142,6 +143,17 @@ public abstract class ExecutionContext implements Closeable {
         ResourceAmountsEstimator.DEFAULT_MAXIMUM_AMOUNTS);
   }
 
+  /**
+   * Runs the tasks of steps which split their work up, such as compressing the entries of an
+   * archive. This is the {@link ExecutorPool#STEP_TASK} pool the command created along with its
+   * other executors, so that steps running at the same time together use no more threads than the
+   * build. Contexts without one run the tasks on the step's own thread.
+   */
+  public ListeningExecutorService getStepTaskExecutor() {
+    ListeningExecutorService executor = getExecutors().get(ExecutorPool.STEP_TASK);
+    return executor != null ? executor : MoreExecutors.newDirectExecutorService();
+  }
+
   @Value.Default
   public ClassLoaderCache getClassLoaderCache() {
     return new ClassLoaderCache();
@@ -19,15 +19,18 @@ package com.facebook.buck.core.model.actiongraph.computation;
 import com.facebook.buck.core.model.actiongraph.ActionGraphAndBuilder;
 import com.facebook.buck.core.model.targetgraph.TargetGraph;
 import com.facebook.buck.core.rules.ActionGraphBuilder;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.attr.ConstructedFromFileContents;
 import com.facebook.buck.event.BuckEventBus;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
 import javax.annotation.Nullable;
 
 /** Contains cached action graphs. */
 public class ActionGraphCache {
 
-  private final Cache<TargetGraph, ActionGraphAndBuilder> previousActionGraphs;
+  private final Cache<TargetGraph, Entry> previousActionGraphs;
   private final IncrementalActionGraphGenerator incrementalActionGraphGenerator;
 
   public ActionGraphCache(int maxEntries) {
@@ -41,7 +44,25 @@ public class ActionGraphCache {
 
   @Nullable
   public ActionGraphAndBuilder getIfPresent(TargetGraph targetGraph) {
-    return previousActionGraphs.getIfPresent(targetGraph);
+    Entry entry = previousActionGraphs.getIfPresent(targetGraph);
+    return entry == null ? null : entry.actionGraphAndBuilder;
+  }
+
+  /**
+   * @return whether the files read to construct the rules of the action graph cached for {@code
+   *     targetGraph} are unchanged since, see {@link ConstructedFromFileContents}.
+   */
+  public boolean areConstructionInputsUnchanged(TargetGraph targetGraph) {
+    Entry entry = previousActionGraphs.getIfPresent(targetGraph);
+    if (entry == null) {
+      return true;
+    }
+    for (ConstructedFromFileContents rule : entry.constructedFromFileContents) {
+      if (!rule.areConstructionInputsUnchanged()) {
+        return false;
+      }
+    }
+    return true;
   }
 
   public boolean isEmpty() {
@@ -53,7 +74,7 @@ public class ActionGraphCache {
   }
 
   public void put(TargetGraph targetGraph, ActionGraphAndBuilder actionGraphAndBuilder) {
-    previousActionGraphs.put(targetGraph, actionGraphAndBuilder);
+    previousActionGraphs.put(targetGraph, new Entry(actionGraphAndBuilder));
   }
 
   public void populateActionGraphBuilderWithCachedRules(
@@ -61,4 +82,21 @@ public class ActionGraphCache {
     incrementalActionGraphGenerator.populateActionGraphBuilderWithCachedRules(
         eventBus, targetGraph, graphBuilder);
   }
+
+  /** A cached action graph, with the rules which have to be checked before it is reused. */
+  private static class Entry {
+    private final ActionGraphAndBuilder actionGraphAndBuilder;
+    private final ImmutableList<ConstructedFromFileContents> constructedFromFileContents;
+
+    Entry(ActionGraphAndBuilder actionGraphAndBuilder) {
+      this.actionGraphAndBuilder = actionGraphAndBuilder;
+      ImmutableList.Builder<ConstructedFromFileContents> rules = ImmutableList.builder();
+      for (BuildRule rule : actionGraphAndBuilder.getActionGraph().getNodes()) {
+        if (rule instanceof ConstructedFromFileContents) {
+          rules.add((ConstructedFromFileContents) rule);
+        }
+      }
+      this.constructedFromFileContents = rules.build();
+    }
+  }
 }
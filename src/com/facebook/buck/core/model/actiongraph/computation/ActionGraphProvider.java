@@ -128,6 +128,12 @@ public class ActionGraphProvider {
       TargetGraph targetGraph = targetGraphCreationResult.getTargetGraph();
       RuleKeyFieldLoader fieldLoader = new RuleKeyFieldLoader(ruleKeyConfiguration);
       ActionGraphAndBuilder cachedActionGraph = actionGraphCache.getIfPresent(targetGraph);
+      if (cachedActionGraph != null
+          && !actionGraphCache.areConstructionInputsUnchanged(targetGraph)) {
+        LOG.info("ActionGraph cache entry is stale, as files read to construct it changed.");
+        actionGraphCache.invalidateCache();
+        cachedActionGraph = null;
+      }
       if (cachedActionGraph != null) {
         eventBus.post(ActionGraphEvent.Cache.hit());
         LOG.info("ActionGraph cache hit.");
@@ -24,6 +24,7 @@ import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.util.concurrent.ListenableFuture;
 import java.util.Optional;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 /** Provides methods to interact with the ActionGraph. */
 public interface ActionGraphBuilder extends BuildRuleResolver {
@@ -80,6 +81,13 @@ public interface ActionGraphBuilder extends BuildRuleResolver {
    */
   Parallelizer getParallelizer();
 
+  /**
+   * @return the instance of {@code cacheClass} bound to this action graph, creating it with {@code
+   *     factory} on first use. This lets helpers memoize computations over the graph for as long as
+   *     it lives, instead of redoing them for every rule that needs them.
+   */
+  <T> T getGraphCache(Class<T> cacheClass, Supplier<T> factory);
+
   /** Invalidates this object. All future calls will throw InvalidStateException. */
   void invalidate();
 
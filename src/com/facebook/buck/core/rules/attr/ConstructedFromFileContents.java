@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.rules.attr;
+
+import com.facebook.buck.core.rules.BuildRule;
+
+/**
+ * A rule whose construction read the contents of files other than build files, e.g. sources which
+ * decide what other rules get created.
+ *
+ * <p>Action graphs are cached for their target graphs, which don't change with the contents of
+ * such files. A cached action graph holding one of these rules is therefore only reused while the
+ * files it read are unchanged.
+ */
+public interface ConstructedFromFileContents extends BuildRule {
+
+  /** @return whether the files read while constructing this rule are unchanged since. */
+  boolean areConstructionInputsUnchanged();
+}
@@ -20,6 +20,7 @@ import com.facebook.buck.core.build.buildable.context.BuildableContext;
 import com.facebook.buck.core.build.context.BuildContext;
 import com.facebook.buck.core.build.execution.context.ExecutionContext;
 import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.impl.BuildTargetPaths;
 import com.facebook.buck.core.rulekey.AddToRuleKey;
 import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.rules.BuildRuleResolver;
@@ -30,16 +31,14 @@ import com.facebook.buck.core.sourcepath.ExplicitBuildTargetSourcePath;
 import com.facebook.buck.core.sourcepath.SourcePath;
 import com.facebook.buck.core.sourcepath.resolver.SourcePathResolverAdapter;
 import com.facebook.buck.event.ConsoleEvent;
-import com.facebook.buck.io.BuildCellRelativePath;
 import com.facebook.buck.io.file.MorePaths;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.step.AbstractExecutionStep;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.step.StepExecutionResults;
-import com.facebook.buck.step.fs.MakeCleanDirectoryStep;
 import com.facebook.buck.step.fs.SymlinkPaths;
-import com.facebook.buck.step.fs.SymlinkTreeMergeStep;
+import com.facebook.buck.step.fs.SymlinkTreeSyncStep;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
@@ -54,6 +53,7 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.logging.Level;
@@ -206,16 +206,24 @@ public class SymlinkTree extends AbstractBuildRule
     SymlinkPaths paths = getResolvedSymlinks(context.getSourcePathResolver());
     return new ImmutableList.Builder<Step>()
         .add(getVerifyStep(paths))
-        .addAll(
-            MakeCleanDirectoryStep.of(
-                BuildCellRelativePath.fromCellRelativePath(
-                    context.getBuildCellRootPath(), getProjectFilesystem(), root)))
         .add(
-            new SymlinkTreeMergeStep(
-                category, getProjectFilesystem(), root, paths, this::shouldDeleteExistingSymlink))
+            new SymlinkTreeSyncStep(
+                category,
+                getProjectFilesystem(),
+                root,
+                paths,
+                this::shouldDeleteExistingSymlink,
+                Optional.of(getManifestPath())))
         .build();
   }
 
+  /** @return where the links of the tree are recorded, to only update those which change. */
+  @VisibleForTesting
+  protected Path getManifestPath() {
+    return BuildTargetPaths.getScratchPath(
+        getProjectFilesystem(), getBuildTarget(), "__%s__symlink_tree_manifest");
+  }
+
   @Override
   public SourcePath getSourcePathToOutput() {
     return ExplicitBuildTargetSourcePath.of(getBuildTarget(), root);
@@ -28,11 +28,21 @@ import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Ordering;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 /** An abstract implementation of BuildRuleResolver that simplifies concrete implementations. */
 public abstract class AbstractActionGraphBuilder extends AbstractBuildRuleResolver
     implements ActionGraphBuilder {
+  private final ConcurrentMap<Class<?>, Object> graphCaches = new ConcurrentHashMap<>();
+
+  @Override
+  public <T> T getGraphCache(Class<T> cacheClass, Supplier<T> factory) {
+    return cacheClass.cast(graphCaches.computeIfAbsent(cacheClass, ignored -> factory.get()));
+  }
+
   @Override
   public ImmutableSortedSet<BuildRule> requireAllRules(Iterable<BuildTarget> buildTargets) {
     return RichStream.from(buildTargets)
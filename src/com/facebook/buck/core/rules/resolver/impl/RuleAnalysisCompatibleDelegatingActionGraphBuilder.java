@@ -30,6 +30,7 @@ import com.google.common.util.concurrent.ListenableFuture;
 import java.util.Optional;
 import java.util.Set;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * An {@link ActionGraphBuilder} that manages both rule analysis computation and the legacy action
@@ -100,6 +101,11 @@ public class RuleAnalysisCompatibleDelegatingActionGraphBuilder extends Abstract
     return delegateActionGraphBuilder.getParallelizer();
   }
 
+  @Override
+  public <T> T getGraphCache(Class<T> cacheClass, Supplier<T> factory) {
+    return delegateActionGraphBuilder.getGraphCache(cacheClass, factory);
+  }
+
   @Override
   public void invalidate() {
     delegateActionGraphBuilder.invalidate();
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.test.rule;
+
+import com.facebook.buck.core.build.context.BuildContext;
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.core.sourcepath.resolver.SourcePathResolverAdapter;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.test.TestRunningOptions;
+import com.facebook.buck.test.selectors.TestSelectorList;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * A {@link TestRule} whose test cases can be split into shards which run concurrently. Each shard
+ * selects the test cases it runs with a {@link TestSelectorList}, and the results of all the shards
+ * are read together by {@link #interpretTestResults}.
+ */
+public interface ShardableTestRule extends TestRule {
+
+  /**
+   * @return the names of the test cases this rule runs, as reported in its results, or nothing if
+   *     they are only known once the tests have run.
+   */
+  ImmutableSet<String> getTestCaseNames(SourcePathResolverAdapter pathResolver);
+
+  /**
+   * Used with {@link #runTestShards} instead of {@link #runTests} to run the tests in shards.
+   *
+   * @return the steps to run once before any of the shards.
+   */
+  ImmutableList<Step> prepareTestShards(
+      ExecutionContext executionContext, TestRunningOptions options, BuildContext buildContext);
+
+  /** @return the steps running each of the given shards, which may run concurrently. */
+  ImmutableList<ImmutableList<Step>> runTestShards(
+      ExecutionContext executionContext,
+      TestRunningOptions options,
+      BuildContext buildContext,
+      TestReportingCallback testReportingCallback,
+      ImmutableList<TestSelectorList> shards);
+}
@@ -29,6 +29,7 @@ import com.facebook.buck.core.toolchain.tool.Tool;
 import com.facebook.buck.cxx.toolchain.ArchiveContents;
 import com.facebook.buck.cxx.toolchain.Archiver;
 import com.facebook.buck.cxx.toolchain.CxxPlatform;
+import com.facebook.buck.cxx.toolchain.InProcessArchiver;
 import com.facebook.buck.cxx.toolchain.LinkerMapMode;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.rules.args.Arg;
@@ -178,21 +179,33 @@ public class Archive extends ModernBuildRule<Archive.Impl> {
 
       ImmutableList.Builder<Step> builder = ImmutableList.builder();
       Path outputPath = outputPathResolver.resolvePath(output);
-      builder
-          .add(MkdirStep.of(buildCellPathFactory.from(outputPath.getParent())))
-          .add(
-              new ArchiveStep(
-                  filesystem,
-                  archiver.getEnvironment(resolver),
-                  archiver.getCommandPrefix(resolver),
-                  Arg.stringify(archiverFlags, resolver),
-                  archiver.getArchiveOptions(contents == ArchiveContents.THIN),
-                  outputPath,
-                  inputs.stream()
-                      .map(resolver::getRelativePath)
-                      .collect(ImmutableList.toImmutableList()),
-                  archiver,
-                  outputPathResolver.getTempPath()));
+      ImmutableList<Path> inputPaths =
+          inputs.stream().map(resolver::getRelativePath).collect(ImmutableList.toImmutableList());
+      builder.add(MkdirStep.of(buildCellPathFactory.from(outputPath.getParent())));
+
+      // Archives written in-process have a symbol table and need no scrubbing.
+      if (archiver instanceof InProcessArchiver) {
+        builder.add(
+            new InProcessArchiveStep(
+                filesystem,
+                ((InProcessArchiver) archiver).getFormat(),
+                contents == ArchiveContents.THIN,
+                outputPath,
+                inputPaths));
+        return builder.build();
+      }
+
+      builder.add(
+          new ArchiveStep(
+              filesystem,
+              archiver.getEnvironment(resolver),
+              archiver.getCommandPrefix(resolver),
+              Arg.stringify(archiverFlags, resolver),
+              archiver.getArchiveOptions(contents == ArchiveContents.THIN),
+              outputPath,
+              inputPaths,
+              archiver,
+              outputPathResolver.getTempPath()));
 
       if (archiver.isRanLibStepRequired()) {
         Tool tool = ranlib.get();
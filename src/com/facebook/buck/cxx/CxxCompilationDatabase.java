@@ -45,8 +45,8 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSortedSet;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
-import java.util.Iterator;
 import java.util.stream.Stream;
 
 public class CxxCompilationDatabase extends AbstractBuildRule implements HasRuntimeDeps {
@@ -154,9 +154,18 @@ public class CxxCompilationDatabase extends AbstractBuildRule implements HasRunt
           getProjectFilesystem().newFileOutputStream(outputRelativePath)) {
         try (JsonGenerator jsonGen = ObjectMappers.createGenerator(outputStream)) {
           jsonGen.writeStartArray();
-          for (Iterator<CxxCompilationDatabaseEntry> entry = createEntries().iterator();
-              entry.hasNext(); ) {
-            jsonGen.writeObject(entry.next());
+          try {
+            createEntries()
+                .forEachOrdered(
+                    entry -> {
+                      try {
+                        jsonGen.writeObject(entry);
+                      } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                      }
+                    });
+          } catch (UncheckedIOException e) {
+            throw e.getCause();
           }
           jsonGen.writeEndArray();
         }
@@ -165,9 +174,13 @@ public class CxxCompilationDatabase extends AbstractBuildRule implements HasRunt
       return StepExecutionResults.SUCCESS;
     }
 
+    /**
+     * Rendering a compile command resolves every flag and path of the rule, so commands are
+     * created in parallel and written out in order as they become available.
+     */
     @VisibleForTesting
     Stream<CxxCompilationDatabaseEntry> createEntries() {
-      return compileRules.stream().map(compileRule -> createEntry(compileRule));
+      return compileRules.parallelStream().map(compileRule -> createEntry(compileRule));
     }
 
     private CxxCompilationDatabaseEntry createEntry(CxxPreprocessAndCompile compileRule) {
@@ -50,6 +50,7 @@ import com.facebook.buck.cxx.toolchain.HeaderSymlinkTree;
 import com.facebook.buck.cxx.toolchain.HeaderVisibility;
 import com.facebook.buck.cxx.toolchain.LinkerMapMode;
 import com.facebook.buck.cxx.toolchain.PicType;
+import com.facebook.buck.cxx.toolchain.Preprocessor;
 import com.facebook.buck.cxx.toolchain.StripStyle;
 import com.facebook.buck.cxx.toolchain.linker.Linker;
 import com.facebook.buck.cxx.toolchain.linker.Linker.CxxRuntimeType;
@@ -141,22 +142,26 @@ public class CxxDescriptionEnhancer {
       TargetConfiguration targetConfiguration,
       CxxPlatform cxxPlatform,
       boolean shouldCreateHeadersSymlinks) {
-    return cxxPlatform
-        .getHeaderMode()
-        .orElseGet(
-            () -> {
-              boolean useHeaderMap =
-                  (cxxPlatform.getCpp().resolve(resolver, targetConfiguration).supportsHeaderMaps()
-                      && cxxPlatform
-                          .getCxxpp()
-                          .resolve(resolver, targetConfiguration)
-                          .supportsHeaderMaps());
-              return !useHeaderMap
-                  ? HeaderMode.SYMLINK_TREE_ONLY
-                  : (shouldCreateHeadersSymlinks
-                      ? HeaderMode.SYMLINK_TREE_WITH_HEADER_MAP
-                      : HeaderMode.HEADER_MAP_ONLY);
-            });
+    Preprocessor cpp = cxxPlatform.getCpp().resolve(resolver, targetConfiguration);
+    Preprocessor cxxpp = cxxPlatform.getCxxpp().resolve(resolver, targetConfiguration);
+    boolean useHeaderMap = cpp.supportsHeaderMaps() && cxxpp.supportsHeaderMaps();
+    HeaderMode headerMode =
+        cxxPlatform
+            .getHeaderMode()
+            .orElseGet(
+                () ->
+                    !useHeaderMap
+                        ? HeaderMode.SYMLINK_TREE_ONLY
+                        : (shouldCreateHeadersSymlinks
+                            ? HeaderMode.SYMLINK_TREE_WITH_HEADER_MAP
+                            : HeaderMode.HEADER_MAP_ONLY));
+    // Without a tree on disk, headers which the header map can't resolve are only found through a
+    // VFS overlay, so other preprocessors need the tree.
+    if (headerMode == HeaderMode.HEADER_MAP_ONLY
+        && !(cpp.supportsVfsOverlays() && cxxpp.supportsVfsOverlays())) {
+      return useHeaderMap ? HeaderMode.SYMLINK_TREE_WITH_HEADER_MAP : HeaderMode.SYMLINK_TREE_ONLY;
+    }
+    return headerMode;
   }
 
   public static HeaderSymlinkTree createHeaderSymlinkTree(
@@ -895,7 +900,7 @@ public class CxxDescriptionEnhancer {
             args.getLangPlatformCompilerFlags(),
             args.getPrefixHeader(),
             args.getPrecompiledHeader(),
-            cxxThinLTOIndex.getSourcePathToOutput());
+            cxxThinLTOIndex);
 
     Path linkOutput =
         getBinaryOutputPath(
@@ -1217,7 +1222,7 @@ public class CxxDescriptionEnhancer {
           langPlatformCompilerFlags,
       Optional<SourcePath> prefixHeader,
       Optional<SourcePath> precompiledHeader,
-      SourcePath thinIndicesRoot) {
+      CxxThinLTOIndex thinIndex) {
     ImmutableListMultimap<CxxSource.Type, Arg> allCompilerFlags =
         createCompilerFlagsForCxxBinary(
             target,
@@ -1243,7 +1248,7 @@ public class CxxDescriptionEnhancer {
             prefixHeader,
             precompiledHeader,
             pic)
-        .requireThinOptRules(srcs, thinIndicesRoot);
+        .requireThinOptRules(srcs, thinIndex);
   }
 
   private static ImmutableMap<CxxPreprocessAndCompile, SourcePath> createCompileRulesForCxxBinary(
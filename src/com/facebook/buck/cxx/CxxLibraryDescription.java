@@ -59,7 +59,6 @@ import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Multimaps;
 import com.google.common.collect.Sets;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -336,23 +335,21 @@ public class CxxLibraryDescription
                     .build());
         BuildRule rawRule = graphBuilder.requireRule(rawTarget);
         CxxLibraryGroup rule = (CxxLibraryGroup) rawRule;
-        ImmutableMap<BuildTarget, CxxPreprocessorInput> inputs =
-            rule.getTransitiveCxxPreprocessorInput(cxxPlatform, graphBuilder);
 
         ImmutableList<CxxPreprocessorDep> privateDepsForPlatform =
             RichStream.from(privateDeps.get(graphBuilder, cxxPlatform))
                 .filter(CxxPreprocessorDep.class)
                 .toImmutableList();
-        if (privateDepsForPlatform.isEmpty()) {
-          // Nothing to add.
-          return inputs.values().stream();
-        } else {
-          Map<BuildTarget, CxxPreprocessorInput> result = new LinkedHashMap<>(inputs);
-          for (CxxPreprocessorDep dep : privateDepsForPlatform) {
-            result.putAll(dep.getTransitiveCxxPreprocessorInput(cxxPlatform, graphBuilder));
-          }
-          return result.values().stream();
-        }
+        // Walks the shared inputs of the library rule rather than asking it for a flattened map,
+        // which would be kept around for the lifetime of the rule.
+        return CxxPreprocessables.getTransitiveCxxPreprocessorInput(
+                cxxPlatform,
+                graphBuilder,
+                ImmutableList.<CxxPreprocessorDep>builder()
+                    .add(rule)
+                    .addAll(privateDepsForPlatform)
+                    .build())
+            .stream();
       };
     }
 
@@ -250,6 +250,12 @@ public class CxxLibraryGroup extends NoopBuildRuleWithDeclaredAndExtraDeps
     return transitiveCxxPreprocessorInputCache.getUnchecked(cxxPlatform, graphBuilder);
   }
 
+  @Override
+  public TransitiveCxxPreprocessorInputs getTransitiveCxxPreprocessorInputs(
+      CxxPlatform cxxPlatform, ActionGraphBuilder graphBuilder) {
+    return transitiveCxxPreprocessorInputCache.getInputsUnchecked(cxxPlatform, graphBuilder);
+  }
+
   private void forEachNativeLinkableDep(
       BuildRuleResolver ruleResolver, Consumer<? super NativeLinkableGroup> consumer) {
     if (!propagateLinkables) {
@@ -27,13 +27,23 @@ import com.facebook.buck.core.rules.BuildRuleResolver;
 import com.facebook.buck.core.rules.impl.DependencyAggregation;
 import com.facebook.buck.core.sourcepath.SourcePath;
 import com.facebook.buck.core.sourcepath.resolver.SourcePathResolverAdapter;
+import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.cxx.toolchain.CxxPlatform;
 import com.facebook.buck.cxx.toolchain.Preprocessor;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.rules.args.Arg;
+import com.facebook.buck.rules.args.SanitizedArg;
+import com.facebook.buck.rules.args.StringArg;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSortedSet;
 import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
+import java.util.regex.Pattern;
 
 /**
  * Represents a precompilable header file, along with dependencies.
@@ -43,6 +53,22 @@ import java.util.function.Function;
  * {@code deps} list.
  */
 public class CxxPrecompiledHeaderTemplate extends PreInclude implements AndroidPackageable {
+  private static final Logger LOG = Logger.get(CxxPrecompiledHeaderTemplate.class);
+
+  /**
+   * Flags which only affect the diagnostics of the compiler, and so whether a precompiled header is
+   * usable or not. Options passed through to other tools, like {@code -Wp,<arg>}, are not part of
+   * these.
+   */
+  private static final Pattern DIAGNOSTIC_FLAG =
+      Pattern.compile(
+          "-W[^,]*|-w|-pedantic(-errors)?|-f(no-)?(color-diagnostics|caret-diagnostics)"
+              + "|-fdiagnostics-.*|-ferror-limit=.*|-fmessage-length=.*");
+
+  /** Instantiations of this template, and the number of compilations using each of them. */
+  private final ConcurrentMap<BuildTarget, AtomicInteger> instantiations =
+      new ConcurrentHashMap<>();
+
   CxxPrecompiledHeaderTemplate(
       BuildTarget buildTarget,
       ProjectFilesystem projectFilesystem,
@@ -63,6 +89,7 @@ public class CxxPrecompiledHeaderTemplate extends PreInclude implements AndroidP
   @Override
   public CxxPrecompiledHeader getPrecompiledHeader(
       boolean canPrecompile,
+      boolean canonicalizeFlags,
       PreprocessorDelegate preprocessorDelegateForCxxRule,
       DependencyAggregation aggregatedPreprocessDepsRule,
       CxxToolFlags computedCompilerFlags,
@@ -85,6 +112,9 @@ public class CxxPrecompiledHeaderTemplate extends PreInclude implements AndroidP
         CxxToolFlags.concat(
             preprocessorDelegateForCxxRule.getNonIncludePathFlags(pathResolver),
             computedCompilerFlags);
+    if (canonicalizeFlags) {
+      compilerFlags = withoutDiagnosticFlags(compilerFlags);
+    }
 
     // Now build a new pp-delegate specially for this PCH rule.
     PreprocessorDelegate preprocessorDelegate =
@@ -103,6 +133,13 @@ public class CxxPrecompiledHeaderTemplate extends PreInclude implements AndroidP
     depsBuilder.add(requireAggregatedDepsRule(cxxPlatform, graphBuilder));
     depsBuilder.add(preprocessorDelegate);
 
+    BuildTarget target =
+        getBuildTarget()
+            .withFlavors(
+                cxxPlatform.getFlavor(),
+                InternalFlavor.of(Flavor.replaceInvalidCharacters(pchBaseID)));
+    recordUse(target);
+
     return requirePrecompiledHeader(
         canPrecompile,
         preprocessorDelegate,
@@ -110,13 +147,66 @@ public class CxxPrecompiledHeaderTemplate extends PreInclude implements AndroidP
         sourceType,
         compilerFlags,
         depsBuilder,
-        getBuildTarget()
-            .withFlavors(
-                cxxPlatform.getFlavor(),
-                InternalFlavor.of(Flavor.replaceInvalidCharacters(pchBaseID))),
+        target,
         graphBuilder);
   }
 
+  private void recordUse(BuildTarget instantiation) {
+    AtomicInteger uses =
+        instantiations.computeIfAbsent(instantiation, ignored -> new AtomicInteger());
+    if (uses.getAndIncrement() == 0) {
+      LOG.debug(
+          "Instantiating %s: %d instantiations of %s for %d compilations so far",
+          instantiation, instantiations.size(), getBuildTarget(), getUseCount());
+    }
+  }
+
+  /** @return the number of compilations using an instantiation of this template so far. */
+  @VisibleForTesting
+  int getUseCount() {
+    return instantiations.values().stream().mapToInt(AtomicInteger::get).sum();
+  }
+
+  /** @return the number of instantiations of this template so far. */
+  @VisibleForTesting
+  int getInstantiationCount() {
+    return instantiations.size();
+  }
+
+  /**
+   * @return the given flags without the ones which only affect the diagnostics of the compiler.
+   *     Arguments of options like {@code -Xclang} are kept as-is.
+   */
+  @VisibleForTesting
+  static CxxToolFlags withoutDiagnosticFlags(CxxToolFlags flags) {
+    return CxxToolFlags.copyOf(
+        withoutDiagnosticFlags(flags.getPlatformFlags()),
+        withoutDiagnosticFlags(flags.getRuleFlags()));
+  }
+
+  private static ImmutableList<Arg> withoutDiagnosticFlags(ImmutableList<Arg> args) {
+    ImmutableList.Builder<Arg> builder = ImmutableList.builder();
+    boolean isOptionArgument = false;
+    for (Arg arg : args) {
+      Optional<String> flag = getLiteralFlag(arg);
+      if (isOptionArgument || !flag.isPresent() || !DIAGNOSTIC_FLAG.matcher(flag.get()).matches()) {
+        builder.add(arg);
+      }
+      isOptionArgument = flag.isPresent() && flag.get().startsWith("-X");
+    }
+    return builder.build();
+  }
+
+  private static Optional<String> getLiteralFlag(Arg arg) {
+    if (arg instanceof StringArg) {
+      return Optional.of(((StringArg) arg).getArg());
+    }
+    if (arg instanceof SanitizedArg) {
+      return Optional.of(arg.toString());
+    }
+    return Optional.empty();
+  }
+
   @Override
   public Iterable<AndroidPackageable> getRequiredPackageables(BuildRuleResolver ruleResolver) {
     return AndroidPackageableCollector.getPackageableRules(getBuildDeps());
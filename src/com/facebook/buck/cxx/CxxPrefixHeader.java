@@ -48,6 +48,7 @@ public class CxxPrefixHeader extends PreInclude {
   @Override
   public CxxPrecompiledHeader getPrecompiledHeader(
       boolean canPrecompile,
+      boolean canonicalizeFlags,
       PreprocessorDelegate preprocessorDelegateForCxxRule,
       DependencyAggregation aggregatedPreprocessDepsRule,
       CxxToolFlags computedCompilerFlags,
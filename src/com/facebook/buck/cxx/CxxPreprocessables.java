@@ -38,10 +38,12 @@ import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
+import com.google.common.collect.Sets;
 import java.nio.file.Path;
 import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 
 public class CxxPreprocessables {
 
@@ -107,8 +109,10 @@ public class CxxPreprocessables {
     // We don't really care about the order we get back here, since headers shouldn't
     // conflict.  However, we want something that's deterministic, so maintain the insertion order.
     Map<BuildTarget, CxxPreprocessorInput> deps = new LinkedHashMap<>();
+    // The transitive inputs of the deps overlap a lot, so only walk each shared part once.
+    Set<TransitiveCxxPreprocessorInputs> visited = Sets.newIdentityHashSet();
     for (CxxPreprocessorDep input : inputs) {
-      deps.putAll(input.getTransitiveCxxPreprocessorInput(cxxPlatform, graphBuilder));
+      input.getTransitiveCxxPreprocessorInputs(cxxPlatform, graphBuilder).addTo(visited, deps);
     }
     return deps.values();
   }
@@ -48,4 +48,15 @@ public interface CxxPreprocessorDep {
    */
   ImmutableMap<BuildTarget, CxxPreprocessorInput> getTransitiveCxxPreprocessorInput(
       CxxPlatform cxxPlatform, ActionGraphBuilder graphBuilder);
+
+  /**
+   * Returns the same inputs as {@link #getTransitiveCxxPreprocessorInput}, sharing structure with
+   * the transitive inputs of this rule's dependencies. Rules caching their transitive inputs with a
+   * {@link TransitiveCxxPreprocessorInputCache} should return them from there.
+   */
+  default TransitiveCxxPreprocessorInputs getTransitiveCxxPreprocessorInputs(
+      CxxPlatform cxxPlatform, ActionGraphBuilder graphBuilder) {
+    return TransitiveCxxPreprocessorInputs.of(
+        getTransitiveCxxPreprocessorInput(cxxPlatform, graphBuilder));
+  }
 }
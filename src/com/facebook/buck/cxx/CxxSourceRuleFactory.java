@@ -59,6 +59,8 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Ordering;
 import com.google.common.hash.Hashing;
 import java.io.File;
 import java.nio.file.Path;
@@ -336,15 +338,20 @@ public abstract class CxxSourceRuleFactory {
 
   /**
    * @return a {@link CxxThinLTOOpt} rule that handles the opt phase of ThinLTO with the given
-   *     {@link CxxSource}. thinIndicesRoot points to the root of the thin index artifacts generated
-   *     in the ThinLTO indexing step. See {@link CxxThinLTOIndex}.
+   *     {@link CxxSource}, using the index generated for it in the ThinLTO indexing step. See
+   *     {@link CxxThinLTOIndex}. importableModules are the bitcode objects the index may import
+   *     functions from.
    */
   private CxxThinLTOOpt createThinOptBuildRule(
-      String name, CxxSource source, SourcePath thinIndicesRoot) {
+      String name,
+      CxxSource source,
+      CxxThinLTOIndex thinIndex,
+      CxxThinLTOOpt.Modules importableModules) {
 
     Preconditions.checkArgument(CxxSourceTypes.isOptimizableType(source.getType()));
 
     BuildTarget target = createOptimizeBuildTarget(name);
+    Path object = getPathResolver().getRelativePath(source.getPath());
 
     Compiler compiler =
         CxxSourceTypes.getCompiler(getCxxPlatform(), source.getType())
@@ -360,7 +367,7 @@ public abstract class CxxSourceRuleFactory {
             .addAllRuleFlags(getRuleCompileFlags(source.getType()))
             // Add custom per-file flags.
             .addAllRuleFlags(sanitizedArgs(StringArg.from(source.getFlags())))
-            .addRuleFlags(new CxxThinLTOIndexArg(thinIndicesRoot, source.getPath()))
+            .addRuleFlags(new CxxThinLTOIndexArg(thinIndex.getSourcePathToModuleIndex(object)))
             .build();
 
     CompilerDelegate compilerDelegate =
@@ -377,7 +384,9 @@ public abstract class CxxSourceRuleFactory {
         compilerDelegate,
         getCompileOutputName(name),
         source.getPath(),
-        thinIndicesRoot,
+        thinIndex.getSourcePathToModuleIndex(object),
+        thinIndex.getSourcePathToModuleImports(object),
+        importableModules,
         source.getType(),
         getSanitizer());
   }
@@ -538,10 +547,16 @@ public abstract class CxxSourceRuleFactory {
   }
 
   public ImmutableMap<CxxThinLTOOpt, SourcePath> requireThinOptRules(
-      ImmutableMap<String, CxxSource> sources, SourcePath thinIndicesRoot) {
+      ImmutableMap<String, CxxSource> sources, CxxThinLTOIndex thinIndex) {
 
     ImmutableMap.Builder<BuildTarget, Function<BuildTarget, BuildRule>> mappings =
         ImmutableMap.builder();
+    // Shared by all opt rules, each excluding its own source where it matters.
+    CxxThinLTOOpt.Modules modules =
+        new CxxThinLTOOpt.Modules(
+            sources.values().stream()
+                .map(CxxSource::getPath)
+                .collect(ImmutableSortedSet.toImmutableSortedSet(Ordering.natural())));
 
     sources.forEach(
         (name, source) -> {
@@ -550,7 +565,8 @@ public abstract class CxxSourceRuleFactory {
               target,
               ignored -> {
                 Preconditions.checkState(CxxSourceTypes.isOptimizableType(source.getType()));
-                CxxThinLTOOpt rule = createThinOptBuildRule(name, source, thinIndicesRoot);
+                CxxThinLTOOpt rule =
+                    createThinOptBuildRule(name, source, thinIndex, modules);
                 Preconditions.checkState(
                     rule.getInput().equals(source.getPath()),
                     "Hash collision for %s; a build rule would have been ignored.",
@@ -693,6 +709,7 @@ public abstract class CxxSourceRuleFactory {
 
     return pre.getPrecompiledHeader(
         /* canPrecompile */ canUsePrecompiledHeaders(sourceType),
+        getCxxBuckConfig().shouldCanonicalizePCHFlags(),
         preprocessorDelegateCacheValue.getPreprocessorDelegate(),
         (DependencyAggregation) requireAggregatedPreprocessDepsRule(),
         computeCompilerFlags(sourceType, sourceFlags),
@@ -821,6 +838,7 @@ public abstract class CxxSourceRuleFactory {
   private class PreprocessorDelegateCacheValue {
     private final Function<AddsToRuleKey, String> commandHashCache = memoize(this::computeHash);
     private final PreprocessorDelegate preprocessorDelegate;
+    private final Supplier<String> preprocessorToolHash;
     private final Supplier<String> preprocessorHash;
     private final Supplier<String> preprocessorFullHash;
 
@@ -833,6 +851,14 @@ public abstract class CxxSourceRuleFactory {
     PreprocessorDelegateCacheValue(
         PreprocessorDelegate preprocessorDelegate, DebugPathSanitizer sanitizer) {
       this.preprocessorDelegate = preprocessorDelegate;
+      this.preprocessorToolHash =
+          MoreSuppliers.memoize(
+              () ->
+                  computeHash(
+                      new AddsToRuleKey() {
+                        @AddToRuleKey
+                        Preprocessor preprocessor = preprocessorDelegate.getPreprocessor();
+                      }));
       this.preprocessorHash =
           MoreSuppliers.memoize(
               () ->
@@ -870,8 +896,12 @@ public abstract class CxxSourceRuleFactory {
           + commandHashCache.apply(compilerFlags);
     }
 
+    /**
+     * Unlike {@link #getHash}, leaves out the preprocessor flags of the rule: the flags given must
+     * include the ones the precompiled header depends on.
+     */
     public String getBaseHash(CxxToolFlags compilerFlags) {
-      return preprocessorHash.get() + "-" + commandHashCache.apply(compilerFlags);
+      return preprocessorToolHash.get() + "-" + commandHashCache.apply(compilerFlags);
     }
   }
 
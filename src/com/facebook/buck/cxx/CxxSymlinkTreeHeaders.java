@@ -85,6 +85,10 @@ public abstract class CxxSymlinkTreeHeaders extends CxxHeaders implements RuleKe
   @CustomFieldBehavior(HeaderMapInputsBehavior.class)
   public abstract Optional<SourcePath> getHeaderMap();
 
+  @Override
+  @CustomFieldBehavior(HeaderMapInputsBehavior.class)
+  public abstract Optional<SourcePath> getVfsOverlay();
+
   @Value.Auxiliary
   @CustomFieldBehavior(NameToPathMapInputsBehavior.class)
   public abstract ImmutableSortedMap<Path, SourcePath> getNameToPathMap();
@@ -108,6 +112,7 @@ public abstract class CxxSymlinkTreeHeaders extends CxxHeaders implements RuleKe
       ruleFinder.getRule(getIncludeRoot().getRight()).ifPresent(builder);
     }
     getHeaderMap().flatMap(ruleFinder::getRule).ifPresent(builder);
+    getVfsOverlay().flatMap(ruleFinder::getRule).ifPresent(builder);
 
     // return a stream of the cached dependencies, or compute and store it
     return Stream.concat(
@@ -143,18 +148,26 @@ public abstract class CxxSymlinkTreeHeaders extends CxxHeaders implements RuleKe
 
     Either<PathSourcePath, SourcePath> includeRoot;
     Optional<SourcePath> headerMap;
-    if (includeType == CxxPreprocessables.IncludeType.LOCAL) {
+    Optional<SourcePath> vfsOverlay;
+    if (includeType == CxxPreprocessables.IncludeType.LOCAL
+        && (symlinkTree.getHeaderMapSourcePath().isPresent()
+            || !symlinkTree.getVfsOverlaySourcePath().isPresent())) {
       includeRoot = Either.ofLeft(symlinkTree.getIncludeSourcePath());
       headerMap = symlinkTree.getHeaderMapSourcePath();
+      vfsOverlay = Optional.empty();
     } else {
+      // Headers are found under the root, where the overlay makes them appear if the tree isn't
+      // created on disk.
       includeRoot = Either.ofRight(symlinkTree.getRootSourcePath());
       headerMap = Optional.empty();
+      vfsOverlay = symlinkTree.getVfsOverlaySourcePath();
     }
     return of(
         includeType,
         symlinkTree.getRootSourcePath(),
         includeRoot,
         headerMap,
+        vfsOverlay,
         symlinkTree.getLinks(),
         symlinkTree.getClass().getName());
   }
@@ -166,8 +179,26 @@ public abstract class CxxSymlinkTreeHeaders extends CxxHeaders implements RuleKe
       Optional<? extends SourcePath> headerMap,
       ImmutableSortedMap<Path, SourcePath> nameToPathMap,
       String symlinkTreeClass) {
+    return of(
+        includeType,
+        root,
+        includeRoot,
+        headerMap,
+        Optional.empty(),
+        nameToPathMap,
+        symlinkTreeClass);
+  }
+
+  public static CxxSymlinkTreeHeaders of(
+      CxxPreprocessables.IncludeType includeType,
+      SourcePath root,
+      Either<PathSourcePath, SourcePath> includeRoot,
+      Optional<? extends SourcePath> headerMap,
+      Optional<? extends SourcePath> vfsOverlay,
+      ImmutableSortedMap<Path, SourcePath> nameToPathMap,
+      String symlinkTreeClass) {
     return ImmutableCxxSymlinkTreeHeaders.of(
-        includeType, root, includeRoot, headerMap, nameToPathMap, symlinkTreeClass);
+        includeType, root, includeRoot, headerMap, vfsOverlay, nameToPathMap, symlinkTreeClass);
   }
 
   /** Custom serialization. */
@@ -184,6 +215,7 @@ public abstract class CxxSymlinkTreeHeaders extends CxxHeaders implements RuleKe
         CxxSymlinkTreeHeaders instance, ValueVisitor<E> serializer) throws E {
       INCLUDE_TYPE_TYPE_INFO.visit(instance.getIncludeType(), serializer);
       HEADER_MAP_TYPE_INFO.visit(instance.getHeaderMap(), serializer);
+      HEADER_MAP_TYPE_INFO.visit(instance.getVfsOverlay(), serializer);
       serializer.visitSourcePath(instance.getRoot());
       INCLUDE_ROOT_TYPE_INFO.visit(instance.getIncludeRoot(), serializer);
       ImmutableSortedMap<Path, SourcePath> nameToPathMap = instance.getNameToPathMap();
@@ -203,6 +235,7 @@ public abstract class CxxSymlinkTreeHeaders extends CxxHeaders implements RuleKe
         throws E {
       IncludeType includeType = INCLUDE_TYPE_TYPE_INFO.createNotNull(deserializer);
       Optional<SourcePath> headerMapType = HEADER_MAP_TYPE_INFO.createNotNull(deserializer);
+      Optional<SourcePath> vfsOverlayType = HEADER_MAP_TYPE_INFO.createNotNull(deserializer);
       SourcePath root = deserializer.createSourcePath();
       Either<PathSourcePath, SourcePath> includeRootType =
           INCLUDE_ROOT_TYPE_INFO.createNotNull(deserializer);
@@ -221,6 +254,7 @@ public abstract class CxxSymlinkTreeHeaders extends CxxHeaders implements RuleKe
           root,
           includeRootType,
           headerMapType,
+          vfsOverlayType,
           nameToPathMapBuilder.build(),
           symlinkTreeClass);
     }
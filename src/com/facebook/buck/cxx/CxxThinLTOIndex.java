@@ -161,6 +161,23 @@ public class CxxThinLTOIndex extends ModernBuildRule<CxxThinLTOIndex.Impl>
     return getSourcePath(getBuildable().output);
   }
 
+  /**
+   * @return the source path to the index of the given bitcode object, which the opt phase of that
+   *     object reads.
+   */
+  SourcePath getSourcePathToModuleIndex(Path object) {
+    return ExplicitBuildTargetSourcePath.of(
+        getBuildTarget(), output.resolve(object + ".thinlto.bc"));
+  }
+
+  /**
+   * @return the source path to the list of the bitcode objects the given one imports functions
+   *     from.
+   */
+  SourcePath getSourcePathToModuleImports(Path object) {
+    return ExplicitBuildTargetSourcePath.of(getBuildTarget(), output.resolve(object + ".imports"));
+  }
+
   /** @return The source path to be used to link against this binary. */
   SourcePath getSourcePathToOutputForLinking() {
     if (isSharedLib() && getBuildable().linker instanceof HasImportLibrary) {
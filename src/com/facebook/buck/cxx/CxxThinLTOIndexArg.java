@@ -24,22 +24,15 @@ import java.util.function.Consumer;
 
 /** Holds an argument specifying the location of a thinLTO index file for optimization */
 public class CxxThinLTOIndexArg implements Arg {
-  @AddToRuleKey private final SourcePath thinIndicesRoot;
-  private final SourcePath cxxSourcePath;
+  @AddToRuleKey private final SourcePath index;
 
-  public CxxThinLTOIndexArg(SourcePath thinIndicesRoot, SourcePath cxxSourcePath) {
-    this.thinIndicesRoot = thinIndicesRoot;
-    this.cxxSourcePath = cxxSourcePath;
+  public CxxThinLTOIndexArg(SourcePath index) {
+    this.index = index;
   }
 
   @Override
   public void appendToCommandLine(
       Consumer<String> consumer, SourcePathResolverAdapter pathResolver) {
-    consumer.accept(
-        String.format(
-            "-fthinlto-index=%s.thinlto.bc",
-            pathResolver
-                .getRelativePath(thinIndicesRoot)
-                .resolve(pathResolver.getRelativePath(cxxSourcePath))));
+    consumer.accept(String.format("-fthinlto-index=%s", pathResolver.getRelativePath(index)));
   }
 }
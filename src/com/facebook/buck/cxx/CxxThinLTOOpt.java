@@ -17,10 +17,13 @@
 package com.facebook.buck.cxx;
 
 import com.facebook.buck.core.build.context.BuildContext;
+import com.facebook.buck.core.cell.CellPathResolver;
 import com.facebook.buck.core.filesystems.RelPath;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.rulekey.AddToRuleKey;
+import com.facebook.buck.core.rulekey.AddsToRuleKey;
 import com.facebook.buck.core.rules.SourcePathRuleFinder;
+import com.facebook.buck.core.rules.attr.SupportsDependencyFileRuleKey;
 import com.facebook.buck.core.sourcepath.SourcePath;
 import com.facebook.buck.core.sourcepath.resolver.SourcePathResolverAdapter;
 import com.facebook.buck.cxx.CxxSource.Type;
@@ -39,12 +42,17 @@ import com.facebook.buck.step.Step;
 import com.facebook.buck.step.fs.MkdirStep;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import java.io.IOException;
 import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Predicate;
 
 /** A build rule which runs the opt phase of an incremental ThinLTO build */
 public class CxxThinLTOOpt extends ModernBuildRule<CxxThinLTOOpt.Impl>
-    implements CxxIntermediateBuildProduct {
+    implements SupportsDependencyFileRuleKey, CxxIntermediateBuildProduct {
   private CxxThinLTOOpt(
       BuildTarget buildTarget,
       ProjectFilesystem projectFilesystem,
@@ -52,7 +60,9 @@ public class CxxThinLTOOpt extends ModernBuildRule<CxxThinLTOOpt.Impl>
       CompilerDelegate compilerDelegate,
       String outputName,
       SourcePath input,
-      SourcePath thinIndicesRoot,
+      SourcePath index,
+      SourcePath imports,
+      Modules importableModules,
       Type inputType,
       DebugPathSanitizer sanitizer) {
     super(
@@ -64,7 +74,9 @@ public class CxxThinLTOOpt extends ModernBuildRule<CxxThinLTOOpt.Impl>
             compilerDelegate,
             outputName,
             input,
-            thinIndicesRoot,
+            index,
+            imports,
+            importableModules,
             inputType,
             sanitizer));
     Preconditions.checkArgument(
@@ -78,7 +90,12 @@ public class CxxThinLTOOpt extends ModernBuildRule<CxxThinLTOOpt.Impl>
         LinkerMapMode.FLAVOR_DOMAIN);
   }
 
-  /** @return a {@link CxxThinLTOOpt} step that optimizes the given bitcode source. */
+  /**
+   * @return a {@link CxxThinLTOOpt} step that optimizes the given bitcode source, using its index
+   *     and the list of the modules, among importableModules, that it imports from.
+   *     importableModules may include the source itself, so that all opt rules of a link can share
+   *     them.
+   */
   public static CxxThinLTOOpt optimize(
       BuildTarget buildTarget,
       ProjectFilesystem projectFilesystem,
@@ -86,7 +103,9 @@ public class CxxThinLTOOpt extends ModernBuildRule<CxxThinLTOOpt.Impl>
       CompilerDelegate compilerDelegate,
       String outputName,
       SourcePath input,
-      SourcePath thinIndicesRoot,
+      SourcePath index,
+      SourcePath imports,
+      Modules importableModules,
       Type inputType,
       DebugPathSanitizer sanitizer) {
     return new CxxThinLTOOpt(
@@ -96,7 +115,9 @@ public class CxxThinLTOOpt extends ModernBuildRule<CxxThinLTOOpt.Impl>
         compilerDelegate,
         outputName,
         input,
-        thinIndicesRoot,
+        index,
+        imports,
+        importableModules,
         inputType,
         sanitizer);
   }
@@ -121,6 +142,72 @@ public class CxxThinLTOOpt extends ModernBuildRule<CxxThinLTOOpt.Impl>
     return getBuildable().input;
   }
 
+  /**
+   * The index of a module only changes when the summaries it uses change, so, beyond it and the
+   * module itself, the opt phase only depends on the modules it imports functions from, which the
+   * indexing step lists next to the index.
+   */
+  @Override
+  public boolean useDependencyFileRuleKeys() {
+    return true;
+  }
+
+  @Override
+  public Predicate<SourcePath> getCoveredByDepFilePredicate(
+      SourcePathResolverAdapter pathResolver) {
+    SourcePath input = getBuildable().input;
+    return path -> !path.equals(input) && getBuildable().importableModules.contains(path);
+  }
+
+  @Override
+  public Predicate<SourcePath> getExistenceOfInterestPredicate(
+      SourcePathResolverAdapter pathResolver) {
+    return (SourcePath path) -> false;
+  }
+
+  @Override
+  public ImmutableList<SourcePath> getInputsAfterBuildingLocally(
+      BuildContext context, CellPathResolver cellPathResolver) throws IOException {
+    SourcePathResolverAdapter resolver = context.getSourcePathResolver();
+    Map<Path, SourcePath> modulesByPath = new HashMap<>();
+    for (SourcePath module : getBuildable().importableModules.modules) {
+      if (!module.equals(getBuildable().input)) {
+        modulesByPath.put(resolver.getAbsolutePath(module), module);
+      }
+    }
+
+    ImmutableList.Builder<SourcePath> inputs = ImmutableList.builder();
+    for (String line :
+        getProjectFilesystem().readLines(resolver.getRelativePath(getBuildable().imports))) {
+      if (line.isEmpty()) {
+        continue;
+      }
+      // Modules imported from outside of this binary's sources, like archive members, are not
+      // inputs of this rule, but the index records the hash of every module it imports from.
+      SourcePath module = modulesByPath.get(getProjectFilesystem().resolve(line).normalize());
+      if (module != null) {
+        inputs.add(module);
+      }
+    }
+    return inputs.build();
+  }
+
+  /**
+   * The bitcode modules of a ThinLTO link. A single instance is shared by all opt rules of the
+   * link, so that it's kept and hashed into their rule keys once, instead of once per rule.
+   */
+  public static class Modules implements AddsToRuleKey {
+    @AddToRuleKey private final ImmutableSortedSet<SourcePath> modules;
+
+    public Modules(ImmutableSortedSet<SourcePath> modules) {
+      this.modules = modules;
+    }
+
+    boolean contains(SourcePath module) {
+      return modules.contains(module);
+    }
+  }
+
   /** Buildable implementation for CxxThinLTOOpt. */
   public static class Impl implements Buildable {
     @AddToRuleKey private final BuildTarget targetName;
@@ -129,7 +216,9 @@ public class CxxThinLTOOpt extends ModernBuildRule<CxxThinLTOOpt.Impl>
     @AddToRuleKey private final DebugPathSanitizer sanitizer;
     @AddToRuleKey private final OutputPath output;
     @AddToRuleKey private final SourcePath input;
-    @AddToRuleKey private final SourcePath thinIndicesRoot;
+    @AddToRuleKey private final SourcePath index;
+    @AddToRuleKey private final SourcePath imports;
+    @AddToRuleKey private final Modules importableModules;
     @AddToRuleKey private final CxxSource.Type inputType;
 
     public Impl(
@@ -137,7 +226,9 @@ public class CxxThinLTOOpt extends ModernBuildRule<CxxThinLTOOpt.Impl>
         CompilerDelegate compilerDelegate,
         String outputName,
         SourcePath input,
-        SourcePath thinIndicesRoot,
+        SourcePath index,
+        SourcePath imports,
+        Modules importableModules,
         Type inputType,
         DebugPathSanitizer sanitizer) {
       this.targetName = targetName;
@@ -145,7 +236,9 @@ public class CxxThinLTOOpt extends ModernBuildRule<CxxThinLTOOpt.Impl>
       this.sanitizer = sanitizer;
       this.output = new OutputPath(outputName);
       this.input = input;
-      this.thinIndicesRoot = thinIndicesRoot;
+      this.index = index;
+      this.imports = imports;
+      this.importableModules = importableModules;
       this.inputType = inputType;
     }
 
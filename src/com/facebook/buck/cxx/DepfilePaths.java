@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import com.facebook.buck.core.filesystems.AbsPath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.google.common.base.Charsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The paths read from depfiles, interned so that all compiles share a single copy of each header
+ * path, along with its resolved form.
+ *
+ * <p>Most compiles of a build include the same headers, so paths are looked up straight from the
+ * bytes of the depfile: parsing a path seen before neither decodes nor copies it.
+ */
+final class DepfilePaths {
+
+  // A daemon may see many different paths across builds, so the table is dropped once it grows
+  // past this many entries.
+  private static final int MAX_SIZE = 1 << 18;
+
+  private static final ConcurrentMap<Key, String> PATHS = new ConcurrentHashMap<>();
+  private static final ConcurrentMap<String, Resolved> RESOLVED = new ConcurrentHashMap<>();
+
+  private DepfilePaths() {}
+
+  /** @return the interned path made of the given UTF-8 bytes. */
+  static String intern(byte[] bytes, int length) {
+    return intern(bytes, 0, length);
+  }
+
+  /** @return the interned path made of {@code length} UTF-8 bytes from {@code offset}. */
+  static String intern(byte[] bytes, int offset, int length) {
+    String path = PATHS.get(new Key(bytes, offset, length));
+    if (path != null) {
+      return path;
+    }
+    if (PATHS.size() >= MAX_SIZE) {
+      PATHS.clear();
+      RESOLVED.clear();
+    }
+    Key key = new Key(Arrays.copyOfRange(bytes, offset, offset + length), 0, length);
+    path = new String(key.bytes, Charsets.UTF_8);
+    String previous = PATHS.putIfAbsent(key, path);
+    return previous == null ? path : previous;
+  }
+
+  /**
+   * @return {@code path} resolved against the root of {@code filesystem} and normalized, as
+   *     computed by the last compile of that filesystem which saw it.
+   */
+  static Path resolve(ProjectFilesystem filesystem, String path) {
+    AbsPath root = filesystem.getRootPath();
+    Resolved resolved = RESOLVED.get(path);
+    if (resolved == null || !resolved.root.equals(root)) {
+      if (RESOLVED.size() >= MAX_SIZE) {
+        RESOLVED.clear();
+      }
+      resolved = new Resolved(root, filesystem.resolve(path).normalize());
+      RESOLVED.put(path, resolved);
+    }
+    return resolved.path;
+  }
+
+  /** The bytes of a path, which can wrap the parser's buffer to look up a path without copying. */
+  private static final class Key {
+    private final byte[] bytes;
+    private final int offset;
+    private final int length;
+    private final int hashCode;
+
+    private Key(byte[] bytes, int offset, int length) {
+      this.bytes = bytes;
+      this.offset = offset;
+      this.length = length;
+      int hash = 1;
+      for (int i = offset; i < offset + length; i++) {
+        hash = 31 * hash + bytes[i];
+      }
+      this.hashCode = hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      if (hashCode != other.hashCode || length != other.length) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (bytes[offset + i] != other.bytes[other.offset + i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+
+  private static final class Resolved {
+    private final AbsPath root;
+    private final Path path;
+
+    private Resolved(AbsPath root, Path path) {
+      this.root = root;
+      this.path = path;
+    }
+  }
+}
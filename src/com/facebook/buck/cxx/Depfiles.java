@@ -29,17 +29,24 @@ import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.event.SimplePerfEvent;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.pathformat.PathFormatter;
+import com.facebook.buck.util.environment.Platform;
+import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import java.io.BufferedReader;
+import com.google.common.io.ByteStreams;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
@@ -82,9 +89,13 @@ class Depfiles {
     ADD_PREREQ
   }
 
-  private static final String WHITESPACE_CHARS = " \n\r\t";
-  private static final String ESCAPED_TARGET_CHARS = ": #";
-  private static final String ESCAPED_PREREQ_CHARS = " #";
+  // Smaller depfiles are cheaper to read than to map.
+  private static final long MIN_MAPPED_DEPFILE_SIZE = 64 * 1024;
+
+  // Depfiles are parsed from chunks copied out of their buffer, as reading a mapped buffer byte
+  // by byte is slow.
+  private static final int CHUNK_SIZE = 8 * 1024;
+
   private static final String UNTRACKED_HEADER_ERROR_TIPS =
       "Untracked headers detected. Please reference these headers "
           + System.lineSeparator()
@@ -102,31 +113,44 @@ class Depfiles {
    * dep2, ...]) inside.
    */
   public static Depfile parseDepfile(Readable readable) throws IOException {
+    StringBuilder contents = new StringBuilder();
+    CharBuffer buffer = CharBuffer.allocate(4096);
+    while (readable.read(buffer) != -1) {
+      buffer.flip();
+      contents.append(buffer);
+      buffer.clear();
+    }
+    return parseDepfile(ByteBuffer.wrap(contents.toString().getBytes(Charsets.UTF_8)));
+  }
+
+  /**
+   * Parses the UTF-8 bytes of a .d Makefile as emitted by {@code gcc -MD} and returns the (target,
+   * [dep, dep2, ...]) inside.
+   *
+   * <p>All the characters the format gives a meaning to are ASCII, so the bytes are parsed as they
+   * are, and the prereqs are interned from them by {@link DepfilePaths}.
+   */
+  public static Depfile parseDepfile(ByteBuffer buffer) throws IOException {
     String target = null;
     ImmutableList.Builder<String> prereqsBuilder = ImmutableList.builder();
     State state = State.LOOKING_FOR_TARGET;
-    StringBuilder identifierBuilder = new StringBuilder();
-
-    CharBuffer buffer = CharBuffer.allocate(4096);
+    byte[] identifier = new byte[256];
+    int identifierLength = 0;
     int numBackslashes = 0;
 
-    while (readable.read(buffer) != -1) {
-      buffer.flip();
-
-      while (buffer.hasRemaining()) {
-        char c = buffer.get();
+    byte[] chunk = new byte[CHUNK_SIZE];
+    while (buffer.hasRemaining()) {
+      int chunkLength = Math.min(chunk.length, buffer.remaining());
+      buffer.get(chunk, 0, chunkLength);
+      for (int position = 0; position < chunkLength; position++) {
+        byte c = chunk[position];
         Action action = Action.NONE;
         boolean isBackslash = c == '\\';
         boolean isCarriageReturn = c == '\r';
         boolean isNewline = c == '\n';
-        boolean isWhitespace = WHITESPACE_CHARS.indexOf(c) != -1;
-        boolean inIdentifier = identifierBuilder.length() > 0;
-        boolean isEscaped;
-        if (state == State.LOOKING_FOR_TARGET) {
-          isEscaped = ESCAPED_TARGET_CHARS.indexOf(c) != -1;
-        } else {
-          isEscaped = ESCAPED_PREREQ_CHARS.indexOf(c) != -1;
-        }
+        boolean isWhitespace = c == ' ' || c == '\t' || isNewline || isCarriageReturn;
+        boolean inIdentifier = identifierLength > 0;
+        boolean isEscaped = c == ' ' || c == '#' || (c == ':' && state == State.LOOKING_FOR_TARGET);
 
         if (isBackslash) {
           // We need to count the number of backslashes in case the
@@ -169,8 +193,9 @@ class Depfiles {
             numBackslashesToAppend = numBackslashes;
           }
 
+          identifier = ensureCapacity(identifier, identifierLength + numBackslashesToAppend);
           for (int i = 0; i < numBackslashesToAppend; i++) {
-            identifierBuilder.append('\\');
+            identifier[identifierLength++] = '\\';
           }
           numBackslashes = 0;
         }
@@ -179,24 +204,23 @@ class Depfiles {
           case NONE:
             break;
           case APPEND_TO_IDENTIFIER:
-            identifierBuilder.append(c);
+            identifier = ensureCapacity(identifier, identifierLength + 1);
+            identifier[identifierLength++] = c;
             break;
           case SET_TARGET:
             if (target != null) {
               throw new HumanReadableException(
                   "Depfile parser cannot handle .d file with multiple targets");
             }
-            target = identifierBuilder.toString();
-            identifierBuilder.setLength(0);
+            target = new String(identifier, 0, identifierLength, Charsets.UTF_8);
+            identifierLength = 0;
             break;
           case ADD_PREREQ:
-            prereqsBuilder.add(identifierBuilder.toString());
-            identifierBuilder.setLength(0);
+            prereqsBuilder.add(DepfilePaths.intern(identifier, identifierLength));
+            identifierLength = 0;
             break;
         }
       }
-
-      buffer.clear();
     }
 
     ImmutableList<String> prereqs = prereqsBuilder.build();
@@ -207,6 +231,109 @@ class Depfiles {
     }
   }
 
+  /**
+   * Parses the UTF-8 bytes of an intermediate depfile written in {@code show_includes} mode, which
+   * lists the source file, then the headers it used, one per line and indented by depth.
+   *
+   * @return the headers, trimmed and interned by {@link DepfilePaths}.
+   */
+  static ImmutableList<String> parseShowIncludes(ByteBuffer buffer) {
+    ImmutableList.Builder<String> includes = ImmutableList.builder();
+    // The start of a line which spans chunks.
+    byte[] line = new byte[256];
+    int lineLength = 0;
+    boolean isFirstLine = true;
+    boolean afterCarriageReturn = false;
+    byte[] chunk = new byte[CHUNK_SIZE];
+    while (buffer.hasRemaining()) {
+      int chunkLength = Math.min(chunk.length, buffer.remaining());
+      buffer.get(chunk, 0, chunkLength);
+      int lineStart = 0;
+      for (int position = 0; position < chunkLength; position++) {
+        byte c = chunk[position];
+        if (c != '\n' && c != '\r') {
+          continue;
+        }
+        if (c == '\n' && afterCarriageReturn && position == lineStart && lineLength == 0) {
+          // The line already ended with the carriage return.
+          afterCarriageReturn = false;
+          lineStart = position + 1;
+          continue;
+        }
+        if (!isFirstLine) {
+          if (lineLength == 0) {
+            includes.add(internTrimmed(chunk, lineStart, position));
+          } else {
+            line = append(line, lineLength, chunk, lineStart, position);
+            includes.add(internTrimmed(line, 0, lineLength + position - lineStart));
+          }
+        }
+        isFirstLine = false;
+        lineLength = 0;
+        lineStart = position + 1;
+        afterCarriageReturn = c == '\r';
+      }
+      if (lineStart < chunkLength) {
+        afterCarriageReturn = false;
+        line = append(line, lineLength, chunk, lineStart, chunkLength);
+        lineLength += chunkLength - lineStart;
+      }
+    }
+    if (!isFirstLine && lineLength > 0) {
+      includes.add(internTrimmed(line, 0, lineLength));
+    }
+    return includes.build();
+  }
+
+  /**
+   * Interns the bytes from {@code start} to {@code end}, without the leading and trailing ASCII
+   * spaces and controls.
+   */
+  private static String internTrimmed(byte[] bytes, int start, int end) {
+    while (start < end && (bytes[start] & 0xff) <= ' ') {
+      start++;
+    }
+    while (end > start && (bytes[end - 1] & 0xff) <= ' ') {
+      end--;
+    }
+    return DepfilePaths.intern(bytes, start, end - start);
+  }
+
+  /** @return {@code bytes}, or a larger copy, with the given range of {@code source} appended. */
+  private static byte[] append(byte[] bytes, int length, byte[] source, int start, int end) {
+    bytes = ensureCapacity(bytes, length + end - start);
+    System.arraycopy(source, start, bytes, length, end - start);
+    return bytes;
+  }
+
+  private static byte[] ensureCapacity(byte[] bytes, int capacity) {
+    return capacity <= bytes.length
+        ? bytes
+        : Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+  }
+
+  /**
+   * Reads the contents of a depfile. Large depfiles are mapped into memory, rather than copied,
+   * when they're on disk.
+   */
+  static ByteBuffer readDepfile(ProjectFilesystem filesystem, Path depFile) throws IOException {
+    Path path = filesystem.resolve(depFile);
+    // Mapped files can't be deleted on Windows until they're garbage collected.
+    if (Platform.detect() != Platform.WINDOWS
+        && path.getFileSystem() == FileSystems.getDefault()
+        && Files.isRegularFile(path)) {
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+        long size = channel.size();
+        if (size >= MIN_MAPPED_DEPFILE_SIZE) {
+          return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+      }
+    }
+    try (InputStream input = filesystem.newFileInputStream(depFile)) {
+      return ByteBuffer.wrap(ByteStreams.toByteArray(input));
+    }
+  }
+
   private static ImmutableList<String> getRawUsedHeadersFromDepfile(
       ProjectFilesystem filesystem,
       Path sourceDepFile,
@@ -216,39 +343,35 @@ class Depfiles {
       throws IOException {
     switch (dependencyTrackingMode) {
       case MAKEFILE:
-        try (InputStream input = filesystem.newFileInputStream(sourceDepFile);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(input))) {
-          ImmutableList<String> prereqs = Depfiles.parseDepfile(reader).getPrereqs();
-          // Additional files passed in via command-line flags (e.g. `-fsanitize-blacklist=<file>`)
-          // appear first in the dep file, followed by the input source file.  So, just skip over
-          // everything until just after the input source which should position us at the headers.
-          //
-          // TODO(#11303454): This means we're not including the content of these special files into
-          // the rule key. The correct way to handle this is likely to support macros in
-          // preprocessor/compiler flags at which point we can use the entries for these files in
-          // the depfile to verify that the user properly references these files via the macros.
-          int inputIndex =
-              prereqs.indexOf(
-                  useUnixPathSeparator
-                      ? PathFormatter.pathWithUnixSeparators(inputPath)
-                      : inputPath.toString());
-          Preconditions.checkState(
-              inputIndex != -1,
-              "Could not find input source (%s) in dep file prereqs (%s)",
-              inputPath,
-              prereqs);
-          ImmutableList<String> includes = prereqs.subList(inputIndex + 1, prereqs.size());
-          return includes;
-        }
+        ImmutableList<String> prereqs =
+            Depfiles.parseDepfile(readDepfile(filesystem, sourceDepFile)).getPrereqs();
+        // Additional files passed in via command-line flags (e.g. `-fsanitize-blacklist=<file>`)
+        // appear first in the dep file, followed by the input source file.  So, just skip over
+        // everything until just after the input source which should position us at the headers.
+        //
+        // TODO(#11303454): This means we're not including the content of these special files into
+        // the rule key. The correct way to handle this is likely to support macros in
+        // preprocessor/compiler flags at which point we can use the entries for these files in
+        // the depfile to verify that the user properly references these files via the macros.
+        int inputIndex =
+            prereqs.indexOf(
+                useUnixPathSeparator
+                    ? PathFormatter.pathWithUnixSeparators(inputPath)
+                    : inputPath.toString());
+        Preconditions.checkState(
+            inputIndex != -1,
+            "Could not find input source (%s) in dep file prereqs (%s)",
+            inputPath,
+            prereqs);
+        ImmutableList<String> includes = prereqs.subList(inputIndex + 1, prereqs.size());
+        return includes;
       case SHOW_HEADERS:
       case SHOW_INCLUDES:
         // An intermediate depfile in `show_include` mode contains a source file + used headers
         // (see CxxPreprocessAndCompileStep for details).
-        // So, we "strip" the the source file first.
-        List<String> srcAndIncludes = filesystem.readLines(sourceDepFile);
-        List<String> includes = srcAndIncludes.subList(1, srcAndIncludes.size());
-        // We don't require the tree structure here, we remove the spaces
-        return includes.stream().map(String::trim).collect(ImmutableList.toImmutableList());
+        // So, we "strip" the the source file first, and as we don't require the tree structure
+        // here, we remove the spaces.
+        return parseShowIncludes(readDepfile(filesystem, sourceDepFile));
       case NONE:
         return ImmutableList.<String>of();
       default:
@@ -336,16 +459,16 @@ class Depfiles {
             dependencyTrackingMode, filesystem, headerPathNormalizer, sourceDepFile, inputPath);
     List<String> errors = new ArrayList<String>();
     for (String rawHeader : headers) {
-      Path header = filesystem.resolve(rawHeader).normalize();
+      Path header = DepfilePaths.resolve(filesystem, rawHeader);
       Optional<Path> absolutePath =
           headerPathNormalizer.getAbsolutePathForUnnormalizedPath(pathResolver, header);
-      Optional<Path> repoRelativePath = filesystem.getPathRelativeToProjectRoot(header);
       if (absolutePath.isPresent()) {
         Preconditions.checkState(absolutePath.get().isAbsolute());
         resultBuilder.add(absolutePath.get());
       } else if ((headerVerification.getMode() != HeaderVerification.Mode.IGNORE)
           && (!(headerVerification.isWhitelisted(header.toString())
-              || repoRelativePath
+              || filesystem
+                  .getPathRelativeToProjectRoot(header)
                   .map(path -> headerVerification.isWhitelisted(path.toString()))
                   .orElse(false)))) {
         // Check again with the real path with all symbolic links resolved.
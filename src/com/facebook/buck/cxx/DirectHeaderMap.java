@@ -27,17 +27,28 @@ import com.facebook.buck.core.sourcepath.SourcePath;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.cxx.toolchain.HeaderSymlinkTree;
 import com.facebook.buck.io.BuildCellRelativePath;
+import com.facebook.buck.io.file.MorePaths;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.step.Step;
-import com.facebook.buck.step.fs.MakeCleanDirectoryStep;
 import com.facebook.buck.step.fs.MkdirStep;
 import com.facebook.buck.step.fs.RmStep;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
 import java.nio.file.Path;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 
+/**
+ * Makes headers available to clang without creating a tree of symlinks to them.
+ *
+ * <p>Local includes are found through a header map referencing headers directly in the source
+ * tree. A header map resolves includes to the real paths of headers though, so a header including a
+ * neighbour relatively looks for it next to its real path. When the headers of a directory of the
+ * tree don't all come from the same directory, or when they are included as system headers, a VFS
+ * overlay laying out the tree under its root is used instead.
+ */
 class DirectHeaderMap extends HeaderSymlinkTree {
 
   private static final Logger LOG = Logger.get(DirectHeaderMap.class);
@@ -45,6 +56,11 @@ class DirectHeaderMap extends HeaderSymlinkTree {
   @AddToRuleKey(stringify = true)
   private final Path headerMapPath;
 
+  @AddToRuleKey(stringify = true)
+  private final Path vfsOverlayPath;
+
+  private final boolean useHeaderMap;
+
   public DirectHeaderMap(
       BuildTarget target,
       ProjectFilesystem filesystem,
@@ -52,45 +68,89 @@ class DirectHeaderMap extends HeaderSymlinkTree {
       ImmutableMap<Path, SourcePath> links) {
     super(target, filesystem, root, links);
     this.headerMapPath = BuildTargetPaths.getGenPath(filesystem, target, "%s.hmap");
+    this.vfsOverlayPath = BuildTargetPaths.getGenPath(filesystem, target, "%s.vfsoverlay.yaml");
+    this.useHeaderMap = directoriesMatch(links);
+  }
+
+  /** @return whether all headers of each directory of the tree come from the same directory. */
+  private static boolean directoriesMatch(ImmutableMap<Path, SourcePath> links) {
+    // Only the directories of headers in the source tree are known before building, so generated
+    // headers are assumed to be alone in theirs.
+    Map<Path, Object> sourceDirectories = new HashMap<>();
+    for (Map.Entry<Path, SourcePath> entry : links.entrySet()) {
+      Object sourceDirectory = entry.getValue();
+      if (sourceDirectory instanceof PathSourcePath) {
+        PathSourcePath source = (PathSourcePath) sourceDirectory;
+        sourceDirectory =
+            source.getFilesystem().getRootPath().resolve(source.getRelativePath()).getParent();
+      }
+      Path directory = MorePaths.getParentOrEmpty(entry.getKey());
+      Object previous = sourceDirectories.putIfAbsent(directory, sourceDirectory);
+      if (previous != null && !previous.equals(sourceDirectory)) {
+        return false;
+      }
+    }
+    return true;
   }
 
   @Override
   public SourcePath getSourcePathToOutput() {
-    return ExplicitBuildTargetSourcePath.of(getBuildTarget(), headerMapPath);
+    return ExplicitBuildTargetSourcePath.of(getBuildTarget(), vfsOverlayPath);
   }
 
   @Override
   public ImmutableList<Step> getBuildSteps(
       BuildContext context, BuildableContext buildableContext) {
-    LOG.debug("Generating build steps to write header map to %s", headerMapPath);
-    ImmutableMap.Builder<Path, Path> entriesBuilder = ImmutableMap.builder();
-    Path absoluteIncludeRoot = getProjectFilesystem().resolve(getIncludeRoot());
+    ImmutableList.Builder<Step> steps = ImmutableList.builder();
+    steps.add(getVerifyStep(getResolvedSymlinks(context.getSourcePathResolver())));
+    // Remove any tree left by another header mode, as the overlay falls back to it.
+    steps.add(
+        RmStep.of(
+            BuildCellRelativePath.fromCellRelativePath(
+                context.getBuildCellRootPath(), getProjectFilesystem(), getRoot()),
+            true));
+    steps.add(
+        MkdirStep.of(
+            BuildCellRelativePath.fromCellRelativePath(
+                context.getBuildCellRootPath(),
+                getProjectFilesystem(),
+                vfsOverlayPath.getParent())));
+
+    LOG.debug("Generating build steps to write VFS overlay to %s", vfsOverlayPath);
+    // clang only matches overlay entries with absolute virtual paths.
+    ImmutableSortedMap.Builder<Path, Path> overlayEntries = ImmutableSortedMap.naturalOrder();
     for (Map.Entry<Path, SourcePath> entry : getLinks().entrySet()) {
-      entriesBuilder.put(
-          entry.getKey(),
-          absoluteIncludeRoot.relativize(
-              context.getSourcePathResolver().getAbsolutePath(entry.getValue())));
+      overlayEntries.put(
+          getProjectFilesystem().resolve(getRoot().resolve(entry.getKey())),
+          context.getSourcePathResolver().getAbsolutePath(entry.getValue()));
+    }
+    steps.add(
+        RmStep.of(
+            BuildCellRelativePath.fromCellRelativePath(
+                context.getBuildCellRootPath(), getProjectFilesystem(), vfsOverlayPath)));
+    steps.add(
+        new VFSOverlayStep(
+            getProjectFilesystem(), vfsOverlayPath, overlayEntries.build(), buildableContext));
+
+    if (useHeaderMap) {
+      LOG.debug("Generating build steps to write header map to %s", headerMapPath);
+      ImmutableMap.Builder<Path, Path> headerMapEntries = ImmutableMap.builder();
+      Path absoluteIncludeRoot = getProjectFilesystem().resolve(getIncludeRoot());
+      for (Map.Entry<Path, SourcePath> entry : getLinks().entrySet()) {
+        headerMapEntries.put(
+            entry.getKey(),
+            absoluteIncludeRoot.relativize(
+                context.getSourcePathResolver().getAbsolutePath(entry.getValue())));
+      }
+      steps.add(
+          RmStep.of(
+              BuildCellRelativePath.fromCellRelativePath(
+                  context.getBuildCellRootPath(), getProjectFilesystem(), headerMapPath)));
+      steps.add(
+          new HeaderMapStep(
+              getProjectFilesystem(), headerMapPath, headerMapEntries.build(), buildableContext));
     }
-    return ImmutableList.<Step>builder()
-        .add(getVerifyStep(getResolvedSymlinks(context.getSourcePathResolver())))
-        .addAll(
-            MakeCleanDirectoryStep.of(
-                BuildCellRelativePath.fromCellRelativePath(
-                    context.getBuildCellRootPath(), getProjectFilesystem(), getRoot())))
-        .add(
-            MkdirStep.of(
-                BuildCellRelativePath.fromCellRelativePath(
-                    context.getBuildCellRootPath(),
-                    getProjectFilesystem(),
-                    headerMapPath.getParent())))
-        .add(
-            RmStep.of(
-                BuildCellRelativePath.fromCellRelativePath(
-                    context.getBuildCellRootPath(), getProjectFilesystem(), headerMapPath)))
-        .add(
-            new HeaderMapStep(
-                getProjectFilesystem(), headerMapPath, entriesBuilder.build(), buildableContext))
-        .build();
+    return steps.build();
   }
 
   @Override
@@ -104,6 +164,14 @@ class DirectHeaderMap extends HeaderSymlinkTree {
 
   @Override
   public Optional<SourcePath> getHeaderMapSourcePath() {
+    if (!useHeaderMap) {
+      return Optional.empty();
+    }
     return Optional.of(ExplicitBuildTargetSourcePath.of(getBuildTarget(), headerMapPath));
   }
+
+  @Override
+  public Optional<SourcePath> getVfsOverlaySourcePath() {
+    return Optional.of(ExplicitBuildTargetSourcePath.of(getBuildTarget(), vfsOverlayPath));
+  }
 }
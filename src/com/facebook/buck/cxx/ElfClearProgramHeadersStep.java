@@ -16,21 +16,16 @@
 
 package com.facebook.buck.cxx;
 
-import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
-
 import com.facebook.buck.core.build.execution.context.ExecutionContext;
 import com.facebook.buck.core.util.immutables.BuckStyleValue;
-import com.facebook.buck.cxx.toolchain.elf.Elf;
+import com.facebook.buck.cxx.toolchain.objectfile.ObjectFileScrubbers;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
-import com.facebook.buck.step.StepExecutionResults;
-import com.google.common.base.Preconditions;
+import com.facebook.buck.step.fs.FileScrubberStep;
+import com.google.common.collect.ImmutableList;
 import java.io.IOException;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 
 /** A step which zeros out the program headers of an ELF file. */
 @BuckStyleValue
@@ -42,22 +37,11 @@ abstract class ElfClearProgramHeadersStep implements Step {
 
   @Override
   public StepExecutionResult execute(ExecutionContext context) throws IOException {
-    try (FileChannel channel =
-        FileChannel.open(
-            getFilesystem().resolve(getPath()),
-            StandardOpenOption.READ,
-            StandardOpenOption.WRITE)) {
-      MappedByteBuffer buffer = channel.map(READ_WRITE, 0, channel.size());
-      Elf elf = new Elf(buffer);
-      Preconditions.checkState(
-          elf.header.e_phoff == (int) elf.header.e_phoff,
-          "program headers are expected to be within 4GB of beginning of file");
-      buffer.position((int) elf.header.e_phoff);
-      for (int index = 0; index < elf.header.e_phnum * elf.header.e_phentsize; index++) {
-        buffer.put((byte) 0);
-      }
-    }
-    return StepExecutionResults.SUCCESS;
+    return new FileScrubberStep(
+            getFilesystem(),
+            getPath(),
+            ImmutableList.of(ObjectFileScrubbers.createElfProgramHeadersScrubber()))
+        .execute(context);
   }
 
   @Override
@@ -16,21 +16,16 @@
 
 package com.facebook.buck.cxx;
 
-import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
-
 import com.facebook.buck.core.build.execution.context.ExecutionContext;
 import com.facebook.buck.core.util.immutables.BuckStyleValue;
-import com.facebook.buck.cxx.toolchain.elf.Elf;
-import com.facebook.buck.cxx.toolchain.elf.ElfHeader;
+import com.facebook.buck.cxx.toolchain.objectfile.ObjectFileScrubbers;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
-import com.facebook.buck.step.StepExecutionResults;
+import com.facebook.buck.step.fs.FileScrubberStep;
+import com.google.common.collect.ImmutableList;
 import java.io.IOException;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 
 /** A step which zeros out the program headers of an ELF file. */
 @BuckStyleValue
@@ -42,25 +37,11 @@ abstract class ElfScrubFileHeaderStep implements Step {
 
   @Override
   public StepExecutionResult execute(ExecutionContext context) throws IOException {
-    try (FileChannel channel =
-        FileChannel.open(
-            getFilesystem().resolve(getPath()),
-            StandardOpenOption.READ,
-            StandardOpenOption.WRITE)) {
-      MappedByteBuffer buffer = channel.map(READ_WRITE, 0, channel.size());
-      Elf elf = new Elf(buffer);
-      ElfHeader header = elf.header;
-
-      // Clear the `e_entry` entry.
-      header = header.withEntry(0);
-
-      // Position the buffer to the beginning of the file header.
-      buffer.position(0);
-
-      // Write the new header back out.
-      header.write(buffer);
-    }
-    return StepExecutionResults.SUCCESS;
+    return new FileScrubberStep(
+            getFilesystem(),
+            getPath(),
+            ImmutableList.of(ObjectFileScrubbers.createElfEntryPointScrubber()))
+        .execute(context);
   }
 
   @Override
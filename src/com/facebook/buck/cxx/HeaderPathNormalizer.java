@@ -28,6 +28,8 @@ import java.util.AbstractMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.stream.Collectors;
 
 class HeaderPathNormalizer {
@@ -47,6 +49,12 @@ class HeaderPathNormalizer {
   /** Minimal mappings to translate paths used during compilation to their real locations. */
   private final ImmutableMap<Path, Path> prefixMap;
 
+  /**
+   * The results of {@link #getAbsolutePathForUnnormalizedPath}, as the compiles sharing this
+   * normalizer, which are allowed to include the same headers, mostly check the same headers.
+   */
+  private final ConcurrentMap<Path, Optional<Path>> absolutePaths = new ConcurrentHashMap<>();
+
   protected HeaderPathNormalizer(
       ImmutableMap<Path, SourcePath> headers,
       ImmutableMap<Path, SourcePath> normalized,
@@ -74,6 +82,16 @@ class HeaderPathNormalizer {
   public Optional<Path> getAbsolutePathForUnnormalizedPath(
       SourcePathResolverAdapter pathResolver, Path unnormalizedPath) {
     Preconditions.checkArgument(unnormalizedPath.isAbsolute());
+    Optional<Path> absolutePath = absolutePaths.get(unnormalizedPath);
+    if (absolutePath == null) {
+      absolutePath = computeAbsolutePathForUnnormalizedPath(pathResolver, unnormalizedPath);
+      absolutePaths.putIfAbsent(unnormalizedPath, absolutePath);
+    }
+    return absolutePath;
+  }
+
+  private Optional<Path> computeAbsolutePathForUnnormalizedPath(
+      SourcePathResolverAdapter pathResolver, Path unnormalizedPath) {
     Optional<Map.Entry<Path, SourcePath>> result = pathLookup(unnormalizedPath, normalized);
     if (!result.isPresent()) {
       return Optional.empty();
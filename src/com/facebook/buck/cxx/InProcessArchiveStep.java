@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.cxx.toolchain.objectfile.ArchiveWriter;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.step.StepExecutionResults;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/** Create an object archive, along with its symbol table, without running ar and ranlib. */
+class InProcessArchiveStep implements Step {
+
+  private final ProjectFilesystem filesystem;
+  private final ArchiveWriter.Format format;
+  private final boolean thin;
+  private final Path output;
+  private final ImmutableList<Path> inputs;
+
+  public InProcessArchiveStep(
+      ProjectFilesystem filesystem,
+      ArchiveWriter.Format format,
+      boolean thin,
+      Path output,
+      ImmutableList<Path> inputs) {
+    Preconditions.checkArgument(!output.isAbsolute());
+    for (Path input : inputs) {
+      Preconditions.checkArgument(!input.isAbsolute());
+    }
+    this.filesystem = filesystem;
+    this.format = format;
+    this.thin = thin;
+    this.output = output;
+    this.inputs = inputs;
+  }
+
+  @Override
+  public StepExecutionResult execute(ExecutionContext context) throws IOException {
+    new ArchiveWriter(format, thin)
+        .write(
+            filesystem.resolve(output),
+            ArchiveStep.getAllInputs(filesystem, inputs).stream()
+                .map(filesystem::resolve)
+                .collect(ImmutableList.toImmutableList()));
+    return StepExecutionResults.SUCCESS;
+  }
+
+  @Override
+  public String getDescription(ExecutionContext context) {
+    return String.format(
+        "write %s%s archive %s of %d inputs",
+        thin ? "thin " : "", format, output, inputs.size());
+  }
+
+  @Override
+  public String getShortName() {
+    return "archive";
+  }
+}
@@ -129,16 +129,27 @@ public class Omnibus {
     // The nodes which should *not* be included in the omnibus link.
     Set<BuildTarget> excluded = new LinkedHashSet<>();
 
-    // Process all the roots included in the omnibus link.
+    // Process all the roots included in the omnibus link. Their deps are gathered in parallel,
+    // and share the link graph memoized for the action graph.
+    ImmutableList<? extends NativeLinkTarget> includedRootsList =
+        ImmutableList.copyOf(includedRoots);
+    List<ImmutableList<? extends NativeLinkable>> includedRootsDeps =
+        ImmutableList.copyOf(
+            actionGraphBuilder
+                .getParallelizer()
+                .maybeParallelizeTransform(
+                    includedRootsList,
+                    root ->
+                        NativeLinkables.getNativeLinkables(
+                            actionGraphBuilder,
+                            root.getNativeLinkTargetDeps(actionGraphBuilder),
+                            Linker.LinkableDepType.SHARED)));
     Map<BuildTarget, NativeLinkTarget> roots = new LinkedHashMap<>();
     Map<BuildTarget, NativeLinkable> rootDeps = new LinkedHashMap<>();
-    for (NativeLinkTarget root : includedRoots) {
+    for (int i = 0; i < includedRootsList.size(); i++) {
+      NativeLinkTarget root = includedRootsList.get(i);
       roots.put(root.getBuildTarget(), root);
-      for (NativeLinkable dep :
-          NativeLinkables.getNativeLinkables(
-              actionGraphBuilder,
-              root.getNativeLinkTargetDeps(actionGraphBuilder),
-              Linker.LinkableDepType.SHARED)) {
+      for (NativeLinkable dep : includedRootsDeps.get(i)) {
         Linker.LinkableDepType linkStyle =
             NativeLinkableGroups.getLinkStyle(
                 dep.getPreferredLinkage(), Linker.LinkableDepType.SHARED);
@@ -167,6 +167,12 @@ public abstract class PreInclude extends NoopBuildRuleWithDeclaredAndExtraDeps
     return transitiveCxxPreprocessorInputCache.getUnchecked(cxxPlatform, graphBuilder);
   }
 
+  @Override
+  public TransitiveCxxPreprocessorInputs getTransitiveCxxPreprocessorInputs(
+      CxxPlatform cxxPlatform, ActionGraphBuilder graphBuilder) {
+    return transitiveCxxPreprocessorInputCache.getInputsUnchecked(cxxPlatform, graphBuilder);
+  }
+
   private ImmutableList<CxxPreprocessorInput> getCxxPreprocessorInputs(
       CxxPlatform cxxPlatform, ActionGraphBuilder graphBuilder) {
     ImmutableList.Builder<CxxPreprocessorInput> builder = ImmutableList.builder();
@@ -253,8 +259,13 @@ public abstract class PreInclude extends NoopBuildRuleWithDeclaredAndExtraDeps
         cxxPlatform.getConflictingHeaderBasenameWhitelist());
   }
 
+  /**
+   * @param canonicalizeFlags whether flags which cannot affect the precompiled header should be
+   *     left out of its instantiation, so that rules only differing by them can share it.
+   */
   public abstract CxxPrecompiledHeader getPrecompiledHeader(
       boolean canPrecompile,
+      boolean canonicalizeFlags,
       PreprocessorDelegate preprocessorDelegateForCxxRule,
       DependencyAggregation aggregatedPreprocessDepsRule,
       CxxToolFlags computedCompilerFlags,
@@ -673,6 +673,12 @@ public class PrebuiltCxxLibraryDescription
         return transitiveCxxPreprocessorInputCache.getUnchecked(cxxPlatform, graphBuilder);
       }
 
+      @Override
+      public TransitiveCxxPreprocessorInputs getTransitiveCxxPreprocessorInputs(
+          CxxPlatform cxxPlatform, ActionGraphBuilder graphBuilder) {
+        return transitiveCxxPreprocessorInputCache.getInputsUnchecked(cxxPlatform, graphBuilder);
+      }
+
       public ImmutableList<Arg> getExportedLinkerFlags(
           CxxPlatform cxxPlatform, ActionGraphBuilder graphBuilder) {
         return PrebuiltCxxLibraryDescription.this.getExportedLinkerArgs(
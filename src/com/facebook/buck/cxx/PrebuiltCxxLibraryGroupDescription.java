@@ -257,6 +257,12 @@ public class PrebuiltCxxLibraryGroupDescription
       return transitiveCxxPreprocessorInputCache.getUnchecked(cxxPlatform, graphBuilder);
     }
 
+    @Override
+    public TransitiveCxxPreprocessorInputs getTransitiveCxxPreprocessorInputs(
+        CxxPlatform cxxPlatform, ActionGraphBuilder graphBuilder) {
+      return transitiveCxxPreprocessorInputCache.getInputsUnchecked(cxxPlatform, graphBuilder);
+    }
+
     @Override
     public Iterable<? extends NativeLinkableGroup> getNativeLinkableDeps(
         BuildRuleResolver ruleResolver) {
@@ -50,14 +50,19 @@ import com.facebook.buck.util.stream.RichStream;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Suppliers;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.MapMaker;
 import com.google.common.reflect.TypeToken;
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
@@ -93,6 +98,19 @@ final class PreprocessorDelegate implements AddsToRuleKey, HasCustomDepsLogic {
 
   private final Optional<BuildRule> aggregatedDeps;
 
+  /**
+   * The header path normalizers of the rules preprocessing in the same build, i.e. with the same
+   * path resolver, keyed by the headers the rules are allowed to include. Rules allowed to include
+   * the same headers, e.g. the compiles of a library, share a normalizer, and with it the results
+   * of looking up the headers they use. Normalizers are only kept while rules use them.
+   */
+  private static final LoadingCache<
+          SourcePathResolverAdapter, ConcurrentMap<ImmutableList<Object>, HeaderPathNormalizer>>
+      sharedHeaderPathNormalizers =
+          CacheBuilder.newBuilder()
+              .weakKeys()
+              .build(CacheLoader.from(() -> new MapMaker().weakValues().makeMap()));
+
   private final WeakMemoizer<HeaderPathNormalizer> headerPathNormalizer = new WeakMemoizer<>();
 
   private final Supplier<Optional<ConflictingHeadersResult>> lazyConflictingHeadersCheckResult =
@@ -136,27 +154,33 @@ final class PreprocessorDelegate implements AddsToRuleKey, HasCustomDepsLogic {
 
   public HeaderPathNormalizer getHeaderPathNormalizer(BuildContext context) {
     return headerPathNormalizer.get(
-        () -> {
-          try (Scope ignored = LeafEvents.scope(context.getEventBus(), "header_path_normalizer")) {
-            // Cache the value using the first SourcePathResolverAdapter that we're called with. We
-            // expect
-            // this whole object to be recreated in cases where this computation would produce
-            // different results.
-            HeaderPathNormalizer.Builder builder =
-                new HeaderPathNormalizer.Builder(context.getSourcePathResolver());
-            for (CxxHeaders include : preprocessorFlags.getIncludes()) {
-              include.addToHeaderPathNormalizer(builder);
-            }
-            for (FrameworkPath frameworkPath : preprocessorFlags.getFrameworkPaths()) {
-              frameworkPath.getSourcePath().ifPresent(builder::addHeaderDir);
-            }
-            if (preprocessorFlags.getPrefixHeader().isPresent()) {
-              SourcePath headerPath = preprocessorFlags.getPrefixHeader().get();
-              builder.addPrefixHeader(headerPath);
-            }
-            return builder.build();
-          }
-        });
+        () ->
+            sharedHeaderPathNormalizers
+                .getUnchecked(context.getSourcePathResolver())
+                .computeIfAbsent(
+                    ImmutableList.of(
+                        preprocessorFlags.getIncludes(),
+                        preprocessorFlags.getFrameworkPaths(),
+                        preprocessorFlags.getPrefixHeader()),
+                    allowedHeaders -> createHeaderPathNormalizer(context)));
+  }
+
+  private HeaderPathNormalizer createHeaderPathNormalizer(BuildContext context) {
+    try (Scope ignored = LeafEvents.scope(context.getEventBus(), "header_path_normalizer")) {
+      HeaderPathNormalizer.Builder builder =
+          new HeaderPathNormalizer.Builder(context.getSourcePathResolver());
+      for (CxxHeaders include : preprocessorFlags.getIncludes()) {
+        include.addToHeaderPathNormalizer(builder);
+      }
+      for (FrameworkPath frameworkPath : preprocessorFlags.getFrameworkPaths()) {
+        frameworkPath.getSourcePath().ifPresent(builder::addHeaderDir);
+      }
+      if (preprocessorFlags.getPrefixHeader().isPresent()) {
+        SourcePath headerPath = preprocessorFlags.getPrefixHeader().get();
+        builder.addPrefixHeader(headerPath);
+      }
+      return builder.build();
+    }
   }
 
   /**
@@ -24,17 +24,22 @@ import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import javax.annotation.Nonnull;
 
-/** Transitive C++ preprocessor input cache */
+/**
+ * Transitive C++ preprocessor input cache.
+ *
+ * <p>The inputs are cached as {@link TransitiveCxxPreprocessorInputs}, which share structure with
+ * the cached inputs of dependencies. They are only flattened into a map on request, which is then
+ * cached too, so callers walking the inputs of many rules should use {@link #getInputsUnchecked}.
+ */
 public class TransitiveCxxPreprocessorInputCache {
-  private final Cache<CxxPlatform, ImmutableSortedMap<BuildTarget, CxxPreprocessorInput>> cache =
+  private final Cache<CxxPlatform, TransitiveCxxPreprocessorInputs> cache =
+      CacheBuilder.newBuilder().build();
+  private final Cache<CxxPlatform, ImmutableMap<BuildTarget, CxxPreprocessorInput>> flattenedCache =
       CacheBuilder.newBuilder().build();
   private final CxxPreprocessorDep preprocessorDep;
 
@@ -42,14 +47,24 @@ public class TransitiveCxxPreprocessorInputCache {
     this.preprocessorDep = preprocessorDep;
   }
 
-  /** Get a value from the cache */
+  /** Get a value from the cache, flattened into a map */
   public ImmutableMap<BuildTarget, CxxPreprocessorInput> getUnchecked(
       CxxPlatform key, ActionGraphBuilder graphBuilder) {
+    try {
+      return flattenedCache.get(key, () -> getInputsUnchecked(key, graphBuilder).toMap());
+    } catch (ExecutionException e) {
+      throw new UncheckedExecutionException(e.getCause());
+    }
+  }
+
+  /** Get a value from the cache, without flattening it */
+  public TransitiveCxxPreprocessorInputs getInputsUnchecked(
+      CxxPlatform key, ActionGraphBuilder graphBuilder) {
     try {
       return cache.get(
           key,
           () ->
-              computeTransitiveCxxToPreprocessorInputMap(
+              computeTransitiveCxxPreprocessorInputs(
                   key, preprocessorDep, true, graphBuilder, graphBuilder.getParallelizer()));
     } catch (ExecutionException e) {
       throw new UncheckedExecutionException(e.getCause());
@@ -62,40 +77,27 @@ public class TransitiveCxxPreprocessorInputCache {
           CxxPreprocessorDep preprocessorDep,
           boolean includeDep,
           ActionGraphBuilder graphBuilder) {
-    return computeTransitiveCxxToPreprocessorInputMap(
-        key, preprocessorDep, includeDep, graphBuilder, graphBuilder.getParallelizer());
+    return computeTransitiveCxxPreprocessorInputs(
+            key, preprocessorDep, includeDep, graphBuilder, graphBuilder.getParallelizer())
+        .toMap();
   }
 
-  private static ImmutableSortedMap<BuildTarget, CxxPreprocessorInput>
-      computeTransitiveCxxToPreprocessorInputMap(
-          @Nonnull CxxPlatform key,
-          CxxPreprocessorDep preprocessorDep,
-          boolean includeDep,
-          ActionGraphBuilder graphBuilder,
-          Parallelizer parallelizer) {
-    Map<BuildTarget, CxxPreprocessorInput> builder = new HashMap<>();
-    if (includeDep) {
-      builder.put(
-          preprocessorDep.getBuildTarget(),
-          preprocessorDep.getCxxPreprocessorInput(key, graphBuilder));
-    }
-
-    Collection<ImmutableMap<BuildTarget, CxxPreprocessorInput>> transitiveDepInputs =
+  private static TransitiveCxxPreprocessorInputs computeTransitiveCxxPreprocessorInputs(
+      @Nonnull CxxPlatform key,
+      CxxPreprocessorDep preprocessorDep,
+      boolean includeDep,
+      ActionGraphBuilder graphBuilder,
+      Parallelizer parallelizer) {
+    Collection<TransitiveCxxPreprocessorInputs> transitiveDepInputs =
         parallelizer.maybeParallelizeTransform(
             ImmutableList.copyOf(preprocessorDep.getCxxPreprocessorDeps(key, graphBuilder)),
-            dep -> dep.getTransitiveCxxPreprocessorInput(key, graphBuilder));
-    transitiveDepInputs.forEach(builder::putAll);
-
-    // Using an ImmutableSortedMap here:
-    //
-    // 1. Memory efficiency. ImmutableSortedMap is implemented with 2 lists (an ImmutableSortedSet
-    // of keys, and a ImmutableList of values). This is much more efficient than an ImmutableMap,
-    // which creates an Entry instance for each entry.
-    //
-    // 2. Historically we seem to care that the result has some definite order.
-    //
-    // 3. We mostly iterate over these maps rather than do lookups, so ImmutableSortedMap
-    // binary-search based lookup is not an issue.
-    return ImmutableSortedMap.copyOf(builder);
+            dep -> dep.getTransitiveCxxPreprocessorInputs(key, graphBuilder));
+    if (!includeDep) {
+      return TransitiveCxxPreprocessorInputs.union(transitiveDepInputs);
+    }
+    return TransitiveCxxPreprocessorInputs.of(
+        preprocessorDep.getBuildTarget(),
+        preprocessorDep.getCxxPreprocessorInput(key, graphBuilder),
+        transitiveDepInputs);
   }
 }
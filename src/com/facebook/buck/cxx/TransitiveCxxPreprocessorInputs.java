@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+
+/**
+ * The transitive {@link CxxPreprocessorInput}s of a rule, as a DAG sharing structure with the
+ * transitive inputs of its dependencies.
+ *
+ * <p>Copying the transitive inputs of all dependencies into a new map for every rule is quadratic
+ * in the depth of the graph, in both time and memory. Instead, each node holds the inputs a rule
+ * adds itself, and refers to the nodes of its dependencies. The inputs are only flattened into a
+ * map when the final list is needed, e.g. to build the arguments of a compilation.
+ *
+ * <p>Nodes are interned, so rules and platforms contributing identical inputs share a single node.
+ * As children are interned before their parents, comparing nodes only compares their children by
+ * identity, which keeps interning cheap.
+ */
+public final class TransitiveCxxPreprocessorInputs {
+
+  private static final Interner<TransitiveCxxPreprocessorInputs> INTERNER =
+      Interners.newWeakInterner();
+
+  public static final TransitiveCxxPreprocessorInputs EMPTY =
+      INTERNER.intern(new TransitiveCxxPreprocessorInputs(ImmutableMap.of(), ImmutableList.of()));
+
+  private final ImmutableMap<BuildTarget, CxxPreprocessorInput> inputs;
+  private final ImmutableList<TransitiveCxxPreprocessorInputs> children;
+  private final int hashCode;
+
+  private TransitiveCxxPreprocessorInputs(
+      ImmutableMap<BuildTarget, CxxPreprocessorInput> inputs,
+      ImmutableList<TransitiveCxxPreprocessorInputs> children) {
+    this.inputs = inputs;
+    this.children = children;
+    int hash = inputs.hashCode();
+    for (TransitiveCxxPreprocessorInputs child : children) {
+      hash = 31 * hash + child.hashCode;
+    }
+    this.hashCode = hash;
+  }
+
+  /** @return the given inputs, on top of all of the inputs of {@code children}. */
+  public static TransitiveCxxPreprocessorInputs of(
+      Map<BuildTarget, CxxPreprocessorInput> inputs,
+      Iterable<TransitiveCxxPreprocessorInputs> children) {
+    // Drop empty and repeated children, keeping the first occurrence of each.
+    Set<TransitiveCxxPreprocessorInputs> uniqueChildren = Sets.newIdentityHashSet();
+    ImmutableList.Builder<TransitiveCxxPreprocessorInputs> childrenBuilder =
+        ImmutableList.builder();
+    for (TransitiveCxxPreprocessorInputs child : children) {
+      if (child != EMPTY && uniqueChildren.add(child)) {
+        childrenBuilder.add(child);
+      }
+    }
+    ImmutableList<TransitiveCxxPreprocessorInputs> uniqueChildrenList = childrenBuilder.build();
+    if (inputs.isEmpty() && uniqueChildrenList.isEmpty()) {
+      return EMPTY;
+    }
+    if (inputs.isEmpty() && uniqueChildrenList.size() == 1) {
+      return uniqueChildrenList.get(0);
+    }
+    return INTERNER.intern(
+        new TransitiveCxxPreprocessorInputs(ImmutableMap.copyOf(inputs), uniqueChildrenList));
+  }
+
+  /** @return the input of {@code target}, on top of all of the inputs of {@code children}. */
+  public static TransitiveCxxPreprocessorInputs of(
+      BuildTarget target,
+      CxxPreprocessorInput input,
+      Iterable<TransitiveCxxPreprocessorInputs> children) {
+    return of(ImmutableMap.of(target, input), children);
+  }
+
+  /** @return all of the given inputs, which are listed in the same order. */
+  public static TransitiveCxxPreprocessorInputs of(Map<BuildTarget, CxxPreprocessorInput> inputs) {
+    return of(inputs, ImmutableList.of());
+  }
+
+  /** @return all of the inputs of {@code children}. */
+  public static TransitiveCxxPreprocessorInputs union(
+      Iterable<TransitiveCxxPreprocessorInputs> children) {
+    return of(ImmutableMap.of(), children);
+  }
+
+  /**
+   * Adds the inputs reachable from this node to {@code result}, skipping the nodes in {@code
+   * visited}, which is updated with the nodes visited. The inputs are added in the order {@link
+   * #toMap()} lists them in, so that walking the overlapping inputs of several rules only visits
+   * each shared node once.
+   */
+  void addTo(
+      Set<TransitiveCxxPreprocessorInputs> visited, Map<BuildTarget, CxxPreprocessorInput> result) {
+    if (children.isEmpty()) {
+      if (visited.add(this)) {
+        inputs.forEach(result::putIfAbsent);
+      }
+      return;
+    }
+    TreeMap<BuildTarget, CxxPreprocessorInput> sorted = new TreeMap<>();
+    forEach(visited, sorted::put);
+    sorted.forEach(result::putIfAbsent);
+  }
+
+  /**
+   * Calls {@code consumer} with each input reachable from this node, skipping the nodes in {@code
+   * visited}, which is updated with the nodes visited. A given target may be seen more than once if
+   * several nodes refer to it, but always with the same input.
+   */
+  private void forEach(
+      Set<TransitiveCxxPreprocessorInputs> visited,
+      BiConsumer<BuildTarget, CxxPreprocessorInput> consumer) {
+    Deque<TransitiveCxxPreprocessorInputs> stack = new ArrayDeque<>();
+    stack.push(this);
+    while (!stack.isEmpty()) {
+      TransitiveCxxPreprocessorInputs node = stack.pop();
+      if (!visited.add(node)) {
+        continue;
+      }
+      node.inputs.forEach(consumer);
+      for (TransitiveCxxPreprocessorInputs child : node.children) {
+        if (!visited.contains(child)) {
+          stack.push(child);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return all of the inputs, by target. Inputs made of other nodes are sorted by target, as
+   *     flattened maps have historically been.
+   */
+  public ImmutableMap<BuildTarget, CxxPreprocessorInput> toMap() {
+    if (children.isEmpty()) {
+      return inputs;
+    }
+    TreeMap<BuildTarget, CxxPreprocessorInput> result = new TreeMap<>();
+    forEach(Sets.newIdentityHashSet(), result::put);
+    return ImmutableSortedMap.copyOfSorted(result);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof TransitiveCxxPreprocessorInputs)) {
+      return false;
+    }
+    TransitiveCxxPreprocessorInputs other = (TransitiveCxxPreprocessorInputs) o;
+    if (hashCode != other.hashCode || children.size() != other.children.size()) {
+      return false;
+    }
+    // Children are interned, so they are only ever equal to themselves.
+    for (int i = 0; i < children.size(); i++) {
+      if (children.get(i) != other.children.get(i)) {
+        return false;
+      }
+    }
+    return Iterables.elementsEqual(inputs.entrySet(), other.inputs.entrySet());
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+}
@@ -79,6 +79,7 @@ public class CxxBuckConfig {
   private static final String HOST_PLATFORM = "host_platform";
   private static final String ARCHIVER_PLATFORM = "archiver_platform";
   private static final String ARCHIVER_TYPE = "archiver_type";
+  private static final String ARCHIVE_IN_PROCESS = "archive_in_process";
   private static final String MAX_TEST_OUTPUT_SIZE = "max_test_output_size";
   private static final String LINKER_PLATFORM = "linker_platform";
   private static final String LINK_GROUPS_ENABLED = "link_groups_enabled";
@@ -92,6 +93,7 @@ public class CxxBuckConfig {
   private static final String CACHE_STRIPS = "cache_strips";
   private static final String CACHE_BINARIES = "cache_binaries";
   private static final String PCH_ENABLED = "pch_enabled";
+  private static final String PCH_CANONICALIZE_FLAGS = "pch_canonicalize_flags";
   private static final String ARCHIVE_CONTENTS = "archive_contents";
   private static final String DEBUG_PATH_SANITIZER_LIMIT = "debug_path_sanitizer_limit";
   private static final String SHOULD_REMAP_HOST_PLATFORM = "should_remap_host_platform";
@@ -302,6 +304,11 @@ public class CxxBuckConfig {
         });
   }
 
+  /** @return whether GNU and BSD archives should be written in-process, instead of by ar. */
+  public boolean shouldArchiveInProcess() {
+    return delegate.getBooleanValue(cxxSection, ARCHIVE_IN_PROCESS, false);
+  }
+
   /** @return the maximum size in bytes of test output to report in test results. */
   public long getMaximumTestOutputSize() {
     return delegate.getLong(cxxSection, MAX_TEST_OUTPUT_SIZE).orElse(DEFAULT_MAX_TEST_OUTPUT_SIZE);
@@ -476,6 +483,14 @@ public class CxxBuckConfig {
     return delegate.getBooleanValue(cxxSection, PCH_ENABLED, true);
   }
 
+  /**
+   * @return whether flags which only affect diagnostics are left out of the flags precompiled
+   *     headers are instantiated with, so that rules differing only by them share one.
+   */
+  public boolean shouldCanonicalizePCHFlags() {
+    return delegate.getBooleanValue(cxxSection, PCH_CANONICALIZE_FLAGS, false);
+  }
+
   public Optional<ArchiveContents> getArchiveContents() {
     return delegate.getEnum(cxxSection, ARCHIVE_CONTENTS, ArchiveContents.class);
   }
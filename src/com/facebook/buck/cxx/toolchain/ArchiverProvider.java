@@ -46,6 +46,24 @@ public interface ArchiverProvider {
     };
   }
 
+  /**
+   * @return a provider of archivers writing archives in-process in place of those of the given
+   *     provider, where their format is supported.
+   */
+  static ArchiverProvider inProcess(ArchiverProvider provider) {
+    return new ArchiverProvider() {
+      @Override
+      public Archiver resolve(BuildRuleResolver resolver, TargetConfiguration targetConfiguration) {
+        return InProcessArchiver.replacing(provider.resolve(resolver, targetConfiguration));
+      }
+
+      @Override
+      public Iterable<BuildTarget> getParseTimeDeps(TargetConfiguration targetConfiguration) {
+        return provider.getParseTimeDeps(targetConfiguration);
+      }
+    };
+  }
+
   /**
    * Creates an appropriate ArchiverProvider instance for the given parameters.
    *
@@ -37,6 +37,11 @@ public class ClangPreprocessor extends DelegatingTool implements Preprocessor {
     return true;
   }
 
+  @Override
+  public boolean supportsVfsOverlays() {
+    return true;
+  }
+
   @Override
   public boolean supportsPrecompiledHeaders() {
     return true;
@@ -56,6 +61,13 @@ public class ClangPreprocessor extends DelegatingTool implements Preprocessor {
         Iterables.transform(includeRoots, PathFormatter::pathWithUnixSeparators));
   }
 
+  @Override
+  public final Iterable<String> vfsOverlayArgs(Iterable<String> overlays) {
+    return MoreIterables.zipAndConcat(
+        Iterables.cycle("-ivfsoverlay"),
+        Iterables.transform(overlays, PathFormatter::pathWithUnixSeparators));
+  }
+
   @Override
   public final Iterable<String> prefixHeaderArgs(Path prefixHeader) {
     Preconditions.checkArgument(
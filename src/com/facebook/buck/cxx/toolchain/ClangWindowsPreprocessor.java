@@ -31,4 +31,10 @@ public class ClangWindowsPreprocessor extends ClangPreprocessor implements Prepr
   public boolean supportsHeaderMaps() {
     return false;
   }
+
+  @Override
+  // Like the header maps, VFS overlays use paths clang on Windows may not accept.
+  public boolean supportsVfsOverlays() {
+    return false;
+  }
 }
@@ -52,4 +52,15 @@ public class HeaderSymlinkTree extends MappedSymlinkTree {
   public Optional<SourcePath> getHeaderMapSourcePath() {
     return Optional.empty();
   }
+
+  /**
+   * Get the path of a clang VFS overlay making the headers appear under the root of the tree, when
+   * the tree isn't created on disk.
+   *
+   * <p>If present, it has to be passed to the preprocessor along with the root as include path,
+   * unless the headers are found through {@link #getHeaderMapSourcePath()}.
+   */
+  public Optional<SourcePath> getVfsOverlaySourcePath() {
+    return Optional.empty();
+  }
 }
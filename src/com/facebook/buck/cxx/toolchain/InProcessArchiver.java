@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.cxx.toolchain;
+
+import com.facebook.buck.core.rulekey.AddToRuleKey;
+import com.facebook.buck.core.toolchain.tool.DelegatingTool;
+import com.facebook.buck.cxx.toolchain.objectfile.ArchiveWriter;
+import com.facebook.buck.io.file.FileScrubber;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Archiver implementation writing archives in-process with {@link ArchiveWriter}, in the format of
+ * the archiver it replaces, instead of running ar and ranlib.
+ *
+ * <p>Archives are deterministic as written, so they need no scrubbing.
+ */
+public class InProcessArchiver extends DelegatingTool implements Archiver {
+
+  @AddToRuleKey private final ArchiveWriter.Format format;
+
+  public InProcessArchiver(Archiver archiver, ArchiveWriter.Format format) {
+    super(archiver);
+    this.format = format;
+  }
+
+  /**
+   * @return an in-process archiver writing the archives of the given archiver, if it is one whose
+   *     format is supported.
+   */
+  public static Archiver replacing(Archiver archiver) {
+    if (archiver instanceof GnuArchiver) {
+      return new InProcessArchiver(archiver, ArchiveWriter.Format.GNU);
+    }
+    if (archiver instanceof BsdArchiver) {
+      return new InProcessArchiver(archiver, ArchiveWriter.Format.BSD);
+    }
+    return archiver;
+  }
+
+  public ArchiveWriter.Format getFormat() {
+    return format;
+  }
+
+  @Override
+  public ImmutableList<FileScrubber> getScrubbers() {
+    return ImmutableList.of();
+  }
+
+  @Override
+  public boolean supportsThinArchives() {
+    return format == ArchiveWriter.Format.GNU;
+  }
+
+  @Override
+  public ImmutableList<String> getArchiveOptions(boolean isThinArchive) {
+    return ImmutableList.of();
+  }
+
+  @Override
+  public ImmutableList<String> outputArgs(String outputPath) {
+    return ImmutableList.of(outputPath);
+  }
+
+  @Override
+  public boolean isRanLibStepRequired() {
+    return false;
+  }
+
+  @Override
+  public boolean isArgfileRequired() {
+    return false;
+  }
+}
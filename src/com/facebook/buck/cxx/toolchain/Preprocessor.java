@@ -30,6 +30,18 @@ public interface Preprocessor extends Tool {
 
   Iterable<String> systemIncludeArgs(Iterable<String> includeRoots);
 
+  /**
+   * @return whether the preprocessor supports clang VFS overlays, which make headers appear at paths
+   *     where they don't exist on disk.
+   */
+  boolean supportsVfsOverlays();
+
+  /**
+   * @return the arguments to add the given clang VFS overlays. Headers are only laid out with
+   *     overlays for preprocessors which {@link #supportsVfsOverlays()}.
+   */
+  Iterable<String> vfsOverlayArgs(Iterable<String> overlays);
+
   Iterable<String> precompiledHeaderArgs(Path pchOutputPath);
 
   Iterable<String> prefixHeaderArgs(Path prefixHeader);
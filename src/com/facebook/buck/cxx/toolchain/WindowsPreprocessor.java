@@ -18,6 +18,7 @@ package com.facebook.buck.cxx.toolchain;
 
 import com.facebook.buck.core.toolchain.tool.DelegatingTool;
 import com.facebook.buck.core.toolchain.tool.Tool;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import java.nio.file.Path;
 import java.util.Collections;
@@ -39,6 +40,11 @@ public class WindowsPreprocessor extends DelegatingTool implements Preprocessor
     return false;
   }
 
+  @Override
+  public boolean supportsVfsOverlays() {
+    return false;
+  }
+
   @Override
   public boolean supportsPrecompiledHeaders() {
     // TODO(steveo) Should be easy to add support; will try @ later time,
@@ -71,6 +77,11 @@ public class WindowsPreprocessor extends DelegatingTool implements Preprocessor
         Iterables.transform(includeRoots, WindowsPreprocessor::prependSystemIncludeFlag));
   }
 
+  @Override
+  public Iterable<String> vfsOverlayArgs(Iterable<String> overlays) {
+    return ImmutableList.of();
+  }
+
   @Override
   public Iterable<String> prefixHeaderArgs(Path prefixHeader) {
     throw new UnsupportedOperationException("prefix header not supported by " + getClass());
@@ -155,6 +155,10 @@ public class CxxPlatforms {
     }
 
     Tool stripTool = config.getStrip().orElse(strip);
+    ArchiverProvider archiver = config.getArchiverProvider(platform).orElse(ar);
+    if (config.shouldArchiveInProcess()) {
+      archiver = ArchiverProvider.inProcess(archiver);
+    }
 
     builder
         .setFlavor(flavor)
@@ -173,7 +177,7 @@ public class CxxPlatforms {
         .setLd(config.getLinkerProvider(ld.getType()).orElse(ld))
         .addAllLdflags(ldFlags)
         .setRuntimeLdflags(runtimeLdflags)
-        .setAr(config.getArchiverProvider(platform).orElse(ar))
+        .setAr(archiver)
         .setRanlib(config.getRanlib().isPresent() ? config.getRanlib() : ranlib)
         .setStrip(stripTool)
         .setBinaryExtension(binaryExtension)
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.cxx.toolchain.nativelink;
+
+import com.facebook.buck.core.rules.ActionGraphBuilder;
+import com.facebook.buck.cxx.toolchain.linker.Linker;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Memoizes the graph of {@link NativeLinkable}s considered for linking, for as long as the action
+ * graph they belong to lives.
+ *
+ * <p>Each binary, test and shared library linking against the same deep dependencies would
+ * otherwise ask every linkable for its deps again, and rebuild the whole graph to sort it. Instead,
+ * each linkable gets a {@link Node} referring to the nodes of its deps, so the graph is explored
+ * once per build, and ordering a link only walks the nodes it reaches.
+ */
+final class NativeLinkGraphCache {
+
+  private static final Comparator<NativeLinkable> BY_DECREASING_TARGET =
+      Comparator.comparing(NativeLinkable::getBuildTarget, Comparator.reverseOrder());
+
+  // Whether the deps of a linkable are traversed only depends on whether the link is shared.
+  private final ConcurrentMap<NativeLinkable, Node> sharedNodes = new ConcurrentHashMap<>();
+  private final ConcurrentMap<NativeLinkable, Node> staticNodes = new ConcurrentHashMap<>();
+
+  /** @return the cache for the action graph of {@code graphBuilder}. */
+  static NativeLinkGraphCache of(ActionGraphBuilder graphBuilder) {
+    return graphBuilder.getGraphCache(NativeLinkGraphCache.class, NativeLinkGraphCache::new);
+  }
+
+  /**
+   * @return the linkables reachable from {@code roots} when linking with {@code linkStyle}, in the
+   *     order {@link NativeLinkables#getTopoSortedNativeLinkables} returns them.
+   */
+  ImmutableList<NativeLinkable> getTopoSortedNativeLinkables(
+      ActionGraphBuilder graphBuilder,
+      Iterable<? extends NativeLinkable> roots,
+      Linker.LinkableDepType linkStyle) {
+    ConcurrentMap<NativeLinkable, Node> nodes =
+        linkStyle == Linker.LinkableDepType.SHARED ? sharedNodes : staticNodes;
+
+    // Independent roots are explored in parallel.
+    Collection<Node> rootNodes =
+        graphBuilder
+            .getParallelizer()
+            .maybeParallelizeTransform(
+                ImmutableList.copyOf(roots), root -> getNode(graphBuilder, nodes, root, linkStyle));
+
+    // The snowflake sort lists nodes by decreasing height, i.e. the length of the longest path to
+    // a leaf, and nodes of the same height by decreasing target.
+    TreeMap<Integer, Set<NativeLinkable>> levels = new TreeMap<>(Comparator.reverseOrder());
+    Set<Node> visited = Sets.newIdentityHashSet();
+    Deque<Node> stack = new ArrayDeque<>(rootNodes);
+    while (!stack.isEmpty()) {
+      Node node = stack.pop();
+      if (!visited.add(node)) {
+        continue;
+      }
+      levels
+          .computeIfAbsent(node.height, ignored -> new TreeSet<>(BY_DECREASING_TARGET))
+          .add(node.linkable);
+      stack.addAll(node.deps);
+    }
+
+    ImmutableList.Builder<NativeLinkable> sorted =
+        ImmutableList.builderWithExpectedSize(visited.size());
+    levels.values().forEach(sorted::addAll);
+    return sorted.build();
+  }
+
+  /** @return the node of {@code root}, first building those of all the linkables it reaches. */
+  private static Node getNode(
+      ActionGraphBuilder graphBuilder,
+      ConcurrentMap<NativeLinkable, Node> nodes,
+      NativeLinkable root,
+      Linker.LinkableDepType linkStyle) {
+    Node rootNode = nodes.get(root);
+    if (rootNode != null) {
+      return rootNode;
+    }
+
+    // Build nodes bottom-up without recursing, as dependency chains can be very deep. A linkable
+    // whose deps were listed stays on the stack until their nodes are built, so finding one of
+    // them among the deps of another means the graph has a cycle.
+    Map<NativeLinkable, ImmutableList<NativeLinkable>> depsOf = new HashMap<>();
+    Deque<NativeLinkable> stack = new ArrayDeque<>();
+    stack.push(root);
+    while (!stack.isEmpty()) {
+      NativeLinkable linkable = stack.peek();
+      if (nodes.containsKey(linkable)) {
+        stack.pop();
+        continue;
+      }
+
+      ImmutableList<NativeLinkable> deps = depsOf.get(linkable);
+      if (deps == null) {
+        deps =
+            ImmutableList.copyOf(NativeLinkables.getDepsForLink(graphBuilder, linkable, linkStyle));
+        depsOf.put(linkable, deps);
+        for (NativeLinkable dep : deps) {
+          if (!nodes.containsKey(dep)) {
+            Preconditions.checkState(
+                !depsOf.containsKey(dep),
+                "Cycle in native linkable dependencies of %s through %s",
+                root.getBuildTarget(),
+                dep.getBuildTarget());
+            stack.push(dep);
+          }
+        }
+        continue;
+      }
+
+      stack.pop();
+      ImmutableList.Builder<Node> depNodes = ImmutableList.builderWithExpectedSize(deps.size());
+      int height = 0;
+      for (NativeLinkable dep : deps) {
+        Node depNode = nodes.get(dep);
+        depNodes.add(depNode);
+        height = Math.max(height, depNode.height + 1);
+      }
+      // Another thread may have built the same node meanwhile, in which case we use theirs.
+      nodes.putIfAbsent(linkable, new Node(linkable, depNodes.build(), height));
+    }
+    return nodes.get(root);
+  }
+
+  /** A linkable, and the nodes of the deps to traverse when linking it. */
+  private static final class Node {
+    private final NativeLinkable linkable;
+    private final ImmutableList<Node> deps;
+    private final int height;
+
+    private Node(NativeLinkable linkable, ImmutableList<Node> deps, int height) {
+      this.linkable = linkable;
+      this.deps = deps;
+      this.height = height;
+    }
+  }
+}
@@ -59,7 +59,7 @@ public class NativeLinkables {
   /**
    * @return the first-order dependencies to consider when linking the given {@link NativeLinkable}.
    */
-  private static Iterable<? extends NativeLinkable> getDepsForLink(
+  static Iterable<? extends NativeLinkable> getDepsForLink(
       ActionGraphBuilder graphBuilder,
       NativeLinkable nativeLinkable,
       Linker.LinkableDepType linkStyle) {
@@ -135,16 +135,29 @@ public class NativeLinkables {
       ActionGraphBuilder graphBuilder,
       Iterable<? extends NativeLinkable> inputs,
       Linker.LinkableDepType linkStyle) {
-    return getNativeLinkables(graphBuilder, inputs, linkStyle, x -> true);
+    return getNativeLinkables(graphBuilder, inputs, linkStyle, Optional.empty());
   }
 
-  /** Extract from the dependency graph all the libraries which must be considered for linking. */
+  /**
+   * Extract from the dependency graph all the libraries which must be considered for linking.
+   *
+   * <p>As every dep is traversed, the graph is memoized for the whole action graph, and shared by
+   * all the links of a build.
+   */
   public static ImmutableList<? extends NativeLinkable> getNativeLinkables(
       ActionGraphBuilder graphBuilder,
       Iterable<? extends NativeLinkable> inputs,
       Linker.LinkableDepType linkStyle,
       Optional<LinkableListFilter> filter) {
-    return getNativeLinkables(graphBuilder, inputs, linkStyle, x -> true, filter);
+    ImmutableList<? extends NativeLinkable> allLinkables =
+        NativeLinkGraphCache.of(graphBuilder)
+            .getTopoSortedNativeLinkables(graphBuilder, inputs, linkStyle);
+
+    if (filter.isPresent()) {
+      return filter.get().process(allLinkables, linkStyle);
+    }
+
+    return allLinkables;
   }
 
   /**
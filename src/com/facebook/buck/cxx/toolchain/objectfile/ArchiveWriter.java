@@ -0,0 +1,534 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.cxx.toolchain.objectfile;
+
+import com.facebook.buck.cxx.toolchain.elf.Elf;
+import com.facebook.buck.cxx.toolchain.elf.ElfSection;
+import com.facebook.buck.cxx.toolchain.elf.ElfSectionHeader;
+import com.facebook.buck.cxx.toolchain.elf.ElfSymbolTable;
+import com.facebook.buck.util.ObjectFileCommonModificationDate;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+import com.google.common.primitives.UnsignedBytes;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Writes static archives, along with the symbol table linkers use to find the members defining a
+ * symbol, as {@code ar} followed by {@code ranlib} would.
+ *
+ * <p>Member headers hold the same metadata {@link ObjectFileScrubbers} writes, so archives are
+ * deterministic as written. Members are read and their symbols listed in parallel, then copied in
+ * order into the archive.
+ */
+public class ArchiveWriter {
+
+  /** The archive layouts this writer supports. */
+  public enum Format {
+    /** The System V layout of GNU ar, with a "/" symbol table and a "//" long name table. */
+    GNU(ObjectFileScrubbers.PaddingStyle.LEFT),
+    /** The 4.4BSD layout of cctools, with a "__.SYMDEF" symbol table and inline long names. */
+    BSD(ObjectFileScrubbers.PaddingStyle.RIGHT),
+    ;
+
+    private final ObjectFileScrubbers.PaddingStyle paddingStyle;
+
+    Format(ObjectFileScrubbers.PaddingStyle paddingStyle) {
+      this.paddingStyle = paddingStyle;
+    }
+  }
+
+  private static final int HEADER_SIZE = 60;
+  private static final int NAME_SIZE = 16;
+  private static final int SIZE_SIZE = 10;
+  private static final int GNU_MAX_SHORT_NAME_LENGTH = 15;
+  private static final int BSD_ALIGNMENT = 8;
+  private static final String BSD_LONG_NAME_PREFIX = "#1/";
+  private static final byte[] BSD_SYMBOL_TABLE_NAME = bytes("__.SYMDEF");
+  private static final byte[] BSD_SORTED_SYMBOL_TABLE_NAME = bytes("__.SYMDEF SORTED");
+
+  @SuppressWarnings("PMD.AvoidUsingOctalValues")
+  private static final int MODE = 0100644;
+
+  private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+  // ELF section index of undefined symbols.
+  private static final int SHN_UNDEF = 0;
+
+  // Mach-O nlist type bits.
+  private static final int N_STAB = 0xe0;
+  private static final int N_TYPE = 0x0e;
+  private static final int N_EXT = 0x01;
+  private static final int N_UNDF = 0x0;
+
+  private final Format format;
+  private final boolean thin;
+
+  public ArchiveWriter(Format format, boolean thin) {
+    Preconditions.checkArgument(
+        !thin || format == Format.GNU, "thin archives are only supported in the GNU format");
+    this.format = format;
+    this.thin = thin;
+  }
+
+  /**
+   * Writes an archive of the given files, in order, to {@code output}.
+   *
+   * @param output the absolute path of the archive.
+   * @param members the absolute paths of the files to archive.
+   */
+  public void write(Path output, ImmutableList<Path> members) throws IOException {
+    Preconditions.checkArgument(output.isAbsolute());
+    ImmutableList<Member> indexed = index(output, members);
+    try (OutputStream out =
+        new BufferedOutputStream(Files.newOutputStream(output), OUTPUT_BUFFER_SIZE)) {
+      if (format == Format.GNU) {
+        writeGnu(out, indexed);
+      } else {
+        writeBsd(out, indexed);
+      }
+    }
+  }
+
+  private ImmutableList<Member> index(Path output, ImmutableList<Path> members) throws IOException {
+    try {
+      return members.parallelStream()
+          .map(
+              path -> {
+                try {
+                  return readMember(output, path);
+                } catch (IOException e) {
+                  throw new UncheckedIOException(e);
+                }
+              })
+          .collect(ImmutableList.toImmutableList());
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  private Member readMember(Path output, Path path) throws IOException {
+    Preconditions.checkArgument(path.isAbsolute());
+    byte[] contents = Files.readAllBytes(path);
+    Optional<ImmutableList<byte[]>> symbols;
+    try {
+      symbols = getDefinedSymbols(ByteBuffer.wrap(contents));
+    } catch (BufferUnderflowException
+        | IllegalArgumentException
+        | IndexOutOfBoundsException
+        | Machos.MachoException e) {
+      throw new IOException(String.format("%s: unable to read symbols: %s", path, e), e);
+    }
+    if (!symbols.isPresent() && isBitcode(contents)) {
+      throw new IOException(
+          String.format("%s: symbols of LLVM bitcode can only be indexed by ar", path));
+    }
+    // Thin archives refer to their members relative to the archive, as GNU ar does.
+    String name =
+        thin ? output.getParent().relativize(path).toString() : path.getFileName().toString();
+    return new Member(path, name.getBytes(Charsets.UTF_8), contents.length, symbols);
+  }
+
+  /**
+   * @return the global symbols defined by the given ELF or Mach-O object file, in symbol table
+   *     order, or nothing if it is not an object file.
+   */
+  @VisibleForTesting
+  static Optional<ImmutableList<byte[]>> getDefinedSymbols(ByteBuffer buffer)
+      throws Machos.MachoException {
+    if (Elf.isElf(buffer)) {
+      return Optional.of(getElfSymbols(new Elf(buffer)));
+    }
+    if (Machos.isMacho(buffer)) {
+      return Optional.of(getMachoSymbols(buffer));
+    }
+    return Optional.empty();
+  }
+
+  private static ImmutableList<byte[]> getElfSymbols(Elf elf) {
+    ImmutableList.Builder<byte[]> symbols = ImmutableList.builder();
+    for (int index = 0; index < elf.getNumberOfSections(); index++) {
+      ElfSection section = elf.getSectionByIndex(index);
+      if (section.header.sh_type != ElfSectionHeader.SHType.SHT_SYMTAB) {
+        continue;
+      }
+      ByteBuffer strings = elf.getSectionByIndex((int) section.header.sh_link).body;
+      ElfSymbolTable table = ElfSymbolTable.parse(elf.header.ei_class, section.body);
+      for (ElfSymbolTable.Entry entry : table.entries) {
+        if (entry.st_info.st_bind != ElfSymbolTable.Entry.Info.Bind.STB_LOCAL
+            && entry.st_shndx != SHN_UNDEF) {
+          symbols.add(getString(strings, (int) entry.st_name));
+        }
+      }
+    }
+    return symbols.build();
+  }
+
+  private static ImmutableList<byte[]> getMachoSymbols(ByteBuffer buffer)
+      throws Machos.MachoException {
+    buffer.rewind();
+    boolean is64Bit = Machos.getHeader(buffer).getIs64Bit();
+    Optional<MachoSymTabCommand> command = MachoSymTabCommandReader.read(buffer);
+    if (!command.isPresent()) {
+      return ImmutableList.of();
+    }
+
+    // Each nlist entry is a string table index, a type, a section, a description and a value.
+    int entrySize = 4 + 1 + 1 + 2 + (is64Bit ? 8 : 4);
+    ImmutableList.Builder<byte[]> symbols = ImmutableList.builder();
+    for (int i = 0; i < command.get().getNumberOfSymbolTableEntries(); i++) {
+      buffer.position(command.get().getSymbolTableOffset() + i * entrySize);
+      int stringIndex = ObjectFileScrubbers.getLittleEndianInt(buffer);
+      int type = buffer.get() & 0xff;
+      /* section */ buffer.get();
+      /* description */ ObjectFileScrubbers.getLittleEndianShort(buffer);
+      long value =
+          is64Bit
+              ? ObjectFileScrubbers.getLittleEndianLong(buffer)
+              : ObjectFileScrubbers.getLittleEndianInt(buffer);
+      // Common symbols are undefined ones with a size as their value.
+      if ((type & N_STAB) == 0
+          && (type & N_EXT) != 0
+          && ((type & N_TYPE) != N_UNDF || value != 0)) {
+        symbols.add(getString(buffer, command.get().getStringTableOffset() + stringIndex));
+      }
+    }
+    return symbols.build();
+  }
+
+  private static boolean isBitcode(byte[] contents) {
+    return contents.length >= 4
+        && ((contents[0] == 'B'
+                && contents[1] == 'C'
+                && contents[2] == (byte) 0xc0
+                && contents[3] == (byte) 0xde)
+            || (contents[0] == (byte) 0xde
+                && contents[1] == (byte) 0xc0
+                && contents[2] == 0x17
+                && contents[3] == 0x0b));
+  }
+
+  private static byte[] getString(ByteBuffer buffer, int offset) {
+    int end = offset;
+    while (buffer.get(end) != 0) {
+      end++;
+    }
+    byte[] string = new byte[end - offset];
+    for (int i = 0; i < string.length; i++) {
+      string[i] = buffer.get(offset + i);
+    }
+    return string;
+  }
+
+  private void writeGnu(OutputStream out, ImmutableList<Member> members) throws IOException {
+    // Names which don't fit in a header go in the long name table, as do all names of thin
+    // archives, which are paths.
+    List<byte[]> names = new ArrayList<>(members.size());
+    ByteArrayOutputStream longNames = new ByteArrayOutputStream();
+    for (Member member : members) {
+      if (!thin && member.name.length <= GNU_MAX_SHORT_NAME_LENGTH) {
+        names.add(concat(member.name, (byte) '/'));
+      } else {
+        names.add(bytes("/" + longNames.size()));
+        longNames.write(member.name);
+        longNames.write('/');
+        longNames.write('\n');
+      }
+    }
+    if (longNames.size() % 2 != 0) {
+      longNames.write('\n');
+    }
+
+    boolean hasSymbolTable = members.stream().anyMatch(member -> member.symbols.isPresent());
+    int symbolCount = 0;
+    long stringsSize = 0;
+    for (Member member : members) {
+      for (byte[] symbol : member.getSymbols()) {
+        symbolCount++;
+        stringsSize += symbol.length + 1;
+      }
+    }
+
+    // Offsets of members are 32 bits wide, unless the archive is too large for them to be.
+    int wordSize = Integer.BYTES;
+    long symbolTableSize = getGnuSymbolTableSize(wordSize, symbolCount, stringsSize);
+    long[] offsets = layOutGnu(members, hasSymbolTable, symbolTableSize, longNames.size());
+    if (offsets.length > 0 && offsets[offsets.length - 1] > 0xffffffffL) {
+      wordSize = Long.BYTES;
+      symbolTableSize = getGnuSymbolTableSize(wordSize, symbolCount, stringsSize);
+      offsets = layOutGnu(members, hasSymbolTable, symbolTableSize, longNames.size());
+    }
+
+    out.write(thin ? ObjectFileScrubbers.GLOBAL_THIN_HEADER : ObjectFileScrubbers.GLOBAL_HEADER);
+    if (hasSymbolTable) {
+      writeHeader(out, bytes(wordSize == Integer.BYTES ? "/" : "/SYM64/"), symbolTableSize);
+      writeBigEndianWord(out, wordSize, symbolCount);
+      for (int i = 0; i < members.size(); i++) {
+        for (int j = 0; j < members.get(i).getSymbols().size(); j++) {
+          writeBigEndianWord(out, wordSize, offsets[i]);
+        }
+      }
+      for (Member member : members) {
+        for (byte[] symbol : member.getSymbols()) {
+          out.write(symbol);
+          out.write(0);
+        }
+      }
+      writePadding(out, 0, symbolTableSize - wordSize * (1L + symbolCount) - stringsSize);
+    }
+    if (longNames.size() > 0) {
+      writeHeader(out, bytes("//"), longNames.size());
+      longNames.writeTo(out);
+    }
+    for (int i = 0; i < members.size(); i++) {
+      Member member = members.get(i);
+      writeHeader(out, names.get(i), member.size);
+      if (!thin) {
+        Files.copy(member.path, out);
+        writePadding(out, '\n', member.size % 2);
+      }
+    }
+  }
+
+  private static long getGnuSymbolTableSize(int wordSize, int symbolCount, long stringsSize) {
+    long size = wordSize * (1L + symbolCount) + stringsSize;
+    return size + size % 2;
+  }
+
+  private long[] layOutGnu(
+      ImmutableList<Member> members,
+      boolean hasSymbolTable,
+      long symbolTableSize,
+      long longNamesSize) {
+    long offset = ObjectFileScrubbers.GLOBAL_HEADER.length;
+    if (hasSymbolTable) {
+      offset += HEADER_SIZE + symbolTableSize;
+    }
+    if (longNamesSize > 0) {
+      offset += HEADER_SIZE + longNamesSize;
+    }
+    long[] offsets = new long[members.size()];
+    for (int i = 0; i < members.size(); i++) {
+      offsets[i] = offset;
+      offset += HEADER_SIZE;
+      if (!thin) {
+        offset += members.get(i).size + members.get(i).size % 2;
+      }
+    }
+    return offsets;
+  }
+
+  private void writeBsd(OutputStream out, ImmutableList<Member> members) throws IOException {
+    // Names are always written after the header, padded so that member contents are aligned, as
+    // ld64 expects of Mach-O object files.
+    long offset = ObjectFileScrubbers.GLOBAL_HEADER.length;
+    boolean hasSymbolTable = members.stream().anyMatch(member -> member.symbols.isPresent());
+    List<Symbol> symbols = new ArrayList<>();
+    long stringsSize = 0;
+    for (int i = 0; i < members.size(); i++) {
+      for (byte[] symbol : members.get(i).getSymbols()) {
+        symbols.add(new Symbol(symbol, i));
+        stringsSize += symbol.length + 1;
+      }
+    }
+    // The symbol table is sorted by name, as cctools' ranlib does, unless names are defined more
+    // than once, in which case the first definition must come first.
+    List<Symbol> sorted = new ArrayList<>(symbols);
+    sorted.sort(
+        Comparator.comparing(symbol -> symbol.name, UnsignedBytes.lexicographicalComparator()));
+    boolean isSorted = true;
+    for (int i = 1; i < sorted.size(); i++) {
+      if (UnsignedBytes.lexicographicalComparator()
+              .compare(sorted.get(i - 1).name, sorted.get(i).name)
+          == 0) {
+        isSorted = false;
+        break;
+      }
+    }
+    if (isSorted) {
+      symbols = sorted;
+    }
+    byte[] symbolTableName = isSorted ? BSD_SORTED_SYMBOL_TABLE_NAME : BSD_SYMBOL_TABLE_NAME;
+    int symbolTableNameSize = getBsdNameSize(symbolTableName.length);
+    // The name, then the size of the ranlib entries, the entries, the size of the strings, and the
+    // strings, padded so that the next header is aligned.
+    long entriesSize = 4 + 8L * symbols.size() + 4;
+    long symbolTableSize = symbolTableNameSize + align(entriesSize + stringsSize, BSD_ALIGNMENT);
+    long paddedStringsSize = symbolTableSize - symbolTableNameSize - entriesSize;
+    if (hasSymbolTable) {
+      offset += HEADER_SIZE + symbolTableSize;
+    }
+
+    long[] offsets = new long[members.size()];
+    for (int i = 0; i < members.size(); i++) {
+      offsets[i] = offset;
+      offset +=
+          HEADER_SIZE
+              + getBsdNameSize(members.get(i).name.length)
+              + align(members.get(i).size, BSD_ALIGNMENT);
+    }
+    if (offsets.length > 0 && offsets[offsets.length - 1] > 0xffffffffL) {
+      throw new IOException("archive is too large for a 32-bit BSD symbol table");
+    }
+
+    out.write(ObjectFileScrubbers.GLOBAL_HEADER);
+    if (hasSymbolTable) {
+      writeBsdHeader(out, symbolTableName, symbolTableNameSize, symbolTableSize);
+      writeLittleEndianInt(out, 8 * symbols.size());
+      int stringIndex = 0;
+      for (Symbol symbol : symbols) {
+        writeLittleEndianInt(out, stringIndex);
+        writeLittleEndianInt(out, (int) offsets[symbol.member]);
+        stringIndex += symbol.name.length + 1;
+      }
+      writeLittleEndianInt(out, (int) paddedStringsSize);
+      for (Symbol symbol : symbols) {
+        out.write(symbol.name);
+        out.write(0);
+      }
+      writePadding(out, 0, paddedStringsSize - stringsSize);
+    }
+    for (Member member : members) {
+      int nameSize = getBsdNameSize(member.name.length);
+      long size = align(member.size, BSD_ALIGNMENT);
+      writeBsdHeader(out, member.name, nameSize, nameSize + size);
+      Files.copy(member.path, out);
+      writePadding(out, '\n', size - member.size);
+    }
+  }
+
+  /** @return the size of a name padded so that what follows its header is aligned. */
+  private static int getBsdNameSize(int length) {
+    return (int) align(HEADER_SIZE + length, BSD_ALIGNMENT) - HEADER_SIZE;
+  }
+
+  private void writeBsdHeader(OutputStream out, byte[] name, int nameSize, long size)
+      throws IOException {
+    writeHeader(out, bytes(BSD_LONG_NAME_PREFIX + nameSize), size);
+    out.write(name);
+    writePadding(out, 0, nameSize - name.length);
+  }
+
+  private void writeHeader(OutputStream out, byte[] name, long size) throws IOException {
+    Preconditions.checkState(name.length <= NAME_SIZE);
+    byte[] sizeString = bytes(Long.toString(size));
+    Preconditions.checkState(sizeString.length <= SIZE_SIZE);
+
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    putSpaceRightPadded(header, name, NAME_SIZE);
+    ObjectFileScrubbers.putIntAsDecimalString(
+        header,
+        12,
+        ObjectFileCommonModificationDate.COMMON_MODIFICATION_TIME_STAMP,
+        format.paddingStyle);
+    ObjectFileScrubbers.putIntAsDecimalString(header, 6, 0, format.paddingStyle);
+    ObjectFileScrubbers.putIntAsDecimalString(header, 6, 0, format.paddingStyle);
+    ObjectFileScrubbers.putIntAsOctalString(header, 8, MODE, format.paddingStyle);
+    putSpaceRightPadded(header, sizeString, SIZE_SIZE);
+    header.put(ObjectFileScrubbers.END_OF_FILE_HEADER_MARKER);
+    out.write(header.array());
+  }
+
+  private static void putSpaceRightPadded(ByteBuffer buffer, byte[] value, int size) {
+    buffer.put(value);
+    for (int i = value.length; i < size; i++) {
+      buffer.put((byte) ' ');
+    }
+  }
+
+  private static void writeBigEndianWord(OutputStream out, int wordSize, long value)
+      throws IOException {
+    if (wordSize == Integer.BYTES) {
+      out.write(Ints.toByteArray((int) value));
+    } else {
+      out.write(Longs.toByteArray(value));
+    }
+  }
+
+  private static void writeLittleEndianInt(OutputStream out, int value) throws IOException {
+    out.write(value);
+    out.write(value >>> 8);
+    out.write(value >>> 16);
+    out.write(value >>> 24);
+  }
+
+  private static void writePadding(OutputStream out, int value, long count) throws IOException {
+    for (long i = 0; i < count; i++) {
+      out.write(value);
+    }
+  }
+
+  private static long align(long value, int alignment) {
+    return (value + alignment - 1) / alignment * alignment;
+  }
+
+  private static byte[] concat(byte[] bytes, byte suffix) {
+    byte[] result = new byte[bytes.length + 1];
+    System.arraycopy(bytes, 0, result, 0, bytes.length);
+    result[bytes.length] = suffix;
+    return result;
+  }
+
+  private static byte[] bytes(String string) {
+    return string.getBytes(Charsets.US_ASCII);
+  }
+
+  /** A file to archive, and the symbols it defines if it is an object file. */
+  private static class Member {
+    private final Path path;
+    private final byte[] name;
+    private final long size;
+    private final Optional<ImmutableList<byte[]>> symbols;
+
+    private Member(Path path, byte[] name, long size, Optional<ImmutableList<byte[]>> symbols) {
+      this.path = path;
+      this.name = name;
+      this.size = size;
+      this.symbols = symbols;
+    }
+
+    private ImmutableList<byte[]> getSymbols() {
+      return symbols.orElse(ImmutableList.of());
+    }
+  }
+
+  /** A symbol of the BSD symbol table, and the index of the member defining it. */
+  private static class Symbol {
+    private final byte[] name;
+    private final int member;
+
+    private Symbol(byte[] name, int member) {
+      this.name = name;
+      this.member = member;
+    }
+  }
+}
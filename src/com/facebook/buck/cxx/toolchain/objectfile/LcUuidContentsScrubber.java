@@ -16,7 +16,8 @@
 
 package com.facebook.buck.cxx.toolchain.objectfile;
 
-import com.facebook.buck.io.file.FileContentsScrubber;
+import com.facebook.buck.io.file.MappedFile;
+import com.facebook.buck.io.file.MappedFileContentsScrubber;
 import com.facebook.buck.util.types.Pair;
 import com.google.common.collect.Range;
 import com.google.common.hash.HashCode;
@@ -25,16 +26,14 @@ import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Optional;
 import java.util.stream.Stream;
 
-public class LcUuidContentsScrubber implements FileContentsScrubber {
+public class LcUuidContentsScrubber implements MappedFileContentsScrubber {
 
   private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
 
@@ -51,16 +50,21 @@ public class LcUuidContentsScrubber implements FileContentsScrubber {
   }
 
   @Override
-  public void scrubFile(FileChannel file) throws IOException, ScrubException {
-    if (!Machos.isMacho(file)) {
-      return;
-    }
-
+  public long scrubMappedFile(MappedFile file) throws IOException, ScrubException {
     long size = file.size();
-    MappedByteBuffer map = file.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    ByteBuffer map;
+    try {
+      Optional<ByteBuffer> commands = Machos.mapLoadCommands(file);
+      if (!commands.isPresent()) {
+        return size;
+      }
+      map = commands.get();
+    } catch (Machos.MachoException e) {
+      throw new ScrubException(e.getMessage());
+    }
 
     resetUuidIfPresent(map);
-    HashCode hashCode = computeHash(map, size);
+    HashCode hashCode = computeHash(file, size);
 
     map.rewind();
     try {
@@ -68,28 +72,30 @@ public class LcUuidContentsScrubber implements FileContentsScrubber {
     } catch (Machos.MachoException e) {
       throw new ScrubException(e.getMessage());
     }
+    return size;
   }
 
-  private HashCode computeHash(MappedByteBuffer map, long fileSize) {
+  private HashCode computeHash(MappedFile file, long fileSize) throws IOException {
     List<Range<Long>> ranges = generateHashRanges(fileSize);
-    List<Pair<Range<Long>, ByteBuffer>> rangeBuffers =
-        ranges.stream()
-            .map(
-                (range) -> {
-                  map.position(range.lowerEndpoint().intValue());
-                  map.limit(range.upperEndpoint().intValue());
-                  ByteBuffer subBuffer = map.slice().asReadOnlyBuffer();
-                  return new Pair<>(range, subBuffer);
-                })
-            .collect(Collectors.toList());
+    List<Pair<Range<Long>, List<ByteBuffer>>> rangeBuffers = new ArrayList<>(ranges.size());
+    for (Range<Long> range : ranges) {
+      // Ranges of files over 128GB don't fit in a single mapping.
+      List<ByteBuffer> buffers = new ArrayList<>(1);
+      for (long start = range.lowerEndpoint(); start < range.upperEndpoint(); ) {
+        int length = (int) Math.min(Integer.MAX_VALUE, range.upperEndpoint() - start);
+        buffers.add(file.map(start, length).asReadOnlyBuffer());
+        start += length;
+      }
+      rangeBuffers.add(new Pair<>(range, buffers));
+    }
 
     ByteBuffer concatenatedHashes = ByteBuffer.allocate((HASH_FUNCTION.bits() / 8) * ranges.size());
-    Stream<Pair<Range<Long>, ByteBuffer>> rangeBuffersStream =
+    Stream<Pair<Range<Long>, List<ByteBuffer>>> rangeBuffersStream =
         (scrubConcurrently && fileSize >= CONCURRENT_FILE_SIZE_THRESHOLD)
             ? rangeBuffers.parallelStream()
             : rangeBuffers.stream();
     rangeBuffersStream
-        .map((pair) -> new Pair<>(pair.getFirst(), hashByteBuffer(pair.getSecond())))
+        .map((pair) -> new Pair<>(pair.getFirst(), hashByteBuffers(pair.getSecond())))
         // NB: Sorting is only required for the parallel stream. Since we're sorting a small number
         // of tiny elements, we will sort even in the sequential stream case (rather than introduce
         // more branching).
@@ -106,6 +112,14 @@ public class LcUuidContentsScrubber implements FileContentsScrubber {
     return hasher.hash();
   }
 
+  private static HashCode hashByteBuffers(List<ByteBuffer> byteBuffers) {
+    Hasher hasher = HASH_FUNCTION.newHasher();
+    for (ByteBuffer byteBuffer : byteBuffers) {
+      hasher.putBytes(byteBuffer);
+    }
+    return hasher.hash();
+  }
+
   private static List<Range<Long>> generateHashRanges(long fileSize) {
     long uniformRangeSize = fileSize / NUMBER_OF_HASH_RANGES;
     long finalRangeSize = uniformRangeSize + fileSize % NUMBER_OF_HASH_RANGES;
@@ -122,7 +136,7 @@ public class LcUuidContentsScrubber implements FileContentsScrubber {
   }
 
   /** Sets the LC_UUID to all zeroes if it's part of the Mach-O file. */
-  protected static void resetUuidIfPresent(MappedByteBuffer map) throws ScrubException {
+  protected static void resetUuidIfPresent(ByteBuffer map) throws ScrubException {
     try {
       Machos.setUuidIfPresent(map, ZERO_UUID);
     } catch (Machos.MachoException e) {
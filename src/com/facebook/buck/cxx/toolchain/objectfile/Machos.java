@@ -16,6 +16,7 @@
 
 package com.facebook.buck.cxx.toolchain.objectfile;
 
+import com.facebook.buck.io.file.MappedFile;
 import com.facebook.buck.util.ObjectFileCommonModificationDate;
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
@@ -23,8 +24,6 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.primitives.Ints;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -60,9 +59,13 @@ public class Machos {
 
   private static final int NO_VALUE_MARKER = -1;
 
+  private static final int HEADER_SIZE = 28;
+  private static final int HEADER_64_SIZE = 32;
+  private static final int COMMANDS_SIZE_OFFSET = 20;
+
   private Machos() {}
 
-  static void setUuidIfPresent(MappedByteBuffer map, byte[] uuid) throws MachoException {
+  static void setUuidIfPresent(ByteBuffer map, byte[] uuid) throws MachoException {
     int commandsCount = getHeader(map).getCommandsCount();
 
     for (int i = 0; i < commandsCount; i++) {
@@ -77,10 +80,36 @@ public class Machos {
     }
   }
 
-  static boolean isMacho(FileChannel file) throws IOException {
-    MappedByteBuffer map = file.map(FileChannel.MapMode.READ_ONLY, 0, MH_MAGIC.length);
+  /**
+   * Maps the Mach-O header and load commands at the start of {@code file}.
+   *
+   * @return the mapping, or empty if {@code file} is not a Mach-O file.
+   */
+  static Optional<ByteBuffer> mapLoadCommands(MappedFile file)
+      throws IOException, MachoException {
+    ByteBuffer header = file.map(0, (int) Math.min(file.size(), HEADER_64_SIZE));
+    if (!isMacho(header)) {
+      return Optional.empty();
+    }
+    boolean is64bit = getHeader(header).getIs64Bit();
+    header.position(COMMANDS_SIZE_OFFSET);
+    long commandsSize = Integer.toUnsignedLong(ObjectFileScrubbers.getLittleEndianInt(header));
+    long size = (is64bit ? HEADER_64_SIZE : HEADER_SIZE) + commandsSize;
+    if (size > file.size()) {
+      throw new MachoException("load commands extend past the end of the file");
+    }
+    return Optional.of(file.map(0, (int) size));
+  }
 
-    byte[] magic = ObjectFileScrubbers.getBytes(map, MH_MAGIC.length);
+  /** Whether {@code map} starts with a Mach-O magic number. Does not move its position. */
+  static boolean isMacho(ByteBuffer map) {
+    if (map.limit() < MH_MAGIC.length) {
+      return false;
+    }
+    byte[] magic = new byte[MH_MAGIC.length];
+    for (int i = 0; i < magic.length; i++) {
+      magic[i] = map.get(i);
+    }
     return Arrays.equals(MH_MAGIC, magic)
         || Arrays.equals(MH_CIGAM, magic)
         || Arrays.equals(MH_MAGIC_64, magic)
@@ -92,8 +121,16 @@ public class Machos {
    *
    * <p>OSO entries point to other files containing debug information. These are generated by the
    * linker as absolute paths.
+   *
+   * <p>{@code map} holds the {@link #mapLoadCommands load commands} of {@code file}. Only they and
+   * the symbol table are mapped. The string table is read to the heap and written back compacted,
+   * so none of the bytes the file is truncated by are mapped.
+   *
+   * @return the size of the file after compacting its string table, which is at the end of the
+   *     file.
    */
-  static void relativizeOsoSymbols(FileChannel file, ImmutableMap<Path, Path> cellRoots)
+  static long relativizeOsoSymbols(
+      MappedFile file, ByteBuffer map, ImmutableMap<Path, Path> cellRoots)
       throws IOException, MachoException {
     cellRoots.forEach(
         (from, to) -> {
@@ -102,13 +139,11 @@ public class Machos {
         });
 
     long size = file.size();
-    MappedByteBuffer map = file.map(FileChannel.MapMode.READ_WRITE, 0, size);
-
     MachoHeader header = getHeader(map);
 
-    int symbolTableOffset = 0;
+    long symbolTableOffset = 0;
     int symbolTableCount = 0;
-    int stringTableOffset = 0;
+    long stringTableOffset = 0;
     int stringTableSizePosition = 0;
     int stringTableSize = 0;
     boolean symbolTableSegmentFound = false;
@@ -125,9 +160,9 @@ public class Machos {
       int commandSize = ObjectFileScrubbers.getLittleEndianInt(map); // NOPMD
       switch (command) {
         case LC_SYMTAB:
-          symbolTableOffset = ObjectFileScrubbers.getLittleEndianInt(map);
+          symbolTableOffset = Integer.toUnsignedLong(ObjectFileScrubbers.getLittleEndianInt(map));
           symbolTableCount = ObjectFileScrubbers.getLittleEndianInt(map);
-          stringTableOffset = ObjectFileScrubbers.getLittleEndianInt(map);
+          stringTableOffset = Integer.toUnsignedLong(ObjectFileScrubbers.getLittleEndianInt(map));
           stringTableSizePosition = map.position();
           stringTableSize = ObjectFileScrubbers.getLittleEndianInt(map);
           symbolTableSegmentFound = true;
@@ -181,10 +216,10 @@ public class Machos {
     if (!linkEditSegmentFound) {
       /*The OSO entries are identified in segments named __LINKEDIT. If no segment is found with
       that name, there is nothing to scrub.*/
-      return;
+      return size;
     }
     if (stringTableSize == 0) {
-      return;
+      return size;
     }
 
     if (!isValidFilesize(header, segmentSize)) {
@@ -201,25 +236,30 @@ public class Machos {
       throw new MachoException("LC_SEGMENT or LC_SEGMENT_64 command for string table not found");
     }
 
-    map.position(stringTableOffset);
-    if (map.get() != 0x20) {
+    if (stringTableSize < 2) {
+      throw new MachoException("Invalid string table size");
+    }
+    byte[] stringTableBytes = file.read(stringTableOffset, stringTableSize).array();
+    if (stringTableBytes[0] != 0x20) {
       throw new MachoException("First character in the string table is not a space");
     }
-    if (map.get() != 0x00) {
+    if (stringTableBytes[1] != 0x00) {
       throw new MachoException("Second character in the string table is not a NUL");
     }
-    int currentStringTableOffset = map.position();
-
-    byte[] stringTableBytes = new byte[stringTableSize];
-    map.position(stringTableOffset);
-    map.get(stringTableBytes);
-
-    map.position(symbolTableOffset);
+    ByteBuffer stringTable = ByteBuffer.allocate(stringTableSize);
+    stringTable.put(stringTableBytes, 0, 2);
+    int currentStringTableOffset = stringTable.position();
 
     // NB: We need to rewrite the string table as it's not deterministic and it would break
     //     caching behavior. On the other hand, the symbol table order is deterministic.
 
     boolean is64bit = header.getIs64Bit();
+    int symtabEntrySize = 4 + 1 + 1 + 2 + (is64bit ? 8 : 4);
+    long symbolTableSize = (long) symbolTableCount * symtabEntrySize;
+    if (symbolTableCount < 0 || symbolTableOffset + symbolTableSize > stringTableOffset) {
+      throw new MachoException("Symbol table does not end before the string table");
+    }
+    ByteBuffer symbolTable = file.map(symbolTableOffset, (int) symbolTableSize);
     Map<byte[], byte[]> replacementPathMap = generateReplacementMap(cellRoots);
     IntIntMap strings = new IntIntMap4a(symbolTableCount, 0.75f, NO_VALUE_MARKER);
     for (int i = 0; i < symbolTableCount; i++) {
@@ -229,9 +269,9 @@ public class Machos {
       // - Section: 1 byte
       // - Description: 2 bytes
       // - Value: 8 bytes on 64bit, 4 bytes on 32bit
-      int stringTableIndexPosition = map.position();
-      int stringTableIndex = ObjectFileScrubbers.getLittleEndianInt(map);
-      byte type = map.get();
+      int stringTableIndexPosition = symbolTable.position();
+      int stringTableIndex = ObjectFileScrubbers.getLittleEndianInt(symbolTable);
+      byte type = symbolTable.get();
 
       if (stringTableIndex >= 2) {
         int newStringTableIndex = strings.get(stringTableIndex);
@@ -247,32 +287,35 @@ public class Machos {
             }
 
             int valuePosition = stringTableIndexPosition + 8;
-            map.position(valuePosition);
+            symbolTable.position(valuePosition);
             int lastModifiedValue = ObjectFileCommonModificationDate.COMMON_MODIFICATION_TIME_STAMP;
             if (is64bit) {
-              ObjectFileScrubbers.putLittleEndianLong(map, lastModifiedValue);
+              ObjectFileScrubbers.putLittleEndianLong(symbolTable, lastModifiedValue);
             } else {
-              ObjectFileScrubbers.putLittleEndianInt(map, lastModifiedValue);
+              ObjectFileScrubbers.putLittleEndianInt(symbolTable, lastModifiedValue);
             }
           }
-          ObjectFileScrubbers.putCharByteBuffer(map, currentStringTableOffset, charByteBuffer);
+          ObjectFileScrubbers.putCharByteBuffer(
+              stringTable, currentStringTableOffset, charByteBuffer);
 
-          newStringTableIndex = currentStringTableOffset - stringTableOffset;
+          newStringTableIndex = currentStringTableOffset;
           strings.put(stringTableIndex, newStringTableIndex);
 
-          currentStringTableOffset = map.position();
+          currentStringTableOffset = stringTable.position();
         }
-        map.position(stringTableIndexPosition);
-        ObjectFileScrubbers.putLittleEndianInt(map, newStringTableIndex);
+        symbolTable.position(stringTableIndexPosition);
+        ObjectFileScrubbers.putLittleEndianInt(symbolTable, newStringTableIndex);
       }
 
-      int symtabEntrySize = 4 + 1 + 1 + 2 + (is64bit ? 8 : 4);
       int nextSymtabEntryOffset = stringTableIndexPosition + symtabEntrySize;
-      map.position(nextSymtabEntryOffset);
+      symbolTable.position(nextSymtabEntryOffset);
     }
 
+    stringTable.flip();
+    file.write(stringTableOffset, stringTable);
+
     map.position(stringTableSizePosition);
-    int newStringTableSize = currentStringTableOffset - stringTableOffset;
+    int newStringTableSize = currentStringTableOffset;
     ObjectFileScrubbers.putLittleEndianInt(map, newStringTableSize);
 
     map.position(segmentSizePosition);
@@ -287,7 +330,7 @@ public class Machos {
       throw new MachoException("32bit scrubbed map segment file size too big");
     }
 
-    file.truncate(currentStringTableOffset);
+    return stringTableOffset + newStringTableSize;
   }
 
   private static boolean isValidFilesize(MachoHeader header, long filesize) {
@@ -295,7 +338,7 @@ public class Machos {
   }
 
   /** Returns the Mach-O header provided the file is Mach-O, otherwise throws an exception. */
-  protected static MachoHeader getHeader(MappedByteBuffer map) throws MachoException {
+  protected static MachoHeader getHeader(ByteBuffer map) throws MachoException {
     byte[] magic = ObjectFileScrubbers.getBytes(map, MH_MAGIC.length);
     boolean is64bit;
     if (Arrays.equals(MH_MAGIC, magic) || Arrays.equals(MH_CIGAM, magic)) {
@@ -16,7 +16,10 @@
 
 package com.facebook.buck.cxx.toolchain.objectfile;
 
+import com.facebook.buck.cxx.toolchain.elf.Elf;
 import com.facebook.buck.io.file.FileContentsScrubber;
+import com.facebook.buck.io.file.MappedFile;
+import com.facebook.buck.io.file.MappedFileContentsScrubber;
 import com.facebook.buck.util.ObjectFileCommonModificationDate;
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
@@ -35,6 +38,7 @@ import java.util.Arrays;
 public class ObjectFileScrubbers {
 
   private static final int GLOBAL_HEADER_SIZE = 8;
+  private static final int ELF64_HEADER_SIZE = 64;
   private static final ImmutableSet<String> SPECIAL_ENTRIES = ImmutableSet.of("/", "//");
   public static final byte[] GLOBAL_HEADER = "!<arch>\n".getBytes(Charsets.US_ASCII);
   public static final byte[] GLOBAL_THIN_HEADER = "!<thin>\n".getBytes(Charsets.US_ASCII);
@@ -133,6 +137,38 @@ public class ObjectFileScrubbers {
     };
   }
 
+  /** Zeros out the entry point address in the header of an ELF file. */
+  public static MappedFileContentsScrubber createElfEntryPointScrubber() {
+    return file -> {
+      ByteBuffer header = mapElfHeader(file);
+      Elf elf = parseElf(header);
+      header.position(0);
+      elf.header.withEntry(0).write(header);
+      return file.size();
+    };
+  }
+
+  /** Zeros out the program headers of an ELF file. */
+  public static MappedFileContentsScrubber createElfProgramHeadersScrubber() {
+    return file -> {
+      Elf elf = parseElf(mapElfHeader(file));
+      int programHeadersSize = elf.header.e_phnum * elf.header.e_phentsize;
+      file.map(elf.header.e_phoff, programHeadersSize).put(new byte[programHeadersSize]);
+      return file.size();
+    };
+  }
+
+  private static ByteBuffer mapElfHeader(MappedFile file) throws IOException {
+    return file.map(0, (int) Math.min(file.size(), ELF64_HEADER_SIZE));
+  }
+
+  private static Elf parseElf(ByteBuffer map) throws FileContentsScrubber.ScrubException {
+    if (!Elf.isElf(map)) {
+      throw new FileContentsScrubber.ScrubException("not an ELF file");
+    }
+    return new Elf(map);
+  }
+
   public static byte[] getBytes(ByteBuffer buffer, int len) {
     byte[] bytes = new byte[len];
     buffer.get(bytes);
@@ -16,13 +16,15 @@
 
 package com.facebook.buck.cxx.toolchain.objectfile;
 
-import com.facebook.buck.io.file.FileContentsScrubber;
+import com.facebook.buck.io.file.MappedFile;
+import com.facebook.buck.io.file.MappedFileContentsScrubber;
 import com.google.common.collect.ImmutableMap;
 import java.io.IOException;
-import java.nio.channels.FileChannel;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.util.Optional;
 
-public class OsoSymbolsContentsScrubber implements FileContentsScrubber {
+public class OsoSymbolsContentsScrubber implements MappedFileContentsScrubber {
 
   private final ImmutableMap<Path, Path> cellRootMap;
 
@@ -31,12 +33,13 @@ public class OsoSymbolsContentsScrubber implements FileContentsScrubber {
   }
 
   @Override
-  public void scrubFile(FileChannel file) throws IOException, ScrubException {
-    if (!Machos.isMacho(file)) {
-      return;
-    }
+  public long scrubMappedFile(MappedFile file) throws IOException, ScrubException {
     try {
-      Machos.relativizeOsoSymbols(file, cellRootMap);
+      Optional<ByteBuffer> commands = Machos.mapLoadCommands(file);
+      if (!commands.isPresent()) {
+        return file.size();
+      }
+      return Machos.relativizeOsoSymbols(file, commands.get(), cellRootMap);
     } catch (Machos.MachoException e) {
       throw new ScrubException(e.getMessage());
     }
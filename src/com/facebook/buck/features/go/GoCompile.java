@@ -22,6 +22,7 @@ import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.impl.BuildTargetPaths;
 import com.facebook.buck.core.rulekey.AddToRuleKey;
 import com.facebook.buck.core.rules.BuildRuleParams;
+import com.facebook.buck.core.rules.attr.SupportsInputBasedRuleKey;
 import com.facebook.buck.core.rules.impl.AbstractBuildRuleWithDeclaredAndExtraDeps;
 import com.facebook.buck.core.rules.impl.SymlinkTree;
 import com.facebook.buck.core.sourcepath.ExplicitBuildTargetSourcePath;
@@ -40,6 +41,7 @@ import com.facebook.buck.step.fs.TouchStep;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -51,7 +53,15 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.annotation.Nullable;
 
-public class GoCompile extends AbstractBuildRuleWithDeclaredAndExtraDeps {
+/**
+ * Compiles a Go package into an archive for linking and a separate archive with just its export
+ * data, which is what dependent packages are compiled against.
+ *
+ * <p>Dependencies are part of the input-based rule key through their export data only, so that
+ * dependents aren't recompiled when a dependency's implementation changes but its API doesn't.
+ */
+public class GoCompile extends AbstractBuildRuleWithDeclaredAndExtraDeps
+    implements SupportsInputBasedRuleKey {
   @AddToRuleKey private final Tool compiler;
   @AddToRuleKey private final Tool assembler;
   @AddToRuleKey private final Tool packer;
@@ -66,6 +76,7 @@ public class GoCompile extends AbstractBuildRuleWithDeclaredAndExtraDeps {
   @AddToRuleKey private final ImmutableList<SourcePath> extraAsmOutputs;
   @AddToRuleKey private final GoPlatform platform;
   @AddToRuleKey private final boolean gensymabis;
+  @AddToRuleKey private final ImmutableSortedMap<String, SourcePath> importedPackages;
 
   // TODO(mikekap): Make these part of the rule key.
   private final ImmutableList<Path> assemblerIncludeDirs;
@@ -73,6 +84,7 @@ public class GoCompile extends AbstractBuildRuleWithDeclaredAndExtraDeps {
 
   private final SymlinkTree symlinkTree;
   private final Path output;
+  private final Path exportData;
   private final List<ListType> goListTypes;
 
   public GoCompile(
@@ -80,6 +92,7 @@ public class GoCompile extends AbstractBuildRuleWithDeclaredAndExtraDeps {
       ProjectFilesystem projectFilesystem,
       BuildRuleParams params,
       SymlinkTree symlinkTree,
+      ImmutableSortedMap<String, SourcePath> importedPackages,
       Path packageName,
       ImmutableMap<Path, Path> importPathMap,
       ImmutableSet<SourcePath> srcs,
@@ -95,6 +108,7 @@ public class GoCompile extends AbstractBuildRuleWithDeclaredAndExtraDeps {
     this.srcs = srcs;
     this.generatedSrcs = generatedSrcs;
     this.symlinkTree = symlinkTree;
+    this.importedPackages = importedPackages;
     this.packageName = packageName;
     this.compilerFlags = compilerFlags;
     this.compiler = platform.getCompiler();
@@ -109,6 +123,11 @@ public class GoCompile extends AbstractBuildRuleWithDeclaredAndExtraDeps {
             getProjectFilesystem(),
             getBuildTarget(),
             "%s/" + getBuildTarget().getShortName() + ".a");
+    this.exportData =
+        BuildTargetPaths.getGenPath(
+            getProjectFilesystem(),
+            getBuildTarget(),
+            "%s/export/" + getBuildTarget().getShortName() + ".a");
     this.extraAsmOutputs = extraAsmOutputs;
     this.goListTypes = goListTypes;
   }
@@ -118,6 +137,7 @@ public class GoCompile extends AbstractBuildRuleWithDeclaredAndExtraDeps {
       BuildContext context, BuildableContext buildableContext) {
 
     buildableContext.recordArtifact(output);
+    buildableContext.recordArtifact(exportData);
 
     List<Path> srcFiles = getSourceFiles(srcs, context);
     ImmutableMap<String, ImmutableList<Path>> groupedSrcs = getGroupedSrcs(srcFiles);
@@ -135,6 +155,10 @@ public class GoCompile extends AbstractBuildRuleWithDeclaredAndExtraDeps {
         MkdirStep.of(
             BuildCellRelativePath.fromCellRelativePath(
                 context.getBuildCellRootPath(), getProjectFilesystem(), output.getParent())));
+    steps.add(
+        MkdirStep.of(
+            BuildCellRelativePath.fromCellRelativePath(
+                context.getBuildCellRootPath(), getProjectFilesystem(), exportData.getParent())));
 
     Path asmOutputDir =
         BuildTargetPaths.getScratchPath(
@@ -178,6 +202,7 @@ public class GoCompile extends AbstractBuildRuleWithDeclaredAndExtraDeps {
     SourcePathResolverAdapter resolver = context.getSourcePathResolver();
     if (getGoSources(groupedSrcs).isEmpty()) {
       steps.add(new TouchStep(getProjectFilesystem(), output));
+      steps.add(new TouchStep(getProjectFilesystem(), exportData));
     } else {
       Optional<Path> asmSymabisPath = Optional.empty();
 
@@ -224,6 +249,7 @@ public class GoCompile extends AbstractBuildRuleWithDeclaredAndExtraDeps {
               allowExternalReferences,
               platform,
               asmSymabisPath,
+              exportData,
               output));
     }
 
@@ -337,4 +363,9 @@ public class GoCompile extends AbstractBuildRuleWithDeclaredAndExtraDeps {
   public SourcePath getSourcePathToOutput() {
     return ExplicitBuildTargetSourcePath.of(getBuildTarget(), output);
   }
+
+  /** @return the archive holding just the export data of the package, to compile dependents. */
+  public SourcePath getSourcePathToExportData() {
+    return ExplicitBuildTargetSourcePath.of(getBuildTarget(), exportData);
+  }
 }
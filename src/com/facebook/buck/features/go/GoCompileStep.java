@@ -40,6 +40,7 @@ public class GoCompileStep extends ShellStep {
   private final Optional<Path> asmHeaderPath;
   private final boolean allowExternalReferences;
   private final GoPlatform platform;
+  private final Path exportData;
   private final Path output;
   private final Optional<Path> asmSymabisPath;
   private static final Logger LOG = Logger.get(GoCompileStep.class);
@@ -58,6 +59,7 @@ public class GoCompileStep extends ShellStep {
       boolean allowExternalReferences,
       GoPlatform platform,
       Optional<Path> asmSymabisPath,
+      Path exportData,
       Path output) {
     super(workingDirectory);
     this.environment = environment;
@@ -72,6 +74,7 @@ public class GoCompileStep extends ShellStep {
     this.allowExternalReferences = allowExternalReferences;
     this.platform = platform;
     this.asmSymabisPath = asmSymabisPath;
+    this.exportData = exportData;
     this.output = output;
   }
 
@@ -90,7 +93,10 @@ public class GoCompileStep extends ShellStep {
               .add("-trimpath", workingDirectory.toString())
               .add("-nolocalimports")
               .addAll(flags)
-              .add("-o", output.toString());
+              // Dependents only need the export data, which is written separately from the object
+              // used for linking so that they can be compiled against it alone.
+              .add("-o", exportData.toString())
+              .add("-linkobj", output.toString());
 
       if (asmSymabisPath.isPresent() && !Iterables.isEmpty(asmSrcs)) {
         commandBuilder.add("-symabis", asmSymabisPath.get().toString());
@@ -60,8 +60,10 @@ import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Ordering;
 import com.google.common.io.Files;
 import com.google.common.io.Resources;
 import java.io.IOException;
@@ -147,7 +149,8 @@ abstract class GoDescriptors {
 
     BuildTarget target = createSymlinkTreeTarget(buildTarget);
     MappedSymlinkTree symlinkTree =
-        makeSymlinkTree(target, projectFilesystem, graphBuilder, linkables);
+        makeSymlinkTree(
+            target, projectFilesystem, graphBuilder, linkables, GoLinkable::getGoCompileInput);
     graphBuilder.addToIndex(symlinkTree);
 
     ImmutableList.Builder<SourcePath> extraAsmOutputsBuilder = ImmutableList.builder();
@@ -170,6 +173,11 @@ abstract class GoDescriptors {
             .copyAppendingExtraDeps(ImmutableList.of(symlinkTree))
             .copyAppendingExtraDeps(getDependenciesFromSources(graphBuilder, srcs)),
         symlinkTree,
+        linkables.stream()
+            .flatMap(linkable -> linkable.getGoCompileInput().entrySet().stream())
+            .collect(
+                ImmutableSortedMap.toImmutableSortedMap(
+                    Ordering.natural(), entry -> entry.getKey().toString(), Map.Entry::getValue)),
         packageName,
         getPackageImportMap(
             goBuckConfig.getVendorPaths(),
@@ -359,7 +367,8 @@ abstract class GoDescriptors {
                 params.getDeclaredDeps().get().stream()
                     .map(BuildRule::getBuildTarget)
                     .collect(ImmutableList.toImmutableList()),
-                /* includeSelf */ false));
+                /* includeSelf */ false),
+            GoLinkable::getGoLinkInput);
     graphBuilder.addToIndex(symlinkTree);
     extraDeps.add(symlinkTree);
 
@@ -576,13 +585,14 @@ abstract class GoDescriptors {
       BuildTarget buildTarget,
       ProjectFilesystem projectFilesystem,
       SourcePathRuleFinder ruleFinder,
-      ImmutableSet<GoLinkable> linkables) {
+      ImmutableSet<GoLinkable> linkables,
+      Function<GoLinkable, ImmutableMap<Path, SourcePath>> archives) {
 
     ImmutableMap<Path, SourcePath> treeMap;
     try {
       treeMap =
           linkables.stream()
-              .flatMap(linkable -> linkable.getGoLinkInput().entrySet().stream())
+              .flatMap(linkable -> archives.apply(linkable).entrySet().stream())
               .collect(
                   ImmutableMap.toImmutableMap(
                       entry ->
@@ -33,7 +33,6 @@ import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.rules.BuildRuleCreationContextWithTargetGraph;
 import com.facebook.buck.core.rules.BuildRuleParams;
 import com.facebook.buck.core.rules.DescriptionWithTargetGraph;
-import com.facebook.buck.core.sourcepath.SourcePath;
 import com.facebook.buck.core.toolchain.ToolchainProvider;
 import com.facebook.buck.core.util.immutables.RuleArg;
 import com.facebook.buck.cxx.toolchain.impl.CxxPlatforms;
@@ -96,15 +95,13 @@ public class GoLibraryDescription
 
     if (metadataClass.isAssignableFrom(GoLinkable.class)) {
       Preconditions.checkState(platform.isPresent());
-      SourcePath output = graphBuilder.requireRule(buildTarget).getSourcePathToOutput();
       return Optional.of(
           metadataClass.cast(
-              GoLinkable.of(
-                  ImmutableMap.of(
-                      args.getPackageName()
-                          .map(Paths::get)
-                          .orElse(goBuckConfig.getDefaultPackageName(buildTarget)),
-                      output),
+              GoLinkable.forRule(
+                  args.getPackageName()
+                      .map(Paths::get)
+                      .orElse(goBuckConfig.getDefaultPackageName(buildTarget)),
+                  graphBuilder.requireRule(buildTarget),
                   args.getExportedDeps())));
     } else if (buildTarget.getFlavors().contains(GoDescriptors.TRANSITIVE_LINKABLES_FLAVOR)) {
       Preconditions.checkState(platform.isPresent());
@@ -24,24 +24,34 @@ import com.facebook.buck.core.util.immutables.BuckStyleValue;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import java.nio.file.Path;
+import java.util.Objects;
 
 @BuckStyleValue
 abstract class GoLinkable {
 
   abstract ImmutableMap<Path, SourcePath> getGoLinkInput();
 
+  /** @return the archives that dependents are compiled against, keyed by package name. */
+  abstract ImmutableMap<Path, SourcePath> getGoCompileInput();
+
   abstract ImmutableSet<BuildTarget> getExportedDeps();
 
   public Iterable<BuildRule> getDeps(SourcePathRuleFinder ruleFinder) {
     return ruleFinder.filterBuildRuleInputs(getGoLinkInput().values());
   }
 
-  static GoLinkable of(ImmutableMap<Path, SourcePath> goLinkInput) {
-    return of(goLinkInput, ImmutableSet.of());
-  }
-
-  static GoLinkable of(
-      ImmutableMap<Path, SourcePath> goLinkInput, ImmutableSet<BuildTarget> exportedDeps) {
-    return ImmutableGoLinkable.of(goLinkInput, exportedDeps);
+  /**
+   * @return the linkable for {@code packageName} built by {@code rule}, whose dependents are
+   *     compiled against the export data of the package if the rule produces it separately.
+   */
+  static GoLinkable forRule(
+      Path packageName, BuildRule rule, ImmutableSet<BuildTarget> exportedDeps) {
+    SourcePath output = Objects.requireNonNull(rule.getSourcePathToOutput());
+    SourcePath compileInput =
+        rule instanceof GoCompile ? ((GoCompile) rule).getSourcePathToExportData() : output;
+    return ImmutableGoLinkable.of(
+        ImmutableMap.of(packageName, output),
+        ImmutableMap.of(packageName, compileInput),
+        exportedDeps);
   }
 }
@@ -124,8 +124,10 @@ public class GoTestDescription
 
       Path packageName = getGoPackageName(graphBuilder, buildTarget, args);
 
-      SourcePath output = graphBuilder.requireRule(buildTarget).getSourcePathToOutput();
-      return Optional.of(metadataClass.cast(GoLinkable.of(ImmutableMap.of(packageName, output))));
+      return Optional.of(
+          metadataClass.cast(
+              GoLinkable.forRule(
+                  packageName, graphBuilder.requireRule(buildTarget), ImmutableSet.of())));
     } else if (buildTarget.getFlavors().contains(GoDescriptors.TRANSITIVE_LINKABLES_FLAVOR)
         && buildTarget.getFlavors().contains(TEST_LIBRARY_FLAVOR)) {
       Preconditions.checkState(platform.isPresent());
@@ -73,15 +73,13 @@ public class PrebuiltGoLibraryDescription
 
     if (metadataClass.isAssignableFrom(GoLinkable.class)) {
       Preconditions.checkState(platform.isPresent());
-      SourcePath output = graphBuilder.requireRule(buildTarget).getSourcePathToOutput();
       return Optional.of(
           metadataClass.cast(
-              GoLinkable.of(
-                  ImmutableMap.of(
-                      args.getPackageName()
-                          .map(Paths::get)
-                          .orElse(goBuckConfig.getDefaultPackageName(buildTarget)),
-                      output),
+              GoLinkable.forRule(
+                  args.getPackageName()
+                      .map(Paths::get)
+                      .orElse(goBuckConfig.getDefaultPackageName(buildTarget)),
+                  graphBuilder.requireRule(buildTarget),
                   args.getExportedDeps())));
     } else if (buildTarget.getFlavors().contains(GoDescriptors.TRANSITIVE_LINKABLES_FLAVOR)) {
       Preconditions.checkState(platform.isPresent());
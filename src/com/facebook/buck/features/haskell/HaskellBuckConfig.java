@@ -119,6 +119,10 @@ public class HaskellBuckConfig {
     return delegate.getBooleanValue(section, "use_argsfile", false);
   }
 
+  public boolean getShouldCompilePerModule(String section) {
+    return delegate.getBooleanValue(section, "compile_per_module", false);
+  }
+
   public Optional<Boolean> getShouldUsedOldBinaryOutputLocation(String section) {
     return delegate.getBoolean(section, "old_binary_output_location");
   }
@@ -26,6 +26,7 @@ import com.facebook.buck.core.rulekey.AddToRuleKey;
 import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.rules.BuildRuleParams;
 import com.facebook.buck.core.rules.SourcePathRuleFinder;
+import com.facebook.buck.core.rules.attr.SupportsInputBasedRuleKey;
 import com.facebook.buck.core.rules.common.BuildableSupport;
 import com.facebook.buck.core.rules.impl.AbstractBuildRuleWithDeclaredAndExtraDeps;
 import com.facebook.buck.core.sourcepath.ExplicitBuildTargetSourcePath;
@@ -66,7 +67,8 @@ import java.util.Set;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
-public class HaskellCompileRule extends AbstractBuildRuleWithDeclaredAndExtraDeps {
+public class HaskellCompileRule extends AbstractBuildRuleWithDeclaredAndExtraDeps
+    implements SupportsInputBasedRuleKey {
 
   private static final Logger LOG = Logger.get(HaskellCompileRule.class);
 
@@ -88,6 +90,12 @@ public class HaskellCompileRule extends AbstractBuildRuleWithDeclaredAndExtraDep
 
   @AddToRuleKey private final Preprocessor preprocessor;
 
+  /**
+   * For rules compiling a single module of a library, the interface dirs of the home modules it
+   * imports, directly or not. The module is compiled in one-shot mode against these interfaces.
+   */
+  @AddToRuleKey private final Optional<ImmutableSortedSet<SourcePath>> homeInterfaces;
+
   private HaskellCompileRule(
       BuildTarget buildTarget,
       ProjectFilesystem projectFilesystem,
@@ -100,7 +108,8 @@ public class HaskellCompileRule extends AbstractBuildRuleWithDeclaredAndExtraDep
       Optional<String> main,
       Optional<HaskellPackageInfo> packageInfo,
       HaskellSources sources,
-      Preprocessor preprocessor) {
+      Preprocessor preprocessor,
+      Optional<ImmutableSortedSet<SourcePath>> homeInterfaces) {
     super(buildTarget, projectFilesystem, buildRuleParams);
     this.compiler = compiler;
     this.flags = flags;
@@ -111,6 +120,7 @@ public class HaskellCompileRule extends AbstractBuildRuleWithDeclaredAndExtraDep
     this.packageInfo = packageInfo;
     this.sources = sources;
     this.preprocessor = preprocessor;
+    this.homeInterfaces = homeInterfaces;
   }
 
   public static HaskellCompileRule from(
@@ -127,6 +137,42 @@ public class HaskellCompileRule extends AbstractBuildRuleWithDeclaredAndExtraDep
       Optional<HaskellPackageInfo> packageInfo,
       HaskellSources sources,
       Preprocessor preprocessor) {
+    return from(
+        target,
+        projectFilesystem,
+        baseParams,
+        ruleFinder,
+        compiler,
+        flags,
+        platform,
+        depType,
+        hsProfile,
+        main,
+        packageInfo,
+        sources,
+        preprocessor,
+        Optional.empty());
+  }
+
+  /**
+   * @param homeInterfaces when compiling a single module of a library, the interface dirs of the
+   *     other modules of the library it imports, directly or not
+   */
+  public static HaskellCompileRule from(
+      BuildTarget target,
+      ProjectFilesystem projectFilesystem,
+      BuildRuleParams baseParams,
+      SourcePathRuleFinder ruleFinder,
+      Tool compiler,
+      HaskellCompilerFlags flags,
+      HaskellPlatform platform,
+      Linker.LinkableDepType depType,
+      boolean hsProfile,
+      Optional<String> main,
+      Optional<HaskellPackageInfo> packageInfo,
+      HaskellSources sources,
+      Preprocessor preprocessor,
+      Optional<ImmutableSortedSet<SourcePath>> homeInterfaces) {
     Supplier<ImmutableSortedSet<BuildRule>> declaredDeps =
         MoreSuppliers.memoize(
             () ->
@@ -134,6 +180,9 @@ public class HaskellCompileRule extends AbstractBuildRuleWithDeclaredAndExtraDep
                     .addAll(BuildableSupport.getDepsCollection(compiler, ruleFinder))
                     .addAll(flags.getDeps(ruleFinder))
                     .addAll(sources.getDeps(ruleFinder))
+                    .addAll(
+                        ruleFinder.filterBuildRuleInputs(
+                            homeInterfaces.orElse(ImmutableSortedSet.of())))
                     .build());
     return new HaskellCompileRule(
         target,
@@ -147,7 +196,8 @@ public class HaskellCompileRule extends AbstractBuildRuleWithDeclaredAndExtraDep
         main,
         packageInfo,
         sources,
-        preprocessor);
+        preprocessor,
+        homeInterfaces);
   }
 
   private Path getObjectDir() {
@@ -203,7 +253,9 @@ public class HaskellCompileRule extends AbstractBuildRuleWithDeclaredAndExtraDep
   }
 
   private Iterable<String> getSourceArguments(SourcePathResolverAdapter resolver) {
-    return sources.getSourcePaths().stream()
+    // In one-shot mode, boot files are compiled like any other module.
+    return (homeInterfaces.isPresent() ? sources.getModuleMap().values() : sources.getSourcePaths())
+        .stream()
         .map(resolver::getAbsolutePath)
         .map(Object::toString)
         .collect(Collectors.toList());
@@ -212,7 +264,9 @@ public class HaskellCompileRule extends AbstractBuildRuleWithDeclaredAndExtraDep
   private Iterable<String> getCompilerArguments(SourcePathResolverAdapter resolver) {
     ImmutableList.Builder<String> builder = ImmutableList.builder();
 
-    builder.addAll(flags.getAdditionalFlags()).add("-no-link");
+    builder
+        .addAll(flags.getAdditionalFlags())
+        .add(homeInterfaces.isPresent() ? "-c" : "-no-link");
 
     if (depType == Linker.LinkableDepType.SHARED) {
       builder.addAll(HaskellDescriptionUtils.DYNAMIC_FLAGS);
@@ -240,6 +294,10 @@ public class HaskellCompileRule extends AbstractBuildRuleWithDeclaredAndExtraDep
         .add("-hidir", getProjectFilesystem().resolve(getInterfaceDir()).toString())
         .add("-stubdir", getProjectFilesystem().resolve(getStubDir()).toString())
         .add("-i")
+        .addAll(
+            RichStream.from(homeInterfaces.orElse(ImmutableSortedSet.of()))
+                .map(dir -> "-i" + resolver.getAbsolutePath(dir))
+                .toOnceIterable())
         .addAll(flags.getPackageFlags(platform, resolver));
 
     if (platform.shouldUseArgsfile()) {
@@ -347,6 +405,13 @@ public class HaskellCompileRule extends AbstractBuildRuleWithDeclaredAndExtraDep
     return platform.getHaskellVersion().getMajorVersion() >= 8;
   }
 
+  // Modules compiled separately are only rebuilt when the interfaces they import change, rather
+  // than whenever the modules defining them do.
+  @Override
+  public boolean inputBasedRuleKeyIsEnabled() {
+    return homeInterfaces.isPresent();
+  }
+
   @Override
   public SourcePath getSourcePathToOutput() {
     return ExplicitBuildTargetSourcePath.of(getBuildTarget(), getInterfaceDir());
@@ -27,6 +27,7 @@ import com.facebook.buck.core.rules.ActionGraphBuilder;
 import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.rules.BuildRuleParams;
 import com.facebook.buck.core.rules.common.BuildableSupport;
+import com.facebook.buck.core.sourcepath.PathSourcePath;
 import com.facebook.buck.core.sourcepath.SourcePath;
 import com.facebook.buck.core.toolchain.tool.Tool;
 import com.facebook.buck.core.util.graph.AbstractBreadthFirstTraversal;
@@ -40,6 +41,7 @@ import com.facebook.buck.cxx.CxxToolFlags;
 import com.facebook.buck.cxx.ExplicitCxxToolFlags;
 import com.facebook.buck.cxx.config.CxxBuckConfig;
 import com.facebook.buck.cxx.toolchain.CxxPlatform;
+import com.facebook.buck.cxx.toolchain.Preprocessor;
 import com.facebook.buck.cxx.toolchain.impl.CxxPlatforms;
 import com.facebook.buck.cxx.toolchain.linker.Linker;
 import com.facebook.buck.cxx.toolchain.linker.impl.Linkers;
@@ -67,8 +69,11 @@ import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Ordering;
+import com.google.common.hash.HashCode;
 import java.nio.file.Path;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -81,6 +86,7 @@ public class HaskellDescriptionUtils {
   static final Flavor GHCI_FLAV = UserFlavor.of("ghci", "Open a ghci session on this target");
 
   static final Flavor PROF = InternalFlavor.of("prof");
+  static final Flavor ALL_MODULES = InternalFlavor.of("all-modules");
   static final ImmutableList<String> PROF_FLAGS =
       ImmutableList.of("-prof", "-osuf", "p_o", "-hisuf", "p_hi");
   static final ImmutableList<String> DYNAMIC_FLAGS =
@@ -236,6 +242,159 @@ public class HaskellDescriptionUtils {
                     srcs));
   }
 
+  /**
+   * Require the rules compiling the given haskell sources. If the platform compiles per module,
+   * every module of the sources is compiled by its own rule against the interfaces of the modules
+   * it imports, so that modules are built in parallel and their dependents are only rebuilt when
+   * those interfaces change. Otherwise, or if the imports of the sources can't be read, this is the
+   * single rule compiling all of them.
+   */
+  public static ImmutableList<HaskellCompileRule> requireCompileRules(
+      BuildTarget buildTarget,
+      ProjectFilesystem projectFilesystem,
+      BuildRuleParams params,
+      ActionGraphBuilder graphBuilder,
+      ImmutableSet<BuildRule> deps,
+      HaskellPlatform platform,
+      Linker.LinkableDepType depType,
+      boolean hsProfile,
+      Optional<HaskellPackageInfo> packageInfo,
+      ImmutableList<String> flags,
+      HaskellSources srcs) {
+    if (!platform.shouldCompilePerModule()) {
+      return ImmutableList.of(
+          requireCompileRule(
+              buildTarget,
+              projectFilesystem,
+              params,
+              graphBuilder,
+              deps,
+              platform,
+              depType,
+              hsProfile,
+              Optional.empty(),
+              packageInfo,
+              flags,
+              srcs));
+    }
+
+    HaskellModuleCompileRules rules =
+        (HaskellModuleCompileRules)
+            graphBuilder.computeIfAbsent(
+                getCompileBuildTarget(buildTarget, platform, depType, hsProfile),
+                target ->
+                    createModuleCompileRules(
+                        target,
+                        projectFilesystem,
+                        params,
+                        graphBuilder,
+                        deps,
+                        platform,
+                        depType,
+                        hsProfile,
+                        packageInfo,
+                        flags,
+                        srcs));
+    return rules.getCompileRules();
+  }
+
+  private static HaskellModuleCompileRules createModuleCompileRules(
+      BuildTarget target,
+      ProjectFilesystem projectFilesystem,
+      BuildRuleParams baseParams,
+      ActionGraphBuilder graphBuilder,
+      ImmutableSet<BuildRule> deps,
+      HaskellPlatform platform,
+      Linker.LinkableDepType depType,
+      boolean hsProfile,
+      Optional<HaskellPackageInfo> packageInfo,
+      ImmutableList<String> flags,
+      HaskellSources sources) {
+    ImmutableList<String> additionalFlags =
+        ImmutableList.<String>builder().addAll(platform.getCompilerFlags()).addAll(flags).build();
+    Map<PathSourcePath, Optional<HashCode>> readSources = new HashMap<>();
+    Optional<ImmutableMap<HaskellSourceModule, ImmutableSortedSet<HaskellSourceModule>>>
+        moduleGraph = HaskellModuleGraph.from(sources, additionalFlags, readSources);
+
+    ImmutableList.Builder<HaskellCompileRule> compileRules = ImmutableList.builder();
+    if (moduleGraph.isPresent()) {
+      HaskellCompilerFlags compilerFlags =
+          createCompileFlags(graphBuilder, deps, platform, depType, hsProfile, additionalFlags);
+      Tool compiler = platform.getCompiler().resolve(graphBuilder, target.getTargetConfiguration());
+      Preprocessor preprocessor =
+          CxxSourceTypes.getPreprocessor(platform.getCxxPlatform(), CxxSource.Type.C)
+              .resolve(graphBuilder, target.getTargetConfiguration());
+
+      // Modules come after the modules they import, whose interfaces refer to those of their own
+      // imports, so each module is compiled against the interfaces of all its transitive imports.
+      Map<HaskellSourceModule, HaskellCompileRule> moduleRules = new HashMap<>();
+      Map<HaskellSourceModule, ImmutableSortedSet<SourcePath>> moduleInterfaces = new HashMap<>();
+      for (Map.Entry<HaskellSourceModule, ImmutableSortedSet<HaskellSourceModule>> ent :
+          moduleGraph.get().entrySet()) {
+        HaskellSourceModule module = ent.getKey();
+        ImmutableSortedSet.Builder<SourcePath> homeInterfaces = ImmutableSortedSet.naturalOrder();
+        for (HaskellSourceModule imported : ent.getValue()) {
+          homeInterfaces
+              .add(Objects.requireNonNull(moduleRules.get(imported)).getInterfaces())
+              .addAll(Objects.requireNonNull(moduleInterfaces.get(imported)));
+        }
+        HaskellCompileRule rule =
+            graphBuilder.addToIndex(
+                HaskellCompileRule.from(
+                    target.withAppendedFlavors(getModuleFlavor(module)),
+                    projectFilesystem,
+                    baseParams,
+                    graphBuilder,
+                    compiler,
+                    compilerFlags,
+                    platform,
+                    depType,
+                    hsProfile,
+                    Optional.empty(),
+                    packageInfo,
+                    ImmutableHaskellSources.of(
+                        ImmutableMap.of(module, sources.getModuleMap().get(module))),
+                    preprocessor,
+                    Optional.of(homeInterfaces.build())));
+        moduleRules.put(module, rule);
+        moduleInterfaces.put(module, homeInterfaces.build());
+        compileRules.add(rule);
+      }
+    } else {
+      compileRules.add(
+          graphBuilder.addToIndex(
+              createCompileRule(
+                  target.withAppendedFlavors(ALL_MODULES),
+                  projectFilesystem,
+                  baseParams,
+                  graphBuilder,
+                  deps,
+                  platform,
+                  depType,
+                  hsProfile,
+                  Optional.empty(),
+                  packageInfo,
+                  flags,
+                  sources)));
+    }
+
+    ImmutableList<HaskellCompileRule> rules = compileRules.build();
+    return new HaskellModuleCompileRules(
+        target,
+        projectFilesystem,
+        baseParams.withDeclaredDeps(ImmutableSortedSet.<BuildRule>copyOf(rules)).withoutExtraDeps(),
+        rules,
+        ImmutableMap.copyOf(readSources));
+  }
+
+  private static Flavor getModuleFlavor(HaskellSourceModule module) {
+    String name = "module-" + Flavor.replaceInvalidCharacters(module.getModuleName());
+    if (module.getSourceType() == HaskellSourceModule.SourceType.HsBootFile) {
+      name += "-boot";
+    }
+    return InternalFlavor.of(name);
+  }
+
   /**
    * Create a Haskell link rule that links the given inputs to a executable or shared library and
    * pulls in transitive native linkable deps from the given dep roots.
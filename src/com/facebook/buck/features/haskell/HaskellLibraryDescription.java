@@ -47,6 +47,7 @@ import com.facebook.buck.cxx.CxxPreprocessorInput;
 import com.facebook.buck.cxx.CxxSource;
 import com.facebook.buck.cxx.CxxSourceTypes;
 import com.facebook.buck.cxx.TransitiveCxxPreprocessorInputCache;
+import com.facebook.buck.cxx.TransitiveCxxPreprocessorInputs;
 import com.facebook.buck.cxx.config.CxxBuckConfig;
 import com.facebook.buck.cxx.toolchain.ArchiveContents;
 import com.facebook.buck.cxx.toolchain.CxxPlatform;
@@ -72,6 +73,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 import java.io.File;
 import java.nio.file.Path;
@@ -125,7 +127,7 @@ public class HaskellLibraryDescription
     return HaskellPackageInfo.of(name, "1.0.0", name);
   }
 
-  private HaskellCompileRule requireCompileRule(
+  private ImmutableList<HaskellCompileRule> requireCompileRules(
       BuildTarget buildTarget,
       ProjectFilesystem projectFilesystem,
       BuildRuleParams params,
@@ -135,7 +137,7 @@ public class HaskellLibraryDescription
       ImmutableSet<BuildRule> deps,
       Linker.LinkableDepType depType,
       boolean hsProfile) {
-    return HaskellDescriptionUtils.requireCompileRule(
+    return HaskellDescriptionUtils.requireCompileRules(
         buildTarget,
         projectFilesystem,
         params,
@@ -144,12 +146,18 @@ public class HaskellLibraryDescription
         platform,
         depType,
         hsProfile,
-        Optional.empty(),
         Optional.of(getPackageInfo(platform, buildTarget)),
         args.getCompilerFlags(),
         HaskellSources.from(buildTarget, graphBuilder, platform, "srcs", args.getSrcs()));
   }
 
+  private static ImmutableList<SourcePath> getObjects(
+      ImmutableList<HaskellCompileRule> compileRules) {
+    return compileRules.stream()
+        .flatMap(rule -> rule.getObjects().stream())
+        .collect(ImmutableList.toImmutableList());
+  }
+
   private Archive createStaticLibrary(
       BuildTarget target,
       ProjectFilesystem projectFilesystem,
@@ -160,8 +168,8 @@ public class HaskellLibraryDescription
       ImmutableSet<BuildRule> deps,
       Linker.LinkableDepType depType,
       boolean hsProfile) {
-    HaskellCompileRule compileRule =
-        requireCompileRule(
+    ImmutableList<HaskellCompileRule> compileRules =
+        requireCompileRules(
             target,
             projectFilesystem,
             baseParams,
@@ -184,7 +192,7 @@ public class HaskellLibraryDescription
         graphBuilder,
         platform.getCxxPlatform(),
         staticLibraryName,
-        compileRule.getObjects(),
+        getObjects(compileRules),
         // TODO(#20466393): Currently, GHC produces nono-deterministically sized object files.
         // This means that it's possible to get a thin archive fetched from cache originating from
         // one build and the associated object files fetched from cache originating from another, in
@@ -330,8 +338,8 @@ public class HaskellLibraryDescription
 
     ImmutableSortedMap<String, HaskellPackage> depPackages = depPackagesBuilder.build();
 
-    HaskellCompileRule compileRule =
-        requireCompileRule(
+    ImmutableList<HaskellCompileRule> compileRules =
+        requireCompileRules(
             target,
             projectFilesystem,
             baseParams,
@@ -341,13 +349,17 @@ public class HaskellLibraryDescription
             deps,
             depType,
             hsProfile);
-    ImmutableSortedSet<SourcePath> interfaces = ImmutableSortedSet.of(compileRule.getInterfaces());
-    ImmutableSortedSet<SourcePath> objects = ImmutableSortedSet.of(compileRule.getObjectsDir());
+    ImmutableSortedSet.Builder<SourcePath> interfaces = ImmutableSortedSet.naturalOrder();
+    ImmutableSortedSet.Builder<SourcePath> objects = ImmutableSortedSet.naturalOrder();
+    for (HaskellCompileRule compileRule : compileRules) {
+      interfaces.add(compileRule.getInterfaces());
+      objects.add(compileRule.getObjectsDir());
+    }
 
     // TODO: exclude vanilla library from profiling library
     if (hsProfile) {
-      HaskellCompileRule vanillaCompileRule =
-          requireCompileRule(
+      ImmutableList<HaskellCompileRule> vanillaCompileRules =
+          requireCompileRules(
               target,
               projectFilesystem,
               baseParams,
@@ -357,10 +369,10 @@ public class HaskellLibraryDescription
               deps,
               Linker.LinkableDepType.STATIC,
               false);
-      interfaces =
-          ImmutableSortedSet.of(compileRule.getInterfaces(), vanillaCompileRule.getInterfaces());
-      objects =
-          ImmutableSortedSet.of(compileRule.getObjectsDir(), vanillaCompileRule.getObjectsDir());
+      for (HaskellCompileRule vanillaCompileRule : vanillaCompileRules) {
+        interfaces.add(vanillaCompileRule.getInterfaces());
+        objects.add(vanillaCompileRule.getObjectsDir());
+      }
     }
 
     return HaskellPackageRule.from(
@@ -373,10 +385,12 @@ public class HaskellLibraryDescription
         depType,
         getPackageInfo(platform, target),
         depPackages,
-        compileRule.getModules(),
+        compileRules.stream()
+            .flatMap(rule -> rule.getModules().stream())
+            .collect(ImmutableSortedSet.toImmutableSortedSet(Ordering.natural())),
         libraries,
-        interfaces,
-        objects);
+        interfaces.build(),
+        objects.build());
   }
 
   private HaskellPackageRule requirePackage(
@@ -479,8 +493,8 @@ public class HaskellLibraryDescription
       HaskellLibraryDescriptionArg args,
       ImmutableSet<BuildRule> deps,
       boolean hsProfile) {
-    HaskellCompileRule compileRule =
-        requireCompileRule(
+    ImmutableList<HaskellCompileRule> compileRules =
+        requireCompileRules(
             target,
             projectFilesystem,
             baseParams,
@@ -504,7 +518,7 @@ public class HaskellLibraryDescription
         platform,
         Linker.LinkType.SHARED,
         ImmutableList.of(),
-        ImmutableList.copyOf(SourcePathArg.from(compileRule.getObjects())),
+        ImmutableList.copyOf(SourcePathArg.from(getObjects(compileRules))),
         RichStream.from(deps).filter(NativeLinkableGroup.class).toImmutableList(),
         ImmutableSet.of(),
         Linker.LinkableDepType.SHARED,
@@ -713,8 +727,8 @@ public class HaskellLibraryDescription
         Optional<Linker.LinkableDepType> depType =
             platforms.getValue(cxxPlatform.getFlavor()).getLinkStyleForStubHeader();
         if (depType.isPresent()) {
-          HaskellCompileRule compileRule =
-              requireCompileRule(
+          ImmutableList<HaskellCompileRule> compileRules =
+              requireCompileRules(
                   buildTarget,
                   projectFilesystem,
                   params,
@@ -724,8 +738,10 @@ public class HaskellLibraryDescription
                   allDeps.get(graphBuilder, cxxPlatform),
                   depType.get(),
                   args.isEnableProfiling());
-          builder.addIncludes(
-              CxxHeadersDir.of(CxxPreprocessables.IncludeType.SYSTEM, compileRule.getStubsDir()));
+          for (HaskellCompileRule compileRule : compileRules) {
+            builder.addIncludes(
+                CxxHeadersDir.of(CxxPreprocessables.IncludeType.SYSTEM, compileRule.getStubsDir()));
+          }
         }
 
         return builder.build();
@@ -745,6 +761,12 @@ public class HaskellLibraryDescription
         return transitiveCxxPreprocessorInputCache.getUnchecked(cxxPlatform, graphBuilder);
       }
 
+      @Override
+      public TransitiveCxxPreprocessorInputs getTransitiveCxxPreprocessorInputs(
+          CxxPlatform cxxPlatform, ActionGraphBuilder graphBuilder) {
+        return transitiveCxxPreprocessorInputCache.getInputsUnchecked(cxxPlatform, graphBuilder);
+      }
+
       @Override
       public Iterable<? extends NativeLinkableGroup> getNativeLinkableDeps(
           BuildRuleResolver ruleResolver) {
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.features.haskell;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.rules.BuildRuleParams;
+import com.facebook.buck.core.rules.attr.ConstructedFromFileContents;
+import com.facebook.buck.core.rules.impl.NoopBuildRuleWithDeclaredAndExtraDeps;
+import com.facebook.buck.core.sourcepath.PathSourcePath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Groups the {@link HaskellCompileRule}s compiling the sources of a library one module at a time,
+ * so that they are only created once and can be built together.
+ *
+ * <p>Which rules there are depends on the imports of the sources, so a cached action graph holding
+ * these rules is only reused while the sources read to find them are unchanged.
+ */
+class HaskellModuleCompileRules extends NoopBuildRuleWithDeclaredAndExtraDeps
+    implements ConstructedFromFileContents {
+
+  private final ImmutableList<HaskellCompileRule> compileRules;
+  private final ImmutableMap<PathSourcePath, Optional<HashCode>> readSources;
+
+  HaskellModuleCompileRules(
+      BuildTarget buildTarget,
+      ProjectFilesystem projectFilesystem,
+      BuildRuleParams params,
+      ImmutableList<HaskellCompileRule> compileRules,
+      ImmutableMap<PathSourcePath, Optional<HashCode>> readSources) {
+    super(buildTarget, projectFilesystem, params);
+    this.compileRules = compileRules;
+    this.readSources = readSources;
+  }
+
+  ImmutableList<HaskellCompileRule> getCompileRules() {
+    return compileRules;
+  }
+
+  @Override
+  public boolean areConstructionInputsUnchanged() {
+    for (Map.Entry<PathSourcePath, Optional<HashCode>> ent : readSources.entrySet()) {
+      if (!HaskellModuleGraph.hashContents(ent.getKey()).equals(ent.getValue())) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
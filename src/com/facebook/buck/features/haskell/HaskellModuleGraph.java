@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.features.haskell;
+
+import com.facebook.buck.core.sourcepath.PathSourcePath;
+import com.facebook.buck.core.sourcepath.SourcePath;
+import com.facebook.buck.core.util.graph.MutableDirectedGraph;
+import com.facebook.buck.core.util.graph.TopologicalSort;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The import graph between the modules of a set of {@link HaskellSources}, read from the sources
+ * themselves, which allows compiling every module with its own rule.
+ *
+ * <p>Imports are found without preprocessing the sources, so imports in all branches of CPP
+ * conditionals are included. This only ever adds edges, which is safe unless they form a cycle, in
+ * which case there is no module graph and the sources have to be compiled together.
+ *
+ * <p>The graph is read while the action graph is built, so rules created from it have to be
+ * recreated when the sources change. The hashes of the sources read are recorded for this, see
+ * {@link #hashContents}.
+ */
+class HaskellModuleGraph {
+
+  private HaskellModuleGraph() {}
+
+  // An import declaration starts a line when the module uses layout, but may span several lines.
+  private static final Pattern IMPORT =
+      Pattern.compile(
+          "^[ \\t]*import\\s+(\\{-#\\s*SOURCE\\s*#-\\}\\s*)?(?:safe\\s+)?(?:qualified\\s+)?"
+              + "(?:\"[^\"]*\"\\s+)?([A-Z][\\w']*(?:\\.[A-Z][\\w']*)*)",
+          Pattern.MULTILINE);
+
+  // Splices run code from home modules while compiling, which needs their objects as well as their
+  // interfaces, in the same places they are found when compiling all modules together.
+  private static final Pattern COMPILE_TIME_CODE = Pattern.compile("TemplateHaskell|QuasiQuotes");
+
+  private static final String SYMBOL_CHARACTERS = "!#$%&*+./<=>?@\\^|-~:";
+
+  /**
+   * @param readSources receives the hash of every source read
+   * @return the home modules imported by each module, in dependency order, or nothing if the
+   *     sources can't be compiled separately.
+   */
+  public static Optional<ImmutableMap<HaskellSourceModule, ImmutableSortedSet<HaskellSourceModule>>>
+      from(
+          HaskellSources sources,
+          Iterable<String> compilerFlags,
+          Map<PathSourcePath, Optional<HashCode>> readSources) {
+    for (String flag : compilerFlags) {
+      if (COMPILE_TIME_CODE.matcher(flag).find()) {
+        return Optional.empty();
+      }
+    }
+
+    MutableDirectedGraph<HaskellSourceModule> graph = new MutableDirectedGraph<>();
+    for (Map.Entry<HaskellSourceModule, SourcePath> ent : sources.getModuleMap().entrySet()) {
+      HaskellSourceModule module = ent.getKey();
+      // Generated sources don't exist yet, so their imports are unknown.
+      if (!(ent.getValue() instanceof PathSourcePath)) {
+        return Optional.empty();
+      }
+      PathSourcePath path = (PathSourcePath) ent.getValue();
+      String name = path.getRelativePath().getFileName().toString();
+      Optional<String> contents = path.getFilesystem().readFileIfItExists(path.getRelativePath());
+      readSources.put(path, contents.map(HaskellModuleGraph::hash));
+      if (!contents.isPresent() || COMPILE_TIME_CODE.matcher(contents.get()).find()) {
+        return Optional.empty();
+      }
+
+      String code;
+      if (name.endsWith(".hs") || name.endsWith(".hs-boot")) {
+        code = contents.get();
+      } else if (name.endsWith(".lhs") || name.endsWith(".lhs-boot")) {
+        code = unlit(contents.get());
+      } else {
+        return Optional.empty();
+      }
+
+      graph.addNode(module);
+      HaskellSourceModule boot =
+          ImmutableHaskellSourceModule.of(
+              module.getModuleName(), HaskellSourceModule.SourceType.HsBootFile);
+      if (module.getSourceType() == HaskellSourceModule.SourceType.HsSrcFile
+          && sources.getModuleMap().containsKey(boot)) {
+        // The module is checked against its boot interface.
+        graph.addEdge(module, boot);
+      }
+      for (HaskellSourceModule imported : parseImports(code)) {
+        if (imported.getSourceType() == HaskellSourceModule.SourceType.HsBootFile
+            && !sources.getModuleMap().containsKey(imported)) {
+          imported =
+              ImmutableHaskellSourceModule.of(
+                  imported.getModuleName(), HaskellSourceModule.SourceType.HsSrcFile);
+        }
+        // Anything else comes from a package.
+        if (sources.getModuleMap().containsKey(imported) && !imported.equals(module)) {
+          graph.addEdge(module, imported);
+        }
+      }
+    }
+
+    if (!graph.isAcyclic()) {
+      return Optional.empty();
+    }
+
+    ImmutableMap.Builder<HaskellSourceModule, ImmutableSortedSet<HaskellSourceModule>> modules =
+        ImmutableMap.builder();
+    for (HaskellSourceModule module : TopologicalSort.sort(graph)) {
+      modules.put(module, ImmutableSortedSet.copyOf(graph.getOutgoingNodesFor(module)));
+    }
+    return Optional.of(modules.build());
+  }
+
+  /** @return the hash of the contents of the given source, or nothing if it doesn't exist. */
+  static Optional<HashCode> hashContents(PathSourcePath path) {
+    return path.getFilesystem()
+        .readFileIfItExists(path.getRelativePath())
+        .map(HaskellModuleGraph::hash);
+  }
+
+  private static HashCode hash(String contents) {
+    return Hashing.sha1().hashString(contents, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @return the modules imported by the given source, as boot modules for {-# SOURCE #-} imports.
+   */
+  @VisibleForTesting
+  static ImmutableList<HaskellSourceModule> parseImports(String code) {
+    ImmutableList.Builder<HaskellSourceModule> imports = ImmutableList.builder();
+    Matcher matcher = IMPORT.matcher(stripComments(code));
+    while (matcher.find()) {
+      imports.add(
+          ImmutableHaskellSourceModule.of(
+              matcher.group(2),
+              matcher.group(1) == null
+                  ? HaskellSourceModule.SourceType.HsSrcFile
+                  : HaskellSourceModule.SourceType.HsBootFile));
+    }
+    return imports.build();
+  }
+
+  /**
+   * Blanks out comments, keeping line breaks so that declarations still start lines. Pragmas are
+   * kept, as {-# SOURCE #-} is part of an import.
+   */
+  private static String stripComments(String code) {
+    StringBuilder builder = new StringBuilder(code);
+    int depth = 0;
+    int i = 0;
+    while (i < code.length()) {
+      char c = code.charAt(i);
+      if (depth > 0) {
+        if (code.startsWith("{-", i)) {
+          depth++;
+          blank(builder, i, i + 2);
+          i += 2;
+        } else if (code.startsWith("-}", i)) {
+          depth--;
+          blank(builder, i, i + 2);
+          i += 2;
+        } else {
+          blank(builder, i, i + 1);
+          i++;
+        }
+      } else if (code.startsWith("{-#", i)) {
+        int end = code.indexOf("#-}", i + 3);
+        i = end < 0 ? code.length() : end + 3;
+      } else if (code.startsWith("{-", i)) {
+        depth++;
+        blank(builder, i, i + 2);
+        i += 2;
+      } else if (code.startsWith("--", i) && isLineComment(code, i)) {
+        int end = code.indexOf('\n', i);
+        end = end < 0 ? code.length() : end;
+        blank(builder, i, end);
+        i = end;
+      } else if (c == '"') {
+        i = skipString(code, i + 1);
+      } else if (c == '\'' && i + 2 < code.length() && code.charAt(i + 2) == '\'') {
+        // A character literal such as '"', rather than a primed identifier.
+        i += 3;
+      } else {
+        i++;
+      }
+    }
+    return builder.toString();
+  }
+
+  /** Dashes only start a comment if they aren't part of an operator such as --> or |--. */
+  private static boolean isLineComment(String code, int start) {
+    if (start > 0 && SYMBOL_CHARACTERS.indexOf(code.charAt(start - 1)) >= 0) {
+      return false;
+    }
+    int end = start;
+    while (end < code.length() && code.charAt(end) == '-') {
+      end++;
+    }
+    return end == code.length() || SYMBOL_CHARACTERS.indexOf(code.charAt(end)) < 0;
+  }
+
+  private static int skipString(String code, int i) {
+    while (i < code.length()) {
+      char c = code.charAt(i);
+      if (c == '\\') {
+        i += 2;
+      } else if (c == '"' || c == '\n') {
+        return i + 1;
+      } else {
+        i++;
+      }
+    }
+    return i;
+  }
+
+  private static void blank(StringBuilder builder, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (builder.charAt(i) != '\n') {
+        builder.setCharAt(i, ' ');
+      }
+    }
+  }
+
+  /** @return the code of a literate source, in either bird or LaTeX style. */
+  @VisibleForTesting
+  static String unlit(String literate) {
+    boolean latex = literate.contains("\\begin{code}");
+    boolean inCode = false;
+    StringBuilder code = new StringBuilder();
+    for (String line : literate.split("\n", -1)) {
+      if (latex) {
+        if (line.startsWith("\\begin{code}")) {
+          inCode = true;
+        } else if (line.startsWith("\\end{code}")) {
+          inCode = false;
+        } else if (inCode) {
+          code.append(line);
+        }
+      } else if (line.startsWith(">")) {
+        code.append(' ').append(line, 1, line.length());
+      }
+      code.append('\n');
+    }
+    return code.toString();
+  }
+}
@@ -66,6 +66,9 @@ abstract class HaskellPlatform implements FlavorConvertible {
   /** @return whether to use @argsfile to pass arguments to the tools. */
   abstract boolean shouldUseArgsfile();
 
+  /** @return whether to compile each module of a library with its own rule. */
+  abstract boolean shouldCompilePerModule();
+
   /** @return whether to use the deprecated binary output location. */
   abstract Optional<Boolean> shouldUsedOldBinaryOutputLocation();
 
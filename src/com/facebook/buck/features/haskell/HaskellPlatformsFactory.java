@@ -55,6 +55,7 @@ public class HaskellPlatformsFactory {
         .setHaddock(getHaddock(section))
         .setShouldCacheLinks(haskellBuckConfig.getShouldCacheLinks(section))
         .setShouldUseArgsfile(haskellBuckConfig.getShouldUseArgsfile(section))
+        .setShouldCompilePerModule(haskellBuckConfig.getShouldCompilePerModule(section))
         .setShouldUsedOldBinaryOutputLocation(
             haskellBuckConfig.getShouldUsedOldBinaryOutputLocation(section))
         .setSupportExposePackage(haskellBuckConfig.getSupportExposePackage(section))
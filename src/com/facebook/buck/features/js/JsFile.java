@@ -34,6 +34,7 @@ import com.facebook.buck.rules.modern.ModernBuildRule;
 import com.facebook.buck.rules.modern.OutputPath;
 import com.facebook.buck.rules.modern.OutputPathResolver;
 import com.facebook.buck.rules.modern.PublicOutputPath;
+import com.facebook.buck.shell.WorkerShellStep;
 import com.facebook.buck.shell.WorkerTool;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.util.json.JsonBuilder;
@@ -59,6 +60,8 @@ public class JsFile<T extends AbstractImpl> extends ModernBuildRule<T> {
   /** Internal JsFile specific abstract class with general implementation for Buildable interface */
   abstract static class AbstractImpl implements Buildable {
 
+    private static final String CACHE_DIR = "js_transform";
+
     @AddToRuleKey private final BuildTarget buildTarget;
     @AddToRuleKey private final Optional<Arg> extraJson;
     @AddToRuleKey private final WorkerTool workerTool;
@@ -85,21 +88,43 @@ public class JsFile<T extends AbstractImpl> extends ModernBuildRule<T> {
         BuildCellRelativePathFactory buildCellPathFactory) {
 
       SourcePathResolverAdapter sourcePathResolverAdapter = buildContext.getSourcePathResolver();
-      String outputPath = filesystem.resolve(outputPathResolver.resolvePath(output)).toString();
+      Path outputPath = filesystem.resolve(outputPathResolver.resolvePath(output));
 
-      return ImmutableList.of(
+      WorkerShellStep transform =
           JsUtil.jsonWorkerShellStepAddingFlavors(
               workerTool,
-              getJobArgs(sourcePathResolverAdapter, outputPath)
+              getJobArgs(sourcePathResolverAdapter, outputPath.toString())
                   .addRaw("extraData", getExtraJson(sourcePathResolverAdapter)),
               buildTarget,
               sourcePathResolverAdapter,
-              filesystem));
+              filesystem);
+      return ImmutableList.of(
+          new JsTransformCacheStep(
+              filesystem.resolve(filesystem.getBuckPaths().getCacheDir().resolve(CACHE_DIR)),
+              () -> JsTransformCacheStep.getWorkerKey(workerTool, sourcePathResolverAdapter),
+              JsUtil.jobArgsAddingFlavors(
+                  getCacheKeyJobArgs(sourcePathResolverAdapter)
+                      .addRaw("extraData", getExtraJson(sourcePathResolverAdapter)),
+                  buildTarget),
+              getInputPath(sourcePathResolverAdapter),
+              outputPath,
+              transform));
     }
 
     abstract ObjectBuilder getJobArgs(
         SourcePathResolverAdapter sourcePathResolverAdapter, String outputPath);
 
+    /**
+     * @return the job args the cached result of the job is looked up by. They leave out where the
+     *     result is written, which is different for every rule.
+     */
+    ObjectBuilder getCacheKeyJobArgs(SourcePathResolverAdapter sourcePathResolverAdapter) {
+      return getJobArgs(sourcePathResolverAdapter, "");
+    }
+
+    /** @return the absolute path of the file the worker job reads. */
+    abstract Path getInputPath(SourcePathResolverAdapter sourcePathResolverAdapter);
+
     @Nullable
     abstract BuildTarget getSourceBuildTarget(SourcePathRuleFinder ruleFinder);
 
@@ -158,11 +183,10 @@ public class JsFile<T extends AbstractImpl> extends ModernBuildRule<T> {
     @Override
     ObjectBuilder getJobArgs(
         SourcePathResolverAdapter sourcePathResolverAdapter, String outputPath) {
-      Path srcPath = sourcePathResolverAdapter.getAbsolutePath(src);
       return JsonBuilder.object()
           .addString("command", "transform")
           .addString("outputFilePath", outputPath)
-          .addString("sourceJsFilePath", subPath.map(srcPath::resolve).orElse(srcPath).toString())
+          .addString("sourceJsFilePath", getInputPath(sourcePathResolverAdapter).toString())
           .addString(
               "sourceJsFileName",
               virtualPath.orElseGet(
@@ -171,6 +195,12 @@ public class JsFile<T extends AbstractImpl> extends ModernBuildRule<T> {
                           sourcePathResolverAdapter.getRelativePath(src))));
     }
 
+    @Override
+    Path getInputPath(SourcePathResolverAdapter sourcePathResolverAdapter) {
+      Path srcPath = sourcePathResolverAdapter.getAbsolutePath(src);
+      return subPath.map(srcPath::resolve).orElse(srcPath);
+    }
+
     @Nullable
     @Override
     BuildTarget getSourceBuildTarget(SourcePathRuleFinder ruleFinder) {
@@ -226,12 +256,29 @@ public class JsFile<T extends AbstractImpl> extends ModernBuildRule<T> {
     @Override
     ObjectBuilder getJobArgs(
         SourcePathResolverAdapter sourcePathResolverAdapter, String outputPath) {
+      return getOptimizeJobArgs(outputPath)
+          .addString(
+              "transformedJsFilePath", getInputPath(sourcePathResolverAdapter).toString());
+    }
+
+    /**
+     * Optimizing only depends on the contents of the transformed file, which the cache hashes, so
+     * its path is left out and rules optimizing the same code share the result.
+     */
+    @Override
+    ObjectBuilder getCacheKeyJobArgs(SourcePathResolverAdapter sourcePathResolverAdapter) {
+      return getOptimizeJobArgs("");
+    }
+
+    private static ObjectBuilder getOptimizeJobArgs(String outputPath) {
       return JsonBuilder.object()
           .addString("command", "optimize")
-          .addString("outputFilePath", outputPath)
-          .addString(
-              "transformedJsFilePath",
-              sourcePathResolverAdapter.getAbsolutePath(devFile).toString());
+          .addString("outputFilePath", outputPath);
+    }
+
+    @Override
+    Path getInputPath(SourcePathResolverAdapter sourcePathResolverAdapter) {
+      return sourcePathResolverAdapter.getAbsolutePath(devFile);
     }
 
     @Override
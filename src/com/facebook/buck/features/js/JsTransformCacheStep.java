@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.features.js;
+
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.core.rules.common.BuildableSupport;
+import com.facebook.buck.core.sourcepath.resolver.SourcePathResolverAdapter;
+import com.facebook.buck.core.toolchain.tool.Tool;
+import com.facebook.buck.shell.WorkerTool;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.step.StepExecutionResults;
+import com.facebook.buck.util.CacheDirectoryTrimmer;
+import com.facebook.buck.util.function.ThrowingSupplier;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+
+/**
+ * Runs a per-file JS worker job through a content-addressed cache shared by all JS file rules.
+ *
+ * <p>The result of a job only depends on the worker, its arguments other than where the result is
+ * written, and the contents of its input file. Rules doing identical jobs, e.g. for the same source
+ * in different libraries or under flavors the worker doesn't see, copy the result of the first one
+ * instead of running the worker again.
+ *
+ * <p>Workers are identified by a hash of their command, environment and input files, so entries
+ * stay valid across daemon restarts until the worker itself changes. The least recently used
+ * entries are deleted once the cache grows over {@link #MAX_CACHE_SIZE_BYTES}.
+ */
+class JsTransformCacheStep implements Step {
+
+  // Bump to invalidate all entries of existing caches.
+  private static final String CACHE_VERSION = "2";
+
+  private static final String TMP_SUFFIX = ".tmp";
+
+  @VisibleForTesting static final long MAX_CACHE_SIZE_BYTES = 1024L * 1024 * 1024;
+
+  // Hashing a worker reads all of its files, so it's done once per worker instance. Instances are
+  // recreated whenever the worker tool rule is built, so a changed worker is always rehashed.
+  private static final Cache<HashCode, HashCode> workerKeysByInstanceKey =
+      CacheBuilder.newBuilder().maximumSize(16).build();
+
+  private final Path cacheDir;
+  private final ThrowingSupplier<HashCode, IOException> workerKey;
+  private final String jobArgs;
+  private final Path input;
+  private final Path output;
+  private final Step transform;
+  private final CacheDirectoryTrimmer trimmer;
+
+  /**
+   * @param cacheDir absolute path of the directory holding cache entries
+   * @param workerKey supplies the hash identifying the worker, see {@link #getWorkerKey}
+   * @param jobArgs the job args sent to the worker, with a constant output path, and without the
+   *     input path where the result doesn't depend on it
+   * @param input absolute path of the file transformed by the job
+   * @param output absolute path of the file the job writes
+   * @param transform the step running the job
+   */
+  JsTransformCacheStep(
+      Path cacheDir,
+      ThrowingSupplier<HashCode, IOException> workerKey,
+      String jobArgs,
+      Path input,
+      Path output,
+      Step transform) {
+    this(cacheDir, workerKey, jobArgs, input, output, transform, MAX_CACHE_SIZE_BYTES);
+  }
+
+  @VisibleForTesting
+  JsTransformCacheStep(
+      Path cacheDir,
+      ThrowingSupplier<HashCode, IOException> workerKey,
+      String jobArgs,
+      Path input,
+      Path output,
+      Step transform,
+      long maxCacheSizeBytes) {
+    this.cacheDir = cacheDir;
+    this.workerKey = workerKey;
+    this.jobArgs = jobArgs;
+    this.input = input;
+    this.output = output;
+    this.transform = transform;
+    this.trimmer =
+        new CacheDirectoryTrimmer(
+            cacheDir, maxCacheSizeBytes, path -> !path.toString().endsWith(TMP_SUFFIX));
+  }
+
+  /**
+   * Returns the hash identifying what a worker does: its command, environment and the contents of
+   * its input files. Unlike the worker's instance key, it is stable across daemon restarts.
+   */
+  static HashCode getWorkerKey(
+      WorkerTool workerTool, SourcePathResolverAdapter sourcePathResolverAdapter)
+      throws IOException {
+    try {
+      return workerKeysByInstanceKey.get(
+          workerTool.getInstanceKey(),
+          () -> hashWorkerTool(workerTool.getTool(), sourcePathResolverAdapter));
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  @VisibleForTesting
+  static HashCode hashWorkerTool(Tool tool, SourcePathResolverAdapter sourcePathResolverAdapter)
+      throws IOException {
+    Hasher hasher = Hashing.sha1().newHasher();
+    for (String arg : tool.getCommandPrefix(sourcePathResolverAdapter)) {
+      hasher.putString(arg, Charsets.UTF_8).putByte((byte) 0);
+    }
+    for (Map.Entry<String, String> entry :
+        tool.getEnvironment(sourcePathResolverAdapter).entrySet()) {
+      hasher.putString(entry.getKey(), Charsets.UTF_8).putByte((byte) 0);
+      hasher.putString(entry.getValue(), Charsets.UTF_8).putByte((byte) 0);
+    }
+    ImmutableSortedSet<Path> inputs =
+        BuildableSupport.deriveInputs(tool)
+            .map(sourcePathResolverAdapter::getAbsolutePath)
+            .collect(ImmutableSortedSet.toImmutableSortedSet(Path::compareTo));
+    for (Path input : inputs) {
+      ImmutableList<Path> files;
+      try (Stream<Path> paths = Files.walk(input)) {
+        files =
+            paths
+                .filter(Files::isRegularFile)
+                .sorted()
+                .collect(ImmutableList.toImmutableList());
+      }
+      for (Path file : files) {
+        hasher.putString(file.toString(), Charsets.UTF_8).putByte((byte) 0);
+        hasher.putBytes(MoreFiles.asByteSource(file).hash(Hashing.sha1()).asBytes());
+      }
+    }
+    return hasher.hash();
+  }
+
+  @Override
+  public StepExecutionResult execute(ExecutionContext context)
+      throws IOException, InterruptedException {
+    // Jobs over directories, or over inputs the worker creates itself, aren't cached.
+    if (!Files.isRegularFile(input)) {
+      return transform.execute(context);
+    }
+
+    Path cached = getCachePath();
+    if (Files.isRegularFile(cached)) {
+      Files.createDirectories(output.getParent());
+      try {
+        Files.copy(cached, output, StandardCopyOption.REPLACE_EXISTING);
+        CacheDirectoryTrimmer.touch(cached);
+        return StepExecutionResults.SUCCESS;
+      } catch (NoSuchFileException e) {
+        // The entry was trimmed concurrently.
+      }
+    }
+
+    StepExecutionResult result = transform.execute(context);
+    if (result.isSuccess() && Files.isRegularFile(output)) {
+      store(cached);
+    }
+    return result;
+  }
+
+  private Path getCachePath() throws IOException {
+    String key =
+        Hashing.sha1()
+            .newHasher()
+            .putString(CACHE_VERSION, Charsets.UTF_8)
+            .putByte((byte) 0)
+            .putBytes(workerKey.get().asBytes())
+            .putString(jobArgs, Charsets.UTF_8)
+            .putByte((byte) 0)
+            .putBytes(MoreFiles.asByteSource(input).hash(Hashing.sha1()).asBytes())
+            .hash()
+            .toString();
+    return cacheDir.resolve(key.substring(0, 2)).resolve(key.substring(2));
+  }
+
+  /** Entries are written under a temporary name, so concurrent jobs never see partial ones. */
+  private void store(Path cached) throws IOException {
+    Files.createDirectories(cached.getParent());
+    Path tmp =
+        Files.createTempFile(cached.getParent(), cached.getFileName().toString(), TMP_SUFFIX);
+    try {
+      Files.copy(output, tmp, StandardCopyOption.REPLACE_EXISTING);
+      Files.move(tmp, cached, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+
+    trimmer.recordStored(Files.size(cached));
+  }
+
+  @Override
+  public String getShortName() {
+    return transform.getShortName();
+  }
+
+  @Override
+  public String getDescription(ExecutionContext context) {
+    return transform.getDescription(context);
+  }
+}
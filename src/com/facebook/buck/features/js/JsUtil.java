@@ -94,15 +94,7 @@ public class JsUtil {
       BuildTarget buildTarget,
       SourcePathResolverAdapter pathResolver,
       ProjectFilesystem filesystem) {
-    String jobArgsString =
-        jobArgs
-            .addArray(
-                "flavors",
-                buildTarget.getFlavors().getSet().stream()
-                    .filter(JsFlavors::shouldBePassedToWorker)
-                    .map(Flavor::getName)
-                    .collect(JsonBuilder.toArrayOfStrings()))
-            .toString();
+    String jobArgsString = jobArgsAddingFlavors(jobArgs, buildTarget);
     Tool tool = worker.getTool();
     WorkerJobParams params =
         WorkerJobParams.of(
@@ -124,6 +116,18 @@ public class JsUtil {
         new WorkerProcessPoolFactory(filesystem));
   }
 
+  /** @return the job args passed to workers, with the flavors of {@code buildTarget} added. */
+  static String jobArgsAddingFlavors(ObjectBuilder jobArgs, BuildTarget buildTarget) {
+    return jobArgs
+        .addArray(
+            "flavors",
+            buildTarget.getFlavors().getSet().stream()
+                .filter(JsFlavors::shouldBePassedToWorker)
+                .map(Flavor::getName)
+                .collect(JsonBuilder.toArrayOfStrings()))
+        .toString();
+  }
+
   static boolean isJsLibraryTarget(BuildTarget target, TargetGraph targetGraph) {
     return targetGraph.get(target).getDescription() instanceof JsLibraryDescription;
   }
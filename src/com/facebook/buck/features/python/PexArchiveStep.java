@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.features.python;
+
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.file.MostFiles;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.pathformat.PathFormatter;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.step.StepExecutionResults;
+import com.facebook.buck.util.json.ObjectMappers;
+import com.facebook.buck.util.zip.ParallelZipAssembler;
+import com.facebook.buck.util.zip.ZipCompressionLevel;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Packages the components of a Python binary into a PEX without running the PEX builder over them.
+ *
+ * <p>The builder is only run to create a bootstrap PEX, holding the shebang, {@code __main__.py},
+ * {@code PEX-INFO} and the PEX runtime, from which this step copies everything but the components.
+ * Components are compressed in parallel, and the ones which are unchanged since the previous build
+ * of the PEX are copied from it instead.
+ */
+class PexArchiveStep implements Step {
+
+  private static final Logger LOG = Logger.get(PexArchiveStep.class);
+
+  static final String PEX_INFO = "PEX-INFO";
+
+  // Same contents as the `__init__.py` files the PEX builder adds to packages without one.
+  private static final byte[] NAMESPACE_INIT_PY =
+      "__import__('pkg_resources').declare_namespace(__name__)".getBytes(Charsets.UTF_8);
+
+  private final ProjectFilesystem filesystem;
+  private final Path bootstrap;
+  private final PythonResolvedPackageComponents components;
+  private final Path destination;
+  private final Path scratchDir;
+
+  PexArchiveStep(
+      ProjectFilesystem filesystem,
+      Path bootstrap,
+      PythonResolvedPackageComponents components,
+      Path destination,
+      Path scratchDir) {
+    this.filesystem = filesystem;
+    this.bootstrap = bootstrap;
+    this.components = components;
+    this.destination = destination;
+    this.scratchDir = scratchDir;
+  }
+
+  @Override
+  public StepExecutionResult execute(ExecutionContext context)
+      throws IOException, InterruptedException {
+    Path output = filesystem.resolve(destination);
+    Path bootstrapPex = filesystem.resolve(bootstrap);
+
+    // The previous PEX is moved out of the way, as it's read while the new one is written.
+    Optional<Path> previous = Optional.empty();
+    if (Files.isDirectory(output, LinkOption.NOFOLLOW_LINKS)) {
+      MostFiles.deleteRecursively(output);
+    } else if (Files.exists(output, LinkOption.NOFOLLOW_LINKS)) {
+      Path moved = filesystem.resolve(scratchDir).resolve("previous.pex");
+      Files.move(output, moved, StandardCopyOption.REPLACE_EXISTING);
+      previous = Optional.of(moved);
+    }
+
+    SortedMap<String, Optional<Path>> entries = getEntries();
+
+    ListeningExecutorService executor = context.getStepTaskExecutor();
+    ParallelZipAssembler assembler = new ParallelZipAssembler(executor);
+    assembler.setPreamble(ParallelZipAssembler.readPreamble(bootstrapPex));
+    if (previous.isPresent()) {
+      try {
+        assembler.reuseEntriesFrom(previous.get());
+      } catch (IOException e) {
+        LOG.debug(e, "Not reusing entries from %s", previous.get());
+      }
+    }
+    assembler.addEntriesFromZip(bootstrapPex, name -> !name.equals(PEX_INFO), ImmutableMap.of());
+    assembler.addBytes(
+        PEX_INFO,
+        getPexInfo(bootstrapPex, computeCodeHash(executor, entries)),
+        ZipCompressionLevel.DEFAULT);
+    for (Map.Entry<String, Optional<Path>> entry : entries.entrySet()) {
+      if (entry.getValue().isPresent()) {
+        assembler.addFile(entry.getKey(), entry.getValue().get(), ZipCompressionLevel.DEFAULT);
+      } else {
+        assembler.addBytes(entry.getKey(), NAMESPACE_INIT_PY, ZipCompressionLevel.DEFAULT);
+      }
+    }
+    assembler.writeTo(output);
+
+    if (previous.isPresent()) {
+      Files.delete(previous.get());
+    }
+    MostFiles.makeExecutable(output);
+    return StepExecutionResults.SUCCESS;
+  }
+
+  /**
+   * @return the sources of all files to add to the PEX, keyed and sorted by name. Packages without
+   *     an {@code __init__.py} get a generated one, which has no source.
+   */
+  private SortedMap<String, Optional<Path>> getEntries() throws IOException {
+    SortedMap<String, Optional<Path>> entries = new TreeMap<>();
+    List<String> modules = new ArrayList<>();
+    components.forEachModule(
+        (dest, src) -> {
+          String name = PathFormatter.pathWithUnixSeparators(dest);
+          modules.add(name);
+          entries.put(name, Optional.of(src));
+        });
+    for (String module : modules) {
+      for (int slash = module.indexOf('/'); slash >= 0; slash = module.indexOf('/', slash + 1)) {
+        entries.putIfAbsent(module.substring(0, slash + 1) + PythonUtil.INIT_PY, Optional.empty());
+      }
+    }
+    components.forEachResource(
+        (dest, src) -> entries.put(PathFormatter.pathWithUnixSeparators(dest), Optional.of(src)));
+    components.forEachNativeLibrary(
+        (dest, src) -> entries.put(PathFormatter.pathWithUnixSeparators(dest), Optional.of(src)));
+    return entries;
+  }
+
+  /** Hashes the names and contents of all entries, like the PEX builder does for its code hash. */
+  private static String computeCodeHash(
+      ListeningExecutorService executor, SortedMap<String, Optional<Path>> entries)
+      throws IOException, InterruptedException {
+    List<ListenableFuture<HashCode>> hashes = new ArrayList<>(entries.size());
+    for (Optional<Path> source : entries.values()) {
+      hashes.add(
+          executor.submit(
+              () ->
+                  source.isPresent()
+                      ? MoreFiles.asByteSource(source.get()).hash(Hashing.sha1())
+                      : Hashing.sha1().hashBytes(NAMESPACE_INIT_PY)));
+    }
+    ListenableFuture<List<HashCode>> allHashes = Futures.allAsList(hashes);
+    List<HashCode> results;
+    try {
+      results = allHashes.get();
+    } catch (InterruptedException e) {
+      // The executor is shared, so the remaining tasks have to be stopped here.
+      allHashes.cancel(true);
+      throw e;
+    } catch (ExecutionException e) {
+      allHashes.cancel(true);
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new RuntimeException(e.getCause());
+    }
+
+    Hasher hasher = Hashing.sha1().newHasher();
+    int index = 0;
+    for (String name : entries.keySet()) {
+      hasher.putString(name, Charsets.UTF_8).putByte((byte) 0);
+      hasher.putBytes(results.get(index++).asBytes());
+    }
+    return hasher.hash().toString();
+  }
+
+  /** @return the bootstrap's {@code PEX-INFO}, with the code hash of the complete PEX. */
+  private static byte[] getPexInfo(Path bootstrapPex, String codeHash) throws IOException {
+    JsonNode pexInfo;
+    try (ZipFile zip = new ZipFile(bootstrapPex.toFile())) {
+      ZipEntry entry = zip.getEntry(PEX_INFO);
+      if (entry == null) {
+        throw new IOException(String.format("%s has no %s", bootstrapPex, PEX_INFO));
+      }
+      try (InputStream stream = zip.getInputStream(entry)) {
+        pexInfo = ObjectMappers.READER.readTree(stream);
+      }
+    }
+    if (!(pexInfo instanceof ObjectNode)) {
+      throw new IOException(String.format("%s: malformed %s", bootstrapPex, PEX_INFO));
+    }
+    ((ObjectNode) pexInfo).put("code_hash", codeHash);
+    return ObjectMappers.WRITER.writeValueAsBytes(pexInfo);
+  }
+
+  @Override
+  public String getShortName() {
+    return "pex_archive";
+  }
+
+  @Override
+  public String getDescription(ExecutionContext context) {
+    return String.format("package %s into %s", bootstrap, destination);
+  }
+}
@@ -117,6 +117,7 @@ public class PrebuiltPythonLibraryDescription
           context.getProjectFilesystem(),
           context.getActionGraphBuilder(),
           pythonPlatform.getValue().getEnvironment(),
+          pythonPlatform.getValue().getBytecodeCacheMaxSizeBytes(),
           PrebuiltPythonLibraryComponents.ofSources(lib.getSourcePathToOutput()),
           args.isIgnoreCompileErrors());
     }
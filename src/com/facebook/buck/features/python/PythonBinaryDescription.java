@@ -245,7 +245,8 @@ public class PythonBinaryDescription
             components,
             preloadLibraries,
             pythonBuckConfig.shouldCacheBinaries(),
-            pythonBuckConfig.legacyOutputPath());
+            pythonBuckConfig.legacyOutputPath(),
+            pythonBuckConfig.shouldPackageInProcess());
 
       default:
         throw new IllegalStateException();
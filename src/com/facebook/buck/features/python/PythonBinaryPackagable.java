@@ -106,6 +106,7 @@ abstract class PythonBinaryPackagable implements PythonPackagable {
                                   getFilesystem(),
                                   graphBuilder,
                                   pythonPlatform.getEnvironment(),
+                                  pythonPlatform.getBytecodeCacheMaxSizeBytes(),
                                   sources,
                                   false));
               return compileRule.getCompiledSources();
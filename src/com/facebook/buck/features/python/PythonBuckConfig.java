@@ -26,6 +26,7 @@ import com.facebook.buck.core.sourcepath.PathSourcePath;
 import com.facebook.buck.core.toolchain.tool.Tool;
 import com.facebook.buck.cxx.toolchain.nativelink.NativeLinkStrategy;
 import com.facebook.buck.rules.tool.config.ToolConfig;
+import com.facebook.buck.util.unit.SizeUnit;
 import com.google.common.collect.ImmutableList;
 import java.nio.file.Path;
 import java.util.Optional;
@@ -41,6 +42,8 @@ public class PythonBuckConfig {
   private static final ImmutableList<String> DEFAULT_INPLACE_INTERPRETER_FLAGS =
       ImmutableList.of("-Es");
 
+  private static final long DEFAULT_BYTECODE_CACHE_MAX_SIZE_BYTES = 1024L * 1024 * 1024;
+
   private final BuckConfig delegate;
 
   public PythonBuckConfig(BuckConfig config) {
@@ -103,6 +106,29 @@ public class PythonBuckConfig {
     return delegate.getBooleanValue(SECTION, "legacy_output_path", false);
   }
 
+  /**
+   * @return whether standalone packages should be zipped by Buck, with the configured PEX tool only
+   *     building their bootstrap.
+   */
+  public boolean shouldPackageInProcess() {
+    return delegate.getBooleanValue(SECTION, "package_in_process", false);
+  }
+
+  /**
+   * @return the maximum size of the local cache of bytecode shared by compile rules, or empty if
+   *     they shouldn't use one.
+   */
+  public Optional<Long> getBytecodeCacheMaxSizeBytes() {
+    if (!delegate.getBooleanValue(SECTION, "bytecode_cache_enabled", false)) {
+      return Optional.empty();
+    }
+    return Optional.of(
+        delegate
+            .getValue(SECTION, "bytecode_cache_max_size")
+            .map(SizeUnit::parseBytes)
+            .orElse(DEFAULT_BYTECODE_CACHE_MAX_SIZE_BYTES));
+  }
+
   public PackageStyle getPackageStyle() {
     return delegate
         .getEnum(SECTION, "package_style", PackageStyle.class)
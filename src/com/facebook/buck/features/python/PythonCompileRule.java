@@ -20,25 +20,35 @@ import com.facebook.buck.core.build.context.BuildContext;
 import com.facebook.buck.core.build.execution.context.ExecutionContext;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.rulekey.AddToRuleKey;
+import com.facebook.buck.core.rulekey.ExcludeFromRuleKey;
+import com.facebook.buck.core.rulekey.IgnoredFieldInputs;
 import com.facebook.buck.core.rules.SourcePathRuleFinder;
 import com.facebook.buck.core.sourcepath.SourcePath;
 import com.facebook.buck.features.python.toolchain.PythonEnvironment;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.rules.modern.BuildCellRelativePathFactory;
 import com.facebook.buck.rules.modern.Buildable;
+import com.facebook.buck.rules.modern.CustomFieldSerialization;
 import com.facebook.buck.rules.modern.ModernBuildRule;
 import com.facebook.buck.rules.modern.OutputPath;
 import com.facebook.buck.rules.modern.OutputPathResolver;
+import com.facebook.buck.rules.modern.ValueCreator;
+import com.facebook.buck.rules.modern.ValueVisitor;
 import com.facebook.buck.step.AbstractExecutionStep;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.step.fs.MakeCleanDirectoryStep;
+import com.facebook.buck.util.CacheDirectoryTrimmer;
 import com.facebook.buck.util.ProcessExecutorParams;
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.Resources;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 /** Compile the given module sources into their respective bytecode. */
 public class PythonCompileRule extends ModernBuildRule<PythonCompileRule.Impl> {
@@ -61,10 +71,14 @@ public class PythonCompileRule extends ModernBuildRule<PythonCompileRule.Impl> {
       ProjectFilesystem filesystem,
       SourcePathRuleFinder ruleFinder,
       PythonEnvironment python,
+      Optional<Long> bytecodeCacheMaxSizeBytes,
       PythonComponents sources,
       boolean ignoreErrors) {
     return new PythonCompileRule(
-        target, filesystem, ruleFinder, new Impl(python, sources, ignoreErrors));
+        target,
+        filesystem,
+        ruleFinder,
+        new Impl(python, bytecodeCacheMaxSizeBytes, sources, ignoreErrors));
   }
 
   @Override
@@ -81,14 +95,28 @@ public class PythonCompileRule extends ModernBuildRule<PythonCompileRule.Impl> {
 
     private static final OutputPath OUTPUT = new OutputPath("py-compile");
 
+    private static final String CACHE_DIR = "py_compile";
+
     @AddToRuleKey private final PythonEnvironment python;
 
+    // The cache lives in the local buck-out, so it is left off when executing remotely.
+    @ExcludeFromRuleKey(
+        reason = "The bytecode cache only saves compilations, the output is the same without it",
+        serialization = LocalOnlySerialization.class,
+        inputs = IgnoredFieldInputs.class)
+    private final Optional<Long> bytecodeCacheMaxSizeBytes;
+
     @AddToRuleKey private final PythonComponents sources;
 
     @AddToRuleKey private final boolean ignoreErrors;
 
-    public Impl(PythonEnvironment python, PythonComponents sources, boolean ignoreErrors) {
+    public Impl(
+        PythonEnvironment python,
+        Optional<Long> bytecodeCacheMaxSizeBytes,
+        PythonComponents sources,
+        boolean ignoreErrors) {
       this.python = python;
+      this.bytecodeCacheMaxSizeBytes = bytecodeCacheMaxSizeBytes;
       this.sources = sources;
       this.ignoreErrors = ignoreErrors;
     }
@@ -114,6 +142,15 @@ public class PythonCompileRule extends ModernBuildRule<PythonCompileRule.Impl> {
                   builder.addAll(python.getCommandPrefix(buildContext.getSourcePathResolver()));
                   builder.add("-c", getCompiler());
                   builder.add("--output=" + outputPathResolver.resolvePath(OUTPUT));
+                  // Bytecode of unchanged sources, or of identical sources compiled by other
+                  // rules, is copied from a cache shared by all compilations instead.
+                  Path cacheDir =
+                      filesystem
+                          .resolve(filesystem.getBuckPaths().getCacheDir())
+                          .resolve(CACHE_DIR);
+                  if (bytecodeCacheMaxSizeBytes.isPresent()) {
+                    builder.add("--cache-dir=" + cacheDir);
+                  }
                   if (ignoreErrors) {
                     builder.add("--ignore-errors");
                   }
@@ -123,24 +160,63 @@ public class PythonCompileRule extends ModernBuildRule<PythonCompileRule.Impl> {
                               String.format(
                                   "%s=%s", PythonUtil.toModuleName(dst.toString()), src)));
                   ImmutableList<String> command = builder.build();
-                  return StepExecutionResult.of(
-                      context
-                          .getProcessExecutor()
-                          .launchAndExecute(
-                              ProcessExecutorParams.builder()
-                                  .setDirectory(context.getBuildCellRootPath())
-                                  // On some platforms (e.g. linux), python hash code randomness can
-                                  // cause the bytecode to be non-deterministic, so pin via the
-                                  // `PYTHONHASHSEED` env var.
-                                  .setEnvironment(ImmutableMap.of("PYTHONHASHSEED", "7"))
-                                  .setCommand(command)
-                                  .build()));
+                  StepExecutionResult result =
+                      StepExecutionResult.of(
+                          context
+                              .getProcessExecutor()
+                              .launchAndExecute(
+                                  ProcessExecutorParams.builder()
+                                      .setDirectory(context.getBuildCellRootPath())
+                                      // On some platforms (e.g. linux), python hash code
+                                      // randomness can cause the bytecode to be
+                                      // non-deterministic, so pin via the `PYTHONHASHSEED` env
+                                      // var.
+                                      .setEnvironment(ImmutableMap.of("PYTHONHASHSEED", "7"))
+                                      .setCommand(command)
+                                      .build()));
+                  if (result.isSuccess() && bytecodeCacheMaxSizeBytes.isPresent()) {
+                    recordStored(
+                        cacheDir,
+                        filesystem.resolve(outputPathResolver.resolvePath(OUTPUT)),
+                        bytecodeCacheMaxSizeBytes.get());
+                  }
+                  return result;
                 }
               })
           .build();
     }
   }
 
+  /**
+   * Records the compiled output in the bytecode cache's trimmer. Hits count as stored too, as the
+   * compiler doesn't tell them apart, which only makes trims a bit more frequent.
+   */
+  private static void recordStored(Path cacheDir, Path output, long maxCacheSizeBytes)
+      throws IOException {
+    long stored;
+    try (Stream<Path> paths = Files.walk(output)) {
+      stored = paths.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+    }
+    // Skips the temporary files entries are written to.
+    new CacheDirectoryTrimmer(cacheDir, maxCacheSizeBytes, path -> path.toString().endsWith(".pyc"))
+        .recordStored(stored);
+  }
+
+  /** Leaves the bytecode cache, which is local to this machine, off when executing remotely. */
+  private static class LocalOnlySerialization implements CustomFieldSerialization<Optional<Long>> {
+    @Override
+    public <E extends Exception> void serialize(Optional<Long> value, ValueVisitor<E> serializer)
+        throws E {
+      // Don't place anything on the wire, the remote side never uses the cache.
+    }
+
+    @Override
+    public <E extends Exception> Optional<Long> deserialize(ValueCreator<E> deserializer)
+        throws E {
+      return Optional.empty();
+    }
+  }
+
   private static String getCompiler() {
     try {
       return Resources.toString(
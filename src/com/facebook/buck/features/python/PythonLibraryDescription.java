@@ -127,6 +127,7 @@ public class PythonLibraryDescription
           context.getProjectFilesystem(),
           context.getActionGraphBuilder(),
           pythonPlatform.getValue().getEnvironment(),
+          pythonPlatform.getValue().getBytecodeCacheMaxSizeBytes(),
           getSources(
                   baseTarget,
                   pythonPlatform.getValue(),
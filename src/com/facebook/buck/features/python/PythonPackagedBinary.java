@@ -20,6 +20,7 @@ import com.facebook.buck.core.build.buildable.context.BuildableContext;
 import com.facebook.buck.core.build.context.BuildContext;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.OutputLabel;
+import com.facebook.buck.core.model.impl.BuildTargetPaths;
 import com.facebook.buck.core.rulekey.AddToRuleKey;
 import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.rules.BuildRuleResolver;
@@ -36,6 +37,7 @@ import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.rules.args.Arg;
 import com.facebook.buck.rules.args.SourcePathArg;
 import com.facebook.buck.step.Step;
+import com.facebook.buck.step.fs.MakeCleanDirectoryStep;
 import com.facebook.buck.step.fs.MkdirStep;
 import com.facebook.buck.step.fs.RmStep;
 import com.facebook.buck.util.stream.RichStream;
@@ -56,6 +58,7 @@ public class PythonPackagedBinary extends PythonBinary implements HasRuntimeDeps
   @AddToRuleKey private final String mainModule;
   @AddToRuleKey private final PythonEnvironment pythonEnvironment;
   @AddToRuleKey private final ImmutableSet<String> preloadLibraries;
+  @AddToRuleKey private final boolean packageInProcess;
   private final boolean cache;
   private final ImmutableSortedSet<BuildRule> buildDeps;
 
@@ -74,7 +77,8 @@ public class PythonPackagedBinary extends PythonBinary implements HasRuntimeDeps
       PythonPackageComponents components,
       ImmutableSet<String> preloadLibraries,
       boolean cache,
-      boolean legacyOutputPath) {
+      boolean legacyOutputPath,
+      boolean packageInProcess) {
     super(
         buildTarget,
         projectFilesystem,
@@ -92,6 +96,7 @@ public class PythonPackagedBinary extends PythonBinary implements HasRuntimeDeps
     this.mainModule = mainModule;
     this.preloadLibraries = preloadLibraries;
     this.cache = cache;
+    this.packageInProcess = packageInProcess;
     this.buildDeps =
         ImmutableSortedSet.<BuildRule>naturalOrder()
             .addAll(components.getDeps(ruleFinder))
@@ -123,30 +128,39 @@ public class PythonPackagedBinary extends PythonBinary implements HasRuntimeDeps
             BuildCellRelativePath.fromCellRelativePath(
                 context.getBuildCellRootPath(), getProjectFilesystem(), binPath.getParent())));
 
-    // Delete any other pex that was there (when switching between pex styles).
-    steps.add(
-        RmStep.of(
-            BuildCellRelativePath.fromCellRelativePath(
-                context.getBuildCellRootPath(), getProjectFilesystem(), binPath),
-            true));
-
     SourcePathResolverAdapter resolver = context.getSourcePathResolver();
-
-    // Generate and return the PEX build step.
-    steps.add(
-        new PexStep(
-            getProjectFilesystem(),
-            builder.getEnvironment(resolver),
-            ImmutableList.<String>builder()
-                .addAll(builder.getCommandPrefix(resolver))
-                .addAll(Arg.stringify(buildArgs, resolver))
-                .build(),
-            pythonEnvironment.getPythonPath(),
-            pythonEnvironment.getPythonVersion(),
-            binPath,
-            mainModule,
-            getComponents().resolve(resolver),
-            preloadLibraries));
+    PythonResolvedPackageComponents components = getComponents().resolve(resolver);
+
+    if (packageInProcess) {
+      // The PEX builder only builds the bootstrap, which the components are then added to. Any
+      // previous PEX is kept until then, so that unchanged components can be copied from it.
+      Path scratchDir =
+          BuildTargetPaths.getScratchPath(getProjectFilesystem(), getBuildTarget(), "%s__pex");
+      Path bootstrap = scratchDir.resolve("bootstrap.pex");
+      steps.addAll(
+          MakeCleanDirectoryStep.of(
+              BuildCellRelativePath.fromCellRelativePath(
+                  context.getBuildCellRootPath(), getProjectFilesystem(), scratchDir)));
+      steps.add(
+          createPexStep(
+              resolver,
+              bootstrap,
+              ImmutablePythonResolvedPackageComponents.builder()
+                  .setZipSafe(components.isZipSafe())
+                  .build()));
+      steps.add(
+          new PexArchiveStep(getProjectFilesystem(), bootstrap, components, binPath, scratchDir));
+    } else {
+      // Delete any other pex that was there (when switching between pex styles).
+      steps.add(
+          RmStep.of(
+              BuildCellRelativePath.fromCellRelativePath(
+                  context.getBuildCellRootPath(), getProjectFilesystem(), binPath),
+              true));
+
+      // Generate and return the PEX build step.
+      steps.add(createPexStep(resolver, binPath, components));
+    }
 
     // Record the executable package for caching.
     buildableContext.recordArtifact(binPath);
@@ -154,6 +168,25 @@ public class PythonPackagedBinary extends PythonBinary implements HasRuntimeDeps
     return steps.build();
   }
 
+  private PexStep createPexStep(
+      SourcePathResolverAdapter resolver,
+      Path destination,
+      PythonResolvedPackageComponents components) {
+    return new PexStep(
+        getProjectFilesystem(),
+        builder.getEnvironment(resolver),
+        ImmutableList.<String>builder()
+            .addAll(builder.getCommandPrefix(resolver))
+            .addAll(Arg.stringify(buildArgs, resolver))
+            .build(),
+        pythonEnvironment.getPythonPath(),
+        pythonEnvironment.getPythonVersion(),
+        destination,
+        mainModule,
+        components,
+        preloadLibraries);
+  }
+
   @Override
   public Stream<BuildTarget> getRuntimeDeps(BuildRuleResolver buildRuleResolver) {
     return RichStream.from(super.getRuntimeDeps(buildRuleResolver))
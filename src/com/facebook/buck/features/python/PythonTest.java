@@ -35,7 +35,7 @@ import com.facebook.buck.core.sourcepath.resolver.SourcePathResolverAdapter;
 import com.facebook.buck.core.test.rule.ExternalTestRunnerRule;
 import com.facebook.buck.core.test.rule.ExternalTestRunnerTestSpec;
 import com.facebook.buck.core.test.rule.ExternalTestSpec;
-import com.facebook.buck.core.test.rule.TestRule;
+import com.facebook.buck.core.test.rule.ShardableTestRule;
 import com.facebook.buck.core.toolchain.tool.Tool;
 import com.facebook.buck.io.BuildCellRelativePath;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
@@ -46,6 +46,7 @@ import com.facebook.buck.test.TestCaseSummary;
 import com.facebook.buck.test.TestResultSummary;
 import com.facebook.buck.test.TestResults;
 import com.facebook.buck.test.TestRunningOptions;
+import com.facebook.buck.test.selectors.TestSelectorList;
 import com.facebook.buck.util.Memoizer;
 import com.facebook.buck.util.json.ObjectMappers;
 import com.facebook.buck.util.stream.RichStream;
@@ -62,10 +63,11 @@ import java.util.concurrent.Callable;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
+import javax.annotation.Nullable;
 
 @SuppressWarnings("PMD.TestClassWithoutTestCases")
 public class PythonTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
-    implements TestRule, HasRuntimeDeps, ExternalTestRunnerRule, BinaryBuildRule {
+    implements ShardableTestRule, HasRuntimeDeps, ExternalTestRunnerRule, BinaryBuildRule {
 
   private BuildRuleResolver ruleResolver;
   private final Supplier<? extends SortedSet<BuildRule>> originalDeclaredDeps;
@@ -79,6 +81,9 @@ public class PythonTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
   private final ImmutableList<Pair<Float, ImmutableSet<Path>>> neededCoverage;
   private final ImmutableSet<SourcePath> additionalCoverageTargets;
 
+  /** The directories the shards write their results to, when the tests run in shards. */
+  @Nullable private ImmutableList<Path> shardOutputDirectories;
+
   private PythonTest(
       BuildTarget buildTarget,
       ProjectFilesystem projectFilesystem,
@@ -152,13 +157,18 @@ public class PythonTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
       TestRunningOptions options,
       BuildContext buildContext,
       TestReportingCallback testReportingCallback) {
+    shardOutputDirectories = null;
+    return getRunTestsSteps(
+        buildContext, options.getTestSelectorList(), getPathToTestOutputDirectory());
+  }
+
+  private ImmutableList<Step> getRunTestsSteps(
+      BuildContext buildContext, TestSelectorList testSelectorList, Path outputDirectory) {
     return new ImmutableList.Builder<Step>()
         .addAll(
             MakeCleanDirectoryStep.of(
                 BuildCellRelativePath.fromCellRelativePath(
-                    buildContext.getBuildCellRootPath(),
-                    getProjectFilesystem(),
-                    getPathToTestOutputDirectory())))
+                    buildContext.getBuildCellRootPath(), getProjectFilesystem(), outputDirectory)))
         .add(
             new PythonRunTestsStep(
                 getProjectFilesystem().getRootPath(),
@@ -167,12 +177,43 @@ public class PythonTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
                     .getExecutableCommand(OutputLabel.defaultLabel())
                     .getCommandPrefix(buildContext.getSourcePathResolver()),
                 getMergedEnv(buildContext.getSourcePathResolver()),
-                options.getTestSelectorList(),
+                testSelectorList,
                 testRuleTimeoutMs,
-                getProjectFilesystem().resolve(getPathToTestOutputResult())))
+                getProjectFilesystem().resolve(getPathToTestOutputResult(outputDirectory))))
         .build();
   }
 
+  /** Test cases are only known once the test binary has listed them. */
+  @Override
+  public ImmutableSet<String> getTestCaseNames(SourcePathResolverAdapter pathResolver) {
+    return ImmutableSet.of();
+  }
+
+  @Override
+  public ImmutableList<Step> prepareTestShards(
+      ExecutionContext executionContext, TestRunningOptions options, BuildContext buildContext) {
+    return ImmutableList.of();
+  }
+
+  /** Each shard lists the test cases and runs the ones it selects, with results of its own. */
+  @Override
+  public ImmutableList<ImmutableList<Step>> runTestShards(
+      ExecutionContext executionContext,
+      TestRunningOptions options,
+      BuildContext buildContext,
+      TestReportingCallback testReportingCallback,
+      ImmutableList<TestSelectorList> shards) {
+    ImmutableList.Builder<ImmutableList<Step>> shardSteps = ImmutableList.builder();
+    ImmutableList.Builder<Path> outputDirectories = ImmutableList.builder();
+    for (int i = 0; i < shards.size(); i++) {
+      Path outputDirectory = getPathToTestOutputDirectory().resolve("shard-" + i);
+      shardSteps.add(getRunTestsSteps(buildContext, shards.get(i), outputDirectory));
+      outputDirectories.add(outputDirectory);
+    }
+    shardOutputDirectories = outputDirectories.build();
+    return shardSteps.build();
+  }
+
   private ImmutableMap<String, String> getMergedEnv(SourcePathResolverAdapter pathResolver) {
     return new ImmutableMap.Builder<String, String>()
         .putAll(
@@ -196,8 +237,8 @@ public class PythonTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
         getProjectFilesystem(), getBuildTarget(), "__test_%s_output__");
   }
 
-  private Path getPathToTestOutputResult() {
-    return getPathToTestOutputDirectory().resolve("results.json");
+  private Path getPathToTestOutputResult(Path outputDirectory) {
+    return outputDirectory.resolve("results.json");
   }
 
   @Override
@@ -211,16 +252,22 @@ public class PythonTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
       SourcePathResolverAdapter pathResolver,
       boolean isUsingTestSelectors) {
     return () -> {
-      Optional<String> resultsFileContents =
-          getProjectFilesystem().readFileIfItExists(getPathToTestOutputResult());
-      TestResultSummary[] testResultSummaries =
-          ObjectMappers.readValue(resultsFileContents.get(), TestResultSummary[].class);
+      ImmutableList.Builder<TestResultSummary> testResultSummaries = ImmutableList.builder();
+      for (Path outputDirectory :
+          shardOutputDirectories == null
+              ? ImmutableList.of(getPathToTestOutputDirectory())
+              : shardOutputDirectories) {
+        Optional<String> resultsFileContents =
+            getProjectFilesystem()
+                .readFileIfItExists(getPathToTestOutputResult(outputDirectory));
+        testResultSummaries.add(
+            ObjectMappers.readValue(resultsFileContents.get(), TestResultSummary[].class));
+      }
       return TestResults.of(
           getBuildTarget(),
           ImmutableList.of(
               new TestCaseSummary(
-                  getBuildTarget().getFullyQualifiedName(),
-                  ImmutableList.copyOf(testResultSummaries))),
+                  getBuildTarget().getFullyQualifiedName(), testResultSummaries.build())),
           contacts,
           labels.stream().map(Object::toString).collect(ImmutableSet.toImmutableSet()));
     };
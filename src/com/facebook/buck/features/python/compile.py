@@ -14,17 +14,27 @@
 
 import argparse
 import errno
+import hashlib
 import os
 import py_compile
+import shutil
 import sys
+import tempfile
 
 
 if sys.version_info[0] == 3:
     import importlib
 
     DEFAULT_FORMAT = importlib.util.cache_from_source("{pkg}/{name}.py")
+    MAGIC_NUMBER = importlib.util.MAGIC_NUMBER
 else:
+    import imp
+
     DEFAULT_FORMAT = "{pkg}/{name}.pyc"
+    MAGIC_NUMBER = imp.get_magic()
+
+# Bump to invalidate all entries of existing bytecode caches.
+CACHE_VERSION = b"1"
 
 
 def get_py_path(module):
@@ -45,29 +55,89 @@ def get_pyc_path(module, fmt):
     return os.path.join(*parts)
 
 
+def makedirs(path):
+    try:
+        os.makedirs(path)
+    except OSError as e:
+        if e.errno != errno.EEXIST:
+            raise
+
+
+def get_cache_path(cache_dir, src, dfile):
+    """
+    Return where the bytecode of `src` is cached. Bytecode only depends on the source, the
+    path recorded for it and the interpreter, so identical sources compiled by different rules
+    share entries.
+    """
+    key = hashlib.sha1()
+    for part in (
+        CACHE_VERSION,
+        MAGIC_NUMBER,
+        sys.version.encode("utf-8"),
+        str(sys.flags.optimize).encode("utf-8"),
+        dfile.encode("utf-8"),
+    ):
+        key.update(part)
+        key.update(b"\0")
+    with open(src, "rb") as f:
+        key.update(f.read())
+    digest = key.hexdigest()
+    return os.path.join(cache_dir, digest[:2], digest[2:] + ".pyc")
+
+
+def store_in_cache(pyc, cached):
+    # Entries are written under a temporary name and renamed, so that concurrent compilations of
+    # the same source never see a partially written entry.
+    makedirs(os.path.dirname(cached))
+    fd, tmp = tempfile.mkstemp(dir=os.path.dirname(cached))
+    try:
+        with os.fdopen(fd, "wb") as out, open(pyc, "rb") as f:
+            shutil.copyfileobj(f, out)
+        os.rename(tmp, cached)
+    except Exception:
+        os.remove(tmp)
+        raise
+
+
 def main(argv):
     parser = argparse.ArgumentParser()
     parser.add_argument("-o", "--output", required=True)
     parser.add_argument("-f", "--format", default=DEFAULT_FORMAT)
     parser.add_argument("-i", "--ignore-errors", action="store_true")
+    parser.add_argument("--cache-dir")
     parser.add_argument("modules", nargs="*")
     args = parser.parse_args(argv[1:])
 
     for module_and_src in args.modules:
         module, src = module_and_src.split("=", 1)
         pyc = os.path.join(args.output, get_pyc_path(module, args.format))
-        try:
-            os.makedirs(os.path.dirname(pyc))
-        except OSError as e:
-            if e.errno != errno.EEXIST:
-                raise
+        dfile = get_py_path(module)
+        makedirs(os.path.dirname(pyc))
+
+        cached = None
+        if args.cache_dir:
+            cached = get_cache_path(args.cache_dir, src, dfile)
+            try:
+                shutil.copyfile(cached, pyc)
+                # Mark the entry as used, as the cache is trimmed least recently used first.
+                os.utime(cached, None)
+                continue
+            except (IOError, OSError) as e:
+                # Missing, or trimmed concurrently.
+                if e.errno != errno.ENOENT:
+                    raise
+
         py_compile.compile(
             src,
             cfile=pyc,
-            dfile=get_py_path(module),
+            dfile=dfile,
             doraise=not args.ignore_errors,
             invalidation_mode=py_compile.PycInvalidationMode.UNCHECKED_HASH,
         )
 
+        # Sources which failed to compile, with `--ignore-errors`, have no bytecode to cache.
+        if cached is not None and os.path.exists(pyc):
+            store_in_cache(pyc, cached)
+
 
 sys.exit(main(sys.argv))
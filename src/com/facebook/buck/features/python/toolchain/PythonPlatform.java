@@ -39,4 +39,10 @@ public interface PythonPlatform extends FlavorConvertible {
 
   /** @return flags that should be added to the hashbang of inplace python binaries */
   ImmutableList<String> getInplaceBinaryInterpreterFlags();
+
+  /**
+   * @return the maximum size of the local cache of bytecode shared by compile rules, or empty if
+   *     they don't use one.
+   */
+  Optional<Long> getBytecodeCacheMaxSizeBytes();
 }
@@ -113,4 +113,9 @@ public class LazyPythonPlatform implements PythonPlatform {
   public ImmutableList<String> getInplaceBinaryInterpreterFlags() {
     return pythonBuckConfig.inplaceBinaryInterpreterFlags();
   }
+
+  @Override
+  public Optional<Long> getBytecodeCacheMaxSizeBytes() {
+    return pythonBuckConfig.getBytecodeCacheMaxSizeBytes();
+  }
 }
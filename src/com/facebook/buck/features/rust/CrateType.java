@@ -173,6 +173,16 @@ public enum CrateType {
     return this == SAVEANALYSIS || this == SAVEANALYSISBIN;
   }
 
+  /**
+   * Crate can be compiled in a pipeline, where its metadata is emitted before its code is
+   * generated.
+   *
+   * @return Supports pipelining.
+   */
+  public boolean supportsPipelining() {
+    return this == RLIB || this == RLIB_PIC;
+  }
+
   /**
    * Return true if this is generating a compiler plugin - ie, it should be linked with a different
    * linker and linker flags.
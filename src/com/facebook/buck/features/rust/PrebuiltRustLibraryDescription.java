@@ -59,7 +59,7 @@ public class PrebuiltRustLibraryDescription
       @Override
       public com.facebook.buck.rules.args.Arg getLinkerArg(
           boolean direct,
-          boolean isCheck,
+          CrateType crateType,
           RustPlatform rustPlatform,
           Linker.LinkableDepType depType,
           Optional<String> alias) {
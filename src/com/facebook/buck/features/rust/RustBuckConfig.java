@@ -42,6 +42,7 @@ public class RustBuckConfig {
   private static final String PREFER_STATIC_LIBS = "prefer_static_libs";
   private static final String RUSTC_INCREMENTAL = "incremental";
   private static final String DEFAULT_EDITION = "default_edition";
+  private static final String PIPELINED_COMPILATION = "pipelined_compilation";
 
   enum RemapSrcPaths {
     NO, // no path remapping
@@ -233,6 +234,17 @@ public class RustBuckConfig {
     return delegate.getValue(SECTION, DEFAULT_EDITION).orElse("2015");
   }
 
+  /**
+   * Get "pipelined_compilation" config. When set, rlibs are compiled in a pipeline: the crate
+   * metadata is emitted first, and dependents which don't link start compiling against it while
+   * code for the rlib is still being generated.
+   *
+   * @return pipelined_compilation flag
+   */
+  boolean getPipelinedCompilation() {
+    return delegate.getBooleanValue(SECTION, PIPELINED_COMPILATION, false);
+  }
+
   private Optional<Path> getOptionalPath(String sectionName, String propertyName) {
     Optional<String> pathString = delegate.getValue(sectionName, propertyName);
     return pathString.map(
@@ -27,6 +27,8 @@ import com.facebook.buck.core.rulekey.DefaultFieldSerialization;
 import com.facebook.buck.core.rulekey.ExcludeFromRuleKey;
 import com.facebook.buck.core.rulekey.IgnoredFieldInputs;
 import com.facebook.buck.core.rules.SourcePathRuleFinder;
+import com.facebook.buck.core.rules.pipeline.RulePipelineStateFactory;
+import com.facebook.buck.core.rules.pipeline.SupportsPipelining;
 import com.facebook.buck.core.sourcepath.SourcePath;
 import com.facebook.buck.core.sourcepath.resolver.SourcePathResolverAdapter;
 import com.facebook.buck.core.toolchain.tool.Tool;
@@ -36,24 +38,41 @@ import com.facebook.buck.features.rust.RustBuckConfig.RemapSrcPaths;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.rules.args.Arg;
 import com.facebook.buck.rules.modern.BuildCellRelativePathFactory;
-import com.facebook.buck.rules.modern.Buildable;
-import com.facebook.buck.rules.modern.ModernBuildRule;
 import com.facebook.buck.rules.modern.OutputPath;
 import com.facebook.buck.rules.modern.OutputPathResolver;
+import com.facebook.buck.rules.modern.PipelinedBuildable;
+import com.facebook.buck.rules.modern.PipelinedModernBuildRule;
 import com.facebook.buck.shell.ShellStep;
+import com.facebook.buck.step.AbstractExecutionStep;
 import com.facebook.buck.step.Step;
+import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.step.StepExecutionResults;
 import com.facebook.buck.step.fs.SymlinkTreeStep;
+import com.facebook.buck.util.ProcessExecutor;
+import com.facebook.buck.util.ProcessExecutorParams;
 import com.facebook.buck.util.Verbosity;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Maps;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
+import javax.annotation.Nullable;
 
 /** Generate a rustc command line with all appropriate dependencies in place. */
-public class RustCompileRule extends ModernBuildRule<RustCompileRule.Impl> {
+public class RustCompileRule
+    extends PipelinedModernBuildRule<RustPipelineState, RustCompileRule.Impl> {
+
+  // How often a pipelined compilation checks whether rustc has written the crate metadata.
+  private static final long METADATA_POLL_INTERVAL_MS = 10;
+
+  @Nullable private final RustCompileRule previousRuleInPipeline;
 
   /**
    * Work out how to invoke the Rust compiler, rustc.
@@ -88,6 +107,42 @@ public class RustCompileRule extends ModernBuildRule<RustCompileRule.Impl> {
       String rootModule,
       RemapSrcPaths remapSrcPaths,
       Optional<String> xcrunSdkPath) {
+    this(
+        buildTarget,
+        projectFilesystem,
+        ruleFinder,
+        filename,
+        compiler,
+        linker,
+        args,
+        depArgs,
+        linkerArgs,
+        environment,
+        mappedSources,
+        rootModule,
+        remapSrcPaths,
+        xcrunSdkPath,
+        false,
+        Optional.empty());
+  }
+
+  private RustCompileRule(
+      BuildTarget buildTarget,
+      ProjectFilesystem projectFilesystem,
+      SourcePathRuleFinder ruleFinder,
+      String filename,
+      Tool compiler,
+      Linker linker,
+      ImmutableList<Arg> args,
+      ImmutableList<Arg> depArgs,
+      ImmutableList<Arg> linkerArgs,
+      ImmutableSortedMap<String, Arg> environment,
+      ImmutableSortedMap<SourcePath, Optional<String>> mappedSources,
+      String rootModule,
+      RemapSrcPaths remapSrcPaths,
+      Optional<String> xcrunSdkPath,
+      boolean metadataOnly,
+      Optional<RustCompileRule> previousRuleInPipeline) {
     super(
         buildTarget,
         projectFilesystem,
@@ -104,7 +159,10 @@ public class RustCompileRule extends ModernBuildRule<RustCompileRule.Impl> {
             filename,
             mappedSources,
             remapSrcPaths,
-            xcrunSdkPath));
+            xcrunSdkPath,
+            metadataOnly,
+            previousRuleInPipeline.map(RustCompileRule::getSourcePathToOutput)));
+    this.previousRuleInPipeline = previousRuleInPipeline.orElse(null);
   }
 
   public static RustCompileRule from(
@@ -139,6 +197,52 @@ public class RustCompileRule extends ModernBuildRule<RustCompileRule.Impl> {
         xcrunSdkPath);
   }
 
+  /**
+   * Creates one of the two rules of a pipelined rlib compilation, which share a single rustc
+   * process emitting both the crate metadata and the rlib.
+   *
+   * <p>The metadata rule ({@code metadataOnly}) starts the compilation and finishes as soon as
+   * rustc has written the metadata, which is all that dependents that don't link need to start
+   * compiling. The rlib rule is the next rule in its pipeline, and finishes when the same rustc
+   * process does. Built on their own, either rule runs the whole compilation and keeps only its
+   * own output.
+   */
+  static RustCompileRule pipelinedFrom(
+      SourcePathRuleFinder ruleFinder,
+      BuildTarget buildTarget,
+      ProjectFilesystem projectFilesystem,
+      String filename,
+      Tool compiler,
+      Linker linker,
+      ImmutableList<Arg> args,
+      ImmutableList<Arg> depArgs,
+      ImmutableList<Arg> linkerArgs,
+      ImmutableSortedMap<String, Arg> environment,
+      ImmutableSortedMap<SourcePath, Optional<String>> mappedSources,
+      String rootModule,
+      RemapSrcPaths remapSrcPaths,
+      Optional<String> xcrunSdkPath,
+      boolean metadataOnly,
+      Optional<RustCompileRule> previousRuleInPipeline) {
+    return new RustCompileRule(
+        buildTarget,
+        projectFilesystem,
+        ruleFinder,
+        filename,
+        compiler,
+        linker,
+        args,
+        depArgs,
+        linkerArgs,
+        environment,
+        mappedSources,
+        rootModule,
+        remapSrcPaths,
+        xcrunSdkPath,
+        metadataOnly,
+        previousRuleInPipeline);
+  }
+
   protected static Path getOutputDir(BuildTarget target, ProjectFilesystem filesystem) {
     return BuildTargetPaths.getGenPath(filesystem, target, "%s");
   }
@@ -148,12 +252,38 @@ public class RustCompileRule extends ModernBuildRule<RustCompileRule.Impl> {
     return getSourcePath(getBuildable().output);
   }
 
+  /**
+   * Returns the output dependents compile against when they don't link this crate themselves: the
+   * crate metadata of a pipelined compilation, or the full output otherwise.
+   */
+  SourcePath getSourcePathToMetadata() {
+    return previousRuleInPipeline == null
+        ? getSourcePathToOutput()
+        : previousRuleInPipeline.getSourcePathToOutput();
+  }
+
   String getCrateRoot() {
     return getBuildable().rootModule;
   }
 
+  @Override
+  public boolean useRulePipelining() {
+    return getBuildable().isPipelined();
+  }
+
+  @Nullable
+  @Override
+  public SupportsPipelining<RustPipelineState> getPreviousRuleInPipeline() {
+    return previousRuleInPipeline;
+  }
+
+  @Override
+  public RulePipelineStateFactory<RustPipelineState> getPipelineStateFactory() {
+    return RustPipelineState.FACTORY;
+  }
+
   /** internal buildable implementation */
-  static class Impl implements Buildable {
+  static class Impl implements PipelinedBuildable<RustPipelineState> {
     @AddToRuleKey private final Tool compiler;
 
     @AddToRuleKey private final Linker linker;
@@ -171,6 +301,12 @@ public class RustCompileRule extends ModernBuildRule<RustCompileRule.Impl> {
 
     @AddToRuleKey private final RustBuckConfig.RemapSrcPaths remapSrcPaths;
 
+    // Whether this is the metadata rule of a pipelined compilation.
+    @AddToRuleKey private final boolean metadataOnly;
+
+    // For the rlib rule of a pipelined compilation, the output of the metadata rule before it.
+    @AddToRuleKey private final Optional<SourcePath> pipelinedMetadata;
+
     @ExcludeFromRuleKey(
         reason = "This should probably be properly represented as a ToolChain?",
         serialization = DefaultFieldSerialization.class,
@@ -189,7 +325,9 @@ public class RustCompileRule extends ModernBuildRule<RustCompileRule.Impl> {
         String outputName,
         ImmutableSortedMap<SourcePath, Optional<String>> mappedSources,
         RemapSrcPaths remapSrcPaths,
-        Optional<String> xcrunpath) {
+        Optional<String> xcrunpath,
+        boolean metadataOnly,
+        Optional<SourcePath> pipelinedMetadata) {
       this.compiler = compiler;
       this.linker = linker;
       this.buildTarget = buildTarget;
@@ -202,6 +340,12 @@ public class RustCompileRule extends ModernBuildRule<RustCompileRule.Impl> {
       this.mappedSources = mappedSources;
       this.remapSrcPaths = remapSrcPaths;
       this.xcrunSdkpath = xcrunpath;
+      this.metadataOnly = metadataOnly;
+      this.pipelinedMetadata = pipelinedMetadata;
+    }
+
+    boolean isPipelined() {
+      return metadataOnly || pipelinedMetadata.isPresent();
     }
 
     @Override
@@ -210,18 +354,121 @@ public class RustCompileRule extends ModernBuildRule<RustCompileRule.Impl> {
         ProjectFilesystem filesystem,
         OutputPathResolver outputPathResolver,
         BuildCellRelativePathFactory buildCellPathFactory) {
-      Path outputdir = getOutputDir(buildTarget, filesystem);
       Path outputPath = outputPathResolver.resolvePath(output);
-      Path scratchDir = outputPathResolver.getTempPath();
-
       SourcePathResolverAdapter resolver = buildContext.getSourcePathResolver();
 
+      // Both rules of a pipelined compilation run the same compilation when built on their own,
+      // so that their outputs don't depend on whether they were built in a pipeline.
+      Optional<String> emit = Optional.empty();
+      if (metadataOnly) {
+        emit = Optional.of(getPipelinedEmitArg(outputPath, getLinkOutput(outputPathResolver)));
+      } else if (pipelinedMetadata.isPresent()) {
+        emit =
+            Optional.of(
+                getPipelinedEmitArg(outputPathResolver.getTempPath("metadata.rmeta"), outputPath));
+      }
+      Optional<String> finalEmit = emit;
+
+      ImmutableList.Builder<Step> steps = new ImmutableList.Builder<>();
+      addPreparationSteps(steps, resolver, filesystem, outputPathResolver);
+      steps.add(
+          new ShellStep(filesystem.getRootPath()) {
+
+            @Override
+            protected ImmutableList<String> getShellCommandInternal(
+                ExecutionContext executionContext) {
+              return getCommand(
+                  executionContext, resolver, filesystem, outputPathResolver, finalEmit);
+            }
+
+            /*
+             * Make sure all stderr output from rustc is emitted, since its either a warning or an
+             * error. In general Rust code should have zero warnings, or all warnings as errors.
+             * Regardless, respect requests for silence.
+             */
+            @Override
+            protected boolean shouldPrintStderr(Verbosity verbosity) {
+              return !verbosity.isSilent();
+            }
+
+            @Override
+            public ImmutableMap<String, String> getEnvironmentVariables(ExecutionContext context) {
+              return getEnvironment(resolver, filesystem, outputPathResolver);
+            }
+
+            @Override
+            public String getShortName() {
+              return "rust-build";
+            }
+          });
+
+      return steps.build();
+    }
+
+    @Override
+    public ImmutableList<Step> getPipelinedBuildSteps(
+        BuildContext buildContext,
+        ProjectFilesystem filesystem,
+        RustPipelineState state,
+        OutputPathResolver outputPathResolver,
+        BuildCellRelativePathFactory buildCellPathFactory) {
+      if (metadataOnly) {
+        ImmutableList.Builder<Step> steps = new ImmutableList.Builder<>();
+        addPreparationSteps(
+            steps, buildContext.getSourcePathResolver(), filesystem, outputPathResolver);
+        steps.add(
+            new StartPipelinedCompilationStep(
+                buildContext.getSourcePathResolver(), filesystem, outputPathResolver, state));
+        return steps.build();
+      }
+
+      // The metadata rule didn't start a compilation, e.g. because it was fetched from a cache.
+      if (!state.hasCompilation()) {
+        return getBuildSteps(buildContext, filesystem, outputPathResolver, buildCellPathFactory);
+      }
+
+      Path outputPath = filesystem.resolve(outputPathResolver.resolvePath(output));
+      return ImmutableList.of(
+          new AbstractExecutionStep("rust-build") {
+            @Override
+            public StepExecutionResult execute(ExecutionContext context)
+                throws IOException, InterruptedException {
+              StepExecutionResult result = state.waitForCompilation(context);
+              if (!result.isSuccess()) {
+                return result;
+              }
+              Files.move(
+                  state.getLinkOutput().get(), outputPath, StandardCopyOption.REPLACE_EXISTING);
+              return StepExecutionResults.SUCCESS;
+            }
+          });
+    }
+
+    /**
+     * Where the metadata rule of a pipelined compilation has rustc write the rlib. It's in the
+     * rule's scratch directory, as the rlib rule cleans its own outputs before taking it over.
+     */
+    private static Path getLinkOutput(OutputPathResolver outputPathResolver) {
+      return outputPathResolver.getTempPath("link.rlib");
+    }
+
+    private static String getPipelinedEmitArg(Path metadata, Path link) {
+      return String.format("--emit=metadata=%s,link=%s", metadata, link);
+    }
+
+    private void addPreparationSteps(
+        ImmutableList.Builder<Step> steps,
+        SourcePathResolverAdapter resolver,
+        ProjectFilesystem filesystem,
+        OutputPathResolver outputPathResolver) {
+      Path outputPath = outputPathResolver.resolvePath(output);
+      Path scratchDir = outputPathResolver.getTempPath();
+
       AbsPath argFilePath =
           filesystem.getRootPath().resolve(outputPathResolver.getTempPath("argsfile.txt"));
       AbsPath fileListPath =
           filesystem.getRootPath().resolve(outputPathResolver.getTempPath("filelist.txt"));
 
-      ImmutableList.Builder<Step> steps = new ImmutableList.Builder<>();
       steps.add(
           new SymlinkTreeStep(
               "rust_sources",
@@ -256,95 +503,151 @@ public class RustCompileRule extends ModernBuildRule<RustCompileRule.Impl> {
               buildTarget.getCell(),
               filesystem.getRootPath().getPath(),
               resolver));
+    }
 
-      steps.add(
-          new ShellStep(filesystem.getRootPath()) {
-
-            @Override
-            protected ImmutableList<String> getShellCommandInternal(
-                ExecutionContext executionContext) {
-              ImmutableList<String> linkerCmd = linker.getCommandPrefix(resolver);
-              ImmutableList.Builder<String> cmd = ImmutableList.builder();
-
-              // Accumulate Args into set to dedup them while retaining their order,
-              // since there are often many duplicates for things like library paths.
-              //
-              // NOTE: this means that all logical args should be a single string on the command
-              // line (ie "-Lfoo", not ["-L", "foo"])
-              ImmutableSet.Builder<String> dedupArgs = ImmutableSet.builder();
-
-              dedupArgs.addAll(Arg.stringify(depArgs, buildContext.getSourcePathResolver()));
-
-              Path src = scratchDir.resolve(rootModule);
-              cmd.addAll(compiler.getCommandPrefix(resolver));
-              if (executionContext.getAnsi().isAnsiTerminal()) {
-                cmd.add("--color=always");
-              }
-
-              remapSrcPaths.addRemapOption(cmd, workingDirectory.toString(), scratchDir + "/");
-
-              // Generate a target-unique string to distinguish distinct crates with the same
-              // name.
-              String metadata = RustCompileUtils.hashForTarget(buildTarget);
-
-              cmd.add(String.format("-Clinker=%s", linkerCmd.get(0)))
-                  .addAll(
-                      linkerCmd.subList(1, linkerCmd.size()).stream()
-                          .map(l -> String.format("-Clink-arg=%s", l))
-                          .iterator())
-                  .add(String.format("-Clink-arg=@%s", argFilePath))
-                  .add(String.format("-Cmetadata=%s", metadata))
-                  .add(String.format("-Cextra-filename=-%s", metadata))
-                  .addAll(Arg.stringify(args, buildContext.getSourcePathResolver()))
-                  .addAll(dedupArgs.build())
-                  .add("--out-dir", outputdir.toString())
-                  .add(src.toString());
-
-              return cmd.build();
-            }
+    private ImmutableList<String> getCommand(
+        ExecutionContext executionContext,
+        SourcePathResolverAdapter resolver,
+        ProjectFilesystem filesystem,
+        OutputPathResolver outputPathResolver,
+        Optional<String> emit) {
+      Path outputdir = getOutputDir(buildTarget, filesystem);
+      Path scratchDir = outputPathResolver.getTempPath();
+      AbsPath argFilePath =
+          filesystem.getRootPath().resolve(outputPathResolver.getTempPath("argsfile.txt"));
 
-            /*
-             * Make sure all stderr output from rustc is emitted, since its either a warning or an
-             * error. In general Rust code should have zero warnings, or all warnings as errors.
-             * Regardless, respect requests for silence.
-             */
-            @Override
-            protected boolean shouldPrintStderr(Verbosity verbosity) {
-              return !verbosity.isSilent();
-            }
+      ImmutableList<String> linkerCmd = linker.getCommandPrefix(resolver);
+      ImmutableList.Builder<String> cmd = ImmutableList.builder();
+
+      // Accumulate Args into set to dedup them while retaining their order,
+      // since there are often many duplicates for things like library paths.
+      //
+      // NOTE: this means that all logical args should be a single string on the command
+      // line (ie "-Lfoo", not ["-L", "foo"])
+      ImmutableSet.Builder<String> dedupArgs = ImmutableSet.builder();
+
+      dedupArgs.addAll(Arg.stringify(depArgs, resolver));
+
+      Path src = scratchDir.resolve(rootModule);
+      cmd.addAll(compiler.getCommandPrefix(resolver));
+      if (executionContext.getAnsi().isAnsiTerminal()) {
+        cmd.add("--color=always");
+      }
+
+      remapSrcPaths.addRemapOption(cmd, filesystem.getRootPath().toString(), scratchDir + "/");
+
+      // Generate a target-unique string to distinguish distinct crates with the same
+      // name.
+      String metadata = RustCompileUtils.hashForTarget(buildTarget);
+
+      cmd.add(String.format("-Clinker=%s", linkerCmd.get(0)))
+          .addAll(
+              linkerCmd.subList(1, linkerCmd.size()).stream()
+                  .map(l -> String.format("-Clink-arg=%s", l))
+                  .iterator())
+          .add(String.format("-Clink-arg=@%s", argFilePath))
+          .add(String.format("-Cmetadata=%s", metadata))
+          .add(String.format("-Cextra-filename=-%s", metadata))
+          .addAll(Arg.stringify(args, resolver))
+          .addAll(dedupArgs.build());
+      emit.ifPresent(cmd::add);
+      cmd.add("--out-dir", outputdir.toString()).add(src.toString());
+
+      return cmd.build();
+    }
 
-            @Override
-            public ImmutableMap<String, String> getEnvironmentVariables(ExecutionContext context) {
-              ImmutableMap.Builder<String, String> env = ImmutableMap.builder();
-              env.putAll(compiler.getEnvironment(buildContext.getSourcePathResolver()));
-              env.putAll(
-                  Maps.transformValues(
-                      environment, v -> Arg.stringify(v, buildContext.getSourcePathResolver())));
-
-              AbsPath root = filesystem.getRootPath();
-              ForwardRelativePath basePath = buildTarget.getCellRelativeBasePath().getPath();
-
-              // These need to be set as absolute paths - the intended use
-              // is within an `include!(concat!(env!("..."), "...")`
-              // invocation in Rust source, and if the path isn't absolute
-              // it will be treated as relative to the current file including
-              // it. The trailing '/' is also to assist this use-case.
-              env.put("RUSTC_BUILD_CONTAINER", root.resolve(scratchDir) + "/");
-              env.put(
-                  "RUSTC_BUILD_CONTAINER_BASE_PATH",
-                  root.resolve(scratchDir.resolve(basePath.toPath(scratchDir.getFileSystem())))
-                      + "/");
-              Impl.this.xcrunSdkpath.ifPresent((path) -> env.put("SDKROOT", path));
-              return env.build();
-            }
+    private ImmutableMap<String, String> getEnvironment(
+        SourcePathResolverAdapter resolver,
+        ProjectFilesystem filesystem,
+        OutputPathResolver outputPathResolver) {
+      Path scratchDir = outputPathResolver.getTempPath();
 
-            @Override
-            public String getShortName() {
-              return "rust-build";
-            }
-          });
+      ImmutableMap.Builder<String, String> env = ImmutableMap.builder();
+      env.putAll(compiler.getEnvironment(resolver));
+      env.putAll(Maps.transformValues(environment, v -> Arg.stringify(v, resolver)));
+
+      AbsPath root = filesystem.getRootPath();
+      ForwardRelativePath basePath = buildTarget.getCellRelativeBasePath().getPath();
+
+      // These need to be set as absolute paths - the intended use
+      // is within an `include!(concat!(env!("..."), "...")`
+      // invocation in Rust source, and if the path isn't absolute
+      // it will be treated as relative to the current file including
+      // it. The trailing '/' is also to assist this use-case.
+      env.put("RUSTC_BUILD_CONTAINER", root.resolve(scratchDir) + "/");
+      env.put(
+          "RUSTC_BUILD_CONTAINER_BASE_PATH",
+          root.resolve(scratchDir.resolve(basePath.toPath(scratchDir.getFileSystem()))) + "/");
+      xcrunSdkpath.ifPresent((path) -> env.put("SDKROOT", path));
+      return env.build();
+    }
 
-      return steps.build();
+    /**
+     * Starts the compilation of a pipelined rlib, and finishes as soon as rustc has written the
+     * crate metadata. The compilation keeps running, and is waited for by the rlib rule.
+     */
+    private class StartPipelinedCompilationStep extends AbstractExecutionStep {
+      private final SourcePathResolverAdapter resolver;
+      private final ProjectFilesystem filesystem;
+      private final OutputPathResolver outputPathResolver;
+      private final RustPipelineState state;
+
+      StartPipelinedCompilationStep(
+          SourcePathResolverAdapter resolver,
+          ProjectFilesystem filesystem,
+          OutputPathResolver outputPathResolver,
+          RustPipelineState state) {
+        super("rust-build-metadata");
+        this.resolver = resolver;
+        this.filesystem = filesystem;
+        this.outputPathResolver = outputPathResolver;
+        this.state = state;
+      }
+
+      @Override
+      public StepExecutionResult execute(ExecutionContext context)
+          throws IOException, InterruptedException {
+        Path metadata = outputPathResolver.resolvePath(output);
+        Path link = getLinkOutput(outputPathResolver);
+        Path stderr = filesystem.resolve(outputPathResolver.getTempPath("stderr.txt"));
+
+        Map<String, String> env = new HashMap<>(context.getEnvironment());
+        env.put("PWD", filesystem.getRootPath().toString());
+        env.putAll(getEnvironment(resolver, filesystem, outputPathResolver));
+
+        // rustc's output goes to a file rather than a pipe, since nothing reads it until the
+        // compilation has finished.
+        ProcessExecutor processExecutor = context.getProcessExecutor();
+        ProcessExecutor.LaunchedProcess process =
+            processExecutor.launchProcess(
+                ProcessExecutorParams.builder()
+                    .setCommand(
+                        getCommand(
+                            context,
+                            resolver,
+                            filesystem,
+                            outputPathResolver,
+                            Optional.of(getPipelinedEmitArg(metadata, link))))
+                    .setEnvironment(ImmutableMap.copyOf(env))
+                    .setDirectory(filesystem.getRootPath().getPath())
+                    .setRedirectOutput(ProcessBuilder.Redirect.to(stderr.toFile()))
+                    .setRedirectErrorStream(true)
+                    .build());
+        state.setCompilation(processExecutor, process, filesystem.resolve(link), stderr);
+
+        // rustc writes the metadata under a temporary name and renames it into place, so once it
+        // exists it is complete.
+        Path absoluteMetadata = filesystem.resolve(metadata);
+        while (state.isCompilationRunning() && !Files.exists(absoluteMetadata)) {
+          Thread.sleep(METADATA_POLL_INTERVAL_MS);
+        }
+        if (Files.exists(absoluteMetadata)) {
+          return StepExecutionResults.SUCCESS;
+        }
+
+        // rustc exited before writing the metadata, so the compilation failed.
+        return state.waitForCompilation(context);
+      }
     }
   }
 }
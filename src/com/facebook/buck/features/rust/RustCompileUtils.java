@@ -103,6 +103,7 @@ public class RustCompileUtils {
   // - `-L dependency=<dir>` for transitive dependencies
   // - `-C relocation-model=pic/static/default/dynamic-no-pic` according to flavor
   // - `--emit metadata` if flavor is "check"
+  // - `--emit metadata=<rmetapath>,link=<rlibpath>` if rlibs are compiled in a pipeline
   // - `-Zsave-analysis` if flavor is "save-analysis"
   // - `--crate-type lib/rlib/dylib/cdylib/staticlib` according to flavor
   private static RustCompileRule createBuild(
@@ -300,13 +301,63 @@ public class RustCompileUtils {
       args.add(StringArg.of("-Cprefer-dynamic"));
     }
 
+    Tool compiler =
+        rustPlatform.getRustCompiler().resolve(graphBuilder, target.getTargetConfiguration());
+    Linker linker =
+        rustPlatform.getLinkerProvider().resolve(graphBuilder, target.getTargetConfiguration());
+    Optional<String> xcrunSdkPath = rustPlatform.getXcrunSdkPath().map(path -> path.toString());
+
+    if (rustConfig.getPipelinedCompilation() && crateType.supportsPipelining()) {
+      // The metadata rule is the first rule of the rlib's pipeline. It runs the same compilation,
+      // so it's created from the same arguments, and its output is named like a check build's.
+      RustCompileRule metadata =
+          (RustCompileRule)
+              graphBuilder.computeIfAbsent(
+                  target.withAppendedFlavors(RustDescriptionEnhancer.RFMETADATA),
+                  metadataTarget ->
+                      RustCompileRule.pipelinedFrom(
+                          graphBuilder,
+                          metadataTarget,
+                          projectFilesystem,
+                          CrateType.CHECK.filenameFor(target, crateName, cxxPlatform),
+                          compiler,
+                          linker,
+                          args.build(),
+                          depArgs.build(),
+                          linkerArgs.build(),
+                          environment,
+                          mappedSources,
+                          rootModule,
+                          rustConfig.getRemapSrcPaths(),
+                          xcrunSdkPath,
+                          true,
+                          Optional.empty()));
+      return RustCompileRule.pipelinedFrom(
+          graphBuilder,
+          target,
+          projectFilesystem,
+          filename,
+          compiler,
+          linker,
+          args.build(),
+          depArgs.build(),
+          linkerArgs.build(),
+          environment,
+          mappedSources,
+          rootModule,
+          rustConfig.getRemapSrcPaths(),
+          xcrunSdkPath,
+          false,
+          Optional.of(metadata));
+    }
+
     return RustCompileRule.from(
         graphBuilder,
         target,
         projectFilesystem,
         filename,
-        rustPlatform.getRustCompiler().resolve(graphBuilder, target.getTargetConfiguration()),
-        rustPlatform.getLinkerProvider().resolve(graphBuilder, target.getTargetConfiguration()),
+        compiler,
+        linker,
         args.build(),
         depArgs.build(),
         linkerArgs.build(),
@@ -314,7 +365,7 @@ public class RustCompileUtils {
         mappedSources,
         rootModule,
         rustConfig.getRemapSrcPaths(),
-        rustPlatform.getXcrunSdkPath().map(path -> path.toString()));
+        xcrunSdkPath);
   }
 
   private static void addDependencyArgs(
@@ -336,7 +387,7 @@ public class RustCompileUtils {
         .map(
             alias ->
                 ((RustLinkable) rule)
-                    .getLinkerArg(direct, crateType.isCheck(), rustPlatform, rustDepType, alias))
+                    .getLinkerArg(direct, crateType, rustPlatform, rustDepType, alias))
         .forEach(depArgs::add);
   }
 
@@ -34,6 +34,7 @@ public class RustDescriptionEnhancer {
   public static final Flavor RFRLIB_PIC = InternalFlavor.of("rlib-pic");
   public static final Flavor RFDYLIB = InternalFlavor.of("dylib");
   public static final Flavor RFPROC_MACRO = InternalFlavor.of("proc-macro");
+  public static final Flavor RFMETADATA = InternalFlavor.of("rmeta");
   public static final Flavor RFCHECK =
       UserFlavor.of(
           "check", "Quickly check code and generate metadata about crate, without generating code");
@@ -237,11 +237,11 @@ public class RustLibraryDescription
       @Override
       public Arg getLinkerArg(
           boolean direct,
-          boolean isCheck,
+          CrateType dependentCrateType,
           RustPlatform rustPlatform,
           LinkableDepType depType,
           Optional<String> alias) {
-        BuildRule rule;
+        RustCompileRule rule;
         CrateType crateType;
 
         // Determine a crate type from preferred linkage and deptype.
@@ -250,7 +250,7 @@ public class RustLibraryDescription
         // plugin.
         if (isProcMacro()) {
           crateType = CrateType.PROC_MACRO;
-        } else if (isCheck) {
+        } else if (dependentCrateType.isCheck()) {
           crateType = CrateType.CHECK;
         } else {
           switch (args.getPreferredLinkage()) {
@@ -305,7 +305,13 @@ public class RustLibraryDescription
                 args,
                 allDeps.get(graphBuilder, rustPlatform.getCxxPlatform()),
                 args.getNamedDeps());
-        SourcePath rlib = rule.getSourcePathToOutput();
+        // Crates which aren't linked against the dependency only need its metadata, which a
+        // pipelined compilation of it emits before the rlib. Procedural macros are loaded into
+        // rustc as dynamic libraries, so they are linked against their dependencies' code.
+        SourcePath rlib =
+            dependentCrateType.needAllDeps() || dependentCrateType == CrateType.PROC_MACRO
+                ? rule.getSourcePathToOutput()
+                : rule.getSourcePathToMetadata();
         return new RustLibraryArg(crate, rlib, direct, alias);
       }
 
@@ -34,7 +34,7 @@ interface RustLinkable {
    * Return Arg for dependency.
    *
    * @param direct true for direct dependency, false for transitive
-   * @param isCheck true if we're generated check builds
+   * @param crateType The type of crate being compiled against the dependency.
    * @param rustPlatform Current platform we're building for.
    * @param depType What kind of linkage we want with the dependency.
    * @param alias
@@ -42,7 +42,7 @@ interface RustLinkable {
    */
   Arg getLinkerArg(
       boolean direct,
-      boolean isCheck,
+      CrateType crateType,
       RustPlatform rustPlatform,
       Linker.LinkableDepType depType,
       Optional<String> alias);
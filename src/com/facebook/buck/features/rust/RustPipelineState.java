@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.features.rust;
+
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.core.rules.pipeline.RulePipelineState;
+import com.facebook.buck.core.rules.pipeline.RulePipelineStateFactory;
+import com.facebook.buck.event.ConsoleEvent;
+import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.util.ProcessExecutor;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import javax.annotation.Nullable;
+
+/**
+ * State shared by the rules of a pipelined rlib compilation: the rustc process started by the
+ * metadata rule, which the rlib rule waits for instead of compiling the crate again.
+ */
+public class RustPipelineState implements RulePipelineState {
+
+  /** All pipelined Rust rules must share a factory instance. */
+  static final RulePipelineStateFactory<RustPipelineState> FACTORY =
+      (context, filesystem, firstTarget) -> new RustPipelineState();
+
+  @Nullable private ProcessExecutor processExecutor;
+  @Nullable private ProcessExecutor.LaunchedProcess process;
+  @Nullable private Path linkOutput;
+  @Nullable private Path stderr;
+  @Nullable private StepExecutionResult result;
+
+  /**
+   * Records a running compilation.
+   *
+   * @param linkOutput absolute path the rlib is written to
+   * @param stderr absolute path rustc's stderr is redirected to
+   */
+  void setCompilation(
+      ProcessExecutor processExecutor,
+      ProcessExecutor.LaunchedProcess process,
+      Path linkOutput,
+      Path stderr) {
+    Preconditions.checkState(this.process == null, "Pipeline has already started a compilation.");
+    this.processExecutor = processExecutor;
+    this.process = process;
+    this.linkOutput = linkOutput;
+    this.stderr = stderr;
+  }
+
+  boolean hasCompilation() {
+    return process != null;
+  }
+
+  boolean isCompilationRunning() {
+    return process != null && process.isAlive();
+  }
+
+  Optional<Path> getLinkOutput() {
+    return Optional.ofNullable(linkOutput);
+  }
+
+  /**
+   * Waits for the compilation to finish and reports its diagnostics. Diagnostics are only reported
+   * by the first caller, so that every rule in the pipeline can wait for the same compilation.
+   */
+  StepExecutionResult waitForCompilation(ExecutionContext context)
+      throws IOException, InterruptedException {
+    Preconditions.checkState(process != null, "Pipeline has not started a compilation.");
+    if (result != null) {
+      return result;
+    }
+
+    ProcessExecutor.Result processResult =
+        Preconditions.checkNotNull(processExecutor).waitForLaunchedProcess(process);
+    String output = new String(Files.readAllBytes(stderr), Charsets.UTF_8);
+    // Like the unpipelined compilation, all output is a warning or an error, so it is emitted
+    // unless silence was requested.
+    if (!output.isEmpty()
+        && (processResult.getExitCode() != 0 || !context.getVerbosity().isSilent())) {
+      context.postEvent(ConsoleEvent.warning("%s", output));
+    }
+    result =
+        StepExecutionResult.builder()
+            .setExitCode(processResult.getExitCode())
+            .setExecutedCommand(processResult.getCommand())
+            .setStderr(Optional.of(output))
+            .build();
+    return result;
+  }
+
+  @Override
+  public void close() {
+    // The pipeline was aborted before the rlib rule waited for the compilation.
+    if (processExecutor != null && process != null && process.isAlive()) {
+      processExecutor.destroyLaunchedProcess(process);
+    }
+    processExecutor = null;
+    process = null;
+  }
+}
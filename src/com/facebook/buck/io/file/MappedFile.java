@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.io.file;
+
+import com.google.common.base.Preconditions;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * A file that {@link MappedFileContentsScrubber}s modify in place.
+ *
+ * <p>Scrubbers map only the ranges they work on, so files of any size can be scrubbed even though
+ * a single mapping is limited to {@link Integer#MAX_VALUE} bytes. Mappings are shared between the
+ * scrubbers applied to the file one after another. A scrubber may shrink the file, but never below
+ * the end of a range that is mapped; the file is only truncated in {@link #truncate()}, after the
+ * mappings have been dropped.
+ */
+public class MappedFile {
+
+  private final FileChannel channel;
+  private final NavigableMap<Long, MappedByteBuffer> mappings = new TreeMap<>();
+  private long size;
+
+  public MappedFile(FileChannel channel) throws IOException {
+    this.channel = channel;
+    this.size = channel.size();
+  }
+
+  /** The size of the file, as left by the scrubbers so far. */
+  public long size() {
+    return size;
+  }
+
+  /**
+   * Returns a read-write buffer over {@code length} bytes of the file starting at {@code
+   * position}. Writes to the buffer go straight to the file.
+   */
+  public ByteBuffer map(long position, int length) throws IOException {
+    checkRange(position, length);
+    Map.Entry<Long, MappedByteBuffer> mapping = mappings.floorEntry(position);
+    if (mapping == null || mapping.getKey() + mapping.getValue().capacity() < position + length) {
+      mappings.put(position, channel.map(FileChannel.MapMode.READ_WRITE, position, length));
+      mapping = mappings.floorEntry(position);
+    }
+    ByteBuffer view = mapping.getValue().duplicate();
+    int offset = (int) (position - mapping.getKey());
+    view.position(offset);
+    view.limit(offset + length);
+    return view.slice();
+  }
+
+  /** Copies {@code length} bytes of the file starting at {@code position} to the heap. */
+  public ByteBuffer read(long position, int length) throws IOException {
+    checkRange(position, length);
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new EOFException();
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /** Writes the remaining bytes of {@code buffer} to the file starting at {@code position}. */
+  public void write(long position, ByteBuffer buffer) throws IOException {
+    checkRange(position, buffer.remaining());
+    long start = position - buffer.position();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer, start + buffer.position());
+    }
+  }
+
+  /** Drops everything past {@code newSize} once the file is {@link #truncate() truncated}. */
+  public void shrink(long newSize) {
+    Preconditions.checkArgument(newSize <= size, "Can't grow a file of %s bytes", size);
+    for (Map.Entry<Long, MappedByteBuffer> mapping : mappings.entrySet()) {
+      long end = mapping.getKey() + mapping.getValue().capacity();
+      Preconditions.checkState(end <= newSize, "Can't cut off bytes mapped up to %s", end);
+    }
+    size = newSize;
+  }
+
+  /** Drops the mappings and cuts the file down to {@link #size()}. */
+  public void truncate() throws IOException {
+    mappings.clear();
+    if (size < channel.size()) {
+      channel.truncate(size);
+    }
+  }
+
+  private void checkRange(long position, int length) {
+    Preconditions.checkArgument(
+        position >= 0 && length >= 0 && position + length <= size,
+        "%s bytes at %s are outside of the file of %s bytes",
+        length,
+        position,
+        size);
+  }
+}
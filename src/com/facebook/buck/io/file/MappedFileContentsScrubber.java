@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.io.file;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link FileContentsScrubber} which works on memory mappings of the parts of the file it
+ * modifies, so that several of them can be applied to a file which is opened only once.
+ */
+public interface MappedFileContentsScrubber extends FileContentsScrubber {
+
+  /**
+   * Modifies the first {@link MappedFile#size()} bytes of {@code file} in place.
+   *
+   * @return the size the file should be truncated to, which is at most {@link MappedFile#size()}
+   *     and past the end of every range the scrubber mapped.
+   */
+  long scrubMappedFile(MappedFile file) throws IOException, ScrubException;
+
+  @Override
+  default void scrubFile(FileChannel channel) throws IOException, ScrubException {
+    MappedFile file = new MappedFile(channel);
+    file.shrink(scrubMappedFile(file));
+    file.truncate();
+  }
+}
@@ -19,11 +19,15 @@ package com.facebook.buck.json;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableSortedSet;
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
 import java.nio.file.Path;
-import java.util.Optional;
 
 @VisibleForTesting
 class JsonConcatenator {
@@ -36,6 +40,8 @@ class JsonConcatenator {
 
   @VisibleForTesting static final String JSON_ENCODING = "UTF-8";
 
+  private static final int BUFFER_SIZE = 64 * 1024;
+
   public JsonConcatenator(
       ImmutableSortedSet<Path> inputs, Path destination, ProjectFilesystem filesystem)
       throws IOException {
@@ -62,7 +68,14 @@ class JsonConcatenator {
     try {
       initializeArray();
       for (Path input : inputs) {
-        appendArray(loadJsonArrayFromFile(input));
+        try (Reader reader =
+            new BufferedReader(
+                new InputStreamReader(filesystem.newFileInputStream(input), JSON_ENCODING),
+                BUFFER_SIZE)) {
+          appendArray(reader);
+        } catch (IOException e) {
+          throw new IOException("Error loading " + input, e);
+        }
       }
     } finally {
       finalizeArray();
@@ -76,14 +89,17 @@ class JsonConcatenator {
 
   @VisibleForTesting
   void appendArray(String array) throws IOException {
-    if (isArrayEmpty(array)) {
-      return;
-    }
-    if (!stillEmpty) {
-      destinationBufferedWriter.write(",");
+    appendArray(new StringReader(array));
+  }
+
+  /**
+   * Copies the elements of the array read from {@code array} to the destination without holding
+   * the array in memory, so that arrays of any size can be concatenated.
+   */
+  private void appendArray(Reader array) throws IOException {
+    if (copyArrayElements(array, destinationBufferedWriter, stillEmpty ? "" : ",")) {
+      stillEmpty = false;
     }
-    destinationBufferedWriter.write(stripArrayTokens(array));
-    stillEmpty = false;
   }
 
   @VisibleForTesting
@@ -95,15 +111,6 @@ class JsonConcatenator {
     }
   }
 
-  private String loadJsonArrayFromFile(Path input) throws IOException {
-    Optional<String> result = filesystem.readFileIfItExists(input);
-    if (result.isPresent()) {
-      return result.get();
-    } else {
-      throw new IOException("Error loading " + input);
-    }
-  }
-
   @VisibleForTesting
   boolean isArrayEmpty(String array) {
     return array.matches("(\\s)*\\[(\\s)*\\](\\s)*");
@@ -113,4 +120,86 @@ class JsonConcatenator {
   String stripArrayTokens(String array) {
     return array.replaceAll("^(\\s)*\\[", "").replaceAll("\\](\\s)*$", "");
   }
+
+  /**
+   * Writes everything between the outer brackets of {@code array} to {@code out}, preceded by
+   * {@code separator}. Whitespace is held back until an element follows it, so nothing at all is
+   * written for an empty array. Strings and nesting are tracked to find the closing bracket, after
+   * which only whitespace may follow.
+   *
+   * @return whether the array had any elements.
+   */
+  private static boolean copyArrayElements(Reader array, Writer out, String separator)
+      throws IOException {
+    char[] buffer = new char[BUFFER_SIZE];
+    StringBuilder pending = new StringBuilder();
+    // Nesting of arrays and objects, where the outer array is 1.
+    int depth = 0;
+    boolean closed = false;
+    boolean inString = false;
+    boolean escaped = false;
+    boolean started = false;
+    for (int read = array.read(buffer); read != -1; read = array.read(buffer)) {
+      int run = 0;
+      for (int i = 0; i < read; i++) {
+        char c = buffer[i];
+        if (depth == 0) {
+          if (c == '[' && !closed) {
+            depth = 1;
+          } else if (!Character.isWhitespace(c)) {
+            throw new IOException(
+                closed
+                    ? "Unexpected '" + c + "' after the end of the JSON array"
+                    : "Expected a JSON array but found '" + c + "'");
+          }
+          run = i + 1;
+        } else if (inString) {
+          if (escaped) {
+            escaped = false;
+          } else if (c == '\\') {
+            escaped = true;
+          } else if (c == '"') {
+            inString = false;
+          }
+        } else if (Character.isWhitespace(c)) {
+          out.write(buffer, run, i - run);
+          pending.append(c);
+          run = i + 1;
+        } else if (depth == 1 && (c == ']' || c == '}')) {
+          if (c == '}') {
+            throw new IOException("Unbalanced '}' in JSON array");
+          }
+          out.write(buffer, run, i - run);
+          if (started) {
+            out.append(pending);
+          }
+          pending.setLength(0);
+          depth = 0;
+          closed = true;
+          run = i + 1;
+        } else {
+          if (!started) {
+            out.write(separator);
+            started = true;
+          }
+          if (pending.length() > 0) {
+            out.append(pending);
+            pending.setLength(0);
+          }
+          if (c == '"') {
+            inString = true;
+          } else if (c == '[' || c == '{') {
+            depth++;
+          } else if (c == ']' || c == '}') {
+            depth--;
+          }
+        }
+      }
+      out.write(buffer, run, read - run);
+    }
+    if (!closed) {
+      throw new IOException("Unterminated JSON array");
+    }
+    return started;
+  }
 }
@@ -20,6 +20,8 @@ import com.facebook.buck.core.model.BuildId;
 import com.facebook.buck.core.util.immutables.BuckStyleValueWithBuilder;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.jvm.java.runner.FileClassPathRunner;
+import com.facebook.buck.jvm.java.runner.TestRunnerWorker;
+import com.facebook.buck.test.selectors.TestCoverageMap;
 import com.facebook.buck.test.selectors.TestSelectorList;
 import com.facebook.buck.util.Verbosity;
 import com.facebook.buck.util.env.BuckClasspath;
@@ -27,9 +29,11 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.nio.file.Path;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Properties;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 import org.immutables.value.Value;
@@ -85,6 +89,12 @@ abstract class JUnitJvmArgs {
     return false;
   }
 
+  /**
+   * @return If set, the directory to record the classes covered by each test case to, as {@link
+   *     TestCoverageMap}s.
+   */
+  abstract Optional<Path> getTestCoverageMapDirectory();
+
   /** @return If true, include explanations for tests that were filtered out. */
   @Value.Default
   boolean isShouldExplainTestSelectorList() {
@@ -148,6 +158,96 @@ abstract class JUnitJvmArgs {
               FileClassPathRunner.CLASSPATH_FILE_PROPERTY, filesystem.resolve(getClasspathFile())));
     }
 
+    formatJvmOptionsToList(args, filesystem, verbosity);
+
+    if (shouldUseClasspathArgfile()) {
+      // Java 9+ supports argfiles for commandline arguments. We leverage this when we know we're
+      // launching a version of Java that supports this, as classloader changes in Java 9 preclude
+      // use from using the approach we use for Java 8-.
+      args.add("@" + filesystem.resolve(classpathArgfile.get()));
+    } else {
+      args.add("-classpath", getTestRunnerClasspath().toString());
+    }
+
+    args.add(FileClassPathRunner.class.getName());
+
+    // Specify the Java class whose main() method should be run. This is the class that is
+    // responsible for running the tests.
+    args.add(getTestType().getDefaultTestRunner());
+
+    formatTestRunnerArgsToList(args, defaultTestTimeoutMillis);
+  }
+
+  /**
+   * Whether the tests can run in a pooled JVM that runs several test rules. This isn't the case
+   * when the JVM has to start suspended for a debugger, or needs a coverage agent of its own, or
+   * when the test runner can't run without exiting.
+   */
+  public boolean canRunInPooledJvm() {
+    return getTestType() == TestType.JUNIT
+        && !isDebugEnabled()
+        && !isCodeCoverageEnabled()
+        && !getTestCoverageMapDirectory().isPresent();
+  }
+
+  /**
+   * Formats the command that starts a pooled JVM running {@link TestRunnerWorker}. System
+   * properties are left out, as they are set for every test rule by {@link
+   * #getPooledJvmCommand}.
+   */
+  public void formatPooledJvmArgsToList(
+      ImmutableList.Builder<String> args,
+      ProjectFilesystem filesystem,
+      Verbosity verbosity,
+      int maxRunsPerJvm) {
+    ImmutableList.Builder<String> jvmOptions = ImmutableList.builder();
+    formatJvmOptionsToList(jvmOptions, filesystem, verbosity);
+    for (String option : jvmOptions.build()) {
+      if (!option.startsWith("-D")) {
+        args.add(option);
+      }
+    }
+    args.add("-classpath", getTestRunnerClasspath().toString());
+    args.add(TestRunnerWorker.class.getName());
+    args.add(String.valueOf(maxRunsPerJvm));
+  }
+
+  /** Returns the properties file describing the test run to {@link TestRunnerWorker}. */
+  public String getPooledJvmCommand(
+      ProjectFilesystem filesystem, Verbosity verbosity, long defaultTestTimeoutMillis)
+      throws IOException {
+    Properties command = new Properties();
+    command.setProperty(
+        TestRunnerWorker.CLASSPATH_FILE_KEY, filesystem.resolve(getClasspathFile()).toString());
+    command.setProperty(TestRunnerWorker.MAIN_CLASS_KEY, getTestType().getDefaultTestRunner());
+
+    ImmutableList.Builder<String> jvmOptions = ImmutableList.builder();
+    formatJvmOptionsToList(jvmOptions, filesystem, verbosity);
+    for (String option : jvmOptions.build()) {
+      if (option.startsWith("-D")) {
+        int separator = option.indexOf('=');
+        command.setProperty(
+            TestRunnerWorker.PROPERTY_KEY_PREFIX
+                + (separator < 0 ? option.substring(2) : option.substring(2, separator)),
+            separator < 0 ? "" : option.substring(separator + 1));
+      }
+    }
+
+    ImmutableList.Builder<String> runnerArgs = ImmutableList.builder();
+    formatTestRunnerArgsToList(runnerArgs, defaultTestTimeoutMillis);
+    ImmutableList<String> builtRunnerArgs = runnerArgs.build();
+    for (int i = 0; i < builtRunnerArgs.size(); i++) {
+      command.setProperty(TestRunnerWorker.ARG_KEY_PREFIX + i, builtRunnerArgs.get(i));
+    }
+
+    StringWriter writer = new StringWriter();
+    command.store(writer, null);
+    return writer.toString();
+  }
+
+  /** Formats the options of the JVM itself, between the launcher and the classpath. */
+  private void formatJvmOptionsToList(
+      ImmutableList.Builder<String> args, ProjectFilesystem filesystem, Verbosity verbosity) {
     if (isCodeCoverageEnabled()) {
       args.add(
           String.format(
@@ -156,6 +256,12 @@ abstract class JUnitJvmArgs {
               JacocoConstants.getJacocoOutputDir(filesystem),
               JacocoConstants.JACOCO_EXEC_COVERAGE_FILE,
               isInclNoLocationClassesEnabled()));
+    } else if (getTestCoverageMapDirectory().isPresent()) {
+      // The test runner reads the coverage of each test case from the agent itself.
+      args.add(
+          String.format(
+              "-javaagent:%s=output=none,inclnolocationclasses=%b",
+              JacocoConstants.PATH_TO_JACOCO_AGENT_JAR, isInclNoLocationClassesEnabled()));
     }
 
     if (getPathToJavaAgent().isPresent()) {
@@ -169,6 +275,14 @@ abstract class JUnitJvmArgs {
     args.add(
         String.format("-D%s=%s", MODULE_BASE_PATH_PROPERTY, getBuckModuleBaseSourceCodePath()));
 
+    if (getTestCoverageMapDirectory().isPresent()) {
+      args.add(
+          String.format(
+              "-D%s=%s",
+              TestCoverageMap.DIRECTORY_PROPERTY,
+              filesystem.resolve(getTestCoverageMapDirectory().get())));
+    }
+
     // Disable the Java icon from appearing in the OS X Dock while running tests
     args.add("-Dapple.awt.UIElement=true");
 
@@ -200,22 +314,11 @@ abstract class JUnitJvmArgs {
     if (verbosity.shouldUseVerbosityFlagIfAvailable()) {
       args.add("-verbose");
     }
+  }
 
-    if (shouldUseClasspathArgfile()) {
-      // Java 9+ supports argfiles for commandline arguments. We leverage this when we know we're
-      // launching a version of Java that supports this, as classloader changes in Java 9 preclude
-      // use from using the approach we use for Java 8-.
-      args.add("@" + filesystem.resolve(classpathArgfile.get()));
-    } else {
-      args.add("-classpath", getTestRunnerClasspath().toString());
-    }
-
-    args.add(FileClassPathRunner.class.getName());
-
-    // Specify the Java class whose main() method should be run. This is the class that is
-    // responsible for running the tests.
-    args.add(getTestType().getDefaultTestRunner());
-
+  /** Formats the arguments of the test runner. */
+  private void formatTestRunnerArgsToList(
+      ImmutableList.Builder<String> args, long defaultTestTimeoutMillis) {
     // The first argument to the test runner is where the test results should be written. It is not
     // reliable to write test results to stdout or stderr because there may be output from the unit
     // tests written to those file descriptors, as well.
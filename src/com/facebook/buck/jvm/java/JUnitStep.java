@@ -17,7 +17,9 @@
 package com.facebook.buck.jvm.java;
 
 import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.core.exceptions.HumanReadableException;
 import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.io.ExecutableFinder;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.shell.ShellStep;
@@ -25,12 +27,27 @@ import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.util.MoreSuppliers;
 import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.ProcessExecutorParams;
+import com.facebook.buck.util.Verbosity;
+import com.facebook.buck.util.env.BuckClasspath;
 import com.facebook.buck.util.environment.Platform;
+import com.facebook.buck.worker.WorkerJobResult;
+import com.facebook.buck.worker.WorkerProcessIdentity;
+import com.facebook.buck.worker.WorkerProcessParams;
+import com.facebook.buck.worker.WorkerProcessPool;
+import com.facebook.buck.worker.WorkerProcessPool.BorrowedWorkerProcess;
+import com.facebook.buck.worker.WorkerProcessPoolFactory;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Map;
@@ -49,6 +66,8 @@ public class JUnitStep extends ShellStep {
   private final Optional<Long> testCaseTimeoutMs;
   private final ImmutableMap<String, String> env;
   private final JUnitJvmArgs junitJvmArgs;
+  private final int maxPooledJvms;
+  private final int maxRunsPerPooledJvm;
   private Supplier<Path> classpathArgfile;
 
   // Set when the junit command times out.
@@ -62,6 +81,33 @@ public class JUnitStep extends ShellStep {
       ImmutableMap<String, String> env,
       ImmutableList<String> javaRuntimeLauncher,
       JUnitJvmArgs junitJvmArgs) {
+    this(
+        filesystem,
+        nativeLibsEnvironment,
+        testRuleTimeoutMs,
+        testCaseTimeoutMs,
+        env,
+        javaRuntimeLauncher,
+        junitJvmArgs,
+        /* maxPooledJvms */ 0,
+        /* maxRunsPerPooledJvm */ 1);
+  }
+
+  /**
+   * @param maxPooledJvms if greater than 0, the tests run in one of up to this many JVMs that are
+   *     kept running to run other test rules, if the tests can run in a pooled JVM.
+   * @param maxRunsPerPooledJvm the number of test rules a pooled JVM runs before it is replaced.
+   */
+  public JUnitStep(
+      ProjectFilesystem filesystem,
+      Map<String, String> nativeLibsEnvironment,
+      Optional<Long> testRuleTimeoutMs,
+      Optional<Long> testCaseTimeoutMs,
+      ImmutableMap<String, String> env,
+      ImmutableList<String> javaRuntimeLauncher,
+      JUnitJvmArgs junitJvmArgs,
+      int maxPooledJvms,
+      int maxRunsPerPooledJvm) {
     super(filesystem.getRootPath());
     this.filesystem = filesystem;
     this.javaRuntimeLauncher = javaRuntimeLauncher;
@@ -70,6 +116,8 @@ public class JUnitStep extends ShellStep {
     this.testCaseTimeoutMs = testCaseTimeoutMs;
     this.env = env;
     this.junitJvmArgs = junitJvmArgs;
+    this.maxPooledJvms = maxPooledJvms;
+    this.maxRunsPerPooledJvm = maxRunsPerPooledJvm;
 
     this.classpathArgfile =
         MoreSuppliers.memoize(
@@ -122,10 +170,88 @@ public class JUnitStep extends ShellStep {
   @Override
   public StepExecutionResult execute(ExecutionContext context)
       throws InterruptedException, IOException {
+    if (shouldRunInPooledJvm()) {
+      try {
+        return executeInPooledJvm(context);
+      } catch (IOException | HumanReadableException e) {
+        // E.g. a test called System.exit() and took the JVM with it.
+        LOG.warn(e, "Pooled JVM failed to run tests, running them in a JVM of their own.");
+      }
+    }
     ensureClasspathArgfile();
     return super.execute(context);
   }
 
+  /**
+   * Whether the tests run in a pooled JVM. Rules with a timeout don't, since the JVM running the
+   * tests is killed when they time out.
+   */
+  @VisibleForTesting
+  boolean shouldRunInPooledJvm() {
+    return maxPooledJvms > 0 && !testRuleTimeoutMs.isPresent() && junitJvmArgs.canRunInPooledJvm();
+  }
+
+  private StepExecutionResult executeInPooledJvm(ExecutionContext context)
+      throws InterruptedException, IOException {
+    WorkerProcessParams processParams = getPooledJvmParams(context);
+    WorkerProcessPool pool =
+        new WorkerProcessPoolFactory(filesystem).getWorkerProcessPool(context, processParams);
+    WorkerJobResult result;
+    try (BorrowedWorkerProcess process = pool.borrowWorkerProcess()) {
+      result =
+          process.submitAndWaitForJob(
+              junitJvmArgs.getPooledJvmCommand(
+                  filesystem,
+                  context.getVerbosity(),
+                  testCaseTimeoutMs.orElse(context.getDefaultTestTimeoutMillis())));
+    }
+
+    // Print the output like ShellStep prints the output of a JVM of its own.
+    Verbosity verbosity = context.getVerbosity();
+    Optional<String> stdout = result.getStdout().filter(output -> !output.isEmpty());
+    Optional<String> stderr = result.getStderr().filter(output -> !output.isEmpty());
+    if (stdout.isPresent() && (result.getExitCode() != 0 || shouldPrintStdout(verbosity))) {
+      context.postEvent(ConsoleEvent.info("%s", stdout.get()));
+    }
+    if (stderr.isPresent() && (result.getExitCode() != 0 || shouldPrintStderr(verbosity))) {
+      context.postEvent(ConsoleEvent.warning("%s", stderr.get()));
+    }
+    return StepExecutionResult.builder()
+        .setExitCode(result.getExitCode())
+        .setExecutedCommand(processParams.getStartupCommand())
+        .setStderr(result.getStderr())
+        .build();
+  }
+
+  /**
+   * Pooled JVMs are shared by the rules that start them the same way, and are kept running across
+   * builds while Buck runs as a daemon. System properties and the classpath are set for every rule.
+   */
+  @VisibleForTesting
+  WorkerProcessParams getPooledJvmParams(ExecutionContext context) {
+    ImmutableList.Builder<String> command = ImmutableList.builder();
+    command.addAll(javaRuntimeLauncher);
+    junitJvmArgs.formatPooledJvmArgsToList(
+        command, filesystem, context.getVerbosity(), maxRunsPerPooledJvm);
+    ImmutableList<String> startupCommand = command.build();
+
+    // The classpath file differs between rules, and the pooled JVM doesn't need it.
+    ImmutableSortedMap<String, String> startupEnvironment =
+        ImmutableSortedMap.copyOf(
+            Maps.filterKeys(
+                getEnvironmentVariables(context),
+                name -> !name.equals(BuckClasspath.TEST_ENV_VAR_NAME)));
+
+    String key = Joiner.on(' ').join(startupCommand) + " " + startupEnvironment;
+    HashCode hash = Hashing.sha1().hashString(key, StandardCharsets.UTF_8);
+    return WorkerProcessParams.of(
+        filesystem.getBuckPaths().getScratchDir().resolve("junit-jvms").resolve(hash.toString()),
+        startupCommand,
+        startupEnvironment,
+        maxPooledJvms,
+        Optional.of(WorkerProcessIdentity.of(key, hash)));
+  }
+
   @Override
   public ImmutableMap<String, String> getEnvironmentVariables(ExecutionContext context) {
     ImmutableMap.Builder<String, String> env = ImmutableMap.builder();
@@ -30,4 +30,9 @@ public final class JacocoConstants {
   public static Path getJacocoOutputDir(ProjectFilesystem filesystem) {
     return filesystem.getBuckPaths().getGenDir().resolve("jacoco");
   }
+
+  /** @return the directory java tests write the classes covered by each test case to. */
+  public static Path getTestCoverageMapDir(ProjectFilesystem filesystem) {
+    return filesystem.getBuckPaths().getGenDir().resolve("test-coverage-maps");
+  }
 }
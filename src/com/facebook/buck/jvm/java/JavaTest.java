@@ -38,6 +38,7 @@ import com.facebook.buck.core.sourcepath.resolver.SourcePathResolverAdapter;
 import com.facebook.buck.core.test.rule.ExternalTestRunnerRule;
 import com.facebook.buck.core.test.rule.ExternalTestRunnerTestSpec;
 import com.facebook.buck.core.test.rule.ExternalTestSpec;
+import com.facebook.buck.core.test.rule.ShardableTestRule;
 import com.facebook.buck.core.test.rule.TestRule;
 import com.facebook.buck.core.toolchain.tool.Tool;
 import com.facebook.buck.core.util.log.Logger;
@@ -74,6 +75,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -88,7 +90,7 @@ import javax.annotation.Nullable;
 
 @SuppressWarnings("PMD.TestClassWithoutTestCases")
 public class JavaTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
-    implements TestRule,
+    implements ShardableTestRule,
         HasClasspathEntries,
         HasRuntimeDeps,
         HasPostBuildSteps,
@@ -143,6 +145,15 @@ public class JavaTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
 
   @Nullable private JUnitStep externalJunitStep;
 
+  /** The directory each test class writes its results to, when the tests run in shards. */
+  @Nullable private ImmutableMap<String, Path> shardOutputDirectories;
+
+  /**
+   * Whether only the test cases affected by changed files ran, in which case test classes without
+   * results didn't run at all.
+   */
+  private boolean isSelectingAffectedTests;
+
   private final boolean runTestSeparately;
 
   private final ForkMode forkMode;
@@ -215,6 +226,7 @@ public class JavaTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
       ExecutionContext executionContext,
       SourcePathResolverAdapter pathResolver,
       TestRunningOptions options,
+      TestSelectorList testSelectorList,
       Optional<Path> outDir,
       Optional<Path> robolectricLogPath,
       Set<String> testClassNames) {
@@ -231,7 +243,6 @@ public class JavaTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
 
     BuckEventBus buckEventBus = executionContext.getBuckEventBus();
     BuildId buildId = buckEventBus.getBuildId();
-    TestSelectorList testSelectorList = options.getTestSelectorList();
     JUnitJvmArgs args =
         ImmutableJUnitJvmArgs.builder()
             .setTargetJavaVersion(targetJavaVersion)
@@ -241,6 +252,10 @@ public class JavaTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
             .setTestRunnerClasspath(TESTRUNNER_CLASSES)
             .setCodeCoverageEnabled(executionContext.isCodeCoverageEnabled())
             .setInclNoLocationClassesEnabled(executionContext.isInclNoLocationClassesEnabled())
+            .setTestCoverageMapDirectory(
+                options.isRecordingTestCoverageMaps()
+                    ? Optional.of(JacocoConstants.getTestCoverageMapDir(getProjectFilesystem()))
+                    : Optional.empty())
             .setDebugEnabled(executionContext.isDebugEnabled())
             .setPathToJavaAgent(options.getPathToJavaAgent())
             .setBuildId(buildId)
@@ -265,7 +280,9 @@ public class JavaTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
         testCaseTimeoutMs,
         Arg.stringify(env, pathResolver),
         javaRuntimeLauncher.getCommandPrefix(pathResolver),
-        args);
+        args,
+        options.getMaxPooledTestJvms(),
+        options.getMaxRunsPerPooledTestJvm());
   }
 
   /** Returns the underlying java library containing the compiled tests. */
@@ -305,34 +322,166 @@ public class JavaTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
             BuildCellRelativePath.fromCellRelativePath(
                 buildContext.getBuildCellRootPath(), getProjectFilesystem(), pathToTestOutput)));
     addPreTestSteps(buildContext, steps);
+    Optional<TestImpactSelection> impactSelection = selectAffectedTests(options, testClassNames);
+    junits =
+        getJUnitSteps(
+            executionContext,
+            buildContext.getSourcePathResolver(),
+            options,
+            getTestSelectorList(options, impactSelection),
+            pathToTestOutput,
+            pathToTestLogs,
+            impactSelection.<Set<String>>map(TestImpactSelection::getTestClasses)
+                .orElse(testClassNames));
+    shardOutputDirectories = null;
+    steps.addAll(junits);
+    return steps.build();
+  }
+
+  /**
+   * Narrows the tests down to the test cases affected by changed files, if the changed files are
+   * known.
+   */
+  private Optional<TestImpactSelection> selectAffectedTests(
+      TestRunningOptions options, Set<String> testClassNames) {
+    Optional<TestImpactSelection> selection =
+        options
+            .getChangedFiles()
+            .flatMap(
+                changedFiles ->
+                    TestImpactSelection.select(
+                        getProjectFilesystem()
+                            .resolve(JacocoConstants.getTestCoverageMapDir(getProjectFilesystem())),
+                        testClassNames,
+                        changedFiles));
+    isSelectingAffectedTests = selection.isPresent();
+    if (selection.isPresent()) {
+      LOG.debug(
+          "%s: running %d of %d test classes, excluding %d unaffected test cases",
+          getBuildTarget(),
+          selection.get().getTestClasses().size(),
+          testClassNames.size(),
+          selection.get().getExclusions().size());
+    }
+    return selection;
+  }
+
+  private static TestSelectorList getTestSelectorList(
+      TestRunningOptions options, Optional<TestImpactSelection> impactSelection) {
+    if (!impactSelection.isPresent() || impactSelection.get().getExclusions().isEmpty()) {
+      return options.getTestSelectorList();
+    }
+    // The first matching selector decides, so excluded test cases can't be selected again.
+    return TestSelectorList.builder()
+        .addRawSelectors(impactSelection.get().getExclusions())
+        .addRawSelectors(options.getTestSelectorList().getRawSelectors())
+        .build();
+  }
+
+  private ImmutableList<JUnitStep> getJUnitSteps(
+      ExecutionContext executionContext,
+      SourcePathResolverAdapter pathResolver,
+      TestRunningOptions options,
+      TestSelectorList testSelectorList,
+      Path outDir,
+      Path logPath,
+      Set<String> testClassNames) {
     if (forkMode() == ForkMode.PER_TEST) {
       ImmutableList.Builder<JUnitStep> junitsBuilder = ImmutableList.builder();
       for (String testClass : testClassNames) {
         junitsBuilder.add(
             getJUnitStep(
                 executionContext,
-                buildContext.getSourcePathResolver(),
+                pathResolver,
                 options,
-                Optional.of(pathToTestOutput),
-                Optional.of(pathToTestLogs),
+                testSelectorList,
+                Optional.of(outDir),
+                Optional.of(logPath),
                 Collections.singleton(testClass)));
       }
-      junits = junitsBuilder.build();
+      return junitsBuilder.build();
     } else {
-      junits =
-          ImmutableList.of(
-              getJUnitStep(
-                  executionContext,
-                  buildContext.getSourcePathResolver(),
-                  options,
-                  Optional.of(pathToTestOutput),
-                  Optional.of(pathToTestLogs),
-                  testClassNames));
+      return ImmutableList.of(
+          getJUnitStep(
+              executionContext,
+              pathResolver,
+              options,
+              testSelectorList,
+              Optional.of(outDir),
+              Optional.of(logPath),
+              testClassNames));
     }
-    steps.addAll(junits);
+  }
+
+  @Override
+  public ImmutableSet<String> getTestCaseNames(SourcePathResolverAdapter pathResolver) {
+    return ImmutableSet.copyOf(getClassNamesForSources(pathResolver));
+  }
+
+  @Override
+  public ImmutableList<Step> prepareTestShards(
+      ExecutionContext executionContext, TestRunningOptions options, BuildContext buildContext) {
+    ImmutableList.Builder<Step> steps = ImmutableList.builder();
+    addPreTestSteps(buildContext, steps);
     return steps.build();
   }
 
+  /**
+   * Runs the test classes selected by each shard in its own JVM, writing results to a directory of
+   * its own.
+   */
+  @Override
+  public ImmutableList<ImmutableList<Step>> runTestShards(
+      ExecutionContext executionContext,
+      TestRunningOptions options,
+      BuildContext buildContext,
+      TestReportingCallback testReportingCallback,
+      ImmutableList<TestSelectorList> shards) {
+    Set<String> allTestClassNames = getClassNamesForSources(buildContext.getSourcePathResolver());
+    Optional<TestImpactSelection> impactSelection = selectAffectedTests(options, allTestClassNames);
+    Set<String> testClassNames =
+        impactSelection.<Set<String>>map(TestImpactSelection::getTestClasses)
+            .orElse(allTestClassNames);
+    TestSelectorList testSelectorList = getTestSelectorList(options, impactSelection);
+    ImmutableList.Builder<ImmutableList<Step>> shardSteps = ImmutableList.builder();
+    ImmutableList.Builder<JUnitStep> junitsBuilder = ImmutableList.builder();
+    ImmutableMap.Builder<String, Path> outputDirectories = ImmutableMap.builder();
+    for (int i = 0; i < shards.size(); i++) {
+      TestSelectorList shard = shards.get(i);
+      Path outDir = getPathToTestOutputDirectory().resolve("shard-" + i);
+      Set<String> shardClassNames = new LinkedHashSet<>();
+      for (String testClass : testClassNames) {
+        if (shard.possiblyIncludesClassName(testClass)) {
+          shardClassNames.add(testClass);
+          outputDirectories.put(testClass, outDir);
+        }
+      }
+
+      ImmutableList.Builder<Step> steps = ImmutableList.builder();
+      steps.addAll(
+          MakeCleanDirectoryStep.of(
+              BuildCellRelativePath.fromCellRelativePath(
+                  buildContext.getBuildCellRootPath(), getProjectFilesystem(), outDir)));
+      if (!shardClassNames.isEmpty()) {
+        ImmutableList<JUnitStep> shardJunits =
+            getJUnitSteps(
+                executionContext,
+                buildContext.getSourcePathResolver(),
+                options,
+                testSelectorList,
+                outDir,
+                outDir.resolve(pathToTestLogs.getFileName()),
+                shardClassNames);
+        steps.addAll(shardJunits);
+        junitsBuilder.addAll(shardJunits);
+      }
+      shardSteps.add(steps.build());
+    }
+    junits = junitsBuilder.build();
+    shardOutputDirectories = outputDirectories.build();
+    return shardSteps.build();
+  }
+
   private static Iterable<String> reorderClasses(Set<String> testClassNames, boolean shuffle) {
     Random rng;
     if (shuffle) {
@@ -420,14 +569,19 @@ public class JavaTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
       List<TestCaseSummary> summaries = Lists.newArrayListWithCapacity(testClassNames.size());
       for (String testClass : testClassNames) {
         String testSelectorSuffix = "";
-        if (isUsingTestSelectors) {
+        if (isUsingTestSelectors || isSelectingAffectedTests) {
           testSelectorSuffix += ".test_selectors";
         }
         String path = String.format("%s%s.xml", testClass, testSelectorSuffix);
+        Path outputDirectory =
+            shardOutputDirectories == null
+                ? getPathToTestOutputDirectory()
+                : shardOutputDirectories.getOrDefault(testClass, getPathToTestOutputDirectory());
         Path testResultFile =
-            getProjectFilesystem()
-                .getPathForRelativePath(getPathToTestOutputDirectory().resolve(path));
-        if (!isUsingTestSelectors && !Files.isRegularFile(testResultFile)) {
+            getProjectFilesystem().getPathForRelativePath(outputDirectory.resolve(path));
+        if (!isUsingTestSelectors
+            && !isSelectingAffectedTests
+            && !Files.isRegularFile(testResultFile)) {
           String message;
           for (JUnitStep junit : Objects.requireNonNull(junits)) {
             if (junit.hasTimedOut()) {
@@ -448,13 +602,22 @@ public class JavaTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
         }
       }
 
-      return TestResults.builder()
-          .setBuildTarget(getBuildTarget())
-          .setTestCases(summaries)
-          .setContacts(contacts)
-          .setLabels(labels.stream().map(Object::toString).collect(ImmutableSet.toImmutableSet()))
-          .addTestLogPaths(getProjectFilesystem().resolve(pathToTestLogs))
-          .build();
+      TestResults.Builder results =
+          TestResults.builder()
+              .setBuildTarget(getBuildTarget())
+              .setTestCases(summaries)
+              .setContacts(contacts)
+              .setLabels(
+                  labels.stream().map(Object::toString).collect(ImmutableSet.toImmutableSet()));
+      if (shardOutputDirectories == null) {
+        results.addTestLogPaths(getProjectFilesystem().resolve(pathToTestLogs));
+      } else {
+        for (Path outputDirectory : ImmutableSet.copyOf(shardOutputDirectories.values())) {
+          Path logPath = outputDirectory.resolve(pathToTestLogs.getFileName());
+          results.addTestLogPaths(getProjectFilesystem().resolve(logPath));
+        }
+      }
+      return results.build();
     };
   }
 
@@ -543,14 +706,18 @@ public class JavaTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
   @Override
   public ExternalTestSpec getExternalTestRunnerSpec(
       ExecutionContext executionContext, TestRunningOptions options, BuildContext buildContext) {
+    Set<String> testClassNames = getClassNamesForSources(buildContext.getSourcePathResolver());
+    Optional<TestImpactSelection> impactSelection = selectAffectedTests(options, testClassNames);
     externalJunitStep =
         getJUnitStep(
             executionContext,
             buildContext.getSourcePathResolver(),
             options,
+            getTestSelectorList(options, impactSelection),
             Optional.empty(),
             Optional.empty(),
-            getClassNamesForSources(buildContext.getSourcePathResolver()));
+            impactSelection.<Set<String>>map(TestImpactSelection::getTestClasses)
+                .orElse(testClassNames));
     return ExternalTestRunnerTestSpec.builder()
         .setCwd(getProjectFilesystem().getRootPath().getPath())
         .setTarget(getBuildTarget())
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.core.util.immutables.BuckStyleValue;
+import com.facebook.buck.test.selectors.TestCoverageMap;
+import com.facebook.buck.test.selectors.TestDescription;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * The test cases of a java test affected by changed files, according to the {@link
+ * TestCoverageMap}s recorded by earlier runs.
+ */
+@BuckStyleValue
+interface TestImpactSelection {
+
+  /** @return the test classes with test cases to run. */
+  ImmutableSet<String> getTestClasses();
+
+  /** @return raw test selectors excluding the test cases which aren't affected. */
+  ImmutableList<String> getExclusions();
+
+  /**
+   * Selects the test cases covering changed java sources.
+   *
+   * <p>Changed sources are matched with the classes they declare by their path, the way javac finds
+   * the source of a class. Any other change, such as to a resource or a dependency, may affect
+   * every test case, so all of them run. Test cases without recorded coverage, such as new ones,
+   * always run, as do all test cases of a test class whose coverage outside of test cases is
+   * affected.
+   *
+   * @param changedFiles the paths of the files changed since the coverage was recorded.
+   * @return the selection, or nothing if all test cases have to run.
+   */
+  static Optional<TestImpactSelection> select(
+      Path coverageMapDir, Iterable<String> testClassNames, Iterable<String> changedFiles) {
+    // "src/com/example/Foo.java" may be the source of "com/example/Foo", "example/Foo" or "Foo".
+    Set<String> changedSources = new HashSet<>();
+    for (String changedFile : changedFiles) {
+      String path = changedFile.replace('\\', '/');
+      if (!path.endsWith(".java")) {
+        return Optional.empty();
+      }
+      path = path.substring(0, path.length() - ".java".length());
+      changedSources.add(path);
+      for (int separator = path.indexOf('/');
+          separator >= 0;
+          separator = path.indexOf('/', separator + 1)) {
+        changedSources.add(path.substring(separator + 1));
+      }
+    }
+    Predicate<String> isChanged =
+        className -> {
+          int nested = className.indexOf('$');
+          return changedSources.contains(nested < 0 ? className : className.substring(0, nested));
+        };
+
+    ImmutableSet.Builder<String> testClasses = ImmutableSet.builder();
+    ImmutableList.Builder<String> exclusions = ImmutableList.builder();
+    for (String testClassName : testClassNames) {
+      File file = TestCoverageMap.getFile(coverageMapDir.toFile(), testClassName);
+      TestCoverageMap coverageMap;
+      try {
+        coverageMap = TestCoverageMap.read(file);
+      } catch (IOException e) {
+        // Tests which were never recorded, or whose coverage can't be read, run in full.
+        testClasses.add(testClassName);
+        continue;
+      }
+      if (coverageMap.getTestClassCoverage().stream().anyMatch(isChanged)) {
+        testClasses.add(testClassName);
+        continue;
+      }
+
+      boolean isAffected = false;
+      List<String> testClassExclusions = new ArrayList<>();
+      for (Map.Entry<TestDescription, Set<String>> entry :
+          coverageMap.getTestCaseCoverage().entrySet()) {
+        TestDescription testCase = entry.getKey();
+        // Selectors are passed to the test runner one per line.
+        if (entry.getValue().stream().anyMatch(isChanged)
+            || testCase.getMethodName().contains("\n")
+            || testCase.getMethodName().contains("\r")) {
+          isAffected = true;
+        } else {
+          testClassExclusions.add(
+              "!^"
+                  + Pattern.quote(testCase.getClassName())
+                  + "#^"
+                  + Pattern.quote(testCase.getMethodName()));
+        }
+      }
+      if (isAffected) {
+        testClasses.add(testClassName);
+        exclusions.addAll(testClassExclusions);
+      }
+    }
+    return Optional.of(ImmutableTestImpactSelection.of(testClasses.build(), exclusions.build()));
+  }
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.facebook.buck.jvm.java.runner;
+
+import com.facebook.buck.jvm.java.version.JavaVersion;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Runs the tests of one test rule after another in the same JVM, so that the JVM only starts up
+ * once. It talks to Buck using the worker process protocol on stdin and stdout, and every command
+ * runs a test runner as {@link FileClassPathRunner} would.
+ *
+ * <p>The arguments file of a command is a properties file naming the classpath file, the main
+ * class of the test runner and its arguments, and the system properties to run it with. The main
+ * class must have a static {@code int run(String[])} method that runs the tests and returns the
+ * exit code instead of exiting.
+ *
+ * <p>Every command gets a fresh class loader, which only shares the JRE with the worker, so that
+ * test rules can't see each other's classes. System properties, stdout and stderr are restored
+ * after every command. The worker retires after a number of commands, and when tests leave threads
+ * or a full heap behind, so that Buck replaces it with a fresh JVM.
+ *
+ * <p>Note: like {@link FileClassPathRunner}, this class only depends on classes present in the JRE.
+ */
+public class TestRunnerWorker {
+  public static final String CLASSPATH_FILE_KEY = "classpath_file";
+  public static final String MAIN_CLASS_KEY = "main_class";
+  public static final String ARG_KEY_PREFIX = "arg.";
+  public static final String PROPERTY_KEY_PREFIX = "property.";
+
+  private static final String RUN_METHOD = "run";
+
+  // A worker whose heap is still this full after collecting garbage is replaced.
+  private static final double MAX_USED_HEAP_FRACTION = 0.75;
+
+  private static final long LEAKED_THREAD_GRACE_MILLIS = 100;
+
+  private final PushbackReader in;
+  private final Writer out;
+  private final Path testRunnerClassPath;
+  private final int maxCommands;
+  private final Set<Thread> workerThreads = new HashSet<>();
+
+  TestRunnerWorker(Reader in, Writer out, Path testRunnerClassPath, int maxCommands) {
+    this.in = new PushbackReader(in);
+    this.out = out;
+    this.testRunnerClassPath = testRunnerClassPath;
+    this.maxCommands = maxCommands;
+  }
+
+  /**
+   * Expects the number of commands to run before retiring as the only argument. The worker must be
+   * started with just the test runner classes on its classpath.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 1) {
+      System.exit(-1);
+    }
+
+    // Only the protocol may write to stdout.
+    PrintStream protocolOut = System.out;
+    System.setOut(System.err);
+    new TestRunnerWorker(
+            new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)),
+            new BufferedWriter(new OutputStreamWriter(protocolOut, StandardCharsets.UTF_8)),
+            Paths.get(System.getProperty("java.class.path")),
+            Integer.parseInt(args[0]))
+        .serve();
+
+    // Exit even if tests left non-daemon threads behind.
+    System.exit(0);
+  }
+
+  /** Answers commands until Buck closes the protocol. */
+  void serve() throws IOException {
+    expect('[');
+    Map<String, String> handshake = readObject();
+    out.write(
+        String.format(
+            "[{\"id\":%s,\"type\":\"handshake\",\"protocol_version\":\"0\",\"capabilities\":[]}",
+            handshake.get("id")));
+    out.flush();
+    workerThreads.addAll(Thread.getAllStackTraces().keySet());
+
+    int commands = 0;
+    while (true) {
+      int next = readToken();
+      if (next == ']') {
+        out.write("]");
+        out.flush();
+        return;
+      } else if (next != ',') {
+        throw new IOException(String.format("Expected ',' or ']' but got '%c'", next));
+      }
+
+      Map<String, String> command = readObject();
+      String type = "error";
+      int exitCode = 1;
+      if ("command".equals(command.get("type"))) {
+        type = "result";
+        exitCode =
+            runCommand(
+                Paths.get(command.get("args_path")),
+                Paths.get(command.get("stdout_path")),
+                Paths.get(command.get("stderr_path")));
+      }
+      commands++;
+      boolean retire = commands >= maxCommands || hasLeakedThreads() || isHeapFull();
+      out.write(
+          String.format(
+              ",{\"id\":%s,\"type\":\"%s\",\"exit_code\":%d%s}",
+              command.get("id"), type, exitCode, retire ? ",\"retire\":true" : ""));
+      out.flush();
+    }
+  }
+
+  private int runCommand(Path argsPath, Path stdoutPath, Path stderrPath) throws IOException {
+    Properties command = new Properties();
+    try (Reader reader = Files.newBufferedReader(argsPath, StandardCharsets.UTF_8)) {
+      command.load(reader);
+    }
+
+    Thread thread = Thread.currentThread();
+    ClassLoader contextClassLoader = thread.getContextClassLoader();
+    Properties systemProperties = (Properties) System.getProperties().clone();
+    PrintStream systemOut = System.out;
+    PrintStream systemErr = System.err;
+    try (PrintStream stdout =
+            new PrintStream(Files.newOutputStream(stdoutPath), true, StandardCharsets.UTF_8.name());
+        PrintStream stderr =
+            new PrintStream(Files.newOutputStream(stderrPath), true, StandardCharsets.UTF_8.name());
+        URLClassLoader classLoader =
+            new URLClassLoader(
+                getClassPath(Paths.get(command.getProperty(CLASSPATH_FILE_KEY))),
+                getSharedClassLoader())) {
+      System.setOut(stdout);
+      System.setErr(stderr);
+      for (String key : command.stringPropertyNames()) {
+        if (key.startsWith(PROPERTY_KEY_PREFIX)) {
+          System.setProperty(key.substring(PROPERTY_KEY_PREFIX.length()), command.getProperty(key));
+        }
+      }
+      thread.setContextClassLoader(classLoader);
+      try {
+        Method run =
+            classLoader
+                .loadClass(command.getProperty(MAIN_CLASS_KEY))
+                .getMethod(RUN_METHOD, String[].class);
+        return (Integer) run.invoke(null, (Object) getArgs(command));
+      } catch (ReflectiveOperationException e) {
+        e.printStackTrace();
+        return 1;
+      }
+    } finally {
+      thread.setContextClassLoader(contextClassLoader);
+      System.setProperties(systemProperties);
+      System.setOut(systemOut);
+      System.setErr(systemErr);
+    }
+  }
+
+  private URL[] getClassPath(Path classPathFile) throws IOException {
+    List<Path> classPath = new ArrayList<>();
+    classPath.add(testRunnerClassPath);
+    classPath.addAll(FileClassPathRunner.getTestClassPath(classPathFile));
+
+    URL[] urls = new URL[classPath.size()];
+    StringBuilder classPathProperty = new StringBuilder();
+    for (int i = 0; i < urls.length; i++) {
+      urls[i] = classPath.get(i).toUri().toURL();
+      classPathProperty.append(i == 0 ? "" : File.pathSeparator).append(classPath.get(i));
+    }
+    System.setProperty("java.class.path", classPathProperty.toString());
+    return urls;
+  }
+
+  /** Returns the class loader of the JRE classes outside of the bootstrap class loader. */
+  private static ClassLoader getSharedClassLoader() {
+    if (JavaVersion.getMajorVersion() <= 8) {
+      return ClassLoader.getSystemClassLoader().getParent();
+    }
+    return FileClassPathRunner.findPlatformClassLoader();
+  }
+
+  // VisibleForTesting (can not use guava as dependency)
+  static String[] getArgs(Properties command) {
+    List<String> args = new ArrayList<>();
+    for (int i = 0; command.getProperty(ARG_KEY_PREFIX + i) != null; i++) {
+      args.add(command.getProperty(ARG_KEY_PREFIX + i));
+    }
+    return args.toArray(new String[0]);
+  }
+
+  /** Whether tests started non-daemon threads that are still running. */
+  private boolean hasLeakedThreads() {
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (workerThreads.contains(thread) || thread.isDaemon()) {
+        continue;
+      }
+      try {
+        // Executors that were just shut down may still be stopping their threads.
+        thread.join(LEAKED_THREAD_GRACE_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return true;
+      }
+      if (thread.isAlive()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isHeapFull() {
+    Runtime runtime = Runtime.getRuntime();
+    if (getUsedHeap(runtime) < runtime.maxMemory() * MAX_USED_HEAP_FRACTION) {
+      return false;
+    }
+    // Only pay for a collection when the heap looks full.
+    System.gc();
+    return getUsedHeap(runtime) >= runtime.maxMemory() * MAX_USED_HEAP_FRACTION;
+  }
+
+  private static long getUsedHeap(Runtime runtime) {
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  /**
+   * Reads a JSON object, keeping the values of its strings, numbers and literals. Other values are
+   * skipped, since no command needs them.
+   */
+  private Map<String, String> readObject() throws IOException {
+    expect('{');
+    Map<String, String> object = new HashMap<>();
+    if (readToken() == '}') {
+      return object;
+    }
+    in.unread('"');
+    while (true) {
+      expect('"');
+      String name = readString();
+      expect(':');
+      String value = readValue();
+      if (value != null) {
+        object.put(name, value);
+      }
+      int next = readToken();
+      if (next == '}') {
+        return object;
+      } else if (next != ',') {
+        throw new IOException(String.format("Expected ',' or '}' but got '%c'", next));
+      }
+    }
+  }
+
+  private String readValue() throws IOException {
+    int first = readToken();
+    if (first == '"') {
+      return readString();
+    } else if (first == '[' || first == '{') {
+      skipNested();
+      return null;
+    }
+    StringBuilder literal = new StringBuilder().appendCodePoint(first);
+    while (true) {
+      int c = in.read();
+      if (c == ',' || c == '}' || c == ']' || Character.isWhitespace(c)) {
+        in.unread(c);
+        return literal.toString();
+      } else if (c < 0) {
+        throw new IOException("Unexpected end of input");
+      }
+      literal.append((char) c);
+    }
+  }
+
+  /** Skips an array or object whose opening bracket has been read. */
+  private void skipNested() throws IOException {
+    int depth = 1;
+    while (depth > 0) {
+      int c = readChar();
+      if (c == '"') {
+        readString();
+      } else if (c == '[' || c == '{') {
+        depth++;
+      } else if (c == ']' || c == '}') {
+        depth--;
+      }
+    }
+  }
+
+  /** Reads the rest of a string whose opening quote has been read. */
+  private String readString() throws IOException {
+    StringBuilder string = new StringBuilder();
+    while (true) {
+      int c = readChar();
+      if (c == '"') {
+        return string.toString();
+      } else if (c != '\\') {
+        string.append((char) c);
+        continue;
+      }
+      int escaped = readChar();
+      switch (escaped) {
+        case 'b':
+          string.append('\b');
+          break;
+        case 'f':
+          string.append('\f');
+          break;
+        case 'n':
+          string.append('\n');
+          break;
+        case 'r':
+          string.append('\r');
+          break;
+        case 't':
+          string.append('\t');
+          break;
+        case 'u':
+          char[] hex = new char[4];
+          for (int i = 0; i < hex.length; i++) {
+            hex[i] = (char) readChar();
+          }
+          string.append((char) Integer.parseInt(new String(hex), 16));
+          break;
+        default:
+          string.append((char) escaped);
+      }
+    }
+  }
+
+  private void expect(char expected) throws IOException {
+    int c = readToken();
+    if (c != expected) {
+      throw new IOException(String.format("Expected '%c' but got '%c'", expected, c));
+    }
+  }
+
+  /** Reads the next character that isn't whitespace. */
+  private int readToken() throws IOException {
+    int c;
+    do {
+      c = readChar();
+    } while (Character.isWhitespace(c));
+    return c;
+  }
+
+  private int readChar() throws IOException {
+    int c = in.read();
+    if (c < 0) {
+      throw new IOException("Unexpected end of input");
+    }
+    return c;
+  }
+}
@@ -20,6 +20,8 @@ import com.facebook.buck.core.build.execution.context.ExecutionContext;
 import com.facebook.buck.io.file.FileAttributesScrubber;
 import com.facebook.buck.io.file.FileContentsScrubber;
 import com.facebook.buck.io.file.FileScrubber;
+import com.facebook.buck.io.file.MappedFile;
+import com.facebook.buck.io.file.MappedFileContentsScrubber;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
@@ -51,15 +53,31 @@ public class FileScrubberStep implements Step {
   @Override
   public StepExecutionResult execute(ExecutionContext context) throws IOException {
     Path filePath = filesystem.resolve(input);
-    try {
+    try (FileChannel channel = readWriteChannel(filePath)) {
+      // Consecutive scrubbers working on memory mappings share them, and the file is only
+      // truncated to the size they leave it at once something else needs to look at it.
+      MappedFile mappedFile = null;
       for (FileScrubber scrubber : scrubbers) {
-        try (FileChannel channel = readWriteChannel(filePath)) {
-          if (scrubber instanceof FileContentsScrubber) {
-            ((FileContentsScrubber) scrubber).scrubFile(channel);
-          } else if (scrubber instanceof FileAttributesScrubber) {
-            ((FileAttributesScrubber) scrubber).scrubFileWithPath(filePath);
+        if (scrubber instanceof MappedFileContentsScrubber) {
+          if (mappedFile == null) {
+            mappedFile = new MappedFile(channel);
           }
+          mappedFile.shrink(((MappedFileContentsScrubber) scrubber).scrubMappedFile(mappedFile));
+          continue;
         }
+        if (mappedFile != null) {
+          mappedFile.truncate();
+          mappedFile = null;
+        }
+        if (scrubber instanceof FileContentsScrubber) {
+          channel.position(0);
+          ((FileContentsScrubber) scrubber).scrubFile(channel);
+        } else if (scrubber instanceof FileAttributesScrubber) {
+          ((FileAttributesScrubber) scrubber).scrubFileWithPath(filePath);
+        }
+      }
+      if (mappedFile != null) {
+        mappedFile.truncate();
       }
     } catch (FileContentsScrubber.ScrubException e) {
       context.logError(e, "Error scrubbing non-deterministic metadata from %s", filePath);
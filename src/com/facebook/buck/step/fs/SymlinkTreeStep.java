@@ -25,6 +25,7 @@ import com.facebook.buck.util.stream.RichStream;
 import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableMap;
 import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Path;
 
 public class SymlinkTreeStep implements Step {
@@ -65,7 +66,14 @@ public class SymlinkTreeStep implements Step {
     for (ImmutableMap.Entry<Path, Path> ent : links.entrySet()) {
       Path target = filesystem.resolve(ent.getValue());
       Path link = filesystem.resolve(root.resolve(ent.getKey()));
-      filesystem.createSymLink(link, target, true /* force */);
+      // The root is usually new, so only replace what's in the way of a link once we find it.
+      try {
+        filesystem.createSymLink(link, target, false /* force */);
+      } catch (FileAlreadyExistsException e) {
+        if (!filesystem.isSymLink(link) || !filesystem.readSymLink(link).equals(target)) {
+          filesystem.createSymLink(link, target, true /* force */);
+        }
+      }
     }
     return StepExecutionResults.SUCCESS;
   }
@@ -0,0 +1,407 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.step.fs;
+
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.core.exceptions.HumanReadableException;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.step.StepExecutionResults;
+import com.facebook.buck.util.function.ThrowingConsumer;
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.BiFunction;
+
+/**
+ * A step to make a directory a tree of the given symlinks. The result is the same as cleaning the
+ * directory and running {@link SymlinkTreeMergeStep}, but only the links which changed since the
+ * tree was last built are deleted, created or retargeted.
+ *
+ * <p>When given a manifest, the step records the links it made there, so that the next run only
+ * has to list the directories of the tree, rather than read every link in it.
+ */
+public class SymlinkTreeSyncStep implements Step {
+
+  private static final Logger LOG = Logger.get(SymlinkTreeSyncStep.class);
+
+  private static final int MANIFEST_VERSION = 1;
+
+  // Links are deleted and created in parallel, in batches of this many.
+  private static final int BATCH_SIZE = 256;
+
+  private final String name;
+  private final ProjectFilesystem filesystem;
+  private final Path root;
+  private final SymlinkPaths links;
+  private final BiFunction<ProjectFilesystem, Path, Boolean> deleteExistingLinkPredicate;
+  private final Optional<Path> manifest;
+
+  /**
+   * Creates an instance of {@link SymlinkTreeSyncStep}
+   *
+   * @param category The type of link tree that will be used. This is used in the name
+   * @param filesystem The filesystem that the root resides on
+   * @param root The root of the link tree
+   * @param links The links the tree should contain
+   * @param deleteExistingLinkPredicate Decides which link to keep when {@code links} contains
+   *     several for the same path, as in {@link SymlinkTreeMergeStep}.
+   * @param manifest Where to record the links of the tree between runs, outside of {@code root}
+   */
+  public SymlinkTreeSyncStep(
+      String category,
+      ProjectFilesystem filesystem,
+      Path root,
+      SymlinkPaths links,
+      BiFunction<ProjectFilesystem, Path, Boolean> deleteExistingLinkPredicate,
+      Optional<Path> manifest) {
+    this.name = category + "_link_tree_sync";
+    this.filesystem = filesystem;
+    this.root = root;
+    this.links = links;
+    this.deleteExistingLinkPredicate = deleteExistingLinkPredicate;
+    this.manifest = manifest;
+  }
+
+  @Override
+  public String getDescription(ExecutionContext context) {
+    return getShortName() + " @ " + root;
+  }
+
+  @Override
+  public String getShortName() {
+    return name;
+  }
+
+  @Override
+  public StepExecutionResult execute(ExecutionContext context) throws IOException {
+    // The links to make, and the ones which several paths compete for.
+    Map<Path, Path> desiredLinks = new LinkedHashMap<>();
+    Map<Path, List<Path>> conflictingLinks = new LinkedHashMap<>();
+    links.forEachSymlink(
+        (relativePath, srcPath) -> {
+          List<Path> conflicts = conflictingLinks.get(relativePath);
+          if (conflicts != null) {
+            conflicts.add(srcPath);
+            return;
+          }
+          Path previous = desiredLinks.putIfAbsent(relativePath, srcPath);
+          if (previous != null && !previous.equals(srcPath)) {
+            conflictingLinks.put(relativePath, Lists.newArrayList(previous, srcPath));
+          }
+        });
+    desiredLinks.keySet().removeAll(conflictingLinks.keySet());
+    Set<Path> desiredDirs = new HashSet<>();
+    for (Path relativePath : desiredLinks.keySet()) {
+      addParents(desiredDirs, relativePath);
+    }
+    for (Path relativePath : conflictingLinks.keySet()) {
+      addParents(desiredDirs, relativePath);
+    }
+
+    // A previous manifest is removed before touching the tree, so that it never outlives the tree
+    // it describes.
+    Optional<Map<Path, Path>> previousLinks = readManifest();
+    Tree tree = new Tree();
+    Path absoluteRoot = filesystem.resolve(root);
+    if (Files.isDirectory(absoluteRoot, LinkOption.NOFOLLOW_LINKS)) {
+      if (previousLinks.isPresent()) {
+        tree.list(absoluteRoot, previousLinks.get());
+      } else {
+        tree.scan(absoluteRoot, absoluteRoot);
+      }
+    } else {
+      filesystem.deleteRecursivelyIfExists(root);
+      filesystem.mkdirs(root);
+    }
+
+    // Delete whatever isn't part of the new tree, skipping the contents of deleted directories.
+    // Parents sort before their children.
+    Set<Path> staleDirs = new HashSet<>();
+    for (Path dir : new TreeSet<>(tree.dirs)) {
+      if (!desiredDirs.contains(dir) && !hasParentIn(staleDirs, dir)) {
+        staleDirs.add(dir);
+      }
+    }
+    List<Path> staleFiles = new ArrayList<>();
+    for (Map.Entry<Path, Path> link : tree.links.entrySet()) {
+      if (!link.getValue().equals(desiredLinks.get(link.getKey()))
+          && !hasParentIn(staleDirs, link.getKey())) {
+        staleFiles.add(link.getKey());
+      }
+    }
+    for (Path file : tree.files) {
+      if (!hasParentIn(staleDirs, file)) {
+        staleFiles.add(file);
+      }
+    }
+    for (Path dir : staleDirs) {
+      filesystem.deleteRecursivelyIfExists(root.resolve(dir));
+    }
+    forEachInBatches(staleFiles, file -> Files.delete(absoluteRoot.resolve(file)));
+
+    // Then create the missing links, and the directories they go in.
+    List<Path> missingLinks = new ArrayList<>();
+    Set<Path> missingDirs = new TreeSet<>();
+    for (Map.Entry<Path, Path> link : desiredLinks.entrySet()) {
+      Path relativePath = link.getKey();
+      if (!link.getValue().equals(tree.links.get(relativePath))) {
+        missingLinks.add(relativePath);
+        Path parent = relativePath.getParent();
+        if (parent != null && !tree.dirs.contains(parent)) {
+          missingDirs.add(parent);
+        }
+      }
+    }
+    for (Path dir : missingDirs) {
+      filesystem.mkdirs(root.resolve(dir));
+    }
+    forEachInBatches(
+        missingLinks,
+        relativePath ->
+            filesystem.createSymLink(
+                absoluteRoot.resolve(relativePath), desiredLinks.get(relativePath), false));
+
+    // Competing links are resolved in order, as they would be when merging them into the tree.
+    Map<Path, Path> madeLinks = new LinkedHashMap<>(desiredLinks);
+    for (Map.Entry<Path, List<Path>> conflict : conflictingLinks.entrySet()) {
+      Path destPath = root.resolve(conflict.getKey());
+      filesystem.mkdirs(destPath.getParent());
+      for (Path srcPath : conflict.getValue()) {
+        mergeLink(destPath, srcPath);
+      }
+      madeLinks.put(conflict.getKey(), filesystem.readSymLink(destPath));
+    }
+
+    LOG.debug(
+        "Synced %s: deleted %d files and %d directories, created %d links",
+        root, staleFiles.size(), staleDirs.size(), missingLinks.size());
+    writeManifest(madeLinks);
+    return StepExecutionResults.SUCCESS;
+  }
+
+  /** Links {@code destPath} to {@code srcPath}, like {@link SymlinkTreeMergeStep} does. */
+  private void mergeLink(Path destPath, Path srcPath) throws IOException {
+    if (!filesystem.exists(destPath, LinkOption.NOFOLLOW_LINKS)) {
+      filesystem.createSymLink(filesystem.resolve(destPath), srcPath, false);
+    } else if (filesystem.isSymLink(destPath)) {
+      if (!filesystem.readSymLink(destPath).equals(srcPath)) {
+        if (deleteExistingLinkPredicate.apply(filesystem, destPath)) {
+          filesystem.deleteFileAtPath(destPath);
+          filesystem.createSymLink(filesystem.resolve(destPath), srcPath, true);
+        } else {
+          throw new HumanReadableException(
+              "Tried to link %s to %s, but %s already links to %s",
+              destPath, srcPath, destPath, filesystem.readSymLink(destPath));
+        }
+      }
+    } else {
+      throw new HumanReadableException(
+          "Tried to link %s to %s, but %s already exists", destPath, srcPath, destPath);
+    }
+  }
+
+  private static void addParents(Set<Path> dirs, Path relativePath) {
+    for (Path parent = relativePath.getParent();
+        parent != null && dirs.add(parent);
+        parent = parent.getParent()) {}
+  }
+
+  private static boolean hasParentIn(Set<Path> dirs, Path relativePath) {
+    if (dirs.isEmpty()) {
+      return false;
+    }
+    for (Path parent = relativePath.getParent(); parent != null; parent = parent.getParent()) {
+      if (dirs.contains(parent)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void forEachInBatches(List<Path> paths, ThrowingConsumer<Path, IOException> action)
+      throws IOException {
+    if (paths.size() <= BATCH_SIZE) {
+      for (Path path : paths) {
+        action.accept(path);
+      }
+      return;
+    }
+    ThrowingConsumer.wrapAsUnchecked(
+        consumer ->
+            Lists.partition(paths, BATCH_SIZE).parallelStream()
+                .forEach(batch -> batch.forEach(consumer)),
+        action);
+  }
+
+  private Optional<Map<Path, Path>> readManifest() throws IOException {
+    if (!manifest.isPresent() || !filesystem.exists(manifest.get())) {
+      return Optional.empty();
+    }
+    FileSystem fileSystem = root.getFileSystem();
+    Map<Path, Path> previousLinks = new HashMap<>();
+    try (InputStream input = filesystem.newFileInputStream(manifest.get());
+        DataInputStream data = new DataInputStream(input)) {
+      if (data.readInt() != MANIFEST_VERSION) {
+        return Optional.empty();
+      }
+      int count = data.readInt();
+      for (int i = 0; i < count; i++) {
+        previousLinks.put(fileSystem.getPath(data.readUTF()), fileSystem.getPath(data.readUTF()));
+      }
+    } catch (IOException e) {
+      LOG.debug(e, "Could not read the manifest of %s, scanning it instead", root);
+      return Optional.empty();
+    } finally {
+      filesystem.deleteFileAtPathIfExists(manifest.get());
+    }
+    return Optional.of(previousLinks);
+  }
+
+  private void writeManifest(Map<Path, Path> madeLinks) throws IOException {
+    if (!manifest.isPresent()) {
+      return;
+    }
+    Path tmp = manifest.get().resolveSibling(manifest.get().getFileName() + ".tmp");
+    filesystem.createParentDirs(tmp);
+    try (OutputStream output = filesystem.newFileOutputStream(tmp);
+        DataOutputStream data = new DataOutputStream(output)) {
+      data.writeInt(MANIFEST_VERSION);
+      data.writeInt(madeLinks.size());
+      for (Map.Entry<Path, Path> link : madeLinks.entrySet()) {
+        data.writeUTF(link.getKey().toString());
+        data.writeUTF(link.getValue().toString());
+      }
+    }
+    filesystem.move(tmp, manifest.get(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /** What a link tree contains, relative to its root. */
+  private static class Tree {
+    private final Map<Path, Path> links = new HashMap<>();
+    private final Set<Path> dirs = new HashSet<>();
+    private final List<Path> files = new ArrayList<>();
+
+    /** Finds everything under {@code start}, reading every link. */
+    private void scan(Path absoluteRoot, Path start) throws IOException {
+      Files.walkFileTree(
+          start,
+          new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+              if (!dir.equals(absoluteRoot)) {
+                dirs.add(absoluteRoot.relativize(dir));
+              }
+              return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                throws IOException {
+              if (attrs.isSymbolicLink()) {
+                links.put(absoluteRoot.relativize(file), Files.readSymbolicLink(file));
+              } else {
+                files.add(absoluteRoot.relativize(file));
+              }
+              return FileVisitResult.CONTINUE;
+            }
+          });
+    }
+
+    /**
+     * Finds everything under {@code absoluteRoot}, trusting that the entries named like the links
+     * of the previous tree are still those links. Only the directories of the previous tree are
+     * listed, and anything else found in them is scanned.
+     */
+    private void list(Path absoluteRoot, Map<Path, Path> previousLinks) throws IOException {
+      Set<Path> previousDirs = new HashSet<>();
+      for (Path relativePath : previousLinks.keySet()) {
+        addParents(previousDirs, relativePath);
+      }
+      Path emptyPath = absoluteRoot.getFileSystem().getPath("");
+      List<Path> toList = new ArrayList<>();
+      toList.add(emptyPath);
+      while (!toList.isEmpty()) {
+        Path dir = toList.remove(toList.size() - 1);
+        try (DirectoryStream<Path> entries =
+            Files.newDirectoryStream(absoluteRoot.resolve(dir.toString()))) {
+          if (!dir.equals(emptyPath)) {
+            dirs.add(dir);
+          }
+          for (Path entry : entries) {
+            Path relativePath = dir.resolve(entry.getFileName().toString());
+            Path target = previousLinks.get(relativePath);
+            if (target != null) {
+              links.put(relativePath, target);
+            } else if (previousDirs.contains(relativePath)) {
+              toList.add(relativePath);
+            } else {
+              scan(absoluteRoot, entry);
+            }
+          }
+        } catch (NoSuchFileException e) {
+          // The directory is gone, and so are the links in it.
+        } catch (NotDirectoryException e) {
+          files.add(dir);
+        }
+      }
+    }
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof SymlinkTreeSyncStep)) {
+      return false;
+    }
+    SymlinkTreeSyncStep that = (SymlinkTreeSyncStep) obj;
+    return Objects.equal(this.name, that.name)
+        && Objects.equal(this.root, that.root)
+        && Objects.equal(this.links, that.links)
+        && Objects.equal(this.manifest, that.manifest);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(root, links);
+  }
+}
@@ -38,6 +38,7 @@ import com.facebook.buck.cxx.CxxPreprocessorDep;
 import com.facebook.buck.cxx.CxxPreprocessorInput;
 import com.facebook.buck.cxx.CxxRawHeaders;
 import com.facebook.buck.cxx.TransitiveCxxPreprocessorInputCache;
+import com.facebook.buck.cxx.TransitiveCxxPreprocessorInputs;
 import com.facebook.buck.cxx.toolchain.CxxPlatform;
 import com.facebook.buck.cxx.toolchain.LinkerMapMode;
 import com.facebook.buck.cxx.toolchain.linker.Linker;
@@ -308,4 +309,15 @@ class SwiftLibrary extends NoopBuildRuleWithDeclaredAndExtraDeps
       return transitiveCxxPreprocessorInputCache.getUnchecked(cxxPlatform, graphBuilder);
     }
   }
+
+  @Override
+  public TransitiveCxxPreprocessorInputs getTransitiveCxxPreprocessorInputs(
+      CxxPlatform cxxPlatform, ActionGraphBuilder graphBuilder) {
+    if (getBuildTarget().getFlavors().contains(SWIFT_COMPANION_FLAVOR)) {
+      return TransitiveCxxPreprocessorInputs.of(
+          getTransitiveCxxPreprocessorInput(cxxPlatform, graphBuilder));
+    } else {
+      return transitiveCxxPreprocessorInputCache.getInputsUnchecked(cxxPlatform, graphBuilder);
+    }
+  }
 }
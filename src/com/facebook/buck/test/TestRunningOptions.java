@@ -19,6 +19,7 @@ package com.facebook.buck.test;
 import com.facebook.buck.core.util.immutables.BuckStyleValueWithBuilder;
 import com.facebook.buck.test.selectors.TestSelectorList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import java.util.EnumSet;
 import java.util.Optional;
 import java.util.Set;
@@ -52,6 +53,36 @@ public abstract class TestRunningOptions {
     return false;
   }
 
+  /** @return the number of shards a test rule may be split into. */
+  @Value.Default
+  public int getMaxShardsPerRule() {
+    return 1;
+  }
+
+  /** @return the number of JVMs kept running to run java tests in. 0 starts a JVM per test rule. */
+  @Value.Default
+  public int getMaxPooledTestJvms() {
+    return 0;
+  }
+
+  /** @return the number of test rules a pooled JVM runs before it is replaced. */
+  @Value.Default
+  public int getMaxRunsPerPooledTestJvm() {
+    return 100;
+  }
+
+  /** @return whether java tests record the classes covered by each test case. */
+  @Value.Default
+  public boolean isRecordingTestCoverageMaps() {
+    return false;
+  }
+
+  /**
+   * @return the files changed since the test coverage maps were recorded, if only the test cases
+   *     affected by them should run.
+   */
+  public abstract Optional<ImmutableSet<String>> getChangedFiles();
+
   public abstract Optional<String> getPathToXmlTestOutput();
 
   public abstract Optional<String> getPathToJavaAgent();
@@ -20,9 +20,11 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.facebook.buck.test.result.type.ResultType;
 import com.facebook.buck.util.xml.XmlDomParser;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Lists;
+import com.google.common.base.Strings;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -30,6 +32,10 @@ import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
@@ -41,6 +47,16 @@ public class XmlTestResultParser {
   /** Utility Class: Do not instantiate. */
   private XmlTestResultParser() {}
 
+  /** The most characters of a test's stdout or stderr kept in its {@link TestResultSummary}. */
+  @VisibleForTesting static final int MAX_OUTPUT_LENGTH = 1 << 20;
+
+  private static final String TRUNCATED_OUTPUT_FORMAT =
+      "%n[Output truncated. The full output is in %s]%n";
+
+  // Factories aren't guaranteed to be thread safe, and results are parsed in parallel.
+  private static final ThreadLocal<XMLInputFactory> INPUT_FACTORY =
+      ThreadLocal.withInitial(XmlTestResultParser::createInputFactory);
+
   public static List<TestCaseSummary> parseAndroid(Path xmlFile, String serialNumber)
       throws IOException, SAXException {
     String fileContents = new String(Files.readAllBytes(xmlFile), UTF_8);
@@ -122,67 +138,134 @@ public class XmlTestResultParser {
   }
 
   public static TestCaseSummary parse(Path xmlFile) throws IOException {
-    String xmlFileContents = new String(Files.readAllBytes(xmlFile), UTF_8);
+    return parse(xmlFile, MAX_OUTPUT_LENGTH);
+  }
 
-    try {
-      return doParse(xmlFileContents);
-    } catch (NumberFormatException | SAXException e) {
+  @VisibleForTesting
+  static TestCaseSummary parse(Path xmlFile, int maxOutputLength) throws IOException {
+    try (InputStream input = Files.newInputStream(xmlFile)) {
+      return doParse(xmlFile, input, maxOutputLength);
+    } catch (NumberFormatException | XMLStreamException e) {
       // This is an attempt to track down an inexplicable error that we have observed in the wild.
+      String xmlFileContents = new String(Files.readAllBytes(xmlFile), UTF_8);
       String message = createDetailedExceptionMessage(xmlFile, xmlFileContents);
       throw new RuntimeException(message, e);
     }
   }
 
-  private static TestCaseSummary doParse(String xml) throws IOException, SAXException {
-    Document doc =
-        XmlDomParser.parse(new InputSource(new StringReader(xml)), /* namespaceAware */ true);
-    Element root = doc.getDocumentElement();
-    Preconditions.checkState("testcase".equals(root.getTagName()));
-    String testCaseName = root.getAttribute("name");
-
-    NodeList testElements = doc.getElementsByTagName("test");
-    List<TestResultSummary> testResults = Lists.newArrayListWithCapacity(testElements.getLength());
-    for (int i = 0; i < testElements.getLength(); i++) {
-      Element node = (Element) testElements.item(i);
-      String testName = node.getAttribute("name");
-      long time = Long.parseLong(node.getAttribute("time"));
-      String typeString = node.getAttribute("type");
-      ResultType type = ResultType.valueOf(typeString);
-      String message;
-      String stacktrace;
-      if (type == ResultType.SUCCESS) {
-        message = null;
-        stacktrace = null;
-      } else {
-        message = TestXmlUnescaper.ATTRIBUTE_UNESCAPER.unescape(node.getAttribute("message"));
-        stacktrace = TestXmlUnescaper.ATTRIBUTE_UNESCAPER.unescape(node.getAttribute("stacktrace"));
+  /**
+   * Streams through the results, so that only the summaries are kept in memory rather than a
+   * document of the whole file.
+   */
+  private static TestCaseSummary doParse(Path xmlFile, InputStream input, int maxOutputLength)
+      throws XMLStreamException {
+    XMLStreamReader reader = INPUT_FACTORY.get().createXMLStreamReader(input);
+    try {
+      reader.nextTag();
+      Preconditions.checkState("testcase".equals(reader.getLocalName()));
+      String testCaseName = getAttribute(reader, "name");
+
+      List<TestResultSummary> testResults = new ArrayList<>();
+      while (reader.hasNext()) {
+        if (reader.next() == XMLStreamConstants.START_ELEMENT
+            && "test".equals(reader.getLocalName())) {
+          testResults.add(parseTest(reader, xmlFile, testCaseName, maxOutputLength));
+        }
       }
+      return new TestCaseSummary(testCaseName, testResults);
+    } finally {
+      reader.close();
+    }
+  }
 
-      NodeList stdoutElements = node.getElementsByTagName("stdout");
-      String stdOut;
-      if (stdoutElements.getLength() == 1) {
-        stdOut =
-            TestXmlUnescaper.CONTENT_UNESCAPER.unescape(stdoutElements.item(0).getTextContent());
-      } else {
-        stdOut = null;
+  /** Reads the {@code test} element the reader is at, up to and including its end. */
+  private static TestResultSummary parseTest(
+      XMLStreamReader reader, Path xmlFile, String testCaseName, int maxOutputLength)
+      throws XMLStreamException {
+    String testName = getAttribute(reader, "name");
+    long time = Long.parseLong(getAttribute(reader, "time"));
+    String typeString = getAttribute(reader, "type");
+    ResultType type = ResultType.valueOf(typeString);
+    String message;
+    String stacktrace;
+    if (type == ResultType.SUCCESS) {
+      message = null;
+      stacktrace = null;
+    } else {
+      message = TestXmlUnescaper.ATTRIBUTE_UNESCAPER.unescape(getAttribute(reader, "message"));
+      stacktrace =
+          TestXmlUnescaper.ATTRIBUTE_UNESCAPER.unescape(getAttribute(reader, "stacktrace"));
+    }
+
+    String stdOut = null;
+    String stdErr = null;
+    for (int depth = 1; depth > 0; ) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        if ("stdout".equals(reader.getLocalName())) {
+          stdOut = readOutput(reader, xmlFile, maxOutputLength);
+        } else if ("stderr".equals(reader.getLocalName())) {
+          stdErr = readOutput(reader, xmlFile, maxOutputLength);
+        } else {
+          depth++;
+        }
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
       }
+    }
 
-      NodeList stderrElements = node.getElementsByTagName("stderr");
-      String stdErr;
-      if (stderrElements.getLength() == 1) {
-        stdErr =
-            TestXmlUnescaper.CONTENT_UNESCAPER.unescape(stderrElements.item(0).getTextContent());
-      } else {
-        stdErr = null;
+    return new TestResultSummary(
+        testCaseName, testName, type, time, message, stacktrace, stdOut, stdErr);
+  }
+
+  /**
+   * Reads captured output up to the end of its element. Output beyond {@code maxLength} characters
+   * is dropped, as the summaries of every test are held in memory until the run finishes, and
+   * replaced with a pointer to the result file, which still has all of it.
+   */
+  private static String readOutput(XMLStreamReader reader, Path xmlFile, int maxLength)
+      throws XMLStreamException {
+    StringBuilder text = new StringBuilder();
+    boolean truncated = false;
+    for (int depth = 1; depth > 0; ) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      } else if (event == XMLStreamConstants.CHARACTERS
+          || event == XMLStreamConstants.CDATA
+          || event == XMLStreamConstants.SPACE) {
+        // Copy straight from the reader's buffer, which avoids a string per chunk of text.
+        int length = reader.getTextLength();
+        int kept = Math.min(length, maxLength - text.length());
+        text.append(reader.getTextCharacters(), reader.getTextStart(), kept);
+        truncated |= kept < length;
       }
+    }
 
-      TestResultSummary testResult =
-          new TestResultSummary(
-              testCaseName, testName, type, time, message, stacktrace, stdOut, stdErr);
-      testResults.add(testResult);
+    if (!truncated) {
+      return TestXmlUnescaper.CONTENT_UNESCAPER.unescape(text.toString());
+    }
+    // Don't leave half of an escape sequence at the end.
+    int ampersand = text.lastIndexOf("&");
+    if (ampersand >= 0 && text.indexOf(";", ampersand) < 0) {
+      text.setLength(ampersand);
     }
+    return TestXmlUnescaper.CONTENT_UNESCAPER.unescape(text.toString())
+        + String.format(TRUNCATED_OUTPUT_FORMAT, xmlFile.toAbsolutePath());
+  }
+
+  /** Like {@link Element#getAttribute(String)}, missing attributes are empty. */
+  private static String getAttribute(XMLStreamReader reader, String name) {
+    return Strings.nullToEmpty(reader.getAttributeValue(null, name));
+  }
 
-    return new TestCaseSummary(testCaseName, testResults);
+  private static XMLInputFactory createInputFactory() {
+    XMLInputFactory factory = XMLInputFactory.newFactory();
+    factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+    return factory;
   }
 
   private static String createDetailedExceptionMessage(Path xmlFile, String xmlFileContents) {
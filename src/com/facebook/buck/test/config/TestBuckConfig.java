@@ -83,6 +83,45 @@ public abstract class TestBuckConfig implements ConfigView<BuckConfig> {
     return (int) Math.ceil(ratio * getDelegate().getView(BuildBuckConfig.class).getNumThreads());
   }
 
+  /**
+   * @return the number of shards a test rule may be split into, using the durations of its test
+   *     cases in previous runs to balance them. 1 disables sharding.
+   */
+  @Lazy
+  public int getMaxShardsPerRule() {
+    int maxShards = getDelegate().getInteger(TEST_SECTION_HEADER, "max_shards_per_rule").orElse(1);
+    if (maxShards <= 0) {
+      throw new HumanReadableException(
+          "test.max_shards_per_rule must be greater than zero (was " + maxShards + ")");
+    }
+    return maxShards;
+  }
+
+  /**
+   * @return the number of JVMs that are kept running to run the tests of java test rules in, one
+   *     rule after another. 0 starts a JVM for every test rule.
+   */
+  @Lazy
+  public int getMaxPooledTestJvms() {
+    int maxJvms = getDelegate().getInteger(TEST_SECTION_HEADER, "pooled_jvms").orElse(0);
+    if (maxJvms < 0) {
+      throw new HumanReadableException(
+          "test.pooled_jvms must not be negative (was " + maxJvms + ")");
+    }
+    return maxJvms;
+  }
+
+  /** @return the number of test rules a pooled JVM runs before it is replaced by a fresh one. */
+  @Lazy
+  public int getMaxRunsPerPooledTestJvm() {
+    int maxRuns = getDelegate().getInteger(TEST_SECTION_HEADER, "pooled_jvm_max_runs").orElse(100);
+    if (maxRuns <= 0) {
+      throw new HumanReadableException(
+          "test.pooled_jvm_max_runs must be greater than zero (was " + maxRuns + ")");
+    }
+    return maxRuns;
+  }
+
   public TestResultSummaryVerbosity getResultSummaryVerbosity() {
     boolean includeStdErr =
         getDelegate().getBooleanValue(TEST_SUMMARY_SECTION_NAME, "include_std_err", true);
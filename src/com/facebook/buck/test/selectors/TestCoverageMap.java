@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.facebook.buck.test.selectors;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The classes covered by each test case of a test class, as recorded by the test runner, so that
+ * later runs can select the test cases affected by a change.
+ *
+ * <p>Classes are named the way the JVM names them internally, e.g. "com/example/Foo$Bar". Classes
+ * covered outside of any test case, such as by static initializers and class-level setup, are
+ * covered by the test class as a whole.
+ */
+public class TestCoverageMap {
+
+  /** The system property holding the directory the test runner writes coverage maps to. */
+  public static final String DIRECTORY_PROPERTY = "com.facebook.buck.testCoverageMapDir";
+
+  // Test case keys are "class#method", so the empty key can't be one of them.
+  private static final String TEST_CLASS_KEY = "";
+
+  private final Set<String> testClassCoverage = new TreeSet<>();
+  private final Map<TestDescription, Set<String>> testCaseCoverage = new HashMap<>();
+
+  public static File getFile(File directory, String testClassName) {
+    return new File(directory, testClassName + ".coverage");
+  }
+
+  /** @return the classes covered outside of any test case. */
+  public Set<String> getTestClassCoverage() {
+    return Collections.unmodifiableSet(testClassCoverage);
+  }
+
+  /** @return the classes covered by each test case. */
+  public Map<TestDescription, Set<String>> getTestCaseCoverage() {
+    return Collections.unmodifiableMap(testCaseCoverage);
+  }
+
+  public void addTestClassCoverage(Collection<String> classNames) {
+    testClassCoverage.addAll(classNames);
+  }
+
+  public void setTestCaseCoverage(TestDescription testCase, Collection<String> classNames) {
+    testCaseCoverage.put(testCase, new TreeSet<>(classNames));
+  }
+
+  /**
+   * Adds the coverage recorded by a later run, which may have run only some of the test cases.
+   * Coverage outside of test cases is kept, as it may depend on which test cases ran.
+   */
+  public void merge(TestCoverageMap later) {
+    testClassCoverage.addAll(later.testClassCoverage);
+    testCaseCoverage.putAll(later.testCaseCoverage);
+  }
+
+  public static TestCoverageMap read(File file) throws IOException {
+    Properties properties = new Properties();
+    try (Reader reader =
+        new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+      properties.load(reader);
+    }
+
+    TestCoverageMap coverageMap = new TestCoverageMap();
+    for (String key : properties.stringPropertyNames()) {
+      String value = properties.getProperty(key);
+      Collection<String> classNames =
+          value.isEmpty() ? Collections.emptyList() : Arrays.asList(value.split(" "));
+      if (key.equals(TEST_CLASS_KEY)) {
+        coverageMap.addTestClassCoverage(classNames);
+        continue;
+      }
+      String[] parts = key.split("#", 2);
+      if (parts.length != 2) {
+        throw new IOException(String.format("Unexpected test case %s in %s", key, file));
+      }
+      coverageMap.setTestCaseCoverage(new TestDescription(parts[0], parts[1]), classNames);
+    }
+    return coverageMap;
+  }
+
+  /** Writes the coverage map, replacing any existing file only once it is complete. */
+  public void write(File file) throws IOException {
+    Properties properties = new Properties();
+    properties.setProperty(TEST_CLASS_KEY, String.join(" ", testClassCoverage));
+    for (Map.Entry<TestDescription, Set<String>> entry : testCaseCoverage.entrySet()) {
+      TestDescription testCase = entry.getKey();
+      properties.setProperty(
+          testCase.getClassName() + "#" + testCase.getMethodName(),
+          String.join(" ", entry.getValue()));
+    }
+
+    File temp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+    try {
+      try (Writer writer =
+          new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+        properties.store(writer, null);
+      }
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temp.toPath());
+    }
+  }
+}
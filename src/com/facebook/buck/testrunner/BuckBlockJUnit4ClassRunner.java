@@ -24,6 +24,7 @@ import java.util.concurrent.Future;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.Timeout;
+import org.junit.runner.notification.RunNotifier;
 import org.junit.runners.BlockJUnit4ClassRunner;
 import org.junit.runners.model.FrameworkField;
 import org.junit.runners.model.FrameworkMethod;
@@ -64,6 +65,18 @@ public class BuckBlockJUnit4ClassRunner extends BlockJUnit4ClassRunner {
     this.defaultTestTimeoutMillis = defaultTestTimeoutMillis;
   }
 
+  @Override
+  public void run(RunNotifier notifier) {
+    try {
+      super.run(notifier);
+    } finally {
+      // Let the thread of the executor finish, which keeps JVMs that go on to run other tests from
+      // collecting a thread per test class.
+      executor.get().shutdown();
+      executor.remove();
+    }
+  }
+
   @Override
   protected Object createTest() throws Exception {
     // Pushing tests onto threads because the test timeout has been set is Unexpected Behaviour. It
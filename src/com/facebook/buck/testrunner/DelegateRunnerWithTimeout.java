@@ -174,4 +174,13 @@ class DelegateRunnerWithTimeout extends Runner {
   private void shutdown() {
     executor.get().shutdownNow();
   }
+
+  /**
+   * Stops the executor of the current thread, so that a JVM that goes on running other tests
+   * doesn't keep its thread, and with it the classes of the tests that ran, alive.
+   */
+  static void shutdownExecutor() {
+    executor.get().shutdownNow();
+    executor.remove();
+  }
 }
@@ -39,12 +39,29 @@ public class JUnitMain {
   }
 
   public static void main(String[] args) {
+    createRunner(args).runAndExit();
+  }
+
+  /**
+   * Runs the tests without exiting, for JVMs that run several test rules in a row.
+   *
+   * @return the exit code {@link #main} would have exited with.
+   */
+  public static int run(String[] args) {
+    try {
+      return createRunner(args).runAndGetExitCode();
+    } finally {
+      DelegateRunnerWithTimeout.shutdownExecutor();
+    }
+  }
+
+  private static JUnitRunner createRunner(String[] args) {
     // Ensure that both junit and hamcrest are on the classpath
     CheckDependency.isPresent("junit", "org.junit.Test");
     CheckDependency.isPresent("hamcrest", "org.hamcrest.Description");
 
     JUnitRunner runner = new JUnitRunner();
     runner.parseArgs(args);
-    runner.runAndExit();
+    return runner;
   }
 }
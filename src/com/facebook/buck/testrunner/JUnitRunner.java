@@ -84,22 +84,34 @@ public final class JUnitRunner extends BaseRunner {
       stdErrLogLevel = Level.parse(unparsedStdErrLogLevel);
     }
 
+    TestCoverageRecorder coverageRecorder = isDryRun ? null : TestCoverageRecorder.create();
+
     for (String className : testClassNames) {
+      if (coverageRecorder != null) {
+        coverageRecorder.startTestClass();
+      }
       Class<?> testClass = Class.forName(className);
 
       List<TestResult> results = new ArrayList<>();
       RecordingFilter filter = new RecordingFilter();
-      if (mightBeATestClass(testClass)) {
+      boolean isTestClass = mightBeATestClass(testClass);
+      if (isTestClass) {
         JUnitCore jUnitCore = new JUnitCore();
         Runner suite = new Computer().getSuite(createRunnerBuilder(), new Class<?>[] {testClass});
         Request request = Request.runner(suite);
         request = request.filterWith(filter);
         jUnitCore.addListener(new TestListener(results, stdOutLogLevel, stdErrLogLevel));
+        if (coverageRecorder != null) {
+          jUnitCore.addListener(coverageRecorder);
+        }
         jUnitCore.run(request);
       }
       // Combine the results with the tests we filtered out
       List<TestResult> actualResults = combineResults(results, filter.filteredOut);
       writeResult(className, actualResults);
+      if (coverageRecorder != null && isTestClass) {
+        coverageRecorder.finishTestClass(className);
+      }
     }
   }
 
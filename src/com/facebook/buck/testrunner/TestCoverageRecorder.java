@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.facebook.buck.testrunner;
+
+import com.facebook.buck.test.selectors.TestCoverageMap;
+import com.facebook.buck.test.selectors.TestDescription;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.runner.Description;
+import org.junit.runner.notification.RunListener;
+
+/**
+ * Records the classes covered by each test case into a {@link TestCoverageMap} per test class.
+ *
+ * <p>Coverage is read from the JaCoCo agent the JVM was started with, through its runtime API. The
+ * agent's classes are looked up by reflection, as they are only on the class path when the agent is
+ * loaded. The agent's data is never reset, as it may also be dumping it for a coverage report:
+ * instead, each read is compared with the previous one.
+ *
+ * <p>Static initializers only run once per JVM, so a class of which nothing else runs only counts
+ * as covered by the test case that initializes it.
+ */
+class TestCoverageRecorder extends RunListener {
+
+  private static final byte BLOCK_HEADER = 0x01;
+  private static final byte BLOCK_SESSION_INFO = 0x10;
+  private static final byte BLOCK_EXECUTION_DATA = 0x11;
+
+  private final Object agent;
+  private final Method getExecutionData;
+  private final File directory;
+  /** The probes hit so far, by class id. */
+  private final Map<Long, BitSet> hitProbes = new HashMap<>();
+  /* @Nullable */ private TestCoverageMap coverageMap;
+
+  private TestCoverageRecorder(Object agent, Method getExecutionData, File directory) {
+    this.agent = agent;
+    this.getExecutionData = getExecutionData;
+    this.directory = directory;
+  }
+
+  /** @return a recorder if the test runner should record coverage maps, otherwise null. */
+  /* @Nullable */
+  static TestCoverageRecorder create() {
+    String directory = System.getProperty(TestCoverageMap.DIRECTORY_PROPERTY);
+    if (directory == null) {
+      return null;
+    }
+    try {
+      Object agent = Class.forName("org.jacoco.agent.rt.RT").getMethod("getAgent").invoke(null);
+      Method getExecutionData =
+          Class.forName("org.jacoco.agent.rt.IAgent")
+              .getMethod("getExecutionData", boolean.class);
+      return new TestCoverageRecorder(agent, getExecutionData, new File(directory));
+    } catch (ReflectiveOperationException e) {
+      System.err.printf("Not recording test coverage, as the JaCoCo agent isn't running: %s\n", e);
+      return null;
+    }
+  }
+
+  /** Starts recording the coverage of a test class, including the loading of the class itself. */
+  void startTestClass() throws IOException {
+    collectCoveredClasses();
+    coverageMap = new TestCoverageMap();
+  }
+
+  @Override
+  public void testStarted(Description description) throws Exception {
+    coverageMap.addTestClassCoverage(collectCoveredClasses());
+  }
+
+  @Override
+  public void testFinished(Description description) throws Exception {
+    List<String> coveredClasses = collectCoveredClasses();
+    if (description.getMethodName() == null) {
+      coverageMap.addTestClassCoverage(coveredClasses);
+    } else {
+      coverageMap.setTestCaseCoverage(
+          new TestDescription(description.getClassName(), description.getMethodName()),
+          coveredClasses);
+    }
+  }
+
+  /**
+   * Adds the coverage of the test class to the coverage map of earlier runs, so that test cases
+   * which weren't selected this time keep their coverage.
+   */
+  void finishTestClass(String testClassName) throws IOException {
+    coverageMap.addTestClassCoverage(collectCoveredClasses());
+    directory.mkdirs();
+    File file = TestCoverageMap.getFile(directory, testClassName);
+    TestCoverageMap merged = file.exists() ? TestCoverageMap.read(file) : new TestCoverageMap();
+    merged.merge(coverageMap);
+    merged.write(file);
+    coverageMap = null;
+  }
+
+  /** @return the classes covered since the last call. */
+  private List<String> collectCoveredClasses() throws IOException {
+    byte[] executionData;
+    try {
+      executionData = (byte[]) getExecutionData.invoke(agent, /* reset */ false);
+    } catch (IllegalAccessException | InvocationTargetException e) {
+      throw new IOException("Could not read coverage from the JaCoCo agent", e);
+    }
+    List<String> coveredClasses = new ArrayList<>();
+    for (ClassExecutionData data : parseExecutionData(executionData)) {
+      BitSet newProbes = (BitSet) data.probes.clone();
+      BitSet previousProbes = hitProbes.put(data.id, data.probes);
+      if (previousProbes != null) {
+        newProbes.andNot(previousProbes);
+      }
+      if (!newProbes.isEmpty()) {
+        coveredClasses.add(data.name);
+      }
+    }
+    return coveredClasses;
+  }
+
+  /**
+   * Reads the classes in JaCoCo's execution data format, which only includes classes with at least
+   * one probe hit.
+   */
+  static List<ClassExecutionData> parseExecutionData(byte[] executionData) throws IOException {
+    List<ClassExecutionData> classes = new ArrayList<>();
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(executionData));
+    while (in.available() > 0) {
+      byte block = in.readByte();
+      switch (block) {
+        case BLOCK_HEADER:
+          in.readChar(); // Magic number.
+          in.readChar(); // Format version.
+          break;
+        case BLOCK_SESSION_INFO:
+          in.readUTF(); // Session id.
+          in.readLong(); // Start time.
+          in.readLong(); // Dump time.
+          break;
+        case BLOCK_EXECUTION_DATA:
+          long id = in.readLong();
+          String name = in.readUTF();
+          byte[] probes = new byte[(readVarInt(in) + 7) / 8];
+          in.readFully(probes);
+          // Probes are stored as bits, least significant first, like BitSet.valueOf expects.
+          classes.add(new ClassExecutionData(id, name, BitSet.valueOf(probes)));
+          break;
+        default:
+          throw new IOException(String.format("Unknown block type %x in execution data", block));
+      }
+    }
+    return classes;
+  }
+
+  private static int readVarInt(DataInputStream in) throws IOException {
+    int value = 0xFF & in.readByte();
+    if ((value & 0x80) == 0) {
+      return value;
+    }
+    return (value & 0x7F) | (readVarInt(in) << 7);
+  }
+
+  /** The probes of a class that were hit. */
+  static class ClassExecutionData {
+    final long id;
+    final String name;
+    final BitSet probes;
+
+    ClassExecutionData(long id, String name, BitSet probes) {
+      this.id = id;
+      this.name = name;
+      this.probes = probes;
+    }
+  }
+}
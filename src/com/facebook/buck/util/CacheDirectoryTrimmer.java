@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.util;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.google.common.collect.ComparisonChain;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps a directory of cache entries under a maximum size by deleting the least recently used
+ * entries. Entries are the regular files under the directory accepted by a filter, which should
+ * skip the temporary files entries are written to.
+ *
+ * <p>Trimming walks the whole directory, so callers {@link #recordStored record} what they store
+ * and the directory is only trimmed once half of its maximum size was stored since the last trim.
+ * It is then trimmed down to two thirds of its maximum size. These are the ratios the dir artifact
+ * cache uses. What was stored is counted per directory, and shared by all trimmers of the same
+ * directory.
+ */
+public class CacheDirectoryTrimmer {
+
+  private static final Logger LOG = Logger.get(CacheDirectoryTrimmer.class);
+
+  private static final double STORED_TO_MAX_BYTES_RATIO_TRIM_TRIGGER = 0.5;
+  private static final double MAX_BYTES_TRIM_RATIO = 2 / 3.0;
+
+  private static final ConcurrentMap<Path, AtomicLong> bytesSinceLastTrimByDirectory =
+      new ConcurrentHashMap<>();
+
+  private final Path directory;
+  private final long maxSizeBytes;
+  private final Predicate<Path> isEntry;
+  private final AtomicLong bytesSinceLastTrim;
+
+  /**
+   * @param directory absolute path of the cache directory
+   * @param maxSizeBytes the size above which the directory is trimmed
+   * @param isEntry accepts the files under the directory which are cache entries
+   */
+  public CacheDirectoryTrimmer(Path directory, long maxSizeBytes, Predicate<Path> isEntry) {
+    this.directory = directory.normalize();
+    this.maxSizeBytes = maxSizeBytes;
+    this.isEntry = isEntry;
+    this.bytesSinceLastTrim =
+        bytesSinceLastTrimByDirectory.computeIfAbsent(this.directory, key -> new AtomicLong());
+  }
+
+  /**
+   * Records that {@code bytes} were stored in the directory, and trims it if enough were stored
+   * since the last trim. Trimming is best effort: failures are logged, and callers racing with it
+   * just redo the work of the entries it deletes.
+   */
+  public void recordStored(long bytes) {
+    long trigger = (long) (maxSizeBytes * STORED_TO_MAX_BYTES_RATIO_TRIM_TRIGGER);
+    if (bytesSinceLastTrim.addAndGet(bytes) <= trigger) {
+      return;
+    }
+    bytesSinceLastTrim.set(0);
+    try {
+      trim();
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to trim the cache at [%s].", directory);
+    }
+  }
+
+  /** Deletes the least recently used entries if the directory is over its maximum size. */
+  public void trim() throws IOException {
+    if (!Files.isDirectory(directory)) {
+      return;
+    }
+    DirectoryCleaner cleaner =
+        new DirectoryCleaner(
+            DirectoryCleanerArgs.builder()
+                .setPathSelector(
+                    new DirectoryCleaner.PathSelector() {
+                      @Override
+                      public Iterable<Path> getCandidatesToDelete(Path rootPath)
+                          throws IOException {
+                        try (Stream<Path> paths = Files.walk(rootPath)) {
+                          return paths
+                              .filter(Files::isRegularFile)
+                              .filter(isEntry)
+                              .collect(Collectors.toList());
+                        }
+                      }
+
+                      @Override
+                      public int comparePaths(
+                          DirectoryCleaner.PathStats path1, DirectoryCleaner.PathStats path2) {
+                        return ComparisonChain.start()
+                            .compare(path1.getLastAccessMillis(), path2.getLastAccessMillis())
+                            .compare(path1.getCreationMillis(), path2.getCreationMillis())
+                            .result();
+                      }
+                    })
+                .setMaxTotalSizeBytes(maxSizeBytes)
+                .setMaxBytesAfterDeletion((long) (maxSizeBytes * MAX_BYTES_TRIM_RATIO))
+                .build());
+    // Trims of the same directory would delete the same entries.
+    synchronized (bytesSinceLastTrim) {
+      cleaner.clean(directory);
+    }
+  }
+
+  /**
+   * Marks {@code entry} as just used. File systems don't reliably update access times, but they
+   * are what trimming goes by.
+   */
+  public static void touch(Path entry) throws IOException {
+    Files.getFileAttributeView(entry, BasicFileAttributeView.class)
+        .setTimes(null, FileTime.fromMillis(System.currentTimeMillis()), null);
+  }
+}
@@ -20,5 +20,6 @@ public enum ExecutorPool {
   CPU,
   GRAPH_CPU,
   NETWORK,
-  PROJECT
+  PROJECT,
+  STEP_TASK
 }
@@ -0,0 +1,857 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.util.zip;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import javax.annotation.Nullable;
+
+/**
+ * Assembles a zip archive, such as an APK, by laying out all entries up front and then writing
+ * them into their preallocated regions of the output file in parallel.
+ *
+ * <p>Entries copied from another archive without being recompressed are moved straight from the
+ * source file into the output with {@link FileChannel#transferFrom}, so already-compressed payloads
+ * such as dex files, native libraries or a stored {@code resources.arsc} are never inflated or
+ * copied through the Java heap. Entries which are compressed here are streamed through the
+ * compressor and spilled to a temporary file next to the output until they are laid out, so only
+ * the entries currently being compressed are held in memory.
+ *
+ * <p>The output is deterministic: entries keep the order in which they were added, every
+ * timestamp is {@link ZipConstants#DOS_FAKE_TIME} and no extra fields are written, so there is no
+ * need to run {@link ZipScrubber} over the result.
+ *
+ * <p>Entries added from files can be copied from a previous version of the same archive, see
+ * {@link #reuseEntriesFrom(Path)}, so that rebuilding a large archive in which only a few files
+ * changed only compresses those files again.
+ *
+ * <p>Zip64 is not supported, neither for inputs nor for the output (Android can't read zip64 APKs
+ * either).
+ */
+public class ParallelZipAssembler {
+
+  private static final int UTF8_NAMES_FLAG = 1 << 11;
+  private static final int ENCRYPTED_FLAG = 1;
+  private static final int MAX_EOCD_SEARCH = ZipEntry.ENDHDR + 0xFFFF;
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /** Entries are grouped into runs of roughly this many bytes, each written by a single task. */
+  private static final long CHUNK_SIZE = 8 * 1024 * 1024;
+
+  private final ListeningExecutorService executor;
+  private final List<Entry> entries = new ArrayList<>();
+  private final Set<String> names = new HashSet<>();
+  private final Map<String, SourceEntry> previousEntries = new HashMap<>();
+  private byte[] preamble = new byte[0];
+
+  public ParallelZipAssembler(ListeningExecutorService executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Sets data, such as a shebang line, to write before the first entry. Offsets in the archive
+   * are relative to the start of the file, as they are for self-extracting archives.
+   */
+  public void setPreamble(byte[] preamble) {
+    this.preamble = preamble.clone();
+  }
+
+  /**
+   * Allows deflated entries of the archive at {@code previous} to be copied instead of compressing
+   * files added afterwards with {@link #addFile}, whenever an entry has the same name and exactly
+   * the same contents as the file. Entries are checked by inflating them, which is much cheaper
+   * than compressing the file again.
+   *
+   * <p>{@code previous} is read while writing the output, so it must not be the output itself.
+   */
+  public void reuseEntriesFrom(Path previous) throws IOException {
+    try (FileChannel channel = FileChannel.open(previous, StandardOpenOption.READ)) {
+      for (SourceEntry source : readCentralDirectory(previous, channel)) {
+        if (source.method == ZipEntry.DEFLATED) {
+          previousEntries.put(source.name, source);
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds the contents of {@code file} as an entry called {@code name}.
+   *
+   * @param level {@link ZipCompressionLevel#NONE} stores the file, any other level deflates it.
+   */
+  public void addFile(String name, Path file, ZipCompressionLevel level) throws IOException {
+    addEntry(
+        new FileEntry(
+            name,
+            file,
+            level,
+            level == ZipCompressionLevel.NONE ? null : previousEntries.get(name)));
+  }
+
+  /** Adds {@code data} as an entry called {@code name}. */
+  public void addBytes(String name, byte[] data, ZipCompressionLevel level) throws IOException {
+    addEntry(new BytesEntry(name, data.clone(), level));
+  }
+
+  /**
+   * Adds every entry of the archive at {@code zip}, in the order in which they appear in its
+   * central directory.
+   *
+   * @param recompress entries which should be rewritten with a different compression level. All
+   *     other entries are copied byte-for-byte.
+   */
+  public void addEntriesFromZip(Path zip, ImmutableMap<String, ZipCompressionLevel> recompress)
+      throws IOException {
+    addEntriesFromZip(zip, name -> true, recompress);
+  }
+
+  /**
+   * Adds the entries of the archive at {@code zip} whose name is accepted by {@code include}, in
+   * the order in which they appear in its central directory.
+   *
+   * @param recompress entries which should be rewritten with a different compression level. All
+   *     other entries are copied byte-for-byte.
+   */
+  public void addEntriesFromZip(
+      Path zip, Predicate<String> include, ImmutableMap<String, ZipCompressionLevel> recompress)
+      throws IOException {
+    try (FileChannel channel = FileChannel.open(zip, StandardOpenOption.READ)) {
+      for (SourceEntry source : readCentralDirectory(zip, channel)) {
+        if (!include.test(source.name)) {
+          continue;
+        }
+        ZipCompressionLevel level = recompress.get(source.name);
+        if (level == null) {
+          addEntry(new RawEntry(source));
+        } else {
+          addEntry(new RecompressedEntry(source, level));
+        }
+      }
+    }
+  }
+
+  private void addEntry(Entry entry) throws IOException {
+    if (!names.add(entry.name)) {
+      // Directory entries are frequently repeated when merging archives; they carry no data.
+      if (entry.name.endsWith("/")) {
+        return;
+      }
+      throw new IOException(String.format("Duplicate entry in zip: %s", entry.name));
+    }
+    entries.add(entry);
+  }
+
+  /**
+   * Returns the data stored before the first entry of the archive at {@code zip}, such as the
+   * shebang line of a self-executing archive.
+   */
+  public static byte[] readPreamble(Path zip) throws IOException {
+    try (FileChannel channel = FileChannel.open(zip, StandardOpenOption.READ)) {
+      long end = getCentralDirectoryPosition(zip, channel).offset;
+      for (SourceEntry source : readCentralDirectory(zip, channel)) {
+        end = Math.min(end, source.localHeaderOffset);
+      }
+      return readFully(channel, 0, Math.toIntExact(end)).array();
+    }
+  }
+
+  /** Writes all added entries to {@code output}, replacing any existing file. */
+  public void writeTo(Path output) throws IOException, InterruptedException {
+    Path directory = output.toAbsolutePath().getParent();
+    try (PayloadSpill spill =
+        new PayloadSpill(Files.createTempFile(directory, output.getFileName() + ".", ".tmp"))) {
+      writeTo(output, spill);
+    }
+  }
+
+  private void writeTo(Path output, PayloadSpill spill) throws IOException, InterruptedException {
+    // Compute CRCs and compressed payloads for every entry that needs it.
+    List<ListenableFuture<?>> preparations = new ArrayList<>();
+    for (Entry entry : entries) {
+      if (entry.needsPreparation()) {
+        preparations.add(
+            executor.submit(
+                () -> {
+                  entry.prepare(spill);
+                  return null;
+                }));
+      }
+    }
+    waitFor(preparations);
+
+    // Lay out the archive: every local header and its data get a fixed region of the file.
+    long offset = preamble.length;
+    for (Entry entry : entries) {
+      entry.offset = offset;
+      offset += entry.getLocalHeaderSize() + entry.compressedSize;
+    }
+    long centralDirectoryOffset = offset;
+    checkFitsInZip32(centralDirectoryOffset, "Archive is too large");
+    ByteBuffer centralDirectory = buildCentralDirectory(centralDirectoryOffset);
+
+    try (FileChannel out =
+        FileChannel.open(
+            output,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+      // Writing the central directory first extends the file to its final size, which lets the
+      // entry regions before it be filled in by positional writes in any order.
+      writeFully(out, centralDirectory, centralDirectoryOffset);
+      writeFully(out, ByteBuffer.wrap(preamble), 0);
+
+      List<ListenableFuture<?>> writes = new ArrayList<>();
+      for (List<Entry> chunk : chunk(entries)) {
+        writes.add(
+            executor.submit(
+                () -> {
+                  writeChunk(out, chunk);
+                  return null;
+                }));
+      }
+      waitFor(writes);
+    }
+  }
+
+  private static ImmutableList<List<Entry>> chunk(List<Entry> entries) {
+    ImmutableList.Builder<List<Entry>> chunks = ImmutableList.builder();
+    List<Entry> current = new ArrayList<>();
+    long currentSize = 0;
+    for (Entry entry : entries) {
+      current.add(entry);
+      currentSize += entry.compressedSize;
+      if (currentSize >= CHUNK_SIZE) {
+        chunks.add(current);
+        current = new ArrayList<>();
+        currentSize = 0;
+      }
+    }
+    if (!current.isEmpty()) {
+      chunks.add(current);
+    }
+    return chunks.build();
+  }
+
+  private static void writeChunk(FileChannel out, List<Entry> chunk) throws IOException {
+    Map<Path, FileChannel> sources = new HashMap<>();
+    try {
+      for (Entry entry : chunk) {
+        ByteBuffer header = entry.buildLocalHeader();
+        writeFully(out, header, entry.offset);
+        long dataOffset = entry.offset + entry.getLocalHeaderSize();
+        Path sourcePath = Preconditions.checkNotNull(entry.sourcePath);
+        FileChannel source = sources.get(sourcePath);
+        if (source == null) {
+          source = FileChannel.open(sourcePath, StandardOpenOption.READ);
+          sources.put(sourcePath, source);
+        }
+        transferFully(source, entry.sourceOffset, out, dataOffset, entry.compressedSize);
+      }
+    } finally {
+      for (FileChannel source : sources.values()) {
+        source.close();
+      }
+    }
+  }
+
+  private ByteBuffer buildCentralDirectory(long centralDirectoryOffset) throws IOException {
+    int size = ZipEntry.ENDHDR;
+    for (Entry entry : entries) {
+      size += ZipEntry.CENHDR + entry.nameBytes.length;
+    }
+    if (entries.size() >= ZipConstants.ZIP64_MAGICCOUNT) {
+      throw new IOException("Too many entries for a zip without zip64 extensions");
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    for (Entry entry : entries) {
+      buffer.putInt((int) ZipEntry.CENSIG);
+      // Version made by, set the creator system if there are UNIX-style file attributes.
+      buffer.putShort((short) entry.getVersionMadeBy());
+      buffer.putShort((short) entry.getRequiredExtractVersion());
+      buffer.putShort((short) UTF8_NAMES_FLAG);
+      buffer.putShort((short) entry.method);
+      buffer.putInt(ZipConstants.DOS_FAKE_TIME);
+      buffer.putInt((int) entry.crc);
+      buffer.putInt((int) entry.compressedSize);
+      buffer.putInt((int) entry.size);
+      buffer.putShort((short) entry.nameBytes.length);
+      // Extra field, comment, disk number and internal attribute lengths.
+      buffer.putShort((short) 0);
+      buffer.putShort((short) 0);
+      buffer.putShort((short) 0);
+      buffer.putShort((short) 0);
+      buffer.putInt((int) entry.externalAttributes);
+      buffer.putInt((int) entry.offset);
+      buffer.put(entry.nameBytes);
+    }
+
+    int centralDirectorySize = size - ZipEntry.ENDHDR;
+    buffer.putInt((int) ZipEntry.ENDSIG);
+    buffer.putShort((short) 0);
+    buffer.putShort((short) 0);
+    buffer.putShort((short) entries.size());
+    buffer.putShort((short) entries.size());
+    buffer.putInt(centralDirectorySize);
+    buffer.putInt((int) centralDirectoryOffset);
+    buffer.putShort((short) 0);
+
+    ((Buffer) buffer).flip();
+    return buffer;
+  }
+
+  private static CentralDirectoryPosition getCentralDirectoryPosition(
+      Path zip, FileChannel channel) throws IOException {
+    long fileSize = channel.size();
+    int tailSize = (int) Math.min(fileSize, MAX_EOCD_SEARCH);
+    ByteBuffer tail = readFully(channel, fileSize - tailSize, tailSize);
+
+    // Search backwards from the end of the file for the end of central directory signature.
+    int eocd = tailSize - ZipEntry.ENDHDR;
+    while (eocd >= 0 && tail.getInt(eocd) != (int) ZipEntry.ENDSIG) {
+      eocd--;
+    }
+    if (eocd < 0) {
+      throw new IOException(String.format("%s is not a zip file", zip));
+    }
+
+    int entryCount = Short.toUnsignedInt(tail.getShort(eocd + ZipEntry.ENDTOT));
+    long cdSize = Integer.toUnsignedLong(tail.getInt(eocd + ZipEntry.ENDSIZ));
+    long cdOffset = Integer.toUnsignedLong(tail.getInt(eocd + ZipEntry.ENDOFF));
+    if (entryCount == ZipConstants.ZIP64_MAGICCOUNT || cdOffset == ZipConstants.ZIP64_MAGICVAL) {
+      throw new IOException(String.format("%s: zip64 archives are not supported", zip));
+    }
+
+    // Archives appended to a preamble by tools which are unaware of it (e.g. Python's zipfile in
+    // append mode) record offsets relative to the start of the archive rather than the file.
+    long cdPosition = fileSize - tailSize + eocd - cdSize;
+    long shift = cdPosition - cdOffset;
+    if (shift < 0) {
+      throw new IOException(String.format("%s: corrupt end of central directory", zip));
+    }
+    return new CentralDirectoryPosition(entryCount, cdPosition, cdSize, shift);
+  }
+
+  private static List<SourceEntry> readCentralDirectory(Path zip, FileChannel channel)
+      throws IOException {
+    CentralDirectoryPosition position = getCentralDirectoryPosition(zip, channel);
+    int entryCount = position.entryCount;
+    ByteBuffer cd = readFully(channel, position.offset, Math.toIntExact(position.size));
+    List<SourceEntry> result = new ArrayList<>(entryCount);
+    int pos = 0;
+    for (int i = 0; i < entryCount; i++) {
+      if (cd.getInt(pos) != (int) ZipEntry.CENSIG) {
+        throw new IOException(String.format("%s: corrupt central directory", zip));
+      }
+      int flags = Short.toUnsignedInt(cd.getShort(pos + ZipEntry.CENFLG));
+      int method = Short.toUnsignedInt(cd.getShort(pos + ZipEntry.CENHOW));
+      int nameLength = Short.toUnsignedInt(cd.getShort(pos + ZipEntry.CENNAM));
+      int extraLength = Short.toUnsignedInt(cd.getShort(pos + ZipEntry.CENEXT));
+      int commentLength = Short.toUnsignedInt(cd.getShort(pos + ZipEntry.CENCOM));
+      byte[] nameBytes = new byte[nameLength];
+      ((Buffer) cd).position(pos + ZipEntry.CENHDR);
+      cd.get(nameBytes);
+      String name = new String(nameBytes, Charsets.UTF_8);
+
+      if ((flags & ENCRYPTED_FLAG) != 0) {
+        throw new IOException(String.format("%s: %s is encrypted", zip, name));
+      }
+      if (method != ZipEntry.STORED && method != ZipEntry.DEFLATED) {
+        throw new IOException(
+            String.format("%s: %s uses unsupported compression method %d", zip, name, method));
+      }
+
+      long localHeaderOffset =
+          Integer.toUnsignedLong(cd.getInt(pos + ZipEntry.CENOFF)) + position.shift;
+      ByteBuffer localHeader = readFully(channel, localHeaderOffset, ZipEntry.LOCHDR);
+      if (localHeader.getInt(0) != (int) ZipEntry.LOCSIG) {
+        throw new IOException(String.format("%s: corrupt local header for %s", zip, name));
+      }
+
+      result.add(
+          new SourceEntry(
+              zip,
+              name,
+              method,
+              Integer.toUnsignedLong(cd.getInt(pos + ZipEntry.CENCRC)),
+              Integer.toUnsignedLong(cd.getInt(pos + ZipEntry.CENLEN)),
+              Integer.toUnsignedLong(cd.getInt(pos + ZipEntry.CENSIZ)),
+              Integer.toUnsignedLong(cd.getInt(pos + ZipEntry.CENATX)),
+              localHeaderOffset,
+              localHeaderOffset
+                  + ZipEntry.LOCHDR
+                  + Short.toUnsignedInt(localHeader.getShort(ZipEntry.LOCNAM))
+                  + Short.toUnsignedInt(localHeader.getShort(ZipEntry.LOCEXT))));
+
+      pos += ZipEntry.CENHDR + nameLength + extraLength + commentLength;
+    }
+    return result;
+  }
+
+  private static ByteBuffer readFully(FileChannel channel, long position, int length)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of file");
+      }
+    }
+    ((Buffer) buffer).flip();
+    return buffer;
+  }
+
+  private static void writeFully(FileChannel out, ByteBuffer buffer, long position)
+      throws IOException {
+    long current = position;
+    while (buffer.hasRemaining()) {
+      current += out.write(buffer, current);
+    }
+  }
+
+  private static void transferFully(
+      FileChannel source, long sourceOffset, FileChannel out, long position, long length)
+      throws IOException {
+    source.position(sourceOffset);
+    long transferred = 0;
+    while (transferred < length) {
+      long count = out.transferFrom(source, position + transferred, length - transferred);
+      if (count <= 0) {
+        throw new IOException("Unexpected end of file while copying zip entry");
+      }
+      transferred += count;
+    }
+  }
+
+  private static void checkFitsInZip32(long value, String message) throws IOException {
+    if (value >= ZipConstants.ZIP64_MAGICVAL) {
+      throw new IOException(message + ": zip64 output is not supported");
+    }
+  }
+
+  private static void waitFor(List<ListenableFuture<?>> futures)
+      throws IOException, InterruptedException {
+    try {
+      Futures.allAsList(futures).get();
+    } catch (InterruptedException e) {
+      // The executor may be shared, so the remaining tasks have to be stopped here.
+      cancelAll(futures);
+      throw e;
+    } catch (ExecutionException e) {
+      cancelAll(futures);
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  private static void cancelAll(List<ListenableFuture<?>> futures) {
+    for (ListenableFuture<?> future : futures) {
+      future.cancel(true);
+    }
+  }
+
+  /** Whether {@code file} holds exactly the data of {@code entry}. */
+  private static boolean hasSameData(SourceEntry entry, Path file) throws IOException {
+    byte[] expected = new byte[BUFFER_SIZE];
+    byte[] actual = new byte[BUFFER_SIZE];
+    try (InputStream expectedData = entry.openData();
+        InputStream actualData = Files.newInputStream(file)) {
+      while (true) {
+        int read = ByteStreams.read(actualData, actual, 0, actual.length);
+        if (ByteStreams.read(expectedData, expected, 0, read) != read
+            || !ByteBuffer.wrap(expected, 0, read).equals(ByteBuffer.wrap(actual, 0, read))) {
+          return false;
+        }
+        if (read < actual.length) {
+          return expectedData.read() == -1;
+        }
+      }
+    }
+  }
+
+  /**
+   * A temporary file holding the payloads of entries compressed by {@link Entry#prepare}, so that
+   * they don't have to stay in memory until the archive is written.
+   */
+  private static class PayloadSpill implements Closeable {
+    private final Path path;
+    private final FileChannel channel;
+    private final AtomicLong size = new AtomicLong();
+
+    private PayloadSpill(Path path) throws IOException {
+      this.path = path;
+      this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /** Appends the contents of {@code payload} and returns the offset they were written at. */
+    private long append(PayloadBuffer payload) throws IOException {
+      long offset = size.getAndAdd(payload.size());
+      writeFully(channel, payload.toByteBuffer(), offset);
+      return offset;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        channel.close();
+      } finally {
+        Files.deleteIfExists(path);
+      }
+    }
+  }
+
+  /** Collects the payload of a single entry while it is compressed. */
+  private static class PayloadBuffer extends ByteArrayOutputStream {
+    private PayloadBuffer() {
+      super(BUFFER_SIZE);
+    }
+
+    private ByteBuffer toByteBuffer() {
+      return ByteBuffer.wrap(buf, 0, count);
+    }
+  }
+
+  /** Where the central directory of an input archive is, and how its offsets are shifted. */
+  private static class CentralDirectoryPosition {
+    private final int entryCount;
+    private final long offset;
+    private final long size;
+    private final long shift;
+
+    private CentralDirectoryPosition(int entryCount, long offset, long size, long shift) {
+      this.entryCount = entryCount;
+      this.offset = offset;
+      this.size = size;
+      this.shift = shift;
+    }
+  }
+
+  /** An entry as described by the central directory of an input archive. */
+  private static class SourceEntry {
+    private final Path zip;
+    private final String name;
+    private final int method;
+    private final long crc;
+    private final long size;
+    private final long compressedSize;
+    private final long externalAttributes;
+    private final long localHeaderOffset;
+    private final long dataOffset;
+
+    private SourceEntry(
+        Path zip,
+        String name,
+        int method,
+        long crc,
+        long size,
+        long compressedSize,
+        long externalAttributes,
+        long localHeaderOffset,
+        long dataOffset) {
+      this.zip = zip;
+      this.name = name;
+      this.method = method;
+      this.crc = crc;
+      this.size = size;
+      this.compressedSize = compressedSize;
+      this.externalAttributes = externalAttributes;
+      this.localHeaderOffset = localHeaderOffset;
+      this.dataOffset = dataOffset;
+    }
+
+    /** Opens the data of this entry, inflating it if needed. */
+    private InputStream openData() throws IOException {
+      FileChannel channel = FileChannel.open(zip, StandardOpenOption.READ);
+      channel.position(dataOffset);
+      InputStream compressed = ByteStreams.limit(Channels.newInputStream(channel), compressedSize);
+      if (method == ZipEntry.STORED) {
+        return compressed;
+      }
+      Inflater inflater = new Inflater(/* nowrap */ true);
+      return new InflaterInputStream(compressed, inflater, BUFFER_SIZE) {
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            inflater.end();
+          }
+        }
+      };
+    }
+  }
+
+  /**
+   * An entry of the output archive. The data is copied from {@link #sourcePath} starting at {@link
+   * #sourceOffset}, which is the {@link PayloadSpill} for entries compressed here.
+   */
+  private abstract static class Entry {
+    protected final String name;
+    protected final byte[] nameBytes;
+    protected int method;
+    protected long crc;
+    protected long size;
+    protected long compressedSize;
+    protected long externalAttributes;
+    @Nullable protected Path sourcePath;
+    protected long sourceOffset;
+    private long offset;
+
+    protected Entry(String name) {
+      this.name = name;
+      this.nameBytes = name.getBytes(Charsets.UTF_8);
+    }
+
+    /** Whether {@link #prepare()} has to run before the entry can be laid out. */
+    protected abstract boolean needsPreparation();
+
+    /** Computes the CRC, sizes and payload of the entry. May be called from any thread. */
+    protected abstract void prepare(PayloadSpill spill) throws IOException;
+
+    /**
+     * Compresses the rest of {@code data} with the given level and spills it as this entry's
+     * payload.
+     */
+    protected void spillPayload(PayloadSpill spill, InputStream data, ZipCompressionLevel level)
+        throws IOException {
+      CRC32 crc = new CRC32();
+      PayloadBuffer payload = new PayloadBuffer();
+      InputStream in = new CheckedInputStream(data, crc);
+      if (level == ZipCompressionLevel.NONE) {
+        this.method = ZipEntry.STORED;
+        this.size = ByteStreams.copy(in, payload);
+      } else {
+        this.method = ZipEntry.DEFLATED;
+        Deflater deflater = new Deflater(level.getValue(), /* nowrap */ true);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(payload, deflater, BUFFER_SIZE)) {
+          this.size = ByteStreams.copy(in, out);
+        } finally {
+          deflater.end();
+        }
+      }
+      this.crc = crc.getValue();
+      this.compressedSize = payload.size();
+      this.sourcePath = spill.path;
+      this.sourceOffset = spill.append(payload);
+    }
+
+    private int getLocalHeaderSize() {
+      return ZipEntry.LOCHDR + nameBytes.length;
+    }
+
+    private int getRequiredExtractVersion() {
+      return method == ZipEntry.STORED ? 10 : 20;
+    }
+
+    private int getVersionMadeBy() {
+      int version = getRequiredExtractVersion();
+      if (externalAttributes >= (1 << 16)) {
+        version |= (3 << 8);
+      }
+      return version;
+    }
+
+    private ByteBuffer buildLocalHeader() throws IOException {
+      checkFitsInZip32(size, name + " is too large");
+      ByteBuffer buffer =
+          ByteBuffer.allocate(getLocalHeaderSize()).order(ByteOrder.LITTLE_ENDIAN);
+      buffer.putInt((int) ZipEntry.LOCSIG);
+      buffer.putShort((short) getRequiredExtractVersion());
+      // Sizes and CRC are always known up front, so there is never a data descriptor.
+      buffer.putShort((short) UTF8_NAMES_FLAG);
+      buffer.putShort((short) method);
+      buffer.putInt(ZipConstants.DOS_FAKE_TIME);
+      buffer.putInt((int) crc);
+      buffer.putInt((int) compressedSize);
+      buffer.putInt((int) size);
+      buffer.putShort((short) nameBytes.length);
+      buffer.putShort((short) 0);
+      buffer.put(nameBytes);
+      ((Buffer) buffer).flip();
+      return buffer;
+    }
+  }
+
+  /** An entry copied verbatim, still compressed, from another archive. */
+  private static class RawEntry extends Entry {
+    private RawEntry(SourceEntry source) {
+      super(source.name);
+      this.method = source.method;
+      this.crc = source.crc;
+      this.size = source.size;
+      this.compressedSize = source.compressedSize;
+      this.externalAttributes = source.externalAttributes;
+      this.sourcePath = source.zip;
+      this.sourceOffset = source.dataOffset;
+    }
+
+    @Override
+    protected boolean needsPreparation() {
+      return false;
+    }
+
+    @Override
+    protected void prepare(PayloadSpill spill) {}
+  }
+
+  /** An entry from another archive whose data is rewritten with a new compression level. */
+  private static class RecompressedEntry extends Entry {
+    private final SourceEntry source;
+    private final ZipCompressionLevel level;
+
+    private RecompressedEntry(SourceEntry source, ZipCompressionLevel level) {
+      super(source.name);
+      this.source = source;
+      this.level = level;
+      this.externalAttributes = source.externalAttributes;
+    }
+
+    @Override
+    protected boolean needsPreparation() {
+      return true;
+    }
+
+    @Override
+    protected void prepare(PayloadSpill spill) throws IOException {
+      try (InputStream data = source.openData()) {
+        spillPayload(spill, data, level);
+      }
+      if (size != source.size || crc != source.crc) {
+        throw new IOException(String.format("%s: %s is corrupt", source.zip, name));
+      }
+    }
+  }
+
+  /** An entry whose data is held in memory. */
+  private static class BytesEntry extends Entry {
+    private final byte[] data;
+    private final ZipCompressionLevel level;
+
+    private BytesEntry(String name, byte[] data, ZipCompressionLevel level) {
+      super(name);
+      this.data = data;
+      this.level = level;
+    }
+
+    @Override
+    protected boolean needsPreparation() {
+      return true;
+    }
+
+    @Override
+    protected void prepare(PayloadSpill spill) throws IOException {
+      spillPayload(spill, new ByteArrayInputStream(data), level);
+    }
+  }
+
+  /**
+   * An entry whose data comes from a regular file, or from an identical entry of a previous
+   * archive.
+   */
+  private static class FileEntry extends Entry {
+    private final Path file;
+    private final ZipCompressionLevel level;
+    @Nullable private final SourceEntry previous;
+
+    private FileEntry(
+        String name, Path file, ZipCompressionLevel level, @Nullable SourceEntry previous) {
+      super(name);
+      this.file = file;
+      this.level = level;
+      this.previous = previous;
+    }
+
+    @Override
+    protected boolean needsPreparation() {
+      return true;
+    }
+
+    @Override
+    protected void prepare(PayloadSpill spill) throws IOException {
+      if (level != ZipCompressionLevel.NONE) {
+        if (previous != null && previous.size == Files.size(file) && hasSameData(previous, file)) {
+          this.method = previous.method;
+          this.crc = previous.crc;
+          this.size = previous.size;
+          this.compressedSize = previous.compressedSize;
+          this.sourcePath = previous.zip;
+          this.sourceOffset = previous.dataOffset;
+          return;
+        }
+        try (InputStream data = Files.newInputStream(file)) {
+          spillPayload(spill, data, level);
+        }
+        return;
+      }
+
+      // Stored files are only checksummed here and copied straight from disk when written.
+      CRC32 crc = new CRC32();
+      long length = 0;
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        while (channel.read(buffer) >= 0) {
+          ((Buffer) buffer).flip();
+          length += buffer.remaining();
+          crc.update(buffer);
+          ((Buffer) buffer).clear();
+        }
+      }
+      this.method = ZipEntry.STORED;
+      this.crc = crc.getValue();
+      this.size = length;
+      this.compressedSize = length;
+      this.sourcePath = file;
+      this.sourceOffset = 0;
+    }
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.worker;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
+import com.sun.management.OperatingSystemMXBean;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalDouble;
+
+/**
+ * Tells how much memory is left for new processes, as a fraction of the memory they may use.
+ *
+ * <p>Free memory is a poor measure of this, as the kernel fills otherwise unused memory with page
+ * cache that it drops again under pressure. On Linux the kernel's own estimate, MemAvailable, is
+ * used instead, and so is the memory left below the limit of the cgroup Buck runs in, if that is
+ * lower. Elsewhere it falls back to free memory.
+ */
+class AvailableMemory {
+
+  private static final Logger LOG = Logger.get(AvailableMemory.class);
+
+  private static final Path MEMINFO = Paths.get("/proc/meminfo");
+
+  // cgroup v2 exposes the controller at the root of the mount, v1 below a "memory" directory.
+  private static final Path CGROUP_V2 = Paths.get("/sys/fs/cgroup");
+  private static final Path CGROUP_V1 = Paths.get("/sys/fs/cgroup/memory");
+
+  private AvailableMemory() {}
+
+  /** @return the fraction of memory available to new processes, between 0 and 1. */
+  static double getFraction() {
+    OptionalDouble host = readHostFraction();
+    double fraction = host.isPresent() ? host.getAsDouble() : getFreeFraction();
+    OptionalDouble cgroup = readCgroupFraction();
+    return cgroup.isPresent() ? Math.min(fraction, cgroup.getAsDouble()) : fraction;
+  }
+
+  private static double getFreeFraction() {
+    OperatingSystemMXBean osBean =
+        (OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+    return (double) osBean.getFreePhysicalMemorySize() / osBean.getTotalPhysicalMemorySize();
+  }
+
+  private static OptionalDouble readHostFraction() {
+    return read(MEMINFO).map(AvailableMemory::parseMeminfo).orElse(OptionalDouble.empty());
+  }
+
+  private static OptionalDouble readCgroupFraction() {
+    if (Files.isRegularFile(CGROUP_V2.resolve("memory.max"))) {
+      return parseCgroup(
+          read(CGROUP_V2.resolve("memory.max")),
+          read(CGROUP_V2.resolve("memory.current")),
+          read(CGROUP_V2.resolve("memory.stat")),
+          "inactive_file");
+    }
+    if (Files.isRegularFile(CGROUP_V1.resolve("memory.limit_in_bytes"))) {
+      return parseCgroup(
+          read(CGROUP_V1.resolve("memory.limit_in_bytes")),
+          read(CGROUP_V1.resolve("memory.usage_in_bytes")),
+          read(CGROUP_V1.resolve("memory.stat")),
+          "total_inactive_file");
+    }
+    return OptionalDouble.empty();
+  }
+
+  /** @return MemAvailable as a fraction of MemTotal, if both are listed. */
+  @VisibleForTesting
+  static OptionalDouble parseMeminfo(String meminfo) {
+    Optional<Long> total = findValue(meminfo, "MemTotal:");
+    Optional<Long> available = findValue(meminfo, "MemAvailable:");
+    if (!total.isPresent() || !available.isPresent() || total.get() <= 0) {
+      return OptionalDouble.empty();
+    }
+    return OptionalDouble.of((double) available.get() / total.get());
+  }
+
+  /**
+   * @return the memory left below a cgroup's limit as a fraction of it, not counting inactive page
+   *     cache as used, or nothing if the cgroup has no limit.
+   */
+  @VisibleForTesting
+  static OptionalDouble parseCgroup(
+      Optional<String> limit,
+      Optional<String> usage,
+      Optional<String> stat,
+      String inactiveFileKey) {
+    if (!limit.isPresent() || !usage.isPresent()) {
+      return OptionalDouble.empty();
+    }
+    long limitBytes;
+    long usageBytes;
+    try {
+      if (limit.get().trim().equals("max")) {
+        return OptionalDouble.empty();
+      }
+      limitBytes = Long.parseLong(limit.get().trim());
+      usageBytes = Long.parseLong(usage.get().trim());
+    } catch (NumberFormatException e) {
+      return OptionalDouble.empty();
+    }
+    // cgroup v1 reports the lack of a limit as a huge number rather than "max".
+    if (limitBytes <= 0 || limitBytes >= Long.MAX_VALUE / 2) {
+      return OptionalDouble.empty();
+    }
+    long inactiveFileBytes = stat.flatMap(s -> findValue(s, inactiveFileKey)).orElse(0L);
+    long workingSetBytes = Math.max(0, usageBytes - inactiveFileBytes);
+    return OptionalDouble.of(Math.max(0, limitBytes - workingSetBytes) / (double) limitBytes);
+  }
+
+  /** @return the number following the given key on the line it starts, if there is one. */
+  private static Optional<Long> findValue(String contents, String key) {
+    Splitter fieldSplitter = Splitter.on(CharMatcher.whitespace()).omitEmptyStrings();
+    for (String line : Splitter.on('\n').split(contents)) {
+      List<String> fields = fieldSplitter.splitToList(line);
+      if (fields.size() >= 2 && fields.get(0).equals(key)) {
+        try {
+          return Optional.of(Long.parseLong(fields.get(1)));
+        } catch (NumberFormatException e) {
+          return Optional.empty();
+        }
+      }
+    }
+    return Optional.empty();
+  }
+
+  private static Optional<String> read(Path path) {
+    try {
+      return Optional.of(new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      LOG.verbose(e, "Could not read %s.", path);
+      return Optional.empty();
+    }
+  }
+}
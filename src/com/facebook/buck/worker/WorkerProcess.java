@@ -25,12 +25,17 @@ import com.facebook.buck.util.string.MoreStrings;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.Nullable;
 
@@ -44,8 +49,18 @@ public class WorkerProcess implements Closeable {
   private final Path tmpPath;
   private final Path stdErr;
   private final AtomicInteger currentMessageID = new AtomicInteger();
+  private final Object sendLock = new Object();
+  private final Object receiveLock = new Object();
+
+  /** Jobs sent to a multiplexing worker that haven't been answered yet, by message id. */
+  private final ConcurrentMap<Integer, CompletableFuture<Integer>> pendingResponses =
+      new ConcurrentHashMap<>();
+
+  /** Whether a thread is currently reading a response. Guarded by {@link #receiveLock}. */
+  private boolean isReceiving = false;
+
   private boolean handshakePerformed = false;
-  @Nullable private WorkerProcessProtocol.CommandSender protocol;
+  @Nullable private volatile WorkerProcessProtocol.CommandSender protocol;
   @Nullable private ProcessExecutor.LaunchedProcess launchedProcess;
 
   /**
@@ -55,6 +70,9 @@ public class WorkerProcess implements Closeable {
    * receives the result back. Worker process must understand the protocol that Buck will use to
    * communicate with it.
    *
+   * <p>If the worker supports multiplexing, several threads may submit jobs at the same time.
+   * Otherwise jobs are processed one after another.
+   *
    * @param executor Process executor that will start worker process.
    * @param processParams Arguments for process executor.
    * @param filesystem File system for the worker process.
@@ -75,8 +93,15 @@ public class WorkerProcess implements Closeable {
     this.tmpPath = tmpPath;
   }
 
+  /**
+   * Whether the process can take more jobs. A retiring process is considered dead, even if it is
+   * still exiting, so that it is replaced.
+   */
   public boolean isAlive() {
-    return launchedProcess != null && launchedProcess.isAlive();
+    WorkerProcessProtocol.CommandSender sender = protocol;
+    return launchedProcess != null
+        && launchedProcess.isAlive()
+        && (sender == null || !sender.isRetiring());
   }
 
   public synchronized void ensureLaunchAndHandshake() throws IOException {
@@ -104,9 +129,19 @@ public class WorkerProcess implements Closeable {
     handshakePerformed = true;
   }
 
-  public synchronized WorkerJobResult submitAndWaitForJob(String jobArgs) throws IOException {
+  /**
+   * Whether this worker can work on several jobs at the same time. Only meaningful after the
+   * handshake.
+   */
+  public boolean supportsMultiplexing() {
+    WorkerProcessProtocol.CommandSender sender = protocol;
+    return sender != null && sender.supportsMultiplexing();
+  }
+
+  public WorkerJobResult submitAndWaitForJob(String jobArgs) throws IOException {
+    WorkerProcessProtocol.CommandSender sender = protocol;
     Preconditions.checkState(
-        protocol != null,
+        sender != null,
         "Tried to submit a job to the worker process before the handshake was performed.");
 
     int messageID = currentMessageID.getAndAdd(1);
@@ -117,12 +152,21 @@ public class WorkerProcess implements Closeable {
     filesystem.deleteFileAtPathIfExists(stderrPath);
     filesystem.writeContentsToPath(jobArgs, argsPath);
 
+    WorkerProcessCommand command =
+        ImmutableWorkerProcessCommand.of(argsPath, stdoutPath, stderrPath);
     LOG.debug(
         "Sending job %d to process %d \n" + " job arguments: \'%s\'",
         messageID, this.hashCode(), jobArgs);
-    protocol.send(messageID, ImmutableWorkerProcessCommand.of(argsPath, stdoutPath, stderrPath));
-    LOG.debug("Receiving response for job %d from process %d", messageID, this.hashCode());
-    int exitCode = protocol.receiveCommandResponse(messageID);
+    int exitCode;
+    if (sender.supportsMultiplexing()) {
+      exitCode = sendAndReceiveMultiplexed(sender, messageID, command);
+    } else {
+      synchronized (this) {
+        sender.send(messageID, command);
+        LOG.debug("Receiving response for job %d from process %d", messageID, this.hashCode());
+        exitCode = sender.receiveCommandResponse(messageID);
+      }
+    }
     Optional<String> stdout = filesystem.readFileIfItExists(stdoutPath);
     Optional<String> stderr = filesystem.readFileIfItExists(stderrPath);
     LOG.debug(
@@ -135,6 +179,99 @@ public class WorkerProcess implements Closeable {
     return WorkerJobResult.of(exitCode, stdout, stderr);
   }
 
+  /**
+   * Sends a job to a multiplexing worker and waits for its response.
+   *
+   * <p>There is no dedicated thread reading responses. Instead, one of the waiting threads at a
+   * time reads the next response from the worker and hands it to the thread waiting for it. Once a
+   * thread got its own response, another waiting thread takes over reading.
+   */
+  private int sendAndReceiveMultiplexed(
+      WorkerProcessProtocol.CommandSender sender, int messageID, WorkerProcessCommand command)
+      throws IOException {
+    CompletableFuture<Integer> response = new CompletableFuture<>();
+    pendingResponses.put(messageID, response);
+    try {
+      synchronized (sendLock) {
+        sender.send(messageID, command);
+      }
+    } catch (IOException | RuntimeException e) {
+      pendingResponses.remove(messageID);
+      throw e;
+    }
+
+    boolean interrupted = false;
+    try {
+      while (true) {
+        synchronized (receiveLock) {
+          while (isReceiving && !response.isDone()) {
+            try {
+              receiveLock.wait();
+            } catch (InterruptedException e) {
+              // Like blocking reads, waiting for a response is not interruptible.
+              interrupted = true;
+            }
+          }
+          if (response.isDone()) {
+            break;
+          }
+          isReceiving = true;
+        }
+        try {
+          LOG.debug("Receiving response for job %d from process %d", messageID, this.hashCode());
+          receiveNextResponse(sender);
+        } finally {
+          synchronized (receiveLock) {
+            isReceiving = false;
+            receiveLock.notifyAll();
+          }
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    try {
+      return response.getNow(-1);
+    } catch (CompletionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private void receiveNextResponse(WorkerProcessProtocol.CommandSender sender)
+      throws IOException {
+    WorkerProcessCommandResponse received;
+    try {
+      received = sender.receiveNextCommandResponse();
+    } catch (IOException | RuntimeException e) {
+      // The stream is unusable now, so none of the pending jobs will ever get their response.
+      failPendingResponses(e);
+      throw e;
+    }
+    CompletableFuture<Integer> response = pendingResponses.remove(received.getId());
+    if (response == null) {
+      HumanReadableException e =
+          new HumanReadableException(
+              "Received a response for unknown job %d from worker process.", received.getId());
+      failPendingResponses(e);
+      throw e;
+    }
+    response.complete(received.getExitCode());
+  }
+
+  private void failPendingResponses(Throwable cause) {
+    for (Integer id : pendingResponses.keySet()) {
+      CompletableFuture<Integer> response = pendingResponses.remove(id);
+      if (response != null) {
+        response.completeExceptionally(cause);
+      }
+    }
+  }
+
   @Override
   public synchronized void close() {
     LOG.debug("Closing process %d", this.hashCode());
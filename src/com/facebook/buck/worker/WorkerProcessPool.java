@@ -27,11 +27,20 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
@@ -39,29 +48,118 @@ import javax.annotation.concurrent.ThreadSafe;
  * A pool of {@link WorkerProcess} instances.
  *
  * <p>This pool supports acquisition and release of worker processes on different threads. Workers
- * are acquired with {@link #borrowWorkerProcess()}, which returns
+ * are acquired with {@link #borrowWorkerProcess()}, which returns a {@link BorrowedWorkerProcess}
+ * that must be closed to return the worker to the pool.
+ *
+ * <p>The pool hands out slots rather than whole processes. A worker process has a single slot,
+ * unless it advertises multiplexing in its handshake, in which case it gets up to {@code
+ * maxRequestsPerWorker} slots and serves that many jobs concurrently.
+ *
+ * <p>The number of running processes adapts to demand: slots of running processes are handed out
+ * most recently returned first, and a new process is only started when a job is waiting and all
+ * slots of the running ones are busy. Processes that have been idle for longer than the idle
+ * timeout are shut down again. While the machine is low on available memory, the least recently
+ * used idle process is shut down every trim interval, down to the most recently used one.
  */
 @ThreadSafe
 public class WorkerProcessPool implements Closeable {
   private static final Logger LOG = Logger.get(WorkerProcessPool.class);
 
+  /** Number of jobs a multiplexing worker process is given before another one is started. */
+  public static final int DEFAULT_MAX_REQUESTS_PER_WORKER = 4;
+
+  /** How long a worker process may stay idle before it is shut down. */
+  public static final long DEFAULT_IDLE_TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+  /** The pool gets low on memory when less than this fraction of memory is available. */
+  private static final double LOW_MEMORY_FRACTION = 0.05;
+
+  /**
+   * The pool stops being low on memory only once this larger fraction is available again, so that
+   * the memory freed by shutting down one worker doesn't immediately let the next one start.
+   */
+  private static final double RECOVERED_MEMORY_FRACTION = 0.1;
+
+  private static final long TRIM_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
   private final int capacity;
   private final BlockingQueue<WorkerLifecycle> availableWorkers;
   private final WorkerLifecycle[] workerLifecycles;
   private final HashCode poolHash;
+  private final DoubleSupplier availableMemoryFraction;
+  private final long idleTimeoutNanos;
+  private final LongSupplier clock;
+  private final long createdAtNanos;
+  private final AtomicLong nextTrimNanos;
+  private final AtomicLong releaseCount = new AtomicLong();
+  private volatile boolean isLowOnMemory;
+
+  private final AtomicInteger queuedJobs = new AtomicInteger();
+  private final AtomicInteger activeJobs = new AtomicInteger();
+  private final LongAdder borrowCount = new LongAdder();
+  private final LongAdder totalQueueWaitNanos = new LongAdder();
+  private final AtomicLong maxQueueWaitNanos = new AtomicLong();
+  private final LongAdder totalBusyNanos = new LongAdder();
 
+  /** Creates a pool of single-request workers that are kept until the pool is closed. */
   public WorkerProcessPool(
       int maxWorkers,
       HashCode poolHash,
       ThrowingSupplier<WorkerProcess, IOException> startWorkerProcess) {
+    this(
+        maxWorkers,
+        1,
+        poolHash,
+        startWorkerProcess,
+        () -> 1,
+        Long.MAX_VALUE,
+        System::nanoTime);
+  }
+
+  /**
+   * Creates a pool that multiplexes requests to workers supporting it, and shuts down workers
+   * that have been idle for {@link #DEFAULT_IDLE_TIMEOUT_NANOS} or while memory is low.
+   */
+  public WorkerProcessPool(
+      int maxWorkers,
+      int maxRequestsPerWorker,
+      HashCode poolHash,
+      ThrowingSupplier<WorkerProcess, IOException> startWorkerProcess) {
+    this(
+        maxWorkers,
+        maxRequestsPerWorker,
+        poolHash,
+        startWorkerProcess,
+        AvailableMemory::getFraction,
+        DEFAULT_IDLE_TIMEOUT_NANOS,
+        System::nanoTime);
+  }
+
+  @VisibleForTesting
+  WorkerProcessPool(
+      int maxWorkers,
+      int maxRequestsPerWorker,
+      HashCode poolHash,
+      ThrowingSupplier<WorkerProcess, IOException> startWorkerProcess,
+      DoubleSupplier availableMemoryFraction,
+      long idleTimeoutNanos,
+      LongSupplier clock) {
+    Preconditions.checkArgument(maxRequestsPerWorker > 0);
     capacity = maxWorkers;
     availableWorkers = new LinkedBlockingStack<>();
     workerLifecycles = new WorkerLifecycle[maxWorkers];
     this.poolHash = poolHash;
+    this.availableMemoryFraction = availableMemoryFraction;
+    this.idleTimeoutNanos = idleTimeoutNanos;
+    this.clock = clock;
+    this.createdAtNanos = clock.getAsLong();
+    this.nextTrimNanos = new AtomicLong(createdAtNanos + TRIM_INTERVAL_NANOS);
 
     Arrays.setAll(
         workerLifecycles,
-        ignored -> new WorkerLifecycle(startWorkerProcess, availableWorkers::add));
+        ignored ->
+            new WorkerLifecycle(
+                startWorkerProcess, availableWorkers::add, maxRequestsPerWorker, createdAtNanos));
     Collections.addAll(availableWorkers, workerLifecycles);
   }
 
@@ -71,23 +169,121 @@ public class WorkerProcessPool implements Closeable {
    * BorrowedWorkerProcess#close()} after using them.
    */
   public BorrowedWorkerProcess borrowWorkerProcess() throws InterruptedException {
-    return new BorrowedWorkerProcess(availableWorkers.take());
+    long queuedAt = clock.getAsLong();
+    queuedJobs.incrementAndGet();
+    WorkerLifecycle lifecycle;
+    try {
+      lifecycle = availableWorkers.take();
+    } finally {
+      queuedJobs.decrementAndGet();
+    }
+    return borrowed(lifecycle, queuedAt);
   }
 
   @VisibleForTesting
   Optional<BorrowedWorkerProcess> borrowWorkerProcess(int timeout, TimeUnit unit)
       throws InterruptedException {
-    return Optional.ofNullable(availableWorkers.poll(timeout, unit))
-        .map(BorrowedWorkerProcess::new);
+    long queuedAt = clock.getAsLong();
+    queuedJobs.incrementAndGet();
+    WorkerLifecycle lifecycle;
+    try {
+      lifecycle = availableWorkers.poll(timeout, unit);
+    } finally {
+      queuedJobs.decrementAndGet();
+    }
+    return lifecycle == null ? Optional.empty() : Optional.of(borrowed(lifecycle, queuedAt));
+  }
+
+  private BorrowedWorkerProcess borrowed(WorkerLifecycle lifecycle, long queuedAt) {
+    long now = clock.getAsLong();
+    long waitNanos = now - queuedAt;
+    borrowCount.increment();
+    totalQueueWaitNanos.add(waitNanos);
+    maxQueueWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    activeJobs.incrementAndGet();
+    lifecycle.acquire();
+    return new BorrowedWorkerProcess(this, lifecycle, now);
+  }
+
+  private void returned(
+      WorkerLifecycle lifecycle, @Nullable WorkerProcess process, long borrowedAt) {
+    long now = clock.getAsLong();
+    totalBusyNanos.add(now - borrowedAt);
+    activeJobs.decrementAndGet();
+    lifecycle.release(process, now, releaseCount.incrementAndGet());
+
+    long nextTrim = nextTrimNanos.get();
+    if (now - nextTrim >= 0 && nextTrimNanos.compareAndSet(nextTrim, now + TRIM_INTERVAL_NANOS)) {
+      trimIdleWorkers(now);
+    }
+  }
+
+  /**
+   * Shuts down worker processes that have been idle for longer than the idle timeout, or, while
+   * memory is low, the least recently used idle process. The most recently used process is always
+   * kept.
+   */
+  @VisibleForTesting
+  void trimIdleWorkers(long now) {
+    if (idleTimeoutNanos == Long.MAX_VALUE) {
+      return;
+    }
+    double availableMemory = availableMemoryFraction.getAsDouble();
+    if (availableMemory < LOW_MEMORY_FRACTION) {
+      isLowOnMemory = true;
+    } else if (availableMemory >= RECOVERED_MEMORY_FRACTION) {
+      isLowOnMemory = false;
+    }
+
+    List<WorkerLifecycle> running = new ArrayList<>(workerLifecycles.length);
+    for (WorkerLifecycle lifecycle : workerLifecycles) {
+      if (lifecycle.isRunning()) {
+        running.add(lifecycle);
+      }
+    }
+    running.sort(Comparator.comparingLong(WorkerLifecycle::getLastRelease));
+    // Shutting down one process at a time gives the memory it frees a chance to show up before
+    // deciding whether another one has to go.
+    boolean trimmedForMemory = false;
+    for (WorkerLifecycle lifecycle : running.subList(0, Math.max(0, running.size() - 1))) {
+      long timeout = isLowOnMemory && !trimmedForMemory ? 0 : idleTimeoutNanos;
+      if (lifecycle.closeIfIdle(now, timeout)) {
+        LOG.debug("Shut down idle worker process of pool %s.", poolHash);
+        trimmedForMemory |= timeout == 0;
+      }
+    }
+  }
+
+  /** Returns a snapshot of the usage of this pool. */
+  public WorkerProcessPoolStats getStats() {
+    int runningWorkers = 0;
+    for (WorkerLifecycle lifecycle : workerLifecycles) {
+      if (lifecycle.isRunning()) {
+        runningWorkers++;
+      }
+    }
+    return WorkerProcessPoolStats.of(
+        capacity,
+        runningWorkers,
+        activeJobs.get(),
+        queuedJobs.get(),
+        borrowCount.sum(),
+        totalQueueWaitNanos.sum(),
+        maxQueueWaitNanos.get(),
+        totalBusyNanos.sum(),
+        clock.getAsLong() - createdAtNanos);
   }
 
   @Override
   public synchronized void close() {
     Throwable caughtWhileClosing = null;
+    LOG.debug("Closing worker process pool %s: %s", poolHash, getStats());
 
     // remove all available workers
     int numAvailableWorkers = availableWorkers.drainTo(new ArrayList<>(capacity));
+    int numWorkerSlots = 0;
     for (WorkerLifecycle lifecycle : this.workerLifecycles) {
+      numWorkerSlots += lifecycle.getSlots();
       try {
         lifecycle.close();
       } catch (Throwable t) {
@@ -96,7 +292,7 @@ public class WorkerProcessPool implements Closeable {
     }
 
     Preconditions.checkState(
-        numAvailableWorkers == capacity,
+        numAvailableWorkers == numWorkerSlots,
         "WorkerProcessPool was still running when shutdown was called.");
     if (caughtWhileClosing != null) {
       throw new RuntimeException(caughtWhileClosing);
@@ -115,7 +311,12 @@ public class WorkerProcessPool implements Closeable {
    * Represents the lifecycle of one specific worker in a {@link WorkerProcessPool}.
    *
    * <p>Concurrency is controlled by the pool, which supports acquiring and releasing workers with
-   * {@link WorkerProcessPool#availableWorkers}.
+   * {@link WorkerProcessPool#availableWorkers}. A lifecycle is in that queue once per free slot.
+   * Once its process turns out to support multiplexing, additional slots are added to the queue;
+   * slots in excess of what the current process supports are dropped when they are released.
+   *
+   * <p>A process that died or retired is no longer handed out, but it is only closed once the jobs
+   * other slots are running on it are done.
    *
    * <p>{@link #get()} and {@link #close()} are synchronized to allow closing as part of closing the
    * pool with a consumer trying to acquire a worker in parallel.
@@ -126,49 +327,148 @@ public class WorkerProcessPool implements Closeable {
 
     private final ThrowingSupplier<WorkerProcess, IOException> startWorkerProcess;
     private final Consumer<WorkerLifecycle> onWorkerProcessReturn;
+    private final int maxRequests;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile long lastUsedNanos;
+    private volatile long lastRelease;
     private boolean isClosed = false;
-    @Nullable private WorkerProcess workerProcess;
+    private int slots = 1;
+    @Nullable private volatile WorkerProcess workerProcess;
+    /** The number of borrowers that got {@link #workerProcess} and haven't released it yet. */
+    private int workerProcessUsers = 0;
+    /** Processes no longer handed out, with the number of borrowers still using them. */
+    private final Map<WorkerProcess, Integer> retiringProcesses = new IdentityHashMap<>();
 
     private WorkerLifecycle(
         ThrowingSupplier<WorkerProcess, IOException> startWorkerProcess,
-        Consumer<WorkerLifecycle> onWorkerProcessReturn) {
+        Consumer<WorkerLifecycle> onWorkerProcessReturn,
+        int maxRequests,
+        long createdAtNanos) {
       this.startWorkerProcess = startWorkerProcess;
       this.onWorkerProcessReturn = onWorkerProcessReturn;
+      this.maxRequests = maxRequests;
+      this.lastUsedNanos = createdAtNanos;
     }
 
-    /** Allows to retrieve the wrapped worker process, starting it up if necessary. */
+    /**
+     * Allows to retrieve the wrapped worker process, starting it up if necessary. Every call must
+     * be matched by a {@link #release} of the returned process.
+     */
     @Override
     public synchronized WorkerProcess get() throws IOException {
       Preconditions.checkState(!isClosed, "Worker was already terminated");
-      // If the worker is broken, destroy it
-      if (workerProcess != null && !workerProcess.isAlive()) {
-        try {
-          workerProcess.close();
-        } catch (Exception ex) {
-          LOG.error(ex, "Failed to close dead worker process; ignoring.");
-        } finally {
-          workerProcess = null;
+      WorkerProcess process = workerProcess;
+      // If the worker is broken or retired, stop handing it out
+      if (process != null && !process.isAlive()) {
+        if (workerProcessUsers > 0) {
+          retiringProcesses.put(process, workerProcessUsers);
+        } else {
+          closeQuietly(process);
         }
+        process = null;
+        workerProcess = null;
+        workerProcessUsers = 0;
       }
 
       // start a worker if necessary, this might throw IOException
-      if (workerProcess == null) {
-        workerProcess = startWorkerProcess.get();
+      if (process == null) {
+        process = startWorkerProcess.get();
+        workerProcess = process;
       }
+      workerProcessUsers++;
+
+      int supportedSlots = getSupportedSlots();
+      while (slots < supportedSlots) {
+        slots++;
+        onWorkerProcessReturn.accept(this);
+      }
+
+      return process;
+    }
 
-      return workerProcess;
+    private void acquire() {
+      inFlight.incrementAndGet();
     }
 
-    public void makeAvailable() {
-      onWorkerProcessReturn.accept(this);
+    /** Releases a slot, and {@code process} if the slot's borrower got it from {@link #get()}. */
+    private void release(@Nullable WorkerProcess process, long now, long releaseNumber) {
+      boolean keepSlot;
+      synchronized (this) {
+        if (process != null && process == workerProcess) {
+          workerProcessUsers--;
+        } else if (process != null && retiringProcesses.containsKey(process)) {
+          int users = retiringProcesses.get(process) - 1;
+          if (users > 0) {
+            retiringProcesses.put(process, users);
+          } else {
+            retiringProcesses.remove(process);
+            closeQuietly(process);
+          }
+        }
+        lastUsedNanos = now;
+        lastRelease = releaseNumber;
+        inFlight.decrementAndGet();
+        keepSlot = slots <= getSupportedSlots();
+        if (!keepSlot) {
+          slots--;
+        }
+      }
+      if (keepSlot) {
+        onWorkerProcessReturn.accept(this);
+      }
+    }
+
+    private int getSupportedSlots() {
+      WorkerProcess process = workerProcess;
+      return process != null && process.supportsMultiplexing() ? maxRequests : 1;
+    }
+
+    private synchronized int getSlots() {
+      return slots;
+    }
+
+    private boolean isRunning() {
+      return workerProcess != null;
+    }
+
+    private long getLastRelease() {
+      return lastRelease;
+    }
+
+    /** Shuts down the worker process if nobody used it for {@code timeout} nanoseconds. */
+    private synchronized boolean closeIfIdle(long now, long timeout) {
+      WorkerProcess process = workerProcess;
+      if (isClosed || process == null || inFlight.get() > 0 || now - lastUsedNanos < timeout) {
+        return false;
+      }
+      workerProcess = null;
+      try {
+        process.close();
+      } catch (Exception ex) {
+        LOG.error(ex, "Failed to close idle worker process; ignoring.");
+      }
+      return true;
     }
 
     @Override
     public synchronized void close() {
       isClosed = true;
-      if (workerProcess != null) {
-        workerProcess.close();
+      for (WorkerProcess retiring : retiringProcesses.keySet()) {
+        closeQuietly(retiring);
+      }
+      retiringProcesses.clear();
+      WorkerProcess process = workerProcess;
+      if (process != null) {
         workerProcess = null;
+        process.close();
+      }
+    }
+
+    private static void closeQuietly(WorkerProcess process) {
+      try {
+        process.close();
+      } catch (Exception ex) {
+        LOG.error(ex, "Failed to close dead worker process; ignoring.");
       }
     }
   }
@@ -186,10 +486,16 @@ public class WorkerProcessPool implements Closeable {
    * only. Concurrency control is handled by {@link WorkerProcessPool} and {@link WorkerLifecycle}.
    */
   public static class BorrowedWorkerProcess implements Closeable {
+    private final WorkerProcessPool pool;
+    private final long borrowedAtNanos;
     @Nullable private WorkerLifecycle lifecycle;
+    @Nullable private WorkerProcess process;
 
-    private BorrowedWorkerProcess(WorkerLifecycle lifecycle) {
+    private BorrowedWorkerProcess(
+        WorkerProcessPool pool, WorkerLifecycle lifecycle, long borrowedAtNanos) {
+      this.pool = pool;
       this.lifecycle = Objects.requireNonNull(lifecycle);
+      this.borrowedAtNanos = borrowedAtNanos;
     }
 
     /** Returns ownership of the borrowed worker process back to the pool it was retrieved from. */
@@ -198,7 +504,7 @@ public class WorkerProcessPool implements Closeable {
       if (lifecycle != null) {
         WorkerLifecycle lifecycle = this.lifecycle;
         this.lifecycle = null;
-        lifecycle.makeAvailable();
+        pool.returned(lifecycle, process, borrowedAtNanos);
       }
     }
 
@@ -214,7 +520,10 @@ public class WorkerProcessPool implements Closeable {
     @VisibleForTesting
     WorkerProcess get() throws IOException {
       Preconditions.checkState(lifecycle != null, "BorrowedWorker has already been closed.");
-      return lifecycle.get();
+      if (process == null) {
+        process = lifecycle.get();
+      }
+      return process;
     }
   }
 }
@@ -117,6 +117,7 @@ public class WorkerProcessPoolFactory {
     WorkerProcessPool newPool =
         new WorkerProcessPool(
             paramsToUse.getMaxWorkers(),
+            WorkerProcessPool.DEFAULT_MAX_REQUESTS_PER_WORKER,
             workerHash,
             () -> {
               Path tmpDir = workerTmpDir.resolve(Integer.toString(workerNumber.getAndIncrement()));
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.worker;
+
+import com.facebook.buck.core.util.immutables.BuckStyleValue;
+
+/** Snapshot of the usage of a {@link WorkerProcessPool}. */
+@BuckStyleValue
+public interface WorkerProcessPoolStats {
+  /** Maximum number of worker processes in the pool. */
+  int getCapacity();
+
+  /** Number of worker processes currently running. */
+  int getRunningWorkers();
+
+  /** Number of jobs currently holding a worker. */
+  int getActiveJobs();
+
+  /** Number of jobs currently waiting for a worker. */
+  int getQueuedJobs();
+
+  /** Number of times a worker was handed out. */
+  long getBorrowCount();
+
+  /** Total time jobs spent waiting for a worker. */
+  long getTotalQueueWaitNanos();
+
+  /** Longest time a single job spent waiting for a worker. */
+  long getMaxQueueWaitNanos();
+
+  /** Total time jobs held a worker. */
+  long getTotalBusyNanos();
+
+  /** Time since the pool was created. */
+  long getLifetimeNanos();
+
+  /** Average time a job spent waiting for a worker. */
+  default long getAverageQueueWaitNanos() {
+    return getBorrowCount() == 0 ? 0 : getTotalQueueWaitNanos() / getBorrowCount();
+  }
+
+  /**
+   * Fraction of the capacity of the pool that was in use over its lifetime. Multiplexed jobs count
+   * separately, so this may exceed 1 if workers support multiplexing.
+   */
+  default double getUtilization() {
+    long available = getLifetimeNanos() * getCapacity();
+    return available <= 0 ? 0 : (double) getTotalBusyNanos() / available;
+  }
+
+  static WorkerProcessPoolStats of(
+      int capacity,
+      int runningWorkers,
+      int activeJobs,
+      int queuedJobs,
+      long borrowCount,
+      long totalQueueWaitNanos,
+      long maxQueueWaitNanos,
+      long totalBusyNanos,
+      long lifetimeNanos) {
+    return ImmutableWorkerProcessPoolStats.of(
+        capacity,
+        runningWorkers,
+        activeJobs,
+        queuedJobs,
+        borrowCount,
+        totalQueueWaitNanos,
+        maxQueueWaitNanos,
+        totalBusyNanos,
+        lifetimeNanos);
+  }
+}
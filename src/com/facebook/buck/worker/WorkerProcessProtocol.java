@@ -28,6 +28,24 @@ public interface WorkerProcessProtocol {
 
     int receiveCommandResponse(int messageID) throws IOException;
 
+    /**
+     * Receives the next command response, whichever command it is for. Workers that support
+     * multiplexing may answer commands in any order.
+     */
+    WorkerProcessCommandResponse receiveNextCommandResponse() throws IOException;
+
+    /**
+     * Whether the worker accepts new commands before it has answered the previous ones. Only
+     * meaningful after the handshake.
+     */
+    boolean supportsMultiplexing();
+
+    /**
+     * Whether the worker announced in a response that it won't take any more commands, e.g. because
+     * it has served as many as it is meant to.
+     */
+    boolean isRetiring();
+
     /** Instructs the CommandReceiver to shut itself down. */
     @Override
     void close() throws IOException;
@@ -19,6 +19,7 @@ package com.facebook.buck.worker;
 import com.facebook.buck.core.exceptions.HumanReadableException;
 import com.facebook.buck.core.util.log.Logger;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonWriter;
 import java.io.BufferedReader;
@@ -43,6 +44,8 @@ public class WorkerProcessProtocolZero {
     private final Runnable onClose;
     private boolean isClosed = false;
     private final Supplier<Boolean> isAlive;
+    private volatile ImmutableSet<String> capabilities = ImmutableSet.of();
+    private volatile boolean isRetiring = false;
 
     public CommandSender(
         OutputStream processStdin,
@@ -72,7 +75,7 @@ public class WorkerProcessProtocolZero {
     @Override
     public void handshake(int messageId) throws IOException {
       sendHandshake(processStdinWriter, messageId);
-      receiveHandshake(processStdoutReader, messageId, stdErr);
+      capabilities = receiveHandshake(processStdoutReader, messageId, stdErr);
     }
 
     /*
@@ -112,6 +115,10 @@ public class WorkerProcessProtocolZero {
           exit_code: <exitCode>
         }
 
+      A response may also contain 'retire: true' if the worker won't take any more commands. Buck
+      then closes the worker once the commands it received have been answered, and starts a new one
+      in its place.
+
       or a message that looks like this if the external tool received a message type it cannot
       interpret:
         ,{
@@ -130,6 +137,18 @@ public class WorkerProcessProtocolZero {
     */
     @Override
     public int receiveCommandResponse(int messageID) throws IOException {
+      WorkerProcessCommandResponse response = receiveNextCommandResponse();
+      if (response.getId() != messageID) {
+        throw new HumanReadableException(
+            String.format(
+                "Expected response's \"id\" value to be " + "\"%d\", got \"%d\" instead.",
+                messageID, response.getId()));
+      }
+      return response.getExitCode();
+    }
+
+    @Override
+    public WorkerProcessCommandResponse receiveNextCommandResponse() throws IOException {
       int id = -1;
       int exitCode = -1;
       String type = "";
@@ -144,6 +163,8 @@ public class WorkerProcessProtocolZero {
             type = processStdoutReader.nextString();
           } else if (property.equals("exit_code")) {
             exitCode = processStdoutReader.nextInt();
+          } else if (property.equals("retire")) {
+            isRetiring |= processStdoutReader.nextBoolean();
           } else {
             processStdoutReader.skipValue();
           }
@@ -157,12 +178,6 @@ public class WorkerProcessProtocolZero {
             getStdErrorOutput(stdErr));
       }
 
-      if (id != messageID) {
-        throw new HumanReadableException(
-            String.format(
-                "Expected response's \"id\" value to be " + "\"%d\", got \"%d\" instead.",
-                messageID, id));
-      }
       if (!type.equals(TYPE_RESULT) && !type.equals(TYPE_ERROR)) {
         throw new HumanReadableException(
             String.format(
@@ -170,7 +185,17 @@ public class WorkerProcessProtocolZero {
                     + "to be one of [\"%s\",\"%s\"], got \"%s\" instead.",
                 TYPE_RESULT, TYPE_ERROR, type));
       }
-      return exitCode;
+      return ImmutableWorkerProcessCommandResponse.of(id, exitCode);
+    }
+
+    @Override
+    public boolean supportsMultiplexing() {
+      return capabilities.contains(CAPABILITY_MULTIPLEXING);
+    }
+
+    @Override
+    public boolean isRetiring() {
+      return isRetiring;
     }
 
     @Override
@@ -205,6 +230,13 @@ public class WorkerProcessProtocolZero {
   private static final String TYPE_RESULT = "result";
   private static final String TYPE_ERROR = "error";
 
+  /**
+   * Capability a worker advertises in its handshake response if it can work on several commands at
+   * once. Such a worker may receive a new command before it has answered the previous ones, and may
+   * answer them in any order.
+   */
+  static final String CAPABILITY_MULTIPLEXING = "multiplexing";
+
   /*
    Sends a message that looks like this:
      [
@@ -235,12 +267,15 @@ public class WorkerProcessProtocolZero {
          protocol_version: '0',
          capabilities: []
        }
+
+   where capabilities may list optional features of the worker, such as 'multiplexing'.
   */
-  private static void receiveHandshake(JsonReader reader, int messageId, Path stdErr)
-      throws IOException {
+  private static ImmutableSet<String> receiveHandshake(
+      JsonReader reader, int messageId, Path stdErr) throws IOException {
     int id = -1;
     String type = "";
     String protocolVersion = "";
+    ImmutableSet.Builder<String> capabilities = ImmutableSet.builder();
 
     try {
       reader.beginArray();
@@ -256,10 +291,13 @@ public class WorkerProcessProtocolZero {
         } else if (property.equals("capabilities")) {
           try {
             reader.beginArray();
+            while (reader.hasNext()) {
+              capabilities.add(reader.nextString());
+            }
             reader.endArray();
           } catch (IllegalStateException e) {
             throw new HumanReadableException(
-                "Expected handshake response's \"capabilities\" to " + "be an empty array.");
+                "Expected handshake response's \"capabilities\" to " + "be an array of strings.");
           }
         } else {
           reader.skipValue();
@@ -293,6 +331,7 @@ public class WorkerProcessProtocolZero {
                   + "\"protocol_version\" to be \"%s\", got \"%s\" instead.",
               PROTOCOL_VERSION, protocolVersion));
     }
+    return capabilities.build();
   }
 
   private static String getStdErrorOutput(Path stdErr) throws IOException {
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.step.StepExecutionResults;
+import com.facebook.buck.util.zip.ParallelZipAssembler;
+import com.facebook.buck.util.zip.ZipCompressionLevel;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Like {@link RepackZipEntriesStep}, but built on {@link ParallelZipAssembler}: entries which are
+ * not repacked are copied without being decompressed, the remaining ones are recompressed in
+ * parallel, and the output is deterministic so it doesn't need to be scrubbed afterwards.
+ *
+ * <p>Intended for large archives such as APKs, where rewriting every entry serially dominates the
+ * packaging time.
+ */
+public class ParallelRepackZipEntriesStep implements Step {
+
+  private final ProjectFilesystem filesystem;
+  private final Path inputPath;
+  private final Path outputPath;
+  private final ImmutableSet<String> entries;
+  private final ZipCompressionLevel compressionLevel;
+
+  /**
+   * Creates a {@link ParallelRepackZipEntriesStep}. Entries will be packed with the maximum
+   * compression level.
+   *
+   * @param inputPath input archive
+   * @param outputPath destination archive
+   * @param entries files to repack (e.g. {@code ImmutableSet.of("resources.arsc")})
+   */
+  public ParallelRepackZipEntriesStep(
+      ProjectFilesystem filesystem, Path inputPath, Path outputPath, ImmutableSet<String> entries) {
+    this(filesystem, inputPath, outputPath, entries, ZipCompressionLevel.MAX);
+  }
+
+  /**
+   * Creates a {@link ParallelRepackZipEntriesStep}.
+   *
+   * @param inputPath input archive
+   * @param outputPath destination archive
+   * @param entries files to repack (e.g. {@code ImmutableSet.of("resources.arsc")})
+   * @param compressionLevel the level of compression to use
+   */
+  public ParallelRepackZipEntriesStep(
+      ProjectFilesystem filesystem,
+      Path inputPath,
+      Path outputPath,
+      ImmutableSet<String> entries,
+      ZipCompressionLevel compressionLevel) {
+    this.filesystem = filesystem;
+    this.inputPath = inputPath;
+    this.outputPath = outputPath;
+    this.entries = entries;
+    this.compressionLevel = compressionLevel;
+  }
+
+  @Override
+  public StepExecutionResult execute(ExecutionContext context)
+      throws IOException, InterruptedException {
+    ParallelZipAssembler assembler = new ParallelZipAssembler(context.getStepTaskExecutor());
+    assembler.addEntriesFromZip(
+        filesystem.getPathForRelativePath(inputPath),
+        entries.stream()
+            .collect(ImmutableMap.toImmutableMap(entry -> entry, entry -> compressionLevel)));
+    assembler.writeTo(filesystem.getPathForRelativePath(outputPath));
+    return StepExecutionResults.SUCCESS;
+  }
+
+  @Override
+  public String getShortName() {
+    return "repack zip";
+  }
+
+  @Override
+  public String getDescription(ExecutionContext context) {
+    return String.format("repack %s in %s", inputPath, outputPath);
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.android.exopackage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.android.agent.util.DeltaPatch;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.primitives.Bytes;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class DeltaEncoderTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private final DeltaEncoder encoder = new DeltaEncoder(64);
+
+  @Test
+  public void identicalFilesProduceTinyPatch() throws IOException {
+    byte[] base = randomBytes(100_000, 1);
+    byte[] patch = encoder.encode(base, base);
+    assertTrue("Patch was " + patch.length + " bytes", patch.length < 32);
+    assertArrayEquals(base, apply(base, patch));
+  }
+
+  @Test
+  public void insertionsAndEditsOnlySendChangedBytes() throws IOException {
+    byte[] base = randomBytes(100_000, 2);
+    byte[] target =
+        Bytes.concat(
+            randomBytes(10, 3),
+            Arrays.copyOfRange(base, 0, 40_000),
+            randomBytes(100, 4),
+            Arrays.copyOfRange(base, 40_050, 100_000));
+    target[90_000] ^= 1;
+
+    byte[] patch = encoder.encode(base, target);
+    assertTrue("Patch was " + patch.length + " bytes", patch.length < 1_000);
+    assertArrayEquals(target, apply(base, patch));
+  }
+
+  @Test
+  public void unrelatedFilesAreSentLiterally() throws IOException {
+    byte[] base = randomBytes(10_000, 5);
+    byte[] target = randomBytes(12_345, 6);
+    byte[] patch = encoder.encode(base, target);
+    assertTrue(patch.length > target.length);
+    assertArrayEquals(target, apply(base, patch));
+  }
+
+  @Test
+  public void handlesFilesShorterThanABlock() throws IOException {
+    byte[] empty = new byte[0];
+    byte[] small = randomBytes(10, 7);
+    assertArrayEquals(small, apply(empty, encoder.encode(empty, small)));
+    assertArrayEquals(empty, apply(small, encoder.encode(small, empty)));
+    assertArrayEquals(small, apply(small, encoder.encode(small, small)));
+  }
+
+  private byte[] apply(byte[] base, byte[] patch) throws IOException {
+    Path baseFile = tmp.newFile("base");
+    Path patchFile = tmp.newFile("patch");
+    Path output = tmp.getRoot().resolve("output");
+    Files.write(baseFile, base);
+    Files.write(patchFile, patch);
+    DeltaPatch.apply(baseFile.toFile(), patchFile.toFile(), output.toFile());
+    byte[] result = Files.readAllBytes(output);
+    Files.delete(baseFile);
+    Files.delete(patchFile);
+    Files.delete(output);
+    return result;
+  }
+
+  private static byte[] randomBytes(int length, long seed) {
+    byte[] bytes = new byte[length];
+    new Random(seed).nextBytes(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.android.exopackage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ExopackageInstallerPatchTest {
+  private static final String PACKAGE_NAME = "com.example";
+  private static final Path DATA_ROOT =
+      ExopackageInstaller.EXOPACKAGE_INSTALL_ROOT.resolve(PACKAGE_NAME);
+  private static final Path SOURCE = Paths.get("buck-out/gen/app/secondary-1.dex.jar");
+  private static final Path FIRST_VERSION = Paths.get("secondary-dex/secondary-1111.dex.jar");
+  private static final Path SECOND_VERSION = Paths.get("secondary-dex/secondary-2222.dex.jar");
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private TestAndroidDevice device;
+  private byte[] contents;
+
+  @Before
+  public void setUp() throws Exception {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.newFolder("project"));
+    device =
+        new TestAndroidDevice(
+            apk -> new TestAndroidDevice.ApkInfo(PACKAGE_NAME, "1"),
+            tmp.newFolder("device"),
+            "fake.serial",
+            "x86");
+    device.setSupportsPatches(true);
+    contents = new byte[200_000];
+    new Random(0).nextBytes(contents);
+    filesystem.mkdirs(SOURCE.getParent());
+    writeSource();
+    install(FIRST_VERSION);
+  }
+
+  @Test
+  public void changedFileIsSentAsPatch() throws Exception {
+    long bytesBefore = device.getBytesTransferred();
+    contents[1000] ^= 1;
+    writeSource();
+    install(SECOND_VERSION);
+
+    assertEquals(1, device.getPatchCount());
+    assertTrue(device.getBytesTransferred() - bytesBefore < contents.length / 10);
+    assertArrayEquals(contents, Files.readAllBytes(device.getInstalledFiles().get(onDevice())));
+  }
+
+  @Test
+  public void fileIsSentInFullWhenPreviousVersionIsGone() throws Exception {
+    device.rmFiles(
+        DATA_ROOT.resolve(FIRST_VERSION).getParent().toString(),
+        ImmutableSortedSet.of(FIRST_VERSION.getFileName().toString()));
+    long bytesBefore = device.getBytesTransferred();
+    contents[1000] ^= 1;
+    writeSource();
+    install(SECOND_VERSION);
+
+    assertEquals(0, device.getPatchCount());
+    assertEquals(contents.length, device.getBytesTransferred() - bytesBefore);
+    assertArrayEquals(contents, Files.readAllBytes(device.getInstalledFiles().get(onDevice())));
+  }
+
+  @Test
+  public void unrelatedContentsAreSentInFull() throws Exception {
+    long bytesBefore = device.getBytesTransferred();
+    new Random(1).nextBytes(contents);
+    writeSource();
+    install(SECOND_VERSION);
+
+    assertEquals(0, device.getPatchCount());
+    assertEquals(contents.length, device.getBytesTransferred() - bytesBefore);
+    assertArrayEquals(contents, Files.readAllBytes(device.getInstalledFiles().get(onDevice())));
+  }
+
+  @Test
+  public void sourceRewrittenInPlaceIsInstalledCorrectly() throws Exception {
+    contents[1000] ^= 1;
+    // Unlike a rebuild, this changes the contents of any hard link to the first version too.
+    Files.write(filesystem.resolve(SOURCE), contents);
+    install(SECOND_VERSION);
+
+    assertArrayEquals(contents, Files.readAllBytes(device.getInstalledFiles().get(onDevice())));
+  }
+
+  @Test
+  public void installedContentsAreTrimmedToTheMaximumSize() throws Exception {
+    ExopackageInstallCache cache =
+        new ExopackageInstallCache(filesystem, "other.serial", PACKAGE_NAME, 300_000);
+    ImmutableList<Path> sources =
+        ImmutableList.of(Paths.get("a.dex.jar"), Paths.get("b.dex.jar"), Paths.get("c.dex.jar"));
+    Random random = new Random(2);
+    for (Path source : sources) {
+      random.nextBytes(contents);
+      Files.write(filesystem.resolve(source), contents);
+      cache.recordInstall(source, Paths.get("secondary-dex").resolve(source));
+    }
+    cache.trim();
+
+    int retained = 0;
+    for (Path source : sources) {
+      if (cache.readInstalledContents(source, Paths.get("secondary-dex").resolve(source))
+          .isPresent()) {
+        retained++;
+      }
+    }
+    assertEquals(1, retained);
+  }
+
+  /** Replaces the source with {@link #contents}, the way rebuilding it does. */
+  private void writeSource() throws Exception {
+    Path source = filesystem.resolve(SOURCE);
+    Files.deleteIfExists(source);
+    Files.write(source, contents);
+  }
+
+  private void install(Path devicePath) throws Exception {
+    device.mkDirP(DATA_ROOT.toString());
+    new ExopackageInstaller(
+            new TestActionGraphBuilder().getSourcePathResolver(),
+            TestExecutionContext.newInstance(),
+            filesystem,
+            PACKAGE_NAME,
+            device)
+        .installMissingFiles(
+            device.listDirRecursive(DATA_ROOT),
+            ImmutableMap.of(devicePath, SOURCE),
+            ExopackageInstaller.SECONDARY_DEX_TYPE);
+  }
+
+  private static Path onDevice() {
+    return DATA_ROOT.resolve(SECOND_VERSION);
+  }
+}
@@ -19,6 +19,7 @@ package com.facebook.buck.android.exopackage;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.android.agent.util.AgentUtil;
+import com.facebook.buck.android.agent.util.DeltaPatch;
 import com.facebook.buck.core.exceptions.BuckUncheckedExecutionException;
 import com.facebook.buck.io.file.MostFiles;
 import com.google.common.base.Preconditions;
@@ -51,6 +52,12 @@ public class TestAndroidDevice implements AndroidDevice {
   private final String serial;
   private final ApkInfoReader apkInfoReader;
 
+  // Statistics about file transfers, to compare install strategies.
+  private boolean supportsPatches = false;
+  private int transferCount = 0;
+  private int patchCount = 0;
+  private long bytesTransferred = 0;
+
   public Map<String, Path> getInstalledApks() throws Exception {
     return listDirRecursive(APK_INSTALL_DIR).stream()
         .filter(p -> p.getFileName().equals(APK_FILE_NAME))
@@ -200,6 +207,45 @@ public class TestAndroidDevice implements AndroidDevice {
 
   @Override
   public void installFiles(String filesType, Map<Path, Path> installPaths) throws Exception {
+    transferCount++;
+    copyFiles(installPaths);
+  }
+
+  @Override
+  public boolean supportsPatches() {
+    return supportsPatches;
+  }
+
+  public void setSupportsPatches(boolean supportsPatches) {
+    this.supportsPatches = supportsPatches;
+  }
+
+  @Override
+  public void installFiles(
+      String filesType, Map<Path, Path> installPaths, Map<Path, ExopackagePatch> patches)
+      throws Exception {
+    if (!supportsPatches) {
+      AndroidDevice.super.installFiles(filesType, installPaths, patches);
+      return;
+    }
+    transferCount++;
+    copyFiles(installPaths);
+    for (Map.Entry<Path, ExopackagePatch> entry : patches.entrySet()) {
+      ExopackagePatch patch = entry.getValue();
+      assertTrue(entry.getKey().isAbsolute());
+      Path targetPath = resolve(entry.getKey());
+      assertTrue(targetPath.getParent().toFile().exists());
+      assertTrue(!targetPath.toFile().exists());
+      DeltaPatch.apply(
+          resolve(patch.getBaseDevicePath()).toFile(),
+          patch.getPatchFile().toFile(),
+          targetPath.toFile());
+      patchCount++;
+      bytesTransferred += Files.size(patch.getPatchFile());
+    }
+  }
+
+  private void copyFiles(Map<Path, Path> installPaths) throws IOException {
     for (Map.Entry<Path, Path> entry : installPaths.entrySet()) {
       Path targetDevicePath = entry.getKey();
       Path source = entry.getValue();
@@ -209,9 +255,25 @@ public class TestAndroidDevice implements AndroidDevice {
       Path targetPath = resolve(targetDevicePath);
       assertTrue(targetPath.getParent().toFile().exists());
       Files.copy(source, targetPath);
+      bytesTransferred += Files.size(source);
     }
   }
 
+  /** @return the number of separate file transfers started with the device. */
+  public int getTransferCount() {
+    return transferCount;
+  }
+
+  /** @return the number of files that were installed as patches. */
+  public int getPatchCount() {
+    return patchCount;
+  }
+
+  /** @return the number of bytes of files and patches sent to the device. */
+  public long getBytesTransferred() {
+    return bytesTransferred;
+  }
+
   @Override
   public void mkDirP(String dir) throws Exception {
     Files.createDirectories(resolve(dir));
@@ -46,6 +46,20 @@ public class VFSOverlayTest {
         equalToIgnoringPlatformNewlines(vfsOverlay.render()));
   }
 
+  @Test
+  public void testSerializationWithVirtualNames() throws IOException {
+    Assume.assumeTrue(Platform.detect() != Platform.WINDOWS);
+    VFSOverlay vfsOverlay =
+        new VFSOverlay(
+            ImmutableSortedMap.of(
+                MorePathsForTests.rootRelativePath("virtual/path/module.modulemap"),
+                MorePathsForTests.rootRelativePath("real/path/overlayed.modulemap")),
+            false);
+    assertThat(
+        readTestData("testdata/vfs_virtual_names.yaml"),
+        equalToIgnoringPlatformNewlines(vfsOverlay.render()));
+  }
+
   @Test
   public void testSerializationWindows() throws IOException {
     Assume.assumeTrue(Platform.detect() == Platform.WINDOWS);
@@ -16,6 +16,7 @@
 
 package com.facebook.buck.artifact_cache;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 
 import com.facebook.buck.artifact_cache.config.ArtifactCacheBuckConfig;
@@ -26,17 +27,28 @@ import com.facebook.buck.core.model.BuildId;
 import com.facebook.buck.core.model.TargetConfigurationSerializerForTests;
 import com.facebook.buck.core.parser.buildtargetparser.ParsingUnconfiguredBuildTargetViewFactory;
 import com.facebook.buck.core.parser.buildtargetparser.UnconfiguredBuildTargetViewFactory;
+import com.facebook.buck.core.rulekey.RuleKey;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.TestProjectFilesystems;
 import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
 import com.facebook.buck.support.bgtasks.TaskManagerCommandScope;
 import com.facebook.buck.support.bgtasks.TestBackgroundTaskManager;
 import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.types.Unit;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import org.hamcrest.Matchers;
 import org.junit.After;
@@ -253,6 +265,57 @@ public class ArtifactCachesTest {
     managerScope.close();
   }
 
+  @Test
+  public void uploadQueueIsDrainedAfterTheCommandsWriteExecutorsAreShutDown() throws Exception {
+    ProjectFilesystem projectFilesystem =
+        TestProjectFilesystems.createProjectFilesystem(tempDir.getRoot());
+    String cacheDir = tempDir.getRoot().resolve("cache").toString();
+    ArtifactCacheBuckConfig cacheConfig =
+        ArtifactCacheBuckConfigTest.createFromText(
+            "[cache]",
+            "mode = dir",
+            "dir = " + cacheDir,
+            "dir_mode = readwrite",
+            "upload_queue_enabled = true");
+    BuckEventBus buckEventBus = BuckEventBusForTests.newInstance();
+    ListeningExecutorService writeExecutor =
+        MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor());
+    RuleKey ruleKey = new RuleKey("00000000000000000000000000000000000000aa");
+
+    ArtifactCaches artifactCaches =
+        newArtifactCache(
+            cacheConfig, projectFilesystem, buckEventBus, Optional.empty(), writeExecutor);
+    ArtifactCache artifactCache = artifactCaches.newInstance();
+    Path artifact = tempDir.newFile();
+    Files.write(artifact, "contents".getBytes(StandardCharsets.UTF_8));
+    Futures.getUnchecked(
+        artifactCache.store(
+            ArtifactInfo.builder().addRuleKeys(ruleKey).build(),
+            BorrowablePath.borrowablePath(artifact)));
+
+    // In the order of MainRunner: the caches are closed before the write executors are shut
+    // down, and the background tasks scheduled by closing them only run after that.
+    artifactCaches.close();
+    writeExecutor.shutdown();
+    managerScope.close();
+    for (Future<Unit> task : bgTaskManager.getScheduledTasksToTest().values()) {
+      task.get();
+    }
+
+    ArtifactCache reader =
+        newArtifactCache(
+                ArtifactCacheBuckConfigTest.createFromText(
+                    "[cache]", "mode = dir", "dir = " + cacheDir, "dir_mode = readonly"),
+                projectFilesystem,
+                buckEventBus,
+                Optional.empty())
+            .newInstance();
+    CacheResult result =
+        Futures.getUnchecked(
+            reader.fetchAsync(null, ruleKey, LazyPath.ofInstance(tempDir.newFile())));
+    assertEquals(CacheResultType.HIT, result.getType());
+  }
+
   private static ArtifactCache stripDecorators(ArtifactCache artifactCache) {
     if (artifactCache instanceof LoggingArtifactCacheDecorator) {
       LoggingArtifactCacheDecorator cacheDecorator = (LoggingArtifactCacheDecorator) artifactCache;
@@ -263,6 +326,16 @@ public class ArtifactCachesTest {
           (TwoLevelArtifactCacheDecorator) artifactCache;
       return stripDecorators(cacheDecorator.getDelegate());
     }
+    if (artifactCache instanceof ZstdDictionaryArtifactCacheDecorator) {
+      ZstdDictionaryArtifactCacheDecorator cacheDecorator =
+          (ZstdDictionaryArtifactCacheDecorator) artifactCache;
+      return stripDecorators(cacheDecorator.getDelegate());
+    }
+    if (artifactCache instanceof BackgroundUploadArtifactCacheDecorator) {
+      BackgroundUploadArtifactCacheDecorator cacheDecorator =
+          (BackgroundUploadArtifactCacheDecorator) artifactCache;
+      return stripDecorators(cacheDecorator.getDelegate());
+    }
     if (artifactCache instanceof RetryingCacheDecorator) {
       RetryingCacheDecorator cacheDecorator = (RetryingCacheDecorator) artifactCache;
       return stripDecorators(cacheDecorator.getDelegate());
@@ -275,6 +348,20 @@ public class ArtifactCachesTest {
       ProjectFilesystem projectFilesystem,
       BuckEventBus buckEventBus,
       Optional<String> wifiSsid) {
+    return newArtifactCache(
+        cacheConfig,
+        projectFilesystem,
+        buckEventBus,
+        wifiSsid,
+        MoreExecutors.newDirectExecutorService());
+  }
+
+  private ArtifactCaches newArtifactCache(
+      ArtifactCacheBuckConfig cacheConfig,
+      ProjectFilesystem projectFilesystem,
+      BuckEventBus buckEventBus,
+      Optional<String> wifiSsid,
+      ListeningExecutorService writeExecutor) {
     CellPathResolver cellPathResolver = TestCellPathResolver.get(projectFilesystem);
     return new ArtifactCaches(
         cacheConfig,
@@ -284,9 +371,9 @@ public class ArtifactCachesTest {
         TargetConfigurationSerializerForTests.create(cellPathResolver),
         projectFilesystem,
         wifiSsid,
+        writeExecutor,
         MoreExecutors.newDirectExecutorService(),
-        MoreExecutors.newDirectExecutorService(),
-        MoreExecutors.newDirectExecutorService(),
+        writeExecutor,
         managerScope,
         "test://",
         "hostname",
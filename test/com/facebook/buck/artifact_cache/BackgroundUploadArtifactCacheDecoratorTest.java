@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.cell.CellPathResolver;
+import com.facebook.buck.core.cell.TestCellPathResolver;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.model.TargetConfigurationSerializerForTests;
+import com.facebook.buck.core.parser.buildtargetparser.ParsingUnconfiguredBuildTargetViewFactory;
+import com.facebook.buck.core.parser.buildtargetparser.UnconfiguredBuildTargetViewFactory;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.types.Unit;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class BackgroundUploadArtifactCacheDecoratorTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private RecordingArtifactCache delegate;
+  private Path queueDir;
+
+  @Before
+  public void setUp() {
+    delegate = new RecordingArtifactCache();
+    queueDir = tmp.getRoot().resolve("queue");
+  }
+
+  @Test
+  public void storesAreUploadedWhenClosed() throws IOException {
+    BackgroundUploadArtifactCacheDecorator cache = newDecorator();
+    Path artifact = newArtifact("contents");
+    Futures.getUnchecked(
+        cache.store(
+            ArtifactInfo.builder().addRuleKeys(ruleKey(0)).putMetadata("key", "value").build(),
+            BorrowablePath.borrowablePath(artifact)));
+
+    assertTrue(delegate.isEmpty());
+    assertFalse(Files.exists(artifact));
+
+    cache.close();
+
+    assertTrue(delegate.hasArtifact(ruleKey(0)));
+    Path output = tmp.newFile();
+    CacheResult result =
+        Futures.getUnchecked(cache.fetchAsync(null, ruleKey(0), LazyPath.ofInstance(output)));
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertEquals(ImmutableMap.of("key", "value"), result.getMetadata());
+    assertEquals("contents", new String(Files.readAllBytes(output)));
+  }
+
+  @Test
+  public void notBorrowableArtifactsAreCopied() throws IOException {
+    BackgroundUploadArtifactCacheDecorator cache = newDecorator();
+    Path artifact = newArtifact("contents");
+    Futures.getUnchecked(
+        cache.store(
+            ArtifactInfo.builder().addRuleKeys(ruleKey(0)).build(),
+            BorrowablePath.notBorrowablePath(artifact)));
+
+    assertTrue(Files.exists(artifact));
+    assertEquals(1, cache.drain(Long.MAX_VALUE));
+    assertTrue(delegate.hasArtifact(ruleKey(0)));
+  }
+
+  @Test
+  public void uploadsAreOrderedByPriority() throws IOException {
+    BackgroundUploadArtifactCacheDecorator cache = newDecorator();
+    ImmutableList<Integer> priorities = ImmutableList.of(0, 5, 1, 5, 10);
+    for (int i = 0; i < priorities.size(); i++) {
+      Futures.getUnchecked(
+          cache.store(
+              ArtifactInfo.builder()
+                  .addRuleKeys(ruleKey(i))
+                  .setUploadPriority(priorities.get(i))
+                  .build(),
+              BorrowablePath.borrowablePath(newArtifact("artifact " + i))));
+    }
+
+    assertEquals(5, cache.drain(Long.MAX_VALUE));
+    assertEquals(
+        ImmutableList.of(ruleKey(4), ruleKey(1), ruleKey(3), ruleKey(2), ruleKey(0)),
+        delegate.storedRuleKeys);
+  }
+
+  @Test
+  public void queueSurvivesTheDecorator() throws IOException {
+    BuildTarget target = BuildTargetFactory.newInstance("//foo:bar");
+    Futures.getUnchecked(
+        newDecorator()
+            .store(
+                ArtifactInfo.builder()
+                    .addRuleKeys(ruleKey(0), ruleKey(1))
+                    .putMetadata("key", "value")
+                    .setBuildTarget(target)
+                    .setRuleType("java_library")
+                    .setBuildTimeMs(1234)
+                    .setUploadPriority(3)
+                    .build(),
+                BorrowablePath.borrowablePath(newArtifact("contents"))));
+
+    assertEquals(1, newDecorator().drain(Long.MAX_VALUE));
+    ArtifactInfo info = delegate.storedInfos.get(0);
+    assertEquals(ImmutableList.of(ruleKey(0), ruleKey(1)), info.getRuleKeys().asList());
+    assertEquals(ImmutableMap.of("key", "value"), info.getMetadata());
+    assertEquals(Optional.of(target), info.getBuildTarget());
+    assertEquals(Optional.of("java_library"), info.getRuleType());
+    assertEquals(1234, info.getBuildTimeMs());
+    assertEquals(3, info.getUploadPriority());
+  }
+
+  @Test
+  public void failedUploadsStayQueued() throws IOException {
+    BackgroundUploadArtifactCacheDecorator cache = newDecorator();
+    for (int i = 0; i < 3; i++) {
+      Futures.getUnchecked(
+          cache.store(
+              ArtifactInfo.builder().addRuleKeys(ruleKey(i)).build(),
+              BorrowablePath.borrowablePath(newArtifact("artifact " + i))));
+    }
+
+    delegate.failing = ruleKey(1);
+    assertEquals(2, cache.drain(Long.MAX_VALUE));
+    assertFalse(delegate.hasArtifact(ruleKey(1)));
+
+    delegate.failing = null;
+    assertEquals(1, cache.drain(Long.MAX_VALUE));
+    assertTrue(delegate.hasArtifact(ruleKey(1)));
+    assertEquals(0, cache.drain(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void nothingIsUploadedPastTheDeadline() throws IOException {
+    BackgroundUploadArtifactCacheDecorator cache = newDecorator();
+    Futures.getUnchecked(
+        cache.store(
+            ArtifactInfo.builder().addRuleKeys(ruleKey(0)).build(),
+            BorrowablePath.borrowablePath(newArtifact("contents"))));
+
+    assertEquals(0, cache.drain(System.currentTimeMillis() - 1));
+    assertTrue(delegate.isEmpty());
+  }
+
+  @Test
+  public void uploadsRunConcurrentlyUpToTheLimit() throws Exception {
+    PendingArtifactCache pending = new PendingArtifactCache();
+    delegate = pending;
+    BackgroundUploadArtifactCacheDecorator cache = newDecorator();
+    for (int i = 0; i < 3; i++) {
+      Futures.getUnchecked(
+          cache.store(
+              ArtifactInfo.builder().addRuleKeys(ruleKey(i)).build(),
+              BorrowablePath.borrowablePath(newArtifact("artifact " + i))));
+    }
+
+    CompletableFuture<Void> closed = CompletableFuture.runAsync(cache::close);
+    SettableFuture<Unit> first = pending.stores.take();
+    SettableFuture<Unit> second = pending.stores.take();
+    assertNull(pending.stores.poll(100, TimeUnit.MILLISECONDS));
+
+    first.set(Unit.UNIT);
+    SettableFuture<Unit> third = pending.stores.take();
+    second.set(Unit.UNIT);
+    third.set(Unit.UNIT);
+
+    closed.get();
+    assertTrue(pending.closed);
+    assertEquals(0, cache.drain(Long.MAX_VALUE));
+  }
+
+  private BackgroundUploadArtifactCacheDecorator newDecorator() {
+    CellPathResolver cellPathResolver =
+        TestCellPathResolver.get(TestProjectFilesystems.createProjectFilesystem(tmp.getRoot()));
+    UnconfiguredBuildTargetViewFactory unconfiguredBuildTargetFactory =
+        new ParsingUnconfiguredBuildTargetViewFactory();
+    return new BackgroundUploadArtifactCacheDecorator(
+        delegate,
+        queueDir,
+        target ->
+            unconfiguredBuildTargetFactory.create(target, cellPathResolver.getCellNameResolver()),
+        TargetConfigurationSerializerForTests.create(cellPathResolver),
+        Optional.empty(),
+        60_000,
+        2);
+  }
+
+  private Path newArtifact(String contents) throws IOException {
+    Path artifact = tmp.newFile();
+    Files.write(artifact, contents.getBytes());
+    return artifact;
+  }
+
+  private static RuleKey ruleKey(int index) {
+    return new RuleKey(String.format("%040x", index + 1));
+  }
+
+  /** Leaves stores pending until the test completes them. */
+  private static class PendingArtifactCache extends RecordingArtifactCache {
+    private final BlockingQueue<SettableFuture<Unit>> stores = new LinkedBlockingQueue<>();
+    private volatile boolean closed;
+
+    @Override
+    public ListenableFuture<Unit> store(ArtifactInfo info, BorrowablePath output) {
+      SettableFuture<Unit> store = SettableFuture.create();
+      stores.add(store);
+      return store;
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  /** Records the order of stores, and can be made to fail some of them. */
+  private static class RecordingArtifactCache extends InMemoryArtifactCache {
+    private final List<RuleKey> storedRuleKeys = new ArrayList<>();
+    private final List<ArtifactInfo> storedInfos = new ArrayList<>();
+    private RuleKey failing;
+
+    @Override
+    public ListenableFuture<Unit> store(ArtifactInfo info, BorrowablePath output) {
+      if (info.getRuleKeys().contains(failing)) {
+        return Futures.immediateFailedFuture(new IOException("Store failed."));
+      }
+      storedRuleKeys.addAll(info.getRuleKeys());
+      storedInfos.add(info);
+      return super.store(info, output);
+    }
+  }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.types.Unit;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.hamcrest.Matchers;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ZstdDictionaryArtifactCacheDecoratorTest {
+
+  private static final String RULE_TYPE = "java_library";
+  private static final int DICTIONARY_SIZE = 4 * 1024;
+  private static final int TRAINING_SIZE = 64 * 1024;
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private InMemoryArtifactCache inMemoryArtifactCache;
+
+  @Before
+  public void setUp() {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    inMemoryArtifactCache = new InMemoryArtifactCache();
+  }
+
+  @Test
+  public void artifactsAreStoredAsIsWhenDisabled() throws IOException {
+    ZstdDictionaryArtifactCacheDecorator cache = newDecorator("dictionaries", false);
+    for (int i = 0; i < 20; i++) {
+      store(cache, i);
+    }
+
+    assertThat(inMemoryArtifactCache.getArtifactCount(), Matchers.equalTo(20));
+    Path output = tmp.newFile();
+    CacheResult result =
+        Futures.getUnchecked(cache.fetchAsync(null, ruleKey(3), LazyPath.ofInstance(output)));
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertTrue(ArtifactUploader.isZstdCompressed(output));
+    assertFalse(
+        result.getMetadata().containsKey(ZstdDictionaryArtifactCacheDecorator.METADATA_KEY));
+  }
+
+  @Test
+  public void artifactsAreRecompressedOnceADictionaryIsTrained() throws IOException {
+    ZstdDictionaryArtifactCacheDecorator cache = newDecorator("dictionaries", true);
+    for (int i = 0; i < 20; i++) {
+      store(cache, i);
+    }
+
+    // The dictionary and the key it is shared under are in the cache too.
+    assertThat(inMemoryArtifactCache.getArtifactCount(), Matchers.equalTo(22));
+    LazyPath storedArtifact = LazyPath.ofInstance(tmp.newFile());
+    CacheResult stored =
+        Futures.getUnchecked(inMemoryArtifactCache.fetchAsync(null, ruleKey(19), storedArtifact));
+    assertTrue(
+        stored.getMetadata().containsKey(ZstdDictionaryArtifactCacheDecorator.METADATA_KEY));
+
+    Path output = tmp.newFile();
+    CacheResult result =
+        Futures.getUnchecked(cache.fetchAsync(null, ruleKey(19), LazyPath.ofInstance(output)));
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertEquals(ImmutableMap.of("index", "19"), result.getMetadata());
+    assertFalse(ArtifactUploader.isZstdCompressed(output));
+    assertSameContents(getContents(19), readTar(output));
+  }
+
+  @Test
+  public void dictionariesAreFetchedFromTheCache() throws IOException {
+    ZstdDictionaryArtifactCacheDecorator writer = newDecorator("writer", true);
+    for (int i = 0; i < 20; i++) {
+      store(writer, i);
+    }
+
+    ZstdDictionaryArtifactCacheDecorator reader = newDecorator("reader", false);
+    for (int i : ImmutableList.of(18, 19)) {
+      Path output = tmp.newFile();
+      CacheResult result =
+          Futures.getUnchecked(reader.fetchAsync(null, ruleKey(i), LazyPath.ofInstance(output)));
+      assertEquals(CacheResultType.HIT, result.getType());
+      assertSameContents(getContents(i), readTar(output));
+    }
+  }
+
+  @Test
+  public void sharedDictionariesAreUsedInsteadOfTrainingNewOnes() throws Exception {
+    ZstdDictionaryArtifactCacheDecorator writer = newDecorator("writer", true);
+    for (int i = 0; i < 20; i++) {
+      store(writer, i);
+    }
+    String dictionaryKey = getStoredDictionaryKey(19);
+
+    ZstdDictionaryArtifactCacheDecorator other = newDecorator("other", true);
+    store(other, 20);
+    other.getSharedDictionaryLookup(RULE_TYPE).get().get();
+    store(other, 21);
+
+    // Only the two artifacts were added: no other dictionary was trained.
+    assertThat(inMemoryArtifactCache.getArtifactCount(), Matchers.equalTo(24));
+    assertEquals(dictionaryKey, getStoredDictionaryKey(21));
+    Path output = tmp.newFile();
+    CacheResult result =
+        Futures.getUnchecked(other.fetchAsync(null, ruleKey(21), LazyPath.ofInstance(output)));
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertSameContents(getContents(21), readTar(output));
+  }
+
+  @Test
+  public void storesRunOnTheStoreExecutor() throws Exception {
+    ListeningExecutorService executor =
+        MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor());
+    try {
+      CountDownLatch latch = new CountDownLatch(1);
+      executor.submit(
+          () -> {
+            latch.await();
+            return null;
+          });
+      ZstdDictionaryArtifactCacheDecorator cache =
+          newDecorator("dictionaries", true, executor);
+
+      ListenableFuture<Unit> stored = storeAsync(cache, 0);
+      assertFalse(stored.isDone());
+      assertThat(inMemoryArtifactCache.getArtifactCount(), Matchers.equalTo(0));
+
+      latch.countDown();
+      stored.get();
+      assertThat(inMemoryArtifactCache.getArtifactCount(), Matchers.equalTo(1));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void artifactsWithAMissingDictionaryAreMisses() throws IOException {
+    ZstdDictionaryArtifactCacheDecorator cache = newDecorator("dictionaries", false);
+    inMemoryArtifactCache.store(
+        ArtifactInfo.builder()
+            .addRuleKeys(ruleKey(0))
+            .putMetadata(
+                ZstdDictionaryArtifactCacheDecorator.METADATA_KEY,
+                "0000000000000000000000000000000000000000d1c7")
+            .build(),
+        new byte[] {1, 2, 3});
+
+    CacheResult result =
+        Futures.getUnchecked(
+            cache.fetchAsync(null, ruleKey(0), LazyPath.ofInstance(tmp.newFile())));
+    assertEquals(CacheResultType.MISS, result.getType());
+  }
+
+  private ZstdDictionaryArtifactCacheDecorator newDecorator(String name, boolean compressStores) {
+    return newDecorator(name, compressStores, MoreExecutors.newDirectExecutorService());
+  }
+
+  private ZstdDictionaryArtifactCacheDecorator newDecorator(
+      String name, boolean compressStores, ListeningExecutorService storeExecutor) {
+    return new ZstdDictionaryArtifactCacheDecorator(
+        inMemoryArtifactCache,
+        tmp.getRoot().resolve(name),
+        compressStores,
+        ZstdDictionaryArtifactCacheDecorator.DEFAULT_COMPRESSION_LEVEL,
+        storeExecutor,
+        DICTIONARY_SIZE,
+        TRAINING_SIZE);
+  }
+
+  private String getStoredDictionaryKey(int index) throws IOException {
+    CacheResult stored =
+        Futures.getUnchecked(
+            inMemoryArtifactCache.fetchAsync(
+                null, ruleKey(index), LazyPath.ofInstance(tmp.newFile())));
+    assertEquals(CacheResultType.HIT, stored.getType());
+    return stored.getMetadata().get(ZstdDictionaryArtifactCacheDecorator.METADATA_KEY);
+  }
+
+  private void store(ArtifactCache cache, int index) throws IOException {
+    Futures.getUnchecked(storeAsync(cache, index));
+  }
+
+  private ListenableFuture<Unit> storeAsync(ArtifactCache cache, int index) throws IOException {
+    ImmutableList.Builder<Path> paths = ImmutableList.builder();
+    for (Map.Entry<String, byte[]> entry : getContents(index).entrySet()) {
+      Path path = Paths.get(entry.getKey());
+      filesystem.mkdirs(path.getParent());
+      filesystem.writeBytesToPath(entry.getValue(), path);
+      paths.add(path);
+    }
+    Path archive = tmp.newFile();
+    ArtifactUploader.compress(filesystem, paths.build(), archive);
+    return cache.store(
+        ArtifactInfo.builder()
+            .addRuleKeys(ruleKey(index))
+            .putMetadata("index", Integer.toString(index))
+            .setRuleType(RULE_TYPE)
+            .build(),
+        BorrowablePath.borrowablePath(archive));
+  }
+
+  /** Files that look alike across artifacts, like the outputs of rules of the same type. */
+  private static Map<String, byte[]> getContents(int index) {
+    Map<String, byte[]> contents = new HashMap<>();
+    for (int file = 0; file < 8; file++) {
+      StringBuilder builder = new StringBuilder();
+      builder.append("package com.example.artifact").append(index).append(";\n");
+      for (int line = 0; line < 40; line++) {
+        builder
+            .append("  public static final String FIELD_")
+            .append(line)
+            .append(" = \"value ")
+            .append(index * 31 + file * 7 + line)
+            .append("\";\n");
+      }
+      contents.put(
+          "artifact" + index + "/File" + file + ".java",
+          builder.toString().getBytes(StandardCharsets.UTF_8));
+    }
+    return contents;
+  }
+
+  private static Map<String, byte[]> readTar(Path tar) throws IOException {
+    Map<String, byte[]> contents = new HashMap<>();
+    try (InputStream input = Files.newInputStream(tar);
+        TarArchiveInputStream archive = new TarArchiveInputStream(input)) {
+      TarArchiveEntry entry;
+      while ((entry = archive.getNextTarEntry()) != null) {
+        if (entry.isFile()) {
+          contents.put(entry.getName(), ByteStreams.toByteArray(archive));
+        }
+      }
+    }
+    return contents;
+  }
+
+  private static void assertSameContents(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+    assertThat(actual.keySet(), Matchers.equalTo(expected.keySet()));
+    for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+      assertArrayEquals(entry.getValue(), actual.get(entry.getKey()));
+    }
+  }
+
+  private static RuleKey ruleKey(int index) {
+    return new RuleKey(String.format("%040x", index + 1));
+  }
+}
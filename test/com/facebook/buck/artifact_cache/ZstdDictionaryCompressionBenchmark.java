@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableMap;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Compares compressing artifacts independently with compressing them against a dictionary trained
+ * on artifacts of the same kind, as {@link ZstdDictionaryArtifactCacheDecorator} does.
+ *
+ * <p>The artifacts are tarballs of a few small class files each, like the outputs of most Java
+ * library rules.
+ */
+public class ZstdDictionaryCompressionBenchmark {
+
+  @Param({"3", "9", "19"})
+  private int level = ZstdDictionaryArtifactCacheDecorator.DEFAULT_COMPRESSION_LEVEL;
+
+  @Param({"200"})
+  private int artifactCount = 200;
+
+  private static final String[] CONSTANTS = {
+    "java/lang/Object",
+    "java/lang/String",
+    "java/util/List",
+    "com/google/common/collect/ImmutableList",
+    "<init>",
+    "()V",
+    "Code",
+    "LineNumberTable",
+    "LocalVariableTable",
+    "StackMapTable",
+    "SourceFile",
+    "this",
+    "Ljava/lang/String;",
+    "(Ljava/lang/Object;)Z",
+    "hashCode",
+    "equals",
+    "toString",
+    "RuntimeVisibleAnnotations",
+  };
+
+  private List<byte[]> trainingArtifacts;
+  private List<byte[]> artifacts;
+  private List<byte[]> compressed;
+  private List<byte[]> dictionaryCompressed;
+  private ZstdDictCompress compressDictionary;
+  private ZstdDictDecompress decompressDictionary;
+
+  @Before
+  public void setUp() throws IOException {
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  private void setUpBenchmark() throws IOException {
+    Random random = new Random(12345);
+    trainingArtifacts = new ArrayList<>(artifactCount);
+    artifacts = new ArrayList<>(artifactCount);
+    for (int i = 0; i < artifactCount; i++) {
+      trainingArtifacts.add(newArtifact(random, i));
+      artifacts.add(newArtifact(random, artifactCount + i));
+    }
+
+    ZstdDictTrainer trainer =
+        new ZstdDictTrainer(
+            ZstdDictionaryArtifactCacheDecorator.DEFAULT_TRAINING_SIZE,
+            ZstdDictionaryArtifactCacheDecorator.DEFAULT_DICTIONARY_SIZE);
+    for (byte[] artifact : trainingArtifacts) {
+      trainer.addSample(artifact);
+    }
+    byte[] dictionary = trainer.trainSamples();
+    compressDictionary = new ZstdDictCompress(dictionary, level);
+    decompressDictionary = new ZstdDictDecompress(dictionary);
+
+    compressed = new ArrayList<>(artifactCount);
+    dictionaryCompressed = new ArrayList<>(artifactCount);
+    for (byte[] artifact : artifacts) {
+      compressed.add(Zstd.compress(artifact, level));
+      dictionaryCompressed.add(Zstd.compress(artifact, compressDictionary));
+    }
+  }
+
+  @After
+  @AfterExperiment
+  public void tearDown() {
+    compressDictionary.close();
+    decompressDictionary.close();
+  }
+
+  @Ignore
+  @Test
+  public void testCompressionRatio() {
+    long size = 0;
+    long compressedSize = 0;
+    long dictionaryCompressedSize = 0;
+    for (int i = 0; i < artifactCount; i++) {
+      size += artifacts.get(i).length;
+      compressedSize += compressed.get(i).length;
+      dictionaryCompressedSize += dictionaryCompressed.get(i).length;
+    }
+    System.out.printf(
+        "level %d: %d bytes, %.2fx without dictionary, %.2fx with dictionary%n",
+        level,
+        size,
+        (double) size / compressedSize,
+        (double) size / dictionaryCompressedSize);
+  }
+
+  @Ignore
+  @Test
+  public void testThroughput() {
+    long size = artifacts.stream().mapToLong(artifact -> artifact.length).sum();
+    ImmutableMap<String, Runnable> benchmarks =
+        ImmutableMap.of(
+            "compress", this::benchCompress,
+            "compress with dictionary", this::benchCompressWithDictionary,
+            "decompress", this::benchDecompress,
+            "decompress with dictionary", this::benchDecompressWithDictionary);
+    for (Map.Entry<String, Runnable> benchmark : benchmarks.entrySet()) {
+      long start = System.nanoTime();
+      for (int i = 0; i < 20; i++) {
+        benchmark.getValue().run();
+      }
+      long elapsed = System.nanoTime() - start;
+      System.out.printf(
+          "level %d, %s: %.1f MB/s%n", level, benchmark.getKey(), size * 20 * 1000.0 / elapsed);
+    }
+  }
+
+  @Benchmark
+  private void benchCompress() {
+    for (byte[] artifact : artifacts) {
+      Zstd.compress(artifact, level);
+    }
+  }
+
+  @Benchmark
+  private void benchCompressWithDictionary() {
+    for (byte[] artifact : artifacts) {
+      Zstd.compress(artifact, compressDictionary);
+    }
+  }
+
+  @Benchmark
+  private void benchDecompress() {
+    for (int i = 0; i < artifactCount; i++) {
+      Zstd.decompress(compressed.get(i), artifacts.get(i).length);
+    }
+  }
+
+  @Benchmark
+  private void benchDecompressWithDictionary() {
+    for (int i = 0; i < artifactCount; i++) {
+      Zstd.decompress(dictionaryCompressed.get(i), decompressDictionary, artifacts.get(i).length);
+    }
+  }
+
+  /** @return a tarball of a few small, made up class files. */
+  private static byte[] newArtifact(Random random, int index) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (TarArchiveOutputStream archive = new TarArchiveOutputStream(bytes)) {
+      archive.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+      int classCount = 1 + random.nextInt(6);
+      for (int i = 0; i < classCount; i++) {
+        String className = "com/example/module" + index + "/Class" + i;
+        byte[] classFile = newClassFile(random, className);
+        TarArchiveEntry entry = new TarArchiveEntry(className + ".class");
+        entry.setSize(classFile.length);
+        archive.putArchiveEntry(entry);
+        archive.write(classFile);
+        archive.closeArchiveEntry();
+      }
+      archive.finish();
+    }
+    return bytes.toByteArray();
+  }
+
+  private static byte[] newClassFile(Random random, String className) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(0xCAFEBABE);
+    out.writeShort(0);
+    out.writeShort(52);
+    writeUtf8(out, className);
+    int constantCount = 20 + random.nextInt(60);
+    for (int i = 0; i < constantCount; i++) {
+      if (random.nextInt(3) == 0) {
+        writeUtf8(out, className + "$" + CONSTANTS[random.nextInt(CONSTANTS.length)]);
+      } else {
+        writeUtf8(out, CONSTANTS[random.nextInt(CONSTANTS.length)]);
+      }
+      out.writeByte(10);
+      out.writeShort(random.nextInt(constantCount));
+      out.writeShort(random.nextInt(constantCount));
+    }
+    int methodCount = 1 + random.nextInt(10);
+    for (int i = 0; i < methodCount; i++) {
+      out.writeShort(0x0001);
+      byte[] code = new byte[8 + random.nextInt(64)];
+      for (int j = 0; j < code.length; j++) {
+        // Mostly loads, stores, invokes and returns.
+        code[j] = (byte) (0x2a + random.nextInt(4) * 0x30 + random.nextInt(3));
+      }
+      out.writeInt(code.length);
+      out.write(code);
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private static void writeUtf8(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeByte(1);
+    out.writeShort(bytes.length);
+    out.write(bytes);
+  }
+}
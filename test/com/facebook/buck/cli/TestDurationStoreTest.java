@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import com.facebook.buck.test.TestCaseSummary;
+import com.facebook.buck.test.TestResultSummary;
+import com.facebook.buck.test.TestResults;
+import com.facebook.buck.test.result.type.ResultType;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+public class TestDurationStoreTest {
+
+  private static final BuildTarget TARGET = BuildTargetFactory.newInstance("//foo:test");
+
+  @Test
+  public void durationsOfTestCasesAreSavedForLaterRuns() throws Exception {
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    TestDurationStore store = TestDurationStore.load(filesystem);
+    assertEquals(ImmutableMap.of(), store.getDurations(TARGET));
+
+    store.record(
+        ImmutableList.of(results(result("ATest", "testA", 10), result("ATest", "testB", 20))),
+        false);
+    store.save();
+
+    assertEquals(
+        ImmutableMap.of("ATest", 30L), TestDurationStore.load(filesystem).getDurations(TARGET));
+  }
+
+  @Test
+  public void onlySelectedTestCasesAreReplaced() {
+    TestDurationStore store = TestDurationStore.load(new FakeProjectFilesystem());
+    store.record(
+        ImmutableList.of(results(result("ATest", "testA", 10), result("BTest", "testB", 20))),
+        false);
+
+    store.record(ImmutableList.of(results(result("BTest", "testB", 40))), true);
+    assertEquals(ImmutableMap.of("ATest", 10L, "BTest", 40L), store.getDurations(TARGET));
+
+    store.record(ImmutableList.of(results(result("BTest", "testB", 30))), false);
+    assertEquals(ImmutableMap.of("BTest", 30L), store.getDurations(TARGET));
+  }
+
+  @Test
+  public void unreadableDurationsAreIgnored() throws Exception {
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    filesystem.mkdirs(TestDurationStore.getPath(filesystem).getParent());
+    filesystem.writeContentsToPath("{not json", TestDurationStore.getPath(filesystem));
+
+    assertEquals(ImmutableMap.of(), TestDurationStore.load(filesystem).getDurations(TARGET));
+  }
+
+  private static TestResultSummary result(String testCaseName, String testName, long time) {
+    return new TestResultSummary(
+        testCaseName, testName, ResultType.SUCCESS, time, null, null, null, null);
+  }
+
+  private static TestResults results(TestResultSummary... summaries) {
+    return TestResults.of(
+        TARGET,
+        ImmutableList.of(new TestCaseSummary("test", ImmutableList.copyOf(summaries))),
+        ImmutableSet.of(),
+        ImmutableSet.of());
+  }
+}
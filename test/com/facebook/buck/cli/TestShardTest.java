@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.test.selectors.TestDescription;
+import com.facebook.buck.test.selectors.TestSelectorList;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+public class TestShardTest {
+
+  @Test
+  public void testCasesAreSplitIntoShardsOfSimilarDuration() {
+    ImmutableList<TestShard> shards =
+        TestShard.split(
+            ImmutableSet.of("a.ATest", "b.BTest", "c.CTest", "d.DTest"),
+            ImmutableMap.of("a.ATest", 50L, "b.BTest", 30L, "c.CTest", 20L, "d.DTest", 10L),
+            2);
+
+    assertEquals(2, shards.size());
+    assertEquals(60L, shards.get(0).getExpectedDurationMs());
+    assertEquals(50L, shards.get(1).getExpectedDurationMs());
+    assertIncludes(shards.get(0).getTestSelectorList(), "a.ATest", "d.DTest");
+    assertIncludes(shards.get(1).getTestSelectorList(), "b.BTest", "c.CTest");
+  }
+
+  @Test
+  public void lastShardRunsTestCasesWithoutDurations() {
+    ImmutableList<TestShard> shards =
+        TestShard.split(
+            ImmutableSet.of(),
+            ImmutableMap.of("test.ATest", 50L, "test.BTest", 30L, "test.CTest", 20L),
+            2);
+
+    assertEquals(2, shards.size());
+    TestSelectorList first = shards.get(0).getTestSelectorList();
+    TestSelectorList last = shards.get(1).getTestSelectorList();
+    assertIncludes(first, "test.ATest");
+    assertIncludes(last, "test.BTest", "test.CTest", "test.NewTest");
+    // Test cases are selected by their whole name.
+    assertFalse(first.isIncluded(new TestDescription("test.ATest2", "testFoo")));
+    assertTrue(last.isIncluded(new TestDescription("test.ATest2", "testFoo")));
+  }
+
+  @Test
+  public void fewTestCasesAreNotSplit() {
+    assertTrue(
+        TestShard.split(ImmutableSet.of("ATest"), ImmutableMap.of("ATest", 1000L), 4).isEmpty());
+    assertTrue(TestShard.split(ImmutableSet.of(), ImmutableMap.of(), 4).isEmpty());
+    assertEquals(
+        2, TestShard.split(ImmutableSet.of("ATest", "BTest"), ImmutableMap.of(), 4).size());
+  }
+
+  private static void assertIncludes(TestSelectorList shard, String... testCases) {
+    for (String testCase : testCases) {
+      assertTrue(testCase, shard.isIncluded(new TestDescription(testCase, "testFoo")));
+      assertTrue(testCase, shard.possiblyIncludesClassName(testCase));
+    }
+  }
+}
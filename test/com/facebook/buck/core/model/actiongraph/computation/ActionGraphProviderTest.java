@@ -38,6 +38,8 @@ import com.facebook.buck.core.model.targetgraph.TestTargetGraphCreationResultFac
 import com.facebook.buck.core.rulekey.RuleKey;
 import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.rules.BuildRuleResolver;
+import com.facebook.buck.core.rules.attr.ConstructedFromFileContents;
+import com.facebook.buck.core.rules.impl.FakeBuildRule;
 import com.facebook.buck.core.rules.transformer.impl.DefaultTargetNodeToBuildRuleTransformer;
 import com.facebook.buck.event.ActionGraphEvent;
 import com.facebook.buck.event.BuckEvent;
@@ -68,6 +70,7 @@ import java.util.Optional;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 import org.hamcrest.Matchers;
 import org.junit.Before;
@@ -265,6 +268,31 @@ public class ActionGraphProviderTest {
   }
 
   // If this breaks it probably means the ActionGraphProvider checking also breaks.
+  @Test
+  public void missOnCacheWhenFilesReadDuringConstructionChanged() {
+    AtomicBoolean unchanged = new AtomicBoolean(true);
+    TargetGraph targetGraph =
+        TargetGraphFactory.newInstance(
+            FakeTargetNodeBuilder.build(
+                new FakeConstructedFromFileContentsRule(
+                    BuildTargetFactory.newInstance("//foo:bar"), unchanged)));
+    ActionGraphProvider cache =
+        new ActionGraphProviderBuilder()
+            .withEventBus(eventBus)
+            .withRuleKeyConfiguration(TestRuleKeyConfigurationFactory.createWithSeed(keySeed))
+            .build();
+
+    cache.getActionGraph(TestTargetGraphCreationResultFactory.create(targetGraph));
+    cache.getActionGraph(TestTargetGraphCreationResultFactory.create(targetGraph));
+    assertEquals(1, countEventsOf(ActionGraphEvent.Cache.Hit.class));
+    assertEquals(1, countEventsOf(ActionGraphEvent.Cache.Miss.class));
+
+    unchanged.set(false);
+    cache.getActionGraph(TestTargetGraphCreationResultFactory.create(targetGraph));
+    assertEquals(1, countEventsOf(ActionGraphEvent.Cache.Hit.class));
+    assertEquals(2, countEventsOf(ActionGraphEvent.Cache.Miss.class));
+  }
+
   @Test
   public void compareActionGraphsBasedOnRuleKeys() {
     ActionGraphProvider actionGraphProvider =
@@ -392,6 +420,21 @@ public class ActionGraphProviderTest {
         .build();
   }
 
+  private static class FakeConstructedFromFileContentsRule extends FakeBuildRule
+      implements ConstructedFromFileContents {
+    private final AtomicBoolean unchanged;
+
+    FakeConstructedFromFileContentsRule(BuildTarget target, AtomicBoolean unchanged) {
+      super(target);
+      this.unchanged = unchanged;
+    }
+
+    @Override
+    public boolean areConstructionInputsUnchanged() {
+      return unchanged.get();
+    }
+  }
+
   private TargetNode<?> createTargetNode(String name, TargetNode<?>... deps) {
     BuildTarget buildTarget = BuildTargetFactory.newInstance("//foo:" + name);
     JavaLibraryBuilder targetNodeBuilder = JavaLibraryBuilder.createBuilder(buildTarget);
@@ -35,7 +35,6 @@ import com.facebook.buck.core.sourcepath.FakeSourcePath;
 import com.facebook.buck.core.sourcepath.PathSourcePath;
 import com.facebook.buck.core.sourcepath.SourcePath;
 import com.facebook.buck.core.sourcepath.resolver.SourcePathResolverAdapter;
-import com.facebook.buck.io.BuildCellRelativePath;
 import com.facebook.buck.io.file.MorePaths;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.TestProjectFilesystems;
@@ -46,9 +45,8 @@ import com.facebook.buck.shell.Genrule;
 import com.facebook.buck.shell.GenruleBuilder;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.TestExecutionContext;
-import com.facebook.buck.step.fs.MakeCleanDirectoryStep;
 import com.facebook.buck.step.fs.SymlinkMapsPaths;
-import com.facebook.buck.step.fs.SymlinkTreeMergeStep;
+import com.facebook.buck.step.fs.SymlinkTreeSyncStep;
 import com.facebook.buck.testutil.FakeFileHashCache;
 import com.facebook.buck.testutil.TemporaryPaths;
 import com.facebook.buck.util.cache.FileHashCacheMode;
@@ -65,6 +63,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Optional;
 import org.hamcrest.Matchers;
 import org.hamcrest.junit.ExpectedException;
 import org.junit.Before;
@@ -132,17 +131,14 @@ public class SymlinkTreeTest {
     // Verify the build steps are as expected.
     ImmutableList<Step> expectedBuildSteps =
         new ImmutableList.Builder<Step>()
-            .addAll(
-                MakeCleanDirectoryStep.of(
-                    BuildCellRelativePath.fromCellRelativePath(
-                        buildContext.getBuildCellRootPath(), projectFilesystem, outputPath)))
             .add(
-                new SymlinkTreeMergeStep(
+                new SymlinkTreeSyncStep(
                     "link_tree",
                     projectFilesystem,
                     outputPath,
                     new SymlinkMapsPaths(pathResolver.getMappedPaths(links)),
-                    (a, b) -> false))
+                    (a, b) -> false,
+                    Optional.of(symlinkTreeBuildRule.getManifestPath())))
             .build();
     ImmutableList<Step> actualBuildSteps =
         symlinkTreeBuildRule.getBuildSteps(buildContext, buildableContext);
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.core.sourcepath.PathSourcePath;
+import com.facebook.buck.core.toolchain.tool.impl.HashedFileTool;
+import com.facebook.buck.cxx.toolchain.GnuArchiver;
+import com.facebook.buck.cxx.toolchain.objectfile.ArchiveWriter;
+import com.facebook.buck.cxx.toolchain.objectfile.ObjectFileScrubbers;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.step.fs.FileScrubberStep;
+import com.facebook.buck.testutil.integration.TestDataHelper;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Callable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Compares archiving many small object files by running ar and ranlib, then scrubbing the archive,
+ * as {@link Archive} does for GNU archivers, with writing the archive in-process.
+ */
+public class ArchiveStepBenchmark {
+
+  @Param({"2000"})
+  private int objectCount = 2000;
+
+  private Path root;
+  private ProjectFilesystem filesystem;
+  private ExecutionContext context;
+  private ImmutableList<Path> objects;
+  private Path output;
+
+  @Before
+  public void setUp() throws IOException {
+    setUpBenchmark();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    tearDownBenchmark();
+  }
+
+  /** Objects are copies of a small object defining a few symbols, spread over a few libraries. */
+  @BeforeExperiment
+  public void setUpBenchmark() throws IOException {
+    root = Files.createTempDirectory("archive-benchmark").toRealPath();
+    filesystem = TestProjectFilesystems.createProjectFilesystem(root);
+    context = TestExecutionContext.newInstanceWithRealProcessExecutor();
+    Path object = TestDataHelper.getTestDataDirectory(ArchiveWriter.class).resolve("symbols.o");
+    ImmutableList.Builder<Path> builder = ImmutableList.builder();
+    for (int i = 0; i < objectCount; i++) {
+      Path path = Paths.get("objects", "module" + i % 20, "source" + i + ".cpp.o");
+      Files.createDirectories(root.resolve(path).getParent());
+      Files.copy(object, root.resolve(path));
+      builder.add(path);
+    }
+    objects = builder.build();
+    output = Paths.get("libmodule.a");
+  }
+
+  @AfterExperiment
+  public void tearDownBenchmark() throws IOException {
+    MoreFiles.deleteRecursively(root, RecursiveDeleteOption.ALLOW_INSECURE);
+  }
+
+  @Ignore
+  @Test
+  public void testTime() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      report("ar, ranlib and scrubbing", this::benchExternalArchiver);
+      report("in-process", this::benchInProcessArchiver);
+    }
+  }
+
+  @Benchmark
+  public long benchExternalArchiver() throws Exception {
+    Files.deleteIfExists(root.resolve(output));
+    run(
+        new ArchiveStep(
+            filesystem,
+            ImmutableMap.of(),
+            ImmutableList.of("ar"),
+            ImmutableList.of(),
+            ImmutableList.of("qc"),
+            output,
+            objects,
+            new GnuArchiver(new HashedFileTool(PathSourcePath.of(filesystem, Paths.get("ar")))),
+            Paths.get("scratch")));
+    run(
+        new RanlibStep(
+            filesystem, ImmutableMap.of(), ImmutableList.of("ranlib"), ImmutableList.of(), output));
+    run(
+        new FileScrubberStep(
+            filesystem,
+            output,
+            ImmutableList.of(
+                ObjectFileScrubbers.createDateUidGidScrubber(
+                    ObjectFileScrubbers.PaddingStyle.LEFT))));
+    return Files.size(root.resolve(output));
+  }
+
+  @Benchmark
+  public long benchInProcessArchiver() throws Exception {
+    run(new InProcessArchiveStep(filesystem, ArchiveWriter.Format.GNU, false, output, objects));
+    return Files.size(root.resolve(output));
+  }
+
+  private void run(Step step) throws Exception {
+    Preconditions.checkState(step.execute(context).isSuccess(), "%s failed", step.getShortName());
+  }
+
+  private static void report(String name, Callable<Long> benchmark) throws Exception {
+    int iterations = 10;
+    long size = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      size = benchmark.call();
+    }
+    long elapsedMs = (System.nanoTime() - start) / 1_000_000 / iterations;
+    System.out.printf("%s: %d ms per archive (%d bytes)%n", name, elapsedMs, size);
+  }
+}
@@ -41,6 +41,7 @@ import com.facebook.buck.cxx.toolchain.ArchiveContents;
 import com.facebook.buck.cxx.toolchain.Archiver;
 import com.facebook.buck.cxx.toolchain.BsdArchiver;
 import com.facebook.buck.cxx.toolchain.GnuArchiver;
+import com.facebook.buck.cxx.toolchain.InProcessArchiver;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
 import com.facebook.buck.rules.args.StringArg;
@@ -49,6 +50,7 @@ import com.facebook.buck.shell.Genrule;
 import com.facebook.buck.shell.GenruleBuilder;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.step.fs.FileScrubberStep;
 import com.facebook.buck.testutil.FakeFileHashCache;
 import com.google.common.base.Strings;
 import com.google.common.collect.FluentIterable;
@@ -179,6 +181,62 @@ public class ArchiveTest {
                     DEFAULT_INPUTS,
                     /* cacheable */ true));
     assertNotEquals(defaultRuleKey, archiverTypeChange);
+
+    // Verify that writing the archive in-process causes a rulekey change.
+    RuleKey inProcessChange =
+        new TestDefaultRuleKeyFactory(hashCache, ruleFinder)
+            .build(
+                new Archive(
+                    target,
+                    projectFilesystem,
+                    ruleFinder,
+                    InProcessArchiver.replacing(DEFAULT_ARCHIVER),
+                    ImmutableList.of(),
+                    DEFAULT_RANLIB,
+                    ImmutableList.of(),
+                    ArchiveContents.NORMAL,
+                    DEFAULT_OUTPUT_FILE_NAME,
+                    DEFAULT_INPUTS,
+                    /* cacheable */ true));
+    assertNotEquals(defaultRuleKey, inProcessChange);
+  }
+
+  @Test
+  public void inProcessArchivesNeedNeitherRanlibNorScrubbing() {
+    BuildRuleResolver resolver = new TestActionGraphBuilder();
+    BuildTarget target = BuildTargetFactory.newInstance("//foo:bar");
+    ProjectFilesystem projectFilesystem = new FakeProjectFilesystem();
+    Archive archive =
+        new Archive(
+            target,
+            projectFilesystem,
+            resolver,
+            InProcessArchiver.replacing(DEFAULT_ARCHIVER),
+            ImmutableList.of(),
+            Optional.empty(),
+            ImmutableList.of(),
+            ArchiveContents.THIN,
+            DEFAULT_OUTPUT_FILE_NAME,
+            ImmutableList.of(FakeSourcePath.of("simple.o")),
+            /* cacheable */ true);
+
+    BuildContext buildContext =
+        FakeBuildContext.NOOP_CONTEXT.withSourcePathResolver(resolver.getSourcePathResolver());
+
+    ImmutableList<Step> steps = archive.getBuildSteps(buildContext, new FakeBuildableContext());
+    assertEquals(
+        ImmutableList.of(),
+        FluentIterable.from(steps)
+            .filter(
+                step ->
+                    step instanceof ArchiveStep
+                        || step instanceof RanlibStep
+                        || step instanceof FileScrubberStep)
+            .toList());
+    Step archiveStep = FluentIterable.from(steps).filter(InProcessArchiveStep.class).first().get();
+    assertThat(
+        archiveStep.getDescription(TestExecutionContext.newInstance()),
+        containsString("thin GNU archive"));
   }
 
   @Test
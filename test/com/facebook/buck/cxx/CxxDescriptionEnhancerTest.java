@@ -24,6 +24,7 @@ import static org.junit.Assert.assertThat;
 
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.model.UnconfiguredTargetConfiguration;
 import com.facebook.buck.core.rules.ActionGraphBuilder;
 import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.rules.BuildRuleParams;
@@ -31,8 +32,16 @@ import com.facebook.buck.core.rules.TestBuildRuleParams;
 import com.facebook.buck.core.rules.impl.FakeBuildRule;
 import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
 import com.facebook.buck.core.sourcepath.DefaultBuildTargetSourcePath;
+import com.facebook.buck.core.sourcepath.PathSourcePath;
 import com.facebook.buck.core.sourcepath.SourcePath;
+import com.facebook.buck.core.toolchain.tool.impl.HashedFileTool;
+import com.facebook.buck.core.toolchain.toolprovider.impl.ConstantToolProvider;
+import com.facebook.buck.cxx.toolchain.CxxPlatform;
 import com.facebook.buck.cxx.toolchain.CxxPlatformUtils;
+import com.facebook.buck.cxx.toolchain.CxxToolProvider;
+import com.facebook.buck.cxx.toolchain.HeaderMode;
+import com.facebook.buck.cxx.toolchain.PreprocessorProvider;
+import com.facebook.buck.cxx.toolchain.ToolType;
 import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultimap;
@@ -240,6 +249,38 @@ public class CxxDescriptionEnhancerTest {
   }
 
   /** Just a helper to make this shorter to write. */
+  @Test
+  public void headerMapOnlyModeFallsBackToSymlinkTreeWithoutVfsOverlaySupport() {
+    ActionGraphBuilder graphBuilder = new TestActionGraphBuilder();
+    CxxPlatform clangPlatform = platformWithPreprocessor(CxxToolProvider.Type.CLANG);
+    CxxPlatform gccPlatform = platformWithPreprocessor(CxxToolProvider.Type.GCC);
+
+    assertThat(
+        CxxDescriptionEnhancer.getHeaderModeForPlatform(
+            graphBuilder, UnconfiguredTargetConfiguration.INSTANCE, clangPlatform, false),
+        equalTo(HeaderMode.HEADER_MAP_ONLY));
+    assertThat(
+        CxxDescriptionEnhancer.getHeaderModeForPlatform(
+            graphBuilder, UnconfiguredTargetConfiguration.INSTANCE, gccPlatform, false),
+        equalTo(HeaderMode.SYMLINK_TREE_ONLY));
+  }
+
+  private static CxxPlatform platformWithPreprocessor(CxxToolProvider.Type type) {
+    PreprocessorProvider preprocessor =
+        new PreprocessorProvider(
+            new ConstantToolProvider(
+                new HashedFileTool(
+                    PathSourcePath.of(new FakeProjectFilesystem(), Paths.get("/usr/bin/cpp")))),
+            type,
+            ToolType.CPP);
+    return CxxPlatform.builder()
+        .from(CxxPlatformUtils.DEFAULT_PLATFORM)
+        .setCpp(preprocessor)
+        .setCxxpp(preprocessor)
+        .setHeaderMode(HeaderMode.HEADER_MAP_ONLY)
+        .build();
+  }
+
   private static String soname(String declared, String extension, String versionedFormat) {
     return CxxDescriptionEnhancer.getNonDefaultSharedLibrarySoname(
         declared, extension, versionedFormat);
@@ -192,12 +192,23 @@ public class CxxPrecompiledHeaderRuleTest {
       String flag,
       SourcePath precompiledHeader,
       CxxPlatform platform) {
+    return newFactory(
+        buildTarget, projectFilesystem, flag, precompiledHeader, platform, CXX_CONFIG_PCH_ENABLED);
+  }
+
+  public CxxSourceRuleFactory newFactory(
+      BuildTarget buildTarget,
+      ProjectFilesystem projectFilesystem,
+      String flag,
+      SourcePath precompiledHeader,
+      CxxPlatform platform,
+      CxxBuckConfig cxxConfig) {
     return CxxSourceRuleFactory.of(
         projectFilesystem,
         buildTarget,
         graphBuilder,
         graphBuilder.getSourcePathResolver(),
-        CXX_CONFIG_PCH_ENABLED,
+        cxxConfig,
         platform,
         ImmutableList.of(
             CxxPreprocessorInput.builder()
@@ -379,6 +390,67 @@ public class CxxPrecompiledHeaderRuleTest {
     assertNotEquals(pchFlag2, pchFlag3);
   }
 
+  @Test
+  public void diagnosticFlagsOnlySplitPchWithoutCanonicalization() {
+    BuildTarget pchTarget = newTarget("//test:pch");
+    CxxPrecompiledHeaderTemplate pch = newPCH(pchTarget);
+    graphBuilder.addToIndex(pch);
+    CxxBuckConfig canonicalizingConfig =
+        new CxxBuckConfig(
+            FakeBuckConfig.builder()
+                .setSections("[cxx]", "pch_enabled=true", "pch_canonicalize_flags=true")
+                .build());
+
+    List<String> wall = getPchFlag(pchTarget, "//test:wall", "-Wall", canonicalizingConfig);
+    List<String> werror = getPchFlag(pchTarget, "//test:werror", "-Werror", canonicalizingConfig);
+    List<String> noRtti = getPchFlag(pchTarget, "//test:nortti", "-fno-rtti", canonicalizingConfig);
+    assertEquals(wall, werror);
+    assertNotEquals(wall, noRtti);
+    assertEquals(2, pch.getInstantiationCount());
+    assertEquals(3, pch.getUseCount());
+
+    List<String> wextra = getPchFlag(pchTarget, "//test:wextra", "-Wextra", CXX_CONFIG_PCH_ENABLED);
+    assertNotEquals(wall, wextra);
+    assertEquals(3, pch.getInstantiationCount());
+  }
+
+  @Test
+  public void diagnosticFlagsAreDroppedButNotOptionArguments() {
+    CxxToolFlags flags =
+        CxxToolFlags.explicitBuilder()
+            .addAllPlatformFlags(StringArg.from("-O2", "-Wall", "-Wp,-D_FORTIFY_SOURCE=2"))
+            .addAllRuleFlags(
+                StringArg.from(
+                    "-fcolor-diagnostics", "-Xclang", "-Wfoo", "-w", "-DFOO", "-Wa,--noexec"))
+            .build();
+    CxxToolFlags canonical = CxxPrecompiledHeaderTemplate.withoutDiagnosticFlags(flags);
+    assertEquals(
+        ImmutableList.copyOf(StringArg.from("-O2", "-Wp,-D_FORTIFY_SOURCE=2")),
+        canonical.getPlatformFlags());
+    assertEquals(
+        ImmutableList.copyOf(StringArg.from("-Xclang", "-Wfoo", "-DFOO", "-Wa,--noexec")),
+        canonical.getRuleFlags());
+  }
+
+  /** @return the flag by which a compilation of a new rule with the given flag uses the PCH. */
+  private List<String> getPchFlag(
+      BuildTarget pchTarget, String libTarget, String flag, CxxBuckConfig cxxConfig) {
+    CxxSourceRuleFactory factory =
+        newFactory(
+            newTarget(libTarget),
+            new FakeProjectFilesystem(),
+            flag,
+            DefaultBuildTargetSourcePath.of(pchTarget),
+            platformSupportingPch,
+            cxxConfig);
+    CxxPreprocessAndCompile lib =
+        factory.requirePreprocessAndCompileBuildRule("lib.cpp", newSource("lib.cpp"));
+    graphBuilder.addToIndex(lib);
+    List<String> pchFlag = seek(lib.makeMainStep(context, false).getCommand(), "-include-pch");
+    assertTrue(pchFlag.size() >= 2);
+    return pchFlag.subList(0, 2);
+  }
+
   @Test
   public void userRuleChangesDependencyPCHRuleFlags() {
     BuildTarget pchTarget = newTarget("//test:pch");
@@ -22,11 +22,16 @@ import com.facebook.buck.core.cell.TestCellPathResolver;
 import com.facebook.buck.core.rules.SourcePathRuleFinder;
 import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
 import com.facebook.buck.core.sourcepath.FakeSourcePath;
+import com.facebook.buck.core.sourcepath.resolver.SourcePathResolverAdapter;
 import com.facebook.buck.core.toolchain.impl.ToolchainProviderBuilder;
+import com.facebook.buck.core.toolchain.tool.impl.HashedFileTool;
+import com.facebook.buck.cxx.toolchain.ClangPreprocessor;
+import com.facebook.buck.cxx.toolchain.Preprocessor;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
 import com.facebook.buck.rules.modern.SerializationTestHelper;
 import com.facebook.buck.util.types.Either;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSortedMap;
 import java.io.IOException;
 import java.nio.file.Paths;
@@ -36,15 +41,59 @@ import org.junit.Test;
 public class CxxSymlinkTreeHeadersTest {
   @Test
   public void testSerialization() throws IOException {
-    CxxSymlinkTreeHeaders cxxSymlinkTreeHeaders =
+    assertSerializationRoundTrips(
         CxxSymlinkTreeHeaders.of(
             CxxPreprocessables.IncludeType.SYSTEM,
             FakeSourcePath.of("root"),
             Either.ofRight(FakeSourcePath.of("includeRoot")),
             Optional.of(FakeSourcePath.of("headerMap")),
             ImmutableSortedMap.of(Paths.get("a/b"), FakeSourcePath.of("path")),
+            "treeClass"));
+  }
+
+  @Test
+  public void testSerializationWithVfsOverlay() throws IOException {
+    assertSerializationRoundTrips(
+        CxxSymlinkTreeHeaders.of(
+            CxxPreprocessables.IncludeType.LOCAL,
+            FakeSourcePath.of("root"),
+            Either.ofRight(FakeSourcePath.of("root")),
+            Optional.empty(),
+            Optional.of(FakeSourcePath.of("overlay.yaml")),
+            ImmutableSortedMap.of(Paths.get("a/b"), FakeSourcePath.of("path")),
+            "treeClass"));
+  }
+
+  @Test
+  public void testVfsOverlayIsPassedWithRoot() {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    SourcePathResolverAdapter resolver = new TestActionGraphBuilder().getSourcePathResolver();
+    CxxSymlinkTreeHeaders cxxSymlinkTreeHeaders =
+        CxxSymlinkTreeHeaders.of(
+            CxxPreprocessables.IncludeType.LOCAL,
+            FakeSourcePath.of(filesystem, "root"),
+            Either.ofRight(FakeSourcePath.of(filesystem, "root")),
+            Optional.empty(),
+            Optional.of(FakeSourcePath.of(filesystem, "overlay.yaml")),
+            ImmutableSortedMap.of(Paths.get("a/b"), FakeSourcePath.of(filesystem, "path")),
             "treeClass");
+    Preprocessor preprocessor =
+        new ClangPreprocessor(new HashedFileTool(FakeSourcePath.of(filesystem, "clang")));
+
+    Iterable<String> args =
+        CxxHeaders.getArgs(
+            ImmutableList.of(cxxSymlinkTreeHeaders), resolver, Optional.empty(), preprocessor);
+    assertEquals(
+        ImmutableList.of(
+            "-ivfsoverlay",
+            filesystem.resolve("overlay.yaml").toString(),
+            "-I",
+            filesystem.resolve("root").toString()),
+        ImmutableList.copyOf(args));
+  }
 
+  private static void assertSerializationRoundTrips(CxxSymlinkTreeHeaders cxxSymlinkTreeHeaders)
+      throws IOException {
     ProjectFilesystem fakeFilesystem = new FakeProjectFilesystem();
     SourcePathRuleFinder ruleFinder = new TestActionGraphBuilder();
     CxxSymlinkTreeHeaders reconstructed =
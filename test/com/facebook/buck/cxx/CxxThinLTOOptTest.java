@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.build.context.FakeBuildContext;
+import com.facebook.buck.core.cell.TestCellPathResolver;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.rules.SourcePathRuleFinder;
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.core.sourcepath.FakeSourcePath;
+import com.facebook.buck.core.sourcepath.SourcePath;
+import com.facebook.buck.core.sourcepath.resolver.SourcePathResolverAdapter;
+import com.facebook.buck.core.toolchain.tool.impl.CommandTool;
+import com.facebook.buck.cxx.toolchain.GccCompiler;
+import com.facebook.buck.cxx.toolchain.ToolType;
+import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import com.facebook.buck.rules.keys.DefaultDependencyFileRuleKeyFactory;
+import com.facebook.buck.rules.keys.DependencyFileEntry;
+import com.facebook.buck.rules.keys.RuleKeyFieldLoader;
+import com.facebook.buck.rules.keys.config.TestRuleKeyConfigurationFactory;
+import com.facebook.buck.testutil.FakeFileHashCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CxxThinLTOOptTest {
+
+  private FakeProjectFilesystem filesystem;
+  private SourcePathRuleFinder ruleFinder;
+  private SourcePathResolverAdapter pathResolver;
+
+  private SourcePath input;
+  private SourcePath imported;
+  private SourcePath unrelated;
+  private SourcePath index;
+  private CxxThinLTOOpt rule;
+
+  @Before
+  public void setUp() throws IOException {
+    filesystem = new FakeProjectFilesystem();
+    ruleFinder = new TestActionGraphBuilder();
+    pathResolver = ruleFinder.getSourcePathResolver();
+
+    input = FakeSourcePath.of(filesystem, "objects/main.cpp.o");
+    imported = FakeSourcePath.of(filesystem, "objects/imported.cpp.o");
+    unrelated = FakeSourcePath.of(filesystem, "objects/unrelated.cpp.o");
+    index = FakeSourcePath.of(filesystem, "indices/objects/main.cpp.o.thinlto.bc");
+    SourcePath imports = FakeSourcePath.of(filesystem, "indices/objects/main.cpp.o.imports");
+    filesystem.writeContentsToPath(
+        "objects/main.cpp.o\nobjects/imported.cpp.o\n", pathResolver.getRelativePath(imports));
+
+    rule =
+        CxxThinLTOOpt.optimize(
+            BuildTargetFactory.newInstance("//foo:bar#optimize-main.cpp.o"),
+            filesystem,
+            ruleFinder,
+            new CompilerDelegate(
+                NoopDebugPathSanitizer.INSTANCE,
+                new GccCompiler(
+                    new CommandTool.Builder().addArg("clang++").build(), ToolType.CXX, false),
+                CxxToolFlags.explicitBuilder().addRuleFlags(new CxxThinLTOIndexArg(index)).build(),
+                Optional.empty()),
+            "main.o",
+            input,
+            index,
+            imports,
+            new CxxThinLTOOpt.Modules(ImmutableSortedSet.of(input, imported, unrelated)),
+            CxxSource.Type.CXX_THINLINK,
+            NoopDebugPathSanitizer.INSTANCE);
+  }
+
+  @Test
+  public void onlyImportedModulesAreInputsAfterBuildingLocally() throws Exception {
+    assertEquals(
+        ImmutableList.of(imported),
+        rule.getInputsAfterBuildingLocally(
+            FakeBuildContext.withSourcePathResolver(pathResolver),
+            TestCellPathResolver.get(filesystem)));
+    assertTrue(rule.getCoveredByDepFilePredicate(pathResolver).test(imported));
+    assertTrue(rule.getCoveredByDepFilePredicate(pathResolver).test(unrelated));
+    assertFalse(rule.getCoveredByDepFilePredicate(pathResolver).test(input));
+    assertFalse(rule.getCoveredByDepFilePredicate(pathResolver).test(index));
+  }
+
+  @Test
+  public void depFileRuleKeyOnlyDependsOnImportedModules() throws Exception {
+    RuleKey original = depFileRuleKey("aa", "bb", "cc", "dd");
+    assertEquals(original, depFileRuleKey("aa", "bb", "ee", "dd"));
+    assertNotEquals(original, depFileRuleKey("aa", "ee", "cc", "dd"));
+    assertNotEquals(original, depFileRuleKey("ee", "bb", "cc", "dd"));
+    assertNotEquals(original, depFileRuleKey("aa", "bb", "cc", "ee"));
+  }
+
+  private RuleKey depFileRuleKey(
+      String inputHash, String importedHash, String unrelatedHash, String indexHash)
+      throws IOException {
+    FakeFileHashCache hashCache =
+        new FakeFileHashCache(
+            ImmutableMap.of(
+                pathResolver.getAbsolutePath(input), HashCode.fromString(inputHash),
+                pathResolver.getAbsolutePath(imported), HashCode.fromString(importedHash),
+                pathResolver.getAbsolutePath(unrelated), HashCode.fromString(unrelatedHash),
+                pathResolver.getAbsolutePath(index), HashCode.fromString(indexHash),
+                pathResolver.getAbsolutePath(
+                    FakeSourcePath.of(filesystem, "indices/objects/main.cpp.o.imports")),
+                HashCode.fromString("ff")),
+            true,
+            ImmutableMap.of());
+    return new DefaultDependencyFileRuleKeyFactory(
+            new RuleKeyFieldLoader(TestRuleKeyConfigurationFactory.create()),
+            hashCache,
+            ruleFinder)
+        .build(
+            rule,
+            ImmutableList.of(DependencyFileEntry.fromSourcePath(imported, pathResolver)))
+        .getRuleKey();
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.core.sourcepath.PathSourcePath;
+import com.facebook.buck.core.sourcepath.resolver.SourcePathResolverAdapter;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.google.common.base.Charsets;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Measures reading the headers used by a compile from its depfile, and verifying them against the
+ * headers the rule is allowed to include, as each compile of a large C++ library would.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DepfilesBenchmark {
+
+  @Param({"2000"})
+  public int headerCount;
+
+  private Path root;
+  private ProjectFilesystem filesystem;
+  private SourcePathResolverAdapter pathResolver;
+  private HeaderPathNormalizer normalizer;
+  private Path makefileDepfile;
+  private Path showIncludesDepfile;
+  private List<String> headers;
+
+  /** Headers are spread over a deep tree, and all of them are allowed. */
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    root = Files.createTempDirectory("depfiles-benchmark").toRealPath();
+    filesystem = TestProjectFilesystems.createProjectFilesystem(root);
+    pathResolver = new TestActionGraphBuilder().getSourcePathResolver();
+    HeaderPathNormalizer.Builder normalizerBuilder = new HeaderPathNormalizer.Builder(pathResolver);
+    headers = new ArrayList<>(headerCount);
+    StringBuilder makefile = new StringBuilder("buck-out/gen/project/lib/source.cpp.o: \\\n");
+    StringBuilder showIncludes = new StringBuilder("project/lib/source.cpp\n");
+    makefile.append(" project/lib/source.cpp \\\n");
+    for (int i = 0; i < headerCount; i++) {
+      String header =
+          String.format(
+              "buck-out/gen/project/module%d/headers#header-mode-symlink-tree-only/module%d/"
+                  + "include/header%d.h",
+              i % 50, i % 50, i);
+      headers.add(header);
+      normalizerBuilder.addHeader(PathSourcePath.of(filesystem, Paths.get(header)));
+      makefile.append(' ').append(header).append(i + 1 < headerCount ? " \\\n" : "\n");
+      showIncludes.append("  ").append(header).append('\n');
+    }
+    normalizer = normalizerBuilder.build();
+    makefileDepfile = root.resolve("source.cpp.o.dep");
+    showIncludesDepfile = root.resolve("source.cpp.o.dep.show_includes");
+    Files.write(makefileDepfile, makefile.toString().getBytes(Charsets.UTF_8));
+    Files.write(showIncludesDepfile, showIncludes.toString().getBytes(Charsets.UTF_8));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    MoreFiles.deleteRecursively(root, RecursiveDeleteOption.ALLOW_INSECURE);
+  }
+
+  @Benchmark
+  public int readMakefile() throws IOException {
+    try (InputStream input = filesystem.newFileInputStream(makefileDepfile);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, Charsets.UTF_8))) {
+      return Depfiles.parseDepfile(reader).getPrereqs().size();
+    }
+  }
+
+  @Benchmark
+  public int mapMakefile() throws IOException {
+    return Depfiles.parseDepfile(Depfiles.readDepfile(filesystem, makefileDepfile))
+        .getPrereqs()
+        .size();
+  }
+
+  @Benchmark
+  public int readShowIncludesLines() throws IOException {
+    List<String> lines = filesystem.readLines(showIncludesDepfile);
+    int count = 0;
+    for (String line : lines.subList(1, lines.size())) {
+      count += line.trim().isEmpty() ? 0 : 1;
+    }
+    return count;
+  }
+
+  @Benchmark
+  public int mapShowIncludes() throws IOException {
+    return Depfiles.parseShowIncludes(Depfiles.readDepfile(filesystem, showIncludesDepfile))
+        .size();
+  }
+
+  /** Resolves every header, and looks it up among the allowed headers of a new rule. */
+  @Benchmark
+  public int verifyFirstCompile() {
+    HeaderPathNormalizer.Builder builder = new HeaderPathNormalizer.Builder(pathResolver);
+    for (String header : headers) {
+      builder.addHeader(PathSourcePath.of(filesystem, Paths.get(header)));
+    }
+    HeaderPathNormalizer firstNormalizer = builder.build();
+    int count = 0;
+    for (String header : headers) {
+      Path path = filesystem.resolve(header).normalize();
+      if (firstNormalizer.getAbsolutePathForUnnormalizedPath(pathResolver, path).isPresent()) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /** Verifies the headers of another compile allowed to include the same headers. */
+  @Benchmark
+  public int verifyNextCompiles() {
+    int count = 0;
+    for (String header : headers) {
+      Path path = DepfilePaths.resolve(filesystem, header);
+      if (normalizer.getAbsolutePathForUnnormalizedPath(pathResolver, path).isPresent()) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  public static void main(String[] args) throws IOException, RunnerException {
+    Main.main(new String[] {DepfilesBenchmark.class.getName()});
+  }
+}
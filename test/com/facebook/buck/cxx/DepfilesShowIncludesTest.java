@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+public class DepfilesShowIncludesTest {
+
+  @Test
+  public void skipsTheSourceAndTrimsHeaders() {
+    assertEquals(
+        ImmutableList.of("a.h", "b/c.h", "d.h"),
+        Depfiles.parseShowIncludes(bytes("source.cpp\n a.h\n  b/c.h \r\n d.h\n")));
+  }
+
+  @Test
+  public void handlesAnyLineEnding() {
+    assertEquals(
+        ImmutableList.of("a.h", "b.h", "c.h"),
+        Depfiles.parseShowIncludes(bytes("source.cpp\r a.h\r\n b.h\n c.h")));
+  }
+
+  @Test
+  public void keepsEmptyLines() {
+    assertEquals(
+        ImmutableList.of("a.h", "", "b.h"),
+        Depfiles.parseShowIncludes(bytes("source.cpp\n a.h\n\n b.h\n")));
+  }
+
+  @Test
+  public void sourceWithoutHeaders() {
+    assertEquals(ImmutableList.of(), Depfiles.parseShowIncludes(bytes("source.cpp\n")));
+    assertEquals(ImmutableList.of(), Depfiles.parseShowIncludes(bytes("")));
+  }
+
+  @Test
+  public void linesCanSpanChunks() {
+    StringBuilder contents = new StringBuilder("source.cpp\r\n");
+    ImmutableList.Builder<String> expected = ImmutableList.builder();
+    for (int i = 0; i < 2000; i++) {
+      String header = Strings.repeat("dir/", i % 7) + "header" + i + ".h";
+      expected.add(header);
+      contents.append(Strings.repeat(" ", i % 3)).append(header).append("\r\n");
+    }
+    assertEquals(expected.build(), Depfiles.parseShowIncludes(bytes(contents.toString())));
+  }
+
+  @Test
+  public void headersAreSharedBetweenDepfiles() throws Exception {
+    String first = Depfiles.parseShowIncludes(bytes("a.cpp\n common/header.h\n")).get(0);
+    String second =
+        Depfiles.parseDepfile(bytes("b.o: b.cpp common/header.h\n")).getPrereqs().get(1);
+    assertEquals("common/header.h", first);
+    assertSame(first, second);
+  }
+
+  private static ByteBuffer bytes(String contents) {
+    return ByteBuffer.wrap(contents.getBytes(Charsets.UTF_8));
+  }
+}
@@ -49,13 +49,16 @@ import com.facebook.buck.util.cache.FileHashCacheMode;
 import com.facebook.buck.util.cache.impl.DefaultFileHashCache;
 import com.facebook.buck.util.cache.impl.StackedFileHashCache;
 import com.facebook.buck.util.hashing.FileHashLoader;
+import com.facebook.buck.util.types.Either;
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Optional;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -72,6 +75,7 @@ public class DirectHeaderMapTest {
   private ImmutableMap<Path, SourcePath> links;
   private Path symlinkTreeRoot;
   private Path headerMapPath;
+  private Path vfsOverlayPath;
   private Path file1;
   private Path file2;
 
@@ -113,7 +117,8 @@ public class DirectHeaderMapTest {
     buildRule = new DirectHeaderMap(buildTarget, projectFilesystem, symlinkTreeRoot, links);
     graphBuilder.addToIndex(buildRule);
 
-    headerMapPath = pathResolver.getRelativePath(buildRule.getSourcePathToOutput());
+    headerMapPath = pathResolver.getRelativePath(buildRule.getHeaderMapSourcePath().get());
+    vfsOverlayPath = pathResolver.getRelativePath(buildRule.getVfsOverlaySourcePath().get());
   }
 
   @Test
@@ -128,14 +133,23 @@ public class DirectHeaderMapTest {
                 BuildCellRelativePath.fromCellRelativePath(
                     buildContext.getBuildCellRootPath(), projectFilesystem, buildRule.getRoot()),
                 true),
-            MkdirStep.of(
-                BuildCellRelativePath.fromCellRelativePath(
-                    buildContext.getBuildCellRootPath(), projectFilesystem, buildRule.getRoot())),
             MkdirStep.of(
                 BuildCellRelativePath.fromCellRelativePath(
                     buildContext.getBuildCellRootPath(),
                     projectFilesystem,
-                    headerMapPath.getParent())),
+                    vfsOverlayPath.getParent())),
+            RmStep.of(
+                BuildCellRelativePath.fromCellRelativePath(
+                    buildContext.getBuildCellRootPath(), projectFilesystem, vfsOverlayPath)),
+            new VFSOverlayStep(
+                projectFilesystem,
+                vfsOverlayPath,
+                ImmutableSortedMap.of(
+                    projectFilesystem.resolve(buildRule.getRoot().resolve("file")),
+                    file1,
+                    projectFilesystem.resolve(buildRule.getRoot().resolve("directory/then/file")),
+                    file2),
+                buildableContext),
             RmStep.of(
                 BuildCellRelativePath.fromCellRelativePath(
                     buildContext.getBuildCellRootPath(), projectFilesystem, headerMapPath)),
@@ -150,6 +164,77 @@ public class DirectHeaderMapTest {
     assertEquals(expectedBuildSteps, actualBuildSteps.subList(1, actualBuildSteps.size()));
   }
 
+  @Test
+  public void testBuildStepsWithoutHeaderMap() throws IOException {
+    Path sibling = tmpDir.newFolder("other").resolve("sibling");
+    Files.write(sibling, "hello world".getBytes(Charsets.UTF_8));
+    BuildTarget overlayTarget = BuildTargetFactory.newInstance("//test:overlay");
+    DirectHeaderMap overlayRule =
+        new DirectHeaderMap(
+            overlayTarget,
+            projectFilesystem,
+            BuildTargetPaths.getGenPath(projectFilesystem, overlayTarget, "%s/symlink-tree-root"),
+            ImmutableMap.of(
+                Paths.get("file"),
+                links.get(Paths.get("file")),
+                Paths.get("sibling"),
+                PathSourcePath.of(
+                    projectFilesystem, MorePaths.relativize(tmpDir.getRoot(), sibling))));
+    graphBuilder.addToIndex(overlayRule);
+    Path overlayPath = pathResolver.getRelativePath(overlayRule.getVfsOverlaySourcePath().get());
+
+    BuildContext buildContext = FakeBuildContext.withSourcePathResolver(pathResolver);
+    FakeBuildableContext buildableContext = new FakeBuildableContext();
+    ImmutableList<Step> expectedBuildSteps =
+        ImmutableList.of(
+            RmStep.of(
+                BuildCellRelativePath.fromCellRelativePath(
+                    buildContext.getBuildCellRootPath(), projectFilesystem, overlayRule.getRoot()),
+                true),
+            MkdirStep.of(
+                BuildCellRelativePath.fromCellRelativePath(
+                    buildContext.getBuildCellRootPath(),
+                    projectFilesystem,
+                    overlayPath.getParent())),
+            RmStep.of(
+                BuildCellRelativePath.fromCellRelativePath(
+                    buildContext.getBuildCellRootPath(), projectFilesystem, overlayPath)),
+            new VFSOverlayStep(
+                projectFilesystem,
+                overlayPath,
+                ImmutableSortedMap.of(
+                    projectFilesystem.resolve(overlayRule.getRoot().resolve("file")), file1,
+                    projectFilesystem.resolve(overlayRule.getRoot().resolve("sibling")), sibling),
+                buildableContext));
+    ImmutableList<Step> actualBuildSteps =
+        overlayRule.getBuildSteps(buildContext, buildableContext);
+    assertEquals(expectedBuildSteps, actualBuildSteps.subList(1, actualBuildSteps.size()));
+    assertEquals(Optional.empty(), overlayRule.getHeaderMapSourcePath());
+
+    CxxSymlinkTreeHeaders headers =
+        CxxSymlinkTreeHeaders.from(overlayRule, CxxPreprocessables.IncludeType.LOCAL);
+    assertEquals(Either.ofRight(overlayRule.getRootSourcePath()), headers.getIncludeRoot());
+    assertEquals(overlayRule.getVfsOverlaySourcePath(), headers.getVfsOverlay());
+  }
+
+  @Test
+  public void testLocalHeadersAreFoundThroughHeaderMap() {
+    CxxSymlinkTreeHeaders headers =
+        CxxSymlinkTreeHeaders.from(buildRule, CxxPreprocessables.IncludeType.LOCAL);
+    assertEquals(buildRule.getHeaderMapSourcePath(), headers.getHeaderMap());
+    assertEquals(Either.ofLeft(buildRule.getIncludeSourcePath()), headers.getIncludeRoot());
+    assertEquals(Optional.empty(), headers.getVfsOverlay());
+  }
+
+  @Test
+  public void testSystemHeadersAreFoundThroughVfsOverlay() {
+    CxxSymlinkTreeHeaders headers =
+        CxxSymlinkTreeHeaders.from(buildRule, CxxPreprocessables.IncludeType.SYSTEM);
+    assertEquals(Optional.empty(), headers.getHeaderMap());
+    assertEquals(Either.ofRight(buildRule.getRootSourcePath()), headers.getIncludeRoot());
+    assertEquals(buildRule.getVfsOverlaySourcePath(), headers.getVfsOverlay());
+  }
+
   @Test
   public void testSymlinkTreeRuleKeysChangeIfLinkMapChanges() throws Exception {
     Path aFile = tmpDir.newFile();
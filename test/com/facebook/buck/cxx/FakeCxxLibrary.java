@@ -108,7 +108,7 @@ public final class FakeCxxLibrary extends NoopBuildRuleWithDeclaredAndExtraDeps
       CxxPlatform cxxPlatform, ActionGraphBuilder graphBuilder) {
     return CxxPreprocessorInput.builder()
         .addIncludes(
-            ImmutableCxxSymlinkTreeHeaders.of(
+            CxxSymlinkTreeHeaders.of(
                 CxxPreprocessables.IncludeType.LOCAL,
                 DefaultBuildTargetSourcePath.of(publicHeaderSymlinkTreeTarget),
                 Either.ofRight(DefaultBuildTargetSourcePath.of(publicHeaderSymlinkTreeTarget)),
@@ -124,7 +124,7 @@ public final class FakeCxxLibrary extends NoopBuildRuleWithDeclaredAndExtraDeps
       CxxPlatform cxxPlatform, ActionGraphBuilder graphBuilder) {
     return CxxPreprocessorInput.builder()
         .addIncludes(
-            ImmutableCxxSymlinkTreeHeaders.of(
+            CxxSymlinkTreeHeaders.of(
                 CxxPreprocessables.IncludeType.LOCAL,
                 DefaultBuildTargetSourcePath.of(privateHeaderSymlinkTreeTarget),
                 Either.ofRight(DefaultBuildTargetSourcePath.of(privateHeaderSymlinkTreeTarget)),
@@ -141,6 +141,12 @@ public final class FakeCxxLibrary extends NoopBuildRuleWithDeclaredAndExtraDeps
     return transitiveCxxPreprocessorInputCache.getUnchecked(cxxPlatform, graphBuilder);
   }
 
+  @Override
+  public TransitiveCxxPreprocessorInputs getTransitiveCxxPreprocessorInputs(
+      CxxPlatform cxxPlatform, ActionGraphBuilder graphBuilder) {
+    return transitiveCxxPreprocessorInputCache.getInputsUnchecked(cxxPlatform, graphBuilder);
+  }
+
   @Override
   public Iterable<NativeLinkableGroup> getNativeLinkableDeps(BuildRuleResolver ruleResolver) {
     return FluentIterable.from(getDeclaredDeps()).filter(NativeLinkableGroup.class);
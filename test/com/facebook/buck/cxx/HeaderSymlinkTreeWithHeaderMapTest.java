@@ -33,7 +33,6 @@ import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
 import com.facebook.buck.core.sourcepath.PathSourcePath;
 import com.facebook.buck.core.sourcepath.SourcePath;
 import com.facebook.buck.core.sourcepath.resolver.SourcePathResolverAdapter;
-import com.facebook.buck.io.BuildCellRelativePath;
 import com.facebook.buck.io.file.MorePaths;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.TestProjectFilesystems;
@@ -43,9 +42,8 @@ import com.facebook.buck.rules.keys.InputBasedRuleKeyFactory;
 import com.facebook.buck.rules.keys.TestDefaultRuleKeyFactory;
 import com.facebook.buck.rules.keys.TestInputBasedRuleKeyFactory;
 import com.facebook.buck.step.Step;
-import com.facebook.buck.step.fs.MakeCleanDirectoryStep;
 import com.facebook.buck.step.fs.SymlinkMapsPaths;
-import com.facebook.buck.step.fs.SymlinkTreeMergeStep;
+import com.facebook.buck.step.fs.SymlinkTreeSyncStep;
 import com.facebook.buck.testutil.FakeFileHashCache;
 import com.facebook.buck.testutil.TemporaryPaths;
 import com.facebook.buck.util.cache.FileHashCacheMode;
@@ -59,6 +57,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Optional;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -121,17 +120,16 @@ public class HeaderSymlinkTreeWithHeaderMapTest {
 
     ImmutableList<Step> expectedBuildSteps =
         new ImmutableList.Builder<Step>()
-            .addAll(
-                MakeCleanDirectoryStep.of(
-                    BuildCellRelativePath.fromCellRelativePath(
-                        buildContext.getBuildCellRootPath(), projectFilesystem, symlinkTreeRoot)))
             .add(
-                new SymlinkTreeMergeStep(
+                new SymlinkTreeSyncStep(
                     "cxx_header",
                     projectFilesystem,
                     symlinkTreeRoot,
                     new SymlinkMapsPaths(resolver.getMappedPaths(links)),
-                    (fs, p) -> false))
+                    (fs, p) -> false,
+                    Optional.of(
+                        BuildTargetPaths.getScratchPath(
+                            projectFilesystem, buildTarget, "__%s__symlink_tree_manifest"))))
             .add(
                 new HeaderMapStep(
                     projectFilesystem,
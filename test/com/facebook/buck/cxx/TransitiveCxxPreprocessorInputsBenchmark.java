@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.rules.args.StringArg;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Compares computing the transitive preprocessor inputs of every library in a deep graph by copying
+ * the maps of dependencies, as {@link TransitiveCxxPreprocessorInputCache} used to, with sharing
+ * {@link TransitiveCxxPreprocessorInputs} between libraries and flattening them for compilation.
+ */
+public class TransitiveCxxPreprocessorInputsBenchmark {
+
+  @Param({"1000", "10000"})
+  private int libraryCount = 10000;
+
+  @Param({"4"})
+  private int depsPerLibrary = 4;
+
+  private List<BuildTarget> targets;
+  private List<CxxPreprocessorInput> inputs;
+  private List<int[]> deps;
+
+  @Before
+  public void setUp() {
+    setUpBenchmark();
+  }
+
+  /**
+   * Libraries are in topological order, and depend on libraries close below them, so the graph is
+   * deep, as in large C++ codebases.
+   */
+  @BeforeExperiment
+  public void setUpBenchmark() {
+    Random random = new Random(12345);
+    targets = new ArrayList<>(libraryCount);
+    inputs = new ArrayList<>(libraryCount);
+    deps = new ArrayList<>(libraryCount);
+    for (int i = 0; i < libraryCount; i++) {
+      targets.add(BuildTargetFactory.newInstance("//lib" + i + ":lib" + i));
+      inputs.add(
+          CxxPreprocessorInput.builder()
+              .putPreprocessorFlags(CxxSource.Type.CXX, StringArg.of("-DLIB" + i))
+              .build());
+      int[] libraryDeps = new int[Math.min(i, depsPerLibrary)];
+      for (int j = 0; j < libraryDeps.length; j++) {
+        libraryDeps[j] = i - 1 - random.nextInt(Math.min(i, 50));
+      }
+      deps.add(libraryDeps);
+    }
+  }
+
+  @Ignore
+  @Test
+  public void testTimeAndRetainedHeap() {
+    for (int i = 0; i < 3; i++) {
+      report("copying maps", this::copyMaps);
+      report("shared inputs", this::shareInputs);
+    }
+  }
+
+  @Benchmark
+  public long benchCopyingMaps() {
+    long total = 0;
+    for (Map<BuildTarget, CxxPreprocessorInput> map : copyMaps()) {
+      total += map.size();
+    }
+    return total;
+  }
+
+  @Benchmark
+  public long benchSharedInputs() {
+    long total = 0;
+    for (TransitiveCxxPreprocessorInputs library : shareInputs()) {
+      // Flatten each library once, as compiling it would.
+      total += library.toMap().size();
+    }
+    return total;
+  }
+
+  /** @return the transitive inputs of every library, computed as they used to be. */
+  private List<ImmutableMap<BuildTarget, CxxPreprocessorInput>> copyMaps() {
+    List<ImmutableMap<BuildTarget, CxxPreprocessorInput>> result = new ArrayList<>(libraryCount);
+    for (int i = 0; i < libraryCount; i++) {
+      Map<BuildTarget, CxxPreprocessorInput> builder = new HashMap<>();
+      builder.put(targets.get(i), inputs.get(i));
+      for (int dep : deps.get(i)) {
+        builder.putAll(result.get(dep));
+      }
+      result.add(ImmutableSortedMap.copyOf(builder));
+    }
+    return result;
+  }
+
+  /** @return the transitive inputs of every library, sharing structure. */
+  private List<TransitiveCxxPreprocessorInputs> shareInputs() {
+    List<TransitiveCxxPreprocessorInputs> result = new ArrayList<>(libraryCount);
+    for (int i = 0; i < libraryCount; i++) {
+      List<TransitiveCxxPreprocessorInputs> children = new ArrayList<>();
+      for (int dep : deps.get(i)) {
+        children.add(result.get(dep));
+      }
+      result.add(TransitiveCxxPreprocessorInputs.of(targets.get(i), inputs.get(i), children));
+    }
+    return result;
+  }
+
+  private void report(String name, Supplier<List<?>> computation) {
+    long heapBefore = usedHeap();
+    long start = System.nanoTime();
+    List<?> result = computation.get();
+    long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+    long retained = usedHeap() - heapBefore;
+    System.out.printf(
+        "%d libraries, %s: %d ms, %.1f MB retained%n",
+        result.size(), name, elapsedMs, retained / (1024.0 * 1024.0));
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
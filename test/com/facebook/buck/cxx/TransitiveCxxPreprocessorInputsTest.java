@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.rules.args.StringArg;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+
+public class TransitiveCxxPreprocessorInputsTest {
+
+  private static final BuildTarget A = BuildTargetFactory.newInstance("//:a");
+  private static final BuildTarget B = BuildTargetFactory.newInstance("//:b");
+  private static final BuildTarget C = BuildTargetFactory.newInstance("//:c");
+  private static final BuildTarget D = BuildTargetFactory.newInstance("//:d");
+
+  @Test
+  public void flattensSharedDependenciesOnce() {
+    TransitiveCxxPreprocessorInputs d =
+        TransitiveCxxPreprocessorInputs.of(D, input("d"), ImmutableList.of());
+    TransitiveCxxPreprocessorInputs b =
+        TransitiveCxxPreprocessorInputs.of(B, input("b"), ImmutableList.of(d));
+    TransitiveCxxPreprocessorInputs c =
+        TransitiveCxxPreprocessorInputs.of(C, input("c"), ImmutableList.of(d));
+    TransitiveCxxPreprocessorInputs a =
+        TransitiveCxxPreprocessorInputs.of(A, input("a"), ImmutableList.of(c, b));
+
+    assertEquals(ImmutableList.of(A, B, C, D), ImmutableList.copyOf(a.toMap().keySet()));
+    assertEquals(input("d"), a.toMap().get(D));
+  }
+
+  @Test
+  public void identicalInputsShareANode() {
+    TransitiveCxxPreprocessorInputs d1 =
+        TransitiveCxxPreprocessorInputs.of(D, input("d"), ImmutableList.of());
+    TransitiveCxxPreprocessorInputs d2 =
+        TransitiveCxxPreprocessorInputs.of(D, input("d"), ImmutableList.of());
+    assertSame(d1, d2);
+    assertSame(
+        TransitiveCxxPreprocessorInputs.of(B, input("b"), ImmutableList.of(d1)),
+        TransitiveCxxPreprocessorInputs.of(B, input("b"), ImmutableList.of(d2)));
+  }
+
+  @Test
+  public void unionOfASingleNodeIsThatNode() {
+    TransitiveCxxPreprocessorInputs d =
+        TransitiveCxxPreprocessorInputs.of(D, input("d"), ImmutableList.of());
+    assertSame(d, TransitiveCxxPreprocessorInputs.union(ImmutableList.of(d, d)));
+    assertSame(
+        TransitiveCxxPreprocessorInputs.EMPTY,
+        TransitiveCxxPreprocessorInputs.union(ImmutableList.of()));
+  }
+
+  @Test
+  public void plainMapsKeepTheirOrder() {
+    ImmutableMap<BuildTarget, CxxPreprocessorInput> inputs =
+        ImmutableMap.of(C, input("c"), A, input("a"), B, input("b"));
+    assertEquals(
+        ImmutableList.copyOf(inputs.entrySet()),
+        ImmutableList.copyOf(TransitiveCxxPreprocessorInputs.of(inputs).toMap().entrySet()));
+  }
+
+  @Test
+  public void addToSkipsVisitedNodes() {
+    TransitiveCxxPreprocessorInputs d =
+        TransitiveCxxPreprocessorInputs.of(D, input("d"), ImmutableList.of());
+    TransitiveCxxPreprocessorInputs b =
+        TransitiveCxxPreprocessorInputs.of(B, input("b"), ImmutableList.of(d));
+    TransitiveCxxPreprocessorInputs c =
+        TransitiveCxxPreprocessorInputs.of(C, input("c"), ImmutableList.of(d));
+
+    Set<TransitiveCxxPreprocessorInputs> visited = Sets.newIdentityHashSet();
+    Map<BuildTarget, CxxPreprocessorInput> result = new LinkedHashMap<>();
+    c.addTo(visited, result);
+    b.addTo(visited, result);
+    assertEquals(ImmutableList.of(C, D, B), ImmutableList.copyOf(result.keySet()));
+  }
+
+  private static CxxPreprocessorInput input(String flag) {
+    return CxxPreprocessorInput.builder()
+        .putPreprocessorFlags(CxxSource.Type.C, StringArg.of("-D" + flag))
+        .build();
+  }
+}
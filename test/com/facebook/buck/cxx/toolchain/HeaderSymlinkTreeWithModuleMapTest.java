@@ -40,16 +40,14 @@ import com.facebook.buck.core.sourcepath.FakeSourcePath;
 import com.facebook.buck.core.sourcepath.PathSourcePath;
 import com.facebook.buck.core.sourcepath.SourcePath;
 import com.facebook.buck.core.sourcepath.resolver.SourcePathResolverAdapter;
-import com.facebook.buck.io.BuildCellRelativePath;
 import com.facebook.buck.io.file.MorePaths;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.TestProjectFilesystems;
 import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
 import com.facebook.buck.rules.keys.TestDefaultRuleKeyFactory;
 import com.facebook.buck.step.Step;
-import com.facebook.buck.step.fs.MakeCleanDirectoryStep;
 import com.facebook.buck.step.fs.SymlinkMapsPaths;
-import com.facebook.buck.step.fs.SymlinkTreeMergeStep;
+import com.facebook.buck.step.fs.SymlinkTreeSyncStep;
 import com.facebook.buck.testutil.TemporaryPaths;
 import com.facebook.buck.util.cache.FileHashCacheMode;
 import com.facebook.buck.util.cache.impl.DefaultFileHashCache;
@@ -61,6 +59,7 @@ import com.google.common.collect.ImmutableMap;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Optional;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -123,17 +122,16 @@ public class HeaderSymlinkTreeWithModuleMapTest {
 
     ImmutableList<Step> expectedBuildSteps =
         new ImmutableList.Builder<Step>()
-            .addAll(
-                MakeCleanDirectoryStep.of(
-                    BuildCellRelativePath.fromCellRelativePath(
-                        buildContext.getBuildCellRootPath(), projectFilesystem, symlinkTreeRoot)))
             .add(
-                new SymlinkTreeMergeStep(
+                new SymlinkTreeSyncStep(
                     "cxx_header",
                     projectFilesystem,
                     symlinkTreeRoot,
                     new SymlinkMapsPaths(resolver.getMappedPaths(links)),
-                    (fs, p) -> false))
+                    (fs, p) -> false,
+                    Optional.of(
+                        BuildTargetPaths.getScratchPath(
+                            projectFilesystem, buildTarget, "__%s__symlink_tree_manifest"))))
             .add(
                 new ModuleMapStep(
                     projectFilesystem,
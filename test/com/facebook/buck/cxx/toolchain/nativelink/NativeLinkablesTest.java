@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.cxx.toolchain.nativelink;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.model.TargetConfiguration;
+import com.facebook.buck.core.rules.ActionGraphBuilder;
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.core.sourcepath.SourcePath;
+import com.facebook.buck.cxx.toolchain.linker.Linker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import org.junit.Test;
+
+public class NativeLinkablesTest {
+
+  @Test
+  public void memoizedOrderMatchesSnowflakeSort() {
+    Random random = new Random(42);
+    List<FakeNativeLinkable> linkables = new ArrayList<>();
+    NativeLinkableGroup.Linkage[] linkages = NativeLinkableGroup.Linkage.values();
+    for (int i = 0; i < 200; i++) {
+      FakeNativeLinkable linkable =
+          new FakeNativeLinkable(
+              String.format("//lib:%03d", random.nextInt(1000)),
+              linkages[random.nextInt(linkages.length)]);
+      for (int j = 0; j < Math.min(i, 3); j++) {
+        FakeNativeLinkable dep = linkables.get(i - 1 - random.nextInt(Math.min(i, 20)));
+        if (random.nextBoolean()) {
+          linkable.deps.add(dep);
+        } else {
+          linkable.exportedDeps.add(dep);
+        }
+      }
+      linkables.add(linkable);
+    }
+
+    ActionGraphBuilder graphBuilder = new TestActionGraphBuilder();
+    for (Linker.LinkableDepType linkStyle : Linker.LinkableDepType.values()) {
+      for (int i = 0; i < 20; i++) {
+        ImmutableList<FakeNativeLinkable> roots =
+            ImmutableList.of(
+                linkables.get(100 + random.nextInt(100)), linkables.get(random.nextInt(200)));
+        assertEquals(
+            NativeLinkables.getNativeLinkables(graphBuilder, roots, linkStyle, x -> true),
+            NativeLinkables.getNativeLinkables(graphBuilder, roots, linkStyle));
+      }
+    }
+  }
+
+  @Test
+  public void depsAreOnlyQueriedOncePerGraph() {
+    FakeNativeLinkable c = new FakeNativeLinkable("//:c", NativeLinkableGroup.Linkage.ANY);
+    FakeNativeLinkable b = new FakeNativeLinkable("//:b", NativeLinkableGroup.Linkage.ANY, c);
+    FakeNativeLinkable a = new FakeNativeLinkable("//:a", NativeLinkableGroup.Linkage.ANY, b, c);
+    FakeNativeLinkable d = new FakeNativeLinkable("//:d", NativeLinkableGroup.Linkage.ANY, b);
+
+    ActionGraphBuilder graphBuilder = new TestActionGraphBuilder();
+    assertEquals(
+        ImmutableList.of(a, b, c),
+        NativeLinkables.getNativeLinkables(
+            graphBuilder, ImmutableList.of(a), Linker.LinkableDepType.STATIC));
+    assertEquals(
+        ImmutableList.of(d, b, c),
+        NativeLinkables.getNativeLinkables(
+            graphBuilder, ImmutableList.of(d), Linker.LinkableDepType.STATIC_PIC));
+    assertEquals(1, b.depQueries);
+    assertEquals(1, c.depQueries);
+
+    // Shared links don't traverse the deps of linkables preferring any linkage.
+    assertEquals(
+        ImmutableList.of(d),
+        NativeLinkables.getNativeLinkables(
+            graphBuilder, ImmutableList.of(d), Linker.LinkableDepType.SHARED));
+
+    NativeLinkables.getNativeLinkables(
+        new TestActionGraphBuilder(), ImmutableList.of(a), Linker.LinkableDepType.STATIC);
+    assertEquals(2, b.depQueries);
+  }
+
+  private static class FakeNativeLinkable implements NativeLinkable {
+    private final BuildTarget target;
+    private final NativeLinkableGroup.Linkage linkage;
+    private final List<NativeLinkable> deps = new ArrayList<>();
+    private final List<NativeLinkable> exportedDeps = new ArrayList<>();
+    private int depQueries = 0;
+
+    FakeNativeLinkable(
+        String target, NativeLinkableGroup.Linkage linkage, NativeLinkable... deps) {
+      this.target = BuildTargetFactory.newInstance(target);
+      this.linkage = linkage;
+      this.deps.addAll(ImmutableList.copyOf(deps));
+    }
+
+    @Override
+    public BuildTarget getBuildTarget() {
+      return target;
+    }
+
+    @Override
+    public Iterable<? extends NativeLinkable> getNativeLinkableDeps(
+        ActionGraphBuilder graphBuilder) {
+      depQueries++;
+      return deps;
+    }
+
+    @Override
+    public Iterable<? extends NativeLinkable> getNativeLinkableExportedDeps(
+        ActionGraphBuilder graphBuilder) {
+      return exportedDeps;
+    }
+
+    @Override
+    public NativeLinkableInput getNativeLinkableInput(
+        Linker.LinkableDepType type,
+        boolean forceLinkWhole,
+        ActionGraphBuilder graphBuilder,
+        TargetConfiguration targetConfiguration) {
+      return NativeLinkableInput.of();
+    }
+
+    @Override
+    public Optional<NativeLinkTarget> getNativeLinkTarget(
+        ActionGraphBuilder graphBuilder, boolean includePrivateLinkerFlags) {
+      return Optional.empty();
+    }
+
+    @Override
+    public NativeLinkableGroup.Linkage getPreferredLinkage() {
+      return linkage;
+    }
+
+    @Override
+    public ImmutableMap<String, SourcePath> getSharedLibraries(ActionGraphBuilder graphBuilder) {
+      return ImmutableMap.of();
+    }
+
+    @Override
+    public boolean shouldBeLinkedInAppleTestAndHost() {
+      return false;
+    }
+
+    @Override
+    public String toString() {
+      return target.toString();
+    }
+  }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.cxx.toolchain.objectfile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.testutil.integration.TestDataHelper;
+import com.facebook.buck.util.environment.Platform;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.hamcrest.Matchers;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class ArchiveWriterTest {
+
+  private static final Path AR = Paths.get("/usr/bin/ar");
+  private static final Path RANLIB = Paths.get("/usr/bin/ranlib");
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  private ImmutableList<Path> members;
+
+  @Before
+  public void setUp() throws IOException {
+    // symbols.o defines weak, unique and data symbols, object_with_a_long_name.o a common symbol,
+    // and be32.o is a big-endian ARM object.
+    Path testData = TestDataHelper.getTestDataDirectory(this);
+    Path objects = tmp.newFolder("objects");
+    ImmutableList.Builder<Path> builder = ImmutableList.builder();
+    for (String name :
+        ImmutableList.of("be32.o", "data.txt", "object_with_a_long_name.o", "symbols.o")) {
+      builder.add(Files.copy(testData.resolve(name), objects.resolve(name)));
+    }
+    members = builder.build();
+  }
+
+  @Test
+  public void elfSymbolsAreGlobalDefinitionsInSymbolTableOrder() throws Exception {
+    assertEquals(
+        ImmutableList.of(
+            "_Z13weak_functionv", "_Z4callv", "_ZZ14unique_countervE7counter", "defined_global"),
+        getDefinedSymbols(members.get(3)));
+    assertEquals(
+        ImmutableList.of("defined_in_long_named_object", "common_symbol"),
+        getDefinedSymbols(members.get(2)));
+    assertEquals(ImmutableList.of("main"), getDefinedSymbols(members.get(0)));
+    assertEquals(
+        false, ArchiveWriter.getDefinedSymbols(ByteBuffer.wrap(readAllBytes(1))).isPresent());
+  }
+
+  @Test
+  public void machoSymbolsAreExternalDefinitionsAndCommons() throws Exception {
+    String strings = "\0_global\0_local\0_undefined\0_common\0_stab\0";
+    int symbolCount = 5;
+    ByteBuffer buffer = ByteBuffer.allocate(32 + 24 + 16 * symbolCount + strings.length());
+    // mach_header_64 of an object with a single command.
+    ObjectFileScrubbers.putLittleEndianInt(buffer, 0xfeedfacf);
+    ObjectFileScrubbers.putLittleEndianInt(buffer, 0x01000007);
+    ObjectFileScrubbers.putLittleEndianInt(buffer, 3);
+    ObjectFileScrubbers.putLittleEndianInt(buffer, 1);
+    ObjectFileScrubbers.putLittleEndianInt(buffer, 1);
+    ObjectFileScrubbers.putLittleEndianInt(buffer, 24);
+    ObjectFileScrubbers.putLittleEndianInt(buffer, 0);
+    ObjectFileScrubbers.putLittleEndianInt(buffer, 0);
+    // symtab_command
+    ObjectFileScrubbers.putLittleEndianInt(buffer, Machos.LC_SYMTAB);
+    ObjectFileScrubbers.putLittleEndianInt(buffer, 24);
+    ObjectFileScrubbers.putLittleEndianInt(buffer, 56);
+    ObjectFileScrubbers.putLittleEndianInt(buffer, symbolCount);
+    ObjectFileScrubbers.putLittleEndianInt(buffer, 56 + 16 * symbolCount);
+    ObjectFileScrubbers.putLittleEndianInt(buffer, strings.length());
+    putNlist(buffer, strings.indexOf("_global"), 0x0f, 1, 0x10);
+    putNlist(buffer, strings.indexOf("_local"), 0x0e, 1, 0x20);
+    putNlist(buffer, strings.indexOf("_undefined"), 0x01, 0, 0);
+    putNlist(buffer, strings.indexOf("_common"), 0x01, 0, 8);
+    putNlist(buffer, strings.indexOf("_stab"), 0x24, 1, 0x10);
+    buffer.put(strings.getBytes(Charsets.US_ASCII));
+    buffer.rewind();
+
+    assertEquals(
+        ImmutableList.of("_global", "_common"),
+        ArchiveWriter.getDefinedSymbols(buffer).get().stream()
+            .map(symbol -> new String(symbol, Charsets.US_ASCII))
+            .collect(Collectors.toList()));
+  }
+
+  @Test
+  public void gnuArchivesMatchScrubbedArAndRanlibOutput() throws Exception {
+    assumeTrue(Platform.detect() == Platform.LINUX);
+    assumeTrue(Files.isExecutable(AR) && Files.isExecutable(RANLIB));
+
+    Path expected = tmp.getRoot().resolve("expected.a");
+    runArAndRanlib("qc", expected);
+    Path actual = tmp.getRoot().resolve("actual.a");
+    new ArchiveWriter(ArchiveWriter.Format.GNU, false).write(actual, members);
+
+    assertArrayEquals(Files.readAllBytes(expected), Files.readAllBytes(actual));
+  }
+
+  @Test
+  public void thinGnuArchivesMatchScrubbedArAndRanlibOutput() throws Exception {
+    assumeTrue(Platform.detect() == Platform.LINUX);
+    assumeTrue(Files.isExecutable(AR) && Files.isExecutable(RANLIB));
+
+    Path expected = tmp.newFolder("out").resolve("expected.a");
+    runArAndRanlib("qcT", expected);
+    Path actual = tmp.getRoot().resolve("out").resolve("actual.a");
+    new ArchiveWriter(ArchiveWriter.Format.GNU, true).write(actual, members);
+
+    assertArrayEquals(Files.readAllBytes(expected), Files.readAllBytes(actual));
+  }
+
+  @Test
+  public void bsdArchivesAlignMembersAndSortTheirSymbols() throws Exception {
+    Path output = tmp.getRoot().resolve("output.a");
+    new ArchiveWriter(ArchiveWriter.Format.BSD, false).write(output, members);
+    ByteBuffer archive = ByteBuffer.wrap(Files.readAllBytes(output));
+
+    assertArrayEquals(
+        ObjectFileScrubbers.GLOBAL_HEADER, ObjectFileScrubbers.getBytes(archive, 8));
+    List<String> names = new ArrayList<>();
+    List<Integer> offsets = new ArrayList<>();
+    ByteBuffer symbolTable = null;
+    while (archive.hasRemaining()) {
+      int offset = archive.position();
+      assertEquals(0, offset % 8);
+      String name = new String(ObjectFileScrubbers.getBytes(archive, 16), Charsets.US_ASCII).trim();
+      /* metadata */ ObjectFileScrubbers.getBytes(archive, 32);
+      long size = ObjectFileScrubbers.getDecimalStringAsLong(archive, 10);
+      assertArrayEquals(
+          ObjectFileScrubbers.END_OF_FILE_HEADER_MARKER, ObjectFileScrubbers.getBytes(archive, 2));
+      assertThat(name, Matchers.startsWith("#1/"));
+      int nameSize = Integer.parseInt(name.substring(3));
+      name = new String(ObjectFileScrubbers.getBytes(archive, nameSize), Charsets.UTF_8).trim();
+      assertEquals(0, archive.position() % 8);
+      ByteBuffer contents = archive.slice();
+      contents.limit((int) size - nameSize);
+      if (symbolTable == null) {
+        assertEquals("__.SYMDEF SORTED", name);
+        symbolTable = contents;
+      } else {
+        names.add(name);
+        offsets.add(offset);
+      }
+      archive.position(archive.position() + contents.limit());
+    }
+    assertEquals(
+        ImmutableList.of("be32.o", "data.txt", "object_with_a_long_name.o", "symbols.o"), names);
+
+    int entriesSize = ObjectFileScrubbers.getLittleEndianInt(symbolTable);
+    ByteBuffer entries = symbolTable.slice();
+    symbolTable.position(symbolTable.position() + entriesSize);
+    /* strings size */ ObjectFileScrubbers.getLittleEndianInt(symbolTable);
+    byte[] strings = ObjectFileScrubbers.getBytes(symbolTable, symbolTable.remaining());
+    List<String> symbols = new ArrayList<>();
+    for (int i = 0; i < entriesSize / 8; i++) {
+      int stringIndex = ObjectFileScrubbers.getLittleEndianInt(entries);
+      int offset = ObjectFileScrubbers.getLittleEndianInt(entries);
+      symbols.add(getString(strings, stringIndex) + "@" + names.get(offsets.indexOf(offset)));
+    }
+    assertEquals(
+        ImmutableList.of(
+            "_Z13weak_functionv@symbols.o",
+            "_Z4callv@symbols.o",
+            "_ZZ14unique_countervE7counter@symbols.o",
+            "common_symbol@object_with_a_long_name.o",
+            "defined_global@symbols.o",
+            "defined_in_long_named_object@object_with_a_long_name.o",
+            "main@be32.o"),
+        symbols);
+  }
+
+  @Test
+  public void archivesWithoutMembersOnlyHaveAGlobalHeader() throws Exception {
+    Path output = tmp.getRoot().resolve("output.a");
+    new ArchiveWriter(ArchiveWriter.Format.GNU, false).write(output, ImmutableList.of());
+    assertArrayEquals(ObjectFileScrubbers.GLOBAL_HEADER, Files.readAllBytes(output));
+  }
+
+  @Test
+  public void bitcodeMembersAreRejected() throws Exception {
+    Path bitcode = tmp.newFile("lto.o");
+    Files.write(bitcode, new byte[] {'B', 'C', (byte) 0xc0, (byte) 0xde, 0x35, 0x14, 0, 0});
+
+    thrown.expect(IOException.class);
+    thrown.expectMessage("LLVM bitcode");
+    new ArchiveWriter(ArchiveWriter.Format.GNU, false)
+        .write(tmp.getRoot().resolve("output.a"), ImmutableList.of(bitcode));
+  }
+
+  private List<String> getDefinedSymbols(Path object) throws Exception {
+    return ArchiveWriter.getDefinedSymbols(ByteBuffer.wrap(Files.readAllBytes(object))).get()
+        .stream()
+        .map(symbol -> new String(symbol, Charsets.US_ASCII))
+        .collect(Collectors.toList());
+  }
+
+  private static String getString(byte[] strings, int index) {
+    int end = index;
+    while (strings[end] != 0) {
+      end++;
+    }
+    return new String(strings, index, end - index, Charsets.US_ASCII);
+  }
+
+  private byte[] readAllBytes(int member) throws IOException {
+    return Files.readAllBytes(members.get(member));
+  }
+
+  private static void putNlist(
+      ByteBuffer buffer, int stringIndex, int type, int section, long value) {
+    ObjectFileScrubbers.putLittleEndianInt(buffer, stringIndex);
+    buffer.put((byte) type);
+    buffer.put((byte) section);
+    buffer.putShort((short) 0);
+    ObjectFileScrubbers.putLittleEndianLong(buffer, value);
+  }
+
+  /**
+   * Archives the members with ar and ranlib, given paths relative to the root as {@code
+   * ArchiveStep} and {@code RanlibStep} do, then scrubs the archive as GNU archivers do.
+   */
+  private void runArAndRanlib(String options, Path output) throws Exception {
+    List<String> command = new ArrayList<>();
+    command.add(AR.toString());
+    command.add(options);
+    command.add(tmp.getRoot().relativize(output).toString());
+    for (Path member : members) {
+      command.add(tmp.getRoot().relativize(member).toString());
+    }
+    assertEquals(
+        0,
+        new ProcessBuilder(command)
+            .directory(tmp.getRoot().toFile())
+            .inheritIO()
+            .start()
+            .waitFor());
+    assertEquals(
+        0,
+        new ProcessBuilder(RANLIB.toString(), tmp.getRoot().relativize(output).toString())
+            .directory(tmp.getRoot().toFile())
+            .inheritIO()
+            .start()
+            .waitFor());
+    try (FileChannel channel =
+        FileChannel.open(output, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      ObjectFileScrubbers.createDateUidGidScrubber(ObjectFileScrubbers.PaddingStyle.LEFT)
+          .scrubFile(channel);
+    }
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.cxx.toolchain.objectfile;
+
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.io.file.FileContentsScrubber;
+import com.facebook.buck.io.file.FileScrubber;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.step.fs.FileScrubberStep;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Compares applying the object file scrubbers to a large, synthetic linked binary by opening and
+ * mapping the file once per scrubber against sharing a single mapping between them, as {@link
+ * FileScrubberStep} does.
+ *
+ * <p>The Mach-O input carries a debug map with an OSO entry for every other symbol, which is what
+ * the link scrubbers rewrite before hashing the whole file into its UUID. The ELF input is what
+ * shared library interfaces are left with: only its headers are touched, however big it is.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ObjectFileScrubbersBenchmark {
+
+  private static final Path REPO = Paths.get("/home/user/repo");
+
+  @Param({"512"})
+  public int fileSizeMb;
+
+  @Param({"200000"})
+  public int symbols;
+
+  private Path root;
+  private ProjectFilesystem filesystem;
+  private ExecutionContext context;
+  private Path machoTemplate;
+  private Path elfTemplate;
+  private Path macho;
+  private Path elf;
+
+  private ImmutableList<FileScrubber> machoScrubbers;
+  private ImmutableList<FileScrubber> elfScrubbers;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    root = Files.createTempDirectory("object-file-scrubbers-benchmark");
+    filesystem = TestProjectFilesystems.createProjectFilesystem(root);
+    context = TestExecutionContext.newInstance();
+    machoTemplate = root.resolve("template.dylib");
+    elfTemplate = root.resolve("template.so");
+    macho = root.resolve("scrubbed.dylib");
+    elf = root.resolve("scrubbed.so");
+
+    SyntheticMachoFile.write(machoTemplate, REPO, symbols, fileSizeMb * 1024 * 1024);
+    writeElf(elfTemplate, fileSizeMb * 1024 * 1024);
+
+    machoScrubbers =
+        ImmutableList.of(
+            new OsoSymbolsContentsScrubber(ImmutableMap.of(REPO, Paths.get(""))),
+            new LcUuidContentsScrubber(true));
+    elfScrubbers =
+        ImmutableList.of(
+            ObjectFileScrubbers.createElfEntryPointScrubber(),
+            ObjectFileScrubbers.createElfProgramHeadersScrubber());
+  }
+
+  @Setup(Level.Invocation)
+  public void copyInputs() throws IOException {
+    Files.copy(machoTemplate, macho, StandardCopyOption.REPLACE_EXISTING);
+    Files.copy(elfTemplate, elf, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    MoreFiles.deleteRecursively(root, RecursiveDeleteOption.ALLOW_INSECURE);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  public void machoMappingPerScrubber() throws Exception {
+    scrubOneAtATime(macho, machoScrubbers);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  public void machoSharedMapping() throws Exception {
+    scrub(macho, machoScrubbers);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  public void elfMappingPerScrubber() throws Exception {
+    scrubOneAtATime(elf, elfScrubbers);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  public void elfSharedMapping() throws Exception {
+    scrub(elf, elfScrubbers);
+  }
+
+  private void scrub(Path file, ImmutableList<FileScrubber> scrubbers) throws IOException {
+    Preconditions.checkState(
+        new FileScrubberStep(filesystem, root.relativize(file), scrubbers)
+            .execute(context)
+            .isSuccess());
+  }
+
+  private static void scrubOneAtATime(Path file, ImmutableList<FileScrubber> scrubbers)
+      throws IOException, FileScrubber.ScrubException {
+    for (FileScrubber scrubber : scrubbers) {
+      try (FileChannel channel =
+          FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        ((FileContentsScrubber) scrubber).scrubFile(channel);
+      }
+    }
+  }
+
+  /** Writes a 64-bit ELF shared object with a few program headers and no sections. */
+  private static void writeElf(Path path, int contentSize) throws IOException {
+    int programHeaders = 8;
+    ByteBuffer headers =
+        ByteBuffer.allocate(64 + programHeaders * 56).order(ByteOrder.LITTLE_ENDIAN);
+    headers.put(new byte[] {0x7f, 'E', 'L', 'F', 2, 1, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0});
+    headers.putShort((short) 3).putShort((short) 62).putInt(1);
+    headers.putLong(0x1000).putLong(64).putLong(0).putInt(0);
+    headers.putShort((short) 64).putShort((short) 56).putShort((short) programHeaders);
+    headers.putShort((short) 64).putShort((short) 0).putShort((short) 0);
+    for (int i = 0; i < programHeaders; i++) {
+      headers.putInt(1).putInt(5).putLong(i * 0x1000L).putLong(i * 0x1000L);
+      headers.putLong(i * 0x1000L).putLong(0x1000).putLong(0x1000).putLong(0x1000);
+    }
+    headers.flip();
+    try (FileChannel channel =
+        FileChannel.open(
+            path,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+      channel.write(headers);
+      ByteBuffer content = ByteBuffer.allocate(64 * 1024);
+      for (int written = 0; written < contentSize; written += content.capacity()) {
+        content.clear();
+        channel.write(content);
+      }
+    }
+  }
+
+  public static void main(String[] args) throws IOException, RunnerException {
+    Main.main(new String[] {ObjectFileScrubbersBenchmark.class.getName()});
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.cxx.toolchain.objectfile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.file.FileContentsScrubber;
+import com.facebook.buck.io.file.FileScrubber;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.step.fs.FileScrubberStep;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import org.hamcrest.Matchers;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class OsoSymbolsContentsScrubberTest {
+
+  private static final int SYMBOLS = 1000;
+  private static final int CONTENT_SIZE = 256 * 1024;
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  @Test
+  public void osoPathsAreRelativizedAndStringTableCompacted() throws Exception {
+    Path root = Paths.get("/home/user/repo");
+    Path file = tmp.getRoot().resolve("binary");
+    SyntheticMachoFile.write(file, root, SYMBOLS, CONTENT_SIZE);
+    long originalSize = Files.size(file);
+
+    scrubOneAtATime(file, ImmutableList.of(new OsoSymbolsContentsScrubber(cellRoots(root))));
+
+    String contents = new String(Files.readAllBytes(file), Charsets.ISO_8859_1);
+    assertFalse(contents.contains(root.toString()));
+    assertTrue(contents.contains("\0./buck-out/gen/lib0/source.o\0"));
+    assertTrue(contents.contains("\0_s1\0"));
+    assertThat(Files.size(file), Matchers.lessThan(originalSize));
+  }
+
+  @Test
+  public void scrubbingWithASharedMappingMatchesScrubbingOneAtATime() throws Exception {
+    Path root = Paths.get("/home/user/repo");
+    Path shared = tmp.getRoot().resolve("shared");
+    Path separate = tmp.getRoot().resolve("separate");
+    SyntheticMachoFile.write(shared, root, SYMBOLS, CONTENT_SIZE);
+    SyntheticMachoFile.write(separate, root, SYMBOLS, CONTENT_SIZE);
+
+    ImmutableList<FileScrubber> scrubbers =
+        ImmutableList.of(
+            new OsoSymbolsContentsScrubber(cellRoots(root)), new LcUuidContentsScrubber(false));
+    scrub(shared, scrubbers);
+    scrubOneAtATime(separate, scrubbers);
+
+    assertArrayEquals(Files.readAllBytes(separate), Files.readAllBytes(shared));
+  }
+
+  @Test
+  public void scrubbedFilesDoNotDependOnTheRepositoryLocation() throws Exception {
+    Path first = tmp.getRoot().resolve("first");
+    Path second = tmp.getRoot().resolve("second");
+    SyntheticMachoFile.write(first, Paths.get("/home/user/repo"), SYMBOLS, CONTENT_SIZE);
+    SyntheticMachoFile.write(second, Paths.get("/tmp/checkout"), SYMBOLS, CONTENT_SIZE);
+
+    scrub(
+        first,
+        ImmutableList.of(
+            new OsoSymbolsContentsScrubber(cellRoots(Paths.get("/home/user/repo"))),
+            new LcUuidContentsScrubber(true)));
+    scrub(
+        second,
+        ImmutableList.of(
+            new OsoSymbolsContentsScrubber(cellRoots(Paths.get("/tmp/checkout"))),
+            new LcUuidContentsScrubber(true)));
+
+    assertArrayEquals(Files.readAllBytes(first), Files.readAllBytes(second));
+  }
+
+  @Test
+  public void filesLargerThanASingleMappingAreScrubbed() throws Exception {
+    Path root = Paths.get("/home/user/repo");
+    Path file = tmp.getRoot().resolve("large");
+    SyntheticMachoFile.writeSparse(file, root, SYMBOLS, Integer.MAX_VALUE + (512L << 20));
+    long originalSize = Files.size(file);
+
+    scrub(
+        file,
+        ImmutableList.of(
+            new OsoSymbolsContentsScrubber(cellRoots(root)), new LcUuidContentsScrubber(true)));
+
+    long size = Files.size(file);
+    assertThat(size, Matchers.lessThan(originalSize));
+    ByteBuffer stringTable = ByteBuffer.allocate(SYMBOLS * 64);
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      channel.read(stringTable, size - stringTable.capacity());
+    }
+    String contents = new String(stringTable.array(), Charsets.ISO_8859_1);
+    assertFalse(contents.contains(root.toString()));
+    assertTrue(contents.contains("\0./buck-out/gen/lib0/source.o\0"));
+  }
+
+  @Test
+  public void nonMachoFilesAreLeftAlone() throws Exception {
+    Path file = tmp.getRoot().resolve("text");
+    Files.write(file, "not an object file".getBytes(Charsets.UTF_8));
+
+    scrub(
+        file,
+        ImmutableList.of(
+            new OsoSymbolsContentsScrubber(cellRoots(Paths.get("/home/user/repo"))),
+            new LcUuidContentsScrubber(false)));
+
+    assertEquals("not an object file", new String(Files.readAllBytes(file), Charsets.UTF_8));
+  }
+
+  private static ImmutableMap<Path, Path> cellRoots(Path root) {
+    return ImmutableMap.of(root, Paths.get(""));
+  }
+
+  private static void scrub(Path file, ImmutableList<FileScrubber> scrubbers) throws Exception {
+    assertTrue(
+        new FileScrubberStep(
+                TestProjectFilesystems.createProjectFilesystem(file.getParent()),
+                file.getFileName(),
+                scrubbers)
+            .execute(TestExecutionContext.newInstance())
+            .isSuccess());
+  }
+
+  private static void scrubOneAtATime(Path file, ImmutableList<FileScrubber> scrubbers)
+      throws IOException, FileScrubber.ScrubException {
+    for (FileScrubber scrubber : scrubbers) {
+      try (FileChannel channel =
+          FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        ((FileContentsScrubber) scrubber).scrubFile(channel);
+      }
+    }
+  }
+}
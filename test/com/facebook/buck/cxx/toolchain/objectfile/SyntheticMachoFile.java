@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.cxx.toolchain.objectfile;
+
+import com.google.common.base.Charsets;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes 64-bit Mach-O files with just the load commands the scrubbers look at: a __LINKEDIT
+ * segment, a symbol table and a UUID. Half of the symbols are OSO entries pointing at absolute
+ * object file paths, like the debug map a linker leaves in an executable.
+ */
+class SyntheticMachoFile {
+
+  private static final int HEADER_SIZE = 32;
+  private static final int SEGMENT_COMMAND_SIZE = 72;
+  private static final int SYMTAB_COMMAND_SIZE = 24;
+  private static final int UUID_COMMAND_SIZE = 24;
+  private static final int NLIST_SIZE = 16;
+  private static final int N_SECT = 0x0e;
+
+  private SyntheticMachoFile() {}
+
+  /**
+   * @param root absolute directory the OSO entries are under.
+   * @param symbols number of symbols in the symbol table.
+   * @param contentSize number of bytes of filler between the load commands and the symbol table.
+   */
+  static void write(Path path, Path root, int symbols, int contentSize) throws IOException {
+    write(path, root, symbols, contentSize, false);
+  }
+
+  /** Like {@link #write}, but leaves the filler as a hole so large files take no disk space. */
+  static void writeSparse(Path path, Path root, int symbols, long contentSize) throws IOException {
+    write(path, root, symbols, contentSize, true);
+  }
+
+  private static void write(Path path, Path root, int symbols, long contentSize, boolean sparse)
+      throws IOException {
+    ByteBuffer strings = ByteBuffer.allocate(symbols * (root.toString().length() + 64));
+    strings.put((byte) ' ').put((byte) 0);
+    int[] stringIndices = new int[symbols];
+    for (int i = 0; i < symbols; i++) {
+      stringIndices[i] = strings.position();
+      String name =
+          i % 2 == 0 ? root.resolve("buck-out/gen/lib" + i / 2 + "/source.o").toString() : "_s" + i;
+      strings.put(name.getBytes(Charsets.UTF_8)).put((byte) 0);
+    }
+    int stringTableSize = strings.position();
+    strings.flip();
+
+    int commandsSize = SEGMENT_COMMAND_SIZE + SYMTAB_COMMAND_SIZE + UUID_COMMAND_SIZE;
+    long symbolTableOffset = HEADER_SIZE + commandsSize + contentSize;
+    long stringTableOffset = symbolTableOffset + symbols * NLIST_SIZE;
+    long linkEditSize = stringTableOffset + stringTableSize - symbolTableOffset;
+
+    ByteBuffer commands =
+        ByteBuffer.allocate(HEADER_SIZE + commandsSize).order(ByteOrder.LITTLE_ENDIAN);
+    commands.putInt(0xFEEDFACF).putInt(0x01000007).putInt(3).putInt(2);
+    commands.putInt(3).putInt(commandsSize).putInt(0).putInt(0);
+    commands.putInt(Machos.LC_SEGMENT_64).putInt(SEGMENT_COMMAND_SIZE);
+    commands.put(segmentName(Machos.LINKEDIT));
+    // Linkers round the vm size up to whole pages, so it isn't affected by scrubbing.
+    commands.putLong(0x100000000L).putLong(1 << 28);
+    commands.putLong(symbolTableOffset).putLong(linkEditSize);
+    commands.putInt(1).putInt(1).putInt(0).putInt(0);
+    commands.putInt(Machos.LC_SYMTAB).putInt(SYMTAB_COMMAND_SIZE);
+    // File offsets in LC_SYMTAB are unsigned 32-bit values.
+    commands.putInt((int) symbolTableOffset).putInt(symbols);
+    commands.putInt((int) stringTableOffset).putInt(stringTableSize);
+    commands.putInt(Machos.LC_UUID).putInt(UUID_COMMAND_SIZE);
+    for (int i = 0; i < 16; i++) {
+      commands.put((byte) (i * 17));
+    }
+    commands.flip();
+
+    ByteBuffer symbolTable =
+        ByteBuffer.allocate(symbols * NLIST_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    for (int i = 0; i < symbols; i++) {
+      symbolTable.putInt(stringIndices[i]);
+      symbolTable.put(i % 2 == 0 ? (byte) Machos.N_OSO : (byte) N_SECT);
+      symbolTable.put((byte) 1).putShort((short) 0);
+      // OSO entries hold the modification time of the object file.
+      symbolTable.putLong(i % 2 == 0 ? 1500000000L + i : 0x100000000L + i * 16L);
+    }
+    symbolTable.flip();
+
+    try (FileChannel channel =
+        FileChannel.open(
+            path,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+      channel.write(commands);
+      if (sparse) {
+        channel.position(symbolTableOffset);
+      } else {
+        ByteBuffer content = ByteBuffer.allocate(64 * 1024);
+        for (long written = 0; written < contentSize; written += content.capacity()) {
+          content.clear();
+          for (int i = 0; i < content.capacity(); i++) {
+            content.put((byte) (written + i * 31));
+          }
+          content.flip();
+          content.limit((int) Math.min(content.capacity(), contentSize - written));
+          channel.write(content);
+        }
+      }
+      channel.write(symbolTable);
+      channel.write(strings);
+    }
+  }
+
+  private static byte[] segmentName(String name) {
+    byte[] bytes = new byte[16];
+    byte[] nameBytes = name.getBytes(Charsets.US_ASCII);
+    System.arraycopy(nameBytes, 0, bytes, 0, nameBytes.length);
+    return bytes;
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.features.go;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import com.facebook.buck.core.config.FakeBuckConfig;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.model.InternalFlavor;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.rules.ActionGraphBuilder;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.TestBuildRuleParams;
+import com.facebook.buck.core.rules.impl.MappedSymlinkTree;
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.core.sourcepath.PathSourcePath;
+import com.facebook.buck.core.sourcepath.resolver.SourcePathResolverAdapter;
+import com.facebook.buck.features.go.GoListStep.ListType;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.rules.keys.TestInputBasedRuleKeyFactory;
+import com.facebook.buck.shell.GenruleBuilder;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.FakeFileHashCache;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class GoCompileTest {
+
+  @Rule public TemporaryPaths tmpPath = new TemporaryPaths();
+
+  private ActionGraphBuilder graphBuilder;
+  private ProjectFilesystem filesystem;
+
+  @Before
+  public void setUp() {
+    graphBuilder = new TestActionGraphBuilder();
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmpPath.getRoot());
+  }
+
+  @Test
+  public void compilerWritesExportDataSeparatelyFromLinkObject() {
+    Path exportData = Paths.get("export/lib.a");
+    Path output = Paths.get("lib.a");
+    GoCompileStep step =
+        new GoCompileStep(
+            tmpPath.getRoot(),
+            ImmutableMap.of(),
+            ImmutableList.of("compile"),
+            ImmutableList.of(),
+            Paths.get("lib"),
+            ImmutableList.of(Paths.get("lib.go")),
+            ImmutableList.of(),
+            ImmutableMap.of(),
+            ImmutableList.of(),
+            Optional.empty(),
+            false,
+            GoTestUtils.DEFAULT_PLATFORM,
+            Optional.empty(),
+            exportData,
+            output);
+
+    ImmutableList<String> command = step.getShellCommand(TestExecutionContext.newInstance());
+    assertEquals(exportData.toString(), command.get(command.indexOf("-o") + 1));
+    assertEquals(output.toString(), command.get(command.indexOf("-linkobj") + 1));
+  }
+
+  @Test
+  public void dependentsAreCompiledAgainstExportData() {
+    GoCompile compile = createCompile("//:lib");
+    GoLinkable linkable = GoLinkable.forRule(Paths.get("lib"), compile, ImmutableSet.of());
+
+    assertEquals(
+        ImmutableMap.of(Paths.get("lib"), compile.getSourcePathToOutput()),
+        linkable.getGoLinkInput());
+    assertEquals(
+        ImmutableMap.of(Paths.get("lib"), compile.getSourcePathToExportData()),
+        linkable.getGoCompileInput());
+    assertNotEquals(
+        graphBuilder.getSourcePathResolver().getRelativePath(compile.getSourcePathToOutput()),
+        graphBuilder
+            .getSourcePathResolver()
+            .getRelativePath(compile.getSourcePathToExportData()));
+  }
+
+  @Test
+  public void inputBasedRuleKeyOnlyChangesWithImportedExportData() throws IOException {
+    GoCompile dep = createCompile("//:dep");
+    graphBuilder.addToIndex(dep);
+    GoCompile compile = createCompileImporting("//:lib", dep);
+
+    RuleKey ruleKey = getInputBasedRuleKey(compile, dep, "aa", "bb", "cc");
+    // The implementation of the imported package changed, but not its export data.
+    assertEquals(ruleKey, getInputBasedRuleKey(compile, dep, "dd", "ee", "cc"));
+    assertNotEquals(ruleKey, getInputBasedRuleKey(compile, dep, "dd", "ee", "ff"));
+  }
+
+  @Test
+  public void dependentsOfPrebuiltArchivesAreCompiledAgainstThem() {
+    BuildRule archive =
+        GenruleBuilder.newGenruleBuilder(BuildTargetFactory.newInstance("//:archive"))
+            .setOut("archive.a")
+            .setCmd("touch $OUT")
+            .build(graphBuilder);
+    GoLinkable linkable = GoLinkable.forRule(Paths.get("lib"), archive, ImmutableSet.of());
+
+    assertEquals(linkable.getGoLinkInput(), linkable.getGoCompileInput());
+  }
+
+  private RuleKey getInputBasedRuleKey(
+      GoCompile compile, GoCompile dep, String depSrcHash, String depOutputHash, String exportHash)
+      throws IOException {
+    SourcePathResolverAdapter resolver = graphBuilder.getSourcePathResolver();
+    FakeFileHashCache hashCache =
+        new FakeFileHashCache(
+            ImmutableMap.of(
+                filesystem.resolve("lib.go"),
+                HashCode.fromString(Strings.repeat(depSrcHash, 20)),
+                filesystem.resolve("main.go"),
+                HashCode.fromString(Strings.repeat("11", 20)),
+                resolver.getAbsolutePath(dep.getSourcePathToOutput()),
+                HashCode.fromString(Strings.repeat(depOutputHash, 20)),
+                resolver.getAbsolutePath(dep.getSourcePathToExportData()),
+                HashCode.fromString(Strings.repeat(exportHash, 20))));
+    return new TestInputBasedRuleKeyFactory(hashCache, graphBuilder).build(compile);
+  }
+
+  /** Creates a compile of {@code main.go} that imports {@code dep} the way go_library does. */
+  private GoCompile createCompileImporting(String target, GoCompile dep) {
+    BuildTarget buildTarget =
+        BuildTargetFactory.newInstance(target)
+            .withFlavors(GoTestUtils.DEFAULT_PLATFORM.getFlavor());
+    GoLinkable linkable = GoLinkable.forRule(Paths.get("dep"), dep, ImmutableSet.of());
+    MappedSymlinkTree symlinkTree =
+        new MappedSymlinkTree(
+            "go_symlink_tree",
+            buildTarget.withAppendedFlavors(InternalFlavor.of("symlink-tree")),
+            filesystem,
+            Paths.get("symlink-tree"),
+            linkable.getGoCompileInput());
+    graphBuilder.addToIndex(symlinkTree);
+    return new GoCompile(
+        buildTarget,
+        filesystem,
+        TestBuildRuleParams.create().withExtraDeps(ImmutableSortedSet.of(dep, symlinkTree)),
+        symlinkTree,
+        ImmutableSortedMap.of("dep", linkable.getGoCompileInput().get(Paths.get("dep"))),
+        Paths.get("lib"),
+        ImmutableMap.of(),
+        ImmutableSet.of(PathSourcePath.of(filesystem, Paths.get("main.go"))),
+        ImmutableSet.of(),
+        ImmutableList.of(),
+        ImmutableList.of(),
+        GoTestUtils.DEFAULT_PLATFORM,
+        false,
+        ImmutableList.of(),
+        Collections.singletonList(ListType.GoFiles));
+  }
+
+  private GoCompile createCompile(String target) {
+    BuildTarget buildTarget =
+        BuildTargetFactory.newInstance(target)
+            .withFlavors(GoTestUtils.DEFAULT_PLATFORM.getFlavor());
+    return GoDescriptors.createGoCompileRule(
+        buildTarget,
+        filesystem,
+        TestBuildRuleParams.create(),
+        graphBuilder,
+        new GoBuckConfig(FakeBuckConfig.builder().build()),
+        Paths.get("lib"),
+        ImmutableSet.of(PathSourcePath.of(filesystem, Paths.get("lib.go"))),
+        ImmutableList.of(),
+        ImmutableList.of(),
+        GoTestUtils.DEFAULT_PLATFORM,
+        ImmutableList.of(),
+        ImmutableList.of(),
+        Collections.singletonList(ListType.GoFiles));
+  }
+}
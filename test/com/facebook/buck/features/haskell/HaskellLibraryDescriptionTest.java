@@ -41,6 +41,7 @@ import com.facebook.buck.cxx.toolchain.CxxPlatformUtils;
 import com.facebook.buck.cxx.toolchain.linker.Linker;
 import com.facebook.buck.cxx.toolchain.nativelink.NativeLinkableGroup;
 import com.facebook.buck.cxx.toolchain.nativelink.NativeLinkableInput;
+import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
 import com.facebook.buck.rules.args.Arg;
 import com.facebook.buck.rules.args.StringArg;
 import com.facebook.buck.rules.coercer.PatternMatchedCollection;
@@ -51,6 +52,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Objects;
 import java.util.regex.Pattern;
 import org.hamcrest.Matchers;
@@ -235,6 +237,122 @@ public class HaskellLibraryDescriptionTest {
                 library.getBuildTarget(), haskellPlatform, Linker.LinkableDepType.STATIC, false)));
   }
 
+  @Test
+  public void perModuleCompilation() throws Exception {
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    filesystem.writeContentsToPath(
+        "module A where\nimport B\nimport qualified Data.List as L\n", Paths.get("A.hs"));
+    filesystem.writeContentsToPath("module A where\n", Paths.get("A.hs-boot"));
+    filesystem.writeContentsToPath(
+        "module B where\n-- import C\nimport {-# SOURCE #-} A\n", Paths.get("B.hs"));
+    HaskellPlatform haskellPlatform =
+        HaskellPlatform.builder()
+            .from(HaskellTestUtils.DEFAULT_PLATFORM)
+            .setShouldCompilePerModule(true)
+            .build();
+
+    BuildTarget target = BuildTargetFactory.newInstance("//:rule");
+    HaskellLibraryBuilder builder =
+        new HaskellLibraryBuilder(
+                target,
+                haskellPlatform,
+                FlavorDomain.of("Haskell Platforms", haskellPlatform),
+                new CxxBuckConfig(FakeBuckConfig.builder().build()))
+            .setSrcs(
+                SourceSortedSet.ofUnnamedSources(
+                    ImmutableSortedSet.of(
+                        FakeSourcePath.of(filesystem, "A.hs"),
+                        FakeSourcePath.of(filesystem, "A.hs-boot"),
+                        FakeSourcePath.of(filesystem, "B.hs"))));
+    ActionGraphBuilder graphBuilder =
+        new TestActionGraphBuilder(TargetGraphFactory.newInstance(builder.build()));
+    HaskellLibrary library = builder.build(graphBuilder, filesystem);
+
+    HaskellPackage pkg =
+        library
+            .getCompileInput(haskellPlatform, Linker.LinkableDepType.STATIC, false)
+            .getPackage();
+    BuildTarget compileTarget =
+        HaskellDescriptionUtils.getCompileBuildTarget(
+            target, haskellPlatform, Linker.LinkableDepType.STATIC, false);
+    ImmutableList<HaskellCompileRule> rules =
+        graphBuilder
+            .getRuleWithType(compileTarget, HaskellModuleCompileRules.class)
+            .getCompileRules();
+    assertThat(
+        rules.stream().map(BuildRule::getBuildTarget).collect(ImmutableList.toImmutableList()),
+        Matchers.contains(
+            compileTarget.withAppendedFlavors(InternalFlavor.of("module-A-boot")),
+            compileTarget.withAppendedFlavors(InternalFlavor.of("module-B")),
+            compileTarget.withAppendedFlavors(InternalFlavor.of("module-A"))));
+    HaskellCompileRule boot = rules.get(0);
+    HaskellCompileRule moduleB = rules.get(1);
+    HaskellCompileRule moduleA = rules.get(2);
+
+    // Modules are compiled against the interfaces of the modules they import, transitively.
+    assertThat(moduleB.getBuildDeps(), Matchers.hasItem(boot));
+    assertThat(moduleA.getBuildDeps(), Matchers.hasItems(boot, moduleB));
+    assertThat(
+        rules.stream().allMatch(HaskellCompileRule::inputBasedRuleKeyIsEnabled),
+        Matchers.is(true));
+
+    // The package is made of the outputs of all modules.
+    assertThat(
+        pkg.getInterfaces(),
+        Matchers.containsInAnyOrder(
+            boot.getInterfaces(), moduleB.getInterfaces(), moduleA.getInterfaces()));
+    assertThat(pkg.getObjects(), Matchers.hasItems(moduleA.getObjectsDir()));
+
+    // The rules depend on the imports of the sources, so they are stale once a source changes.
+    HaskellModuleCompileRules moduleRules =
+        graphBuilder.getRuleWithType(compileTarget, HaskellModuleCompileRules.class);
+    assertThat(moduleRules.areConstructionInputsUnchanged(), Matchers.is(true));
+    filesystem.writeContentsToPath(
+        "module B where\nimport C\nimport {-# SOURCE #-} A\n", Paths.get("B.hs"));
+    assertThat(moduleRules.areConstructionInputsUnchanged(), Matchers.is(false));
+  }
+
+  @Test
+  public void perModuleCompilationFallsBackToSingleRuleForTemplateHaskell() {
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    filesystem.writeContentsToPath(
+        "{-# LANGUAGE TemplateHaskell #-}\nmodule A where\nimport B\n", Paths.get("A.hs"));
+    filesystem.writeContentsToPath("module B where\n", Paths.get("B.hs"));
+    HaskellPlatform haskellPlatform =
+        HaskellPlatform.builder()
+            .from(HaskellTestUtils.DEFAULT_PLATFORM)
+            .setShouldCompilePerModule(true)
+            .build();
+
+    BuildTarget target = BuildTargetFactory.newInstance("//:rule");
+    HaskellLibraryBuilder builder =
+        new HaskellLibraryBuilder(
+                target,
+                haskellPlatform,
+                FlavorDomain.of("Haskell Platforms", haskellPlatform),
+                new CxxBuckConfig(FakeBuckConfig.builder().build()))
+            .setSrcs(
+                SourceSortedSet.ofUnnamedSources(
+                    ImmutableSortedSet.of(
+                        FakeSourcePath.of(filesystem, "A.hs"),
+                        FakeSourcePath.of(filesystem, "B.hs"))));
+    ActionGraphBuilder graphBuilder =
+        new TestActionGraphBuilder(TargetGraphFactory.newInstance(builder.build()));
+    HaskellLibrary library = builder.build(graphBuilder, filesystem);
+
+    library.getCompileInput(haskellPlatform, Linker.LinkableDepType.STATIC, false);
+    BuildTarget compileTarget =
+        HaskellDescriptionUtils.getCompileBuildTarget(
+            target, haskellPlatform, Linker.LinkableDepType.STATIC, false);
+    ImmutableList<HaskellCompileRule> rules =
+        graphBuilder
+            .getRuleWithType(compileTarget, HaskellModuleCompileRules.class)
+            .getCompileRules();
+    assertThat(rules, Matchers.hasSize(1));
+    assertThat(rules.get(0).getModules(), Matchers.contains("A", "B"));
+    assertThat(rules.get(0).inputBasedRuleKeyIsEnabled(), Matchers.is(false));
+  }
+
   @Test
   public void platformDeps() {
     HaskellLibraryBuilder depABuilder =
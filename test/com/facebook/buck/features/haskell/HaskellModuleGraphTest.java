@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.features.haskell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.sourcepath.DefaultBuildTargetSourcePath;
+import com.facebook.buck.core.sourcepath.FakeSourcePath;
+import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import org.junit.Test;
+
+public class HaskellModuleGraphTest {
+
+  private static final HaskellSourceModule A = HaskellSourceModule.from("A.hs");
+  private static final HaskellSourceModule A_BOOT = HaskellSourceModule.from("A.hs-boot");
+  private static final HaskellSourceModule B = HaskellSourceModule.from("B.hs");
+  private static final HaskellSourceModule FOO_BAR = HaskellSourceModule.from("Foo/Bar.hs");
+
+  @Test
+  public void parsesImportDeclarations() {
+    assertEquals(
+        ImmutableList.of(
+            HaskellSourceModule.from("Data/Map.hs"),
+            FOO_BAR,
+            HaskellSourceModule.from("Baz.hs"),
+            A_BOOT,
+            HaskellSourceModule.from("Data/Text.hs")),
+        HaskellModuleGraph.parseImports(
+            "{-# LANGUAGE CPP #-}\n"
+                + "module Main (main) where\n"
+                + "import qualified Data.Map as M\n"
+                + "import Foo.Bar (bar)\n"
+                + "import\n"
+                + "  safe Baz\n"
+                + "import {-# SOURCE #-} A\n"
+                + "import \"text\" Data.Text\n"));
+  }
+
+  @Test
+  public void ignoresImportsInComments() {
+    assertEquals(
+        ImmutableList.of(FOO_BAR),
+        HaskellModuleGraph.parseImports(
+            "module M where\n"
+                + "-- import A\n"
+                + "{- a comment {- with a nested\n"
+                + "import B\n"
+                + "-} comment -}\n"
+                + "import Foo.Bar\n"
+                + "x --> y = x\n"));
+  }
+
+  @Test
+  public void parsesLiterateSources() {
+    assertEquals(
+        "\n  import A\n\n\n",
+        HaskellModuleGraph.unlit("import B is prose\n> import A\n\nmore prose"));
+    assertEquals(
+        "\n\nimport A\n\n\n",
+        HaskellModuleGraph.unlit("import B\n\\begin{code}\nimport A\n\\end{code}\n"));
+  }
+
+  @Test
+  public void modulesDependOnImportedHomeModules() {
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    filesystem.writeContentsToPath(
+        "module A where\nimport B\nimport Data.List\n", Paths.get("A.hs"));
+    filesystem.writeContentsToPath("module A where\n", Paths.get("A.hs-boot"));
+    filesystem.writeContentsToPath("module B where\nimport {-# SOURCE #-} A\n", Paths.get("B.hs"));
+
+    assertEquals(
+        ImmutableMap.of(
+            A_BOOT,
+            ImmutableSortedSet.of(),
+            B,
+            ImmutableSortedSet.of(A_BOOT),
+            A,
+            ImmutableSortedSet.of(A_BOOT, B)),
+        HaskellModuleGraph.from(
+                ImmutableHaskellSources.of(
+                    ImmutableMap.of(
+                        A, FakeSourcePath.of(filesystem, "A.hs"),
+                        A_BOOT, FakeSourcePath.of(filesystem, "A.hs-boot"),
+                        B, FakeSourcePath.of(filesystem, "B.hs"))),
+                ImmutableList.of(),
+                new HashMap<>())
+            .get());
+  }
+
+  @Test
+  public void sourcesWithoutModuleGraphAreCompiledTogether() {
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    filesystem.writeContentsToPath("module A where\nimport B\n", Paths.get("A.hs"));
+    filesystem.writeContentsToPath("module B where\nimport A\n", Paths.get("B.hs"));
+
+    // Import cycles.
+    assertFalse(
+        HaskellModuleGraph.from(
+                ImmutableHaskellSources.of(
+                    ImmutableMap.of(
+                        A, FakeSourcePath.of(filesystem, "A.hs"),
+                        B, FakeSourcePath.of(filesystem, "B.hs"))),
+                ImmutableList.of(),
+                new HashMap<>())
+            .isPresent());
+    // Template Haskell.
+    assertFalse(
+        HaskellModuleGraph.from(
+                ImmutableHaskellSources.of(
+                    ImmutableMap.of(A, FakeSourcePath.of(filesystem, "A.hs"))),
+                ImmutableList.of("-XTemplateHaskell"),
+                new HashMap<>())
+            .isPresent());
+    // Generated sources.
+    assertFalse(
+        HaskellModuleGraph.from(
+                ImmutableHaskellSources.of(
+                    ImmutableMap.of(
+                        A,
+                        DefaultBuildTargetSourcePath.of(
+                            BuildTargetFactory.newInstance("//:gen")))),
+                ImmutableList.of(),
+                new HashMap<>())
+            .isPresent());
+  }
+}
@@ -47,6 +47,7 @@ class HaskellTestUtils {
           .setHaskellVersion(ImmutableHaskellVersion.of(8))
           .setShouldCacheLinks(true)
           .setShouldUseArgsfile(false)
+          .setShouldCompilePerModule(false)
           .setSupportExposePackage(false)
           .setArchiveContents(ArchiveContents.NORMAL)
           .setCxxPlatform(CxxPlatformUtils.DEFAULT_PLATFORM)
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.features.js;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.core.sourcepath.PathSourcePath;
+import com.facebook.buck.core.sourcepath.resolver.SourcePathResolverAdapter;
+import com.facebook.buck.core.toolchain.tool.Tool;
+import com.facebook.buck.core.toolchain.tool.impl.HashedFileTool;
+import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import com.facebook.buck.step.AbstractExecutionStep;
+import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.step.StepExecutionResults;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class JsTransformCacheStepTest {
+
+  private static final HashCode WORKER = HashCode.fromString("0123456789abcdef");
+  private static final String JOB_ARGS = "{\"command\":\"transform\"}";
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private Path cacheDir;
+  private Path input;
+  private int transforms;
+
+  @Before
+  public void setUp() throws IOException {
+    cacheDir = tmp.getRoot().resolve("cache");
+    input = tmp.newFile("input.js");
+    write(input, "module.exports = 1;");
+  }
+
+  @Test
+  public void identicalJobsShareResults() throws Exception {
+    Path first = tmp.getRoot().resolve("a/out.jsfile");
+    Path second = tmp.getRoot().resolve("b/out.jsfile");
+
+    execute(WORKER, JOB_ARGS, first);
+    execute(WORKER, JOB_ARGS, second);
+
+    assertEquals(1, transforms);
+    assertEquals("transformed module.exports = 1;", read(second));
+  }
+
+  @Test
+  public void changedInputsAreTransformed() throws Exception {
+    Path output = tmp.getRoot().resolve("out.jsfile");
+
+    execute(WORKER, JOB_ARGS, output);
+    write(input, "module.exports = 2;");
+    execute(WORKER, JOB_ARGS, output);
+    execute(WORKER, "{\"command\":\"optimize\"}", output);
+    execute(HashCode.fromString("fedcba9876543210"), JOB_ARGS, output);
+
+    assertEquals(4, transforms);
+    assertEquals("transformed module.exports = 2;", read(output));
+  }
+
+  @Test
+  public void failedTransformsAreNotCached() throws Exception {
+    Path output = tmp.getRoot().resolve("out.jsfile");
+
+    StepExecutionResult result =
+        new JsTransformCacheStep(
+                cacheDir,
+                () -> WORKER,
+                JOB_ARGS,
+                input,
+                output,
+                new AbstractExecutionStep("transform") {
+                  @Override
+                  public StepExecutionResult execute(ExecutionContext context) throws IOException {
+                    write(output, "partial");
+                    return StepExecutionResults.ERROR;
+                  }
+                })
+            .execute(TestExecutionContext.newInstance());
+
+    assertFalse(result.isSuccess());
+    assertFalse(Files.exists(cacheDir));
+  }
+
+  @Test
+  public void leastRecentlyUsedEntriesAreTrimmed() throws Exception {
+    // Each entry holds 32 bytes, and a trim triggered by the fourth one keeps at most 75 bytes.
+    long maxCacheSizeBytes = 100;
+    Path output = tmp.getRoot().resolve("out.jsfile");
+
+    for (String contents : ImmutableList.of("a", "b", "c")) {
+      write(input, Strings.repeat(contents, 20));
+      execute(WORKER, JOB_ARGS, output, maxCacheSizeBytes);
+    }
+    try (Stream<Path> entries = Files.walk(cacheDir)) {
+      for (Path entry : entries.filter(Files::isRegularFile).collect(Collectors.toList())) {
+        Files.getFileAttributeView(entry, BasicFileAttributeView.class)
+            .setTimes(null, FileTime.fromMillis(0), null);
+      }
+    }
+    write(input, Strings.repeat("a", 20));
+    execute(WORKER, JOB_ARGS, output, maxCacheSizeBytes);
+    write(input, Strings.repeat("d", 20));
+    execute(WORKER, JOB_ARGS, output, maxCacheSizeBytes);
+
+    assertEquals(4, transforms);
+    try (Stream<Path> entries = Files.walk(cacheDir)) {
+      assertEquals(2, entries.filter(Files::isRegularFile).count());
+    }
+    write(input, Strings.repeat("a", 20));
+    execute(WORKER, JOB_ARGS, output, maxCacheSizeBytes);
+    assertEquals(4, transforms);
+    write(input, Strings.repeat("b", 20));
+    execute(WORKER, JOB_ARGS, output, maxCacheSizeBytes);
+    assertEquals(5, transforms);
+  }
+
+  @Test
+  public void workerKeyDependsOnWorkerFiles() throws Exception {
+    Path script = tmp.newFile("worker.js");
+    write(script, "transform();");
+    Tool tool = new HashedFileTool(PathSourcePath.of(new FakeProjectFilesystem(), script));
+    SourcePathResolverAdapter resolver = new TestActionGraphBuilder().getSourcePathResolver();
+
+    HashCode key = JsTransformCacheStep.hashWorkerTool(tool, resolver);
+    assertEquals(key, JsTransformCacheStep.hashWorkerTool(tool, resolver));
+    write(script, "optimize();");
+    assertNotEquals(key, JsTransformCacheStep.hashWorkerTool(tool, resolver));
+  }
+
+  private void execute(HashCode worker, String jobArgs, Path output) throws Exception {
+    execute(worker, jobArgs, output, JsTransformCacheStep.MAX_CACHE_SIZE_BYTES);
+  }
+
+  private void execute(HashCode worker, String jobArgs, Path output, long maxCacheSizeBytes)
+      throws Exception {
+    new JsTransformCacheStep(
+            cacheDir,
+            () -> worker,
+            jobArgs,
+            input,
+            output,
+            new AbstractExecutionStep("transform") {
+              @Override
+              public StepExecutionResult execute(ExecutionContext context) throws IOException {
+                transforms++;
+                Files.createDirectories(output.getParent());
+                write(output, "transformed " + read(input));
+                return StepExecutionResults.SUCCESS;
+              }
+            },
+            maxCacheSizeBytes)
+        .execute(TestExecutionContext.newInstance());
+  }
+
+  private static void write(Path path, String contents) throws IOException {
+    Files.write(path, contents.getBytes(Charsets.UTF_8));
+  }
+
+  private static String read(Path path) throws IOException {
+    return new String(Files.readAllBytes(path), Charsets.UTF_8);
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.features.python;
+
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.step.TestExecutionContext;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Measures {@link PexArchiveStep} packaging a test binary with many small modules, from scratch
+ * and after a single module changed since the previous build.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PexArchiveStepBenchmark {
+
+  @Param({"30000"})
+  public int modules;
+
+  @Param({"8192"})
+  public int moduleSize;
+
+  private Path root;
+  private ProjectFilesystem filesystem;
+  private ExecutionContext context;
+  private Path output;
+  private Path changedModule;
+  private int changes;
+  private PexArchiveStep step;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    root = Files.createTempDirectory("pex-archive-benchmark");
+    filesystem = TestProjectFilesystems.createProjectFilesystem(root);
+    context = TestExecutionContext.newInstance();
+    Path scratchDir = Paths.get("scratch");
+    filesystem.mkdirs(scratchDir);
+    output = Paths.get("bin.pex");
+
+    Path bootstrap = scratchDir.resolve("bootstrap.pex");
+    ByteArrayOutputStream contents = new ByteArrayOutputStream();
+    contents.write("#!/usr/bin/env python3.7\n".getBytes(Charsets.UTF_8));
+    try (ZipOutputStream out = new ZipOutputStream(contents)) {
+      out.putNextEntry(new ZipEntry("__main__.py"));
+      out.write("# bootstrap".getBytes(Charsets.UTF_8));
+      out.putNextEntry(new ZipEntry(PexArchiveStep.PEX_INFO));
+      out.write("{\"entry_point\": \"main\"}".getBytes(Charsets.UTF_8));
+    }
+    Files.write(filesystem.resolve(bootstrap), contents.toByteArray());
+
+    // Sources look like code: a limited vocabulary, so they compress like real modules do.
+    String[] words = {"def", "class", "import", "return", "self", "None", "for", "in", "if", "="};
+    Random random = new Random(0);
+    ImmutableSortedMap.Builder<Path, Path> sources = ImmutableSortedMap.naturalOrder();
+    for (int i = 0; i < modules; i++) {
+      StringBuilder source = new StringBuilder();
+      while (source.length() < moduleSize) {
+        source.append(words[random.nextInt(words.length)]).append(random.nextInt(1000));
+        source.append(random.nextInt(8) == 0 ? '\n' : ' ');
+      }
+      Path path = root.resolve("src").resolve("pkg" + i % 100).resolve("module" + i + ".py");
+      Files.createDirectories(path.getParent());
+      Files.write(path, source.toString().getBytes(Charsets.UTF_8));
+      sources.put(root.resolve("src").relativize(path), path);
+      changedModule = path;
+    }
+
+    step =
+        new PexArchiveStep(
+            filesystem,
+            bootstrap,
+            ImmutablePythonResolvedPackageComponents.builder()
+                .putModules(
+                    BuildTargetFactory.newInstance("//:bin"),
+                    new PythonMappedComponents.Resolved(sources.build()))
+                .build(),
+            output,
+            scratchDir);
+  }
+
+  /** Changes one module, on top of a PEX built from the previous version of the sources. */
+  @Setup(Level.Invocation)
+  public void changeModule() throws Exception {
+    if (!Files.exists(filesystem.resolve(output))) {
+      execute();
+    }
+    Files.write(
+        changedModule,
+        ("# change " + changes++ + "\n").getBytes(Charsets.UTF_8),
+        StandardOpenOption.APPEND);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    MoreFiles.deleteRecursively(root, RecursiveDeleteOption.ALLOW_INSECURE);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  public void fullRebuild() throws Exception {
+    Files.deleteIfExists(filesystem.resolve(output));
+    execute();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  public void oneModuleChanged() throws Exception {
+    execute();
+  }
+
+  private void execute() throws Exception {
+    Preconditions.checkState(step.execute(context).isSuccess());
+  }
+
+  public static void main(String[] args) throws IOException, RunnerException {
+    Main.main(new String[] {PexArchiveStepBenchmark.class.getName()});
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.features.python;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.json.ObjectMappers;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class PexArchiveStepTest {
+
+  private static final BuildTarget TARGET = BuildTargetFactory.newInstance("//:target");
+  private static final String SHEBANG = "#!/usr/bin/env python3.7\n";
+
+  @Rule public TemporaryPaths tmpDir = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private Path bootstrap;
+  private Path scratchDir;
+  private Path destination;
+  private PythonResolvedPackageComponents components;
+
+  @Before
+  public void setUp() throws IOException {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmpDir.getRoot());
+    scratchDir = Paths.get("scratch");
+    filesystem.mkdirs(scratchDir);
+    destination = Paths.get("out/bin.pex");
+    filesystem.mkdirs(destination.getParent());
+
+    // Like the PEX builder, write the archive after the shebang with offsets relative to itself.
+    ByteArrayOutputStream archive = new ByteArrayOutputStream();
+    try (ZipOutputStream out = new ZipOutputStream(archive)) {
+      putEntry(out, "__main__.py", "# bootstrap main");
+      putEntry(out, ".bootstrap/pkg_resources/__init__.py", "# pkg_resources");
+      putEntry(out, "PEX-INFO", "{\"entry_point\": \"app.main\", \"code_hash\": \"bootstrap\"}");
+    }
+    bootstrap = scratchDir.resolve("bootstrap.pex");
+    try (ByteArrayOutputStream contents = new ByteArrayOutputStream()) {
+      contents.write(SHEBANG.getBytes(Charsets.UTF_8));
+      archive.writeTo(contents);
+      Files.write(filesystem.resolve(bootstrap), contents.toByteArray());
+    }
+
+    components =
+        ImmutablePythonResolvedPackageComponents.builder()
+            .putModules(
+                TARGET,
+                new PythonMappedComponents.Resolved(
+                    ImmutableSortedMap.of(
+                        Paths.get("app/__init__.py"), writeSource("init.py", "# app"),
+                        Paths.get("app/main.py"), writeSource("main.py", "print('main')"),
+                        Paths.get("app/lib/util.py"), writeSource("util.py", "# util"))))
+            .putResources(
+                TARGET,
+                new PythonMappedComponents.Resolved(
+                    ImmutableSortedMap.of(
+                        Paths.get("app/data.txt"), writeSource("data.txt", "data"))))
+            .putNativeLibraries(
+                TARGET,
+                new PythonMappedComponents.Resolved(
+                    ImmutableSortedMap.of(
+                        Paths.get("libapp.so"), writeSource("libapp.so", "\u007fELF"))))
+            .build();
+  }
+
+  @Test
+  public void addsComponentsToBootstrap() throws Exception {
+    execute();
+
+    Path output = filesystem.resolve(destination);
+    assertTrue(new String(Files.readAllBytes(output), Charsets.UTF_8).startsWith(SHEBANG));
+    assertTrue(Files.isExecutable(output));
+    try (ZipFile zip = new ZipFile(output.toFile())) {
+      assertEquals(
+          ImmutableList.of(
+              "__main__.py",
+              ".bootstrap/pkg_resources/__init__.py",
+              "PEX-INFO",
+              "app/__init__.py",
+              "app/data.txt",
+              "app/lib/__init__.py",
+              "app/lib/util.py",
+              "app/main.py",
+              "libapp.so"),
+          Collections.list(zip.entries()).stream()
+              .map(ZipEntry::getName)
+              .collect(ImmutableList.toImmutableList()));
+      assertEquals("# bootstrap main", read(zip, "__main__.py"));
+      assertEquals("# app", read(zip, "app/__init__.py"));
+      assertEquals(
+          "__import__('pkg_resources').declare_namespace(__name__)",
+          read(zip, "app/lib/__init__.py"));
+      assertEquals("print('main')", read(zip, "app/main.py"));
+      assertEquals("data", read(zip, "app/data.txt"));
+
+      JsonNode pexInfo = ObjectMappers.READER.readTree(read(zip, "PEX-INFO"));
+      assertEquals("app.main", pexInfo.get("entry_point").asText());
+      assertNotEquals("bootstrap", pexInfo.get("code_hash").asText());
+    }
+  }
+
+  @Test
+  public void rebuildsOverPreviousPex() throws Exception {
+    execute();
+    String firstCodeHash = readCodeHash();
+    execute();
+    assertEquals(firstCodeHash, readCodeHash());
+
+    Files.write(
+        tmpDir.getRoot().resolve("sources/util.py"), "# changed".getBytes(Charsets.UTF_8));
+    execute();
+
+    try (ZipFile zip = new ZipFile(filesystem.resolve(destination).toFile())) {
+      assertEquals("# changed", read(zip, "app/lib/util.py"));
+      assertEquals("print('main')", read(zip, "app/main.py"));
+    }
+    assertNotEquals(firstCodeHash, readCodeHash());
+    assertFalse(Files.exists(filesystem.resolve(scratchDir).resolve("previous.pex")));
+  }
+
+  @Test
+  public void replacesDirectoryOutput() throws Exception {
+    filesystem.mkdirs(destination.resolve("app"));
+    filesystem.writeContentsToPath("stale", destination.resolve("app/main.py"));
+
+    execute();
+
+    assertTrue(Files.isRegularFile(filesystem.resolve(destination)));
+  }
+
+  private void execute() throws Exception {
+    new PexArchiveStep(filesystem, bootstrap, components, destination, scratchDir)
+        .execute(TestExecutionContext.newInstance());
+  }
+
+  private String readCodeHash() throws IOException {
+    try (ZipFile zip = new ZipFile(filesystem.resolve(destination).toFile())) {
+      return ObjectMappers.READER.readTree(read(zip, "PEX-INFO")).get("code_hash").asText();
+    }
+  }
+
+  private Path writeSource(String name, String contents) throws IOException {
+    Path path = tmpDir.getRoot().resolve("sources").resolve(name);
+    Files.createDirectories(path.getParent());
+    Files.write(path, contents.getBytes(Charsets.UTF_8));
+    return path;
+  }
+
+  private static void putEntry(ZipOutputStream out, String name, String contents)
+      throws IOException {
+    out.putNextEntry(new ZipEntry(name));
+    out.write(contents.getBytes(Charsets.UTF_8));
+    out.closeEntry();
+  }
+
+  private static String read(ZipFile zip, String name) throws IOException {
+    try (InputStream in = zip.getInputStream(zip.getEntry(name))) {
+      return new String(ByteStreams.toByteArray(in), Charsets.UTF_8);
+    }
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.features.python;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assume.assumeTrue;
+
+import com.facebook.buck.core.build.buildable.context.FakeBuildableContext;
+import com.facebook.buck.core.build.context.FakeBuildContext;
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.model.UnconfiguredTargetConfiguration;
+import com.facebook.buck.core.rules.ActionGraphBuilder;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.core.sourcepath.PathSourcePath;
+import com.facebook.buck.features.python.toolchain.PythonEnvironment;
+import com.facebook.buck.features.python.toolchain.PythonVersion;
+import com.facebook.buck.io.ExecutableFinder;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.testutil.TestConsole;
+import com.facebook.buck.util.DefaultProcessExecutor;
+import com.facebook.buck.util.environment.EnvVariablesProvider;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.stream.Stream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class PythonCompileRuleTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private ActionGraphBuilder graphBuilder;
+  private PythonEnvironment python;
+  private ExecutionContext context;
+
+  @Before
+  public void setUp() throws IOException {
+    Optional<Path> python3 =
+        new ExecutableFinder()
+            .getOptionalExecutable(Paths.get("python3"), EnvVariablesProvider.getSystemEnv());
+    assumeTrue(python3.isPresent());
+
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    graphBuilder = new TestActionGraphBuilder();
+    python =
+        new PythonEnvironment(
+            python3.get(),
+            PythonVersion.of("CPython", "3"),
+            PythonBuckConfig.SECTION,
+            UnconfiguredTargetConfiguration.INSTANCE);
+    filesystem.mkdirs(Paths.get("a"));
+    filesystem.mkdirs(Paths.get("b"));
+    TestConsole console = new TestConsole();
+    context =
+        TestExecutionContext.newBuilder()
+            .setConsole(console)
+            .setProcessExecutor(new DefaultProcessExecutor(console))
+            .setBuildCellRootPath(tmp.getRoot())
+            .build();
+  }
+
+  @Test
+  public void identicalSourcesShareCachedBytecode() throws Exception {
+    filesystem.writeContentsToPath("x = 1\n", Paths.get("a/mod.py"));
+    filesystem.writeContentsToPath("x = 1\n", Paths.get("b/mod.py"));
+
+    compile("//a:a", "a/mod.py");
+    ImmutableList<Path> entries = getCacheEntries();
+    assertEquals(1, entries.size());
+
+    // Make the cached entry recognizable, to check that the second rule copies it.
+    Files.write(entries.get(0), "cached".getBytes(Charsets.UTF_8));
+    assertEquals("cached", new String(compile("//b:b", "b/mod.py"), Charsets.UTF_8));
+    assertEquals(1, getCacheEntries().size());
+  }
+
+  @Test
+  public void changedSourcesAreRecompiled() throws Exception {
+    filesystem.writeContentsToPath("x = 1\n", Paths.get("a/mod.py"));
+    byte[] first = compile("//a:a", "a/mod.py");
+
+    filesystem.writeContentsToPath("x = 2\n", Paths.get("a/mod.py"));
+    byte[] second = compile("//a:a", "a/mod.py");
+
+    assertNotEquals(
+        new String(first, Charsets.ISO_8859_1), new String(second, Charsets.ISO_8859_1));
+    assertEquals(2, getCacheEntries().size());
+  }
+
+  @Test
+  public void cacheIsOnlyUsedWhenEnabled() throws Exception {
+    filesystem.writeContentsToPath("x = 1\n", Paths.get("a/mod.py"));
+
+    compile("//a:a", "a/mod.py", Optional.empty());
+    assertFalse(filesystem.exists(filesystem.getBuckPaths().getCacheDir()));
+  }
+
+  @Test
+  public void cacheIsTrimmedToItsMaximumSize() throws Exception {
+    filesystem.writeContentsToPath("x = 1\n", Paths.get("a/mod.py"));
+    filesystem.writeContentsToPath("x = 2\n", Paths.get("b/mod.py"));
+
+    compile("//a:a", "a/mod.py", Optional.of(1L));
+    compile("//b:b", "b/mod.py", Optional.of(1L));
+    assertEquals(0, getCacheEntries().size());
+  }
+
+  private byte[] compile(String target, String source) throws Exception {
+    return compile(target, source, Optional.of(1024L * 1024));
+  }
+
+  /** Compiles {@code source} as module {@code pkg.mod} and returns its bytecode. */
+  private byte[] compile(String target, String source, Optional<Long> bytecodeCacheMaxSizeBytes)
+      throws Exception {
+    BuildRule rule =
+        graphBuilder.computeIfAbsent(
+            BuildTargetFactory.newInstance(target),
+            buildTarget ->
+                PythonCompileRule.from(
+                    buildTarget,
+                    filesystem,
+                    graphBuilder,
+                    python,
+                    bytecodeCacheMaxSizeBytes,
+                    PythonMappedComponents.of(
+                        ImmutableSortedMap.of(
+                            Paths.get("pkg/mod.py"),
+                            PathSourcePath.of(filesystem, Paths.get(source)))),
+                    false));
+    for (Step step :
+        rule.getBuildSteps(
+            FakeBuildContext.withSourcePathResolver(
+                graphBuilder.getSourcePathResolver(), filesystem),
+            new FakeBuildableContext())) {
+      assertEquals(0, step.execute(context).getExitCode());
+    }
+    Path output =
+        graphBuilder.getSourcePathResolver().getAbsolutePath(rule.getSourcePathToOutput());
+    try (Stream<Path> files = Files.walk(output)) {
+      return Files.readAllBytes(
+          files.filter(path -> path.toString().endsWith(".pyc")).findFirst().get());
+    }
+  }
+
+  private ImmutableList<Path> getCacheEntries() throws IOException {
+    Path cacheDir = filesystem.resolve(filesystem.getBuckPaths().getCacheDir());
+    try (Stream<Path> files = Files.walk(cacheDir)) {
+      return files
+          .filter(path -> path.toString().endsWith(".pyc"))
+          .collect(ImmutableList.toImmutableList());
+    }
+  }
+}
@@ -35,7 +35,6 @@ import com.facebook.buck.core.sourcepath.FakeSourcePath;
 import com.facebook.buck.core.sourcepath.PathSourcePath;
 import com.facebook.buck.core.sourcepath.SourcePath;
 import com.facebook.buck.core.sourcepath.resolver.SourcePathResolverAdapter;
-import com.facebook.buck.io.BuildCellRelativePath;
 import com.facebook.buck.io.file.MorePaths;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.TestProjectFilesystems;
@@ -44,10 +43,9 @@ import com.facebook.buck.shell.Genrule;
 import com.facebook.buck.shell.GenruleBuilder;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.TestExecutionContext;
-import com.facebook.buck.step.fs.MakeCleanDirectoryStep;
 import com.facebook.buck.step.fs.SymlinkMapsPaths;
 import com.facebook.buck.step.fs.SymlinkPackPaths;
-import com.facebook.buck.step.fs.SymlinkTreeMergeStep;
+import com.facebook.buck.step.fs.SymlinkTreeSyncStep;
 import com.facebook.buck.testutil.TemporaryPaths;
 import com.facebook.buck.util.cache.FileHashCacheMode;
 import com.facebook.buck.util.cache.impl.DefaultFileHashCache;
@@ -64,6 +62,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Optional;
 import java.util.stream.Stream;
 import org.hamcrest.Matchers;
 import org.hamcrest.junit.ExpectedException;
@@ -139,18 +138,17 @@ public class PythonSymlinkTreeTest {
     // Verify the build steps are as expected.
     ImmutableList<Step> expectedBuildSteps =
         new ImmutableList.Builder<Step>()
-            .addAll(
-                MakeCleanDirectoryStep.of(
-                    BuildCellRelativePath.fromCellRelativePath(
-                        buildContext.getBuildCellRootPath(), projectFilesystem, outputPath)))
             .add(
-                new SymlinkTreeMergeStep(
+                new SymlinkTreeSyncStep(
                     "link_tree",
                     projectFilesystem,
                     outputPath,
                     new SymlinkPackPaths(
                         ImmutableList.of(new SymlinkMapsPaths(pathResolver.getMappedPaths(links)))),
-                    (fs, existingTarget) -> false))
+                    (fs, existingTarget) -> false,
+                    Optional.of(
+                        BuildTargetPaths.getScratchPath(
+                            projectFilesystem, buildTarget, "__%s__symlink_tree_manifest"))))
             .build();
     ImmutableList<Step> actualBuildSteps =
         symlinkTreeBuildRule.getBuildSteps(buildContext, buildableContext);
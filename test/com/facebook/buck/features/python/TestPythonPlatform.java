@@ -55,4 +55,9 @@ public class TestPythonPlatform implements PythonPlatform {
   public ImmutableList<String> getInplaceBinaryInterpreterFlags() {
     return ImmutableList.of("-Es");
   }
+
+  @Override
+  public Optional<Long> getBytecodeCacheMaxSizeBytes() {
+    return Optional.empty();
+  }
 }
@@ -37,12 +37,16 @@ public class RustBinaryBuilder
   }
 
   public static RustBinaryBuilder from(String target) {
+    return from(target, FakeRustConfig.FAKE_RUST_CONFIG);
+  }
+
+  public static RustBinaryBuilder from(String target, RustBuckConfig rustBuckConfig) {
     return new RustBinaryBuilder(
         new RustBinaryDescription(
             new ToolchainProviderBuilder()
                 .withToolchain(RustToolchain.DEFAULT_NAME, RustTestUtils.DEFAULT_TOOLCHAIN)
                 .build(),
-            FakeRustConfig.FAKE_RUST_CONFIG),
+            rustBuckConfig),
         BuildTargetFactory.newInstance(target));
   }
 
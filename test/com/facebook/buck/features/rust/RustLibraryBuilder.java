@@ -36,12 +36,16 @@ public class RustLibraryBuilder
   }
 
   public static RustLibraryBuilder from(String target) {
+    return from(target, FakeRustConfig.FAKE_RUST_CONFIG);
+  }
+
+  public static RustLibraryBuilder from(String target, RustBuckConfig rustBuckConfig) {
     return new RustLibraryBuilder(
         new RustLibraryDescription(
             new ToolchainProviderBuilder()
                 .withToolchain(RustToolchain.DEFAULT_NAME, RustTestUtils.DEFAULT_TOOLCHAIN)
                 .build(),
-            FakeRustConfig.FAKE_RUST_CONFIG),
+            rustBuckConfig),
         BuildTargetFactory.newInstance(target));
   }
 
@@ -55,6 +59,11 @@ public class RustLibraryBuilder
     return this;
   }
 
+  public RustLibraryBuilder setProcMacro(boolean procMacro) {
+    getArgForPopulating().setProcMacro(procMacro);
+    return this;
+  }
+
   public RustLibraryBuilder setPlatformDeps(
       PatternMatchedCollection<ImmutableSortedSet<BuildTarget>> platformDeps) {
     getArgForPopulating().setPlatformDeps(platformDeps);
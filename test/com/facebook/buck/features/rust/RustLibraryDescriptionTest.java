@@ -17,8 +17,12 @@
 package com.facebook.buck.features.rust;
 
 import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
+import com.facebook.buck.core.build.engine.impl.BuildRulePipelinesRunner;
+import com.facebook.buck.core.config.FakeBuckConfig;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.BuildTargetFactory;
 import com.facebook.buck.core.model.targetgraph.TargetGraph;
@@ -30,7 +34,10 @@ import com.facebook.buck.core.sourcepath.FakeSourcePath;
 import com.facebook.buck.cxx.CxxGenruleBuilder;
 import com.facebook.buck.parser.exceptions.NoSuchBuildTargetException;
 import com.facebook.buck.rules.coercer.PatternMatchedCollection;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
 import java.util.regex.Pattern;
 import org.hamcrest.Matchers;
 import org.junit.Test;
@@ -83,4 +90,109 @@ public class RustLibraryDescriptionTest {
         rule.getRustLinakbleDeps(RustTestUtils.DEFAULT_PLATFORM),
         Matchers.allOf(Matchers.hasItem(depA), not(Matchers.hasItem(depB))));
   }
+
+  @Test
+  public void pipelinedRlibDependentsCompileAgainstMetadata() {
+    RustBuckConfig rustBuckConfig =
+        new RustBuckConfig(
+            FakeBuckConfig.builder()
+                .setSections(
+                    ImmutableMap.of("rust", ImmutableMap.of("pipelined_compilation", "true")))
+                .build());
+    RustLibraryBuilder depBuilder =
+        RustLibraryBuilder.from("//:dep", rustBuckConfig)
+            .setSrcs(ImmutableSortedSet.of(FakeSourcePath.of("dep.rs")));
+    RustLibraryBuilder libraryBuilder =
+        RustLibraryBuilder.from("//:lib", rustBuckConfig)
+            .setSrcs(ImmutableSortedSet.of(FakeSourcePath.of("lib.rs")))
+            .setDeps(ImmutableSortedSet.of(depBuilder.getTarget()));
+    RustBinaryBuilder binaryBuilder =
+        RustBinaryBuilder.from("//:bin", rustBuckConfig)
+            .setSrcs(ImmutableSortedSet.of(FakeSourcePath.of("main.rs")))
+            .setDeps(ImmutableSortedSet.of(libraryBuilder.getTarget()));
+    TargetGraph targetGraph =
+        TargetGraphFactory.newInstance(
+            depBuilder.build(), libraryBuilder.build(), binaryBuilder.build());
+    ActionGraphBuilder graphBuilder = new TestActionGraphBuilder(targetGraph);
+    graphBuilder.requireRule(binaryBuilder.getTarget());
+
+    RustCompileRule depRlib = getPipelinedRlib(graphBuilder, depBuilder.getTarget());
+    RustCompileRule depMetadata = (RustCompileRule) depRlib.getPreviousRuleInPipeline();
+    RustCompileRule libRlib = getPipelinedRlib(graphBuilder, libraryBuilder.getTarget());
+    RustCompileRule libMetadata = (RustCompileRule) libRlib.getPreviousRuleInPipeline();
+    RustCompileRule binary =
+        Iterables.getOnlyElement(
+            Iterables.filter(
+                Iterables.filter(graphBuilder.getBuildRules(), RustCompileRule.class),
+                rule ->
+                    rule.getBuildTarget()
+                        .getUnflavoredBuildTarget()
+                        .equals(binaryBuilder.getTarget().getUnflavoredBuildTarget())));
+
+    assertTrue(depMetadata.useRulePipelining());
+    assertThat(libMetadata.getBuildDeps(), Matchers.hasItem(depMetadata));
+    assertThat(libRlib.getBuildDeps(), Matchers.hasItem(depMetadata));
+    assertThat(libRlib.getBuildDeps(), not(Matchers.hasItem(depRlib)));
+    assertThat(binary.getBuildDeps(), Matchers.hasItems(libRlib, depRlib));
+    assertFalse(binary.useRulePipelining());
+
+    // The runner checks that each rule only depends on its pipeline and the pipeline's deps.
+    BuildRulePipelinesRunner runner = new BuildRulePipelinesRunner();
+    for (RustCompileRule rule : ImmutableList.of(depMetadata, depRlib, libMetadata, libRlib)) {
+      runner.addRule(rule, state -> null);
+    }
+  }
+
+  @Test
+  public void pipelinedRlibProcMacroDependentsCompileAgainstRlib() {
+    RustBuckConfig rustBuckConfig =
+        new RustBuckConfig(
+            FakeBuckConfig.builder()
+                .setSections(
+                    ImmutableMap.of("rust", ImmutableMap.of("pipelined_compilation", "true")))
+                .build());
+    RustLibraryBuilder depBuilder =
+        RustLibraryBuilder.from("//:dep", rustBuckConfig)
+            .setSrcs(ImmutableSortedSet.of(FakeSourcePath.of("dep.rs")));
+    RustLibraryBuilder procMacroBuilder =
+        RustLibraryBuilder.from("//:macro", rustBuckConfig)
+            .setSrcs(ImmutableSortedSet.of(FakeSourcePath.of("macro.rs")))
+            .setProcMacro(true)
+            .setDeps(ImmutableSortedSet.of(depBuilder.getTarget()));
+    RustBinaryBuilder binaryBuilder =
+        RustBinaryBuilder.from("//:bin", rustBuckConfig)
+            .setSrcs(ImmutableSortedSet.of(FakeSourcePath.of("main.rs")))
+            .setDeps(ImmutableSortedSet.of(procMacroBuilder.getTarget()));
+    TargetGraph targetGraph =
+        TargetGraphFactory.newInstance(
+            depBuilder.build(), procMacroBuilder.build(), binaryBuilder.build());
+    ActionGraphBuilder graphBuilder = new TestActionGraphBuilder(targetGraph);
+    graphBuilder.requireRule(binaryBuilder.getTarget());
+
+    RustCompileRule depRlib = getPipelinedRlib(graphBuilder, depBuilder.getTarget());
+    RustCompileRule procMacro =
+        Iterables.getOnlyElement(
+            Iterables.filter(
+                Iterables.filter(graphBuilder.getBuildRules(), RustCompileRule.class),
+                rule ->
+                    rule.getBuildTarget()
+                        .getUnflavoredBuildTarget()
+                        .equals(procMacroBuilder.getTarget().getUnflavoredBuildTarget())));
+
+    assertThat(procMacro.getBuildDeps(), Matchers.hasItem(depRlib));
+    assertThat(
+        procMacro.getBuildDeps(), not(Matchers.hasItem(depRlib.getPreviousRuleInPipeline())));
+  }
+
+  private static RustCompileRule getPipelinedRlib(
+      ActionGraphBuilder graphBuilder, BuildTarget target) {
+    return Iterables.getOnlyElement(
+        Iterables.filter(
+            Iterables.filter(graphBuilder.getBuildRules(), RustCompileRule.class),
+            rule ->
+                rule.getBuildTarget()
+                        .getUnflavoredBuildTarget()
+                        .equals(target.getUnflavoredBuildTarget())
+                    && rule.getPreviousRuleInPipeline() != null));
+  }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.features.rust;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assume.assumeTrue;
+
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.testutil.TestConsole;
+import com.facebook.buck.util.DefaultProcessExecutor;
+import com.facebook.buck.util.ProcessExecutor;
+import com.facebook.buck.util.ProcessExecutorParams;
+import com.facebook.buck.util.environment.Platform;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class RustPipelineStateTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProcessExecutor processExecutor;
+  private ExecutionContext context;
+  private Path output;
+
+  @Before
+  public void setUp() {
+    assumeTrue(Platform.detect() != Platform.WINDOWS);
+    TestConsole console = new TestConsole();
+    processExecutor = new DefaultProcessExecutor(console);
+    context = TestExecutionContext.newBuilder().setConsole(console).build();
+    output = tmp.getRoot().resolve("stderr.txt");
+  }
+
+  @Test
+  public void everyRuleWaitsForTheSameCompilation() throws Exception {
+    RustPipelineState state = new RustPipelineState();
+    state.setCompilation(
+        processExecutor, launch("echo 'warning: unused' >&2; exit 3"), tmp.getRoot(), output);
+
+    StepExecutionResult first = state.waitForCompilation(context);
+    StepExecutionResult second = state.waitForCompilation(context);
+
+    assertEquals(3, first.getExitCode());
+    assertEquals("warning: unused\n", first.getStderr().get());
+    assertEquals(first, second);
+    state.close();
+  }
+
+  @Test
+  public void closingAbortedPipelineStopsCompilation() throws Exception {
+    RustPipelineState state = new RustPipelineState();
+    ProcessExecutor.LaunchedProcess process = launch("sleep 60");
+    state.setCompilation(processExecutor, process, tmp.getRoot(), output);
+
+    state.close();
+
+    processExecutor.waitForLaunchedProcess(process);
+    assertFalse(process.isAlive());
+  }
+
+  private ProcessExecutor.LaunchedProcess launch(String script) throws Exception {
+    return processExecutor.launchProcess(
+        ProcessExecutorParams.builder()
+            .addCommand("sh", "-c", script)
+            .setRedirectOutput(ProcessBuilder.Redirect.to(output.toFile()))
+            .setRedirectErrorStream(true)
+            .build());
+  }
+}
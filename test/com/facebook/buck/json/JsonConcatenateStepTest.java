@@ -31,10 +31,14 @@ import java.nio.file.Paths;
 import java.util.List;
 import org.hamcrest.Matchers;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.ExpectedException;
 
 public class JsonConcatenateStepTest {
 
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
   private JsonConcatenator jsonConcatenator;
   private Path mergedReport;
   private ProjectFilesystem filesystem;
@@ -178,4 +182,63 @@ public class JsonConcatenateStepTest {
     assertThat(
         "3 bugs expected in " + mergedReport + " not found", bugs.size(), Matchers.equalTo(3));
   }
+
+  @Test
+  public void testMergeStreamsArraysLargerThanTheReadBuffer() throws IOException {
+    StringBuilder large = new StringBuilder("\n[\n");
+    for (int i = 0; i < 5000; i++) {
+      large.append(i == 0 ? "" : ",\n").append("{\"args\":[\"-c\", \"a[]\"],   \"n\":").append(i);
+      large.append("}");
+    }
+    large.append("\n ]  \n");
+    Path input = filesystem.resolve("large");
+    filesystem.writeContentsToPath(large.toString(), input);
+    Path empty = filesystem.resolve("nothing");
+    filesystem.writeContentsToPath("  [\n\n]\n", empty);
+
+    new JsonConcatenator(ImmutableSortedSet.of(input, empty), mergedReport, filesystem)
+        .concatenate();
+
+    String result = filesystem.readFileIfItExists(mergedReport).get();
+    List<Object> entries =
+        ObjectMappers.createParser(result).readValueAs(new TypeReference<List<Object>>() {});
+    assertThat(entries.size(), Matchers.equalTo(5000));
+    assertThat(result, Matchers.startsWith("[\n{\"args\":[\"-c\", \"a[]\"],"));
+    assertThat(result, Matchers.endsWith("\"n\":4999}\n ]"));
+  }
+
+  @Test
+  public void testMergeRejectsInputsThatAreNotArrays() throws IOException {
+    Path input = filesystem.resolve("object");
+    filesystem.writeContentsToPath("{\"a\":1}", input);
+    JsonConcatenator concatenator =
+        new JsonConcatenator(ImmutableSortedSet.of(input), mergedReport, filesystem);
+
+    thrown.expect(IOException.class);
+    thrown.expectMessage("Error loading " + input);
+    concatenator.concatenate();
+  }
+
+  @Test
+  public void testMergeRejectsTrailingDataAfterTheArray() throws IOException {
+    Path input = filesystem.resolve("trailing");
+    filesystem.writeContentsToPath("[{\"a\":\"]\"}] \n{\"b\":2}]", input);
+    JsonConcatenator concatenator =
+        new JsonConcatenator(ImmutableSortedSet.of(input), mergedReport, filesystem);
+
+    thrown.expect(IOException.class);
+    thrown.expectMessage("Error loading " + input);
+    concatenator.concatenate();
+  }
+
+  @Test
+  public void testMergeKeepsBracketsInStrings() throws IOException {
+    jsonConcatenator.initializeArray();
+    jsonConcatenator.appendArray("[\"]\", \"\\\"]\"]\n");
+    jsonConcatenator.appendArray("[[1], {\"a\": \"[\"}]");
+    jsonConcatenator.finalizeArray();
+
+    String result = filesystem.readFileIfItExists(mergedReport).get();
+    assertThat(result, Matchers.equalTo("[\"]\", \"\\\"]\",[1], {\"a\": \"[\"}]"));
+  }
 }
@@ -18,7 +18,11 @@ package com.facebook.buck.jvm.java;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.Matchers.hasItems;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.core.build.execution.context.ExecutionContext;
 import com.facebook.buck.core.model.BuildId;
@@ -26,18 +30,22 @@ import com.facebook.buck.io.file.MorePaths;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
 import com.facebook.buck.jvm.java.runner.FileClassPathRunner;
+import com.facebook.buck.jvm.java.runner.TestRunnerWorker;
 import com.facebook.buck.step.TestExecutionContext;
 import com.facebook.buck.testutil.MoreAsserts;
 import com.facebook.buck.testutil.TestConsole;
 import com.facebook.buck.util.Verbosity;
+import com.facebook.buck.worker.WorkerProcessParams;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import java.io.IOException;
+import java.io.StringReader;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 import java.util.Optional;
+import java.util.Properties;
 import java.util.Set;
 import org.junit.Test;
 
@@ -316,4 +324,178 @@ public class JUnitStepTest {
         "Debugging. Suspending JVM. Connect a JDWP debugger to port 5005 to proceed.",
         console.getTextWrittenToStdErr().trim());
   }
+
+  @Test
+  public void testPooledJvmIsStartedWithoutSystemProperties() throws IOException {
+    Path testRunnerClasspath = Paths.get("ant-out/classes/junit");
+    ProjectFilesystem filesystem = FakeProjectFilesystem.createJavaOnlyFilesystem();
+    Path classpathFile = filesystem.resolve("foo");
+    JUnitJvmArgs args =
+        ImmutableJUnitJvmArgs.builder()
+            .setBuildId(new BuildId("pretend-build-id"))
+            .setBuckModuleBaseSourceCodePath(Paths.get("module"))
+            .setTargetJavaVersion(11)
+            .setClasspathFile(classpathFile)
+            .setTestRunnerClasspath(testRunnerClasspath)
+            .setExtraJvmArgs(ImmutableList.of("-Xmx1g", "-Dname1=value1"))
+            .setTestType(TestType.JUNIT)
+            .setDirectoryForTestResults(Paths.get("buck-out/gen/theresults/"))
+            .addTestClasses("com.example.FooTest")
+            .build();
+
+    JUnitStep junit =
+        new JUnitStep(
+            filesystem,
+            /* nativeLibsEnvironment */ ImmutableMap.of(),
+            /* testRuleTimeoutMs */ Optional.empty(),
+            /* testCaseTimeoutMs */ Optional.empty(),
+            ImmutableMap.of("FOO", "bar"),
+            ImmutableList.of("/foo/bar/custom/java"),
+            args,
+            /* maxPooledJvms */ 2,
+            /* maxRunsPerPooledJvm */ 10);
+    ExecutionContext executionContext =
+        TestExecutionContext.newBuilder().setDefaultTestTimeoutMillis(5000L).build();
+
+    assertTrue(junit.shouldRunInPooledJvm());
+    WorkerProcessParams params = junit.getPooledJvmParams(executionContext);
+    assertEquals(
+        ImmutableList.of(
+            "/foo/bar/custom/java",
+            "-Xmx1g",
+            "-classpath",
+            testRunnerClasspath.toString(),
+            TestRunnerWorker.class.getName(),
+            "10"),
+        params.getStartupCommand());
+    assertEquals(ImmutableMap.of("FOO", "bar"), params.getStartupEnvironment());
+    assertEquals(2, params.getMaxWorkers());
+
+    Properties command = new Properties();
+    command.load(
+        new StringReader(
+            args.getPooledJvmCommand(filesystem, executionContext.getVerbosity(), 5000L)));
+    assertEquals(classpathFile.toString(), command.getProperty("classpath_file"));
+    assertEquals("com.facebook.buck.testrunner.JUnitMain", command.getProperty("main_class"));
+    assertEquals("value1", command.getProperty("property.name1"));
+    assertEquals("pretend-build-id", command.getProperty("property.com.facebook.buck.buildId"));
+    assertEquals("--output", command.getProperty("arg.0"));
+    assertEquals("buck-out/gen/theresults", command.getProperty("arg.1"));
+    assertEquals("--default-test-timeout", command.getProperty("arg.2"));
+    assertEquals("5000", command.getProperty("arg.3"));
+    assertEquals("com.example.FooTest", command.getProperty("arg.4"));
+    assertNull(command.getProperty("arg.5"));
+  }
+
+  @Test
+  public void testRulesWithTimeoutsDoNotRunInPooledJvm() {
+    JUnitJvmArgs args =
+        ImmutableJUnitJvmArgs.builder()
+            .setBuildId(new BuildId("pretend-build-id"))
+            .setBuckModuleBaseSourceCodePath(Paths.get("module"))
+            .setTargetJavaVersion(11)
+            .setClasspathFile(Paths.get("foo"))
+            .setTestRunnerClasspath(Paths.get("ant-out/classes/junit"))
+            .setTestType(TestType.JUNIT)
+            .build();
+
+    JUnitStep junit =
+        new JUnitStep(
+            FakeProjectFilesystem.createJavaOnlyFilesystem(),
+            /* nativeLibsEnvironment */ ImmutableMap.of(),
+            /* testRuleTimeoutMs */ Optional.of(1000L),
+            /* testCaseTimeoutMs */ Optional.empty(),
+            ImmutableMap.of(),
+            ImmutableList.of("/foo/bar/custom/java"),
+            args,
+            /* maxPooledJvms */ 2,
+            /* maxRunsPerPooledJvm */ 10);
+
+    assertFalse(junit.shouldRunInPooledJvm());
+  }
+
+  @Test
+  public void testRecordingCoverageMapsStartsCoverageAgent() {
+    ProjectFilesystem filesystem = FakeProjectFilesystem.createJavaOnlyFilesystem();
+    Path coverageMapDir = JacocoConstants.getTestCoverageMapDir(filesystem);
+    JUnitJvmArgs args =
+        ImmutableJUnitJvmArgs.builder()
+            .setBuildId(new BuildId("pretend-build-id"))
+            .setBuckModuleBaseSourceCodePath(Paths.get("module"))
+            .setTargetJavaVersion(8)
+            .setClasspathFile(filesystem.resolve("foo"))
+            .setTestRunnerClasspath(Paths.get("ant-out/classes/junit"))
+            .setTestType(TestType.JUNIT)
+            .setTestCoverageMapDirectory(coverageMapDir)
+            .addTestClasses("com.example.FooTest")
+            .build();
+
+    JUnitStep junit =
+        new JUnitStep(
+            filesystem,
+            /* nativeLibsEnvironment */ ImmutableMap.of(),
+            /* testRuleTimeoutMs */ Optional.empty(),
+            /* testCaseTimeoutMs */ Optional.empty(),
+            ImmutableMap.of(),
+            ImmutableList.of("/foo/bar/custom/java"),
+            args,
+            /* maxPooledJvms */ 2,
+            /* maxRunsPerPooledJvm */ 10);
+    List<String> observedArgs = junit.getShellCommand(TestExecutionContext.newInstance());
+
+    assertThat(
+        observedArgs,
+        hasItems(
+            String.format(
+                "-javaagent:%s=output=none,inclnolocationclasses=false",
+                JacocoConstants.PATH_TO_JACOCO_AGENT_JAR),
+            String.format(
+                "-Dcom.facebook.buck.testCoverageMapDir=%s", filesystem.resolve(coverageMapDir))));
+    assertFalse(junit.shouldRunInPooledJvm());
+  }
+
+  @Test
+  public void testRecordingCoverageMapsWithCodeCoverageKeepsTheReportAgent() {
+    ProjectFilesystem filesystem = FakeProjectFilesystem.createJavaOnlyFilesystem();
+    Path coverageMapDir = JacocoConstants.getTestCoverageMapDir(filesystem);
+    JUnitJvmArgs args =
+        ImmutableJUnitJvmArgs.builder()
+            .setBuildId(new BuildId("pretend-build-id"))
+            .setBuckModuleBaseSourceCodePath(Paths.get("module"))
+            .setTargetJavaVersion(8)
+            .setClasspathFile(filesystem.resolve("foo"))
+            .setTestRunnerClasspath(Paths.get("ant-out/classes/junit"))
+            .setTestType(TestType.JUNIT)
+            .setCodeCoverageEnabled(true)
+            .setTestCoverageMapDirectory(coverageMapDir)
+            .addTestClasses("com.example.FooTest")
+            .build();
+
+    JUnitStep junit =
+        new JUnitStep(
+            filesystem,
+            /* nativeLibsEnvironment */ ImmutableMap.of(),
+            /* testRuleTimeoutMs */ Optional.empty(),
+            /* testCaseTimeoutMs */ Optional.empty(),
+            ImmutableMap.of(),
+            ImmutableList.of("/foo/bar/custom/java"),
+            args,
+            /* maxPooledJvms */ 2,
+            /* maxRunsPerPooledJvm */ 10);
+    List<String> observedArgs = junit.getShellCommand(TestExecutionContext.newInstance());
+
+    // The coverage maps are read from the agent that writes the report, which they leave intact.
+    assertThat(
+        observedArgs,
+        hasItems(
+            String.format(
+                "-javaagent:%s=destfile=%s/%s,append=true,inclnolocationclasses=false",
+                JacocoConstants.PATH_TO_JACOCO_AGENT_JAR,
+                JacocoConstants.getJacocoOutputDir(filesystem),
+                JacocoConstants.JACOCO_EXEC_COVERAGE_FILE),
+            String.format(
+                "-Dcom.facebook.buck.testCoverageMapDir=%s", filesystem.resolve(coverageMapDir))));
+    assertEquals(
+        1, observedArgs.stream().filter(arg -> arg.startsWith("-javaagent:")).count());
+  }
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.facebook.buck.jvm.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.test.selectors.TestCoverageMap;
+import com.facebook.buck.test.selectors.TestDescription;
+import com.facebook.buck.test.selectors.TestSelectorList;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class TestImpactSelectionTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private static final TestDescription FOO_TEST_FOO =
+      new TestDescription("com.example.FooTest", "testFoo");
+  private static final TestDescription FOO_TEST_BAR =
+      new TestDescription("com.example.FooTest", "testBar");
+  private static final TestDescription BAR_TEST_BAR =
+      new TestDescription("com.example.BarTest", "testBar");
+
+  @Before
+  public void setUp() throws IOException {
+    TestCoverageMap fooTest = new TestCoverageMap();
+    fooTest.addTestClassCoverage(ImmutableList.of("com/example/FooTest"));
+    fooTest.setTestCaseCoverage(FOO_TEST_FOO, ImmutableList.of("com/example/Foo$Inner"));
+    fooTest.setTestCaseCoverage(FOO_TEST_BAR, ImmutableList.of("com/example/Bar"));
+    fooTest.write(TestCoverageMap.getFile(tmp.getRoot().toFile(), "com.example.FooTest"));
+
+    TestCoverageMap barTest = new TestCoverageMap();
+    barTest.setTestCaseCoverage(BAR_TEST_BAR, ImmutableList.of("com/example/Bar"));
+    barTest.write(TestCoverageMap.getFile(tmp.getRoot().toFile(), "com.example.BarTest"));
+  }
+
+  @Test
+  public void selectsTestCasesCoveringChangedSources() {
+    Optional<TestImpactSelection> selection =
+        TestImpactSelection.select(
+            tmp.getRoot(),
+            ImmutableList.of("com.example.FooTest", "com.example.BarTest"),
+            ImmutableList.of("src/com/example/Foo.java"));
+
+    assertEquals(ImmutableSet.of("com.example.FooTest"), selection.get().getTestClasses());
+    TestSelectorList selectorList =
+        TestSelectorList.builder().addRawSelectors(selection.get().getExclusions()).build();
+    assertTrue(selectorList.isIncluded(FOO_TEST_FOO));
+    assertFalse(selectorList.isIncluded(FOO_TEST_BAR));
+    // Test cases added since the coverage was recorded.
+    assertTrue(selectorList.isIncluded(new TestDescription("com.example.FooTest", "testNew")));
+  }
+
+  @Test
+  public void selectsAllTestCasesOfTestClassesWithoutCoverage() {
+    Optional<TestImpactSelection> selection =
+        TestImpactSelection.select(
+            tmp.getRoot(),
+            ImmutableList.of("com.example.BarTest", "com.example.NewTest"),
+            ImmutableList.of("Foo.java"));
+
+    assertEquals(ImmutableSet.of("com.example.NewTest"), selection.get().getTestClasses());
+    assertEquals(ImmutableList.of(), selection.get().getExclusions());
+  }
+
+  @Test
+  public void selectsAllTestCasesOfTestClassesCoveringChangedSourcesOutsideOfTestCases() {
+    Optional<TestImpactSelection> selection =
+        TestImpactSelection.select(
+            tmp.getRoot(),
+            ImmutableList.of("com.example.FooTest"),
+            ImmutableList.of("test/com/example/FooTest.java"));
+
+    assertEquals(ImmutableSet.of("com.example.FooTest"), selection.get().getTestClasses());
+    assertEquals(ImmutableList.of(), selection.get().getExclusions());
+  }
+
+  @Test
+  public void selectsEverythingWhenOtherFilesChanged() {
+    assertFalse(
+        TestImpactSelection.select(
+                tmp.getRoot(),
+                ImmutableList.of("com.example.FooTest"),
+                ImmutableList.of("src/com/example/Foo.java", "src/com/example/foo.properties"))
+            .isPresent());
+  }
+}
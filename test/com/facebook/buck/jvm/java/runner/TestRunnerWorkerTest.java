@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.facebook.buck.jvm.java.runner;
+
+import com.facebook.buck.testutil.TemporaryPaths;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Properties;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class TestRunnerWorkerTest {
+  @Rule public TemporaryPaths temporaryPaths = new TemporaryPaths();
+
+  /** Stands in for the test runner, in a class loader of its own. */
+  public static class FakeRunner {
+    public static int run(String[] args) {
+      System.out.println(String.join(" ", args) + " " + System.getProperty("fake.property"));
+      return args.length;
+    }
+  }
+
+  @Test
+  public void runsCommandsWithTheirOwnPropertiesAndOutput() throws Exception {
+    Path first = writeCommand("first", "a", "b");
+    Path second = writeCommand("second", "c");
+    StringWriter out = new StringWriter();
+
+    new TestRunnerWorker(
+            new StringReader(
+                "[{\"id\":0,\"type\":\"handshake\",\"protocol_version\":\"0\",\"capabilities\":[]}"
+                    + getCommand(1, first)
+                    + getCommand(2, second)
+                    + "]"),
+            out,
+            temporaryPaths.getRoot(),
+            10)
+        .serve();
+
+    Assert.assertEquals(
+        "[{\"id\":0,\"type\":\"handshake\",\"protocol_version\":\"0\",\"capabilities\":[]}"
+            + ",{\"id\":1,\"type\":\"result\",\"exit_code\":2}"
+            + ",{\"id\":2,\"type\":\"result\",\"exit_code\":1}]",
+        out.toString());
+    Assert.assertEquals("a b first\n", readOutput(first));
+    Assert.assertEquals("c second\n", readOutput(second));
+    Assert.assertNull(System.getProperty("fake.property"));
+  }
+
+  @Test
+  public void retiresAfterMaxCommands() throws Exception {
+    Path command = writeCommand("value");
+    Writer out = new StringWriter();
+
+    new TestRunnerWorker(
+            new StringReader(
+                "[{\"id\":0,\"type\":\"handshake\",\"protocol_version\":\"0\"}"
+                    + getCommand(1, command)
+                    + "]"),
+            out,
+            temporaryPaths.getRoot(),
+            1)
+        .serve();
+
+    Assert.assertTrue(
+        out.toString()
+            .endsWith(",{\"id\":1,\"type\":\"result\",\"exit_code\":0,\"retire\":true}]"));
+  }
+
+  @Test
+  public void getArgsReadsArgsInOrder() {
+    Properties command = new Properties();
+    command.setProperty(TestRunnerWorker.ARG_KEY_PREFIX + "1", "second");
+    command.setProperty(TestRunnerWorker.ARG_KEY_PREFIX + "0", "first");
+    command.setProperty(TestRunnerWorker.ARG_KEY_PREFIX + "3", "skipped");
+
+    Assert.assertArrayEquals(new String[] {"first", "second"}, TestRunnerWorker.getArgs(command));
+  }
+
+  private Path writeCommand(String propertyValue, String... args) throws Exception {
+    Path dir = temporaryPaths.newFolder();
+    Path classPathFile = dir.resolve("classpath");
+    Path testClasses =
+        Paths.get(FakeRunner.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+    Files.write(classPathFile, Collections.singletonList(testClasses.toString()));
+
+    Properties command = new Properties();
+    command.setProperty(TestRunnerWorker.CLASSPATH_FILE_KEY, classPathFile.toString());
+    command.setProperty(TestRunnerWorker.MAIN_CLASS_KEY, FakeRunner.class.getName());
+    command.setProperty(TestRunnerWorker.PROPERTY_KEY_PREFIX + "fake.property", propertyValue);
+    for (int i = 0; i < args.length; i++) {
+      command.setProperty(TestRunnerWorker.ARG_KEY_PREFIX + i, args[i]);
+    }
+    try (Writer writer = Files.newBufferedWriter(dir.resolve("args"), StandardCharsets.UTF_8)) {
+      command.store(writer, null);
+    }
+    return dir;
+  }
+
+  private static String getCommand(int id, Path dir) {
+    return String.format(
+        ",{\"id\":%d,\"type\":\"command\",\"args_path\":\"%s\",\"stdout_path\":\"%s\","
+            + "\"stderr_path\":\"%s\"}",
+        id, dir.resolve("args"), dir.resolve("out"), dir.resolve("err"));
+  }
+
+  private static String readOutput(Path dir) throws IOException {
+    return new String(Files.readAllBytes(dir.resolve("out")), StandardCharsets.UTF_8);
+  }
+}
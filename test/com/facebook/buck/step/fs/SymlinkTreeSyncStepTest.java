@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.step.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.facebook.buck.core.exceptions.HumanReadableException;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.environment.Platform;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.hamcrest.Matchers;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+@RunWith(Parameterized.class)
+public class SymlinkTreeSyncStepTest {
+  @Rule public TemporaryPaths tempDir = new TemporaryPaths();
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  @Parameterized.Parameters(name = "manifest={0}")
+  public static Iterable<Object[]> data() {
+    return ImmutableList.of(new Object[] {true}, new Object[] {false});
+  }
+
+  @Parameterized.Parameter public boolean useManifest;
+
+  private ProjectFilesystem filesystem;
+  private Path root;
+  private Path a;
+  private Path b;
+  private Path c;
+
+  @Before
+  public void setUp() throws IOException {
+    Assume.assumeThat(Platform.detect(), Matchers.is(Matchers.not(Platform.WINDOWS)));
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tempDir.getRoot());
+    root = Paths.get("tree");
+    a = filesystem.resolve("a.h");
+    b = filesystem.resolve("b.h");
+    c = filesystem.resolve("c.h");
+    filesystem.writeContentsToPath("a", a);
+    filesystem.writeContentsToPath("b", b);
+    filesystem.writeContentsToPath("", c);
+  }
+
+  @Test
+  public void createsTheTree() throws IOException {
+    sync(ImmutableMap.of(Paths.get("x/a.h"), a, Paths.get("x/y/b.h"), b, Paths.get("c.h"), c));
+    assertEquals(a, filesystem.readSymLink(root.resolve("x/a.h")));
+    assertEquals(b, filesystem.readSymLink(root.resolve("x/y/b.h")));
+    assertEquals(c, filesystem.readSymLink(root.resolve("c.h")));
+  }
+
+  @Test
+  public void onlyUpdatesChangedLinks() throws IOException {
+    sync(ImmutableMap.of(Paths.get("x/a.h"), a, Paths.get("x/b.h"), b, Paths.get("y/c.h"), c));
+    Object unchanged = fileKey(root.resolve("x/a.h"));
+
+    sync(ImmutableMap.of(Paths.get("x/a.h"), a, Paths.get("x/b.h"), c, Paths.get("z/b.h"), b));
+
+    assertEquals(unchanged, fileKey(root.resolve("x/a.h")));
+    assertEquals(c, filesystem.readSymLink(root.resolve("x/b.h")));
+    assertEquals(b, filesystem.readSymLink(root.resolve("z/b.h")));
+    assertFalse(filesystem.exists(root.resolve("y"), LinkOption.NOFOLLOW_LINKS));
+  }
+
+  @Test
+  public void removesFilesAddedToTheTree() throws IOException {
+    sync(ImmutableMap.of(Paths.get("x/a.h"), a));
+    filesystem.writeContentsToPath("module", root.resolve("x/module.modulemap"));
+    filesystem.mkdirs(root.resolve("x/extra/dir"));
+    filesystem.createSymLink(filesystem.resolve(root.resolve("x/b.h")), b, false);
+
+    sync(ImmutableMap.of(Paths.get("x/a.h"), a));
+
+    assertEquals(ImmutableList.of(root.resolve("x/a.h")), listTree());
+  }
+
+  @Test
+  public void replacesWhatIsInTheWayOfLinksAndDirectories() throws IOException {
+    sync(ImmutableMap.of(Paths.get("x"), a, Paths.get("y/b.h"), b));
+    sync(ImmutableMap.of(Paths.get("x/a.h"), a, Paths.get("y"), b));
+    assertEquals(a, filesystem.readSymLink(root.resolve("x/a.h")));
+    assertEquals(b, filesystem.readSymLink(root.resolve("y")));
+  }
+
+  @Test
+  public void recreatesTheTreeIfItWasDeleted() throws IOException {
+    sync(ImmutableMap.of(Paths.get("x/a.h"), a));
+    filesystem.deleteRecursivelyIfExists(root);
+    sync(ImmutableMap.of(Paths.get("x/a.h"), a));
+    assertEquals(a, filesystem.readSymLink(root.resolve("x/a.h")));
+  }
+
+  @Test
+  public void keepsTheLinkThePredicateAllows() throws IOException {
+    SymlinkPaths links =
+        SymlinkPackPaths.of(
+            new SymlinkMapsPaths(ImmutableMap.of(Paths.get("__init__.py"), c)),
+            new SymlinkMapsPaths(ImmutableMap.of(Paths.get("__init__.py"), a)));
+    step(links, (fs, existing) -> true).execute(TestExecutionContext.newInstance());
+    assertEquals(a, filesystem.readSymLink(root.resolve("__init__.py")));
+
+    step(links, (fs, existing) -> true).execute(TestExecutionContext.newInstance());
+    assertEquals(a, filesystem.readSymLink(root.resolve("__init__.py")));
+    assertEquals(useManifest, filesystem.exists(Paths.get("tree.manifest")));
+  }
+
+  @Test
+  public void throwsOnConflictsThePredicateRejects() throws IOException {
+    thrown.expect(HumanReadableException.class);
+    thrown.expectMessage("already links to");
+    step(
+            SymlinkPackPaths.of(
+                new SymlinkMapsPaths(ImmutableMap.of(Paths.get("a.h"), a)),
+                new SymlinkMapsPaths(ImmutableMap.of(Paths.get("a.h"), b))),
+            (fs, existing) -> false)
+        .execute(TestExecutionContext.newInstance());
+  }
+
+  @Test
+  public void createsManyLinksInParallel() throws IOException {
+    ImmutableMap.Builder<Path, Path> links = ImmutableMap.builder();
+    for (int i = 0; i < 1000; i++) {
+      links.put(Paths.get("dir" + (i % 10), "header" + i + ".h"), i % 2 == 0 ? a : b);
+    }
+    sync(links.build());
+    ImmutableMap.Builder<Path, Path> retargeted = ImmutableMap.builder();
+    for (int i = 0; i < 1000; i++) {
+      retargeted.put(Paths.get("dir" + (i % 10), "header" + i + ".h"), a);
+    }
+    sync(retargeted.build());
+    assertEquals(1000, listTree().size());
+    assertEquals(a, filesystem.readSymLink(root.resolve("dir7/header997.h")));
+  }
+
+  private void sync(Map<Path, Path> links) throws IOException {
+    step(new SymlinkMapsPaths(ImmutableMap.copyOf(links)), (fs, existing) -> false)
+        .execute(TestExecutionContext.newInstance());
+  }
+
+  private SymlinkTreeSyncStep step(
+      SymlinkPaths links,
+      BiFunction<ProjectFilesystem, Path, Boolean> predicate) {
+    return new SymlinkTreeSyncStep("test", filesystem, root, links, predicate, manifest());
+  }
+
+  private Optional<Path> manifest() {
+    return useManifest ? Optional.of(Paths.get("tree.manifest")) : Optional.empty();
+  }
+
+  private Object fileKey(Path path) throws IOException {
+    return Files.readAttributes(
+            filesystem.resolve(path), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS)
+        .fileKey();
+  }
+
+  private List<Path> listTree() throws IOException {
+    try (Stream<Path> paths = Files.walk(filesystem.resolve(root))) {
+      return paths
+          .filter(path -> !Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS))
+          .map(tempDir.getRoot()::relativize)
+          .collect(Collectors.toList());
+    }
+  }
+}
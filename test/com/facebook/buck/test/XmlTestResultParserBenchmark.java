@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.facebook.buck.util.xml.XmlDomParser;
+import com.google.common.base.Strings;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.RunnerException;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/**
+ * Parses a synthetic result file of a large test class: many test cases with a little output each,
+ * some failures, and one test case which prints a lot. {@link #parseDocument()} only builds the
+ * DOM of the file, for comparison. Run with {@code -prof gc} to compare allocation.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class XmlTestResultParserBenchmark {
+
+  @Param({"20000"})
+  public int testCases;
+
+  @Param({"64"})
+  public int largeOutputMb;
+
+  private Path root;
+  private Path xmlFile;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    root = Files.createTempDirectory("xml-test-result-parser-benchmark");
+    xmlFile = root.resolve("result.xml");
+
+    String stdout = Strings.repeat("INFO: doing the thing &amp;lt;42&amp;gt;\n", 4);
+    String stacktrace =
+        Strings.repeat("&amp;#x9;at com.example.Foo.bar(Foo.java:42)&amp;#xA;", 30);
+    try (Writer out = Files.newBufferedWriter(xmlFile, UTF_8)) {
+      out.write("<?xml version=\"1.1\" encoding=\"UTF-8\" standalone=\"no\"?>\n");
+      out.write("<testcase name=\"com.example.FooTest\" testprotocol=\"1.0\">\n");
+      for (int i = 0; i < testCases; i++) {
+        if (i % 100 == 99) {
+          out.write(
+              String.format(
+                  "  <test message=\"expected:&amp;lt;%d&amp;gt;\" name=\"test%d\""
+                      + " stacktrace=\"java.lang.AssertionError&amp;#xA;%s\" success=\"false\""
+                      + " time=\"%d\" type=\"FAILURE\">\n",
+                  i, i, stacktrace, i % 50));
+        } else {
+          out.write(
+              String.format(
+                  "  <test name=\"test%d\" success=\"true\" time=\"%d\" type=\"SUCCESS\">\n",
+                  i, i % 50));
+        }
+        out.write("    <stdout>");
+        if (i == testCases / 2) {
+          for (long written = 0; written < largeOutputMb * 1024L * 1024L; ) {
+            out.write(stdout);
+            written += stdout.length();
+          }
+        } else {
+          out.write(stdout);
+        }
+        out.write("</stdout>\n  </test>\n");
+      }
+      out.write("</testcase>\n");
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    Files.delete(xmlFile);
+    Files.delete(root);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  public TestCaseSummary parse() throws IOException {
+    return XmlTestResultParser.parse(xmlFile);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  public Document parseDocument() throws IOException, SAXException {
+    return XmlDomParser.parse(xmlFile);
+  }
+
+  public static void main(String[] args) throws IOException, RunnerException {
+    Main.main(new String[] {XmlTestResultParserBenchmark.class.getName()});
+  }
+}
@@ -19,10 +19,12 @@ package com.facebook.buck.test;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import com.facebook.buck.test.result.type.ResultType;
 import com.facebook.buck.testutil.TemporaryPaths;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -64,6 +66,64 @@ public class XmlTestResultParserTest {
     }
   }
 
+  @Test
+  public void testParsesResultsAndCapturedOutput() throws IOException {
+    String xml =
+        "<?xml version='1.1' encoding='UTF-8' standalone='no'?>\n"
+            + "<testcase name='com.example.FooTest' testprotocol='1.0'>\n"
+            + "  <test name='passes' success='true' time='12' type='SUCCESS'>\n"
+            + "    <stdout>a &amp;lt; b\n</stdout>\n"
+            + "  </test>\n"
+            + "  <test message='expected:&amp;lt;1&amp;gt;' name='fails'"
+            + " stacktrace='java.lang.AssertionError&amp;#xA;&amp;#x9;at Foo'"
+            + " success='false' time='3' type='FAILURE'>\n"
+            + "    <stderr><![CDATA[oops]]></stderr>\n"
+            + "  </test>\n"
+            + "</testcase>\n";
+    Path xmlFile = tmp.newFile("result.xml");
+    Files.write(xmlFile, xml.getBytes(UTF_8));
+
+    TestCaseSummary summary = XmlTestResultParser.parse(xmlFile);
+
+    assertEquals("com.example.FooTest", summary.getTestCaseName());
+    assertEquals(2, summary.getTestResults().size());
+    TestResultSummary passes = summary.getTestResults().get(0);
+    assertEquals("passes", passes.getTestName());
+    assertEquals(ResultType.SUCCESS, passes.getType());
+    assertEquals(12, passes.getTime());
+    assertNull(passes.getMessage());
+    assertEquals("a < b\n", passes.getStdOut());
+    assertNull(passes.getStdErr());
+    TestResultSummary fails = summary.getTestResults().get(1);
+    assertEquals("com.example.FooTest", fails.getTestCaseName());
+    assertEquals(ResultType.FAILURE, fails.getType());
+    assertEquals("expected:<1>", fails.getMessage());
+    assertEquals("java.lang.AssertionError\n\tat Foo", fails.getStacktrace());
+    assertNull(fails.getStdOut());
+    assertEquals("oops", fails.getStdErr());
+  }
+
+  @Test
+  public void testTruncatesLongOutput() throws IOException {
+    String xml =
+        "<?xml version='1.1' encoding='UTF-8' standalone='no'?>\n"
+            + "<testcase name='com.example.FooTest'>\n"
+            + "  <test name='a' success='true' time='0' type='SUCCESS'>\n"
+            + "    <stdout>0123456789abcdef</stdout>\n"
+            + "    <stderr>01234567&amp;amp;</stderr>\n"
+            + "  </test>\n"
+            + "</testcase>\n";
+    Path xmlFile = tmp.newFile("result.xml");
+    Files.write(xmlFile, xml.getBytes(UTF_8));
+
+    TestResultSummary result = XmlTestResultParser.parse(xmlFile, 10).getTestResults().get(0);
+
+    String truncated =
+        String.format("%n[Output truncated. The full output is in %s]%n", xmlFile.toAbsolutePath());
+    assertEquals("0123456789" + truncated, result.getStdOut());
+    assertEquals("01234567" + truncated, result.getStdErr());
+  }
+
   @Test
   public void testParsingAndroidSeparatesClassesInResults() throws Throwable {
     String xml =
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.facebook.buck.test.selectors;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestCoverageMapTest {
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void writtenCoverageMapCanBeRead() throws IOException {
+    TestCoverageMap coverageMap = new TestCoverageMap();
+    coverageMap.addTestClassCoverage(Collections.singletonList("com/example/FooTest"));
+    coverageMap.setTestCaseCoverage(
+        new TestDescription("com.example.FooTest", "testFoo"),
+        Arrays.asList("com/example/Foo", "com/example/Foo$Bar"));
+    coverageMap.setTestCaseCoverage(
+        new TestDescription("com.example.FooTest$Nested", "test[a#b = c]"),
+        Collections.emptyList());
+
+    File file = TestCoverageMap.getFile(tmp.getRoot(), "com.example.FooTest");
+    coverageMap.write(file);
+    TestCoverageMap read = TestCoverageMap.read(file);
+
+    assertEquals(coverageMap.getTestClassCoverage(), read.getTestClassCoverage());
+    assertEquals(coverageMap.getTestCaseCoverage(), read.getTestCaseCoverage());
+  }
+
+  @Test
+  public void mergingKeepsCoverageOfTestCasesWhichDidNotRun() {
+    TestDescription testFoo = new TestDescription("com.example.FooTest", "testFoo");
+    TestDescription testBar = new TestDescription("com.example.FooTest", "testBar");
+    TestCoverageMap earlier = new TestCoverageMap();
+    earlier.addTestClassCoverage(Collections.singletonList("com/example/Setup"));
+    earlier.setTestCaseCoverage(testFoo, Collections.singletonList("com/example/Foo"));
+    earlier.setTestCaseCoverage(testBar, Collections.singletonList("com/example/Bar"));
+    TestCoverageMap later = new TestCoverageMap();
+    later.addTestClassCoverage(Collections.singletonList("com/example/FooTest"));
+    later.setTestCaseCoverage(testBar, Collections.singletonList("com/example/Baz"));
+
+    earlier.merge(later);
+
+    assertEquals(
+        ImmutableSet.of("com/example/Setup", "com/example/FooTest"),
+        earlier.getTestClassCoverage());
+    assertEquals(
+        ImmutableMap.of(
+            testFoo, ImmutableSet.of("com/example/Foo"),
+            testBar, ImmutableSet.of("com/example/Baz")),
+        earlier.getTestCaseCoverage());
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.facebook.buck.testrunner;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.List;
+import org.junit.Test;
+
+public class TestCoverageRecorderTest {
+
+  @Test
+  public void parsesClassesInExecutionData() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeByte(0x01);
+    out.writeChar(0xC0C0);
+    out.writeChar(0x1007);
+    out.writeByte(0x10);
+    out.writeUTF("session");
+    out.writeLong(1L);
+    out.writeLong(2L);
+    out.writeByte(0x11);
+    out.writeLong(42L);
+    out.writeUTF("com/example/Foo");
+    out.writeByte(3); // Probe count.
+    out.writeByte(0b101);
+    out.writeByte(0x11);
+    out.writeLong(43L);
+    out.writeUTF("com/example/Foo$Bar");
+    out.writeByte(0x80 | 4); // Probe count of 132, as a variable length integer.
+    out.writeByte(1);
+    byte[] probes = new byte[17];
+    probes[16] = 0b1000; // Probe 131.
+    out.write(probes);
+
+    List<TestCoverageRecorder.ClassExecutionData> classes =
+        TestCoverageRecorder.parseExecutionData(bytes.toByteArray());
+    assertEquals(2, classes.size());
+    assertEquals(42L, classes.get(0).id);
+    assertEquals("com/example/Foo", classes.get(0).name);
+    assertEquals(BitSet.valueOf(new long[] {0b101}), classes.get(0).probes);
+    assertEquals(43L, classes.get(1).id);
+    assertEquals("com/example/Foo$Bar", classes.get(1).name);
+    BitSet expected = new BitSet();
+    expected.set(131);
+    assertEquals(expected, classes.get(1).probes);
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.util;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CacheDirectoryTrimmerTest {
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path cacheDir;
+
+  @Before
+  public void setUp() throws Exception {
+    cacheDir = tmp.newFolder("cache").toPath();
+  }
+
+  @Test
+  public void trimDeletesTheLeastRecentlyUsedEntries() throws Exception {
+    Path oldest = store("a/oldest", 40, 1000);
+    Path used = store("b/used", 40, 2000);
+    Path newest = store("b/newest", 40, 3000);
+    setAccessTime(used, 4000);
+
+    new CacheDirectoryTrimmer(cacheDir, 100, path -> true).trim();
+
+    assertFalse(Files.exists(oldest));
+    assertFalse(Files.exists(newest));
+    assertTrue(Files.exists(used));
+  }
+
+  @Test
+  public void trimLeavesOutFilesThatAreNotEntries() throws Exception {
+    Path partial = store("partial.tmp", 60, 1000);
+    Path older = store("older", 60, 2000);
+    Path newer = store("newer", 60, 3000);
+
+    new CacheDirectoryTrimmer(cacheDir, 100, path -> !path.toString().endsWith(".tmp")).trim();
+
+    assertTrue(Files.exists(partial));
+    assertFalse(Files.exists(older));
+    assertTrue(Files.exists(newer));
+  }
+
+  @Test
+  public void directoryIsTrimmedOnceHalfOfItsSizeWasStored() throws Exception {
+    Path first = store("first", 60, 1000);
+    store("second", 60, 2000);
+
+    CacheDirectoryTrimmer trimmer = new CacheDirectoryTrimmer(cacheDir, 100, path -> true);
+    trimmer.recordStored(50);
+    assertTrue(Files.exists(first));
+
+    // Another trimmer of the same directory picks up what the first one recorded.
+    new CacheDirectoryTrimmer(cacheDir, 100, path -> true).recordStored(10);
+    assertFalse(Files.exists(first));
+  }
+
+  private Path store(String name, int size, long accessMillis) throws Exception {
+    Path path = cacheDir.resolve(name);
+    Files.createDirectories(path.getParent());
+    Files.write(path, new byte[size]);
+    setAccessTime(path, accessMillis);
+    return path;
+  }
+
+  private static void setAccessTime(Path path, long millis) throws Exception {
+    Files.getFileAttributeView(path, BasicFileAttributeView.class)
+        .setTimes(null, FileTime.fromMillis(millis), null);
+  }
+}
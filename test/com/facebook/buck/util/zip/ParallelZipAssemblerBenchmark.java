@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.util.zip;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Compares repacking a synthetic, APK-shaped archive with the serial {@link CustomZipOutputStream}
+ * approach used by {@code RepackZipEntriesStep} against {@link ParallelZipAssembler}.
+ *
+ * <p>The input mimics a large release APK: a handful of stored dex files and native libraries
+ * holding most of the bytes, a stored resources.arsc which gets recompressed, and thousands of
+ * small deflated resources.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ParallelZipAssemblerBenchmark {
+
+  @Param({"150"})
+  public int apkSizeMb;
+
+  @Param({"8"})
+  public int threads;
+
+  private Path root;
+  private Path input;
+  private Path output;
+  private ListeningExecutorService executor;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    root = Files.createTempDirectory("zip-assembler-benchmark");
+    input = root.resolve("input.apk");
+    output = root.resolve("output.apk");
+    executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threads));
+
+    Random random = new Random(0);
+    long budget = apkSizeMb * 1024L * 1024L;
+    try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(input))) {
+      // Resources: many small, compressible files.
+      byte[] resource = new byte[8 * 1024];
+      for (int i = 0; i < 5000; i++) {
+        for (int j = 0; j < resource.length; j++) {
+          resource[j] = (byte) ('a' + random.nextInt(4));
+        }
+        putEntry(out, String.format("res/drawable/r%d.xml", i), resource, ZipEntry.DEFLATED);
+        budget -= resource.length / 4;
+      }
+      putEntry(out, "resources.arsc", new byte[4 * 1024 * 1024], ZipEntry.STORED);
+      budget -= 4 * 1024 * 1024;
+
+      // Dex files and native libraries: large, incompressible and stored.
+      byte[] blob = new byte[8 * 1024 * 1024];
+      for (int i = 0; budget > 0; i++) {
+        random.nextBytes(blob);
+        String name = i % 2 == 0 ? String.format("classes%d.dex", i) : "lib/x86/lib" + i + ".so";
+        putEntry(out, name, blob, ZipEntry.STORED);
+        budget -= blob.length;
+      }
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    executor.shutdownNow();
+    MoreFiles.deleteRecursively(root, RecursiveDeleteOption.ALLOW_INSECURE);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  public void serialRepack() throws IOException {
+    try (ZipInputStream in =
+            new ZipInputStream(new BufferedInputStream(Files.newInputStream(input)));
+        CustomZipOutputStream out = ZipOutputStreams.newOutputStream(output)) {
+      for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+        CustomZipEntry customEntry = new CustomZipEntry(entry);
+        if (customEntry.getName().equals("resources.arsc")) {
+          customEntry.setCompressionLevel(ZipCompressionLevel.MAX.getValue());
+        }
+
+        InputStream toUse = in;
+        if (customEntry.getMethod() == ZipEntry.STORED) {
+          ByteArrayOutputStream bos = new ByteArrayOutputStream();
+          ByteStreams.copy(in, bos);
+          byte[] bytes = bos.toByteArray();
+          customEntry.setCrc(Hashing.crc32().hashBytes(bytes).padToLong());
+          customEntry.setSize(bytes.length);
+          customEntry.setCompressedSize(bytes.length);
+          toUse = new ByteArrayInputStream(bytes);
+        }
+
+        out.putNextEntry(customEntry);
+        ByteStreams.copy(toUse, out);
+        out.closeEntry();
+      }
+    }
+    ZipScrubber.scrubZip(output);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  public void parallelAssemble() throws IOException, InterruptedException {
+    ParallelZipAssembler assembler = new ParallelZipAssembler(executor);
+    assembler.addEntriesFromZip(input, ImmutableMap.of("resources.arsc", ZipCompressionLevel.MAX));
+    assembler.writeTo(output);
+  }
+
+  private static void putEntry(ZipOutputStream out, String name, byte[] data, int method)
+      throws IOException {
+    ZipEntry entry = new ZipEntry(name);
+    entry.setMethod(method);
+    if (method == ZipEntry.STORED) {
+      CRC32 crc = new CRC32();
+      crc.update(data);
+      entry.setSize(data.length);
+      entry.setCompressedSize(data.length);
+      entry.setCrc(crc.getValue());
+    }
+    out.putNextEntry(entry);
+    out.write(data);
+    out.closeEntry();
+  }
+
+  public static void main(String[] args) throws IOException, RunnerException {
+    Main.main(new String[] {ParallelZipAssemblerBenchmark.class.getName()});
+  }
+}
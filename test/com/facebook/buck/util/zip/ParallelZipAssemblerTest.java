@@ -0,0 +1,412 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.util.zip;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.Bytes;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class ParallelZipAssemblerTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  private ListeningExecutorService executor;
+
+  @Before
+  public void setUp() {
+    executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(4));
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void copiesEntriesWithoutRecompressing() throws Exception {
+    byte[] text = repeat("hello world ", 1000);
+    byte[] binary = randomBytes(4096, 1);
+    Path input = tmp.getRoot().resolve("input.zip");
+    try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(input))) {
+      out.putNextEntry(new ZipEntry("assets/"));
+      out.closeEntry();
+      putEntry(out, "assets/text.txt", text, ZipEntry.DEFLATED);
+      putEntry(out, "classes.dex", binary, ZipEntry.STORED);
+    }
+
+    Path output = tmp.getRoot().resolve("output.zip");
+    ParallelZipAssembler assembler = new ParallelZipAssembler(executor);
+    assembler.addEntriesFromZip(input, ImmutableMap.of());
+    assembler.writeTo(output);
+
+    try (ZipFile original = new ZipFile(input.toFile());
+        ZipFile copy = new ZipFile(output.toFile())) {
+      assertEquals(
+          ImmutableList.of("assets/", "assets/text.txt", "classes.dex"),
+          Collections.list(copy.entries()).stream()
+              .map(ZipEntry::getName)
+              .collect(ImmutableList.toImmutableList()));
+      for (ZipEntry entry : Collections.list(original.entries())) {
+        ZipEntry copied = copy.getEntry(entry.getName());
+        assertEquals(entry.getMethod(), copied.getMethod());
+        assertEquals(entry.getCompressedSize(), copied.getCompressedSize());
+        assertEquals(entry.getCrc(), copied.getCrc());
+        assertArrayEquals(read(original, entry), read(copy, copied));
+      }
+    }
+  }
+
+  @Test
+  public void recompressesRequestedEntries() throws Exception {
+    byte[] arsc = repeat("resource table ", 2000);
+    Path input = tmp.getRoot().resolve("input.zip");
+    try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(input))) {
+      putEntry(out, "resources.arsc", arsc, ZipEntry.STORED);
+      putEntry(out, "classes.dex", arsc, ZipEntry.DEFLATED);
+    }
+
+    Path output = tmp.getRoot().resolve("output.zip");
+    ParallelZipAssembler assembler = new ParallelZipAssembler(executor);
+    assembler.addEntriesFromZip(
+        input,
+        ImmutableMap.of(
+            "resources.arsc", ZipCompressionLevel.MAX, "classes.dex", ZipCompressionLevel.NONE));
+    assembler.writeTo(output);
+
+    try (ZipFile zip = new ZipFile(output.toFile())) {
+      ZipEntry resources = zip.getEntry("resources.arsc");
+      assertEquals(ZipEntry.DEFLATED, resources.getMethod());
+      assertArrayEquals(arsc, read(zip, resources));
+
+      ZipEntry dex = zip.getEntry("classes.dex");
+      assertEquals(ZipEntry.STORED, dex.getMethod());
+      assertEquals(arsc.length, dex.getCompressedSize());
+      assertArrayEquals(arsc, read(zip, dex));
+    }
+  }
+
+  @Test
+  public void addsFilesFromDisk() throws Exception {
+    byte[] library = randomBytes(10000, 2);
+    byte[] manifest = repeat("<manifest/>", 100);
+    Path libraryFile = tmp.newFile("libfoo.so");
+    Path manifestFile = tmp.newFile("AndroidManifest.xml");
+    Files.write(libraryFile, library);
+    Files.write(manifestFile, manifest);
+
+    Path output = tmp.getRoot().resolve("output.zip");
+    ParallelZipAssembler assembler = new ParallelZipAssembler(executor);
+    assembler.addFile("lib/armeabi-v7a/libfoo.so", libraryFile, ZipCompressionLevel.NONE);
+    assembler.addFile("AndroidManifest.xml", manifestFile, ZipCompressionLevel.DEFAULT);
+    assembler.writeTo(output);
+
+    try (ZipFile zip = new ZipFile(output.toFile())) {
+      ZipEntry libraryEntry = zip.getEntry("lib/armeabi-v7a/libfoo.so");
+      assertEquals(ZipEntry.STORED, libraryEntry.getMethod());
+      assertEquals(crc(library), libraryEntry.getCrc());
+      assertArrayEquals(library, read(zip, libraryEntry));
+
+      ZipEntry manifestEntry = zip.getEntry("AndroidManifest.xml");
+      assertEquals(ZipEntry.DEFLATED, manifestEntry.getMethod());
+      assertArrayEquals(manifest, read(zip, manifestEntry));
+    }
+  }
+
+  @Test
+  public void outputIsDeterministic() throws Exception {
+    byte[] data = repeat("data", 100);
+    Path first = tmp.getRoot().resolve("first.zip");
+    Path second = tmp.getRoot().resolve("second.zip");
+    long time = System.currentTimeMillis();
+    for (Path path : ImmutableList.of(first, second)) {
+      try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(path))) {
+        ZipEntry entry = new ZipEntry("file");
+        entry.setTime(time);
+        out.putNextEntry(entry);
+        out.write(data);
+        out.closeEntry();
+      }
+      time += 1000 * 60 * 60 * 24;
+    }
+
+    Path firstOutput = tmp.getRoot().resolve("first-out.zip");
+    Path secondOutput = tmp.getRoot().resolve("second-out.zip");
+    for (Path path : ImmutableList.of(firstOutput, secondOutput)) {
+      ParallelZipAssembler assembler = new ParallelZipAssembler(executor);
+      assembler.addEntriesFromZip(
+          path == firstOutput ? first : second, ImmutableMap.of("file", ZipCompressionLevel.MAX));
+      assembler.writeTo(path);
+    }
+
+    assertArrayEquals(Files.readAllBytes(firstOutput), Files.readAllBytes(secondOutput));
+    try (ZipFile zip = new ZipFile(firstOutput.toFile())) {
+      assertEquals(
+          ZipUtil.dosToJavaTime(ZipConstants.DOS_FAKE_TIME), zip.getEntry("file").getTime());
+    }
+  }
+
+  @Test
+  public void writesEntriesSpanningSeveralChunks() throws Exception {
+    Path input = tmp.getRoot().resolve("input.zip");
+    ImmutableList.Builder<byte[]> contents = ImmutableList.builder();
+    try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(input))) {
+      for (int i = 0; i < 6; i++) {
+        byte[] data = randomBytes(3 * 1024 * 1024, i);
+        contents.add(data);
+        putEntry(out, "lib/lib" + i + ".so", data, ZipEntry.STORED);
+      }
+    }
+
+    Path output = tmp.getRoot().resolve("output.zip");
+    ParallelZipAssembler assembler = new ParallelZipAssembler(executor);
+    assembler.addEntriesFromZip(input, ImmutableMap.of());
+    assembler.writeTo(output);
+
+    try (ZipFile zip = new ZipFile(output.toFile())) {
+      ImmutableList<byte[]> expected = contents.build();
+      for (int i = 0; i < expected.size(); i++) {
+        assertArrayEquals(expected.get(i), read(zip, zip.getEntry("lib/lib" + i + ".so")));
+      }
+    }
+  }
+
+  @Test
+  public void duplicateEntriesAreRejected() throws Exception {
+    Path file = tmp.newFile("file");
+    ParallelZipAssembler assembler = new ParallelZipAssembler(executor);
+    assembler.addFile("file", file, ZipCompressionLevel.NONE);
+
+    thrown.expect(IOException.class);
+    thrown.expectMessage("Duplicate entry in zip: file");
+    assembler.addFile("file", file, ZipCompressionLevel.NONE);
+  }
+
+  @Test
+  public void writesPreambleBeforeEntries() throws Exception {
+    byte[] preamble = "#!/usr/bin/env python3.7\n".getBytes(Charsets.UTF_8);
+    byte[] main = repeat("print('hello')\n", 10);
+    Path output = tmp.getRoot().resolve("output.pex");
+    ParallelZipAssembler assembler = new ParallelZipAssembler(executor);
+    assembler.setPreamble(preamble);
+    assembler.addBytes("__main__.py", main, ZipCompressionLevel.DEFAULT);
+    assembler.writeTo(output);
+
+    byte[] written = Files.readAllBytes(output);
+    assertArrayEquals(preamble, Arrays.copyOf(written, preamble.length));
+    assertArrayEquals(preamble, ParallelZipAssembler.readPreamble(output));
+    try (ZipFile zip = new ZipFile(output.toFile())) {
+      assertArrayEquals(main, read(zip, zip.getEntry("__main__.py")));
+    }
+  }
+
+  @Test
+  public void readsArchivesAppendedToAPreamble() throws Exception {
+    byte[] preamble = "#!/usr/bin/env python2.7\n".getBytes(Charsets.UTF_8);
+    byte[] text = repeat("hello world ", 1000);
+    ByteArrayOutputStream archive = new ByteArrayOutputStream();
+    try (ZipOutputStream out = new ZipOutputStream(archive)) {
+      putEntry(out, "text.txt", text, ZipEntry.DEFLATED);
+      putEntry(out, "data.bin", randomBytes(100, 3), ZipEntry.STORED);
+    }
+    // Offsets in the appended archive are relative to its own start, not to the file's.
+    Path input = tmp.getRoot().resolve("input.pex");
+    Files.write(input, Bytes.concat(preamble, archive.toByteArray()));
+
+    assertArrayEquals(preamble, ParallelZipAssembler.readPreamble(input));
+
+    Path output = tmp.getRoot().resolve("output.zip");
+    ParallelZipAssembler assembler = new ParallelZipAssembler(executor);
+    assembler.addEntriesFromZip(input, name -> !name.equals("data.bin"), ImmutableMap.of());
+    assembler.writeTo(output);
+
+    try (ZipFile zip = new ZipFile(output.toFile())) {
+      assertEquals(1, zip.size());
+      assertArrayEquals(text, read(zip, zip.getEntry("text.txt")));
+    }
+  }
+
+  @Test
+  public void reusesUnchangedEntriesFromPreviousArchive() throws Exception {
+    byte[] unchanged = randomWords(20000, 4);
+    Path unchangedFile = tmp.getRoot().resolve("unchanged.py");
+    Files.write(unchangedFile, unchanged);
+    Path changedFile = tmp.getRoot().resolve("changed.py");
+    Files.write(changedFile, randomWords(20000, 5));
+
+    Path previous = tmp.getRoot().resolve("previous.zip");
+    ParallelZipAssembler assembler = new ParallelZipAssembler(executor);
+    assembler.addFile("unchanged.py", unchangedFile, ZipCompressionLevel.MAX);
+    assembler.addFile("changed.py", changedFile, ZipCompressionLevel.MAX);
+    assembler.writeTo(previous);
+
+    byte[] changed = randomWords(20000, 6);
+    Files.write(changedFile, changed);
+    Path fresh = tmp.getRoot().resolve("fresh.zip");
+    assembler = new ParallelZipAssembler(executor);
+    assembler.addFile("unchanged.py", unchangedFile, ZipCompressionLevel.MIN);
+    assembler.writeTo(fresh);
+    Path output = tmp.getRoot().resolve("output.zip");
+    assembler = new ParallelZipAssembler(executor);
+    assembler.reuseEntriesFrom(previous);
+    assembler.addFile("unchanged.py", unchangedFile, ZipCompressionLevel.MIN);
+    assembler.addFile("changed.py", changedFile, ZipCompressionLevel.MIN);
+    assembler.writeTo(output);
+
+    try (ZipFile previousZip = new ZipFile(previous.toFile());
+        ZipFile freshZip = new ZipFile(fresh.toFile());
+        ZipFile zip = new ZipFile(output.toFile())) {
+      // The unchanged entry keeps the compression it had in the previous archive.
+      long reusedSize = previousZip.getEntry("unchanged.py").getCompressedSize();
+      assertNotEquals(reusedSize, freshZip.getEntry("unchanged.py").getCompressedSize());
+      assertEquals(reusedSize, zip.getEntry("unchanged.py").getCompressedSize());
+      assertArrayEquals(unchanged, read(zip, zip.getEntry("unchanged.py")));
+      assertArrayEquals(changed, read(zip, zip.getEntry("changed.py")));
+    }
+  }
+
+  @Test
+  public void compressedPayloadsAreWrittenThroughATemporaryFile() throws Exception {
+    byte[] text = repeat("hello world ", 1000);
+    byte[] binary = randomBytes(4096, 7);
+    Path textFile = tmp.getRoot().resolve("text.txt");
+    Files.write(textFile, text);
+    Path input = tmp.getRoot().resolve("input.zip");
+    try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(input))) {
+      putEntry(out, "recompressed.txt", text, ZipEntry.STORED);
+    }
+
+    Path outputDir = tmp.newFolder("out");
+    Path output = outputDir.resolve("output.zip");
+    ParallelZipAssembler assembler = new ParallelZipAssembler(executor);
+    assembler.addFile("file.txt", textFile, ZipCompressionLevel.DEFAULT);
+    assembler.addBytes("stored.bin", binary, ZipCompressionLevel.NONE);
+    assembler.addEntriesFromZip(
+        input, ImmutableMap.of("recompressed.txt", ZipCompressionLevel.MAX));
+    assembler.writeTo(output);
+
+    try (ZipFile zip = new ZipFile(output.toFile())) {
+      assertArrayEquals(text, read(zip, zip.getEntry("file.txt")));
+      assertArrayEquals(binary, read(zip, zip.getEntry("stored.bin")));
+      ZipEntry recompressed = zip.getEntry("recompressed.txt");
+      assertEquals(ZipEntry.DEFLATED, recompressed.getMethod());
+      assertArrayEquals(text, read(zip, recompressed));
+    }
+    assertEquals(ImmutableList.of(output), listFiles(outputDir));
+  }
+
+  @Test
+  public void temporaryFileIsRemovedWhenWritingFails() throws Exception {
+    Path outputDir = tmp.newFolder("out");
+    ParallelZipAssembler assembler = new ParallelZipAssembler(executor);
+    assembler.addBytes("present.txt", repeat("data ", 100), ZipCompressionLevel.DEFAULT);
+    assembler.addFile(
+        "missing.txt", tmp.getRoot().resolve("missing.txt"), ZipCompressionLevel.DEFAULT);
+
+    thrown.expect(IOException.class);
+    try {
+      assembler.writeTo(outputDir.resolve("output.zip"));
+    } finally {
+      assertEquals(ImmutableList.of(), listFiles(outputDir));
+    }
+  }
+
+  private static ImmutableList<Path> listFiles(Path dir) throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.collect(ImmutableList.toImmutableList());
+    }
+  }
+
+  private static void putEntry(ZipOutputStream out, String name, byte[] data, int method)
+      throws IOException {
+    ZipEntry entry = new ZipEntry(name);
+    entry.setMethod(method);
+    if (method == ZipEntry.STORED) {
+      entry.setSize(data.length);
+      entry.setCompressedSize(data.length);
+      entry.setCrc(crc(data));
+    }
+    out.putNextEntry(entry);
+    out.write(data);
+    out.closeEntry();
+  }
+
+  private static byte[] read(ZipFile zip, ZipEntry entry) throws IOException {
+    try (InputStream in = zip.getInputStream(entry)) {
+      return ByteStreams.toByteArray(in);
+    }
+  }
+
+  private static long crc(byte[] data) {
+    CRC32 crc = new CRC32();
+    crc.update(data);
+    return crc.getValue();
+  }
+
+  private static byte[] repeat(String text, int times) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < times; i++) {
+      builder.append(text);
+    }
+    return builder.toString().getBytes(Charsets.UTF_8);
+  }
+
+  private static byte[] randomWords(int count, long seed) {
+    String[] words = {"def", "class", "import", "return", "self", "None", "for", "in", "if"};
+    Random random = new Random(seed);
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      builder.append(words[random.nextInt(words.length)]).append(random.nextInt(100)).append(' ');
+    }
+    return builder.toString().getBytes(Charsets.UTF_8);
+  }
+
+  private static byte[] randomBytes(int length, long seed) {
+    byte[] bytes = new byte[length];
+    new Random(seed).nextBytes(bytes);
+    return bytes;
+  }
+}
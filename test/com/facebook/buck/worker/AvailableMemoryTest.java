@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Optional;
+import org.junit.Test;
+
+public class AvailableMemoryTest {
+
+  @Test
+  public void usesMemAvailableRatherThanMemFree() {
+    assertEquals(
+        0.5,
+        AvailableMemory.parseMeminfo(
+                "MemTotal:       16000000 kB\n"
+                    + "MemFree:          100000 kB\n"
+                    + "MemAvailable:    8000000 kB\n"
+                    + "Buffers:          300000 kB\n")
+            .getAsDouble(),
+        0);
+    assertFalse(AvailableMemory.parseMeminfo("MemTotal: 16000000 kB\n").isPresent());
+  }
+
+  @Test
+  public void countsInactivePageCacheOfCgroupsAsAvailable() {
+    assertEquals(
+        0.75,
+        AvailableMemory.parseCgroup(
+                Optional.of("1000\n"),
+                Optional.of("750\n"),
+                Optional.of("anon 250\ninactive_file 500\nactive_file 0\n"),
+                "inactive_file")
+            .getAsDouble(),
+        0);
+    assertEquals(
+        0.25,
+        AvailableMemory.parseCgroup(
+                Optional.of("1000\n"), Optional.of("750\n"), Optional.empty(), "inactive_file")
+            .getAsDouble(),
+        0);
+  }
+
+  @Test
+  public void ignoresCgroupsWithoutLimit() {
+    assertFalse(
+        AvailableMemory.parseCgroup(
+                Optional.of("max\n"), Optional.of("750\n"), Optional.empty(), "inactive_file")
+            .isPresent());
+    assertFalse(
+        AvailableMemory.parseCgroup(
+                Optional.of("9223372036854771712\n"),
+                Optional.of("750\n"),
+                Optional.empty(),
+                "total_inactive_file")
+            .isPresent());
+  }
+}
@@ -17,24 +17,45 @@
 package com.facebook.buck.worker;
 
 import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class FakeWorkerProcessProtocol {
 
   public static class FakeCommandSender implements WorkerProcessProtocol.CommandSender {
 
     private boolean isClosed = false;
+    private final Queue<Integer> unansweredMessageIds = new ConcurrentLinkedQueue<>();
 
     @Override
     public void handshake(int messageId) {}
 
     @Override
-    public void send(int messageId, WorkerProcessCommand command) {}
+    public void send(int messageId, WorkerProcessCommand command) throws IOException {
+      unansweredMessageIds.add(messageId);
+    }
 
     @Override
     public int receiveCommandResponse(int messageID) throws IOException {
+      unansweredMessageIds.remove(messageID);
       return 0;
     }
 
+    @Override
+    public WorkerProcessCommandResponse receiveNextCommandResponse() throws IOException {
+      return ImmutableWorkerProcessCommandResponse.of(unansweredMessageIds.remove(), 0);
+    }
+
+    @Override
+    public boolean supportsMultiplexing() {
+      return false;
+    }
+
+    @Override
+    public boolean isRetiring() {
+      return false;
+    }
+
     @Override
     public void close() {
       isClosed = true;
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.worker;
+
+import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import com.facebook.buck.util.FakeProcessExecutor;
+import com.facebook.buck.util.ProcessExecutorParams;
+import com.facebook.buck.worker.WorkerProcessPool.BorrowedWorkerProcess;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Measures the throughput of a {@link WorkerProcessPool} depending on its size, with workers that
+ * do and don't support multiplexing.
+ *
+ * <p>The workers are fake processes running in the benchmark JVM. They speak protocol zero over
+ * pipes and spend a fixed amount of time on every job, so the results reflect the scheduling of
+ * the pool rather than the cost of starting processes.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WorkerProcessPoolBenchmark {
+
+  @Param({"1", "2", "4", "8"})
+  public int poolSize;
+
+  @Param({"false", "true"})
+  public boolean multiplexing;
+
+  @Param({"16"})
+  public int clientThreads;
+
+  @Param({"2"})
+  public int jobMillis;
+
+  private static final int JOBS_PER_ITERATION = 256;
+
+  private Path tmpDir;
+  private WorkerProcessPool pool;
+  private ExecutorService clients;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    tmpDir = Files.createTempDirectory("worker-pool-benchmark");
+    pool =
+        new WorkerProcessPool(
+            poolSize,
+            WorkerProcessPool.DEFAULT_MAX_REQUESTS_PER_WORKER,
+            Hashing.sha1().hashInt(poolSize),
+            () -> {
+              WorkerProcess worker = new InProcessWorker(tmpDir, multiplexing, jobMillis);
+              worker.ensureLaunchAndHandshake();
+              return worker;
+            });
+    clients = Executors.newFixedThreadPool(clientThreads);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    clients.shutdownNow();
+    pool.close();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public int runJobs() throws Exception {
+    List<Future<WorkerJobResult>> results = new ArrayList<>(JOBS_PER_ITERATION);
+    for (int i = 0; i < JOBS_PER_ITERATION; i++) {
+      results.add(
+          clients.submit(
+              () -> {
+                try (BorrowedWorkerProcess worker = pool.borrowWorkerProcess()) {
+                  return worker.submitAndWaitForJob("job");
+                }
+              }));
+    }
+    int exitCodes = 0;
+    for (Future<WorkerJobResult> result : results) {
+      exitCodes += result.get().getExitCode();
+    }
+    return exitCodes;
+  }
+
+  public static void main(String[] args) throws IOException, RunnerException {
+    Main.main(new String[] {WorkerProcessPoolBenchmark.class.getName()});
+  }
+
+  /** A worker process whose "process" is a thread answering commands after a fixed delay. */
+  private static class InProcessWorker extends WorkerProcess {
+    private final boolean multiplexing;
+    private final int jobMillis;
+    private final ExecutorService workerThreads = Executors.newCachedThreadPool();
+
+    InProcessWorker(Path tmpDir, boolean multiplexing, int jobMillis) throws IOException {
+      super(
+          new FakeProcessExecutor(),
+          ProcessExecutorParams.builder().setCommand(ImmutableList.of()).build(),
+          new FakeProjectFilesystem(),
+          Files.createTempFile(tmpDir, "stderr", ".log"),
+          tmpDir);
+      this.multiplexing = multiplexing;
+      this.jobMillis = jobMillis;
+    }
+
+    @Override
+    public boolean isAlive() {
+      return !workerThreads.isShutdown();
+    }
+
+    @Override
+    public synchronized void ensureLaunchAndHandshake() throws IOException {
+      Pipe stdin = Pipe.open();
+      Pipe stdout = Pipe.open();
+      InputStream workerStdin = Channels.newInputStream(stdin.source());
+      OutputStream workerStdout = Channels.newOutputStream(stdout.sink());
+      workerThreads.execute(() -> serve(workerStdin, workerStdout));
+      WorkerProcessProtocolZero.CommandSender sender =
+          new WorkerProcessProtocolZero.CommandSender(
+              Channels.newOutputStream(stdin.sink()),
+              Channels.newInputStream(stdout.source()),
+              Files.createTempFile("stderr", ".log"),
+              () -> {},
+              () -> true);
+      sender.handshake(0);
+      setProtocol(sender);
+    }
+
+    @Override
+    public synchronized void close() {
+      super.close();
+      workerThreads.shutdownNow();
+    }
+
+    private void serve(InputStream stdin, OutputStream stdout) {
+      try (JsonReader reader =
+              new JsonReader(new InputStreamReader(stdin, StandardCharsets.UTF_8));
+          JsonWriter writer =
+              new JsonWriter(new OutputStreamWriter(stdout, StandardCharsets.UTF_8))) {
+        reader.beginArray();
+        int handshakeId = readMessageId(reader);
+        writer.beginArray();
+        writer.beginObject();
+        writer.name("id").value(handshakeId);
+        writer.name("type").value("handshake");
+        writer.name("protocol_version").value("0");
+        writer.name("capabilities").beginArray();
+        if (multiplexing) {
+          writer.value(WorkerProcessProtocolZero.CAPABILITY_MULTIPLEXING);
+        }
+        writer.endArray();
+        writer.endObject();
+        writer.flush();
+
+        while (reader.hasNext()) {
+          int id = readMessageId(reader);
+          if (multiplexing) {
+            workerThreads.execute(() -> runJob(writer, id));
+          } else {
+            runJob(writer, id);
+          }
+        }
+        reader.endArray();
+        synchronized (writer) {
+          writer.endArray();
+        }
+      } catch (IOException e) {
+        // The pool was closed.
+      }
+    }
+
+    private void runJob(JsonWriter writer, int id) {
+      try {
+        Thread.sleep(jobMillis);
+        synchronized (writer) {
+          writer.beginObject();
+          writer.name("id").value(id);
+          writer.name("type").value("result");
+          writer.name("exit_code").value(0);
+          writer.endObject();
+          writer.flush();
+        }
+      } catch (InterruptedException | IOException e) {
+        // The pool was closed.
+      }
+    }
+
+    private static int readMessageId(JsonReader reader) throws IOException {
+      int id = -1;
+      reader.beginObject();
+      while (reader.hasNext()) {
+        if (reader.nextName().equals("id")) {
+          id = reader.nextInt();
+        } else {
+          reader.skipValue();
+        }
+      }
+      reader.endObject();
+      return id;
+    }
+  }
+}
@@ -30,8 +30,10 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.Hashing;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
@@ -44,8 +46,10 @@ import java.util.concurrent.Phaser;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.function.DoubleSupplier;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -369,6 +373,182 @@ public class WorkerProcessPoolTest {
     worker.close();
   }
 
+  @Test(timeout = WAIT_FOR_TEST_THREADS_TIMEOUT)
+  public void testSharesMultiplexingWorkersBeforeStartingMoreOfThem() throws Exception {
+    int maxWorkers = 2;
+    int maxRequestsPerWorker = 3;
+    Set<WorkerProcess> createdWorkers = new HashSet<>();
+    WorkerProcessPool pool =
+        createAdaptivePool(
+            maxWorkers,
+            maxRequestsPerWorker,
+            () -> 1,
+            new AtomicLong(),
+            () -> {
+              WorkerProcess worker = new MultiplexingFakeWorkerProcess();
+              createdWorkers.add(worker);
+              return worker;
+            });
+
+    acquireWorkersThenRunActionThenRelease(
+        pool,
+        maxRequestsPerWorker,
+        () -> assertThat(createdWorkers.size(), is(1)));
+
+    AtomicReference<BorrowedWorkerProcess> extraWorkerProcess = new AtomicReference<>();
+    acquireWorkersThenRunActionThenRelease(
+        pool,
+        maxWorkers * maxRequestsPerWorker,
+        () ->
+            pool.borrowWorkerProcess(1, TimeUnit.MILLISECONDS).ifPresent(extraWorkerProcess::set));
+
+    assertThat(createdWorkers.size(), is(maxWorkers));
+    assertThat(extraWorkerProcess.get(), is(nullValue()));
+    pool.close();
+  }
+
+  @Test
+  public void testRetiredMultiplexingWorkerIsClosedOnceItsJobsAreDone() throws Exception {
+    List<RetiringFakeWorkerProcess> createdWorkers = new ArrayList<>();
+    WorkerProcessPool pool =
+        createAdaptivePool(
+            1,
+            3,
+            () -> 1,
+            new AtomicLong(),
+            () -> {
+              RetiringFakeWorkerProcess worker = new RetiringFakeWorkerProcess();
+              createdWorkers.add(worker);
+              return worker;
+            });
+
+    BorrowedWorkerProcess first = pool.borrowWorkerProcess();
+    WorkerProcess retiring = first.get();
+    BorrowedWorkerProcess second = pool.borrowWorkerProcess();
+    assertThat(second.get(), is(retiring));
+    BorrowedWorkerProcess third = pool.borrowWorkerProcess();
+
+    createdWorkers.get(0).retire();
+    assertThat(third.get(), is(not(retiring)));
+    assertThat(createdWorkers.size(), is(2));
+    assertThat(createdWorkers.get(0).wasClosed(), is(false));
+
+    first.close();
+    assertThat(createdWorkers.get(0).wasClosed(), is(false));
+    second.close();
+    assertThat(createdWorkers.get(0).wasClosed(), is(true));
+    assertThat(createdWorkers.get(1).wasClosed(), is(false));
+
+    third.close();
+    pool.close();
+    assertThat(createdWorkers.get(1).wasClosed(), is(true));
+  }
+
+  @Test
+  public void testShutsDownIdleWorkers() throws Exception {
+    AtomicLong clock = new AtomicLong();
+    long idleTimeout = TimeUnit.MINUTES.toNanos(1);
+    Set<WorkerProcess> createdWorkers = new HashSet<>();
+    WorkerProcessPool pool =
+        createAdaptivePool(
+            3,
+            1,
+            () -> 1,
+            clock,
+            () -> {
+              FakeWorkerProcess worker = new FakeWorkerProcess(ImmutableMap.of());
+              createdWorkers.add(worker);
+              return worker;
+            });
+
+    acquireWorkersThenRelease(pool, 3);
+    assertThat(pool.getStats().getRunningWorkers(), is(3));
+
+    pool.trimIdleWorkers(clock.addAndGet(idleTimeout / 2));
+    assertThat(pool.getStats().getRunningWorkers(), is(3));
+
+    pool.trimIdleWorkers(clock.addAndGet(idleTimeout));
+    assertThat(pool.getStats().getRunningWorkers(), is(1));
+    assertThat(createdWorkers.stream().filter(WorkerProcess::isAlive).count(), is(1L));
+
+    // a shut down worker is started again when it is needed
+    acquireWorkersThenRelease(pool, 2);
+    assertThat(pool.getStats().getRunningWorkers(), is(2));
+    assertThat(createdWorkers.size(), is(4));
+    pool.close();
+  }
+
+  @Test
+  public void testShutsDownIdleWorkersOneAtATimeWhenLowOnMemory() throws Exception {
+    AtomicLong clock = new AtomicLong();
+    AtomicReference<Double> availableMemory = new AtomicReference<>(0.5);
+    WorkerProcessPool pool =
+        createAdaptivePool(
+            4,
+            1,
+            availableMemory::get,
+            clock,
+            () -> new FakeWorkerProcess(ImmutableMap.of()));
+
+    acquireWorkersThenRunActionThenRelease(
+        pool,
+        3,
+        () -> {
+          try (BorrowedWorkerProcess worker = pool.borrowWorkerProcess()) {
+            worker.get();
+          }
+          availableMemory.set(0.01);
+          // workers in use are never shut down
+          pool.trimIdleWorkers(clock.incrementAndGet());
+          assertThat(pool.getStats().getRunningWorkers(), is(4));
+        });
+
+    pool.trimIdleWorkers(clock.incrementAndGet());
+    assertThat(pool.getStats().getRunningWorkers(), is(3));
+
+    // the pool stays low on memory until clearly more memory is available again
+    availableMemory.set(0.07);
+    pool.trimIdleWorkers(clock.incrementAndGet());
+    assertThat(pool.getStats().getRunningWorkers(), is(2));
+    availableMemory.set(0.2);
+    pool.trimIdleWorkers(clock.incrementAndGet());
+    assertThat(pool.getStats().getRunningWorkers(), is(2));
+    availableMemory.set(0.07);
+    pool.trimIdleWorkers(clock.incrementAndGet());
+    assertThat(pool.getStats().getRunningWorkers(), is(2));
+
+    // the most recently used worker is kept
+    availableMemory.set(0.01);
+    pool.trimIdleWorkers(clock.incrementAndGet());
+    pool.trimIdleWorkers(clock.incrementAndGet());
+    assertThat(pool.getStats().getRunningWorkers(), is(1));
+    pool.close();
+  }
+
+  @Test
+  public void testTracksQueueWaitAndUtilization() throws Exception {
+    AtomicLong clock = new AtomicLong();
+    WorkerProcessPool pool =
+        createAdaptivePool(
+            2, 1, () -> 1, clock, () -> new FakeWorkerProcess(ImmutableMap.of()));
+
+    try (BorrowedWorkerProcess worker = pool.borrowWorkerProcess()) {
+      worker.get();
+      clock.addAndGet(100);
+      WorkerProcessPoolStats stats = pool.getStats();
+      assertThat(stats.getActiveJobs(), is(1));
+      assertThat(stats.getQueuedJobs(), is(0));
+    }
+
+    WorkerProcessPoolStats stats = pool.getStats();
+    assertThat(stats.getBorrowCount(), is(1L));
+    assertThat(stats.getActiveJobs(), is(0));
+    assertThat(stats.getTotalBusyNanos(), is(100L));
+    assertThat(stats.getLifetimeNanos(), is(100L));
+    assertThat(stats.getUtilization(), is(0.5));
+    pool.close();
+  }
+
   private static WorkerProcessPool createPool(
       int maxWorkers, ThrowingSupplier<WorkerProcess, IOException> startWorkerProcess) {
     return new WorkerProcessPool(
@@ -409,6 +589,26 @@ public class WorkerProcessPoolTest {
         });
   }
 
+  private static WorkerProcessPool createAdaptivePool(
+      int maxWorkers,
+      int maxRequestsPerWorker,
+      DoubleSupplier availableMemoryFraction,
+      AtomicLong clock,
+      ThrowingSupplier<WorkerProcess, IOException> startWorkerProcess) {
+    return new WorkerProcessPool(
+        maxWorkers,
+        maxRequestsPerWorker,
+        Hashing.sha1().hashLong(0),
+        () -> {
+          WorkerProcess workerProcess = startWorkerProcess.get();
+          workerProcess.ensureLaunchAndHandshake();
+          return workerProcess;
+        },
+        availableMemoryFraction,
+        TimeUnit.MINUTES.toNanos(1),
+        clock::get);
+  }
+
   private static <T> Set<T> concurrentSet() {
     return Collections.newSetFromMap(new ConcurrentHashMap<>());
   }
@@ -457,6 +657,44 @@ public class WorkerProcessPoolTest {
     void run() throws Exception;
   }
 
+  private static class MultiplexingFakeWorkerProcess extends FakeWorkerProcess {
+    MultiplexingFakeWorkerProcess() throws IOException {
+      super(ImmutableMap.of());
+    }
+
+    @Override
+    public boolean supportsMultiplexing() {
+      return isAlive();
+    }
+  }
+
+  /** A multiplexing worker that can answer retire:true while other jobs are still running. */
+  private static class RetiringFakeWorkerProcess extends MultiplexingFakeWorkerProcess {
+    private volatile boolean retired = false;
+    private volatile boolean closed = false;
+
+    RetiringFakeWorkerProcess() throws IOException {}
+
+    void retire() {
+      retired = true;
+    }
+
+    boolean wasClosed() {
+      return closed;
+    }
+
+    @Override
+    public boolean isAlive() {
+      return !retired && !closed && super.isAlive();
+    }
+
+    @Override
+    public void close() {
+      Preconditions.checkState(!closed, "Closing a process twice?");
+      closed = true;
+    }
+  }
+
   private static class TestThreads implements AutoCloseable {
 
     private boolean isClosed = false;
@@ -16,6 +16,7 @@
 
 package com.facebook.buck.worker;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -110,6 +111,79 @@ public class WorkerProcessProtocolZeroTest {
     protocol.handshake(handshakeID);
   }
 
+  @Test
+  public void testReceiveHandshakeWithCapabilities() throws IOException {
+    int handshakeID = 123;
+    InputStream jsonReader =
+        inputStream(
+            String.format(
+                "[{\"id\":%d,\"type\":\"handshake\",\"protocol_version\":\"0\","
+                    + "\"capabilities\":[\"multiplexing\",\"something_else\"]}",
+                handshakeID));
+
+    WorkerProcessProtocol.CommandSender protocol =
+        new WorkerProcessProtocolZero.CommandSender(
+            dummyOutputStream, jsonReader, newTempFile(), () -> {}, () -> true);
+
+    assertFalse(protocol.supportsMultiplexing());
+    protocol.handshake(handshakeID);
+    assertTrue(protocol.supportsMultiplexing());
+  }
+
+  @Test
+  public void testReceiveHandshakeWithoutCapabilitiesDoesNotMultiplex() throws IOException {
+    int handshakeID = 123;
+    WorkerProcessProtocol.CommandSender protocol =
+        new WorkerProcessProtocolZero.CommandSender(
+            dummyOutputStream,
+            createMockJsonReaderForReceiveHandshake(handshakeID, "handshake", "0"),
+            newTempFile(),
+            () -> {},
+            () -> true);
+
+    protocol.handshake(handshakeID);
+    assertFalse(protocol.supportsMultiplexing());
+  }
+
+  @Test
+  public void testReceiveNextCommandResponsesInAnyOrder() throws IOException {
+    InputStream jsonReader =
+        inputStream(
+            "[{\"id\":2,\"type\":\"result\",\"exit_code\":3}"
+                + ",{\"id\":1,\"type\":\"error\",\"exit_code\":1}");
+
+    WorkerProcessProtocolZero.CommandSender protocol =
+        new WorkerProcessProtocolZero.CommandSender(
+            dummyOutputStream, jsonReader, newTempFile(), () -> {}, () -> true);
+    // the handshake opens the array of responses
+    protocol.getProcessStdoutReader().beginArray();
+
+    assertThat(
+        protocol.receiveNextCommandResponse(),
+        Matchers.equalTo(ImmutableWorkerProcessCommandResponse.of(2, 3)));
+    assertThat(
+        protocol.receiveNextCommandResponse(),
+        Matchers.equalTo(ImmutableWorkerProcessCommandResponse.of(1, 1)));
+  }
+
+  @Test
+  public void testReceiveCommandResponseOfRetiringWorker() throws IOException {
+    InputStream jsonReader =
+        inputStream(
+            "[{\"id\":1,\"type\":\"result\",\"exit_code\":0}"
+                + ",{\"id\":2,\"type\":\"result\",\"exit_code\":0,\"retire\":true}");
+
+    WorkerProcessProtocolZero.CommandSender protocol =
+        new WorkerProcessProtocolZero.CommandSender(
+            dummyOutputStream, jsonReader, newTempFile(), () -> {}, () -> true);
+    protocol.getProcessStdoutReader().beginArray();
+
+    protocol.receiveCommandResponse(1);
+    assertFalse(protocol.isRetiring());
+    protocol.receiveCommandResponse(2);
+    assertTrue(protocol.isRetiring());
+  }
+
   private InputStream createMockJsonReaderForReceiveCommandResponse(
       int messageID, String type, int exitCode) {
     String jsonToBeRead =
@@ -42,7 +42,15 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.hamcrest.Matchers;
 import org.junit.Rule;
 import org.junit.Test;
@@ -109,6 +117,107 @@ public class WorkerProcessTest {
     }
   }
 
+  @Test(timeout = 10 * 1000)
+  public void testMultiplexedJobsReceiveTheirOwnResponses() throws Exception {
+    int numJobs = 4;
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    Path tmpPath = Files.createTempDirectory("tmp").toAbsolutePath().normalize();
+    CountDownLatch allJobsSent = new CountDownLatch(numJobs);
+    Deque<WorkerProcessCommand> sentCommands = new ConcurrentLinkedDeque<>();
+
+    try (WorkerProcess process =
+        new WorkerProcess(
+            new FakeProcessExecutor(),
+            createDummyParams(),
+            filesystem,
+            tmpPath.resolve("stderr"),
+            tmpPath)) {
+      process.setProtocol(
+          new FakeWorkerProcessProtocol.FakeCommandSender() {
+            private final Deque<Integer> sentIds = new ConcurrentLinkedDeque<>();
+
+            @Override
+            public void send(int messageId, WorkerProcessCommand command) {
+              sentIds.add(messageId);
+              sentCommands.add(command);
+              allJobsSent.countDown();
+            }
+
+            @Override
+            public WorkerProcessCommandResponse receiveNextCommandResponse() throws IOException {
+              try {
+                allJobsSent.await();
+              } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+              }
+              // answer in reverse order, echoing the job arguments
+              int id = sentIds.removeLast();
+              WorkerProcessCommand command =
+                  sentCommands.stream()
+                      .filter(c -> c.getArgsPath().endsWith(id + ".args"))
+                      .findFirst()
+                      .get();
+              String args = filesystem.readFileIfItExists(command.getArgsPath()).get();
+              filesystem.writeContentsToPath(args, command.getStdOutPath());
+              return ImmutableWorkerProcessCommandResponse.of(id, Integer.parseInt(args));
+            }
+
+            @Override
+            public boolean supportsMultiplexing() {
+              return true;
+            }
+          });
+
+      ExecutorService executor = Executors.newFixedThreadPool(numJobs);
+      try {
+        List<Future<WorkerJobResult>> results = new ArrayList<>();
+        for (int i = 0; i < numJobs; i++) {
+          String args = Integer.toString(i);
+          results.add(executor.submit(() -> process.submitAndWaitForJob(args)));
+        }
+        for (int i = 0; i < numJobs; i++) {
+          WorkerJobResult result = results.get(i).get();
+          assertThat(result.getExitCode(), is(i));
+          assertThat(result.getStdout(), is(Optional.of(Integer.toString(i))));
+        }
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+  }
+
+  @Test(timeout = 10 * 1000)
+  public void testMultiplexedJobsFailWhenTheStreamBreaks() throws Exception {
+    Path tmpPath = Files.createTempDirectory("tmp").toAbsolutePath().normalize();
+    try (WorkerProcess process =
+        new WorkerProcess(
+            new FakeProcessExecutor(),
+            createDummyParams(),
+            new FakeProjectFilesystem(),
+            tmpPath.resolve("stderr"),
+            tmpPath)) {
+      process.setProtocol(
+          new FakeWorkerProcessProtocol.FakeCommandSender() {
+            @Override
+            public WorkerProcessCommandResponse receiveNextCommandResponse() throws IOException {
+              throw new IOException("worker went away");
+            }
+
+            @Override
+            public boolean supportsMultiplexing() {
+              return true;
+            }
+          });
+
+      try {
+        process.submitAndWaitForJob("args");
+        fail("Expected the job to fail.");
+      } catch (IOException e) {
+        assertThat(e.getMessage(), is("worker went away"));
+      }
+    }
+  }
+
   @Test(timeout = 20 * 1000)
   public void testDoesNotBlockOnLargeStderr() throws IOException {
     ProjectWorkspace workspace =
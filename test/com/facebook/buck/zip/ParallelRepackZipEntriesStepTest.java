@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.zip.ZipCompressionLevel;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Resources;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ParallelRepackZipEntriesStepTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+  private Path parent;
+  private Path zipFile;
+  private byte[] sample;
+  private ProjectFilesystem filesystem;
+
+  @Before
+  public void buildSampleZipFile() throws IOException {
+    parent = tmp.newFolder("foo");
+    filesystem = TestProjectFilesystems.createProjectFilesystem(parent);
+    zipFile = parent.resolve("example.zip");
+
+    String packageName = getClass().getPackage().getName().replace('.', '/');
+    URL url = Resources.getResource(packageName + "/sample-bytes.dat");
+    sample = Resources.toByteArray(url);
+    try (ZipOutputStream stream = new ZipOutputStream(Files.newOutputStream(zipFile))) {
+      stream.putNextEntry(new ZipEntry("file"));
+      stream.write(sample);
+      stream.putNextEntry(new ZipEntry("other"));
+      stream.write(sample);
+    }
+  }
+
+  @Test
+  public void entriesWhichAreNotRepackedAreCopiedAsIs() throws Exception {
+    Path out = parent.resolve("output.zip");
+    new ParallelRepackZipEntriesStep(filesystem, zipFile, out, ImmutableSet.of())
+        .execute(TestExecutionContext.newInstance());
+
+    try (ZipFile input = new ZipFile(zipFile.toFile());
+        ZipFile output = new ZipFile(out.toFile())) {
+      for (String name : ImmutableSet.of("file", "other")) {
+        assertEquals(
+            input.getEntry(name).getCompressedSize(), output.getEntry(name).getCompressedSize());
+        assertArrayEquals(sample, read(output, name));
+      }
+    }
+  }
+
+  @Test
+  public void justStoringEntriesLeadsToMoreBytesInOuputZip() throws Exception {
+    Path out = parent.resolve("output.zip");
+    new ParallelRepackZipEntriesStep(
+            filesystem, zipFile, out, ImmutableSet.of("file"), ZipCompressionLevel.NONE)
+        .execute(TestExecutionContext.newInstance());
+
+    assertTrue(Files.size(zipFile) < Files.size(out));
+    try (ZipFile output = new ZipFile(out.toFile())) {
+      assertEquals(ZipEntry.STORED, output.getEntry("file").getMethod());
+      assertEquals(ZipEntry.DEFLATED, output.getEntry("other").getMethod());
+      assertArrayEquals(sample, read(output, "file"));
+    }
+  }
+
+  private static byte[] read(ZipFile zip, String name) throws IOException {
+    try (InputStream in = zip.getInputStream(zip.getEntry(name))) {
+      return ByteStreams.toByteArray(in);
+    }
+  }
+}